@@ -195,4 +195,13 @@ public final class AndroidNfcConnection extends AbstractApduConnectionIso7816 {
     public int getMaxApduSize() {
         return 0xff;
     }
+
+    @Override
+    public int getMaxResponseDataSize() {
+    	if (this.mIsoDep.isExtendedLengthApduSupported()) {
+    		// Descontamos la palabra de estado
+    		return this.mIsoDep.getMaxTransceiveLength() - 2;
+    	}
+    	return super.getMaxResponseDataSize();
+    }
 }
@@ -262,4 +262,14 @@ public final class AndroidCCIDConnection implements ApduConnection {
 	public ApduConnection getSubConnection() {
 		return null; // Esta es la conexion de mas bajo nivel
 	}
+
+	@Override
+	public int getMaxApduSize() {
+		return 0xff;
+	}
+
+	@Override
+	public int getMaxResponseDataSize() {
+		return 0x100;
+	}
 }
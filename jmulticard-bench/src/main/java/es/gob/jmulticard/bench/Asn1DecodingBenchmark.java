@@ -0,0 +1,181 @@
+package es.gob.jmulticard.bench;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import es.gob.jmulticard.BcCryptoHelper;
+import es.gob.jmulticard.asn1.Asn1Exception;
+import es.gob.jmulticard.asn1.DecoderObject;
+import es.gob.jmulticard.asn1.DecoderObjectFactory;
+import es.gob.jmulticard.asn1.Tlv;
+import es.gob.jmulticard.asn1.der.DerInteger;
+import es.gob.jmulticard.asn1.der.OctectString;
+import es.gob.jmulticard.asn1.der.Utf8String;
+import es.gob.jmulticard.asn1.der.pkcs15.AccessFlags;
+import es.gob.jmulticard.asn1.der.pkcs15.Cdf;
+import es.gob.jmulticard.asn1.der.pkcs15.CommonObjectAttributes;
+import es.gob.jmulticard.asn1.der.pkcs15.Path;
+import es.gob.jmulticard.asn1.der.pkcs15.PrKdf;
+import es.gob.jmulticard.asn1.icao.Com;
+import es.gob.jmulticard.asn1.icao.LdsSecurityObject;
+
+/** Pruebas de rendimiento de la decodificaci&oacute;n de estructuras ASN&#46;1, comparando la
+ * instanciaci&oacute;n de elementos por reflexi&oacute;n en cada uso (y el descarte de los opcionales
+ * mediante excepciones) con las factor&iacute;as de tipo y la comprobaci&oacute;n previa de etiquetas.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Asn1DecodingBenchmark {
+
+	/** Tipos de elementos habituales en las estructuras PKCS#15. */
+	@SuppressWarnings("unchecked")
+	private static final Class<? extends DecoderObject>[] ELEMENT_TYPES = new Class[] {
+		CommonObjectAttributes.class,
+		Utf8String.class,
+		AccessFlags.class,
+		OctectString.class,
+		DerInteger.class,
+		Path.class
+	};
+
+	/** Proveedores de los mismos tipos, tal y como los declaran los esquemas. */
+	private static final List<Supplier<? extends DecoderObject>> ELEMENT_SUPPLIERS = Arrays.<Supplier<? extends DecoderObject>>asList(
+		CommonObjectAttributes::new,
+		Utf8String::new,
+		AccessFlags::new,
+		OctectString::new,
+		DerInteger::new,
+		Path::new
+	);
+
+	/** Etiqueta que no corresponde a ninguno de los tipos anteriores (contexto espec&iacute;fico 1). */
+	private static final byte ABSENT_TAG = (byte) 0xA1;
+
+	private byte[] cdf;
+	private byte[] prkdf;
+	private byte[] com;
+	private byte[] ldsSecurityObject;
+
+	private DecoderObjectFactory[] factories;
+
+	/** Carga los datos grabados de tarjetas reales.
+	 * @throws Exception Si no se pueden cargar los datos. */
+	@Setup
+	public void setup() throws Exception {
+		BenchData.silenceLogging();
+		this.cdf = BenchData.load("CDF_TGM.BER"); //$NON-NLS-1$
+		this.prkdf = BenchData.load("PRKDF_TGM.BER"); //$NON-NLS-1$
+		this.com = BenchData.load("COM_4597557380740618141.asn1"); //$NON-NLS-1$
+		final Tlv sod = new Tlv(BenchData.load("SOD_1223499971262354764.asn1")); //$NON-NLS-1$
+		this.ldsSecurityObject = new BcCryptoHelper().getCmsSignatureSignedContent(sod.getValue());
+		this.factories = new DecoderObjectFactory[ELEMENT_SUPPLIERS.size()];
+		for (int i = 0; i < this.factories.length; i++) {
+			this.factories[i] = DecoderObjectFactory.getInstance(ELEMENT_SUPPLIERS.get(i));
+		}
+	}
+
+	/** Decodificaci&oacute;n de un CDF PKCS#15.
+	 * @return CDF decodificado.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public Cdf decodeCdf() throws Exception {
+		final Cdf c = new Cdf();
+		c.setDerValue(this.cdf);
+		return c;
+	}
+
+	/** Decodificaci&oacute;n de un PrKDF PKCS#15.
+	 * @return PrKDF decodificado.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public PrKdf decodePrKdf() throws Exception {
+		final PrKdf p = new PrKdf();
+		p.setDerValue(this.prkdf);
+		return p;
+	}
+
+	/** Decodificaci&oacute;n del <code>LDSSecurityObject</code> de un SOD.
+	 * @return <code>LDSSecurityObject</code> decodificado.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public LdsSecurityObject decodeLdsSecurityObject() throws Exception {
+		final LdsSecurityObject lso = new LdsSecurityObject();
+		lso.setDerValue(this.ldsSecurityObject);
+		return lso;
+	}
+
+	/** Decodificaci&oacute;n del EF&#46;COM de un MRTD.
+	 * @return EF&#46;COM decodificado.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public Com decodeCom() throws Exception {
+		final Com c = new Com();
+		c.setDerValue(this.com);
+		return c;
+	}
+
+	/** Instanciaci&oacute;n de elementos resolviendo el constructor por reflexi&oacute;n en cada uso
+	 * (comportamiento anterior de <code>Sequence</code> y <code>Record</code>).
+	 * @param bh Sumidero de resultados.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public void instantiateReflective(final Blackhole bh) throws Exception {
+		for (final Class<? extends DecoderObject> type : ELEMENT_TYPES) {
+			bh.consume(type.getConstructor().newInstance());
+		}
+	}
+
+	/** Instanciaci&oacute;n de elementos mediante las factor&iacute;as de los esquemas, sin reflexi&oacute;n.
+	 * @param bh Sumidero de resultados.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public void instantiateFactory(final Blackhole bh) throws Exception {
+		for (final DecoderObjectFactory factory : this.factories) {
+			bh.consume(factory.newInstance());
+		}
+	}
+
+	/** Descarte de elementos opcionales ausentes instanci&aacute;ndolos y capturando la excepci&oacute;n
+	 * de etiqueta incorrecta (comportamiento anterior).
+	 * @param bh Sumidero de resultados.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public void skipOptionalByException(final Blackhole bh) throws Exception {
+		for (final Class<? extends DecoderObject> type : ELEMENT_TYPES) {
+			try {
+				type.getConstructor().newInstance().checkTag(ABSENT_TAG);
+				bh.consume(true);
+			}
+			catch (final Asn1Exception e) {
+				bh.consume(false);
+			}
+		}
+	}
+
+	/** Descarte de elementos opcionales ausentes comprobando antes la etiqueta, sin instanciarlos.
+	 * @param bh Sumidero de resultados. */
+	@Benchmark
+	public void skipOptionalByTag(final Blackhole bh) {
+		for (final DecoderObjectFactory factory : this.factories) {
+			bh.consume(factory.isCompatibleTag(ABSENT_TAG));
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package es.gob.jmulticard.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import es.gob.jmulticard.card.AtrRegistry;
+
+/** Pruebas de rendimiento de la identificaci&oacute;n de tarjetas por su ATR con el
+ * registro de ATR, con ATR de varias tarjetas soportadas y de una no soportada.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AtrClassificationBenchmark {
+
+	private static final byte[][] ATRS = {
+		// DNIe 2.0
+		{
+			(byte) 0x3B, (byte) 0x7F, (byte) 0x38, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x6A, (byte) 0x44, (byte) 0x4E, (byte) 0x49,
+			(byte) 0x65, (byte) 0x10, (byte) 0x02, (byte) 0x4C, (byte) 0x34, (byte) 0x01, (byte) 0x13, (byte) 0x03, (byte) 0x90, (byte) 0x00
+		},
+		// FNMT CERES 4.30
+		{
+			(byte) 0x3B, (byte) 0x7F, (byte) 0x96, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x6A, (byte) 0x46, (byte) 0x4E, (byte) 0x4D,
+			(byte) 0x54, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x04, (byte) 0x30, (byte) 0x03, (byte) 0x90, (byte) 0x00
+		},
+		// G&D SmartCafe 3.2
+		{
+			(byte) 0x3b, (byte) 0xf7, (byte) 0x18, (byte) 0x00, (byte) 0x00, (byte) 0x80, (byte) 0x31, (byte) 0xfe, (byte) 0x45, (byte) 0x73,
+			(byte) 0x66, (byte) 0x74, (byte) 0x65, (byte) 0x2d, (byte) 0x6e, (byte) 0x66, (byte) 0xc4
+		},
+		// No soportada
+		{
+			(byte) 0x3B, (byte) 0x6E, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x31, (byte) 0xC0, (byte) 0x71, (byte) 0xD6, (byte) 0x65,
+			(byte) 0x11, (byte) 0x22, (byte) 0x33, (byte) 0x01, (byte) 0x90, (byte) 0x00
+		}
+	};
+
+	private AtrRegistry registry;
+
+	/** Crea el registro de ATR por defecto. */
+	@Setup
+	public void setup() {
+		BenchData.silenceLogging();
+		this.registry = AtrRegistry.getInstance();
+	}
+
+	/** Identificaci&oacute;n de los ATR de prueba.
+	 * @param bh Sumidero de resultados. */
+	@Benchmark
+	public void classify(final Blackhole bh) {
+		for (final byte[] atr : ATRS) {
+			bh.consume(this.registry.classify(atr));
+		}
+	}
+}
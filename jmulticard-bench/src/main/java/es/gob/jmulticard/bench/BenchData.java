@@ -0,0 +1,84 @@
+package es.gob.jmulticard.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Utilidades de carga de los datos grabados de tarjetas reales usados en las pruebas de rendimiento.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+final class BenchData {
+
+	private static final int BUFFER_SIZE = 4096;
+
+	/** Se mantiene la referencia para que no se pierda la configuraci&oacute;n del registro. */
+	private static final Logger LOGGER = Logger.getLogger("es.gob.jmulticard"); //$NON-NLS-1$
+
+	private BenchData() {
+		// No instanciable
+	}
+
+	/** Desactiva el registro de la biblioteca (salvo errores graves), para que no
+	 * distorsione las medidas. */
+	static void silenceLogging() {
+		LOGGER.setLevel(Level.SEVERE);
+	}
+
+	/** Carga un recurso del m&oacute;dulo de pruebas de rendimiento.
+	 * @param name Nombre del recurso.
+	 * @return Contenido del recurso.
+	 * @throws IOException Si el recurso no existe o no puede leerse. */
+	static byte[] load(final String name) throws IOException {
+		try (final InputStream is = BenchData.class.getResourceAsStream("/" + name)) { //$NON-NLS-1$
+			if (is == null) {
+				throw new IOException("No se encuentra el recurso " + name); //$NON-NLS-1$
+			}
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			int n;
+			while ((n = is.read(buffer)) > 0) {
+				baos.write(buffer, 0, n);
+			}
+			return baos.toByteArray();
+		}
+	}
+
+	/** Carga una sesi&oacute;n grabada (claves, contador de secuencia y APDU en hexadecimal).
+	 * @param name Nombre del recurso de propiedades con la sesi&oacute;n.
+	 * @return Propiedades de la sesi&oacute;n.
+	 * @throws IOException Si el recurso no existe o no puede leerse. */
+	static Properties loadSession(final String name) throws IOException {
+		final Properties p = new Properties();
+		try (final InputStream is = BenchData.class.getResourceAsStream("/" + name)) { //$NON-NLS-1$
+			if (is == null) {
+				throw new IOException("No se encuentra el recurso " + name); //$NON-NLS-1$
+			}
+			p.load(is);
+		}
+		return p;
+	}
+
+	/** Obtiene el valor binario de una propiedad en hexadecimal de una sesi&oacute;n grabada.
+	 * @param session Sesi&oacute;n grabada.
+	 * @param key Nombre de la propiedad.
+	 * @return Valor binario de la propiedad.
+	 * @throws IOException Si la propiedad no existe o no es hexadecimal. */
+	static byte[] getHex(final Properties session, final String key) throws IOException {
+		final String hex = session.getProperty(key);
+		if (hex == null || hex.length() % 2 != 0) {
+			throw new IOException("La propiedad " + key + " no existe o no es hexadecimal"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		final byte[] ret = new byte[hex.length() / 2];
+		for (int i = 0; i < ret.length; i++) {
+			final int hi = Character.digit(hex.charAt(2 * i), 16);
+			final int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+			if (hi < 0 || lo < 0) {
+				throw new IOException("La propiedad " + key + " no es hexadecimal"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			ret[i] = (byte) (hi << 4 | lo);
+		}
+		return ret;
+	}
+}
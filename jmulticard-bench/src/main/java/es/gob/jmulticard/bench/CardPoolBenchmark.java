@@ -0,0 +1,105 @@
+package es.gob.jmulticard.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.PasswordCallback;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.gob.jmulticard.BcCryptoHelper;
+import es.gob.jmulticard.callback.CustomAuthorizeCallback;
+import es.gob.jmulticard.card.CryptoCard;
+import es.gob.jmulticard.card.CryptoCardException;
+import es.gob.jmulticard.card.PinException;
+import es.gob.jmulticard.card.dnie.Dnie;
+import es.gob.jmulticard.card.dnie.DnieCardSimulator;
+import es.gob.jmulticard.card.dnie.DnieFactory;
+import es.gob.jmulticard.connection.loopback.LoopbackConnection;
+import es.gob.jmulticard.jse.provider.CardPool;
+
+/** Pruebas de rendimiento de firmas concurrentes repartidas entre varios DNIe simulados
+ * con latencia de lector, para comprobar que el rendimiento crece con el n&uacute;mero de tarjetas.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class CardPoolBenchmark {
+
+	private static final String PIN = "password"; //$NON-NLS-1$
+
+	private static final byte[] DATA = "Hola Mundo!!".getBytes(); //$NON-NLS-1$
+
+	private static final CardPool.CardOperation<byte[]> SIGN = new CardPool.CardOperation<byte[]>() {
+		@Override
+		public byte[] execute(final CryptoCard card) throws CryptoCardException, PinException {
+			return card.sign(DATA, "SHA256withRSA", card.getPrivateKey(Dnie.CERT_ALIAS_SIGN)); //$NON-NLS-1$
+		}
+	};
+
+	/** N&uacute;mero de tarjetas del conjunto. */
+	@Param({ "1", "2", "4", "8" })
+	public int cards;
+
+	private CardPool pool;
+
+	/** Crea los DNIe simulados, con una latencia por APDU de un milisegundo.
+	 * @throws Exception Si no se pueden crear los DNIe simulados. */
+	@Setup
+	public void setup() throws Exception {
+		BenchData.silenceLogging();
+		final CallbackHandler callbackHandler = new CallbackHandler() {
+			@Override
+			public void handle(final Callback[] callbacks) {
+				for (final Callback cb : callbacks) {
+					if (cb instanceof PasswordCallback) {
+						((PasswordCallback) cb).setPassword(PIN.toCharArray());
+					}
+					else if (cb instanceof CustomAuthorizeCallback) {
+						((CustomAuthorizeCallback) cb).setAuthorized(true);
+					}
+				}
+			}
+		};
+		final List<CryptoCard> poolCards = new ArrayList<>(this.cards);
+		for (int i = 0; i < this.cards; i++) {
+			final LoopbackConnection conn = new LoopbackConnection(new DnieCardSimulator(PIN, new BcCryptoHelper()));
+			conn.setApduLatency(1, TimeUnit.MILLISECONDS);
+			poolCards.add(DnieFactory.getDnie(conn, null, new BcCryptoHelper(), callbackHandler));
+		}
+		this.pool = new CardPool(poolCards);
+	}
+
+	/** Cierra el conjunto de tarjetas. */
+	@TearDown
+	public void tearDown() {
+		this.pool.close();
+	}
+
+	/** Firma con la primera tarjeta libre del conjunto.
+	 * @return Firma generada.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public byte[] sign() throws Exception {
+		return this.pool.execute(SIGN);
+	}
+}
@@ -0,0 +1,62 @@
+package es.gob.jmulticard.bench;
+
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.gob.jmulticard.BcCryptoHelper;
+import es.gob.jmulticard.CryptoHelper;
+import es.gob.jmulticard.card.CompressionUtils;
+
+/** Pruebas de rendimiento de la obtenci&oacute;n de certificados comprimidos (esquema FNMT)
+ * y sin comprimir mediante <code>CompressionUtils</code>.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CertificateInflationBenchmark {
+
+	private final CryptoHelper cryptoHelper = new BcCryptoHelper();
+
+	private byte[] compressedCertificate;
+	private byte[] certificate;
+
+	/** Carga los certificados.
+	 * El certificado comprimido lleva la cabecera de ocho octetos del esquema FNMT, que se ignora al descomprimir.
+	 * @throws Exception Si no se pueden cargar los certificados. */
+	@Setup
+	public void setup() throws Exception {
+		BenchData.silenceLogging();
+		this.compressedCertificate = BenchData.load("CERT_COMPRESSED.bin"); //$NON-NLS-1$
+		this.certificate = BenchData.load("DNICERT.cer"); //$NON-NLS-1$
+	}
+
+	/** Descompresi&oacute;n y decodificaci&oacute;n de un certificado comprimido.
+	 * @return Certificado.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public X509Certificate inflateCompressed() throws Exception {
+		return CompressionUtils.getCertificateFromCompressedOrNotData(this.compressedCertificate, this.cryptoHelper);
+	}
+
+	/** Decodificaci&oacute;n de un certificado sin comprimir (tras fallar el intento de descompresi&oacute;n).
+	 * @return Certificado.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public X509Certificate uncompressedFallback() throws Exception {
+		return CompressionUtils.getCertificateFromCompressedOrNotData(this.certificate, this.cryptoHelper);
+	}
+}
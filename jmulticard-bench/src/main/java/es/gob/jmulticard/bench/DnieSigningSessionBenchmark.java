@@ -0,0 +1,74 @@
+package es.gob.jmulticard.bench;
+
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.Signature;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.gob.jmulticard.BcCryptoHelper;
+import es.gob.jmulticard.card.dnie.Dnie;
+import es.gob.jmulticard.card.dnie.DnieCardSimulator;
+import es.gob.jmulticard.connection.loopback.LoopbackConnection;
+import es.gob.jmulticard.jse.provider.DnieProvider;
+
+/** Pruebas de rendimiento de sesiones completas de firma a trav&eacute;s de
+ * <code>DnieProvider</code> con un DNIe simulado (carga del almac&eacute;n, canal seguro
+ * CWA-14890, PIN y firma), con latencia por APDU configurable para separar el coste
+ * de la capa Java del del lector.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DnieSigningSessionBenchmark {
+
+	private static final char[] PIN = "password".toCharArray(); //$NON-NLS-1$
+
+	private static final byte[] DATA = "Hola Mundo!!".getBytes(); //$NON-NLS-1$
+
+	/** Latencia a&ntilde;adida a cada APDU, en microsegundos. */
+	@Param({ "0", "1000" })
+	public long apduLatencyMicros;
+
+	private Provider provider;
+
+	/** Crea el DNIe simulado y su proveedor.
+	 * @throws Exception Si no se puede crear el DNIe simulado. */
+	@Setup
+	public void setup() throws Exception {
+		BenchData.silenceLogging();
+		final LoopbackConnection conn = new LoopbackConnection(
+			new DnieCardSimulator(new String(PIN), new BcCryptoHelper())
+		);
+		conn.setApduLatency(this.apduLatencyMicros, TimeUnit.MICROSECONDS);
+		this.provider = new DnieProvider(conn);
+	}
+
+	/** Sesi&oacute;n completa de firma: carga del almac&eacute;n y una firma SHA256withRSA.
+	 * @return Firma generada.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public byte[] signingSession() throws Exception {
+		final KeyStore ks = KeyStore.getInstance("DNI", this.provider); //$NON-NLS-1$
+		ks.load(null, PIN);
+		final Signature signature = Signature.getInstance("SHA256withRSA", this.provider); //$NON-NLS-1$
+		signature.initSign((PrivateKey) ks.getKey(Dnie.CERT_ALIAS_SIGN, PIN));
+		signature.update(DATA);
+		return signature.sign();
+	}
+}
@@ -0,0 +1,72 @@
+package es.gob.jmulticard.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.gob.jmulticard.card.icao.MrzInfo;
+import es.gob.jmulticard.card.icao.vdsned.Vdsned;
+
+/** Pruebas de rendimiento del an&aacute;lisis de MRZ y de sellos digitales visibles
+ * (VDS-NED) de ICAO.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IcaoParsingBenchmark {
+
+	/** MRZ de tres l&iacute;neas (TD1) del esp&eacute;cimen de ICAO 9303. */
+	private static final String MRZ_TD1 =
+		"I<UTOD231458907<<<<<<<<<<<<<<<" + //$NON-NLS-1$
+		"7408122F1204159UTO<<<<<<<<<<<6" + //$NON-NLS-1$
+		"ERIKSSON<<ANNA<MARIA<<<<<<<<<<"; //$NON-NLS-1$
+
+	/** MRZ de dos l&iacute;neas (TD3) del esp&eacute;cimen de ICAO 9303. */
+	private static final String MRZ_TD3 =
+		"P<UTOERIKSSON<<ANNA<MARIA<<<<<<<<<<<<<<<<<<<" + //$NON-NLS-1$
+		"L898902C36UTO7408122F1204159ZE184226B<<<<<10"; //$NON-NLS-1$
+
+	private byte[] vdsned;
+
+	/** Carga el sello digital de ejemplo.
+	 * @throws Exception Si no se puede cargar el sello. */
+	@Setup
+	public void setup() throws Exception {
+		BenchData.silenceLogging();
+		this.vdsned = BenchData.load("VDSNED_SAMPLE.bin"); //$NON-NLS-1$
+	}
+
+	/** An&aacute;lisis de una MRZ TD1 (documento de identidad).
+	 * @return MRZ analizada. */
+	@Benchmark
+	public MrzInfo parseMrzTd1() {
+		return new MrzInfo(MRZ_TD1);
+	}
+
+	/** An&aacute;lisis de una MRZ TD3 (pasaporte).
+	 * @return MRZ analizada. */
+	@Benchmark
+	public MrzInfo parseMrzTd3() {
+		return new MrzInfo(MRZ_TD3);
+	}
+
+	/** An&aacute;lisis de un sello digital visible VDS-NED.
+	 * @return Sello analizado.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public Vdsned parseVdsned() throws Exception {
+		return new Vdsned(this.vdsned);
+	}
+}
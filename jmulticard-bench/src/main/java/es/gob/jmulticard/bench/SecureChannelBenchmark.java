@@ -0,0 +1,141 @@
+package es.gob.jmulticard.bench;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.gob.jmulticard.BcCryptoHelper;
+import es.gob.jmulticard.CryptoHelper;
+import es.gob.jmulticard.apdu.CommandApdu;
+import es.gob.jmulticard.apdu.ResponseApdu;
+import es.gob.jmulticard.connection.AbstractApduEncrypter;
+import es.gob.jmulticard.connection.ApduEncrypterAes;
+import es.gob.jmulticard.connection.ApduEncrypterDes;
+import es.gob.jmulticard.connection.ApduEncrypterDesMac8;
+import es.gob.jmulticard.connection.CipheredApdu;
+import es.gob.jmulticard.de.tsenger.androsmex.iso7816.SecureMessaging;
+
+/** Pruebas de rendimiento de la protecci&oacute;n de APDU en los canales seguros CWA-14890
+ * (3DES y AES) y en la mensajer&iacute;a segura de PACE, a partir de sesiones grabadas.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SecureChannelBenchmark {
+
+	private final CryptoHelper cryptoHelper = new BcCryptoHelper();
+
+	private final AbstractApduEncrypter desEncrypter = new ApduEncrypterDes();
+	private final AbstractApduEncrypter desMac8Encrypter = new ApduEncrypterDesMac8();
+	private final AbstractApduEncrypter aesEncrypter = new ApduEncrypterAes();
+
+	private byte[] desKenc;
+	private byte[] desKmac;
+	private byte[] desSsc;
+	private CommandApdu desCommand;
+	private ResponseApdu desResponse;
+	private ResponseApdu desMac8Response;
+
+	private byte[] aesKenc;
+	private byte[] aesKmac;
+	private byte[] aesSsc;
+	private CommandApdu aesCommand;
+	private ResponseApdu aesResponse;
+
+	private SecureMessaging wrapper;
+
+	/** Carga las sesiones grabadas.
+	 * @throws Exception Si no se pueden cargar las sesiones. */
+	@Setup
+	public void setup() throws Exception {
+		BenchData.silenceLogging();
+		final Properties des = BenchData.loadSession("SECURE_CHANNEL_DES.properties"); //$NON-NLS-1$
+		this.desKenc = BenchData.getHex(des, "kenc"); //$NON-NLS-1$
+		this.desKmac = BenchData.getHex(des, "kmac"); //$NON-NLS-1$
+		this.desSsc = BenchData.getHex(des, "ssc"); //$NON-NLS-1$
+		this.desCommand = new CommandApdu(BenchData.getHex(des, "command")); //$NON-NLS-1$
+		this.desResponse = new ResponseApdu(BenchData.getHex(des, "response")); //$NON-NLS-1$
+		this.desMac8Response = new ResponseApdu(BenchData.getHex(des, "response.mac8")); //$NON-NLS-1$
+
+		final Properties aes = BenchData.loadSession("SECURE_MESSAGING_AES.properties"); //$NON-NLS-1$
+		this.aesKenc = BenchData.getHex(aes, "kenc"); //$NON-NLS-1$
+		this.aesKmac = BenchData.getHex(aes, "kmac"); //$NON-NLS-1$
+		this.aesSsc = BenchData.getHex(aes, "ssc"); //$NON-NLS-1$
+		this.aesCommand = new CommandApdu(BenchData.getHex(aes, "command")); //$NON-NLS-1$
+		this.aesResponse = new ResponseApdu(BenchData.getHex(aes, "response")); //$NON-NLS-1$
+
+		this.wrapper = new SecureMessaging(this.aesKenc, this.aesKmac, this.aesSsc, this.cryptoHelper);
+	}
+
+	/** Protecci&oacute;n de una APDU en un canal CWA-14890 con 3DES y MAC de 4 octetos.
+	 * @return APDU protegida.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public CipheredApdu desProtectApdu() throws Exception {
+		return this.desEncrypter.protectAPDU(this.desCommand, this.desKenc, this.desKmac, this.desSsc, this.cryptoHelper);
+	}
+
+	/** Descifrado y verificaci&oacute;n de una respuesta en un canal CWA-14890 con 3DES y MAC de 4 octetos.
+	 * @return APDU de respuesta en claro.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public ResponseApdu desDecryptResponseApdu() throws Exception {
+		return this.desEncrypter.decryptResponseApdu(this.desResponse, this.desKenc, this.desSsc, this.desKmac, this.cryptoHelper);
+	}
+
+	/** Protecci&oacute;n de una APDU en un canal CWA-14890 con 3DES y MAC de 8 octetos.
+	 * @return APDU protegida.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public CipheredApdu desMac8ProtectApdu() throws Exception {
+		return this.desMac8Encrypter.protectAPDU(this.desCommand, this.desKenc, this.desKmac, this.desSsc, this.cryptoHelper);
+	}
+
+	/** Descifrado y verificaci&oacute;n de una respuesta en un canal CWA-14890 con 3DES y MAC de 8 octetos.
+	 * @return APDU de respuesta en claro.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public ResponseApdu desMac8DecryptResponseApdu() throws Exception {
+		return this.desMac8Encrypter.decryptResponseApdu(this.desMac8Response, this.desKenc, this.desSsc, this.desKmac, this.cryptoHelper);
+	}
+
+	/** Protecci&oacute;n de una APDU en un canal CWA-14890 con AES y CMAC.
+	 * El descifrado de respuestas de <code>ApduEncrypterAes</code> no est&aacute; implementado,
+	 * por lo que no se mide.
+	 * @return APDU protegida.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public CipheredApdu aesProtectApdu() throws Exception {
+		return this.aesEncrypter.protectAPDU(this.aesCommand, this.aesKenc, this.aesKmac, this.aesSsc, this.cryptoHelper);
+	}
+
+	/** Protecci&oacute;n de una APDU con la mensajer&iacute;a segura de PACE.
+	 * @return APDU protegida.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public CommandApdu secureMessagingWrap() throws Exception {
+		return this.wrapper.wrap(this.aesCommand);
+	}
+
+	/** Descifrado y verificaci&oacute;n de una respuesta con la mensajer&iacute;a segura de PACE.
+	 * Como el contador de secuencia avanza con cada respuesta, se parte siempre del de la sesi&oacute;n grabada.
+	 * @return APDU de respuesta en claro.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public ResponseApdu secureMessagingUnwrap() throws Exception {
+		return new SecureMessaging(this.aesKenc, this.aesKmac, this.aesSsc, this.cryptoHelper).unwrap(this.aesResponse);
+	}
+}
@@ -0,0 +1,90 @@
+package es.gob.jmulticard.bench;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import es.gob.jmulticard.BcCryptoHelper;
+import es.gob.jmulticard.CryptoHelper;
+import es.gob.jmulticard.apdu.ResponseApdu;
+import es.gob.jmulticard.asn1.Tlv;
+import es.gob.jmulticard.asn1.bertlv.BerTlv;
+import es.gob.jmulticard.asn1.icao.LdsSecurityObject;
+import es.gob.jmulticard.asn1.icao.Sod;
+
+/** Pruebas de rendimiento del an&aacute;lisis de TLV (DER y BER) y de la decodificaci&oacute;n
+ * del SOD de un MRTD, a partir de datos grabados de tarjetas reales.
+ * La decodificaci&oacute;n de CDF y PrKDF se mide en <code>Asn1DecodingBenchmark</code>.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TlvParsingBenchmark {
+
+	private final CryptoHelper cryptoHelper = new BcCryptoHelper();
+
+	private byte[] cdf;
+	private byte[] protectedResponseData;
+	private byte[] sod;
+
+	/** Carga los datos grabados.
+	 * @throws Exception Si no se pueden cargar los datos. */
+	@Setup
+	public void setup() throws Exception {
+		BenchData.silenceLogging();
+		this.cdf = BenchData.load("CDF_TGM.BER"); //$NON-NLS-1$
+		this.protectedResponseData = new ResponseApdu(
+			BenchData.getHex(BenchData.loadSession("SECURE_CHANNEL_DES.properties"), "response") //$NON-NLS-1$ //$NON-NLS-2$
+		).getData();
+		this.sod = BenchData.load("SOD_1223499971262354764.asn1"); //$NON-NLS-1$
+	}
+
+	/** Recorrido de los elementos de primer nivel de un CDF con TLV DER que comparten memoria.
+	 * @param bh Sumidero de resultados.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public void derTlvWalk(final Blackhole bh) throws Exception {
+		final Tlv main = new Tlv(this.cdf);
+		int offset = 0;
+		while (offset < main.getLength()) {
+			final Tlv t = main.getValueTlvAt(offset);
+			bh.consume(t.getTag());
+			offset += t.getTotalLength();
+		}
+	}
+
+	/** An&aacute;lisis con TLV BER de los objetos de una respuesta de canal seguro.
+	 * @param bh Sumidero de resultados. */
+	@Benchmark
+	public void berTlvProtectedResponse(final Blackhole bh) {
+		final ByteArrayInputStream bais = new ByteArrayInputStream(this.protectedResponseData);
+		while (bais.available() > 0) {
+			bh.consume(BerTlv.createInstance(bais));
+		}
+	}
+
+	/** Decodificaci&oacute;n de un SOD, incluyendo la validaci&oacute;n de su firma y la
+	 * obtenci&oacute;n del <code>LDSSecurityObject</code>.
+	 * @return <code>LDSSecurityObject</code> del SOD.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public LdsSecurityObject decodeSod() throws Exception {
+		final Sod s = new Sod(this.cryptoHelper);
+		s.setDerValue(this.sod);
+		return s.getLdsSecurityObject();
+	}
+}
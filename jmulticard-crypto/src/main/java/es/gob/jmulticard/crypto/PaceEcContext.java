@@ -0,0 +1,110 @@
+package es.gob.jmulticard.crypto;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+import org.bouncycastle.asn1.teletrust.TeleTrusTNamedCurves;
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECFieldElement;
+import org.bouncycastle.math.ec.ECMultiplier;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
+import org.bouncycastle.util.BigIntegers;
+
+import es.gob.jmulticard.CryptoHelper.EcCurve;
+
+/** Curva el&iacute;ptica y generador compartidos por todos los establecimientos de canal PACE.
+ * La curva, su generador y la tabla precalculada de m&uacute;ltiplos del generador se crean
+ * una &uacute;nica vez, de forma que en cada canal solo se hacen las multiplicaciones escalares.
+ * Las multiplicaciones del generador (de base fija) usan el m&eacute;todo de peine.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+final class PaceEcContext {
+
+	/** Generador de aleatorios para las claves ef&iacute;meras. */
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	/** Contexto de la curva <i>brainpoolP256r1</i>. */
+	static final PaceEcContext BRAINPOOL_P256_R1 = new PaceEcContext(
+		TeleTrusTNamedCurves.getByName("brainpoolp256r1") //$NON-NLS-1$
+	);
+
+	private final ECCurve curve;
+	private final ECPoint generator;
+	private final BigInteger order;
+
+	/** Multiplicador del generador, que guarda su tabla en el propio punto generador. */
+	private final ECMultiplier generatorMultiplier = new FixedPointCombMultiplier();
+
+	private PaceEcContext(final X9ECParameters params) {
+		curve = params.getCurve();
+		generator = params.getG();
+		order = params.getN();
+	}
+
+	/** Obtiene el contexto de una curva.
+	 * @param ecCurve Curva el&iacute;ptica.
+	 * @return Contexto de la curva. */
+	static PaceEcContext getInstance(final EcCurve ecCurve) {
+		if (ecCurve == EcCurve.BRAINPOOL_P256_R1) {
+			return BRAINPOOL_P256_R1;
+		}
+		throw new IllegalArgumentException("Curva no soportada: " + ecCurve); //$NON-NLS-1$
+	}
+
+	/** Obtiene la curva el&iacute;ptica.
+	 * @return Curva el&iacute;ptica. */
+	ECCurve getCurve() {
+		return curve;
+	}
+
+	/** Genera una clave privada ef&iacute;mera aleatoria en el intervalo [1, n-1].
+	 * @return Clave privada ef&iacute;mera. */
+	BigInteger generatePrivateKey() {
+		return BigIntegers.createRandomInRange(BigInteger.ONE, order.subtract(BigInteger.ONE), RANDOM);
+	}
+
+	/** Multiplica el generador de la curva por un escalar.
+	 * @param k Escalar.
+	 * @return Punto <code>[k]G</code>. */
+	ECPoint multiplyGenerator(final BigInteger k) {
+		return generatorMultiplier.multiply(generator, k);
+	}
+
+	/** Decodifica un punto de la curva, comprobando que pertenece a ella.
+	 * @param encoded Codificaci&oacute;n del punto.
+	 * @return Punto de la curva. */
+	ECPoint decodePoint(final byte[] encoded) {
+		return curve.decodePoint(encoded);
+	}
+
+	/** Obtiene el punto de la curva que corresponde a un elemento del cuerpo (funci&oacute;n
+	 * <i>f<sub>G</sub></i> de PACE con correspondencia integrada, ICAO 9303 parte 11),
+	 * mediante el algoritmo SWU simplificado para primos <i>p &equiv; 3 mod 4</i>.
+	 * @param r Elemento del cuerpo (<i>R<sub>p</sub>(s,t)</i>).
+	 * @return Nuevo generador <i>G~</i>. */
+	ECPoint mapToPoint(final BigInteger r) {
+		final BigInteger p = curve.getField().getCharacteristic();
+		final ECFieldElement a = curve.getA();
+		final ECFieldElement b = curve.getB();
+		final ECFieldElement t = curve.fromBigInteger(r);
+
+		final ECFieldElement alpha = t.square().negate();
+		final ECFieldElement x2 = b.negate().divide(a).multiply(alpha.square().add(alpha).invert().addOne());
+		final ECFieldElement x3 = alpha.multiply(x2);
+		final ECFieldElement h2 = x2.square().add(a).multiply(x2).add(b);
+		final ECFieldElement u = t.square().multiply(t).multiply(h2);
+
+		// A = h2^(p - 1 - (p + 1) / 4)
+		final ECFieldElement aa = curve.fromBigInteger(
+			h2.toBigInteger().modPow(
+				p.subtract(BigInteger.ONE).subtract(p.add(BigInteger.ONE).shiftRight(2)),
+				p
+			)
+		);
+		if (aa.square().multiply(h2).isOne()) {
+			return curve.createPoint(x2.toBigInteger(), aa.multiply(h2).toBigInteger());
+		}
+		return curve.createPoint(x3.toBigInteger(), aa.multiply(u).toBigInteger());
+	}
+}
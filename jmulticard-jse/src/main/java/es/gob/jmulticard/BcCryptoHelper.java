@@ -1,7 +1,6 @@
 package es.gob.jmulticard;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
@@ -18,12 +17,12 @@ import java.security.interfaces.RSAKey;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
 import java.security.spec.AlgorithmParameterSpec;
-import java.security.spec.ECField;
 import java.security.spec.ECFieldFp;
 import java.security.spec.ECParameterSpec;
 import java.security.spec.ECPoint;
 import java.security.spec.EllipticCurve;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Logger;
@@ -41,8 +40,8 @@ import org.spongycastle.cms.SignerInformation;
 import org.spongycastle.cms.SignerInformationVerifier;
 import org.spongycastle.crypto.AsymmetricBlockCipher;
 import org.spongycastle.crypto.BlockCipher;
-import org.spongycastle.crypto.BufferedBlockCipher;
 import org.spongycastle.crypto.DataLengthException;
+import org.spongycastle.crypto.Digest;
 import org.spongycastle.crypto.InvalidCipherTextException;
 import org.spongycastle.crypto.Mac;
 import org.spongycastle.crypto.digests.SHA1Digest;
@@ -57,7 +56,6 @@ import org.spongycastle.crypto.macs.CMac;
 import org.spongycastle.crypto.modes.CBCBlockCipher;
 import org.spongycastle.crypto.paddings.BlockCipherPadding;
 import org.spongycastle.crypto.paddings.ISO7816d4Padding;
-import org.spongycastle.crypto.paddings.PaddedBufferedBlockCipher;
 import org.spongycastle.crypto.params.AsymmetricKeyParameter;
 import org.spongycastle.crypto.params.KeyParameter;
 import org.spongycastle.crypto.params.ParametersWithIV;
@@ -65,7 +63,6 @@ import org.spongycastle.crypto.params.RSAKeyParameters;
 import org.spongycastle.crypto.prng.DigestRandomGenerator;
 import org.spongycastle.crypto.prng.RandomGenerator;
 import org.spongycastle.jcajce.provider.asymmetric.ec.KeyPairGeneratorSpi;
-import org.spongycastle.jce.ECNamedCurveTable;
 import org.spongycastle.jce.provider.BouncyCastleProvider;
 import org.spongycastle.jce.spec.ECNamedCurveGenParameterSpec;
 import org.spongycastle.math.ec.ECCurve;
@@ -89,6 +86,50 @@ public final class BcCryptoHelper extends CryptoHelper {
 
 	private transient PaceChannelHelper paceChannelHelper = null;
 
+	/** Tama&ntilde;o (en octetos) del bloque AES. */
+	private static final int AES_BLOCK_SIZE = 16;
+
+	/** Tama&ntilde;o (en octetos) del CMAC con AES. */
+	private static final int AES_CMAC_SIZE = 8;
+
+	/** Motores con las claves de sesi&oacute;n ya preparadas, o <code>null</code> si este
+	 * manejador no conserva claves entre operaciones. Solo los manejadores de canal seguro
+	 * (obtenidos con {@link #newSecureChannelHelper()}) las conservan, y su canal las borra
+	 * al cerrarse. */
+	private final SessionEngines sessionEngines;
+
+	/** Crea un manejador de operaciones criptogr&aacute;ficas que no conserva claves entre
+	 * operaciones, y que puede por lo tanto compartirse entre tarjetas y canales. */
+	public BcCryptoHelper() {
+		this(false);
+	}
+
+	private BcCryptoHelper(final boolean keepSessionKeys) {
+		sessionEngines = keepSessionKeys ? new SessionEngines() : null;
+	}
+
+	/** {@inheritDoc}
+	 * El manejador devuelto conserva preparadas las claves de sesi&oacute;n del canal, de
+	 * forma que no se vuelven a preparar en cada APDU. */
+	@Override
+	public CryptoHelper newSecureChannelHelper() {
+		return new BcCryptoHelper(true);
+	}
+
+	@Override
+	public void wipeSessionKeys() {
+		if (sessionEngines != null) {
+			sessionEngines.wipe();
+		}
+	}
+
+	/** Obtiene los motores para una operaci&oacute;n: los de la sesi&oacute;n si este
+	 * manejador es de canal seguro, o unos nuevos que se descartan tras la operaci&oacute;n.
+	 * @return Motores para la operaci&oacute;n. */
+	private SessionEngines engines() {
+		return sessionEngines != null ? sessionEngines : new SessionEngines();
+	}
+
     @Override
     public byte[] digest(final DigestAlgorithm algorithm, final byte[] data) throws IOException {
         if (algorithm == null) {
@@ -101,66 +142,83 @@ public final class BcCryptoHelper extends CryptoHelper {
     			"Los datos para realizar la huella digital no pueden ser nulos" //$NON-NLS-1$
 			);
         }
-    	byte[] out;
+    	final Digest digest = newDigest(algorithm);
+    	if (digest == null) {
+        	throw new IOException(
+    			"No se soporta el algoritmo de huella digital indicado: " + algorithm //$NON-NLS-1$
+			);
+    	}
+    	digest.update(data, 0, data.length);
+    	final byte[] out = new byte[digest.getDigestSize()];
+    	digest.doFinal(out, 0);
+    	return out;
+    }
+
+    @Override
+    public IncrementalDigest getIncrementalDigest(final DigestAlgorithm algorithm) {
+        if (algorithm == null) {
+            throw new IllegalArgumentException(
+        		"El algoritmo de huella digital no puede ser nulo" //$NON-NLS-1$
+    		);
+        }
+    	final Digest digest = newDigest(algorithm);
+    	if (digest == null) {
+    		return super.getIncrementalDigest(algorithm);
+    	}
+    	return new IncrementalDigest() {
+
+			@Override
+			public void update(final byte[] data, final int off, final int len) {
+				digest.update(data, off, len);
+			}
+
+			@Override
+			public byte[] digest() {
+		    	final byte[] out = new byte[digest.getDigestSize()];
+		    	digest.doFinal(out, 0);
+		    	return out;
+			}
+		};
+    }
+
+    /** Crea un objeto de c&aacute;lculo de huella digital.
+     * @param algorithm Algoritmo de huella digital.
+     * @return Objeto de c&aacute;lculo de huella digital o <code>null</code> si el
+     *         algoritmo no est&aacute; soportado. */
+    private static Digest newDigest(final DigestAlgorithm algorithm) {
     	switch(algorithm) {
 	    	case SHA512:
-	    		final SHA512Digest digest512 = new SHA512Digest();
-	    		digest512.update(data, 0, data.length);
-	    		out = new byte[digest512.getDigestSize()];
-	    		digest512.doFinal(out, 0);
-	    		break;
+	    		return new SHA512Digest();
 	    	case SHA384:
-	    		final SHA384Digest digest384 = new SHA384Digest();
-	    		digest384.update(data, 0, data.length);
-	    		out = new byte[digest384.getDigestSize()];
-	    		digest384.doFinal(out, 0);
-	    		break;
+	    		return new SHA384Digest();
 	    	case SHA256:
-	    		final SHA256Digest digest256 = new SHA256Digest();
-	    		digest256.update(data, 0, data.length);
-	    		out = new byte[digest256.getDigestSize()];
-	    		digest256.doFinal(out, 0);
-	    		break;
+	    		return new SHA256Digest();
 	    	case SHA1:
-	    		final SHA1Digest digest = new SHA1Digest();
-	    		digest.update(data, 0, data.length);
-	    		out = new byte[digest.getDigestSize()];
-	    		digest.doFinal(out, 0);
-	    		break;
+	    		return new SHA1Digest();
 	    	default:
-	        	throw new IOException(
-        			"No se soporta el algoritmo de huella digital indicado: " + algorithm //$NON-NLS-1$
-    			);
+	    		return null;
     	}
-    	return out;
     }
 
     /** Realiza una operaci&oacute;n 3DES.
      * @param data Datos a cifrar o descifrar.
      * @param key Clave 3DES.
-     * @param forEncryption Si se debe cifrar o descifrar.
+     * @param cipher Cifrador (o descifrador) 3DES a usar.
      * @return Datos cifrados o descifrados.
      * @throws IOException Si ocurre cualquier error durante el proceso. */
     private static byte[] doDesede(final byte[] data,
     		                       final byte[] key,
-    		                       final boolean forEncryption) throws IOException {
-		final BufferedBlockCipher cipher = new BufferedBlockCipher(
-			new CBCBlockCipher(new DESedeEngine())
-		);
-		cipher.init(
-			forEncryption,
-			new KeyParameter(
-				prepareDesedeKey(key)
-			)
-		);
-		final byte[] result = new byte[cipher.getOutputSize(data.length)];
-		final int tam = cipher.processBytes(data, 0, data.length, result, 0);
+    		                       final KeyedBlockCipher cipher) throws IOException {
+    	checkDesedeKey(key);
+		final byte[] result = data.clone();
 		try {
-			cipher.doFinal(result, tam);
+			// Con claves de 16 octetos el motor 3DES reutiliza los 8 primeros como tercera clave
+			synchronized (cipher) {
+				processBlocks(cipher.init(key, null), result);
+			}
 		}
 		catch (final DataLengthException   |
-				     IllegalStateException |
-				     InvalidCipherTextException e) {
+				     IllegalStateException e) {
 			throw new IOException("Error en el cifrado o descifrado 3DES", e); //$NON-NLS-1$
 		}
 		return result;
@@ -168,46 +226,36 @@ public final class BcCryptoHelper extends CryptoHelper {
 
     @Override
     public byte[] desedeEncrypt(final byte[] data, final byte[] rawKey) throws IOException {
-        return doDesede(data, rawKey, true);
+        return doDesede(data, rawKey, engines().desedeEncrypter());
     }
 
     @Override
     public byte[] desedeDecrypt(final byte[] data, final byte[] rawKey) throws IOException {
-        return doDesede(data, rawKey, false);
+        return doDesede(data, rawKey, engines().desedeDecrypter());
     }
 
-    private static byte[] prepareDesedeKey(final byte[] key) {
+    private static void checkDesedeKey(final byte[] key) {
         if (key == null) {
             throw new IllegalArgumentException("La clave 3DES no puede ser nula"); //$NON-NLS-1$
         }
-        if (key.length == 24) {
-            return key;
-        }
-        if (key.length == 16) {
-            final byte[] newKey = new byte[24];
-            System.arraycopy(key, 0, newKey, 0, 16);
-            System.arraycopy(key, 0, newKey, 16, 8);
-            return newKey;
+        if (key.length != 24 && key.length != 16) {
+	        throw new IllegalArgumentException(
+	    		"Longitud de clave invalida, se esperaba 16 o 24, pero se indico " + key.length //$NON-NLS-1$
+			);
         }
-        throw new IllegalArgumentException(
-    		"Longitud de clave invalida, se esperaba 16 o 24, pero se indico " + key.length //$NON-NLS-1$
-		);
     }
 
     private static byte[] doDes(final byte[] data,
     		                    final byte[] key,
-    		                    final boolean forEncryption) throws IOException {
-    	final BlockCipher engine = new DESEngine();
-    	final BufferedBlockCipher cipher = new BufferedBlockCipher(engine);
-    	cipher.init(forEncryption, new KeyParameter(key));
-    	final byte[] cipherText = new byte[cipher.getOutputSize(data.length)];
-    	final int outputLen = cipher.processBytes(data, 0, data.length, cipherText, 0);
+    		                    final KeyedBlockCipher cipher) throws IOException {
+    	final byte[] cipherText = data.clone();
     	try {
-			cipher.doFinal(cipherText, outputLen);
+    		synchronized (cipher) {
+    			processBlocks(cipher.init(key, null), cipherText);
+    		}
 		}
     	catch (final DataLengthException   |
-    			     IllegalStateException |
-    			     InvalidCipherTextException e) {
+    			     IllegalStateException e) {
 			throw new IOException("Error el el cifrado / descifrado DES", e); //$NON-NLS-1$
 		}
     	return cipherText;
@@ -215,12 +263,54 @@ public final class BcCryptoHelper extends CryptoHelper {
 
     @Override
     public byte[] desEncrypt(final byte[] data, final byte[] key) throws IOException {
-    	return doDes(data, key, true);
+    	return doDes(data, key, engines().desEncrypter());
     }
 
     @Override
     public byte[] desDecrypt(final byte[] data, final byte[] key) throws IOException {
-    	return doDes(data, key, false);
+    	return doDes(data, key, engines().desDecrypter());
+    }
+
+    @Override
+    public byte[] desRetailMac(final byte[] ssc,
+    		                   final byte[] dataPadded,
+    		                   final byte[] kMac) throws IOException {
+		if (dataPadded == null || dataPadded.length == 0 || dataPadded.length % 8 != 0) {
+			throw new IllegalArgumentException(
+				"Los datos del MAC deben tener una longitud multiplo de 8" //$NON-NLS-1$
+			);
+		}
+		if (kMac == null || kMac.length < 16) {
+			throw new IllegalArgumentException(
+				"La clave del MAC debe tener al menos 16 octetos" //$NON-NLS-1$
+			);
+		}
+		final RetailMac retailMac = engines().retailMac();
+		try {
+			synchronized (retailMac) {
+				return retailMac.mac(ssc, dataPadded, kMac);
+			}
+		}
+		catch (final DataLengthException   |
+				     IllegalStateException e) {
+			throw new IOException("Error en el calculo del MAC DES", e); //$NON-NLS-1$
+		}
+    }
+
+    /** Procesa unos datos bloque a bloque sobre el propio array.
+     * @param cipher Cifrador (o descifrador) ya inicializado.
+     * @param buf Datos a procesar, de longitud m&uacute;ltiplo del tama&ntilde;o de bloque. Se
+     *            sobrescriben con el resultado. */
+    private static void processBlocks(final BlockCipher cipher, final byte[] buf) {
+    	final int blockSize = cipher.getBlockSize();
+    	if (buf.length % blockSize != 0) {
+    		throw new DataLengthException(
+				"La longitud de los datos (" + buf.length + ") no es multiplo del tamano de bloque (" + blockSize + ")" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			);
+    	}
+    	for (int off = 0; off < buf.length; off += blockSize) {
+    		cipher.processBlock(buf, off, buf, off);
+    	}
     }
 
     private static byte[] doRsa(final byte[] data,
@@ -269,89 +359,57 @@ public final class BcCryptoHelper extends CryptoHelper {
 	 * @param key Clave AES.
 	 * @param dataBlock Bloque a crifrar.
 	 * @return Bloque cifrado. */
-	private static byte[] aesEncryptSingleBlock(final byte[] key, final byte[] dataBlock) {
-		final KeyParameter encKey = new KeyParameter(key);
-		final BlockCipher cipher = new AESEngine();
-		cipher.init(true, encKey);
-		final byte[] s = new byte[cipher.getBlockSize()];
-		cipher.processBlock(dataBlock, 0, s, 0);
+	private byte[] aesEncryptSingleBlock(final byte[] key, final byte[] dataBlock) {
+		final byte[] s = new byte[dataBlock.length];
+		final KeyedBlockCipher aesBlockEncrypter = engines().aesBlockEncrypter();
+		synchronized (aesBlockEncrypter) {
+			aesBlockEncrypter.init(key, null).processBlock(dataBlock, 0, s, 0);
+		}
 		return s;
 	}
 
-    private static byte[] doAes(final byte[] data,
-    		                    final byte[] iv,
-    		                    final byte[] aesKey,
-    		                    final BlockCipherPadding padding,
-    		                    final boolean forEncryption) throws IOException,
-                                                                    InvalidCipherTextException {
-		final BlockCipher engine = new AESEngine();
+    private byte[] doAes(final byte[] data,
+    		             final byte[] iv,
+    		             final byte[] aesKey,
+    		             final BlockCipherPadding padding,
+    		             final boolean forEncryption) throws InvalidCipherTextException {
+		final KeyedBlockCipher cipher = forEncryption ?
+			engines().aesCbcEncrypter() :
+				engines().aesCbcDecrypter();
 
 		// Vector de inicializacion
 		final byte[] ivector;
 		if (iv == null) {
-			ivector = null;
+			ivector = new byte[AES_BLOCK_SIZE];
 		}
 		else if (iv.length == 0) {
 			LOGGER.warning("Se usara un vector de inicializacion AES vacio"); //$NON-NLS-1$
-			ivector = new byte[engine.getBlockSize()];
+			ivector = new byte[AES_BLOCK_SIZE];
 		}
 		else {
 			ivector = iv;
 		}
 
-		// Creamos los parametros de cifrado con el vector de inicializacion (iv)
-		final ParametersWithIV parameterIV = new ParametersWithIV(
-			new KeyParameter(aesKey),
-			ivector
-		);
-
-		int noBytesRead; // Numero de octetos leidos de la entrada
-		int noBytesProcessed = 0; // Numero de octetos procesados
-
-		// AES block cipher en modo CBC
-		final BufferedBlockCipher aesCipher =
-			padding != null ?
-				// Con relleno
-				new PaddedBufferedBlockCipher(
-					new CBCBlockCipher(
-						new AESEngine()
-					),
-					padding) :
-						// Sin relleno
-						new BufferedBlockCipher(
-							new CBCBlockCipher(
-								engine
-							)
-						);
-
-		// Inicializamos
-		aesCipher.init(forEncryption, parameterIV);
-
-		// Buffers para mover octetos de un flujo a otro
-		final byte[] buf = new byte[16]; // Buffer de entrada
-		final byte[] obuf = new byte[512]; // Buffer de salida
-
-		try (
-			final InputStream bin = new ByteArrayInputStream(data);
-			final ByteArrayOutputStream bout = new ByteArrayOutputStream()
-		) {
-			while ((noBytesRead = bin.read(buf)) >= 0) {
-				noBytesProcessed = aesCipher.processBytes(
-					buf,
-					0,
-					noBytesRead,
-					obuf,
-					0
-				);
-				bout.write(obuf, 0, noBytesProcessed);
-			}
+		// Al cifrar con relleno este se anade siempre, aunque los datos sean ya multiplo
+		// del tamano de bloque
+		final byte[] buf;
+		if (forEncryption && padding != null) {
+			buf = new byte[(data.length / AES_BLOCK_SIZE + 1) * AES_BLOCK_SIZE];
+			System.arraycopy(data, 0, buf, 0, data.length);
+			padding.addPadding(buf, data.length);
+		}
+		else {
+			buf = data.clone();
+		}
 
-			noBytesProcessed = aesCipher.doFinal(obuf, 0);
-			bout.write(obuf, 0, noBytesProcessed);
-			bout.flush();
+		synchronized (cipher) {
+			processBlocks(cipher.init(aesKey, ivector), buf);
+		}
 
-			return bout.toByteArray();
+		if (!forEncryption && padding != null) {
+			return Arrays.copyOf(buf, buf.length - padding.padCount(buf));
 		}
+		return buf;
     }
 
 	@Override
@@ -442,8 +500,7 @@ public final class BcCryptoHelper extends CryptoHelper {
 		}
 		catch (final DataLengthException        |
 				     IllegalStateException      |
-				     InvalidCipherTextException |
-				     IOException e) {
+				     InvalidCipherTextException e) {
 			throw new IOException(
 				"Error en el cifrado AES", e //$NON-NLS-1$
 			);
@@ -463,13 +520,21 @@ public final class BcCryptoHelper extends CryptoHelper {
 
 	@Override
 	public byte[] doAesCmac(final byte[] data, final byte[] key) {
-		final BlockCipher cipher = new AESEngine();
-		final Mac mac = new CMac(cipher, 64);
-		final KeyParameter keyP = new KeyParameter(key);
-		mac.init(keyP);
-		mac.update(data, 0, data.length);
-		final byte[] out = new byte[mac.getMacSize()];
-		mac.doFinal(out, 0);
+		return doAesCmac(null, data, key);
+	}
+
+	@Override
+	public byte[] doAesCmac(final byte[] prefix, final byte[] data, final byte[] key) {
+		final byte[] out = new byte[AES_CMAC_SIZE];
+		final KeyedMac aesCmac = engines().aesCmac();
+		synchronized (aesCmac) {
+			final Mac mac = aesCmac.init(key);
+			if (prefix != null) {
+				mac.update(prefix, 0, prefix.length);
+			}
+			mac.update(data, 0, data.length);
+			mac.doFinal(out, 0);
+		}
 		return out;
 	}
 
@@ -477,13 +542,13 @@ public final class BcCryptoHelper extends CryptoHelper {
 	public AlgorithmParameterSpec getEcPoint(final byte[] nonceS,
 			                                 final byte[] sharedSecretH,
 			                                 final EcCurve curveName) {
-		final AlgorithmParameterSpec ecParams = ECNamedCurveTable.getParameterSpec(
-			curveName.toString()
-		);
+		// La curva y la tabla precalculada de su generador se comparten entre llamadas
+		final PaceEcContext ecContext = PaceEcContext.getInstance(curveName);
+		final ECCurve curve = ecContext.getCurve();
 		final BigInteger affineX = os2i(sharedSecretH);
-		final BigInteger affineY = computeAffineY(affineX, (ECParameterSpec) ecParams);
-		final ECPoint sharedSecretPointH = new ECPoint(affineX, affineY);
-		return mapNonceGMWithECDH(os2i(nonceS), sharedSecretPointH, (ECParameterSpec) ecParams);
+		final BigInteger affineY = computeAffineY(affineX, curve);
+		final org.spongycastle.math.ec.ECPoint sharedSecretPointH = curve.createPoint(affineX, affineY);
+		return mapNonceGMWithECDH(os2i(nonceS), sharedSecretPointH, ecContext);
 	}
 
 	/** Convierte un <code>Octet String</code> de ASN&#46;1 en un entero
@@ -516,8 +581,7 @@ public final class BcCryptoHelper extends CryptoHelper {
 		return result;
 	}
 
-	private static BigInteger computeAffineY(final BigInteger affineX, final ECParameterSpec params) {
-		final ECCurve bcCurve = toSpongyCastleECCurve(params);
+	private static BigInteger computeAffineY(final BigInteger affineX, final ECCurve bcCurve) {
 		final ECFieldElement a = bcCurve.getA();
 		final ECFieldElement b = bcCurve.getB();
 		final ECFieldElement x = bcCurve.fromBigInteger(affineX);
@@ -525,74 +589,26 @@ public final class BcCryptoHelper extends CryptoHelper {
 		return y.toBigInteger();
 	}
 
-	private static ECCurve toSpongyCastleECCurve(final ECParameterSpec params) {
-		final EllipticCurve curve = params.getCurve();
-		final ECField field = curve.getField();
-		if (!(field instanceof ECFieldFp)) {
-			throw new IllegalArgumentException(
-				"Solo se soporta 'ECFieldFp' y se proporciono  " + field.getClass().getCanonicalName() //$NON-NLS-1$
-			);
-		}
-		final int coFactor = params.getCofactor();
-		final BigInteger order = params.getOrder();
-		final BigInteger a = curve.getA();
-		final BigInteger b = curve.getB();
-		final BigInteger p = getPrime(params);
-		return new ECCurve.Fp(p, a, b, order, BigInteger.valueOf(coFactor));
-	}
-
-	private static BigInteger getPrime(final ECParameterSpec params) {
-		if (params == null) {
-			throw new IllegalArgumentException(
-				"Los parametros no pueden ser nulos" //$NON-NLS-1$
-			);
-		}
-		final EllipticCurve curve = params.getCurve();
-		final ECField field = curve.getField();
-		if (!(field instanceof ECFieldFp)) {
-			throw new IllegalStateException(
-				"Solo se soporta 'ECFieldFp' y se proporciono  " + field.getClass().getCanonicalName() //$NON-NLS-1$
-			);
-		}
-		return ((ECFieldFp)field).getP();
-	}
-
 	private static ECParameterSpec mapNonceGMWithECDH(final BigInteger nonceS,
-			                                          final ECPoint sharedSecretPointH,
-			                                          final ECParameterSpec params) {
+			                                          final org.spongycastle.math.ec.ECPoint sharedSecretPointH,
+			                                          final PaceEcContext ecContext) {
 		// D~ = (p, a, b, G~, n, h) where G~ = [s]G + H
-		final ECPoint generator = params.getGenerator();
-		final EllipticCurve curve = params.getCurve();
-		final BigInteger a = curve.getA();
-		final BigInteger b = curve.getB();
-		final ECFieldFp field = (ECFieldFp)curve.getField();
-		final BigInteger p = field.getP();
-		final BigInteger order = params.getOrder();
-		final int cofactor = params.getCofactor();
-		final ECPoint ephemeralGenerator = add(
-			multiply(nonceS, generator, params),
-			sharedSecretPointH,
-			params
+		final ECCurve curve = ecContext.getCurve();
+		final ECPoint ephemeralGenerator = fromSpongyCastleECPoint(
+			ecContext.multiplyGenerator(nonceS).add(sharedSecretPointH)
 		);
-		if (!toSpongyCastleECPoint(ephemeralGenerator, params).isValid()) {
-			LOGGER.warning("Se ha generado un punto invalido"); //$NON-NLS-1$
-		}
 		return new ECParameterSpec(
-			new EllipticCurve(new ECFieldFp(p), a, b),
+			new EllipticCurve(
+				new ECFieldFp(curve.getField().getCharacteristic()),
+				curve.getA().toBigInteger(),
+				curve.getB().toBigInteger()
+			),
 			ephemeralGenerator,
-			order,
-			cofactor
+			curve.getOrder(),
+			curve.getCofactor().intValue()
 		);
 	}
 
-	private static ECPoint multiply(final BigInteger s,
-			                        final ECPoint point,
-			                        final ECParameterSpec params) {
-		final org.spongycastle.math.ec.ECPoint bcPoint = toSpongyCastleECPoint(point, params);
-		final org.spongycastle.math.ec.ECPoint bcProd = bcPoint.multiply(s);
-		return fromSpongyCastleECPoint(bcProd);
-	}
-
 	private static ECPoint fromSpongyCastleECPoint(final org.spongycastle.math.ec.ECPoint point) {
 		final org.spongycastle.math.ec.ECPoint newPoint = point.normalize();
 		if (!newPoint.isValid()) {
@@ -604,19 +620,6 @@ public final class BcCryptoHelper extends CryptoHelper {
 		);
 	}
 
-	private static ECPoint add(final ECPoint x, final ECPoint y, final ECParameterSpec params) {
-		final org.spongycastle.math.ec.ECPoint bcX = toSpongyCastleECPoint(x, params);
-		final org.spongycastle.math.ec.ECPoint bcY = toSpongyCastleECPoint(y, params);
-		final org.spongycastle.math.ec.ECPoint bcSum = bcX.add(bcY);
-		return fromSpongyCastleECPoint(bcSum);
-	}
-
-	private static org.spongycastle.math.ec.ECPoint toSpongyCastleECPoint(final ECPoint point,
-			                                                              final ECParameterSpec params) {
-		final org.spongycastle.math.ec.ECCurve bcCurve = toSpongyCastleECCurve(params);
-		return bcCurve.createPoint(point.getAffineX(), point.getAffineY());
-	}
-
 	@Override
 	public X509Certificate[] validateCmsSignature(final byte[] signedDataBytes) throws SignatureException,
 	                                                                                   IOException,
@@ -830,4 +833,284 @@ public final class BcCryptoHelper extends CryptoHelper {
 			return exponent;
 		}
 	}
+
+	/** Motores sim&eacute;tricos con las claves ya preparadas de un canal seguro.
+	 * Cada motor se crea la primera vez que se usa. */
+	private static final class SessionEngines {
+
+		private KeyedBlockCipher desEncrypter = null;
+		private KeyedBlockCipher desDecrypter = null;
+		private KeyedBlockCipher desedeEncrypter = null;
+		private KeyedBlockCipher desedeDecrypter = null;
+		private KeyedBlockCipher aesBlockEncrypter = null;
+		private KeyedBlockCipher aesCbcEncrypter = null;
+		private KeyedBlockCipher aesCbcDecrypter = null;
+		private KeyedMac aesCmac = null;
+		private RetailMac retailMac = null;
+
+		/** Obtiene el cifrador DES (ECB).
+		 * @return Cifrador DES. */
+		synchronized KeyedBlockCipher desEncrypter() {
+			if (desEncrypter == null) {
+				desEncrypter = new KeyedBlockCipher(new DESEngine(), true);
+			}
+			return desEncrypter;
+		}
+
+		/** Obtiene el descifrador DES (ECB).
+		 * @return Descifrador DES. */
+		synchronized KeyedBlockCipher desDecrypter() {
+			if (desDecrypter == null) {
+				desDecrypter = new KeyedBlockCipher(new DESEngine(), false);
+			}
+			return desDecrypter;
+		}
+
+		/** Obtiene el cifrador Triple DES (CBC con vector de inicializaci&oacute;n a cero).
+		 * @return Cifrador Triple DES. */
+		synchronized KeyedBlockCipher desedeEncrypter() {
+			if (desedeEncrypter == null) {
+				desedeEncrypter = new KeyedBlockCipher(new CBCBlockCipher(new DESedeEngine()), true);
+			}
+			return desedeEncrypter;
+		}
+
+		/** Obtiene el descifrador Triple DES (CBC con vector de inicializaci&oacute;n a cero).
+		 * @return Descifrador Triple DES. */
+		synchronized KeyedBlockCipher desedeDecrypter() {
+			if (desedeDecrypter == null) {
+				desedeDecrypter = new KeyedBlockCipher(new CBCBlockCipher(new DESedeEngine()), false);
+			}
+			return desedeDecrypter;
+		}
+
+		/** Obtiene el cifrador AES de un &uacute;nico bloque (ECB).
+		 * @return Cifrador AES. */
+		synchronized KeyedBlockCipher aesBlockEncrypter() {
+			if (aesBlockEncrypter == null) {
+				aesBlockEncrypter = new KeyedBlockCipher(new AESEngine(), true);
+			}
+			return aesBlockEncrypter;
+		}
+
+		/** Obtiene el cifrador AES (CBC).
+		 * @return Cifrador AES. */
+		synchronized KeyedBlockCipher aesCbcEncrypter() {
+			if (aesCbcEncrypter == null) {
+				aesCbcEncrypter = new KeyedBlockCipher(new CBCBlockCipher(new AESEngine()), true);
+			}
+			return aesCbcEncrypter;
+		}
+
+		/** Obtiene el descifrador AES (CBC).
+		 * @return Descifrador AES. */
+		synchronized KeyedBlockCipher aesCbcDecrypter() {
+			if (aesCbcDecrypter == null) {
+				aesCbcDecrypter = new KeyedBlockCipher(new CBCBlockCipher(new AESEngine()), false);
+			}
+			return aesCbcDecrypter;
+		}
+
+		/** Obtiene el CMAC con AES.
+		 * @return CMAC con AES. */
+		synchronized KeyedMac aesCmac() {
+			if (aesCmac == null) {
+				aesCmac = new KeyedMac(new CMac(new AESEngine(), AES_CMAC_SIZE * 8));
+			}
+			return aesCmac;
+		}
+
+		/** Obtiene el MAC ISO 9797-1 (algoritmo 3) con DES.
+		 * @return MAC ISO 9797-1. */
+		synchronized RetailMac retailMac() {
+			if (retailMac == null) {
+				retailMac = new RetailMac();
+			}
+			return retailMac;
+		}
+
+		/** Borra las claves de todos los motores creados. Los motores pueden seguir
+		 * us&aacute;ndose despu&eacute;s, pero tendr&aacute;n que volver a preparar sus claves. */
+		synchronized void wipe() {
+			for (final KeyedBlockCipher c : new KeyedBlockCipher[] {
+				desEncrypter, desDecrypter, desedeEncrypter, desedeDecrypter,
+				aesBlockEncrypter, aesCbcEncrypter, aesCbcDecrypter
+			}) {
+				if (c != null) {
+					synchronized (c) {
+						c.wipe();
+					}
+				}
+			}
+			if (aesCmac != null) {
+				synchronized (aesCmac) {
+					aesCmac.wipe();
+				}
+			}
+			if (retailMac != null) {
+				synchronized (retailMac) {
+					retailMac.wipe();
+				}
+			}
+		}
+	}
+
+	/** Cifrador por bloques que mantiene la clave ya preparada (<i>key schedule</i>) mientras
+	 * no cambie, de forma que puede reutilizarse durante toda una sesi&oacute;n de canal seguro
+	 * sin crear nuevos objetos en cada operaci&oacute;n.
+	 * No es seguro para su uso concurrente: debe sincronizarse externamente. */
+	private static final class KeyedBlockCipher {
+
+		private final BlockCipher cipher;
+		private final boolean forEncryption;
+		private byte[] currentKey = null;
+
+		KeyedBlockCipher(final BlockCipher blockCipher, final boolean encryption) {
+			cipher = blockCipher;
+			forEncryption = encryption;
+		}
+
+		/** Prepara el cifrador para una nueva operaci&oacute;n.
+		 * Solo se vuelve a preparar la clave si es distinta de la de la operaci&oacute;n anterior.
+		 * @param key Clave.
+		 * @param iv Vector de inicializaci&oacute;n (solo para modos encadenados) o
+		 *           <code>null</code> para usar uno a cero.
+		 * @return Cifrador listo para procesar bloques. */
+		BlockCipher init(final byte[] key, final byte[] iv) {
+			final boolean sameKey = currentKey != null && Arrays.equals(currentKey, key);
+			if (!sameKey) {
+				currentKey = null;
+			}
+			if (iv != null) {
+				cipher.init(
+					forEncryption,
+					new ParametersWithIV(sameKey ? null : new KeyParameter(key), iv)
+				);
+			}
+			else if (sameKey) {
+				cipher.reset();
+			}
+			else {
+				cipher.init(forEncryption, new KeyParameter(key));
+			}
+			if (!sameKey) {
+				currentKey = key.clone();
+			}
+			return cipher;
+		}
+
+		/** Borra la clave preparada, sobrescribiendo la del motor con una clave a cero. */
+		void wipe() {
+			if (currentKey == null) {
+				return;
+			}
+			final int keyLength = currentKey.length;
+			Arrays.fill(currentKey, (byte) 0);
+			currentKey = null;
+			try {
+				cipher.init(forEncryption, new KeyParameter(new byte[keyLength]));
+			}
+			catch (final RuntimeException e) {
+				LOGGER.fine("No se ha podido sobrescribir la clave del cifrador: " + e); //$NON-NLS-1$
+			}
+		}
+	}
+
+	/** MAC que mantiene la clave ya preparada mientras no cambie.
+	 * No es seguro para su uso concurrente: debe sincronizarse externamente. */
+	private static final class KeyedMac {
+
+		private final Mac mac;
+		private byte[] currentKey = null;
+
+		KeyedMac(final Mac m) {
+			mac = m;
+		}
+
+		/** Prepara el MAC para una nueva operaci&oacute;n.
+		 * @param key Clave.
+		 * @return MAC listo para procesar datos. */
+		Mac init(final byte[] key) {
+			if (currentKey != null && Arrays.equals(currentKey, key)) {
+				mac.reset();
+				return mac;
+			}
+			currentKey = null;
+			mac.init(new KeyParameter(key));
+			currentKey = key.clone();
+			return mac;
+		}
+
+		/** Borra la clave preparada, sobrescribiendo la del MAC con una clave a cero. */
+		void wipe() {
+			if (currentKey == null) {
+				return;
+			}
+			final int keyLength = currentKey.length;
+			Arrays.fill(currentKey, (byte) 0);
+			currentKey = null;
+			try {
+				mac.init(new KeyParameter(new byte[keyLength]));
+			}
+			catch (final RuntimeException e) {
+				LOGGER.fine("No se ha podido sobrescribir la clave del MAC: " + e); //$NON-NLS-1$
+			}
+		}
+	}
+
+	/** MAC ISO 9797-1 seg&uacute;n el algoritmo 3 (<i>Retail MAC</i>) con DES, tal y como se
+	 * usa en CWA-14890, con las claves ya preparadas mientras no cambien.
+	 * Los bloques se encadenan sobre un &uacute;nico <i>buffer</i> interno.
+	 * No es seguro para su uso concurrente: debe sincronizarse externamente. */
+	private static final class RetailMac {
+
+		private static final int BLOCK_SIZE = 8;
+
+		private final BlockCipher des = new DESEngine();
+		private final BlockCipher desede = new DESedeEngine();
+		private final byte[] chain = new byte[BLOCK_SIZE];
+		private byte[] currentKey = null;
+
+		/** Calcula el MAC.
+		 * @param ssc Contador de secuencia, que se procesa como primer bloque.
+		 * @param data Datos con relleno (longitud m&uacute;ltiplo de 8).
+		 * @param kMac Clave Triple DES (se usan sus 16 primeros octetos).
+		 * @return MAC de 8 octetos. */
+		byte[] mac(final byte[] ssc, final byte[] data, final byte[] kMac) {
+			if (currentKey == null || !Arrays.equals(currentKey, kMac)) {
+				currentKey = null;
+				des.init(true, new KeyParameter(Arrays.copyOf(kMac, BLOCK_SIZE)));
+				desede.init(true, new KeyParameter(Arrays.copyOf(kMac, 2 * BLOCK_SIZE)));
+				currentKey = kMac.clone();
+			}
+			des.processBlock(ssc, 0, chain, 0);
+			final int last = data.length - BLOCK_SIZE;
+			for (int i = 0; i < last; i += BLOCK_SIZE) {
+				xorIntoChain(data, i);
+				des.processBlock(chain, 0, chain, 0);
+			}
+			xorIntoChain(data, last);
+			final byte[] out = new byte[BLOCK_SIZE];
+			desede.processBlock(chain, 0, out, 0);
+			Arrays.fill(chain, (byte) 0);
+			return out;
+		}
+
+		/** Borra las claves preparadas, sobrescribiendo las de los motores con claves a cero. */
+		void wipe() {
+			if (currentKey == null) {
+				return;
+			}
+			Arrays.fill(currentKey, (byte) 0);
+			currentKey = null;
+			des.init(true, new KeyParameter(new byte[BLOCK_SIZE]));
+			desede.init(true, new KeyParameter(new byte[2 * BLOCK_SIZE]));
+		}
+
+		private void xorIntoChain(final byte[] data, final int off) {
+			for (int i = 0; i < BLOCK_SIZE; i++) {
+				chain[i] ^= data[off + i];
+			}
+		}
+	}
 }
\ No newline at end of file
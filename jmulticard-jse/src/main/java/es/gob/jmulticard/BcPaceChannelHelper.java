@@ -1,17 +1,11 @@
 package es.gob.jmulticard;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.util.Random;
-
-import org.spongycastle.asn1.teletrust.TeleTrusTNamedCurves;
-import org.spongycastle.asn1.x9.X9ECParameters;
-import org.spongycastle.math.ec.ECCurve;
-import org.spongycastle.math.ec.ECCurve.Fp;
-import org.spongycastle.math.ec.ECFieldElement;
+
 import org.spongycastle.math.ec.ECPoint;
 import org.spongycastle.util.Arrays;
 
@@ -22,14 +16,20 @@ import es.gob.jmulticard.apdu.CommandApdu;
 import es.gob.jmulticard.apdu.ResponseApdu;
 import es.gob.jmulticard.apdu.iso7816four.GeneralAuthenticateApduCommand;
 import es.gob.jmulticard.apdu.iso7816four.pace.MseSetPaceAlgorithmApduCommand;
+import es.gob.jmulticard.apdu.iso7816four.pace.MseSetPaceAlgorithmApduCommand.PaceAlgorithmOid;
+import es.gob.jmulticard.apdu.iso7816four.pace.MseSetPaceAlgorithmApduCommand.PaceAlgorithmParam;
 import es.gob.jmulticard.asn1.Tlv;
 import es.gob.jmulticard.asn1.TlvException;
+import es.gob.jmulticard.asn1.bertlv.BerTlv;
+import es.gob.jmulticard.asn1.icao.PaceInfo;
 import es.gob.jmulticard.card.AbstractSmartCard;
 import es.gob.jmulticard.card.icao.IcaoException;
 import es.gob.jmulticard.card.icao.InvalidCanOrMrzException;
 import es.gob.jmulticard.card.icao.WirelessInitializer;
 import es.gob.jmulticard.connection.ApduConnection;
 import es.gob.jmulticard.connection.ApduConnectionException;
+import es.gob.jmulticard.connection.pace.ChipAuthenticationMappingData;
+import es.gob.jmulticard.connection.pace.PaceConnection;
 import es.gob.jmulticard.connection.pace.PaceException;
 import es.gob.jmulticard.de.tsenger.androsmex.iso7816.SecureMessaging;
 
@@ -41,6 +41,18 @@ public final class BcPaceChannelHelper extends PaceChannelHelper {
 	/** Tama&ntilde;o de bloque de cifrado AES. */
 	public static final int BLOCK_SIZE = 16;
 
+	/** Constante <i>c<sub>0</sub></i> de la funci&oacute;n pseudoaleatoria de PACE-IM con AES-128. */
+	private static final byte[] IM_C0 = {
+		(byte) 0xa6, (byte) 0x68, (byte) 0x89, (byte) 0x2a, (byte) 0x7c, (byte) 0x41, (byte) 0xe3, (byte) 0xca,
+		(byte) 0x73, (byte) 0x9f, (byte) 0x40, (byte) 0xb0, (byte) 0x57, (byte) 0xd8, (byte) 0x59, (byte) 0x04
+	};
+
+	/** Constante <i>c<sub>1</sub></i> de la funci&oacute;n pseudoaleatoria de PACE-IM con AES-128. */
+	private static final byte[] IM_C1 = {
+		(byte) 0xa4, (byte) 0xe1, (byte) 0x36, (byte) 0xac, (byte) 0x72, (byte) 0x5f, (byte) 0x73, (byte) 0x8b,
+		(byte) 0x01, (byte) 0xc1, (byte) 0xf6, (byte) 0x02, (byte) 0x17, (byte) 0xc1, (byte) 0x88, (byte) 0xad
+	};
+
 	/** Constructor.
 	 * @param ch Utilidad para operaciones criptogr&aacute;ficas. */
 	public BcPaceChannelHelper(final CryptoHelper ch) {
@@ -52,6 +64,68 @@ public final class BcPaceChannelHelper extends PaceChannelHelper {
 			                               final WirelessInitializer pi,
 			                               final ApduConnection conn) throws ApduConnectionException,
 			                                                                 IcaoException {
+		return openChannel(cla, PaceAlgorithmOid.PACE_ECDH_GM_AES_CBC_CMAC_128, pi, conn).secureMessaging;
+	}
+
+	/** {@inheritDoc}
+	 * Se soportan las correspondencias gen&eacute;rica (GM), integrada (IM) y de autenticaci&oacute;n
+	 * de chip (CAM) ECDH sobre <i>brainpoolP256r1</i>. */
+	@Override
+	public boolean isSupported(final PaceInfo paceInfo) {
+		if (paceInfo == null || paceInfo.getParameter() != PaceAlgorithmParam.BRAINPOOL_256_R1) {
+			return false;
+		}
+		switch (paceInfo.getAlgorithm()) {
+			case PACE_ECDH_GM_AES_CBC_CMAC_128:
+			case PACE_ECDH_IM_AES_CBC_CMAC_128:
+			case PACE_ECDH_CAM_AES_CBC_CMAC_128:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	@Override
+	public PaceConnection openPaceConnection(final byte cla,
+			                                 final PaceInfo paceInfo,
+			                                 final WirelessInitializer pi,
+			                                 final ApduConnection conn) throws ApduConnectionException,
+	                                                                           IcaoException {
+		if (!isSupported(paceInfo)) {
+			throw new PaceException("Algoritmo PACE no soportado: " + paceInfo); //$NON-NLS-1$
+		}
+		final PaceChannel channel = openChannel(cla, paceInfo.getAlgorithm(), pi, conn);
+		return new PaceConnection(conn, cryptoHelper, channel.secureMessaging, paceInfo, channel.camData);
+	}
+
+	@Override
+	public boolean verifyChipAuthenticationMapping(final ChipAuthenticationMappingData camData,
+			                                       final byte[] chipAuthenticationPublicKey) {
+		if (camData == null || chipAuthenticationPublicKey == null) {
+			throw new IllegalArgumentException(
+				"Ni los datos de autenticacion de chip ni la clave publica pueden ser nulos" //$NON-NLS-1$
+			);
+		}
+		final PaceEcContext ecContext = PaceEcContext.BRAINPOOL_P256_R1;
+		final ECPoint pkIc;
+		final ECPoint pkMapIc;
+		try {
+			pkIc = ecContext.decodePoint(chipAuthenticationPublicKey);
+			pkMapIc = ecContext.decodePoint(camData.getMappingPublicKey());
+		}
+		catch (final IllegalArgumentException e) {
+			LOGGER.warning("Clave de autenticacion de chip invalida: " + e); //$NON-NLS-1$
+			return false;
+		}
+		// PK_Map,IC = CA_IC * PK_IC
+		return pkIc.multiply(camData.getChipAuthenticationData()).equals(pkMapIc);
+	}
+
+	private PaceChannel openChannel(final byte cla,
+			                        final PaceAlgorithmOid algorithm,
+			                        final WirelessInitializer pi,
+			                        final ApduConnection conn) throws ApduConnectionException,
+			                                                          IcaoException {
 		if (conn == null) {
 			throw new IllegalArgumentException(
 				"El canal de conexion no puede ser nulo" //$NON-NLS-1$
@@ -79,9 +153,9 @@ public final class BcPaceChannelHelper extends PaceChannelHelper {
 
 		comm = new MseSetPaceAlgorithmApduCommand(
 			cla,
-			MseSetPaceAlgorithmApduCommand.PaceAlgorithmOid.PACE_ECDH_GM_AES_CBC_CMAC_128,
+			algorithm,
 			pi.getPasswordType(),
-			MseSetPaceAlgorithmApduCommand.PaceAlgorithmParam.BRAINPOOL_256_R1
+			PaceAlgorithmParam.BRAINPOOL_256_R1
 		);
 		res = conn.transmit(comm);
 
@@ -167,68 +241,71 @@ public final class BcPaceChannelHelper extends PaceChannelHelper {
 
 		// 1.3.4 - Segundo comando General Autenticate - Map Nonce
 
-		// Generamos un par de claves efimeras EC para el DH
-
-		final X9ECParameters ecdhParameters = TeleTrusTNamedCurves.getByName("brainpoolp256r1"); //$NON-NLS-1$
-		final ECPoint pointG = ecdhParameters.getG();
-		final Fp curve = (ECCurve.Fp) ecdhParameters.getCurve();
-
-		// La privada del terminal se genera aleatoriamente (PrkIFDDH1)
-		// La publica de la tarjeta sera devuelta por ella misma al enviar nuesra publica (pukIFDDH1)
-		final Random rnd = new SecureRandom();
-		rnd.setSeed(rnd.nextLong());
-		final byte[] x1 = new byte[curve.getFieldSize()/8];
-		rnd.nextBytes(x1);
-		final BigInteger prkIFDDH1 = new BigInteger(1, x1);
-		// Enviamos nuestra clave publica (pukIFDDH1 = G*PrkIFDDH1)
-		final ECPoint pukIFDDH1 = pointG.multiply(prkIFDDH1);
-		final byte[] pukIFDDH1UncompressedBytes = pukIFDDH1.getEncoded(false);
-
-		Tlv tlv = new Tlv(
-			TAG_DYNAMIC_AUTHENTICATION_DATA,
-			new Tlv(
-				TAG_GEN_AUTH_2,
-				pukIFDDH1UncompressedBytes
-			).getBytes()
-		);
-
-		// ... Y la enviamos a la tarjeta
-		comm = new GeneralAuthenticateApduCommand(
-			(byte) 0x10, // CLA
-			tlv.getBytes()
-		);
-
-		res = conn.transmit(comm);
-
-		if (!res.isOk()) {
-			throw new PaceException(
-				res.getStatusWord(),
-				comm,
-				"Error mapeando el aleatorio de calculo PACE (Nonce)" //$NON-NLS-1$
-			);
-		}
+		// La curva y la tabla precalculada de su generador se comparten entre canales
+		final PaceEcContext ecContext = PaceEcContext.BRAINPOOL_P256_R1;
 
-		// Se obtiene la clave publica de la tarjeta
-		final byte[] pukIccDh1;
-		try {
-			pukIccDh1 = unwrapEcKey(res.getData());
+		Tlv tlv;
+		final ECPoint newPointG;
+		// Clave publica efimera de la tarjeta en la correspondencia (PK_Map,IC), necesaria con CAM
+		byte[] pukIccDh1 = null;
+		if (algorithm == PaceAlgorithmOid.PACE_ECDH_IM_AES_CBC_CMAC_128) {
+			newPointG = mapNonceIntegrated(secretNonce, conn, ecContext);
 		}
-		catch(final TlvException e) {
-			throw new PaceException(
-				"Error obteniendo la clave efimera EC publica de la tarjeta", e //$NON-NLS-1$
+		else {
+			// Generamos un par de claves efimeras EC para el DH
+
+			// La privada del terminal se genera aleatoriamente (PrkIFDDH1)
+			// La publica de la tarjeta sera devuelta por ella misma al enviar nuesra publica (pukIFDDH1)
+			final BigInteger prkIFDDH1 = ecContext.generatePrivateKey();
+			// Enviamos nuestra clave publica (pukIFDDH1 = G*PrkIFDDH1)
+			final ECPoint pukIFDDH1 = ecContext.multiplyGenerator(prkIFDDH1);
+			final byte[] pukIFDDH1UncompressedBytes = pukIFDDH1.getEncoded(false);
+
+			tlv = new Tlv(
+				TAG_DYNAMIC_AUTHENTICATION_DATA,
+				new Tlv(
+					TAG_GEN_AUTH_2,
+					pukIFDDH1UncompressedBytes
+				).getBytes()
 			);
-		}
-
-		// calcular blinding point H = PrkIFDDH1 * PukICCDH1
-		final ECPoint y1FromG = byteArrayToECPoint(pukIccDh1, curve);
 
-		//Calculamos el punto H secreto
-		final ECPoint sharedSecretH = y1FromG.multiply(prkIFDDH1);
+			// ... Y la enviamos a la tarjeta
+			comm = new GeneralAuthenticateApduCommand(
+				(byte) 0x10, // CLA
+				tlv.getBytes()
+			);
 
-		//Se calcula el nuevo punto G' = nonce*G + H
-		final BigInteger ms = new BigInteger(1, secretNonce);
-		final ECPoint gTemp = pointG.multiply(ms);
-		final ECPoint newPointG = gTemp.add(sharedSecretH);
+			res = conn.transmit(comm);
+
+			if (!res.isOk()) {
+				throw new PaceException(
+					res.getStatusWord(),
+					comm,
+					"Error mapeando el aleatorio de calculo PACE (Nonce)" //$NON-NLS-1$
+				);
+			}
+
+			// Se obtiene la clave publica de la tarjeta
+			try {
+				pukIccDh1 = unwrapEcKey(res.getData());
+			}
+			catch(final TlvException e) {
+				throw new PaceException(
+					"Error obteniendo la clave efimera EC publica de la tarjeta", e //$NON-NLS-1$
+				);
+			}
+
+			// calcular blinding point H = PrkIFDDH1 * PukICCDH1
+			final ECPoint y1FromG = ecContext.decodePoint(pukIccDh1);
+
+			//Calculamos el punto H secreto
+			final ECPoint sharedSecretH = y1FromG.multiply(prkIFDDH1);
+
+			//Se calcula el nuevo punto G' = nonce*G + H
+			final BigInteger ms = new BigInteger(1, secretNonce);
+			final ECPoint gTemp = ecContext.multiplyGenerator(ms);
+			newPointG = gTemp.add(sharedSecretH);
+		}
 
 
 		// 1.3.5 Tercer comando General Authenticate
@@ -236,10 +313,7 @@ public final class BcPaceChannelHelper extends PaceChannelHelper {
 		//Se calcula la coordenada X de G' y generamos con la tarjeta un nuevo acuerdo de claves
 		// La privada del terminal se genera aleatoriamente (PrkIFDDH2)
 		// La publica de la tarjeta sera devuelta por ella misma al enviar nuesra publica (pukIFDDH2)
-		final byte[] x2 = new byte[curve.getFieldSize()/8];
-		rnd.setSeed(rnd.nextLong());
-		rnd.nextBytes(x2);
-		final BigInteger prkIFDDH2 = new BigInteger(1, x2);
+		final BigInteger prkIFDDH2 = ecContext.generatePrivateKey();
 
 		// Enviamos nuestra clave publica (pukIFDDH2 = G'*PrkIFDDH2)
 		final ECPoint pukIFDDH2 = newPointG.multiply(prkIFDDH2);
@@ -272,11 +346,11 @@ public final class BcPaceChannelHelper extends PaceChannelHelper {
 			);
 		}
 
-		final ECPoint y2FromNewG = byteArrayToECPoint(pukIccDh2, curve);
+		final ECPoint y2FromNewG = ecContext.decodePoint(pukIccDh2);
 
 		// Se calcula el secreto k = PukICCDH2 * PrkIFDDH2
-		final ECPoint.Fp sharedSecretK = (ECPoint.Fp) y2FromNewG.multiply(prkIFDDH2);
-		final byte[] secretK = bigIntToByteArray(sharedSecretK.normalize().getXCoord().toBigInteger());
+		final ECPoint sharedSecretK = y2FromNewG.multiply(prkIFDDH2).normalize();
+		final byte[] secretK = bigIntToByteArray(sharedSecretK.getAffineXCoord().toBigInteger());
 
 		// 1.3.6 Cuarto comando General Authenticate
 		// Se validan las claves de sesion generadas en el paso anterior,
@@ -337,7 +411,7 @@ public final class BcPaceChannelHelper extends PaceChannelHelper {
 		final byte[] data = HexUtils.concatenateByteArrays(
 			MAC_PADDING,
 			HexUtils.concatenateByteArrays(
-				MseSetPaceAlgorithmApduCommand.PaceAlgorithmOid.PACE_ECDH_GM_AES_CBC_CMAC_128.getBytes(),
+				algorithm.getBytes(),
 				HexUtils.concatenateByteArrays(
 					MAC2_PADDING,
 					pukIccDh2Descompressed
@@ -384,6 +458,18 @@ public final class BcPaceChannelHelper extends PaceChannelHelper {
 			);
 		}
 
+		// Con CAM la tarjeta devuelve, cifrados, los datos con los que se autentica el chip
+		final ChipAuthenticationMappingData camData;
+		if (algorithm == PaceAlgorithmOid.PACE_ECDH_CAM_AES_CBC_CMAC_128) {
+			camData = new ChipAuthenticationMappingData(
+				pukIccDh1,
+				decryptChipAuthenticationData(res.getData(), kenc)
+			);
+		}
+		else {
+			camData = null;
+		}
+
 		// Se inicializa el contador de secuencia a ceros
 		final byte[] ssc = new byte[BLOCK_SIZE]; // El tamano de bloque AES es el tamano del SSC
 		Arrays.fill(ssc, (byte)0);
@@ -396,26 +482,158 @@ public final class BcPaceChannelHelper extends PaceChannelHelper {
 			);
 		}
 
-		return new SecureMessaging(
-			kenc,
-			kmac,
-			ssc,
-			cryptoHelper
+		return new PaceChannel(
+			new SecureMessaging(
+				kenc,
+				kmac,
+				ssc,
+				cryptoHelper.newSecureChannelHelper()
+			),
+			camData
 		);
 	}
 
-	private static ECPoint byteArrayToECPoint(final byte[] value, final ECCurve.Fp curve) {
-		final byte[] x = new byte[(value.length - 1) / 2];
-		final byte[] y = new byte[(value.length - 1) / 2];
-		if (value[0] != (byte) 0x04) {
-			throw new IllegalArgumentException("No se ha encontrado un punto no comprimido"); //$NON-NLS-1$
+	/** Calcula el nuevo generador con la correspondencia integrada (PACE-IM): se env&iacute;a a
+	 * la tarjeta un segundo aleatorio <i>t</i> y ambos calculan <i>G~ = f<sub>G</sub>(R<sub>p</sub>(s,t))</i>,
+	 * sin el acuerdo de claves adicional de la correspondencia gen&eacute;rica.
+	 * @param secretNonce Aleatorio <i>s</i> descifrado.
+	 * @param conn Conexi&oacute;n con la tarjeta.
+	 * @param ecContext Curva el&iacute;ptica.
+	 * @return Nuevo generador.
+	 * @throws ApduConnectionException Si hay problemas de conexi&oacute;n con la tarjeta.
+	 * @throws PaceException Si la tarjeta rechaza la correspondencia. */
+	private ECPoint mapNonceIntegrated(final byte[] secretNonce,
+			                           final ApduConnection conn,
+			                           final PaceEcContext ecContext) throws ApduConnectionException,
+	                                                                         PaceException {
+		final byte[] t;
+		try {
+			t = cryptoHelper.generateRandomBytes(BLOCK_SIZE);
+		}
+		catch (final IOException e) {
+			throw new PaceException(
+				"Error generando el aleatorio de la correspondencia integrada", e //$NON-NLS-1$
+			);
+		}
+		final CommandApdu comm = new GeneralAuthenticateApduCommand(
+			(byte) 0x10, // CLA
+			new Tlv(
+				TAG_DYNAMIC_AUTHENTICATION_DATA,
+				new Tlv(
+					TAG_GEN_AUTH_2,
+					t
+				).getBytes()
+			).getBytes()
+		);
+		final ResponseApdu res = conn.transmit(comm);
+		if (!res.isOk()) {
+			throw new PaceException(
+				res.getStatusWord(),
+				comm,
+				"Error mapeando el aleatorio de calculo PACE (Nonce)" //$NON-NLS-1$
+			);
+		}
+		try {
+			return ecContext.mapToPoint(
+				pseudoRandomFunction(secretNonce, t, ecContext.getCurve().getField().getCharacteristic())
+			);
 		}
-		System.arraycopy(value, 1, x, 0, (value.length - 1) / 2);
-		System.arraycopy(value, 1 + (value.length - 1) / 2, y, 0, (value.length - 1) / 2);
-		final ECFieldElement.Fp xE = (ECFieldElement.Fp) curve.fromBigInteger(new BigInteger(1, x));
-		final ECFieldElement.Fp yE = (ECFieldElement.Fp) curve.fromBigInteger(new BigInteger(1, y));
+		catch (final IOException e) {
+			throw new PaceException(
+				"Error calculando el generador de la correspondencia integrada", e //$NON-NLS-1$
+			);
+		}
+	}
 
-		return curve.createPoint(xE.toBigInteger(), yE.toBigInteger());
+	/** Funci&oacute;n pseudoaleatoria <i>R<sub>p</sub>(s,t)</i> de la correspondencia integrada
+	 * con AES-128 (ICAO 9303 parte 11).
+	 * @param s Aleatorio de la tarjeta.
+	 * @param t Aleatorio del terminal.
+	 * @param p Primo del cuerpo de la curva.
+	 * @return Elemento del cuerpo.
+	 * @throws IOException Si falla el cifrado AES. */
+	BigInteger pseudoRandomFunction(final byte[] s,
+			                                final byte[] t,
+			                                final BigInteger p) throws IOException {
+		final int blockBits = BLOCK_SIZE * 8;
+		final int n = (p.bitLength() + 64 + blockBits - 1) / blockBits;
+		final byte[] x = new byte[n * BLOCK_SIZE];
+		byte[] key = cryptoHelper.aesEncrypt(s, null, t, BlockMode.ECB, Padding.NOPADDING);
+		for (int i = 0; i < n; i++) {
+			System.arraycopy(
+				cryptoHelper.aesEncrypt(IM_C1, null, key, BlockMode.ECB, Padding.NOPADDING),
+				0,
+				x,
+				i * BLOCK_SIZE,
+				BLOCK_SIZE
+			);
+			key = cryptoHelper.aesEncrypt(IM_C0, null, key, BlockMode.ECB, Padding.NOPADDING);
+		}
+		return new BigInteger(1, x).mod(p);
+	}
+
+	/** Descifra los datos de autenticaci&oacute;n de chip de la respuesta al cuarto comando
+	 * <i>General Authenticate</i> de PACE-CAM.
+	 * @param responseData Datos de la respuesta.
+	 * @param kenc Clave de cifrado de la sesi&oacute;n.
+	 * @return Datos de autenticaci&oacute;n de chip (<i>CA<sub>IC</sub></i>).
+	 * @throws PaceException Si la respuesta no contiene los datos o no se pueden descifrar. */
+	private BigInteger decryptChipAuthenticationData(final byte[] responseData,
+			                                         final byte[] kenc) throws PaceException {
+		byte[] encryptedData = null;
+		try {
+			final ByteArrayInputStream objects = new ByteArrayInputStream(
+				BerTlv.createInstance(responseData).getValue()
+			);
+			while (objects.available() > 0 && encryptedData == null) {
+				final BerTlv object = BerTlv.createInstance(objects);
+				if (object.getTag() == TAG_ENCRYPTED_CHIP_AUTHENTICATION_DATA) {
+					encryptedData = object.getValue();
+				}
+			}
+		}
+		catch (final RuntimeException e) {
+			throw new PaceException(
+				"La respuesta de autenticacion mutua de PACE-CAM no sigue el formato esperado", e //$NON-NLS-1$
+			);
+		}
+		if (encryptedData == null) {
+			throw new PaceException(
+				"La tarjeta no ha devuelto los datos de autenticacion de chip de PACE-CAM" //$NON-NLS-1$
+			);
+		}
+		try {
+			// El vector de inicializacion es E(Kenc, -1)
+			final byte[] minusOne = new byte[BLOCK_SIZE];
+			Arrays.fill(minusOne, (byte) 0xff);
+			return new BigInteger(
+				1,
+				cryptoHelper.aesDecrypt(
+					encryptedData,
+					cryptoHelper.aesEncrypt(minusOne, null, kenc, BlockMode.ECB, Padding.NOPADDING),
+					kenc,
+					BlockMode.CBC,
+					Padding.ISO7816_4PADDING
+				)
+			);
+		}
+		catch (final IOException e) {
+			throw new PaceException(
+				"Error descifrando los datos de autenticacion de chip de PACE-CAM", e //$NON-NLS-1$
+			);
+		}
+	}
+
+	/** Resultado del establecimiento de un canal PACE. */
+	private static final class PaceChannel {
+
+		final SecureMessaging secureMessaging;
+		final ChipAuthenticationMappingData camData;
+
+		PaceChannel(final SecureMessaging sm, final ChipAuthenticationMappingData cam) {
+			secureMessaging = sm;
+			camData = cam;
+		}
 	}
 
 }
\ No newline at end of file
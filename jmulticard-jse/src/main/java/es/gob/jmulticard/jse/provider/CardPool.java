@@ -0,0 +1,441 @@
+package es.gob.jmulticard.jse.provider;
+
+import java.io.Closeable;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.security.auth.callback.CallbackHandler;
+
+import es.gob.jmulticard.BcCryptoHelper;
+import es.gob.jmulticard.card.CryptoCard;
+import es.gob.jmulticard.card.CryptoCardException;
+import es.gob.jmulticard.card.PinException;
+import es.gob.jmulticard.card.PrivateKeyReference;
+import es.gob.jmulticard.card.dnie.Dnie;
+import es.gob.jmulticard.card.dnie.DnieFactory;
+import es.gob.jmulticard.card.dnie.ceressc.CeresSc;
+import es.gob.jmulticard.card.fnmt.ceres.Ceres;
+import es.gob.jmulticard.card.gide.smartcafe.SmartCafePkcs15Applet;
+import es.gob.jmulticard.card.iso7816four.AbstractIso7816FourCard;
+import es.gob.jmulticard.connection.ApduConnection;
+import es.gob.jmulticard.connection.ApduConnectionException;
+import es.gob.jmulticard.connection.CardConnectionEvent;
+import es.gob.jmulticard.connection.CardConnectionListener;
+import es.gob.jmulticard.jse.provider.JMultiCardProviderFactory.CardType;
+
+/** Conjunto de tarjetas insertadas en varios lectores, para repartir entre ellas
+ * operaciones concurrentes (por ejemplo, firmas en un servidor con varios lectores).
+ * Cada tarjeta tiene su propia conexi&oacute;n, y solo la usa un hilo a la vez: las
+ * operaciones se asignan a la tarjeta libre que lleva m&aacute;s tiempo sin usarse y, si
+ * no hay ninguna libre, los hilos esperan su turno por orden de llegada.
+ * En los conjuntos abiertos por el propio conjunto, si la conexi&oacute;n notifica la
+ * extracci&oacute;n de una tarjeta se descarta todo lo que se sab&iacute;a de ella (canal
+ * seguro, certificados, fichero seleccionado), y al insertarse de nuevo se restablece en
+ * segundo plano el canal seguro de los DNIe configurados para mantenerlo abierto.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class CardPool implements Closeable {
+
+	private static final Logger LOGGER = Logger.getLogger("es.gob.jmulticard"); //$NON-NLS-1$
+
+	/** Factor&iacute;a de conexiones con los lectores. */
+	public interface ConnectionFactory {
+
+		/** Crea una conexi&oacute;n nueva, independiente de las ya creadas.
+		 * @return Conexi&oacute;n nueva (sin abrir).
+		 * @throws ApduConnectionException Si no se puede crear la conexi&oacute;n. */
+		ApduConnection createConnection() throws ApduConnectionException;
+	}
+
+	/** Operaci&oacute;n a realizar con una tarjeta del conjunto.
+	 * @param <T> Tipo del resultado de la operaci&oacute;n. */
+	public interface CardOperation<T> {
+
+		/** Realiza la operaci&oacute;n. La tarjeta no se usa en ning&uacute;n otro hilo
+		 * mientras dura, y no debe guardarse para usarla despu&eacute;s.
+		 * @param card Tarjeta asignada a la operaci&oacute;n.
+		 * @return Resultado de la operaci&oacute;n.
+		 * @throws CryptoCardException Si hay errores en la operaci&oacute;n con la tarjeta.
+		 * @throws PinException Si hay problemas con el PIN de la tarjeta. */
+		T execute(CryptoCard card) throws CryptoCardException, PinException;
+	}
+
+	/** Establece el canal seguro de los DNIe (y compatibles), verificando el PIN. */
+	private static final CardOperation<Void> OPEN_SECURE_CHANNEL = new CardOperation<Void>() {
+		@Override
+		public Void execute(final CryptoCard card) throws CryptoCardException, PinException {
+			if (card instanceof Dnie) {
+				((Dnie) card).openSecureChannelIfNotAlreadyOpened();
+			}
+			return null;
+		}
+	};
+
+	/** Marca que se a&ntilde;ade a la cola de tarjetas libres al cerrar el conjunto, para
+	 * despertar a los hilos que esperan una tarjeta. Quien la obtiene la vuelve a
+	 * a&ntilde;adir (para el siguiente hilo en espera) y falla. */
+	private static final CryptoCard CLOSED_MARK = new CryptoCard() {
+
+		@Override
+		public String[] getAliases() {
+			throw new IllegalStateException("El conjunto de tarjetas esta cerrado"); //$NON-NLS-1$
+		}
+
+		@Override
+		public X509Certificate getCertificate(final String alias) {
+			throw new IllegalStateException("El conjunto de tarjetas esta cerrado"); //$NON-NLS-1$
+		}
+
+		@Override
+		public PrivateKeyReference getPrivateKey(final String alias) {
+			throw new IllegalStateException("El conjunto de tarjetas esta cerrado"); //$NON-NLS-1$
+		}
+
+		@Override
+		public byte[] sign(final byte[] data, final String algorithm, final PrivateKeyReference keyRef) {
+			throw new IllegalStateException("El conjunto de tarjetas esta cerrado"); //$NON-NLS-1$
+		}
+	};
+
+	private final List<CryptoCard> cards;
+
+	private final List<ApduConnection> connections;
+
+	/** Receptores de inserciones y extracciones registrados en las conexiones (mismo orden). */
+	private final List<CardConnectionListener> presenceListeners;
+
+	/** Tarjetas libres, en orden de uso (la primera es la que lleva m&aacute;s tiempo libre). */
+	private final BlockingQueue<CryptoCard> idleCards;
+
+	private volatile boolean closed = false;
+
+	/** Crea un conjunto con tarjetas ya abiertas.
+	 * Las conexiones de estas tarjetas no se cierran al cerrar el conjunto.
+	 * @param poolCards Tarjetas del conjunto, cada una con su propia conexi&oacute;n. */
+	public CardPool(final List<? extends CryptoCard> poolCards) {
+		this(poolCards, Collections.<ApduConnection>emptyList());
+	}
+
+	private CardPool(final List<? extends CryptoCard> poolCards, final List<ApduConnection> conns) {
+		if (poolCards == null || poolCards.isEmpty()) {
+			throw new IllegalArgumentException("El conjunto debe tener al menos una tarjeta"); //$NON-NLS-1$
+		}
+		cards = Collections.unmodifiableList(new ArrayList<CryptoCard>(poolCards));
+		connections = conns;
+		// Cola justa: los hilos en espera obtienen tarjeta por orden de llegada (con hueco
+		// para la marca de cierre aunque esten todas las tarjetas libres)
+		idleCards = new ArrayBlockingQueue<>(cards.size() + 1, true, cards);
+		// Las conexiones abiertas por el conjunto estan en el mismo orden que sus tarjetas
+		presenceListeners = new ArrayList<>(conns.size());
+		for (int i = 0; i < conns.size(); i++) {
+			final CardConnectionListener ccl = new CardPresenceListener(cards.get(i));
+			try {
+				conns.get(i).addCardConnectionListener(ccl);
+			}
+			catch (final UnsupportedOperationException e) {
+				LOGGER.fine("La conexion no notifica inserciones ni extracciones de tarjeta: " + e); //$NON-NLS-1$
+			}
+			presenceListeners.add(ccl);
+		}
+	}
+
+	/** Abre un conjunto con las tarjetas soportadas insertadas en los lectores del sistema,
+	 * usando la conexi&oacute;n por defecto.
+	 * @param callbackHandler Manejador de las peticiones de PIN y de confirmaci&oacute;n de
+	 *                        firma de todas las tarjetas.
+	 * @return Conjunto con las tarjetas encontradas.
+	 * @throws ApduConnectionException Si no se pueden obtener los lectores del sistema o
+	 *                                 no hay ninguna tarjeta soportada insertada. */
+	public static CardPool open(final CallbackHandler callbackHandler) throws ApduConnectionException {
+		return open(
+			new ConnectionFactory() {
+				@Override
+				public ApduConnection createConnection() {
+					return ProviderUtil.getDefaultConnection();
+				}
+			},
+			callbackHandler
+		);
+	}
+
+	/** Abre un conjunto con las tarjetas soportadas (DNIe, CERES y G&amp;D SmartCafe)
+	 * insertadas en los lectores del sistema, con una conexi&oacute;n por lector.
+	 * Los lectores cuya tarjeta no se puede abrir se descartan.
+	 * @param factory Factor&iacute;a de conexiones con los lectores.
+	 * @param callbackHandler Manejador de las peticiones de PIN y de confirmaci&oacute;n de
+	 *                        firma de todas las tarjetas.
+	 * @return Conjunto con las tarjetas encontradas.
+	 * @throws ApduConnectionException Si no se pueden obtener los lectores del sistema o
+	 *                                 no hay ninguna tarjeta soportada insertada. */
+	public static CardPool open(final ConnectionFactory factory,
+			                    final CallbackHandler callbackHandler) throws ApduConnectionException {
+		if (factory == null) {
+			throw new IllegalArgumentException("La factoria de conexiones no puede ser nula"); //$NON-NLS-1$
+		}
+		// Se descubren primero las tarjetas de todos los lectores (en paralelo y sin
+		// reiniciarlas si la conexion lo permite)
+		final ApduConnection discoveryConn = factory.createConnection();
+		final Map<Long, CardType> types;
+		try {
+			types = JMultiCardProviderFactory.discoverCards(discoveryConn);
+		}
+		finally {
+			// Cada tarjeta se abre despues con su propia conexion
+			closeQuietly(discoveryConn);
+		}
+		final List<CryptoCard> poolCards = new ArrayList<>(types.size());
+		final List<ApduConnection> conns = new ArrayList<>(types.size());
+		for (final Map.Entry<Long, CardType> entry : types.entrySet()) {
+			final long terminal = entry.getKey().longValue();
+			final ApduConnection conn = factory.createConnection();
+			try {
+				conn.setTerminal((int) terminal);
+				poolCards.add(openCard(conn, terminal, entry.getValue(), callbackHandler));
+				conns.add(conn);
+				continue;
+			}
+			catch (final Exception e) {
+				LOGGER.warning("No se ha podido abrir la tarjeta del lector " + terminal + ", se ignorara: " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			closeQuietly(conn);
+		}
+		if (poolCards.isEmpty()) {
+			throw new ApduConnectionException("No hay ninguna tarjeta soportada insertada en los lectores del sistema"); //$NON-NLS-1$
+		}
+		return new CardPool(poolCards, conns);
+	}
+
+	/** Abre la tarjeta de un lector.
+	 * @param conn Conexi&oacute;n con el lector de la tarjeta.
+	 * @param terminal N&uacute;mero de lector.
+	 * @param type Tipo de la tarjeta.
+	 * @param callbackHandler Manejador de las peticiones de PIN y de confirmaci&oacute;n de firma.
+	 * @return Tarjeta abierta.
+	 * @throws Exception Si no se puede abrir la tarjeta. */
+	private static CryptoCard openCard(final ApduConnection conn,
+			                           final long terminal,
+			                           final CardType type,
+			                           final CallbackHandler callbackHandler) throws Exception {
+		switch (type) {
+			case DNIE:
+				return DnieFactory.getDnie(conn, terminal, null, new BcCryptoHelper(), callbackHandler, true);
+			case CERES_430:
+				return new CeresSc(conn, null, new BcCryptoHelper(), callbackHandler);
+			case CERES:
+				final Ceres ceres = new Ceres(conn, new BcCryptoHelper());
+				ceres.setCallbackHandler(callbackHandler);
+				return ceres;
+			case GIDE_SMARTCAFE:
+				final SmartCafePkcs15Applet smartCafe = new SmartCafePkcs15Applet(conn, new BcCryptoHelper());
+				smartCafe.setCallbackHandler(callbackHandler);
+				return smartCafe;
+			default:
+				throw new IllegalStateException("Tipo de tarjeta no soportado: " + type); //$NON-NLS-1$
+		}
+	}
+
+	/** Obtiene el n&uacute;mero de tarjetas del conjunto.
+	 * @return N&uacute;mero de tarjetas del conjunto. */
+	public int size() {
+		return cards.size();
+	}
+
+	/** Obtiene las tarjetas del conjunto. Para operar con ellas de forma concurrente
+	 * debe usarse {@link #execute(CardOperation)}.
+	 * @return Tarjetas del conjunto (lista no modificable). */
+	public List<CryptoCard> getCards() {
+		return cards;
+	}
+
+	/** Realiza una operaci&oacute;n con la primera tarjeta libre del conjunto, esperando a
+	 * que quede alguna libre si todas est&aacute;n en uso.
+	 * @param <T> Tipo del resultado de la operaci&oacute;n.
+	 * @param operation Operaci&oacute;n a realizar.
+	 * @return Resultado de la operaci&oacute;n.
+	 * @throws CryptoCardException Si hay errores en la operaci&oacute;n con la tarjeta.
+	 * @throws PinException Si hay problemas con el PIN de la tarjeta.
+	 * @throws InterruptedException Si se interrumpe el hilo mientras espera una tarjeta libre.
+	 * @throws IllegalStateException Si el conjunto est&aacute; cerrado o se cierra durante la espera. */
+	public <T> T execute(final CardOperation<T> operation) throws CryptoCardException,
+	                                                              PinException,
+	                                                              InterruptedException {
+		checkOpen();
+		return execute(operation, checkNotClosedMark(idleCards.take()));
+	}
+
+	/** Realiza una operaci&oacute;n con la primera tarjeta libre del conjunto, esperando como
+	 * m&aacute;ximo el tiempo indicado a que quede alguna libre.
+	 * @param <T> Tipo del resultado de la operaci&oacute;n.
+	 * @param operation Operaci&oacute;n a realizar.
+	 * @param timeout Tiempo m&aacute;ximo de espera por una tarjeta libre.
+	 * @param unit Unidad del tiempo m&aacute;ximo de espera.
+	 * @return Resultado de la operaci&oacute;n.
+	 * @throws CryptoCardException Si hay errores en la operaci&oacute;n con la tarjeta o si
+	 *                             no ha quedado ninguna tarjeta libre en el tiempo indicado.
+	 * @throws PinException Si hay problemas con el PIN de la tarjeta.
+	 * @throws InterruptedException Si se interrumpe el hilo mientras espera una tarjeta libre.
+	 * @throws IllegalStateException Si el conjunto est&aacute; cerrado o se cierra durante la espera. */
+	public <T> T execute(final CardOperation<T> operation,
+			             final long timeout,
+			             final TimeUnit unit) throws CryptoCardException,
+	                                                 PinException,
+	                                                 InterruptedException {
+		checkOpen();
+		final CryptoCard card = idleCards.poll(timeout, unit);
+		if (card == null) {
+			throw new CryptoCardException(
+				"No ha quedado libre ninguna tarjeta del conjunto en " + timeout + " " + unit //$NON-NLS-1$ //$NON-NLS-2$
+			);
+		}
+		return execute(operation, checkNotClosedMark(card));
+	}
+
+	/** Comprueba que la tarjeta obtenida de la cola de tarjetas libres no sea la marca de
+	 * cierre. Si lo es, la devuelve a la cola para despertar al siguiente hilo en espera.
+	 * @param card Tarjeta obtenida de la cola.
+	 * @return La misma tarjeta.
+	 * @throws IllegalStateException Si se ha obtenido la marca de cierre. */
+	private CryptoCard checkNotClosedMark(final CryptoCard card) {
+		if (card == CLOSED_MARK) {
+			idleCards.add(CLOSED_MARK);
+			throw new IllegalStateException("Se ha cerrado el conjunto de tarjetas durante la espera"); //$NON-NLS-1$
+		}
+		return card;
+	}
+
+	private <T> T execute(final CardOperation<T> operation, final CryptoCard card) throws CryptoCardException,
+	                                                                                      PinException {
+		try {
+			return operation.execute(card);
+		}
+		finally {
+			// Al final de la cola, para repartir el uso entre todas las tarjetas
+			idleCards.add(card);
+		}
+	}
+
+	/** Establece en segundo plano el canal seguro de las tarjetas del conjunto que lo usan
+	 * (DNIe y compatibles), verificando su PIN, para que las primeras operaciones no tengan
+	 * que esperar a su establecimiento. Las tarjetas que est&eacute;n en uso se omiten.
+	 * Para que el canal siga abierto tras la primera firma, los DNIe deben configurarse
+	 * para mantenerlo (<code>Dnie.setKeepSecureChannelOpen(true)</code>).
+	 * @param executor Ejecutor de las tareas de establecimiento.
+	 * @return Tareas de establecimiento, una por tarjeta. */
+	public List<Future<Void>> prewarm(final ExecutorService executor) {
+		checkOpen();
+		final List<Future<Void>> tasks = new ArrayList<>(cards.size());
+		for (final CryptoCard card : cards) {
+			tasks.add(
+				executor.submit(
+					new Callable<Void>() {
+						@Override
+						public Void call() throws Exception {
+							// Se reserva esta tarjeta concreta, si esta libre
+							if (!idleCards.remove(card)) {
+								return null;
+							}
+							return execute(OPEN_SECURE_CHANNEL, card);
+						}
+					}
+				)
+			);
+		}
+		return tasks;
+	}
+
+	/** Reacciona a las extracciones e inserciones de una tarjeta del conjunto. */
+	private final class CardPresenceListener implements CardConnectionListener {
+
+		private final CryptoCard card;
+
+		CardPresenceListener(final CryptoCard poolCard) {
+			card = poolCard;
+		}
+
+		@Override
+		public void cardRemoved(final CardConnectionEvent cce) {
+			LOGGER.info("Se ha extraido una tarjeta del conjunto: " + card); //$NON-NLS-1$
+			if (card instanceof Dnie) {
+				((Dnie) card).invalidateCardState();
+			}
+			else if (card instanceof AbstractIso7816FourCard) {
+				((AbstractIso7816FourCard) card).invalidateSelectionCache();
+			}
+		}
+
+		@Override
+		public void cardInserted(final CardConnectionEvent cce) {
+			if (closed || !(card instanceof Dnie) || !((Dnie) card).isKeepSecureChannelOpen()) {
+				return;
+			}
+			// Se restablece el canal en otro hilo, para no retener al que notifica
+			final Thread prewarmThread = new Thread(
+				new Runnable() {
+					@Override
+					public void run() {
+						// Se reserva esta tarjeta concreta, si esta libre
+						if (!idleCards.remove(card)) {
+							return;
+						}
+						try {
+							execute(OPEN_SECURE_CHANNEL, card);
+						}
+						catch (final Exception e) {
+							LOGGER.warning(
+								"No se ha podido establecer el canal seguro con la tarjeta insertada: " + e //$NON-NLS-1$
+							);
+						}
+					}
+				},
+				"jmulticard-card-prewarm" //$NON-NLS-1$
+			);
+			prewarmThread.setDaemon(true);
+			prewarmThread.start();
+		}
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("El conjunto de tarjetas esta cerrado"); //$NON-NLS-1$
+		}
+	}
+
+	/** Cierra el conjunto y las conexiones con las tarjetas que abri&oacute; &eacute;l mismo.
+	 * Las operaciones en curso no se interrumpen, pero los hilos que esperan una tarjeta
+	 * libre se despiertan y fallan con <code>IllegalStateException</code>. */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		idleCards.add(CLOSED_MARK);
+		for (int i = 0; i < connections.size(); i++) {
+			try {
+				connections.get(i).removeCardConnectionListener(presenceListeners.get(i));
+			}
+			catch (final UnsupportedOperationException e) {
+				// La conexion no notifica inserciones ni extracciones
+			}
+			closeQuietly(connections.get(i));
+		}
+	}
+
+	private static void closeQuietly(final ApduConnection conn) {
+		try {
+			conn.close();
+		}
+		catch (final Exception e) {
+			LOGGER.warning("No se ha podido cerrar la conexion con el lector: " + e); //$NON-NLS-1$
+		}
+	}
+}
@@ -69,6 +69,9 @@ public final class DnieProvider extends Provider {
     /** Firma RSA con huellas SHA-1. */
     private static final String SHA1WITH_RSA = "SHA1withRSA"; //$NON-NLS-1$
 
+    /** NONEwithRSA (firma de un <i>DigestInfo</i> ya construido). */
+    private static final String NONEWITH_RSA = "NONEwithRSA"; //$NON-NLS-1$
+
     private static final String DNIE_PRIVATE_KEY = "es.gob.jmulticard.jse.provider.DniePrivateKey"; //$NON-NLS-1$
 
     private static final long serialVersionUID = -1046745919235177156L;
@@ -124,12 +127,14 @@ public final class DnieProvider extends Provider {
         put("Signature.SHA256withRSA", "es.gob.jmulticard.jse.provider.DnieSignatureImpl$Sha256"); //$NON-NLS-1$ //$NON-NLS-2$
         put("Signature.SHA384withRSA", "es.gob.jmulticard.jse.provider.DnieSignatureImpl$Sha384"); //$NON-NLS-1$ //$NON-NLS-2$
         put("Signature.SHA512withRSA", "es.gob.jmulticard.jse.provider.DnieSignatureImpl$Sha512"); //$NON-NLS-1$ //$NON-NLS-2$
+        put("Signature.NONEwithRSA",   "es.gob.jmulticard.jse.provider.DnieSignatureImpl$None"); //$NON-NLS-1$ //$NON-NLS-2$
 
         // Claves soportadas para firma
         put("Signature.SHA1withRSA SupportedKeyClasses",     DnieProvider.DNIE_PRIVATE_KEY); //$NON-NLS-1$
         put("Signature.SHA256withRSA SupportedKeyClasses",   DnieProvider.DNIE_PRIVATE_KEY); //$NON-NLS-1$
         put("Signature.SHA384withRSA SupportedKeyClasses",   DnieProvider.DNIE_PRIVATE_KEY); //$NON-NLS-1$
         put("Signature.SHA512withRSA SupportedKeyClasses",   DnieProvider.DNIE_PRIVATE_KEY); //$NON-NLS-1$
+        put("Signature.NONEwithRSA SupportedKeyClasses",     DnieProvider.DNIE_PRIVATE_KEY); //$NON-NLS-1$
 
         // Alias de los nombres de algoritmos de firma
         put("Alg.Alias.Signature.1.2.840.113549.1.1.5",      DnieProvider.SHA1WITH_RSA); //$NON-NLS-1$
@@ -158,6 +163,8 @@ public final class DnieProvider extends Provider {
         put("Alg.Alias.Signature.SHA-512withRSAEncryption",  DnieProvider.SHA512WITH_RSA); //$NON-NLS-1$
         put("Alg.Alias.Signature.SHA512withRSAEncryption",   DnieProvider.SHA512WITH_RSA); //$NON-NLS-1$
 
+        put("Alg.Alias.Signature.RSASSA-PKCS1-v1_5",         DnieProvider.NONEWITH_RSA); //$NON-NLS-1$
+
         // Las funciones de cifrado RSA con clave privada solo funcionan en la VM de Oracle si el codigo esta firmado
         // con un certificado emitido por Oracle
         final String vmVendor = System.getProperty("java.vendor"); //$NON-NLS-1$
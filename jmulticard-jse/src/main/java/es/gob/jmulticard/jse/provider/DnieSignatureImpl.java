@@ -39,7 +39,6 @@
  */
 package es.gob.jmulticard.jse.provider;
 
-import java.io.ByteArrayOutputStream;
 import java.security.InvalidKeyException;
 import java.security.InvalidParameterException;
 import java.security.NoSuchAlgorithmException;
@@ -50,9 +49,11 @@ import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
 import java.security.SignatureSpi;
+import java.util.List;
 
 import es.gob.jmulticard.card.CryptoCardException;
 import es.gob.jmulticard.card.PinException;
+import es.gob.jmulticard.card.SignatureResult;
 import es.gob.jmulticard.card.dnie.Dni;
 import es.gob.jmulticard.card.dnie.DniePrivateKeyReference;
 
@@ -63,11 +64,13 @@ import es.gob.jmulticard.card.dnie.DniePrivateKeyReference;
  *  <li>SHA256withRSA</li>
  *  <li>SHA384withRSA</li>
  *  <li>SHA512withRSA</li>
+ *  <li>NONEwithRSA (los datos son ya el <i>DigestInfo</i> a firmar)</li>
  * </ul>
  * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
 abstract class DnieSignatureImpl extends SignatureSpi {
 
-    private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+    /** Datos a firmar (su huella o, con <code>NONEwithRSA</code>, el <i>DigestInfo</i>). */
+    private final SignatureInput input;
 
     private Signature signatureVerifier = null;
 
@@ -78,6 +81,7 @@ abstract class DnieSignatureImpl extends SignatureSpi {
 
     DnieSignatureImpl(final String signatureAlgorithm) {
         this.signatureAlgo = signatureAlgorithm;
+        this.input = new SignatureInput(signatureAlgorithm);
     }
 
     @Override
@@ -94,12 +98,12 @@ abstract class DnieSignatureImpl extends SignatureSpi {
             throw new InvalidKeyException("La clave proporcionada no es de un DNIe: " + prKey.getClass().getName()); //$NON-NLS-1$
         }
         this.privateKey = (DniePrivateKey) prKey;
-        this.data.reset();
+        this.input.reset();
+        this.signatureVerifier = null;
     }
 
     @Override
     protected void engineInitVerify(final PublicKey publicKey) throws InvalidKeyException {
-        this.data.reset();
         try {
         	this.signatureVerifier = Signature.getInstance(this.signatureAlgo);
             try {
@@ -131,27 +135,10 @@ abstract class DnieSignatureImpl extends SignatureSpi {
 
     @Override
     protected byte[] engineSign() throws SignatureException {
-
-    	if (!(this.privateKey.getCryptoCard() instanceof Dni)) {
-    		throw new ProviderException(
-				"La clave proporcionada no es de un DNIe: " + this.privateKey.getCryptoCard().getClass().getName() //$NON-NLS-1$
-			);
-    	}
-
-    	final DniePrivateKeyReference dniePkRef = new DniePrivateKeyReference(
-			this.privateKey.getCryptoCard(),
-			this.privateKey.getId(),
-			this.privateKey.getPath(),
-			this.privateKey.toString(),
-			this.privateKey.getKeyReference(),
-			this.privateKey.getKeyBitSize()
-		);
-
     	try {
-            return this.privateKey.getCryptoCard().sign(
-        		this.data.toByteArray(),
-        		this.signatureAlgo,
-        		dniePkRef
+            return this.input.sign(
+        		this.privateKey.getCryptoCard(),
+        		getKeyReference(this.privateKey)
     		);
         }
         catch (final CryptoCardException e) {
@@ -162,14 +149,61 @@ abstract class DnieSignatureImpl extends SignatureSpi {
 		}
     }
 
+    /** Firma un lote de datos con la misma clave del DNIe, estableciendo una sola vez
+     * el entorno de firma en la tarjeta.
+     * @param key Clave privada del DNIe.
+     * @param algorithm Algoritmo de firma.
+     * @param batch Datos a firmar, uno por elemento del lote.
+     * @return Resultados de las firmas, en el mismo orden que los datos.
+     * @throws SignatureException Si no se puede firmar el lote. */
+    static List<SignatureResult> signBatch(final DniePrivateKey key,
+    		                               final String algorithm,
+    		                               final List<byte[]> batch) throws SignatureException {
+    	try {
+			return key.getCryptoCard().signBatch(batch, algorithm, getKeyReference(key));
+		}
+        catch (final CryptoCardException e) {
+            throw new SignatureException(e);
+        }
+    	catch (final PinException e) {
+			throw new SignatureAuthException(e);
+		}
+    }
+
+    private static DniePrivateKeyReference getKeyReference(final DniePrivateKey key) {
+    	if (!(key.getCryptoCard() instanceof Dni)) {
+    		throw new ProviderException(
+				"La clave proporcionada no es de un DNIe: " + key.getCryptoCard().getClass().getName() //$NON-NLS-1$
+			);
+    	}
+    	return new DniePrivateKeyReference(
+			key.getCryptoCard(),
+			key.getId(),
+			key.getPath(),
+			key.toString(),
+			key.getKeyReference(),
+			key.getKeyBitSize()
+		);
+    }
+
     @Override
-    protected void engineUpdate(final byte b) {
-        this.data.write(b);
+    protected void engineUpdate(final byte b) throws SignatureException {
+    	if (this.signatureVerifier != null) {
+    		this.signatureVerifier.update(b);
+    	}
+    	else {
+    		this.input.update(b);
+    	}
     }
 
     @Override
-    protected void engineUpdate(final byte[] b, final int off, final int len) {
-        this.data.write(b, off, len);
+    protected void engineUpdate(final byte[] b, final int off, final int len) throws SignatureException {
+    	if (this.signatureVerifier != null) {
+    		this.signatureVerifier.update(b, off, len);
+    	}
+    	else {
+    		this.input.update(b, off, len);
+    	}
     }
 
     @Override
@@ -177,8 +211,6 @@ abstract class DnieSignatureImpl extends SignatureSpi {
         if (this.signatureVerifier == null) {
             throw new SignatureException("La verificacion no esta inicializada"); //$NON-NLS-1$
         }
-        this.signatureVerifier.update(this.data.toByteArray());
-        this.data.reset();
         return this.signatureVerifier.verify(sigBytes);
     }
 
@@ -213,4 +245,12 @@ abstract class DnieSignatureImpl extends SignatureSpi {
             super("SHA512withRSA"); //$NON-NLS-1$
         }
     }
+
+    /** Firma NONEwithRSA: los datos son ya la estructura <i>DigestInfo</i> a firmar. */
+    public static final class None extends DnieSignatureImpl {
+        /** Constructor. */
+        public None() {
+            super("NONEwithRSA"); //$NON-NLS-1$
+        }
+    }
 }
\ No newline at end of file
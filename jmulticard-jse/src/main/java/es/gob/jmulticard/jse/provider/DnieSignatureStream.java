@@ -0,0 +1,116 @@
+package es.gob.jmulticard.jse.provider;
+
+import java.security.InvalidKeyException;
+import java.security.PrivateKey;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.List;
+
+import es.gob.jmulticard.card.CryptoCardException;
+import es.gob.jmulticard.card.SignatureResult;
+
+/** Firma en flujo de muchos documentos con la misma clave de un DNIe.
+ * Los documentos se van a&ntilde;adiendo uno a uno y se firman por lotes del tama&ntilde;o
+ * indicado, de forma que la tarjeta establece el entorno de firma (y pide la autorizaci&oacute;n
+ * del usuario) una vez por lote en lugar de una vez por documento, y no es necesario tener
+ * todos los documentos en memoria a la vez. El resultado de cada documento se notifica al
+ * manejador en el mismo orden en el que se a&ntilde;adieron.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class DnieSignatureStream {
+
+	/** Tama&ntilde;o por defecto de los lotes. */
+	public static final int DEFAULT_BATCH_SIZE = 64;
+
+	/** Manejador de los resultados de las firmas. */
+	public interface ResultHandler {
+
+		/** Recibe el resultado de la firma de un documento.
+		 * @param index &Iacute;ndice del documento, en el orden en el que se a&ntilde;adi&oacute;
+		 *              (empezando en cero).
+		 * @param result Resultado de la firma. */
+		void handle(long index, SignatureResult result);
+	}
+
+	private final DniePrivateKey key;
+	private final String algorithm;
+	private final int batchSize;
+	private final ResultHandler handler;
+
+	private final List<byte[]> pending;
+	private long signed = 0;
+
+	/** Crea un flujo de firmas.
+	 * @param privateKey Clave privada del DNIe.
+	 * @param signatureAlgorithm Algoritmo de firma (por ejemplo, <code>SHA256withRSA</code>).
+	 * @param size N&uacute;mero de documentos de cada lote.
+	 * @param resultHandler Manejador de los resultados de las firmas.
+	 * @throws InvalidKeyException Si la clave no es de un DNIe. */
+	public DnieSignatureStream(final PrivateKey privateKey,
+			                   final String signatureAlgorithm,
+			                   final int size,
+			                   final ResultHandler resultHandler) throws InvalidKeyException {
+		if (!(privateKey instanceof DniePrivateKey)) {
+			throw new InvalidKeyException(
+				"La clave proporcionada no es de un DNIe: " + (privateKey != null ? privateKey.getClass().getName() : null) //$NON-NLS-1$
+			);
+		}
+		if (signatureAlgorithm == null || resultHandler == null) {
+			throw new IllegalArgumentException("Ni el algoritmo ni el manejador pueden ser nulos"); //$NON-NLS-1$
+		}
+		if (size < 1) {
+			throw new IllegalArgumentException("El tamano de lote debe ser positivo: " + size); //$NON-NLS-1$
+		}
+		key = (DniePrivateKey) privateKey;
+		algorithm = signatureAlgorithm;
+		batchSize = size;
+		handler = resultHandler;
+		pending = new ArrayList<>(size);
+	}
+
+	/** A&ntilde;ade un documento al flujo. Si con &eacute;l se completa un lote, se firma.
+	 * @param data Documento a firmar.
+	 * @throws SignatureException Si no se puede firmar el lote. */
+	public void update(final byte[] data) throws SignatureException {
+		if (data == null) {
+			throw new IllegalArgumentException("El documento a firmar no puede ser nulo"); //$NON-NLS-1$
+		}
+		pending.add(data);
+		if (pending.size() >= batchSize) {
+			flush();
+		}
+	}
+
+	/** Firma los documentos pendientes, aunque no completen un lote.
+	 * Si no se puede firmar el lote, antes de lanzar el error se notifica al manejador
+	 * como fallida la firma de cada uno de sus documentos, que se descartan.
+	 * @throws SignatureException Si no se puede firmar el lote. */
+	public void flush() throws SignatureException {
+		if (pending.isEmpty()) {
+			return;
+		}
+		final List<byte[]> batch = new ArrayList<>(pending);
+		pending.clear();
+		final List<SignatureResult> results;
+		try {
+			results = DnieSignatureImpl.signBatch(key, algorithm, batch);
+		}
+		catch (final SignatureException | RuntimeException e) {
+			final SignatureResult failure = SignatureResult.failure(
+				new CryptoCardException("No se ha podido firmar el lote de documentos", e) //$NON-NLS-1$
+			);
+			for (int i = 0; i < batch.size(); i++) {
+				handler.handle(signed++, failure);
+			}
+			throw e;
+		}
+		for (final SignatureResult result : results) {
+			handler.handle(signed++, result);
+		}
+	}
+
+	/** Obtiene el n&uacute;mero de documentos cuyo resultado ya se ha notificado.
+	 * @return N&uacute;mero de documentos firmados (o cuya firma ha fallado). */
+	public long getProcessedCount() {
+		return signed;
+	}
+}
@@ -2,12 +2,18 @@ package es.gob.jmulticard.jse.provider;
 
 import java.lang.reflect.InvocationTargetException;
 import java.security.Provider;
+import java.util.Map;
 import java.util.logging.Logger;
 
-import es.gob.jmulticard.card.Atr;
+import es.gob.jmulticard.card.AtrRegistry;
+import es.gob.jmulticard.card.Card;
+import es.gob.jmulticard.card.CardDiscovery;
+import es.gob.jmulticard.card.dnie.Dnie;
+import es.gob.jmulticard.card.dnie.ceressc.CeresSc;
+import es.gob.jmulticard.card.fnmt.ceres.Ceres;
+import es.gob.jmulticard.card.gide.smartcafe.SmartCafePkcs15Applet;
 import es.gob.jmulticard.connection.ApduConnection;
 import es.gob.jmulticard.connection.ApduConnectionException;
-import es.gob.jmulticard.connection.CardNotPresentException;
 import es.gob.jmulticard.jse.provider.ceres.Ceres430Provider;
 import es.gob.jmulticard.jse.provider.ceres.CeresProvider;
 import es.gob.jmulticard.jse.provider.gide.SmartCafeProvider;
@@ -18,146 +24,29 @@ public final class JMultiCardProviderFactory {
 
 	private static final Logger LOGGER = Logger.getLogger("es.gob.jmulticard"); //$NON-NLS-1$
 
-	// **************************************************************************
-	// ********* ATR DNIe Y COMPATIBLES *****************************************
+	/** Tipos de tarjeta soportados, seg&uacute;n el proveedor que les corresponde. */
+	public enum CardType {
 
-	private static final byte[] DNI_NFC_ATR_MASK = {
-		(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
-		(byte) 0xFF, (byte) 0xFF, (byte) 0x00, (byte) 0xFF, (byte) 0x00
-	};
-	private static final Atr DNI_NFC_ATR = new Atr(new byte[] {
-		(byte) 0x3B, (byte) 0x88, (byte) 0x80, (byte) 0x01, (byte) 0xE1, (byte) 0xF3, (byte) 0x5E, (byte) 0x11,
-		(byte) 0x77, (byte) 0x81, (byte) 0xA1, (byte) 0x00, (byte) 0x03
-	}, DNI_NFC_ATR_MASK);
-
-
-	private static final byte[] DNI_ATR_MASK = {
-		(byte) 0xFF, (byte) 0xFF, (byte) 0x00, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
-		(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
-		(byte) 0x00, (byte) 0x00, (byte) 0xFF, (byte) 0xFF
-	};
-	private static final Atr DNI_ATR = new Atr(new byte[] {
-		(byte) 0x3B, (byte) 0x7F, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x6A, (byte) 0x44,
-		(byte) 0x4E, (byte) 0x49, (byte) 0x65, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
-		(byte) 0x00, (byte) 0x00, (byte) 0x90, (byte) 0x00
-	}, DNI_ATR_MASK);
-
-
-	private static final byte[] TIF_ATR_MASK = DNI_ATR_MASK;
-	private static final Atr TIF_ATR = new Atr(new byte[] {
-		(byte) 0x3B, (byte) 0x7F, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x6A, (byte) 0x54,
-		(byte) 0x49, (byte) 0x46, (byte) 0x31, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
-		(byte) 0x00, (byte) 0x00, (byte) 0x90, (byte) 0x00
-	}, TIF_ATR_MASK);
-
-
-	private static final byte[] FNMT_TC_430_ATR_MASK = DNI_ATR_MASK;
-	private static final Atr FNMT_TC_430_ATR = new Atr(new byte[] {
-		(byte) 0x3B, (byte) 0x7F, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x6A, (byte) 0x46,
-		(byte) 0x4E, (byte) 0x4D, (byte) 0x54, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
-		(byte) 0x00, (byte) 0x00, (byte) 0x90, (byte) 0x00
-	}, FNMT_TC_430_ATR_MASK);
-
-
-	// ********* FIN ATR DNIe Y COMPATIBLES *************************************
-	// **************************************************************************
-
-	// **************************************************************************
-	// ********************* ATR FNMT-CERES *************************************
-
-	private static final byte[] CERES_TC_ATR_MASK = {
-		(byte) 0xff, (byte) 0xff, (byte) 0x00, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff,
-		(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
-		(byte) 0x00, (byte) 0xff, (byte) 0xff, (byte) 0xff
-	};
-	private static final Atr CERES_TC_ATR = new Atr(new byte[] {
-        (byte) 0x3B, (byte) 0x7F, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x6A, (byte) 0x46,
-        (byte) 0x4E, (byte) 0x4d, (byte) 0x54, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
-        (byte) 0x00, (byte) 0x03, (byte) 0x90, (byte) 0x00
-    }, CERES_TC_ATR_MASK);
-
-
-	private static final byte[] CERES_ST_ATR_MASK = {
-		(byte) 0xff, (byte) 0xff, (byte) 0x00, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff,
-		(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0x00,
-		(byte) 0x00, (byte) 0xff, (byte) 0xff, (byte) 0xff
-	};
-	private static final Atr CERES_ST_ATR = new Atr(new byte[] {
-        (byte) 0x3B, (byte) 0x7F, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x6A, (byte) 0x43,
-        (byte) 0x45, (byte) 0x52, (byte) 0x45, (byte) 0x53, (byte) 0x02, (byte) 0x2c, (byte) 0x34, (byte) 0x00,
-        (byte) 0x00, (byte) 0x03, (byte) 0x90, (byte) 0x00
-    }, CERES_ST_ATR_MASK);
-
-
-	private static final byte[] CERES_SLE_FN20_ATR_MASK = {
-		(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff,
-		(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff,
-		(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff
-	};
-	private static final Atr CERES_SLE_FN20_ATR = new Atr(new byte[] {
-        (byte) 0x3B, (byte) 0xeF, (byte) 0x00, (byte) 0x00, (byte) 0x40, (byte) 0x14, (byte) 0x80, (byte) 0x25,
-        (byte) 0x43, (byte) 0x45, (byte) 0x52, (byte) 0x45, (byte) 0x53, (byte) 0x57, (byte) 0x05, (byte) 0x60,
-        (byte) 0x01, (byte) 0x02, (byte) 0x03, (byte) 0x90, (byte) 0x00
-    }, CERES_SLE_FN20_ATR_MASK);
+		/** DNIe (2&#46;0, 3&#46;0, 4&#46;0 o por NFC) o tarjeta TIF. */
+		DNIE,
 
+		/** Tarjeta FNMT CERES 4&#46;30 o superior. */
+		CERES_430,
 
-	private static final byte[] CERES_SLE_FN19_ATR_MASK = {
-		(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff,
-		(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff,
-		(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff
-	};
-	private static final Atr CERES_SLE_FN19_ATR = new Atr(new byte[] {
-        (byte) 0x3B, (byte) 0xeF, (byte) 0x00, (byte) 0x00, (byte) 0x40, (byte) 0x14, (byte) 0x80, (byte) 0x25,
-        (byte) 0x43, (byte) 0x45, (byte) 0x52, (byte) 0x45, (byte) 0x53, (byte) 0x57, (byte) 0x01, (byte) 0x16,
-        (byte) 0x01, (byte) 0x01, (byte) 0x03, (byte) 0x90, (byte) 0x00
-    }, CERES_SLE_FN19_ATR_MASK);
-
-	// ********************* FIN ATR FNMT-CERES *********************************
-	// **************************************************************************
-
-	// **************************************************************************
-	// ********************* ATR G&D SMARTCAFE **********************************
-
-	private static final byte[] GIDE_SCAF_ATR_MASK = {
-		(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff,
-		(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff,
-		(byte) 0xf
-	};
-
-	/** ATR de tarjeta G&amp;D SmartCafe 3&#46;2. */
-	private static final Atr GIDE_SCAF_ATR = new Atr(new byte[] {
-		(byte) 0x3b, (byte) 0xf7, (byte) 0x18, (byte) 0x00, (byte) 0x00, (byte) 0x80, (byte) 0x31, (byte) 0xfe,
-		(byte) 0x45, (byte) 0x73, (byte) 0x66, (byte) 0x74, (byte) 0x65, (byte) 0x2d, (byte) 0x6e, (byte) 0x66,
-		(byte) 0xc4
-	}, GIDE_SCAF_ATR_MASK);
-
-
-	private static final byte[] GIDE_SCAF_MSC_ATR_MASK = {
-		(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff
-	};
-
-	/** ATR de tarjeta MicroSD G&amp;D Mobile Security Card. */
-	private static final Atr GIDE_SCAF_MSC_ATR = new Atr(new byte[] {
-		(byte) 0x3b, (byte) 0x80, (byte) 0x80, (byte) 0x01, (byte) 0x01
-	}, GIDE_SCAF_MSC_ATR_MASK);
+		/** Tarjeta FNMT CERES anterior a la versi&oacute;n 4&#46;30. */
+		CERES,
 
+		/** Tarjeta G&amp;D SmartCafe con applet PKCS#15. */
+		GIDE_SMARTCAFE
+	}
 
-	/** ATR de tarjeta G&amp;D SmartCafe 3&#46;2 con T=CL (v&iacute;a inal&aacute;mbrica). */
-	private static final byte[] GIDE_SCAF_TCL_ATR_MASK = {
-		(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff,
-		(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff,
-		(byte) 0xf
+	private static final CardDiscovery.AtrClassifier<CardType> CLASSIFIER = new CardDiscovery.AtrClassifier<CardType>() {
+		@Override
+		public CardType classify(final byte[] atr) {
+			return getCardType(atr);
+		}
 	};
 
-	private static final Atr GIDE_SCAF_TCL_ATR = new Atr(new byte[] {
-		(byte) 0x3b, (byte) 0xf7, (byte) 0x18, (byte) 0x00, (byte) 0x00, (byte) 0x80, (byte) 0x31, (byte) 0xfe,
-		(byte) 0x45, (byte) 0x73, (byte) 0x66, (byte) 0x74, (byte) 0x65, (byte) 0x2d, (byte) 0x6e, (byte) 0x66,
-		(byte) 0xc4
-	}, GIDE_SCAF_TCL_ATR_MASK);
-
-	// ********************* FIN ATR G&D SMARTCAFE ******************************
-	// **************************************************************************
-
 	private JMultiCardProviderFactory() {
 		// No instanciable
 	}
@@ -202,9 +91,9 @@ public final class JMultiCardProviderFactory {
 							ProviderUtil.DEFAULT_PROVIDER_CLASSNAME),
 				e2);
 		}
-		final long[] terminals;
+		final Map<Long, CardType> cards;
 		try {
-			terminals = conn.getTerminals(false);
+			cards = discoverCards(conn);
 		}
 		catch (final ApduConnectionException e1) {
 			LOGGER.warning(
@@ -212,98 +101,71 @@ public final class JMultiCardProviderFactory {
 			);
 			return null;
 		}
-
-		for (final long terminal : terminals) {
-			try {
-				conn.setTerminal((int) terminal);
-			}
-			catch (final ApduConnectionException e1) {
-				LOGGER.warning("Numero de terminal no valido (" + terminal + "): " + e1); //$NON-NLS-1$ //$NON-NLS-2$
-				continue;
-			}
-			try {
-				final byte[] atr = conn.reset();
-				final Provider provider = getProvider(atr);
-				if (provider != null) {
-					return provider;
-				}
-			}
-			catch (final CardNotPresentException e) {
-				LOGGER.info("No hay tarjeta insertada en el lector " + terminal + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
-				continue;
-			}
-			catch(final Exception e) {
-				LOGGER.warning("Error reiniciando el lector " + terminal + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
-				continue;
-			}
+		if (cards.isEmpty()) {
+			return null;
 		}
-		return null;
+		// Proveedor de la primera tarjeta soportada
+		return getProvider(cards.values().iterator().next());
 	}
 
-	/** Obtiene el proveedor (con la conexi&oacute;n por defecto) correspondiente
-	 * a la tarjeta del ATR indicado.
+	/** Descubre las tarjetas soportadas insertadas en los lectores de una conexi&oacute;n.
+	 * Si la conexi&oacute;n lo permite, los ATR se leen en paralelo y sin reiniciar las
+	 * tarjetas (ver {@link CardDiscovery}).
+	 * @param conn Conexi&oacute;n con los lectores.
+	 * @return Tipo de las tarjetas soportadas, por n&uacute;mero de lector (en el orden de
+	 *         los lectores).
+	 * @throws ApduConnectionException Si no se puede obtener la lista de lectores o no hay
+	 *                                 ning&uacute;n lector. */
+	public static Map<Long, CardType> discoverCards(final ApduConnection conn) throws ApduConnectionException {
+		return CardDiscovery.discover(conn, CLASSIFIER);
+	}
+
+	/** Obtiene el tipo de la tarjeta del ATR indicado.
 	 * @param atr ATR de la tarjeta.
-	 * @return Proveedor (con la conexi&oacute;n por defecto) correspondiente
-	 *         a la tarjeta del ATR indicado o <code>null</code> si el ATR no
-	 *         es de ninguna tarjeta soportada. */
-	public static Provider getProvider(final byte[] atr) {
-		if (atr == null) {
+	 * @return Tipo de la tarjeta o <code>null</code> si el ATR no es de ninguna tarjeta
+	 *         soportada. */
+	public static CardType getCardType(final byte[] atr) {
+		final Class<? extends Card> cardType = AtrRegistry.getInstance().classify(atr);
+		if (cardType == null) {
 			return null;
 		}
-		if (isDni(atr)) {
-			return new DnieProvider();
-		}
-		if (isCeres430(atr)) {
-			return new Ceres430Provider();
+		if (Dnie.class.isAssignableFrom(cardType)) {
+			// DNIe, DNIe 3.0 y 4.0 (tambien por NFC), TIF y CERES 4.30 o superior
+			return cardType == CeresSc.class ? CardType.CERES_430 : CardType.DNIE;
 		}
-		if (isCeres(atr)) {
-			return new CeresProvider();
+		if (cardType == Ceres.class) {
+			return CardType.CERES;
 		}
-		if (isGiDeSmartCafe(atr)) {
-			return new SmartCafeProvider();
+		if (cardType == SmartCafePkcs15Applet.class) {
+			return CardType.GIDE_SMARTCAFE;
 		}
 		return null;
 	}
 
-	private static boolean isDni(final byte[] atr) {
-		if (
-			DNI_ATR.equals(new Atr(atr, DNI_ATR_MASK)) ||
-			TIF_ATR.equals(new Atr(atr, TIF_ATR_MASK)) ||
-			DNI_NFC_ATR.equals(new Atr(atr, DNI_NFC_ATR_MASK))
-		) {
-			return true;
-		}
-		return false;
-	}
-
-	private static boolean isCeres430(final byte[] atr) {
-		if (FNMT_TC_430_ATR.equals(new Atr(atr, FNMT_TC_430_ATR_MASK)) && atr[15] >= (byte) 0x04 && atr[16] >= (byte) 0x30) {
-			return true;
-		}
-		return false;
-	}
-
-	private static boolean isCeres(final byte[] atr) {
-		if (
-			CERES_TC_ATR.equals(new Atr(atr, CERES_TC_ATR_MASK))             ||
-			CERES_ST_ATR.equals(new Atr(atr, CERES_ST_ATR_MASK))             ||
-			CERES_SLE_FN20_ATR.equals(new Atr(atr, CERES_SLE_FN20_ATR_MASK)) ||
-			CERES_SLE_FN19_ATR.equals(new Atr(atr, CERES_SLE_FN19_ATR_MASK))
-		) {
-			return true;
-		}
-		return false;
+	/** Obtiene el proveedor (con la conexi&oacute;n por defecto) correspondiente
+	 * a la tarjeta del ATR indicado.
+	 * @param atr ATR de la tarjeta.
+	 * @return Proveedor (con la conexi&oacute;n por defecto) correspondiente
+	 *         a la tarjeta del ATR indicado o <code>null</code> si el ATR no
+	 *         es de ninguna tarjeta soportada. */
+	public static Provider getProvider(final byte[] atr) {
+		final CardType type = getCardType(atr);
+		return type != null ? getProvider(type) : null;
 	}
 
-	private static boolean isGiDeSmartCafe(final byte[] atr) {
-		if (
-			GIDE_SCAF_ATR.equals(new Atr(atr, GIDE_SCAF_ATR_MASK))         ||
-			GIDE_SCAF_MSC_ATR.equals(new Atr(atr, GIDE_SCAF_MSC_ATR_MASK)) ||
-			GIDE_SCAF_TCL_ATR.equals(new Atr(atr, GIDE_SCAF_TCL_ATR_MASK))
-		) {
-			return true;
+	private static Provider getProvider(final CardType type) {
+		switch (type) {
+			case DNIE:
+				return new DnieProvider();
+			case CERES_430:
+				return new Ceres430Provider();
+			case CERES:
+				return new CeresProvider();
+			case GIDE_SMARTCAFE:
+				return new SmartCafeProvider();
+			default:
+				throw new IllegalStateException("Tipo de tarjeta no soportado: " + type); //$NON-NLS-1$
 		}
-		return false;
 	}
 
 }
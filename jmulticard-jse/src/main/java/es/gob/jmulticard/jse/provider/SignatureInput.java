@@ -0,0 +1,113 @@
+package es.gob.jmulticard.jse.provider;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SignatureException;
+
+import es.gob.jmulticard.asn1.der.pkcs1.DigestInfo;
+import es.gob.jmulticard.card.CryptoCard;
+import es.gob.jmulticard.card.CryptoCardException;
+import es.gob.jmulticard.card.PinException;
+import es.gob.jmulticard.card.PrivateKeyReference;
+
+/** Datos de entrada de los motores de firma de tarjeta.
+ * Con los algoritmos <code>SHAxxxwithRSA</code> se va calculando la huella de los datos
+ * seg&uacute;n se reciben, de forma que el consumo de memoria no depende de su tama&ntilde;o.
+ * Con <code>NONEwithRSA</code> los datos recibidos son ya la estructura <i>DigestInfo</i>
+ * a firmar, y se guardan tal cual.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class SignatureInput {
+
+	private final String algorithm;
+
+	/** Huella de los datos, o <code>null</code> si se reciben <i>DigestInfo</i> ya construidos. */
+	private final MessageDigest digest;
+
+	/** <i>DigestInfo</i> recibido (solo con <code>NONEwithRSA</code>). */
+	private final ByteArrayOutputStream digestInfo;
+
+	/** Crea los datos de entrada de un motor de firma.
+	 * @param signatureAlgorithm Algoritmo de firma. */
+	public SignatureInput(final String signatureAlgorithm) {
+		algorithm = signatureAlgorithm;
+		if (DigestInfo.RAW_DIGESTINFO_ALGORITHM.equalsIgnoreCase(signatureAlgorithm)) {
+			digest = null;
+			digestInfo = new ByteArrayOutputStream(DigestInfo.MAX_ENCODED_LENGTH);
+			return;
+		}
+		try {
+			digest = MessageDigest.getInstance(
+				DigestInfo.getDigestAlgorithmForSigning(signatureAlgorithm).toString()
+			);
+		}
+		catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(
+				"No existe un proveedor para calcular huellas para el algoritmo " + signatureAlgorithm, e //$NON-NLS-1$
+			);
+		}
+		digestInfo = null;
+	}
+
+	/** Descarta los datos recibidos. */
+	public void reset() {
+		if (digest != null) {
+			digest.reset();
+		}
+		else {
+			digestInfo.reset();
+		}
+	}
+
+	/** A&ntilde;ade un octeto a los datos a firmar.
+	 * @param b Octeto a a&ntilde;adir.
+	 * @throws SignatureException Si se supera la longitud m&aacute;xima de un <i>DigestInfo</i>. */
+	public void update(final byte b) throws SignatureException {
+		update(new byte[] { b }, 0, 1);
+	}
+
+	/** A&ntilde;ade datos a firmar.
+	 * @param b Datos a a&ntilde;adir.
+	 * @param off Posici&oacute;n de inicio de los datos en el array.
+	 * @param len Longitud de los datos.
+	 * @throws SignatureException Si se supera la longitud m&aacute;xima de un <i>DigestInfo</i>. */
+	public void update(final byte[] b, final int off, final int len) throws SignatureException {
+		if (digest != null) {
+			digest.update(b, off, len);
+			return;
+		}
+		if (digestInfo.size() + len > DigestInfo.MAX_ENCODED_LENGTH) {
+			digestInfo.reset();
+			throw new SignatureException(
+				"Con " + algorithm + " los datos deben ser un DigestInfo de como maximo " + //$NON-NLS-1$ //$NON-NLS-2$
+					DigestInfo.MAX_ENCODED_LENGTH + " octetos" //$NON-NLS-1$
+			);
+		}
+		digestInfo.write(b, off, len);
+	}
+
+	/** Firma con la tarjeta los datos recibidos y los descarta.
+	 * @param card Tarjeta con la que firmar.
+	 * @param keyRef Referencia a la clave privada de firma.
+	 * @return Firma PKCS#1 v1.5.
+	 * @throws SignatureException Si los datos recibidos no son un <i>DigestInfo</i> v&aacute;lido
+	 *                            (solo con <code>NONEwithRSA</code>).
+	 * @throws CryptoCardException Si ocurre alg&uacute;n problema durante la firma.
+	 * @throws PinException Si el PIN proporcionado es incorrecto o no es posible obtenerlo. */
+	public byte[] sign(final CryptoCard card,
+			           final PrivateKeyReference keyRef) throws SignatureException,
+	                                                            CryptoCardException,
+	                                                            PinException {
+		if (digest != null) {
+			return card.signDigest(digest.digest(), algorithm, keyRef);
+		}
+		final byte[] data = digestInfo.toByteArray();
+		digestInfo.reset();
+		if (!DigestInfo.isDigestInfo(data)) {
+			throw new SignatureException(
+				"Con " + algorithm + " los datos deben ser un DigestInfo de una huella SHA-1, SHA-256, SHA-384 o SHA-512" //$NON-NLS-1$ //$NON-NLS-2$
+			);
+		}
+		return card.sign(data, DigestInfo.RAW_DIGESTINFO_ALGORITHM, keyRef);
+	}
+}
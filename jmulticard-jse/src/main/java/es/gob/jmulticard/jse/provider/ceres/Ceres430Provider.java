@@ -70,6 +70,9 @@ public final class Ceres430Provider extends Provider {
     /** Firma RSA con huellas SHA-1. */
     private static final String SHA1WITH_RSA = "SHA1withRSA"; //$NON-NLS-1$
 
+    /** NONEwithRSA (firma de un <i>DigestInfo</i> ya construido). */
+    private static final String NONEWITH_RSA = "NONEwithRSA"; //$NON-NLS-1$
+
     private static final String CERES_PRIVATE_KEY = "es.gob.jmulticard.jse.provider.DniePrivateKey"; //$NON-NLS-1$
 
     private static final long serialVersionUID = 4544152908167923163L;
@@ -127,12 +130,14 @@ public final class Ceres430Provider extends Provider {
         put("Signature.SHA256withRSA", "es.gob.jmulticard.jse.provider.DnieSignatureImpl$Sha256"); //$NON-NLS-1$ //$NON-NLS-2$
         put("Signature.SHA384withRSA", "es.gob.jmulticard.jse.provider.DnieSignatureImpl$Sha384"); //$NON-NLS-1$ //$NON-NLS-2$
         put("Signature.SHA512withRSA", "es.gob.jmulticard.jse.provider.DnieSignatureImpl$Sha512"); //$NON-NLS-1$ //$NON-NLS-2$
+        put("Signature.NONEwithRSA",   "es.gob.jmulticard.jse.provider.DnieSignatureImpl$None"); //$NON-NLS-1$ //$NON-NLS-2$
 
         // Claves soportadas
         put("Signature.SHA1withRSA SupportedKeyClasses",   Ceres430Provider.CERES_PRIVATE_KEY); //$NON-NLS-1$
         put("Signature.SHA256withRSA SupportedKeyClasses", Ceres430Provider.CERES_PRIVATE_KEY); //$NON-NLS-1$
         put("Signature.SHA384withRSA SupportedKeyClasses", Ceres430Provider.CERES_PRIVATE_KEY); //$NON-NLS-1$
         put("Signature.SHA512withRSA SupportedKeyClasses", Ceres430Provider.CERES_PRIVATE_KEY); //$NON-NLS-1$
+        put("Signature.NONEwithRSA SupportedKeyClasses",   Ceres430Provider.CERES_PRIVATE_KEY); //$NON-NLS-1$
 
         // Alias de los nombres de algoritmos de firma
         put("Alg.Alias.Signature.1.2.840.113549.1.1.5",     Ceres430Provider.SHA1WITH_RSA); //$NON-NLS-1$
@@ -160,5 +165,7 @@ public final class Ceres430Provider extends Provider {
         put("Alg.Alias.Signature.SHA-512withRSA",            Ceres430Provider.SHA512WITH_RSA); //$NON-NLS-1$
         put("Alg.Alias.Signature.SHA-512withRSAEncryption",  Ceres430Provider.SHA512WITH_RSA); //$NON-NLS-1$
         put("Alg.Alias.Signature.SHA512withRSAEncryption",   Ceres430Provider.SHA512WITH_RSA); //$NON-NLS-1$
+
+        put("Alg.Alias.Signature.RSASSA-PKCS1-v1_5",         Ceres430Provider.NONEWITH_RSA); //$NON-NLS-1$
     }
 }
\ No newline at end of file
@@ -26,6 +26,8 @@ public final class CeresProvider extends Provider {
 
     private static final String SHA1WITH_RSA = "SHA1withRSA"; //$NON-NLS-1$
 
+    private static final String NONEWITH_RSA = "NONEwithRSA"; //$NON-NLS-1$
+
     private static final String ES_GOB_JMULTICARD_CARD_CERES_PRIVATE_KEY = "es.gob.jmulticard.jse.provider.ceres.CeresPrivateKey"; //$NON-NLS-1$
 
     private static final long serialVersionUID = -1046745919235177156L;
@@ -83,12 +85,14 @@ public final class CeresProvider extends Provider {
         put("Signature.SHA256withRSA", "es.gob.jmulticard.jse.provider.ceres.CeresSignatureImpl$Sha256"); //$NON-NLS-1$ //$NON-NLS-2$
         put("Signature.SHA384withRSA", "es.gob.jmulticard.jse.provider.ceres.CeresSignatureImpl$Sha384"); //$NON-NLS-1$ //$NON-NLS-2$
         put("Signature.SHA512withRSA", "es.gob.jmulticard.jse.provider.ceres.CeresSignatureImpl$Sha512"); //$NON-NLS-1$ //$NON-NLS-2$
+        put("Signature.NONEwithRSA",   "es.gob.jmulticard.jse.provider.ceres.CeresSignatureImpl$None"); //$NON-NLS-1$ //$NON-NLS-2$
 
         // Claves soportadas
         put("Signature.SHA1withRSA SupportedKeyClasses",   CeresProvider.ES_GOB_JMULTICARD_CARD_CERES_PRIVATE_KEY); //$NON-NLS-1$
         put("Signature.SHA256withRSA SupportedKeyClasses", CeresProvider.ES_GOB_JMULTICARD_CARD_CERES_PRIVATE_KEY); //$NON-NLS-1$
         put("Signature.SHA384withRSA SupportedKeyClasses", CeresProvider.ES_GOB_JMULTICARD_CARD_CERES_PRIVATE_KEY); //$NON-NLS-1$
         put("Signature.SHA512withRSA SupportedKeyClasses", CeresProvider.ES_GOB_JMULTICARD_CARD_CERES_PRIVATE_KEY); //$NON-NLS-1$
+        put("Signature.NONEwithRSA SupportedKeyClasses",   CeresProvider.ES_GOB_JMULTICARD_CARD_CERES_PRIVATE_KEY); //$NON-NLS-1$
 
         // Alias de los nombres de algoritmos de firma
         put("Alg.Alias.Signature.1.2.840.113549.1.1.5",     CeresProvider.SHA1WITH_RSA); //$NON-NLS-1$
@@ -116,6 +120,8 @@ public final class CeresProvider extends Provider {
         put("Alg.Alias.Signature.SHA-512withRSA",            CeresProvider.SHA512WITH_RSA); //$NON-NLS-1$
         put("Alg.Alias.Signature.SHA-512withRSAEncryption",  CeresProvider.SHA512WITH_RSA); //$NON-NLS-1$
         put("Alg.Alias.Signature.SHA512withRSAEncryption",   CeresProvider.SHA512WITH_RSA); //$NON-NLS-1$
+
+        put("Alg.Alias.Signature.RSASSA-PKCS1-v1_5",         CeresProvider.NONEWITH_RSA); //$NON-NLS-1$
     }
 
 }
\ No newline at end of file
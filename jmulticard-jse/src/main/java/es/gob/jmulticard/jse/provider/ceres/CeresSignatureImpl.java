@@ -1,6 +1,5 @@
 package es.gob.jmulticard.jse.provider.ceres;
 
-import java.io.ByteArrayOutputStream;
 import java.security.InvalidKeyException;
 import java.security.InvalidParameterException;
 import java.security.NoSuchAlgorithmException;
@@ -18,6 +17,7 @@ import es.gob.jmulticard.card.fnmt.ceres.Ceres;
 import es.gob.jmulticard.card.fnmt.ceres.CeresPrivateKeyReference;
 import es.gob.jmulticard.jse.provider.ProviderUtil;
 import es.gob.jmulticard.jse.provider.SignatureAuthException;
+import es.gob.jmulticard.jse.provider.SignatureInput;
 
 /** Implementaci&oacute;n del SPI <code>Signature</code> para tarjeta FNMT-RCM-CERES.
  * Realiza firmas RSA con relleno PKCS#1 v1.5. Se soportan los siguientes algoritmos de firma:
@@ -26,11 +26,13 @@ import es.gob.jmulticard.jse.provider.SignatureAuthException;
  *  <li>SHA256withRSA</li>
  *  <li>SHA384withRSA</li>
  *  <li>SHA512withRSA</li>
+ *  <li>NONEwithRSA (los datos son ya el <i>DigestInfo</i> a firmar)</li>
  * </ul>
  * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s */
 abstract class CeresSignatureImpl extends SignatureSpi {
 
-    private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+    /** Datos a firmar (su huella o, con <code>NONEwithRSA</code>, el <i>DigestInfo</i>). */
+    private final SignatureInput input;
 
     private Signature signatureVerifier = null;
 
@@ -42,6 +44,7 @@ abstract class CeresSignatureImpl extends SignatureSpi {
 
     CeresSignatureImpl(final String signatureAlgorithm) {
         this.signatureAlgo = signatureAlgorithm;
+        this.input = new SignatureInput(signatureAlgorithm);
     }
 
     @Override
@@ -58,12 +61,12 @@ abstract class CeresSignatureImpl extends SignatureSpi {
             throw new InvalidKeyException("La clave proporcionada no es de una tarjeta CERES: " + prKey.getClass().getName()); //$NON-NLS-1$
         }
         this.privateKey = (CeresPrivateKey) prKey;
-        this.data.reset();
+        this.input.reset();
+        this.signatureVerifier = null;
     }
 
     @Override
     protected void engineInitVerify(final PublicKey publicKey) throws InvalidKeyException {
-        this.data.reset();
         try {
         	this.signatureVerifier = Signature.getInstance(this.signatureAlgo);
             try {
@@ -106,9 +109,8 @@ abstract class CeresSignatureImpl extends SignatureSpi {
 		);
 
     	try {
-            return this.privateKey.getCryptoCard().sign(
-        		this.data.toByteArray(),
-        		this.signatureAlgo,
+            return this.input.sign(
+        		this.privateKey.getCryptoCard(),
         		ceresPrkRef
     		);
         }
@@ -121,13 +123,23 @@ abstract class CeresSignatureImpl extends SignatureSpi {
     }
 
     @Override
-    protected void engineUpdate(final byte b) {
-        this.data.write(b);
+    protected void engineUpdate(final byte b) throws SignatureException {
+    	if (this.signatureVerifier != null) {
+    		this.signatureVerifier.update(b);
+    	}
+    	else {
+    		this.input.update(b);
+    	}
     }
 
     @Override
-    protected void engineUpdate(final byte[] b, final int off, final int len) {
-        this.data.write(b, off, len);
+    protected void engineUpdate(final byte[] b, final int off, final int len) throws SignatureException {
+    	if (this.signatureVerifier != null) {
+    		this.signatureVerifier.update(b, off, len);
+    	}
+    	else {
+    		this.input.update(b, off, len);
+    	}
     }
 
     @Override
@@ -135,8 +147,6 @@ abstract class CeresSignatureImpl extends SignatureSpi {
         if (this.signatureVerifier == null) {
             throw new SignatureException("La verificacion no esta inicializada"); //$NON-NLS-1$
         }
-        this.signatureVerifier.update(this.data.toByteArray());
-        this.data.reset();
         return this.signatureVerifier.verify(sigBytes);
     }
 
@@ -171,4 +181,12 @@ abstract class CeresSignatureImpl extends SignatureSpi {
             super("SHA512withRSA"); //$NON-NLS-1$
         }
     }
+
+    /** Firma NONEwithRSA: los datos son ya la estructura <i>DigestInfo</i> a firmar. */
+    public static final class None extends CeresSignatureImpl {
+        /** Constructor. */
+        public None() {
+            super("NONEwithRSA"); //$NON-NLS-1$
+        }
+    }
 }
\ No newline at end of file
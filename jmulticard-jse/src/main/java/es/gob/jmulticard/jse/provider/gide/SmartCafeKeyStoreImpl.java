@@ -64,6 +64,7 @@ import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.callback.PasswordCallback;
 
 import es.gob.jmulticard.BcCryptoHelper;
+import es.gob.jmulticard.card.CryptoCardException;
 import es.gob.jmulticard.card.PrivateKeyReference;
 import es.gob.jmulticard.card.gide.smartcafe.SmartCafePkcs15Applet;
 import es.gob.jmulticard.card.gide.smartcafe.SmartCafePrivateKeyReference;
@@ -130,7 +131,15 @@ public final class SmartCafeKeyStoreImpl extends KeyStoreSpi {
     		final PasswordCallback pwc = new CachePasswordCallback(password);
     		cryptoCard.setPasswordCallback(pwc);
     	}
-        final PrivateKeyReference pkRef = cryptoCard.getPrivateKey(alias);
+        final PrivateKeyReference pkRef;
+        try {
+			pkRef = cryptoCard.getPrivateKey(alias);
+		}
+        catch (final CryptoCardException e) {
+			throw new ProviderException(
+				"No se ha podido obtener la clave privada con alias '" + alias + "'", e //$NON-NLS-1$ //$NON-NLS-2$
+			);
+		}
 		if (!(pkRef instanceof SmartCafePrivateKeyReference)) {
 			throw new ProviderException(
 				"La clave obtenida de la tarjeta no es del tipo '" + //$NON-NLS-1$
@@ -65,6 +65,8 @@ public final class SmartCafeProvider extends Provider {
 
     private static final String SHA1WITH_RSA = "SHA1withRSA"; //$NON-NLS-1$
 
+    private static final String NONEWITH_RSA = "NONEwithRSA"; //$NON-NLS-1$
+
     private static final String SMARTCAFE_PRIVATE_KEY = "es.gob.jmulticard.jse.provider.gide.SmartCafePrivateKey"; //$NON-NLS-1$
 
     private static final long serialVersionUID = -1046745919235177156L;
@@ -120,12 +122,14 @@ public final class SmartCafeProvider extends Provider {
         put("Signature.SHA256withRSA", "es.gob.jmulticard.jse.provider.gide.SmartCafeSignatureImpl$Sha256"); //$NON-NLS-1$ //$NON-NLS-2$
         put("Signature.SHA384withRSA", "es.gob.jmulticard.jse.provider.gide.SmartCafeSignatureImpl$Sha384"); //$NON-NLS-1$ //$NON-NLS-2$
         put("Signature.SHA512withRSA", "es.gob.jmulticard.jse.provider.gide.SmartCafeSignatureImpl$Sha512"); //$NON-NLS-1$ //$NON-NLS-2$
+        put("Signature.NONEwithRSA",   "es.gob.jmulticard.jse.provider.gide.SmartCafeSignatureImpl$None"); //$NON-NLS-1$ //$NON-NLS-2$
 
         // Claves soportadas
         put("Signature.SHA1withRSA SupportedKeyClasses", SmartCafeProvider.SMARTCAFE_PRIVATE_KEY); //$NON-NLS-1$
         put("Signature.SHA256withRSA SupportedKeyClasses", SmartCafeProvider.SMARTCAFE_PRIVATE_KEY); //$NON-NLS-1$
         put("Signature.SHA384withRSA SupportedKeyClasses", SmartCafeProvider.SMARTCAFE_PRIVATE_KEY); //$NON-NLS-1$
         put("Signature.SHA512withRSA SupportedKeyClasses", SmartCafeProvider.SMARTCAFE_PRIVATE_KEY); //$NON-NLS-1$
+        put("Signature.NONEwithRSA SupportedKeyClasses", SmartCafeProvider.SMARTCAFE_PRIVATE_KEY); //$NON-NLS-1$
 
         // Alias de los nombres de algoritmos de firma
         put("Alg.Alias.Signature.1.2.840.113549.1.1.5", SmartCafeProvider.SHA1WITH_RSA); //$NON-NLS-1$
@@ -153,6 +157,8 @@ public final class SmartCafeProvider extends Provider {
         put("Alg.Alias.Signature.SHA-512withRSA", SmartCafeProvider.SHA512WITH_RSA); //$NON-NLS-1$
         put("Alg.Alias.Signature.SHA-512withRSAEncryption", SmartCafeProvider.SHA512WITH_RSA); //$NON-NLS-1$
         put("Alg.Alias.Signature.SHA512withRSAEncryption", SmartCafeProvider.SHA512WITH_RSA); //$NON-NLS-1$
+
+        put("Alg.Alias.Signature.RSASSA-PKCS1-v1_5",       SmartCafeProvider.NONEWITH_RSA); //$NON-NLS-1$
     }
 
 }
\ No newline at end of file
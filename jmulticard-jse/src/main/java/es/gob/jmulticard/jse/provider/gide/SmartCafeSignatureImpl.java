@@ -39,7 +39,6 @@
  */
 package es.gob.jmulticard.jse.provider.gide;
 
-import java.io.ByteArrayOutputStream;
 import java.security.InvalidKeyException;
 import java.security.InvalidParameterException;
 import java.security.NoSuchAlgorithmException;
@@ -57,6 +56,7 @@ import es.gob.jmulticard.card.gide.smartcafe.SmartCafePkcs15Applet;
 import es.gob.jmulticard.card.gide.smartcafe.SmartCafePrivateKeyReference;
 import es.gob.jmulticard.jse.provider.ProviderUtil;
 import es.gob.jmulticard.jse.provider.SignatureAuthException;
+import es.gob.jmulticard.jse.provider.SignatureInput;
 
 /** Implementaci&oacute;n del SPI Signature para tarjeta G&amp;D SmartCafe con Applet PKCS#15.
  * Realiza firmas RSA con relleno PKCS#1 v1.5. Se soportan los siguientes algoritmos de firma:
@@ -65,11 +65,13 @@ import es.gob.jmulticard.jse.provider.SignatureAuthException;
  *  <li>SHA256withRSA</li>
  *  <li>SHA384withRSA</li>
  *  <li>SHA512withRSA</li>
+ *  <li>NONEwithRSA (los datos son ya el <i>DigestInfo</i> a firmar)</li>
  * </ul>
  * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
 abstract class SmartCafeSignatureImpl extends SignatureSpi {
 
-    private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+    /** Datos a firmar (su huella o, con <code>NONEwithRSA</code>, el <i>DigestInfo</i>). */
+    private final SignatureInput input;
 
     private Signature signatureVerifier = null;
 
@@ -79,6 +81,7 @@ abstract class SmartCafeSignatureImpl extends SignatureSpi {
 
     SmartCafeSignatureImpl(final String signatureAlgorithm) {
         this.signatureAlgo = signatureAlgorithm;
+        this.input = new SignatureInput(signatureAlgorithm);
     }
 
     @Override
@@ -95,12 +98,12 @@ abstract class SmartCafeSignatureImpl extends SignatureSpi {
             throw new InvalidKeyException("La clave proporcionada no es de G&D Smartcafe PKCS#15: " + prKey.getClass().getName()); //$NON-NLS-1$
         }
         this.privateKey = (SmartCafePrivateKey) prKey;
-        this.data.reset();
+        this.input.reset();
+        this.signatureVerifier = null;
     }
 
     @Override
     protected void engineInitVerify(final PublicKey publicKey) throws InvalidKeyException {
-        this.data.reset();
         try {
         	this.signatureVerifier = Signature.getInstance(this.signatureAlgo);
             try {
@@ -144,9 +147,8 @@ abstract class SmartCafeSignatureImpl extends SignatureSpi {
 		);
 
     	try {
-            return this.privateKey.getCryptoCard().sign(
-        		this.data.toByteArray(),
-        		this.signatureAlgo,
+            return this.input.sign(
+        		this.privateKey.getCryptoCard(),
         		prkRef
     		);
         }
@@ -159,13 +161,23 @@ abstract class SmartCafeSignatureImpl extends SignatureSpi {
     }
 
     @Override
-    protected void engineUpdate(final byte b) {
-        this.data.write(b);
+    protected void engineUpdate(final byte b) throws SignatureException {
+    	if (this.signatureVerifier != null) {
+    		this.signatureVerifier.update(b);
+    	}
+    	else {
+    		this.input.update(b);
+    	}
     }
 
     @Override
-    protected void engineUpdate(final byte[] b, final int off, final int len) {
-        this.data.write(b, off, len);
+    protected void engineUpdate(final byte[] b, final int off, final int len) throws SignatureException {
+    	if (this.signatureVerifier != null) {
+    		this.signatureVerifier.update(b, off, len);
+    	}
+    	else {
+    		this.input.update(b, off, len);
+    	}
     }
 
     @Override
@@ -173,8 +185,6 @@ abstract class SmartCafeSignatureImpl extends SignatureSpi {
         if (this.signatureVerifier == null) {
             throw new SignatureException("La verificacion no esta inicializada"); //$NON-NLS-1$
         }
-        this.signatureVerifier.update(this.data.toByteArray());
-        this.data.reset();
         return this.signatureVerifier.verify(sigBytes);
     }
 
@@ -209,4 +219,12 @@ abstract class SmartCafeSignatureImpl extends SignatureSpi {
             super("SHA512withRSA"); //$NON-NLS-1$
         }
     }
+
+    /** Firma NONEwithRSA: los datos son ya la estructura <i>DigestInfo</i> a firmar. */
+    public static final class None extends SmartCafeSignatureImpl {
+        /** Constructor. */
+        public None() {
+            super("NONEwithRSA"); //$NON-NLS-1$
+        }
+    }
 }
\ No newline at end of file
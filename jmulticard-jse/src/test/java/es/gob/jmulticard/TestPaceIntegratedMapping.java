@@ -0,0 +1,67 @@
+package es.gob.jmulticard;
+
+import java.math.BigInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.spongycastle.math.ec.ECPoint;
+import org.spongycastle.util.encoders.Hex;
+
+/** Pruebas de respuesta conocida de la correspondencia integrada de PACE (PACE-IM), con los
+ * valores del ejemplo ECDH sobre <i>brainpoolP256r1</i> de ICAO 9303 parte 11.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestPaceIntegratedMapping {
+
+	/** Aleatorio <i>s</i> de la tarjeta, ya descifrado. */
+	private static final byte[] NONCE_S = Hex.decode(
+		"2923BE84E16CD6AE529049F1F1BBE9EB" //$NON-NLS-1$
+	);
+
+	/** Aleatorio <i>t</i> del terminal. */
+	private static final byte[] NONCE_T = Hex.decode(
+		"5DD4CBFC96F5453B130D890A1CDBAE32" //$NON-NLS-1$
+	);
+
+	/** Resultado esperado de <i>R<sub>p</sub>(s,t)</i>. */
+	private static final BigInteger EXPECTED_RP = new BigInteger(
+		"A2F8FF2DF50E52C6599F386ADCB595D229F6A167ADE2BE5F2C3296ADD5B7430E", 16 //$NON-NLS-1$
+	);
+
+	/** Coordenada X esperada del generador de la correspondencia. */
+	private static final BigInteger EXPECTED_GX = new BigInteger(
+		"8E82D31559ED0FDE92A4D0498ADD3C23BABA94FB77691E31E90AEA77FB17D427", 16 //$NON-NLS-1$
+	);
+
+	/** Coordenada Y esperada del generador de la correspondencia. */
+	private static final BigInteger EXPECTED_GY = new BigInteger(
+		"4C1AE14BD0C3DBAC0C871B7F3608169364437CA30AC243A089D3F266C1E60FAD", 16 //$NON-NLS-1$
+	);
+
+	/** Comprueba la funci&oacute;n pseudoaleatoria <i>R<sub>p</sub></i> con AES-128.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testPseudoRandomFunction() throws Exception {
+		final PaceEcContext ecContext = PaceEcContext.BRAINPOOL_P256_R1;
+		Assert.assertEquals(
+			EXPECTED_RP,
+			new BcPaceChannelHelper(new BcCryptoHelper()).pseudoRandomFunction(
+				NONCE_S,
+				NONCE_T,
+				ecContext.getCurve().getField().getCharacteristic()
+			)
+		);
+	}
+
+	/** Comprueba la funci&oacute;n <i>f<sub>G</sub></i> de paso de un elemento del cuerpo al
+	 * nuevo generador.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testMapToPoint() throws Exception {
+		final ECPoint mapped = PaceEcContext.BRAINPOOL_P256_R1.mapToPoint(EXPECTED_RP).normalize();
+		Assert.assertTrue(mapped.isValid());
+		Assert.assertEquals(EXPECTED_GX, mapped.getAffineXCoord().toBigInteger());
+		Assert.assertEquals(EXPECTED_GY, mapped.getAffineYCoord().toBigInteger());
+	}
+}
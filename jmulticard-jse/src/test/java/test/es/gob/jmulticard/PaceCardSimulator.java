@@ -0,0 +1,607 @@
+package test.es.gob.jmulticard;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.spongycastle.asn1.teletrust.TeleTrusTNamedCurves;
+import org.spongycastle.asn1.x9.X9ECParameters;
+import org.spongycastle.crypto.engines.AESEngine;
+import org.spongycastle.crypto.macs.CMac;
+import org.spongycastle.crypto.params.KeyParameter;
+import org.spongycastle.math.ec.ECCurve;
+import org.spongycastle.math.ec.ECPoint;
+
+import es.gob.jmulticard.HexUtils;
+import es.gob.jmulticard.apdu.iso7816four.pace.MseSetPaceAlgorithmApduCommand.PaceAlgorithmOid;
+import es.gob.jmulticard.apdu.iso7816four.pace.MseSetPaceAlgorithmApduCommand.PaceAlgorithmParam;
+import es.gob.jmulticard.connection.loopback.CardSimulator;
+
+/** Tarjeta simulada con el lado de la tarjeta de PACE sobre brainpoolP256r1 y AES-128, con
+ * correspondencia gen&eacute;rica (GM), integrada (IM) y con autenticaci&oacute;n de chip (CAM)
+ * a partir del CAN.
+ * Puede envolver otra tarjeta simulada (como un DNIe 3&#46;0) para simular su acceso por NFC:
+ * sirve el EF&#46;CardAccess con los algoritmos PACE que anuncia, exige el canal PACE para
+ * cualquier otra APDU y pasa a la tarjeta envuelta las APDU ya sin la mensajer&iacute;a segura.
+ * Como en el DNIe, cuando la tarjeta envuelta abre su canal CWA-14890 dentro del canal PACE
+ * este la sustituye, y una APDU en claro lo cierra. Si se abre un canal PACE dentro de otro
+ * las sesiones se anidan, y cualquier error de mensajer&iacute;a segura cierra todos los
+ * canales. Al igual que por NFC, el reinicio de la conexi&oacute;n no reinicia la tarjeta.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+final class PaceCardSimulator implements CardSimulator {
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	private static final X9ECParameters PARAMS = TeleTrusTNamedCurves.getByName("brainpoolp256r1"); //$NON-NLS-1$
+
+	/** ATR del DNIe 3&#46;0 accedido por NFC. */
+	private static final byte[] ATR_NFC = {
+		(byte) 0x3B, (byte) 0x88, (byte) 0x80, (byte) 0x01, (byte) 0xE1, (byte) 0xF3, (byte) 0x5E, (byte) 0x11, (byte) 0x77, (byte) 0x81,
+		(byte) 0xA1, (byte) 0x00, (byte) 0x03
+	};
+
+	private static final byte[] SW_OK = { (byte) 0x90, (byte) 0x00 };
+	private static final byte[] SW_AUTHENTICATION_FAILED = { (byte) 0x63, (byte) 0x00 };
+	private static final byte[] SW_SECURITY_STATUS_NOT_SATISFIED = { (byte) 0x69, (byte) 0x82 };
+	private static final byte[] SW_CONDITIONS_NOT_SATISFIED = { (byte) 0x69, (byte) 0x85 };
+	private static final byte[] SW_SM_DATA_OBJECTS_INCORRECT = { (byte) 0x69, (byte) 0x88 };
+	private static final byte[] SW_WRONG_DATA = { (byte) 0x6A, (byte) 0x80 };
+	private static final byte[] SW_INS_NOT_SUPPORTED = { (byte) 0x6D, (byte) 0x00 };
+
+	private static final byte CLA_SECURE_MESSAGING = (byte) 0x0C;
+
+	/** Instrucci&oacute;n de autenticaci&oacute;n externa, la que abre el canal CWA-14890 de
+	 * la tarjeta envuelta. */
+	private static final byte INS_EXTERNAL_AUTHENTICATE = (byte) 0x82;
+
+	/** P1 de la lectura del EF&#46;CardAccess por su identificador corto (SFI <code>1C</code>). */
+	private static final byte P1_READ_CARD_ACCESS = (byte) (0x80 | 0x1C);
+
+	/** Referencia de la contrase&ntilde;a PACE en el MSE:SET AT (CAN). */
+	private static final byte PASSWORD_CAN = 0x02;
+
+	private static final int BLOCK_SIZE = 16;
+
+	private static final byte[] IM_C0 = {
+		(byte) 0xa6, (byte) 0x68, (byte) 0x89, (byte) 0x2a, (byte) 0x7c, (byte) 0x41, (byte) 0xe3, (byte) 0xca,
+		(byte) 0x73, (byte) 0x9f, (byte) 0x40, (byte) 0xb0, (byte) 0x57, (byte) 0xd8, (byte) 0x59, (byte) 0x04
+	};
+
+	private static final byte[] IM_C1 = {
+		(byte) 0xa4, (byte) 0xe1, (byte) 0x36, (byte) 0xac, (byte) 0x72, (byte) 0x5f, (byte) 0x73, (byte) 0x8b,
+		(byte) 0x01, (byte) 0xc1, (byte) 0xf6, (byte) 0x02, (byte) 0x17, (byte) 0xc1, (byte) 0x88, (byte) 0xad
+	};
+
+	private final String can;
+
+	/** Tarjeta envuelta, o <code>null</code> si solo se simula el establecimiento de PACE. */
+	private final CardSimulator card;
+
+	private final byte[] cardAccess;
+
+	/** Clave privada est&aacute;tica de autenticaci&oacute;n de chip (<i>SK<sub>IC</sub></i>). */
+	private final BigInteger skIc = randomScalar();
+
+	/** Sesiones de mensajer&iacute;a segura abiertas, de la m&aacute;s externa a la m&aacute;s interna. */
+	private final List<Session> sessions = new ArrayList<>();
+
+	/** Indica si la tarjeta envuelta ha abierto su propio canal seguro, que sustituye a los
+	 * canales PACE. */
+	private boolean wrappedCardSecureMessaging;
+
+	/** N&uacute;mero de canales PACE establecidos desde la creaci&oacute;n de la tarjeta. */
+	private int establishedChannels;
+
+	// Estado del establecimiento de canal en curso
+	private byte[] oid;
+	private int step;
+	private byte[] nonce;
+	private BigInteger skMap;
+	private ECPoint mappedG;
+	private byte[] pkIc2;
+	private byte[] pkIfd2;
+	private byte[] kenc;
+	private byte[] kmac;
+
+	/** Crea una tarjeta que solo simula el establecimiento de PACE.
+	 * @param cardAccessNumber CAN de la tarjeta. */
+	PaceCardSimulator(final String cardAccessNumber) {
+		this(
+			cardAccessNumber,
+			null,
+			PaceAlgorithmOid.PACE_ECDH_GM_AES_CBC_CMAC_128,
+			PaceAlgorithmOid.PACE_ECDH_IM_AES_CBC_CMAC_128,
+			PaceAlgorithmOid.PACE_ECDH_CAM_AES_CBC_CMAC_128
+		);
+	}
+
+	/** Crea una tarjeta accesible por PACE.
+	 * @param cardAccessNumber CAN de la tarjeta.
+	 * @param wrappedCard Tarjeta a la que se accede por el canal PACE.
+	 * @param algorithms Algoritmos PACE que se anuncian en el EF&#46;CardAccess. */
+	PaceCardSimulator(final String cardAccessNumber,
+			          final CardSimulator wrappedCard,
+			          final PaceAlgorithmOid... algorithms) {
+		can = cardAccessNumber;
+		card = wrappedCard;
+		final ByteArrayOutputStream paceInfos = new ByteArrayOutputStream();
+		for (final PaceAlgorithmOid alg : algorithms) {
+			final byte[] paceInfo = concat(
+				concat(new byte[] { (byte) 0x06 }, alg.getBytes()),
+				concat(
+					new byte[] { (byte) 0x02, (byte) 0x01, (byte) 0x02 },
+					new byte[] { (byte) 0x02, (byte) 0x01, (byte) PaceAlgorithmParam.BRAINPOOL_256_R1.getParameterId() }
+				)
+			);
+			final byte[] encoded = tlv(0x30, paceInfo);
+			paceInfos.write(encoded, 0, encoded.length);
+		}
+		cardAccess = tlv(0x31, paceInfos.toByteArray());
+	}
+
+	/** Obtiene la clave p&uacute;blica est&aacute;tica de autenticaci&oacute;n de chip
+	 * (<i>PK<sub>IC</sub></i>), la que se publica en el DG14.
+	 * @return Punto de la clave p&uacute;blica sin comprimir. */
+	byte[] getChipAuthenticationPublicKey() {
+		return PARAMS.getG().multiply(skIc).getEncoded(false);
+	}
+
+	/** Obtiene el n&uacute;mero de canales PACE abiertos (anidados).
+	 * @return N&uacute;mero de canales PACE abiertos. */
+	synchronized int getOpenSessionCount() {
+		return sessions.size();
+	}
+
+	/** Obtiene el n&uacute;mero de canales PACE establecidos desde la creaci&oacute;n de la
+	 * tarjeta, est&eacute;n o no abiertos a&uacute;n.
+	 * @return N&uacute;mero de canales PACE establecidos. */
+	synchronized int getEstablishedChannelCount() {
+		return establishedChannels;
+	}
+
+	@Override
+	public byte[] getAtr() {
+		return ATR_NFC.clone();
+	}
+
+	/** No hace nada: como en la conexi&oacute;n NFC de Android, reiniciar la conexi&oacute;n no
+	 * reinicia el chip, que conserva los canales seguros abiertos y el estado de la tarjeta
+	 * envuelta. Por eso el controlador del DNIe por NFC puede reiniciar la conexi&oacute;n
+	 * PACE sin perder el canal. */
+	@Override
+	public void reset() {
+		// Vacio
+	}
+
+	@Override
+	public synchronized byte[] process(final byte[] command) {
+		try {
+			// Con el canal seguro de la tarjeta envuelta abierto las APDU protegidas son suyas, y
+			// una APDU en claro lo cierra y descarta el estado de seguridad de la tarjeta
+			if (wrappedCardSecureMessaging) {
+				if ((command[0] & CLA_SECURE_MESSAGING) == CLA_SECURE_MESSAGING) {
+					return card.process(command);
+				}
+				wrappedCardSecureMessaging = false;
+				card.reset();
+			}
+
+			// Se quita la mensajeria segura de cada canal abierto, del mas externo al mas interno
+			byte[] apdu = command;
+			int depth = 0;
+			while (depth < sessions.size()) {
+				if ((apdu[0] & CLA_SECURE_MESSAGING) != CLA_SECURE_MESSAGING) {
+					// Una APDU en claro cierra los canales que no la protegen
+					sessions.subList(depth, sessions.size()).clear();
+					break;
+				}
+				final byte[] unwrapped = sessions.get(depth).unwrapCommand(apdu);
+				if (unwrapped == null) {
+					sessions.clear();
+					step = 0;
+					return SW_SM_DATA_OBJECTS_INCORRECT;
+				}
+				apdu = unwrapped;
+				depth++;
+			}
+
+			byte[] response = processPlain(apdu, depth);
+			for (int i = depth - 1; i >= 0 && i < sessions.size(); i--) {
+				response = sessions.get(i).wrapResponse(response);
+			}
+			// Como en el DNIe, la autenticacion externa correcta de la tarjeta envuelta sustituye
+			// los canales PACE por su canal CWA-14890, y la respuesta aun va protegida con PACE
+			if (depth > 0 && apdu[1] == INS_EXTERNAL_AUTHENTICATE && isOk(response)) {
+				sessions.clear();
+				wrappedCardSecureMessaging = true;
+			}
+			return response;
+		}
+		catch (final Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private byte[] processPlain(final byte[] apdu, final int depth) throws Exception {
+		final byte[] data = apdu.length > 5 ? Arrays.copyOfRange(apdu, 5, 5 + (apdu[4] & 0xff)) : new byte[0];
+		if (apdu[1] == (byte) 0x22 && apdu[2] == (byte) 0xC1 && apdu[3] == (byte) 0xA4 && data.length > 0 && data[0] == (byte) 0x80) {
+			// MSE:SET AT, 80 L OID 83 01 referencia de la contrasena 84 01 parametros (el MSE:SET AT
+			// de CWA-14890, con las referencias de clave en 83 y 84, es para la tarjeta envuelta)
+			oid = Arrays.copyOfRange(data, 2, 2 + data[1]);
+			if (PaceAlgorithmOid.getPaceAlgorithmOid(oid) == null || data[data[1] + 4] != PASSWORD_CAN) {
+				oid = null;
+				return SW_WRONG_DATA;
+			}
+			step = 0;
+			sessions.subList(depth, sessions.size()).clear();
+			return SW_OK;
+		}
+		if (apdu[1] == (byte) 0x86) {
+			if (oid == null) {
+				return SW_CONDITIONS_NOT_SATISFIED;
+			}
+			// 7C L 8x L valor
+			return generalAuthenticate(
+				data.length > 4 ? Arrays.copyOfRange(data, 4, data.length) : new byte[0],
+				depth
+			);
+		}
+		if (apdu[1] == (byte) 0xB0 && apdu[2] == P1_READ_CARD_ACCESS) {
+			final int offset = apdu[3] & 0xff;
+			return concat(Arrays.copyOfRange(cardAccess, Math.min(offset, cardAccess.length), cardAccess.length), SW_OK);
+		}
+		if (card == null) {
+			return SW_INS_NOT_SUPPORTED;
+		}
+		if (depth == 0) {
+			return SW_SECURITY_STATUS_NOT_SATISFIED;
+		}
+		return card.process(apdu);
+	}
+
+	private static boolean isOk(final byte[] response) {
+		return response.length >= 2 &&
+			response[response.length - 2] == SW_OK[0] &&
+				response[response.length - 1] == SW_OK[1];
+	}
+
+	private byte[] generalAuthenticate(final byte[] in, final int depth) throws Exception {
+		final ECCurve curve = PARAMS.getCurve();
+		switch (step++) {
+			case 0:
+				nonce = new byte[16];
+				RANDOM.nextBytes(nonce);
+				final byte[] sk = Arrays.copyOf(sha1(can.getBytes(), 3), 16);
+				return response(0x80, aes(Cipher.ENCRYPT_MODE, "AES/CBC/NoPadding", sk, new byte[16], nonce)); //$NON-NLS-1$
+			case 1:
+				final BigInteger s = new BigInteger(1, nonce);
+				if (isAlgorithm(PaceAlgorithmOid.PACE_ECDH_IM_AES_CBC_CMAC_128)) {
+					mappedG = integratedMapping(pseudoRandom(nonce, in));
+					return concat(new byte[] { (byte) 0x7C, (byte) 0x00 }, SW_OK);
+				}
+				skMap = randomScalar();
+				mappedG = PARAMS.getG().multiply(s).add(curve.decodePoint(in).multiply(skMap)).normalize();
+				return response(0x82, PARAMS.getG().multiply(skMap).getEncoded(false));
+			case 2:
+				final BigInteger skIc2 = randomScalar();
+				pkIc2 = mappedG.multiply(skIc2).getEncoded(false);
+				pkIfd2 = in;
+				byte[] k = curve.decodePoint(in).multiply(skIc2).normalize().getAffineXCoord().toBigInteger().toByteArray();
+				if (k[0] == 0) {
+					k = Arrays.copyOfRange(k, 1, k.length);
+				}
+				kenc = Arrays.copyOf(sha1(k, 1), 16);
+				kmac = Arrays.copyOf(sha1(k, 2), 16);
+				return response(0x84, pkIc2);
+			case 3:
+				final byte[] tIfd = cmac(kmac, authenticationTokenData(pkIc2));
+				if (!Arrays.equals(tIfd, in)) {
+					oid = null;
+					return SW_AUTHENTICATION_FAILED;
+				}
+				byte[] out = tlv(0x86, cmac(kmac, authenticationTokenData(pkIfd2)));
+				if (isAlgorithm(PaceAlgorithmOid.PACE_ECDH_CAM_AES_CBC_CMAC_128)) {
+					// CA_IC = SK_IC^-1 * SK_Map mod n
+					final BigInteger caIc = skIc.modInverse(PARAMS.getN()).multiply(skMap).mod(PARAMS.getN());
+					final byte[] padded = new byte[48];
+					final byte[] caBytes = bigIntToBytes(caIc, 32);
+					System.arraycopy(caBytes, 0, padded, 0, 32);
+					padded[32] = (byte) 0x80;
+					final byte[] minusOne = new byte[16];
+					Arrays.fill(minusOne, (byte) 0xff);
+					final byte[] iv = aes(Cipher.ENCRYPT_MODE, "AES/ECB/NoPadding", kenc, null, minusOne); //$NON-NLS-1$
+					out = concat(out, tlv(0x8A, aes(Cipher.ENCRYPT_MODE, "AES/CBC/NoPadding", kenc, iv, padded))); //$NON-NLS-1$
+				}
+				// La respuesta se protege solo con los canales que ya estaban abiertos
+				sessions.subList(depth, sessions.size()).clear();
+				sessions.add(new Session(kenc, kmac));
+				establishedChannels++;
+				oid = null;
+				return concat(tlv(0x7C, out), SW_OK);
+			default:
+				return SW_CONDITIONS_NOT_SATISFIED;
+		}
+	}
+
+	private boolean isAlgorithm(final PaceAlgorithmOid algorithm) {
+		return PaceAlgorithmOid.getPaceAlgorithmOid(oid) == algorithm;
+	}
+
+	/** <i>R<sub>p</sub>(s,t)</i> de ICAO 9303 parte 11 con AES-128. */
+	private static BigInteger pseudoRandom(final byte[] s, final byte[] t) throws Exception {
+		final BigInteger p = PARAMS.getCurve().getField().getCharacteristic();
+		final int n = (p.bitLength() + 64 + 127) / 128;
+		byte[] key = aes(Cipher.ENCRYPT_MODE, "AES/ECB/NoPadding", t, null, s); //$NON-NLS-1$
+		byte[] x = new byte[0];
+		for (int i = 0; i < n; i++) {
+			x = concat(x, aes(Cipher.ENCRYPT_MODE, "AES/ECB/NoPadding", key, null, IM_C1)); //$NON-NLS-1$
+			key = aes(Cipher.ENCRYPT_MODE, "AES/ECB/NoPadding", key, null, IM_C0); //$NON-NLS-1$
+		}
+		return new BigInteger(1, x).mod(p);
+	}
+
+	/** Correspondencia SWU simplificada para <i>p = 3 mod 4</i> calculada con enteros. */
+	private static ECPoint integratedMapping(final BigInteger t) {
+		final ECCurve curve = PARAMS.getCurve();
+		final BigInteger p = curve.getField().getCharacteristic();
+		final BigInteger a = curve.getA().toBigInteger();
+		final BigInteger b = curve.getB().toBigInteger();
+		final BigInteger alpha = p.subtract(t.pow(2).mod(p)).mod(p);
+		final BigInteger x2 = b.negate().multiply(a.modInverse(p)).multiply(
+			BigInteger.ONE.add(alpha.pow(2).add(alpha).modInverse(p))
+		).mod(p);
+		final BigInteger x3 = alpha.multiply(x2).mod(p);
+		final BigInteger h2 = x2.pow(3).add(a.multiply(x2)).add(b).mod(p);
+		final BigInteger u = t.pow(3).multiply(h2).mod(p);
+		final BigInteger aa = h2.modPow(p.subtract(BigInteger.ONE).subtract(p.add(BigInteger.ONE).shiftRight(2)), p);
+		if (aa.pow(2).multiply(h2).mod(p).equals(BigInteger.ONE)) {
+			return curve.createPoint(x2, aa.multiply(h2).mod(p));
+		}
+		return curve.createPoint(x3, aa.multiply(u).mod(p));
+	}
+
+	/** Datos del token de autenticaci&oacute;n sobre la clave p&uacute;blica ef&iacute;mera del otro extremo. */
+	private byte[] authenticationTokenData(final byte[] publicKey) {
+		return concat(
+			concat(new byte[] { (byte) 0x7F, (byte) 0x49, (byte) 0x4F, (byte) 0x06, (byte) oid.length }, oid),
+			concat(new byte[] { (byte) 0x86, (byte) 0x41 }, publicKey)
+		);
+	}
+
+	/** Calcula un AES-CMAC truncado a ocho octetos. */
+	static byte[] cmac(final byte[] key, final byte[] data) {
+		final CMac mac = new CMac(new AESEngine(), 64);
+		mac.init(new KeyParameter(key));
+		mac.update(data, 0, data.length);
+		final byte[] out = new byte[8];
+		mac.doFinal(out, 0);
+		return out;
+	}
+
+	private static BigInteger randomScalar() {
+		BigInteger k;
+		do {
+			k = new BigInteger(PARAMS.getN().bitLength(), RANDOM);
+		} while (k.signum() == 0 || k.compareTo(PARAMS.getN()) >= 0);
+		return k;
+	}
+
+	private static byte[] sha1(final byte[] secret, final int counter) throws Exception {
+		return MessageDigest.getInstance("SHA-1").digest( //$NON-NLS-1$
+			concat(secret, new byte[] { 0, 0, 0, (byte) counter })
+		);
+	}
+
+	static byte[] aes(final int mode,
+			          final String transformation,
+			          final byte[] key,
+			          final byte[] iv,
+			          final byte[] data) throws Exception {
+		final Cipher c = Cipher.getInstance(transformation);
+		if (iv != null) {
+			c.init(mode, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv)); //$NON-NLS-1$
+		}
+		else {
+			c.init(mode, new SecretKeySpec(key, "AES")); //$NON-NLS-1$
+		}
+		return c.doFinal(data);
+	}
+
+	private static byte[] bigIntToBytes(final BigInteger bi, final int len) {
+		final byte[] raw = bi.toByteArray();
+		final byte[] out = new byte[len];
+		final int n = Math.min(raw.length, len);
+		System.arraycopy(raw, raw.length - n, out, len - n, n);
+		return out;
+	}
+
+	static byte[] tlv(final int tag, final byte[] value) {
+		final byte[] length;
+		if (value.length < 0x80) {
+			length = new byte[] { (byte) value.length };
+		}
+		else if (value.length <= 0xff) {
+			length = new byte[] { (byte) 0x81, (byte) value.length };
+		}
+		else {
+			length = new byte[] { (byte) 0x82, (byte) (value.length >> 8), (byte) value.length };
+		}
+		return concat(concat(new byte[] { (byte) tag }, length), value);
+	}
+
+	private static byte[] response(final int tag, final byte[] value) {
+		return concat(tlv(0x7C, tlv(tag, value)), SW_OK);
+	}
+
+	static byte[] concat(final byte[] a, final byte[] b) {
+		return HexUtils.concatenateByteArrays(a, b);
+	}
+
+	/** A&ntilde;ade el relleno ISO 7816-4 hasta un m&uacute;ltiplo del tama&ntilde;o de bloque AES. */
+	static byte[] addPadding(final byte[] data) {
+		final byte[] out = new byte[(data.length / BLOCK_SIZE + 1) * BLOCK_SIZE];
+		System.arraycopy(data, 0, out, 0, data.length);
+		out[data.length] = (byte) 0x80;
+		return out;
+	}
+
+	/** Sesi&oacute;n de mensajer&iacute;a segura PACE (AES-CBC y AES-CMAC) del lado de la tarjeta. */
+	private static final class Session {
+
+		private final byte[] kenc;
+		private final byte[] kmac;
+		private final byte[] ssc = new byte[BLOCK_SIZE];
+
+		Session(final byte[] sessionKenc, final byte[] sessionKmac) {
+			kenc = sessionKenc.clone();
+			kmac = sessionKmac.clone();
+		}
+
+		/** Comprueba y descifra una APDU protegida.
+		 * @param apdu APDU protegida.
+		 * @return APDU en claro, o <code>null</code> si faltan objetos de mensajer&iacute;a
+		 *         segura o su MAC no es correcta.
+		 * @throws Exception Si falla el descifrado. */
+		byte[] unwrapCommand(final byte[] apdu) throws Exception {
+			increment();
+			if (apdu.length <= 5) {
+				return null;
+			}
+			final byte[] header = Arrays.copyOf(apdu, 4);
+			final byte[] body = Arrays.copyOfRange(apdu, 5, 5 + (apdu[4] & 0xff));
+			byte[] do87 = null;
+			byte[] cryptogram = null;
+			byte[] do97 = null;
+			byte[] mac = null;
+			int pos = 0;
+			while (pos + 2 <= body.length) {
+				int len = body[pos + 1] & 0xff;
+				int valueOffset = pos + 2;
+				if (len == 0x81) {
+					len = body[pos + 2] & 0xff;
+					valueOffset++;
+				}
+				else if (len == 0x82) {
+					len = (body[pos + 2] & 0xff) << 8 | body[pos + 3] & 0xff;
+					valueOffset += 2;
+				}
+				final byte[] encoded = Arrays.copyOfRange(body, pos, valueOffset + len);
+				switch (body[pos]) {
+					case (byte) 0x87:
+						do87 = encoded;
+						// Se omite el indicador de relleno (01) que precede al criptograma
+						cryptogram = Arrays.copyOfRange(body, valueOffset + 1, valueOffset + len);
+						break;
+					case (byte) 0x97:
+						do97 = encoded;
+						break;
+					case (byte) 0x8E:
+						mac = Arrays.copyOfRange(encoded, valueOffset - pos, encoded.length);
+						break;
+					default:
+						return null;
+				}
+				pos = valueOffset + len;
+			}
+			if (mac == null) {
+				return null;
+			}
+			final byte[] macData;
+			if (do87 != null || do97 != null) {
+				macData = concat(
+					concat(addPadding(header), do87 != null ? do87 : new byte[0]),
+					do97 != null ? do97 : new byte[0]
+				);
+			}
+			else {
+				macData = header;
+			}
+			if (!MessageDigest.isEqual(mac, cmac(kmac, addPadding(concat(ssc, macData))))) {
+				return null;
+			}
+
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			out.write(header[0] & ~CLA_SECURE_MESSAGING);
+			out.write(header, 1, 3);
+			if (cryptogram != null) {
+				final byte[] data = removePadding(
+					aes(Cipher.DECRYPT_MODE, "AES/CBC/NoPadding", kenc, getIv(), cryptogram) //$NON-NLS-1$
+				);
+				if (data.length <= 0xff) {
+					out.write(data.length);
+				}
+				else {
+					out.write(0);
+					out.write(data.length >> 8);
+					out.write(data.length);
+				}
+				out.write(data, 0, data.length);
+			}
+			if (do97 != null) {
+				out.write(do97[do97.length - 1]);
+			}
+			return out.toByteArray();
+		}
+
+		/** Protege una respuesta.
+		 * @param response Respuesta en claro.
+		 * @return Respuesta protegida.
+		 * @throws Exception Si falla el cifrado. */
+		byte[] wrapResponse(final byte[] response) throws Exception {
+			increment();
+			final int dataLength = response.length - 2;
+			byte[] dos = new byte[0];
+			if (dataLength > 0) {
+				dos = tlv(
+					0x87,
+					concat(
+						new byte[] { 0x01 },
+						aes(
+							Cipher.ENCRYPT_MODE,
+							"AES/CBC/NoPadding", //$NON-NLS-1$
+							kenc,
+							getIv(),
+							addPadding(Arrays.copyOf(response, dataLength))
+						)
+					)
+				);
+			}
+			dos = concat(dos, tlv(0x99, Arrays.copyOfRange(response, dataLength, response.length)));
+			dos = concat(dos, tlv(0x8E, cmac(kmac, addPadding(concat(ssc, dos)))));
+			return concat(dos, SW_OK);
+		}
+
+		private byte[] getIv() throws Exception {
+			return aes(Cipher.ENCRYPT_MODE, "AES/ECB/NoPadding", kenc, null, ssc); //$NON-NLS-1$
+		}
+
+		private void increment() {
+			for (int i = ssc.length - 1; i >= 0; i--) {
+				ssc[i]++;
+				if (ssc[i] != 0) {
+					break;
+				}
+			}
+		}
+
+		private static byte[] removePadding(final byte[] data) {
+			for (int i = data.length - 1; i >= 0; i--) {
+				if (data[i] == (byte) 0x80) {
+					return Arrays.copyOf(data, i);
+				}
+				if (data[i] != 0x00) {
+					break;
+				}
+			}
+			return data;
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package test.es.gob.jmulticard;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import es.gob.jmulticard.BcCryptoHelper;
+import es.gob.jmulticard.card.CardDiscovery;
+import es.gob.jmulticard.card.dnie.Dnie;
+import es.gob.jmulticard.card.dnie.DnieCardSimulator;
+import es.gob.jmulticard.card.dnie.DnieFactory;
+import es.gob.jmulticard.connection.loopback.LoopbackConnection;
+import es.gob.jmulticard.jse.provider.JMultiCardProviderFactory;
+import es.gob.jmulticard.jse.provider.JMultiCardProviderFactory.CardType;
+
+/** Pruebas del descubrimiento de tarjetas con un DNIe simulado.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestCardDiscovery {
+
+	private static final String PIN = "password"; //$NON-NLS-1$
+
+	/** Comprueba que se clasifica la tarjeta del lector sin reiniciarla ni abrir la conexi&oacute;n.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testDiscoverWithoutReset() throws Exception {
+		final DnieCardSimulator simulator = new DnieCardSimulator(PIN, new BcCryptoHelper());
+		final LoopbackConnection conn = new LoopbackConnection(simulator);
+		final Map<Long, CardType> cards = JMultiCardProviderFactory.discoverCards(conn);
+		Assert.assertEquals(1, cards.size());
+		Assert.assertEquals(CardType.DNIE, cards.get(Long.valueOf(0)));
+		Assert.assertFalse(conn.isOpen());
+		Assert.assertEquals(0, conn.getTransmittedApduCount());
+		Assert.assertArrayEquals(simulator.getAtr(), CardDiscovery.readAtrs(conn).get(Long.valueOf(0)));
+	}
+
+	/** Obtiene el DNIe de un lector concreto.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testGetDnieFromTerminal() throws Exception {
+		final Dnie dnie = DnieFactory.getDnie(
+			new LoopbackConnection(new DnieCardSimulator(PIN, new BcCryptoHelper())),
+			0,
+			null,
+			new BcCryptoHelper(),
+			new TestingDnieCallbackHandler(null, PIN),
+			true
+		);
+		Assert.assertNotNull(dnie.getCertificate(Dnie.CERT_ALIAS_SIGN));
+	}
+}
@@ -0,0 +1,338 @@
+package test.es.gob.jmulticard;
+
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import es.gob.jmulticard.BcCryptoHelper;
+import es.gob.jmulticard.card.CryptoCard;
+import es.gob.jmulticard.card.CryptoCardException;
+import es.gob.jmulticard.card.PinException;
+import es.gob.jmulticard.card.dnie.Dnie;
+import es.gob.jmulticard.card.dnie.DnieCardSimulator;
+import es.gob.jmulticard.card.dnie.DnieFactory;
+import es.gob.jmulticard.card.dnie.SecureChannelType;
+import es.gob.jmulticard.connection.ApduConnection;
+import es.gob.jmulticard.connection.loopback.LoopbackConnection;
+import es.gob.jmulticard.jse.provider.CardPool;
+
+/** Pruebas del conjunto de tarjetas con varios DNIe simulados.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestCardPool {
+
+	private static final String PIN = "password"; //$NON-NLS-1$
+
+	private static final byte[] DATA = "Hola Mundo!!".getBytes(); //$NON-NLS-1$
+
+	private static final int CARDS = 3;
+
+	/** Firma con la tarjeta asignada y devuelve la firma y el certificado con el que se verifica. */
+	private static final CardPool.CardOperation<Object[]> SIGN = new CardPool.CardOperation<Object[]>() {
+		@Override
+		public Object[] execute(final CryptoCard card) throws CryptoCardException, PinException {
+			return new Object[] {
+				card,
+				card.sign(DATA, "SHA256withRSA", card.getPrivateKey(Dnie.CERT_ALIAS_SIGN)), //$NON-NLS-1$
+				card.getCertificate(Dnie.CERT_ALIAS_SIGN)
+			};
+		}
+	};
+
+	private static CardPool createPool() throws Exception {
+		final List<CryptoCard> cards = new ArrayList<>();
+		for (int i = 0; i < CARDS; i++) {
+			cards.add(
+				DnieFactory.getDnie(
+					new LoopbackConnection(new DnieCardSimulator(PIN, new BcCryptoHelper())),
+					null,
+					new BcCryptoHelper(),
+					new TestingDnieCallbackHandler(null, PIN)
+				)
+			);
+		}
+		return new CardPool(cards);
+	}
+
+	private static void verify(final Object[] result) throws Exception {
+		final Signature verifier = Signature.getInstance("SHA256withRSA"); //$NON-NLS-1$
+		verifier.initVerify((X509Certificate) result[2]);
+		verifier.update(DATA);
+		Assert.assertTrue(verifier.verify((byte[]) result[1]));
+	}
+
+	/** Comprueba que las operaciones consecutivas se reparten por igual entre las tarjetas
+	 * y que cada tarjeta firma varias veces seguidas.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testRoundRobin() throws Exception {
+		try (final CardPool pool = createPool()) {
+			Assert.assertEquals(CARDS, pool.size());
+			final Map<CryptoCard, Integer> uses = new IdentityHashMap<>();
+			for (int i = 0; i < 2 * CARDS; i++) {
+				final Object[] result = pool.execute(SIGN);
+				verify(result);
+				final Integer n = uses.get(result[0]);
+				uses.put((CryptoCard) result[0], Integer.valueOf(n == null ? 1 : n.intValue() + 1));
+			}
+			Assert.assertEquals(CARDS, uses.size());
+			for (final Integer n : uses.values()) {
+				Assert.assertEquals(2, n.intValue());
+			}
+		}
+	}
+
+	/** Firma desde varios hilos a la vez con menos tarjetas que hilos.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testConcurrentSigning() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(2 * CARDS);
+		try (final CardPool pool = createPool()) {
+			final List<Future<Object[]>> results = new ArrayList<>();
+			for (int i = 0; i < 4 * CARDS; i++) {
+				results.add(executor.submit(new Callable<Object[]>() {
+					@Override
+					public Object[] call() throws Exception {
+						return pool.execute(SIGN);
+					}
+				}));
+			}
+			for (final Future<Object[]> result : results) {
+				verify(result.get());
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	/** Abre el conjunto a partir de una factor&iacute;a de conexiones.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testOpenFromFactory() throws Exception {
+		final CardPool.ConnectionFactory factory = new CardPool.ConnectionFactory() {
+			@Override
+			public ApduConnection createConnection() {
+				try {
+					return new LoopbackConnection(new DnieCardSimulator(PIN, new BcCryptoHelper()));
+				}
+				catch (final Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+		try (final CardPool pool = CardPool.open(factory, new TestingDnieCallbackHandler(null, PIN))) {
+			Assert.assertEquals(1, pool.size());
+			verify(pool.execute(SIGN));
+		}
+	}
+
+	/** Abre el conjunto con varios lectores, cada uno con un DNIe distinto, y comprueba
+	 * que cada tarjeta del conjunto queda asociada a su propio lector (y no todas al
+	 * primer DNIe encontrado).
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testMultipleReaders() throws Exception {
+		final DnieCardSimulator[] simulators = new DnieCardSimulator[CARDS];
+		for (int i = 0; i < CARDS; i++) {
+			simulators[i] = new DnieCardSimulator(PIN, new BcCryptoHelper());
+		}
+		final List<LoopbackConnection> conns = new ArrayList<>();
+		final CardPool.ConnectionFactory factory = new CardPool.ConnectionFactory() {
+			@Override
+			public ApduConnection createConnection() {
+				final LoopbackConnection conn = new LoopbackConnection(simulators);
+				conns.add(conn);
+				return conn;
+			}
+		};
+		try (final CardPool pool = CardPool.open(factory, new TestingDnieCallbackHandler(null, PIN))) {
+			Assert.assertEquals(CARDS, pool.size());
+			final Set<X509Certificate> certs = new HashSet<>();
+			for (final CryptoCard card : pool.getCards()) {
+				certs.add(card.getCertificate(Dnie.CERT_ALIAS_SIGN));
+			}
+			Assert.assertEquals(CARDS, certs.size());
+
+			// Cada tarjeta firma con la clave de su propio certificado
+			for (int i = 0; i < 2 * CARDS; i++) {
+				verify(pool.execute(SIGN));
+			}
+
+			// La primera conexion es la de descubrimiento, que se cierra, despues una por lector
+			Assert.assertFalse(conns.get(0).isOpen());
+			for (int i = 1; i < conns.size(); i++) {
+				Assert.assertTrue(conns.get(i).getTransmittedApduCount() > 0);
+			}
+		}
+	}
+
+	/** Comprueba que al cerrar el conjunto fallan los hilos que esperan una tarjeta libre,
+	 * en lugar de quedarse bloqueados indefinidamente.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test(timeout = 60000)
+	public void testCloseWakesWaiters() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(CARDS + 2);
+		final CardPool pool = createPool();
+		final CountDownLatch busy = new CountDownLatch(CARDS);
+		final CountDownLatch release = new CountDownLatch(1);
+		try {
+			// Se ocupan todas las tarjetas
+			final List<Future<Void>> holders = new ArrayList<>();
+			for (int i = 0; i < CARDS; i++) {
+				holders.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						return pool.execute(new CardPool.CardOperation<Void>() {
+							@Override
+							public Void execute(final CryptoCard card) {
+								busy.countDown();
+								try {
+									release.await();
+								}
+								catch (final InterruptedException e) {
+									Thread.currentThread().interrupt();
+								}
+								return null;
+							}
+						});
+					}
+				}));
+			}
+			Assert.assertTrue(busy.await(30, TimeUnit.SECONDS));
+
+			// Dos hilos esperan una tarjeta libre
+			final List<Future<Object[]>> waiters = new ArrayList<>();
+			for (int i = 0; i < 2; i++) {
+				waiters.add(executor.submit(new Callable<Object[]>() {
+					@Override
+					public Object[] call() throws Exception {
+						return pool.execute(SIGN);
+					}
+				}));
+			}
+			Thread.sleep(200);
+			pool.close();
+
+			for (final Future<Object[]> waiter : waiters) {
+				try {
+					waiter.get(30, TimeUnit.SECONDS);
+					Assert.fail("La espera deberia haber fallado al cerrar el conjunto"); //$NON-NLS-1$
+				}
+				catch (final ExecutionException e) {
+					Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+				}
+			}
+
+			// Las operaciones en curso terminan con normalidad
+			release.countDown();
+			for (final Future<Void> holder : holders) {
+				holder.get(30, TimeUnit.SECONDS);
+			}
+		}
+		finally {
+			release.countDown();
+			pool.close();
+			executor.shutdown();
+		}
+	}
+
+	/** Simula la extracci&oacute;n y la inserci&oacute;n de un DNIe del conjunto y comprueba
+	 * que al extraerlo se cierra su canal seguro y que al insertarlo se restablece en
+	 * segundo plano, de forma que la siguiente firma ya no tiene que establecerlo.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testCardRemovalAndInsertion() throws Exception {
+		final List<LoopbackConnection> conns = new ArrayList<>();
+		final CardPool.ConnectionFactory factory = new CardPool.ConnectionFactory() {
+			@Override
+			public ApduConnection createConnection() {
+				try {
+					final LoopbackConnection conn = new LoopbackConnection(
+						new DnieCardSimulator(PIN, new BcCryptoHelper())
+					);
+					conns.add(conn);
+					return conn;
+				}
+				catch (final Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+		try (final CardPool pool = CardPool.open(factory, new TestingDnieCallbackHandler(null, PIN))) {
+			final Dnie dnie = (Dnie) pool.getCards().get(0);
+			dnie.setKeepSecureChannelOpen(true);
+			verify(pool.execute(SIGN));
+			Assert.assertEquals(1, dnie.getSecureChannelMetrics().getEstablishedCount());
+
+			// La ultima conexion creada es la de la tarjeta del conjunto
+			final LoopbackConnection conn = conns.get(conns.size() - 1);
+			conn.removeCard();
+			Assert.assertEquals(SecureChannelType.NONE, dnie.getSecureChannelType());
+
+			conn.insertCard();
+			final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+			while (dnie.getSecureChannelMetrics().getEstablishedCount() < 2 && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			Assert.assertEquals(2, dnie.getSecureChannelMetrics().getEstablishedCount());
+
+			verify(pool.execute(SIGN));
+			Assert.assertEquals(2, dnie.getSecureChannelMetrics().getEstablishedCount());
+		}
+	}
+
+	/** Establece en segundo plano el canal seguro de todas las tarjetas y comprueba que
+	 * las firmas posteriores lo reutilizan sin volver a establecerlo.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testPrewarm() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(CARDS);
+		try (final CardPool pool = createPool()) {
+			for (final CryptoCard card : pool.getCards()) {
+				((Dnie) card).setKeepSecureChannelOpen(true);
+			}
+			for (final Future<Void> task : pool.prewarm(executor)) {
+				task.get();
+			}
+			final long[] established = new long[CARDS];
+			for (int i = 0; i < CARDS; i++) {
+				final Dnie dnie = (Dnie) pool.getCards().get(i);
+				established[i] = dnie.getSecureChannelMetrics().getEstablishedCount();
+				Assert.assertTrue(dnie.getSecureChannelMetrics().getEstablishedCount() > 0);
+			}
+			for (int i = 0; i < 2 * CARDS; i++) {
+				verify(pool.execute(SIGN));
+			}
+			for (int i = 0; i < CARDS; i++) {
+				final Dnie dnie = (Dnie) pool.getCards().get(i);
+				Assert.assertEquals(established[i], dnie.getSecureChannelMetrics().getEstablishedCount());
+				Assert.assertTrue(dnie.getSecureChannelMetrics().getReusedCount() >= 2);
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package test.es.gob.jmulticard;
+
+import java.lang.reflect.Method;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import es.gob.jmulticard.BcCryptoHelper;
+import es.gob.jmulticard.card.Location;
+import es.gob.jmulticard.card.PrivateKeyReference;
+import es.gob.jmulticard.card.dnie.Dnie;
+import es.gob.jmulticard.card.dnie.DnieCardSimulator;
+import es.gob.jmulticard.card.dnie.DnieFactory;
+import es.gob.jmulticard.connection.loopback.LoopbackConnection;
+
+/** Prueba de carga del uso concurrente de un mismo DNIe (simulado) desde muchos hilos.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestConcurrentDnie {
+
+	private static final String PIN = "password"; //$NON-NLS-1$
+
+	private static final int TASKS = 1000;
+
+	private static final Location SIGN_CERT_LOCATION = new Location("60817005"); //$NON-NLS-1$
+
+	/** Obtiene un <code>ExecutorService</code> de hilos virtuales si la JVM los tiene
+	 * (Java 21 o superior), o de hilos normales en otro caso.
+	 * @return <code>ExecutorService</code> para las tareas de la prueba. */
+	private static ExecutorService newExecutor() {
+		try {
+			final Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor"); //$NON-NLS-1$
+			return (ExecutorService) m.invoke(null);
+		}
+		catch (final Exception e) {
+			return Executors.newFixedThreadPool(64);
+		}
+	}
+
+	/** Lanza sobre el mismo DNIe simulado, con el canal seguro abierto, mil tareas concurrentes
+	 * que alternan firmas (MSE:SET + PSO) y lecturas de fichero (SELECT + READ BINARY), y
+	 * comprueba que todas las firmas son v&aacute;lidas y que todas las lecturas obtienen el
+	 * contenido correcto, es decir, que no se han intercalado APDU de distintas operaciones ni
+	 * se ha desincronizado el contador de secuencia del canal seguro.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testConcurrentOperations() throws Exception {
+		final Dnie dnie = DnieFactory.getDnie(
+			new LoopbackConnection(new DnieCardSimulator(PIN, new BcCryptoHelper())),
+			null,
+			new BcCryptoHelper(),
+			new TestingDnieCallbackHandler(null, PIN)
+		);
+		dnie.setKeepSecureChannelOpen(true);
+		final PrivateKeyReference key = dnie.getPrivateKey(Dnie.CERT_ALIAS_SIGN);
+		final X509Certificate cert = dnie.getCertificate(Dnie.CERT_ALIAS_SIGN);
+		final byte[] expected = dnie.selectFileByLocationAndRead(SIGN_CERT_LOCATION);
+
+		final ExecutorService executor = newExecutor();
+		final List<Future<Boolean>> results = new ArrayList<>(TASKS);
+		try {
+			for (int i = 0; i < TASKS; i++) {
+				final byte[] data = ("Documento " + i).getBytes(); //$NON-NLS-1$
+				final boolean sign = i % 2 == 0;
+				results.add(
+					executor.submit(
+						new Callable<Boolean>() {
+							@Override
+							public Boolean call() throws Exception {
+								if (!sign) {
+									return Boolean.valueOf(
+										Arrays.equals(expected, dnie.selectFileByLocationAndRead(SIGN_CERT_LOCATION))
+									);
+								}
+								final Signature verifier = Signature.getInstance("SHA256withRSA"); //$NON-NLS-1$
+								verifier.initVerify(cert);
+								verifier.update(data);
+								return Boolean.valueOf(
+									verifier.verify(dnie.sign(data, "SHA256withRSA", key)) //$NON-NLS-1$
+								);
+							}
+						}
+					)
+				);
+			}
+			for (int i = 0; i < TASKS; i++) {
+				Assert.assertTrue("Fallo en la tarea " + i, results.get(i).get().booleanValue()); //$NON-NLS-1$
+			}
+		}
+		finally {
+			executor.shutdown();
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		Assert.assertTrue(dnie.getSecureChannelMetrics().getEstablishedCount() <= 1);
+	}
+}
@@ -0,0 +1,66 @@
+package test.es.gob.jmulticard;
+
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import es.gob.jmulticard.BcCryptoHelper;
+import es.gob.jmulticard.card.BadPinException;
+import es.gob.jmulticard.card.PrivateKeyReference;
+import es.gob.jmulticard.card.fnmt.ceres.Ceres;
+import es.gob.jmulticard.card.fnmt.ceres.CeresCardSimulator;
+import es.gob.jmulticard.connection.loopback.LoopbackConnection;
+
+/** Pruebas de la tarjeta FNMT-RCM CERES simulada sobre una conexi&oacute;n <i>loopback</i>,
+ * que recorren el controlador completo (PKCS#15, PIN y firma con carga de datos envuelta)
+ * sin lector ni tarjeta.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestLoopbackCeres {
+
+	private static final String PIN = "password"; //$NON-NLS-1$
+
+	private static final byte[] DATA = "Hola Mundo!!".getBytes(); //$NON-NLS-1$
+
+	/** Firma varias veces con cada clave de la CERES simulada y comprueba las firmas con
+	 * los certificados.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testSigning() throws Exception {
+		final LoopbackConnection conn = new LoopbackConnection(new CeresCardSimulator(PIN));
+		final Ceres ceres = new Ceres(conn, new BcCryptoHelper());
+		ceres.setCallbackHandler(new TestingDnieCallbackHandler(null, PIN));
+		final String[] aliases = ceres.getAliases();
+		Assert.assertEquals(2, aliases.length);
+		for (final String alias : aliases) {
+			final PrivateKeyReference key = ceres.getPrivateKey(alias);
+			final X509Certificate cert = ceres.getCertificate(alias);
+			for (int i = 0; i < 2; i++) {
+				final byte[] sign = ceres.sign(DATA, "SHA256withRSA", key); //$NON-NLS-1$
+				final Signature verifier = Signature.getInstance("SHA256withRSA"); //$NON-NLS-1$
+				verifier.initVerify(cert);
+				verifier.update(DATA);
+				Assert.assertTrue("La firma " + (i + 1) + " con '" + alias + "' no es valida", verifier.verify(sign)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			}
+		}
+		Assert.assertTrue(conn.getTransmittedApduCount() > 0);
+	}
+
+	/** Comprueba que la CERES simulada rechaza un PIN incorrecto indicando los intentos restantes.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testWrongPin() throws Exception {
+		final Ceres ceres = new Ceres(new LoopbackConnection(new CeresCardSimulator(PIN)), new BcCryptoHelper());
+		ceres.setCallbackHandler(new TestingDnieCallbackHandler(null, "incorrecto")); //$NON-NLS-1$
+		try {
+			ceres.sign(DATA, "SHA256withRSA", ceres.getPrivateKey(ceres.getAliases()[0])); //$NON-NLS-1$
+			Assert.fail("La firma con PIN incorrecto deberia fallar"); //$NON-NLS-1$
+		}
+		catch (final BadPinException e) {
+			Assert.assertEquals(2, e.getRemainingRetries());
+		}
+	}
+}
@@ -0,0 +1,561 @@
+package test.es.gob.jmulticard;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import es.gob.jmulticard.BcCryptoHelper;
+import es.gob.jmulticard.CancelledOperationException;
+import es.gob.jmulticard.CryptoHelper;
+import es.gob.jmulticard.CryptoHelper.DigestAlgorithm;
+import es.gob.jmulticard.asn1.der.pkcs1.DigestInfo;
+import es.gob.jmulticard.callback.CustomAuthorizeCallback;
+import es.gob.jmulticard.card.BadPinException;
+import es.gob.jmulticard.card.CryptoCard;
+import es.gob.jmulticard.card.Location;
+import es.gob.jmulticard.card.PrivateKeyReference;
+import es.gob.jmulticard.card.SignatureResult;
+import es.gob.jmulticard.card.dnie.Dnie;
+import es.gob.jmulticard.card.dnie.DnieCardSimulator;
+import es.gob.jmulticard.card.dnie.DnieFactory;
+import es.gob.jmulticard.card.dnie.SecureChannelType;
+import es.gob.jmulticard.card.icao.bac.IcaoMrtdWithBac;
+import es.gob.jmulticard.connection.AsyncApduConnectionAdapter;
+import es.gob.jmulticard.connection.loopback.LoopbackConnection;
+import es.gob.jmulticard.jse.provider.DnieProvider;
+import es.gob.jmulticard.jse.provider.DnieSignatureStream;
+
+/** Pruebas del DNIe simulado sobre una conexi&oacute;n <i>loopback</i>, que recorren
+ * el controlador completo (canal seguro, PIN y firma) sin lector ni tarjeta.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestLoopbackDnie {
+
+	private static final String PIN = "password"; //$NON-NLS-1$
+
+	private static final byte[] DATA = "Hola Mundo!!".getBytes(); //$NON-NLS-1$
+
+	/** Abre dos sesiones de firma consecutivas con el mismo DNIe simulado (cada carga
+	 * del almac&eacute;n reinicia la tarjeta) y comprueba las firmas con el certificado.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testSigningSessions() throws Exception {
+		final LoopbackConnection conn = new LoopbackConnection(new DnieCardSimulator(PIN, new BcCryptoHelper()));
+		final Provider p = new DnieProvider(conn);
+		for (int i = 0; i < 2; i++) {
+			final KeyStore ks = KeyStore.getInstance("DNI", p); //$NON-NLS-1$
+			ks.load(null, PIN.toCharArray());
+			Assert.assertTrue(ks.containsAlias(Dnie.CERT_ALIAS_AUTH));
+			Assert.assertTrue(ks.containsAlias(Dnie.CERT_ALIAS_SIGN));
+
+			final Signature signature = Signature.getInstance("SHA256withRSA", p); //$NON-NLS-1$
+			signature.initSign((PrivateKey) ks.getKey(Dnie.CERT_ALIAS_SIGN, PIN.toCharArray()));
+			signature.update(DATA);
+			final byte[] sign = signature.sign();
+
+			final Signature verifier = Signature.getInstance("SHA256withRSA"); //$NON-NLS-1$
+			verifier.initVerify((X509Certificate) ks.getCertificate(Dnie.CERT_ALIAS_SIGN));
+			verifier.update(DATA);
+			Assert.assertTrue("La firma " + (i + 1) + " no es valida", verifier.verify(sign)); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		Assert.assertTrue(conn.getTransmittedApduCount() > 0);
+	}
+
+	/** Comprueba que el DNIe simulado rechaza un PIN incorrecto.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testWrongPin() throws Exception {
+		final LoopbackConnection conn = new LoopbackConnection(new DnieCardSimulator(PIN, new BcCryptoHelper()));
+		final KeyStore ks = KeyStore.getInstance("DNI", new DnieProvider(conn)); //$NON-NLS-1$
+		try {
+			ks.load(null, "incorrecto".toCharArray()); //$NON-NLS-1$
+			Assert.fail("La carga del almacen con PIN incorrecto deberia fallar"); //$NON-NLS-1$
+		}
+		catch (final IllegalStateException e) {
+			Assert.assertTrue(e.getCause() instanceof BadPinException);
+		}
+	}
+
+	private static int signAndCountEstablishments(final boolean keepOpen) throws Exception {
+		final Dnie dnie = DnieFactory.getDnie(
+			new LoopbackConnection(new DnieCardSimulator(PIN, new BcCryptoHelper())),
+			null,
+			new BcCryptoHelper(),
+			new TestingDnieCallbackHandler(null, PIN)
+		);
+		dnie.setKeepSecureChannelOpen(keepOpen);
+		final PrivateKeyReference key = dnie.getPrivateKey(Dnie.CERT_ALIAS_SIGN);
+		final long before = dnie.getSecureChannelMetrics().getEstablishedCount();
+		for (int i = 0; i < 3; i++) {
+			final byte[] sign = dnie.sign(DATA, "SHA256withRSA", key); //$NON-NLS-1$
+			final Signature verifier = Signature.getInstance("SHA256withRSA"); //$NON-NLS-1$
+			verifier.initVerify(dnie.getCertificate(Dnie.CERT_ALIAS_SIGN));
+			verifier.update(DATA);
+			Assert.assertTrue(verifier.verify(sign));
+		}
+		Assert.assertEquals(
+			keepOpen ? SecureChannelType.CWA14890_V1 : SecureChannelType.NONE,
+			dnie.getSecureChannelType()
+		);
+		return (int) (dnie.getSecureChannelMetrics().getEstablishedCount() - before);
+	}
+
+	/** Comprueba que, si se mantiene abierto, el canal seguro se establece una sola vez
+	 * para varias firmas seguidas, mientras que por defecto se rehace en cada firma.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testSecureChannelReuse() throws Exception {
+		Assert.assertEquals(3, signAndCountEstablishments(false));
+		Assert.assertTrue(signAndCountEstablishments(true) <= 1);
+	}
+
+	private static byte[] document(final int i) {
+		return ("Factura " + i).getBytes(); //$NON-NLS-1$
+	}
+
+	private static boolean verify(final X509Certificate cert, final byte[] data, final byte[] sign) throws Exception {
+		final Signature verifier = Signature.getInstance("SHA256withRSA"); //$NON-NLS-1$
+		verifier.initVerify(cert);
+		verifier.update(data);
+		return verifier.verify(sign);
+	}
+
+	/** Comprueba que la firma por lotes produce firmas v&aacute;lidas para cada elemento y que
+	 * necesita menos APDU que las mismas firmas una a una (aun manteniendo el canal abierto).
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testSignBatch() throws Exception {
+		final int count = 5;
+		final List<byte[]> batch = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			batch.add(document(i));
+		}
+
+		final LoopbackConnection batchConn = new LoopbackConnection(new DnieCardSimulator(PIN, new BcCryptoHelper()));
+		final Dnie dnie = DnieFactory.getDnie(
+			batchConn,
+			null,
+			new BcCryptoHelper(),
+			new TestingDnieCallbackHandler(null, PIN)
+		);
+		final PrivateKeyReference key = dnie.getPrivateKey(Dnie.CERT_ALIAS_SIGN);
+		final X509Certificate cert = dnie.getCertificate(Dnie.CERT_ALIAS_SIGN);
+		final long batchStart = batchConn.getTransmittedApduCount();
+		final List<SignatureResult> results = dnie.signBatch(batch, "SHA256withRSA", key); //$NON-NLS-1$
+		final long batchApdus = batchConn.getTransmittedApduCount() - batchStart;
+
+		Assert.assertEquals(count, results.size());
+		for (int i = 0; i < count; i++) {
+			Assert.assertTrue(results.get(i).toString(), results.get(i).isOk());
+			Assert.assertTrue("La firma " + i + " no es valida", verify(cert, batch.get(i), results.get(i).getSignature())); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		// Sin mantener el canal abierto se cierra al terminar el lote
+		Assert.assertEquals(SecureChannelType.NONE, dnie.getSecureChannelType());
+
+		final LoopbackConnection singleConn = new LoopbackConnection(new DnieCardSimulator(PIN, new BcCryptoHelper()));
+		final Dnie single = DnieFactory.getDnie(
+			singleConn,
+			null,
+			new BcCryptoHelper(),
+			new TestingDnieCallbackHandler(null, PIN)
+		);
+		single.setKeepSecureChannelOpen(true);
+		final PrivateKeyReference singleKey = single.getPrivateKey(Dnie.CERT_ALIAS_SIGN);
+		final long singleStart = singleConn.getTransmittedApduCount();
+		for (final byte[] data : batch) {
+			single.sign(data, "SHA256withRSA", singleKey); //$NON-NLS-1$
+		}
+		Assert.assertTrue(batchApdus < singleConn.getTransmittedApduCount() - singleStart);
+	}
+
+	/** Comprueba que la firma en flujo notifica, en orden, un resultado v&aacute;lido por documento
+	 * aunque el &uacute;ltimo lote quede incompleto.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testSignatureStream() throws Exception {
+		final LoopbackConnection conn = new LoopbackConnection(new DnieCardSimulator(PIN, new BcCryptoHelper()));
+		final KeyStore ks = KeyStore.getInstance("DNI", new DnieProvider(conn)); //$NON-NLS-1$
+		ks.load(null, PIN.toCharArray());
+		final X509Certificate cert = (X509Certificate) ks.getCertificate(Dnie.CERT_ALIAS_SIGN);
+
+		final List<SignatureResult> results = new ArrayList<>();
+		final DnieSignatureStream stream = new DnieSignatureStream(
+			(PrivateKey) ks.getKey(Dnie.CERT_ALIAS_SIGN, PIN.toCharArray()),
+			"SHA256withRSA", //$NON-NLS-1$
+			2,
+			new DnieSignatureStream.ResultHandler() {
+				@Override
+				public void handle(final long index, final SignatureResult result) {
+					Assert.assertEquals(results.size(), index);
+					results.add(result);
+				}
+			}
+		);
+		for (int i = 0; i < 5; i++) {
+			stream.update(document(i));
+		}
+		Assert.assertEquals(4, results.size());
+		stream.flush();
+		Assert.assertEquals(5, stream.getProcessedCount());
+		for (int i = 0; i < results.size(); i++) {
+			Assert.assertTrue(verify(cert, document(i), results.get(i).getSignature()));
+		}
+	}
+
+	/** Crea un manejador de <i>callbacks</i> que anota el n&uacute;mero de firmas de cada
+	 * petici&oacute;n de autorizaci&oacute;n y las autoriza o las deniega.
+	 * @param counts Lista en la que se anota el n&uacute;mero de firmas de cada petici&oacute;n.
+	 * @param authorize Si se autorizan las firmas.
+	 * @return Manejador de <i>callbacks</i>. */
+	private static CallbackHandler authorizationRecorder(final List<Integer> counts, final boolean authorize) {
+		final CallbackHandler delegate = new TestingDnieCallbackHandler(null, PIN);
+		return new CallbackHandler() {
+			@Override
+			public void handle(final Callback[] callbacks) throws IOException, UnsupportedCallbackException {
+				for (final Callback cb : callbacks) {
+					if (cb instanceof CustomAuthorizeCallback) {
+						counts.add(Integer.valueOf(((CustomAuthorizeCallback) cb).getSignatureCount()));
+						((CustomAuthorizeCallback) cb).setAuthorized(authorize);
+					}
+					else {
+						delegate.handle(new Callback[] { cb });
+					}
+				}
+			}
+		};
+	}
+
+	/** Comprueba que la autorizaci&oacute;n &uacute;nica de un lote indica el n&uacute;mero de
+	 * firmas que cubre, y que la de una firma suelta indica una.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testSignBatchAuthorization() throws Exception {
+		final List<Integer> counts = new ArrayList<>();
+		final Dnie dnie = DnieFactory.getDnie(
+			new LoopbackConnection(new DnieCardSimulator(PIN, new BcCryptoHelper())),
+			null,
+			new BcCryptoHelper(),
+			authorizationRecorder(counts, true)
+		);
+		final PrivateKeyReference key = dnie.getPrivateKey(Dnie.CERT_ALIAS_SIGN);
+		final List<byte[]> batch = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			batch.add(document(i));
+		}
+		for (final SignatureResult result : dnie.signBatch(batch, "SHA256withRSA", key)) { //$NON-NLS-1$
+			Assert.assertTrue(result.toString(), result.isOk());
+		}
+		dnie.sign(DATA, "SHA256withRSA", key); //$NON-NLS-1$
+		Assert.assertEquals(2, counts.size());
+		Assert.assertEquals(Integer.valueOf(3), counts.get(0));
+		Assert.assertEquals(Integer.valueOf(1), counts.get(1));
+
+		// Si se deniega la autorizacion del lote no se firma ninguno de sus elementos
+		final List<Integer> denied = new ArrayList<>();
+		dnie.setCallbackHandler(authorizationRecorder(denied, false));
+		try {
+			dnie.signBatch(batch, "SHA256withRSA", key); //$NON-NLS-1$
+			Assert.fail("Deberia haberse cancelado la firma del lote"); //$NON-NLS-1$
+		}
+		catch (final CancelledOperationException e) {
+			// Correcto
+		}
+		Assert.assertEquals(Integer.valueOf(3), denied.get(0));
+	}
+
+	/** Comprueba que si falla la firma de un lote del flujo se notifica como fallido cada uno
+	 * de sus documentos antes de propagar el error, y que no quedan documentos pendientes.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testSignatureStreamFailure() throws Exception {
+		final LoopbackConnection conn = new LoopbackConnection(new DnieCardSimulator(PIN, new BcCryptoHelper()));
+		final KeyStore ks = KeyStore.getInstance("DNI", new DnieProvider(conn)); //$NON-NLS-1$
+		ks.load(null, PIN.toCharArray());
+		final List<Integer> counts = new ArrayList<>();
+		final PrivateKey key = ((KeyStore.PrivateKeyEntry) ks.getEntry(
+			Dnie.CERT_ALIAS_SIGN,
+			new KeyStore.CallbackHandlerProtection(authorizationRecorder(counts, false))
+		)).getPrivateKey();
+
+		final List<SignatureResult> results = new ArrayList<>();
+		final DnieSignatureStream stream = new DnieSignatureStream(
+			key,
+			"SHA256withRSA", //$NON-NLS-1$
+			3,
+			new DnieSignatureStream.ResultHandler() {
+				@Override
+				public void handle(final long index, final SignatureResult result) {
+					Assert.assertEquals(results.size(), index);
+					results.add(result);
+				}
+			}
+		);
+		stream.update(document(0));
+		stream.update(document(1));
+		try {
+			stream.update(document(2));
+			Assert.fail("Deberia haberse cancelado la firma del lote"); //$NON-NLS-1$
+		}
+		catch (final CancelledOperationException e) {
+			// Correcto
+		}
+		Assert.assertEquals(3, results.size());
+		for (final SignatureResult result : results) {
+			Assert.assertFalse(result.isOk());
+			Assert.assertTrue(result.getError().getCause() instanceof CancelledOperationException);
+		}
+		Assert.assertEquals(3, stream.getProcessedCount());
+
+		// No quedan documentos pendientes del lote fallido
+		stream.flush();
+		Assert.assertEquals(3, stream.getProcessedCount());
+		Assert.assertEquals(Integer.valueOf(3), counts.get(0));
+	}
+
+	/** Comprueba que con <code>NONEwithRSA</code> (y su alias <code>RSASSA-PKCS1-v1_5</code>) se
+	 * firma un <i>DigestInfo</i> ya construido, con el mismo resultado que firmando los datos,
+	 * y que se rechazan los datos que no son un <i>DigestInfo</i>.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testPrehashedSignature() throws Exception {
+		final LoopbackConnection conn = new LoopbackConnection(new DnieCardSimulator(PIN, new BcCryptoHelper()));
+		final Provider p = new DnieProvider(conn);
+		final KeyStore ks = KeyStore.getInstance("DNI", p); //$NON-NLS-1$
+		ks.load(null, PIN.toCharArray());
+		final PrivateKey key = (PrivateKey) ks.getKey(Dnie.CERT_ALIAS_SIGN, PIN.toCharArray());
+		final X509Certificate cert = (X509Certificate) ks.getCertificate(Dnie.CERT_ALIAS_SIGN);
+
+		final byte[] digestInfo = DigestInfo.encodeDigest(
+			"SHA256withRSA", //$NON-NLS-1$
+			MessageDigest.getInstance("SHA-256").digest(DATA) //$NON-NLS-1$
+		);
+		for (final String algorithm : new String[] { "NONEwithRSA", "RSASSA-PKCS1-v1_5" }) { //$NON-NLS-1$ //$NON-NLS-2$
+			final Signature signature = Signature.getInstance(algorithm, p);
+			signature.initSign(key);
+			signature.update(digestInfo);
+			Assert.assertTrue(algorithm, verify(cert, DATA, signature.sign()));
+		}
+
+		final Signature signature = Signature.getInstance("NONEwithRSA", p); //$NON-NLS-1$
+		signature.initSign(key);
+		signature.update(DATA);
+		try {
+			signature.sign();
+			Assert.fail("Tendria que haberse rechazado la firma de datos que no son un DigestInfo"); //$NON-NLS-1$
+		}
+		catch (final SignatureException e) {
+			System.out.println("Fallo esperado: " + e); //$NON-NLS-1$
+		}
+	}
+
+	/** Comprueba que la firma de una huella ya calculada da el mismo resultado que la de los
+	 * datos, y que las tarjetas que no la implementan la rechazan en vez de firmar otra cosa.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testSignDigest() throws Exception {
+		final Dnie dnie = DnieFactory.getDnie(
+			new LoopbackConnection(new DnieCardSimulator(PIN, new BcCryptoHelper())),
+			null,
+			new BcCryptoHelper(),
+			new TestingDnieCallbackHandler(null, PIN)
+		);
+		final PrivateKeyReference key = dnie.getPrivateKey(Dnie.CERT_ALIAS_SIGN);
+		Assert.assertArrayEquals(
+			dnie.sign(DATA, "SHA256withRSA", key), //$NON-NLS-1$
+			dnie.signDigest(MessageDigest.getInstance("SHA-256").digest(DATA), "SHA256withRSA", key) //$NON-NLS-1$ //$NON-NLS-2$
+		);
+
+		final CryptoCard card = new CryptoCard() {
+			@Override
+			public String[] getAliases() {
+				return new String[0];
+			}
+			@Override
+			public X509Certificate getCertificate(final String alias) {
+				return null;
+			}
+			@Override
+			public PrivateKeyReference getPrivateKey(final String alias) {
+				return null;
+			}
+			@Override
+			public byte[] sign(final byte[] data, final String algorithm, final PrivateKeyReference keyRef) {
+				throw new AssertionError("No se deberia firmar el DigestInfo como si fueran los datos"); //$NON-NLS-1$
+			}
+		};
+		try {
+			card.signDigest(new byte[32], "SHA256withRSA", key); //$NON-NLS-1$
+			Assert.fail("Tendria que haberse rechazado la firma de la huella"); //$NON-NLS-1$
+		}
+		catch (final UnsupportedOperationException e) {
+			// Correcto
+		}
+	}
+
+	/** Comprueba que la lectura as&iacute;ncrona de un fichero sobre el canal seguro abierto
+	 * sobre un adaptador as&iacute;ncrono obtiene lo mismo que la lectura s&iacute;ncrona.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testAsyncRead() throws Exception {
+		final LoopbackConnection conn = new LoopbackConnection(new DnieCardSimulator(PIN, new BcCryptoHelper()));
+		final Dnie dnie = DnieFactory.getDnie(
+			new AsyncApduConnectionAdapter(conn),
+			null,
+			new BcCryptoHelper(),
+			new TestingDnieCallbackHandler(null, PIN)
+		);
+		dnie.setKeepSecureChannelOpen(true);
+		dnie.sign(DATA, "SHA256withRSA", dnie.getPrivateKey(Dnie.CERT_ALIAS_SIGN)); //$NON-NLS-1$
+		Assert.assertEquals(SecureChannelType.CWA14890_V1, dnie.getSecureChannelType());
+
+		final Location location = new Location("60817005"); //$NON-NLS-1$
+		final int len = dnie.selectFileByLocation(location);
+		final byte[] expected = dnie.readBinaryComplete(len);
+		Assert.assertEquals(len, expected.length);
+
+		dnie.selectFileByLocation(location);
+		final long before = conn.getTransmittedApduCount();
+		final byte[] read = dnie.readBinaryCompleteAsync(len).get();
+		Assert.assertArrayEquals(expected, read);
+		Assert.assertTrue(conn.getTransmittedApduCount() > before);
+	}
+
+	/** Comprueba que la lectura as&iacute;ncrona espera a que se libere el cerrojo de la
+	 * tarjeta, de forma que no se intercala con las operaciones de otros hilos.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testAsyncReadHonoursCardLock() throws Exception {
+		final LoopbackConnection conn = new LoopbackConnection(new DnieCardSimulator(PIN, new BcCryptoHelper()));
+		final Dnie dnie = DnieFactory.getDnie(
+			new AsyncApduConnectionAdapter(conn),
+			null,
+			new BcCryptoHelper(),
+			new TestingDnieCallbackHandler(null, PIN)
+		);
+		dnie.setKeepSecureChannelOpen(true);
+		dnie.sign(DATA, "SHA256withRSA", dnie.getPrivateKey(Dnie.CERT_ALIAS_SIGN)); //$NON-NLS-1$
+
+		final Location location = new Location("60817005"); //$NON-NLS-1$
+		final int len = dnie.selectFileByLocation(location);
+		final byte[] expected = dnie.readBinaryComplete(len);
+
+		final CompletableFuture<byte[]> read;
+		dnie.getCardLock().lock();
+		try {
+			dnie.selectFileByLocation(location);
+			read = dnie.readBinaryCompleteAsync(len);
+			Thread.sleep(200);
+			Assert.assertFalse(read.isDone());
+		}
+		finally {
+			dnie.getCardLock().unlock();
+		}
+		Assert.assertArrayEquals(expected, read.get());
+	}
+
+	/** Comprueba que la huella de un fichero calculada seg&uacute;n se leen sus bloques
+	 * coincide con la calculada sobre el fichero completo.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testStreamingReadDigest() throws Exception {
+		final BcCryptoHelper cryptoHelper = new BcCryptoHelper();
+		final Dnie dnie = DnieFactory.getDnie(
+			new LoopbackConnection(new DnieCardSimulator(PIN, cryptoHelper)),
+			null,
+			cryptoHelper,
+			new TestingDnieCallbackHandler(null, PIN)
+		);
+		final Location location = new Location("60817005"); //$NON-NLS-1$
+		final byte[] expected = dnie.selectFileByLocationAndRead(location);
+
+		final CryptoHelper.IncrementalDigest digest = cryptoHelper.getIncrementalDigest(DigestAlgorithm.SHA256);
+		final int readed = dnie.selectFileByLocationAndRead(
+			location,
+			new OutputStream() {
+				@Override
+				public void write(final int b) {
+					digest.update(new byte[] { (byte) b }, 0, 1);
+				}
+
+				@Override
+				public void write(final byte[] b, final int off, final int len) {
+					digest.update(b, off, len);
+				}
+			}
+		);
+		Assert.assertEquals(expected.length, readed);
+		Assert.assertArrayEquals(cryptoHelper.digest(DigestAlgorithm.SHA256, expected), digest.digest());
+	}
+
+	/** Comprueba que los DG precargados seg&uacute;n el EF&#46;COM se obtienen despu&eacute;s
+	 * sin enviar APDU, y que los DG que el EF&#46;COM no incluye no se intentan seleccionar.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testLdsSessionPrefetch() throws Exception {
+		final byte[] dg11 = { (byte) 0x6B, (byte) 0x03, (byte) 0x01, (byte) 0x02, (byte) 0x03 };
+		final byte[] dg14 = { (byte) 0x6E, (byte) 0x03, (byte) 0x04, (byte) 0x05, (byte) 0x06 };
+		final DnieCardSimulator card = new DnieCardSimulator(PIN, new BcCryptoHelper());
+		// EF.COM con LDS 1.7, Unicode 4.0.0 y solo los DG11 y DG14
+		card.putFile("3F01011E", new byte[] { //$NON-NLS-1$
+			(byte) 0x60, (byte) 0x14,
+			(byte) 0x5F, (byte) 0x01, (byte) 0x04, (byte) 0x30, (byte) 0x31, (byte) 0x30, (byte) 0x37,
+			(byte) 0x5F, (byte) 0x36, (byte) 0x06, (byte) 0x30, (byte) 0x34, (byte) 0x30, (byte) 0x30, (byte) 0x30, (byte) 0x30,
+			(byte) 0x5C, (byte) 0x02, (byte) 0x6B, (byte) 0x6E
+		});
+		card.putFile("3F01010B", dg11); //$NON-NLS-1$
+		card.putFile("3F01010E", dg14); //$NON-NLS-1$
+		// El DG12 existe en la tarjeta, pero el EF.COM no lo incluye
+		card.putFile("3F01010C", new byte[] { (byte) 0x6C, (byte) 0x01, (byte) 0x00 }); //$NON-NLS-1$
+
+		final LoopbackConnection conn = new LoopbackConnection(card);
+		final IcaoMrtdWithBac mrtd = new IcaoMrtdWithBac(conn, new BcCryptoHelper());
+		mrtd.prefetchDataGroups(14, 11, 12);
+
+		final long afterPrefetch = conn.getTransmittedApduCount();
+		Assert.assertArrayEquals(dg11, mrtd.getDg11());
+		Assert.assertArrayEquals(dg14, mrtd.getDg14());
+		Assert.assertTrue(mrtd.getCom().isDgPresent(14));
+		try {
+			mrtd.getDg12();
+			Assert.fail("Se ha leido un DG que no consta en el EF.COM"); //$NON-NLS-1$
+		}
+		catch (final FileNotFoundException e) {
+			// Esperado
+		}
+		Assert.assertEquals(afterPrefetch, conn.getTransmittedApduCount());
+
+		// Tras extraer la tarjeta la sesion se descarta y los DG se vuelven a leer
+		mrtd.invalidateCardState();
+		Assert.assertArrayEquals(dg11, mrtd.getDg11());
+		Assert.assertTrue(conn.getTransmittedApduCount() > afterPrefetch);
+	}
+}
@@ -0,0 +1,148 @@
+package test.es.gob.jmulticard;
+
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import es.gob.jmulticard.BcCryptoHelper;
+import es.gob.jmulticard.apdu.iso7816four.pace.MseSetPaceAlgorithmApduCommand.PaceAlgorithmOid;
+import es.gob.jmulticard.card.BadPinException;
+import es.gob.jmulticard.card.PrivateKeyReference;
+import es.gob.jmulticard.card.dnie.Dnie;
+import es.gob.jmulticard.card.dnie.Dnie3;
+import es.gob.jmulticard.card.dnie.DnieCardSimulator;
+import es.gob.jmulticard.card.dnie.DnieFactory;
+import es.gob.jmulticard.card.dnie.DnieNfc;
+import es.gob.jmulticard.card.dnie.SecureChannelType;
+import es.gob.jmulticard.card.icao.InvalidCanOrMrzException;
+import es.gob.jmulticard.connection.ApduConnectionException;
+import es.gob.jmulticard.connection.loopback.LoopbackConnection;
+
+/** Pruebas del DNIe 3&#46;0 simulado sobre una conexi&oacute;n <i>loopback</i>, por contacto
+ * (canales CWA-14890 de PIN y de usuario) y por NFC (con PACE por debajo), que recorren el
+ * controlador completo sin lector ni tarjeta.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestLoopbackDnie3 {
+
+	private static final String PIN = "password"; //$NON-NLS-1$
+
+	private static final String CAN = "123456"; //$NON-NLS-1$
+
+	private static final byte[] DATA = "Hola Mundo!!".getBytes(); //$NON-NLS-1$
+
+	/** Firma varias veces con un DNIe 3&#46;0 por contacto, manteniendo el canal abierto y
+	 * rehaci&eacute;ndolo en cada firma.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testContactSigning() throws Exception {
+		for (final boolean keepOpen : new boolean[] { false, true }) {
+			final Dnie dnie = DnieFactory.getDnie(
+				new LoopbackConnection(new DnieCardSimulator(PIN, new BcCryptoHelper(), true)),
+				null,
+				new BcCryptoHelper(),
+				new TestingDnieCallbackHandler(null, PIN)
+			);
+			Assert.assertTrue(dnie instanceof Dnie3);
+			Assert.assertFalse(dnie instanceof DnieNfc);
+			dnie.setKeepSecureChannelOpen(keepOpen);
+			signAndVerify(dnie, 3);
+			Assert.assertEquals(
+				keepOpen ? SecureChannelType.CWA14890_V2 : SecureChannelType.NONE,
+				dnie.getSecureChannelType()
+			);
+		}
+	}
+
+	/** Comprueba que el DNIe 3&#46;0 simulado rechaza un PIN incorrecto en el canal de PIN.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testContactWrongPin() throws Exception {
+		final Dnie dnie = DnieFactory.getDnie(
+			new LoopbackConnection(new DnieCardSimulator(PIN, new BcCryptoHelper(), true)),
+			null,
+			new BcCryptoHelper(),
+			new TestingDnieCallbackHandler(null, "incorrecto") //$NON-NLS-1$
+		);
+		try {
+			dnie.sign(DATA, "SHA256withRSA", dnie.getPrivateKey(Dnie.CERT_ALIAS_SIGN)); //$NON-NLS-1$
+			Assert.fail("La firma con PIN incorrecto deberia fallar"); //$NON-NLS-1$
+		}
+		catch (final BadPinException e) {
+			// Esperado
+		}
+	}
+
+	/** Firma varias veces con un DNIe 3&#46;0 por NFC con cada correspondencia PACE. Tras
+	 * cada firma se cierra el canal seguro, y la siguiente establece un nuevo canal PACE.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testNfcSigning() throws Exception {
+		for (final PaceAlgorithmOid alg : new PaceAlgorithmOid[] {
+			PaceAlgorithmOid.PACE_ECDH_GM_AES_CBC_CMAC_128,
+			PaceAlgorithmOid.PACE_ECDH_IM_AES_CBC_CMAC_128,
+			PaceAlgorithmOid.PACE_ECDH_CAM_AES_CBC_CMAC_128
+		}) {
+			final PaceCardSimulator card = new PaceCardSimulator(
+				CAN,
+				new DnieCardSimulator(PIN, new BcCryptoHelper(), true),
+				alg
+			);
+			final Dnie dnie = DnieFactory.getDnie(
+				new LoopbackConnection(card),
+				null,
+				new BcCryptoHelper(),
+				new TestingDnieCallbackHandler(CAN, PIN)
+			);
+			Assert.assertTrue(dnie instanceof DnieNfc);
+			Assert.assertEquals(
+				alg.toString(),
+				alg == PaceAlgorithmOid.PACE_ECDH_CAM_AES_CBC_CMAC_128,
+				((DnieNfc) dnie).isChipAuthenticationMappingUsed()
+			);
+			signAndVerify(dnie, 3);
+			Assert.assertEquals(3, card.getEstablishedChannelCount());
+		}
+	}
+
+	/** Comprueba que con un CAN incorrecto no se llega a abrir el canal PACE.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testNfcWrongCan() throws Exception {
+		final PaceCardSimulator card = new PaceCardSimulator(
+			CAN,
+			new DnieCardSimulator(PIN, new BcCryptoHelper(), true),
+			PaceAlgorithmOid.PACE_ECDH_GM_AES_CBC_CMAC_128
+		);
+		try {
+			DnieFactory.getDnie(
+				new LoopbackConnection(card),
+				null,
+				new BcCryptoHelper(),
+				new TestingDnieCallbackHandler("654321", PIN) //$NON-NLS-1$
+			);
+			Assert.fail("Se ha abierto el canal PACE con un CAN incorrecto"); //$NON-NLS-1$
+		}
+		catch (final ApduConnectionException e) {
+			Assert.assertTrue(e.getCause() instanceof InvalidCanOrMrzException);
+		}
+		Assert.assertEquals(0, card.getOpenSessionCount());
+	}
+
+	private static void signAndVerify(final Dnie dnie, final int count) throws Exception {
+		final PrivateKeyReference key = dnie.getPrivateKey(Dnie.CERT_ALIAS_SIGN);
+		final X509Certificate cert = dnie.getCertificate(Dnie.CERT_ALIAS_SIGN);
+		for (int i = 0; i < count; i++) {
+			final byte[] sign = dnie.sign(DATA, "SHA256withRSA", key); //$NON-NLS-1$
+			final Signature verifier = Signature.getInstance("SHA256withRSA"); //$NON-NLS-1$
+			verifier.initVerify(cert);
+			verifier.update(DATA);
+			Assert.assertTrue("La firma " + (i + 1) + " no es valida", verifier.verify(sign)); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+}
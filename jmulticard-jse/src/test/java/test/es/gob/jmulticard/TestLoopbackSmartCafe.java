@@ -0,0 +1,70 @@
+package test.es.gob.jmulticard;
+
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import es.gob.jmulticard.BcCryptoHelper;
+import es.gob.jmulticard.card.BadPinException;
+import es.gob.jmulticard.card.PrivateKeyReference;
+import es.gob.jmulticard.card.gide.smartcafe.SmartCafeCardSimulator;
+import es.gob.jmulticard.card.gide.smartcafe.SmartCafePkcs15Applet;
+import es.gob.jmulticard.connection.loopback.LoopbackConnection;
+
+/** Pruebas de la tarjeta G&amp;D SmartCafe con Applet PKCS#15 simulada sobre una
+ * conexi&oacute;n <i>loopback</i>, que recorren el controlador completo (ODF, CDF y PrKDF,
+ * asociaci&oacute;n de claves por m&oacute;dulo, PIN y firma) sin lector ni tarjeta.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestLoopbackSmartCafe {
+
+	private static final String PIN = "password"; //$NON-NLS-1$
+
+	private static final byte[] DATA = "Hola Mundo!!".getBytes(); //$NON-NLS-1$
+
+	/** Firma varias veces con cada clave de la SmartCafe simulada y comprueba las firmas
+	 * con los certificados.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testSigning() throws Exception {
+		final LoopbackConnection conn = new LoopbackConnection(new SmartCafeCardSimulator(PIN));
+		final SmartCafePkcs15Applet card = new SmartCafePkcs15Applet(conn, new BcCryptoHelper());
+		card.setCallbackHandler(new TestingDnieCallbackHandler(null, PIN));
+		Assert.assertEquals(2, card.getAliases().length);
+		for (final String alias : new String[] { SmartCafeCardSimulator.CERT_ALIAS_AUTH, SmartCafeCardSimulator.CERT_ALIAS_SIGN }) {
+			final X509Certificate cert = card.getCertificate(alias);
+			final PrivateKeyReference key = card.getPrivateKey(alias);
+			Assert.assertNotNull(key);
+			for (int i = 0; i < 2; i++) {
+				final byte[] sign = card.sign(DATA, "SHA256withRSA", key); //$NON-NLS-1$
+				final Signature verifier = Signature.getInstance("SHA256withRSA"); //$NON-NLS-1$
+				verifier.initVerify(cert);
+				verifier.update(DATA);
+				Assert.assertTrue("La firma " + (i + 1) + " con '" + alias + "' no es valida", verifier.verify(sign)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			}
+		}
+		Assert.assertTrue(conn.getTransmittedApduCount() > 0);
+	}
+
+	/** Comprueba que la SmartCafe simulada rechaza un PIN incorrecto indicando los intentos
+	 * restantes.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testWrongPin() throws Exception {
+		final SmartCafePkcs15Applet card = new SmartCafePkcs15Applet(
+			new LoopbackConnection(new SmartCafeCardSimulator(PIN)),
+			new BcCryptoHelper()
+		);
+		card.setCallbackHandler(new TestingDnieCallbackHandler(null, "incorrecto")); //$NON-NLS-1$
+		try {
+			card.sign(DATA, "SHA256withRSA", card.getPrivateKey(SmartCafeCardSimulator.CERT_ALIAS_SIGN)); //$NON-NLS-1$
+			Assert.fail("La firma con PIN incorrecto deberia fallar"); //$NON-NLS-1$
+		}
+		catch (final BadPinException e) {
+			Assert.assertEquals(2, e.getRemainingRetries());
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package test.es.gob.jmulticard;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.SignatureException;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.spongycastle.asn1.ASN1Encoding;
+import org.spongycastle.asn1.DEROctetString;
+import org.spongycastle.asn1.icao.DataGroupHash;
+import org.spongycastle.asn1.icao.ICAOObjectIdentifiers;
+import org.spongycastle.asn1.icao.LDSSecurityObject;
+import org.spongycastle.asn1.nist.NISTObjectIdentifiers;
+import org.spongycastle.asn1.x500.X500Name;
+import org.spongycastle.asn1.x509.AlgorithmIdentifier;
+import org.spongycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.spongycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.spongycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.spongycastle.cms.CMSProcessableByteArray;
+import org.spongycastle.cms.CMSSignedDataGenerator;
+import org.spongycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
+import org.spongycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.spongycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+
+import es.gob.jmulticard.BcCryptoHelper;
+import es.gob.jmulticard.asn1.Tlv;
+import es.gob.jmulticard.card.dnie.DnieCardSimulator;
+import es.gob.jmulticard.card.icao.InvalidSecurityObjectException;
+import es.gob.jmulticard.card.icao.LdsSession;
+import es.gob.jmulticard.card.icao.bac.IcaoMrtdWithBac;
+import es.gob.jmulticard.connection.loopback.LoopbackConnection;
+
+/** Pruebas de la comprobaci&oacute;n de los objetos de seguridad (SOD y huellas de los DG)
+ * de un documento simulado sobre una conexi&oacute;n <i>loopback</i>.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestLoopbackSod {
+
+	private static final String PIN = "password"; //$NON-NLS-1$
+
+	private static final byte[] DG1 = { (byte) 0x61, (byte) 0x03, (byte) 0x5F, (byte) 0x1F, (byte) 0x00 };
+	private static final byte[] DG11 = { (byte) 0x6B, (byte) 0x03, (byte) 0x01, (byte) 0x02, (byte) 0x03 };
+	private static final byte[] DG14 = { (byte) 0x6E, (byte) 0x03, (byte) 0x04, (byte) 0x05, (byte) 0x06 };
+
+	/** Comprueba que un SOD correcto se valida (la firma en paralelo con la lectura de los DG)
+	 * y se obtiene el certificado del firmante.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testValidSod() throws Exception {
+		final KeyPair signerKeys = generateKeyPair();
+		final X509Certificate signerCert = generateCertificate(signerKeys);
+		final IcaoMrtdWithBac mrtd = createDocument(
+			buildSod(
+				signerCert,
+				signerKeys.getPrivate(),
+				new DataGroupHash(1, new DEROctetString(digest(DG1))),
+				new DataGroupHash(11, new DEROctetString(digest(DG11))),
+				new DataGroupHash(14, new DEROctetString(digest(DG14)))
+			)
+		);
+		final X509Certificate[] chain = mrtd.checkSecurityObjects();
+		Assert.assertEquals(1, chain.length);
+		Assert.assertEquals(signerCert, chain[0]);
+	}
+
+	/** Comprueba que un DG que no concuerda con su huella del SOD se detecta y detiene la
+	 * comprobaci&oacute;n: el DG12 que le sigue en el SOD no existe en la tarjeta y, si se
+	 * llegase a leer, el error ser&iacute;a otro.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testBadDataGroupHash() throws Exception {
+		final KeyPair signerKeys = generateKeyPair();
+		final byte[] wrongHash = digest(DG1);
+		wrongHash[0] ^= 0x01;
+		final IcaoMrtdWithBac mrtd = createDocument(
+			buildSod(
+				generateCertificate(signerKeys),
+				signerKeys.getPrivate(),
+				new DataGroupHash(11, new DEROctetString(digest(DG11))),
+				new DataGroupHash(1, new DEROctetString(wrongHash)),
+				new DataGroupHash(12, new DEROctetString(digest(DG11)))
+			)
+		);
+		try {
+			mrtd.checkSecurityObjects();
+			Assert.fail("Se ha validado un SOD cuya huella del DG1 no concuerda"); //$NON-NLS-1$
+		}
+		catch (final InvalidSecurityObjectException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("El DG1 ")); //$NON-NLS-1$
+		}
+	}
+
+	/** Comprueba que si la firma del SOD no es v&aacute;lida se propaga su error, aunque
+	 * todas las huellas de los DG concuerden.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testBadSignature() throws Exception {
+		final KeyPair signerKeys = generateKeyPair();
+		// Se firma con una clave distinta de la del certificado incluido en el SOD
+		final IcaoMrtdWithBac mrtd = createDocument(
+			buildSod(
+				generateCertificate(signerKeys),
+				generateKeyPair().getPrivate(),
+				new DataGroupHash(1, new DEROctetString(digest(DG1))),
+				new DataGroupHash(11, new DEROctetString(digest(DG11))),
+				new DataGroupHash(14, new DEROctetString(digest(DG14)))
+			)
+		);
+		try {
+			mrtd.checkSecurityObjects();
+			Assert.fail("Se ha validado un SOD con una firma incorrecta"); //$NON-NLS-1$
+		}
+		catch (final SignatureException e) {
+			// Correcto
+		}
+	}
+
+	/** Comprueba que al validar el SOD solo se guardan en la sesi&oacute;n LDS los DG que
+	 * se pidieron precargar, y que estos no se vuelven a leer.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testOnlyPrefetchedDataGroupsAreCached() throws Exception {
+		final KeyPair signerKeys = generateKeyPair();
+		final DnieCardSimulator card = createCard(
+			buildSod(
+				generateCertificate(signerKeys),
+				signerKeys.getPrivate(),
+				new DataGroupHash(1, new DEROctetString(digest(DG1))),
+				new DataGroupHash(11, new DEROctetString(digest(DG11))),
+				new DataGroupHash(14, new DEROctetString(digest(DG14)))
+			)
+		);
+		final LoopbackConnection conn = new LoopbackConnection(card);
+		final IcaoMrtdWithBac mrtd = new IcaoMrtdWithBac(conn, new BcCryptoHelper());
+		mrtd.prefetchDataGroups(11);
+		mrtd.checkSecurityObjects();
+
+		final LdsSession session = mrtd.getLdsSession();
+		Assert.assertTrue(session.isDataGroupCached(11));
+		Assert.assertFalse(session.isDataGroupCached(1));
+		Assert.assertFalse(session.isDataGroupCached(14));
+
+		final long apdus = conn.getTransmittedApduCount();
+		Assert.assertArrayEquals(DG11, mrtd.getDg11());
+		Assert.assertEquals(apdus, conn.getTransmittedApduCount());
+	}
+
+	/** Comprueba que si el EF&#46;COM no se puede analizar se usa una sesi&oacute;n LDS sin
+	 * &eacute;l, en la que se intentan leer todos los DG.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testMalformedCom() throws Exception {
+		final KeyPair signerKeys = generateKeyPair();
+		final DnieCardSimulator card = createCard(
+			buildSod(
+				generateCertificate(signerKeys),
+				signerKeys.getPrivate(),
+				new DataGroupHash(1, new DEROctetString(digest(DG1))),
+				new DataGroupHash(14, new DEROctetString(digest(DG14)))
+			)
+		);
+		card.putFile("3F01011E", new byte[] { (byte) 0x60, (byte) 0x02, (byte) 0xFF }); //$NON-NLS-1$
+		final IcaoMrtdWithBac mrtd = new IcaoMrtdWithBac(new LoopbackConnection(card), new BcCryptoHelper());
+
+		final LdsSession session = mrtd.getLdsSession();
+		Assert.assertNull(session.getCom());
+		Assert.assertTrue(session.isDataGroupPresent(14));
+		Assert.assertEquals(1, mrtd.checkSecurityObjects().length);
+
+		// El error de lectura se propaga tal cual, no como si el EF.COM no existiese
+		try {
+			mrtd.getCom();
+			Assert.fail("Se ha obtenido un EF.COM mal formado"); //$NON-NLS-1$
+		}
+		catch (final FileNotFoundException e) {
+			Assert.fail("Un EF.COM mal formado se ha tratado como inexistente: " + e); //$NON-NLS-1$
+		}
+		catch (final IOException e) {
+			// Esperado
+		}
+
+		// La sesion sin EF.COM no se guarda, por lo que se vuelve a intentar leer
+		card.putFile("3F01011E", new byte[] { //$NON-NLS-1$
+			(byte) 0x60, (byte) 0x14,
+			(byte) 0x5F, (byte) 0x01, (byte) 0x04, (byte) 0x30, (byte) 0x31, (byte) 0x30, (byte) 0x37,
+			(byte) 0x5F, (byte) 0x36, (byte) 0x06, (byte) 0x30, (byte) 0x34, (byte) 0x30, (byte) 0x30, (byte) 0x30, (byte) 0x30,
+			(byte) 0x5C, (byte) 0x02, (byte) 0x61, (byte) 0x6E
+		});
+		// Se selecciona otro fichero para que el EF.COM se vuelva a seleccionar con su nuevo tamano
+		Assert.assertArrayEquals(DG14, mrtd.getDg14());
+		Assert.assertTrue(mrtd.getLdsSession().getCom().isDgPresent(14));
+	}
+
+	private static IcaoMrtdWithBac createDocument(final byte[] sod) throws Exception {
+		return new IcaoMrtdWithBac(new LoopbackConnection(createCard(sod)), new BcCryptoHelper());
+	}
+
+	private static DnieCardSimulator createCard(final byte[] sod) throws Exception {
+		final DnieCardSimulator card = new DnieCardSimulator(PIN, new BcCryptoHelper());
+		card.putFile("3F010101", DG1); //$NON-NLS-1$
+		card.putFile("3F01010B", DG11); //$NON-NLS-1$
+		card.putFile("3F01010E", DG14); //$NON-NLS-1$
+		card.putFile("3F01011D", sod); //$NON-NLS-1$
+		return card;
+	}
+
+	private static byte[] digest(final byte[] data) throws Exception {
+		return MessageDigest.getInstance("SHA-256").digest(data); //$NON-NLS-1$
+	}
+
+	private static KeyPair generateKeyPair() throws Exception {
+		final KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA"); //$NON-NLS-1$
+		kpg.initialize(2048);
+		return kpg.generateKeyPair();
+	}
+
+	private static X509Certificate generateCertificate(final KeyPair keys) throws Exception {
+		final X500Name name = new X500Name("CN=Firmante de documentos de prueba"); //$NON-NLS-1$
+		final long now = System.currentTimeMillis();
+		return new JcaX509CertificateConverter().getCertificate(
+			new JcaX509v3CertificateBuilder(
+				name,
+				BigInteger.valueOf(now),
+				new Date(now - 24L * 60 * 60 * 1000),
+				new Date(now + 24L * 60 * 60 * 1000),
+				name,
+				keys.getPublic()
+			).build(new JcaContentSignerBuilder("SHA256withRSA").build(keys.getPrivate())) //$NON-NLS-1$
+		);
+	}
+
+	/** Construye un SOD (EF&#46;SOD con su etiqueta <code>77</code>).
+	 * @param cert Certificado del firmante que se incluye en el SOD.
+	 * @param signingKey Clave con la que se firma el SOD.
+	 * @param hashes Huellas de los DG.
+	 * @return SOD.
+	 * @throws Exception En cualquier error. */
+	private static byte[] buildSod(final X509Certificate cert,
+			                       final PrivateKey signingKey,
+			                       final DataGroupHash... hashes) throws Exception {
+		final LDSSecurityObject lso = new LDSSecurityObject(
+			new AlgorithmIdentifier(NISTObjectIdentifiers.id_sha256),
+			hashes
+		);
+		final CMSSignedDataGenerator gen = new CMSSignedDataGenerator();
+		gen.addSignerInfoGenerator(
+			new JcaSignerInfoGeneratorBuilder(new JcaDigestCalculatorProviderBuilder().build()).build(
+				new JcaContentSignerBuilder("SHA256withRSA").build(signingKey), //$NON-NLS-1$
+				cert
+			)
+		);
+		gen.addCertificate(new JcaX509CertificateHolder(cert));
+		return new Tlv(
+			(byte) 0x77,
+			gen.generate(
+				new CMSProcessableByteArray(
+					ICAOObjectIdentifiers.id_icao_ldsSecurityObject,
+					lso.getEncoded(ASN1Encoding.DER)
+				),
+				true
+			).getEncoded()
+		).getBytes();
+	}
+}
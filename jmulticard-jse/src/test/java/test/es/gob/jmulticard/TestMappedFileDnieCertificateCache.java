@@ -0,0 +1,196 @@
+package test.es.gob.jmulticard;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import es.gob.jmulticard.BcCryptoHelper;
+import es.gob.jmulticard.card.CertificateCache;
+import es.gob.jmulticard.card.dnie.Dnie;
+import es.gob.jmulticard.card.dnie.DnieCardSimulator;
+import es.gob.jmulticard.card.dnie.DnieCertificateCacheEntry;
+import es.gob.jmulticard.card.dnie.DnieFactory;
+import es.gob.jmulticard.card.dnie.MappedFileDnieCertificateCache;
+import es.gob.jmulticard.connection.loopback.LoopbackConnection;
+
+/** Pruebas del almac&eacute;n de certificados de DNIe persistente en disco.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestMappedFileDnieCertificateCache {
+
+	private static final String PIN = "password"; //$NON-NLS-1$
+
+	private static final byte[] MAC_KEY = "clave-de-pruebas-del-almacen".getBytes(); //$NON-NLS-1$
+
+	private CertificateCache<DnieCertificateCacheEntry> previousCache;
+
+	private File dir;
+
+	/** Crea el directorio del almac&eacute;n.
+	 * @throws Exception En cualquier error. */
+	@Before
+	public void setUp() throws Exception {
+		previousCache = Dnie.getCertificateCache();
+		dir = Files.createTempDirectory("dniecache").toFile(); //$NON-NLS-1$
+	}
+
+	/** Restaura el almac&eacute;n por defecto y borra el directorio. */
+	@After
+	public void tearDown() {
+		Dnie.setCertificateCache(previousCache);
+		final File[] files = dir.listFiles();
+		if (files != null) {
+			for (final File f : files) {
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private MappedFileDnieCertificateCache newCache(final byte[] key) throws Exception {
+		final MappedFileDnieCertificateCache cache = new MappedFileDnieCertificateCache(dir, key, new BcCryptoHelper());
+		Dnie.setCertificateCache(cache);
+		return cache;
+	}
+
+	private static Dnie openDnie(final LoopbackConnection conn) throws Exception {
+		return DnieFactory.getDnie(
+			conn,
+			null,
+			new BcCryptoHelper(),
+			new TestingDnieCallbackHandler(null, PIN)
+		);
+	}
+
+	/** Obtiene el identificador de la &uacute;nica tarjeta guardada en el almac&eacute;n.
+	 * @return Identificador de la tarjeta. */
+	private String getStoredCardId() {
+		final File[] files = dir.listFiles();
+		Assert.assertNotNull(files);
+		Assert.assertEquals(1, files.length);
+		final String name = files[0].getName();
+		return name.substring(0, name.indexOf('.'));
+	}
+
+	/** Comprueba que una segunda sesi&oacute;n, con otra instancia del almac&eacute;n sobre el
+	 * mismo directorio, obtiene los certificados del disco sin leerlos de la tarjeta.
+	 * @throws Exception En cualquier error. */
+	@Test
+	public void testHit() throws Exception {
+		final LoopbackConnection conn = new LoopbackConnection(new DnieCardSimulator(PIN, new BcCryptoHelper()));
+
+		newCache(MAC_KEY);
+		final X509Certificate signCert = openDnie(conn).getCertificate(Dnie.CERT_ALIAS_SIGN);
+		final long firstSessionApdus = conn.getTransmittedApduCount();
+		final String cardId = getStoredCardId();
+
+		final MappedFileDnieCertificateCache cache = newCache(MAC_KEY);
+		Assert.assertNotNull(cache.get(cardId));
+		final X509Certificate cachedSignCert = openDnie(conn).getCertificate(Dnie.CERT_ALIAS_SIGN);
+		final long secondSessionApdus = conn.getTransmittedApduCount() - firstSessionApdus;
+
+		Assert.assertEquals(signCert, cachedSignCert);
+		Assert.assertTrue(
+			"La segunda sesion deberia enviar menos APDU (" + secondSessionApdus + " frente a " + firstSessionApdus + ")", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			secondSessionApdus < firstSessionApdus
+		);
+	}
+
+	/** Comprueba que se descarta una entrada cuya huella de CDF no es la de la tarjeta.
+	 * @throws Exception En cualquier error. */
+	@Test
+	public void testStaleCdfHash() throws Exception {
+		final LoopbackConnection conn = new LoopbackConnection(new DnieCardSimulator(PIN, new BcCryptoHelper()));
+		final MappedFileDnieCertificateCache cache = newCache(MAC_KEY);
+		final X509Certificate signCert = openDnie(conn).getCertificate(Dnie.CERT_ALIAS_SIGN);
+		final String cardId = getStoredCardId();
+
+		final DnieCertificateCacheEntry entry = cache.get(cardId);
+		final byte[] staleHash = entry.getCdfHash();
+		staleHash[0] ^= 0x01;
+		cache.put(cardId, copyEntry(entry, staleHash, false));
+
+		newCache(MAC_KEY);
+		Assert.assertEquals(signCert, openDnie(conn).getCertificate(Dnie.CERT_ALIAS_SIGN));
+		Assert.assertFalse(newCache(MAC_KEY).get(cardId).matches(staleHash));
+	}
+
+	/** Comprueba que se descarta una entrada con un certificado que no es el que indica
+	 * el CDF de la tarjeta, aunque el fichero est&eacute; bien autenticado.
+	 * @throws Exception En cualquier error. */
+	@Test
+	public void testSwappedCertificate() throws Exception {
+		final LoopbackConnection conn = new LoopbackConnection(new DnieCardSimulator(PIN, new BcCryptoHelper()));
+		final MappedFileDnieCertificateCache cache = newCache(MAC_KEY);
+		final X509Certificate signCert = openDnie(conn).getCertificate(Dnie.CERT_ALIAS_SIGN);
+		final String cardId = getStoredCardId();
+
+		final DnieCertificateCacheEntry entry = cache.get(cardId);
+		cache.put(cardId, copyEntry(entry, entry.getCdfHash(), true));
+
+		newCache(MAC_KEY);
+		Assert.assertEquals(signCert, openDnie(conn).getCertificate(Dnie.CERT_ALIAS_SIGN));
+	}
+
+	/** Comprueba que se descartan los ficheros alterados o autenticados con otra clave.
+	 * @throws Exception En cualquier error. */
+	@Test
+	public void testCorruptFile() throws Exception {
+		final LoopbackConnection conn = new LoopbackConnection(new DnieCardSimulator(PIN, new BcCryptoHelper()));
+		newCache(MAC_KEY);
+		final X509Certificate signCert = openDnie(conn).getCertificate(Dnie.CERT_ALIAS_SIGN);
+		final String cardId = getStoredCardId();
+
+		// Con otra clave el fichero no se acepta y se borra
+		final byte[] otherKey = MAC_KEY.clone();
+		otherKey[0] ^= 0x01;
+		Assert.assertNull(newCache(otherKey).get(cardId));
+		Assert.assertEquals(0, dir.listFiles().length);
+
+		// Se vuelve a guardar y se altera un octeto del contenido
+		newCache(MAC_KEY);
+		Assert.assertEquals(signCert, openDnie(conn).getCertificate(Dnie.CERT_ALIAS_SIGN));
+		final File file = dir.listFiles()[0];
+		final byte[] content = Files.readAllBytes(file.toPath());
+		content[content.length / 2] ^= 0x01;
+		Files.write(file.toPath(), content);
+		Assert.assertNull(newCache(MAC_KEY).get(cardId));
+
+		// Fichero truncado
+		newCache(MAC_KEY);
+		Assert.assertEquals(signCert, openDnie(conn).getCertificate(Dnie.CERT_ALIAS_SIGN));
+		Files.write(dir.listFiles()[0].toPath(), new byte[] { 0x44, 0x4e });
+		Assert.assertNull(newCache(MAC_KEY).get(cardId));
+
+		// Tras descartarlo, los certificados se leen de nuevo de la tarjeta
+		newCache(MAC_KEY);
+		Assert.assertEquals(signCert, openDnie(conn).getCertificate(Dnie.CERT_ALIAS_SIGN));
+	}
+
+	private static DnieCertificateCacheEntry copyEntry(final DnieCertificateCacheEntry entry,
+			                                           final byte[] cdfHash,
+			                                           final boolean swapSignAndAuth) {
+		final Map<String, String> paths = new LinkedHashMap<>();
+		final Map<String, X509Certificate> certs = new LinkedHashMap<>();
+		for (final String alias : entry.getAliases()) {
+			paths.put(alias, entry.getPath(alias));
+			String source = alias;
+			if (swapSignAndAuth && Dnie.CERT_ALIAS_SIGN.equals(alias)) {
+				source = Dnie.CERT_ALIAS_AUTH;
+			}
+			else if (swapSignAndAuth && Dnie.CERT_ALIAS_AUTH.equals(alias)) {
+				source = Dnie.CERT_ALIAS_SIGN;
+			}
+			if (entry.getCertificate(source) != null) {
+				certs.put(alias, entry.getCertificate(source));
+			}
+		}
+		return new DnieCertificateCacheEntry(cdfHash, paths, certs);
+	}
+}
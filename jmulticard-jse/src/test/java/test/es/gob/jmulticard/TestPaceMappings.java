@@ -0,0 +1,112 @@
+package test.es.gob.jmulticard;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import es.gob.jmulticard.BcCryptoHelper;
+import es.gob.jmulticard.CryptoHelper.PaceChannelHelper;
+import es.gob.jmulticard.apdu.iso7816four.pace.MseSetPaceAlgorithmApduCommand.PaceAlgorithmOid;
+import es.gob.jmulticard.apdu.iso7816four.pace.MseSetPaceAlgorithmApduCommand.PaceAlgorithmParam;
+import es.gob.jmulticard.asn1.icao.PaceInfo;
+import es.gob.jmulticard.card.icao.InvalidCanOrMrzException;
+import es.gob.jmulticard.card.icao.WirelessInitializerCan;
+import es.gob.jmulticard.connection.ApduConnectionException;
+import es.gob.jmulticard.connection.loopback.CardSimulator;
+import es.gob.jmulticard.connection.loopback.LoopbackConnection;
+import es.gob.jmulticard.connection.pace.ChipAuthenticationMappingData;
+import es.gob.jmulticard.connection.pace.PaceConnection;
+
+/** Pruebas del establecimiento de canal PACE con correspondencia gen&eacute;rica (GM),
+ * integrada (IM) y con autenticaci&oacute;n de chip (CAM) contra una tarjeta simulada.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestPaceMappings {
+
+	private static final String CAN = "123456"; //$NON-NLS-1$
+
+	/** Prueba PACE-GM.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testGenericMapping() throws Exception {
+		final PaceConnection conn = openPace(PaceAlgorithmOid.PACE_ECDH_GM_AES_CBC_CMAC_128, CAN, new PaceCardSimulator(CAN));
+		Assert.assertNull(conn.getChipAuthenticationMappingData());
+	}
+
+	/** Prueba PACE-IM.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testIntegratedMapping() throws Exception {
+		final PaceConnection conn = openPace(PaceAlgorithmOid.PACE_ECDH_IM_AES_CBC_CMAC_128, CAN, new PaceCardSimulator(CAN));
+		Assert.assertNull(conn.getChipAuthenticationMappingData());
+	}
+
+	/** Prueba PACE-CAM, comprobando la autenticaci&oacute;n del chip con su clave
+	 * p&uacute;blica y con otra distinta.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testChipAuthenticationMapping() throws Exception {
+		final PaceCardSimulator card = new PaceCardSimulator(CAN);
+		final PaceConnection conn = openPace(PaceAlgorithmOid.PACE_ECDH_CAM_AES_CBC_CMAC_128, CAN, card);
+		final ChipAuthenticationMappingData camData = conn.getChipAuthenticationMappingData();
+		Assert.assertNotNull(camData);
+		final PaceChannelHelper pch = new BcCryptoHelper().getPaceChannelHelper();
+		Assert.assertTrue(pch.verifyChipAuthenticationMapping(camData, card.getChipAuthenticationPublicKey()));
+		Assert.assertFalse(pch.verifyChipAuthenticationMapping(camData, new PaceCardSimulator(CAN).getChipAuthenticationPublicKey()));
+	}
+
+	/** Comprueba que un canal PACE cerrado, cuyas claves de sesi&oacute;n se han borrado,
+	 * no puede volver a abrirse.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testReopenAfterClose() throws Exception {
+		final PaceConnection conn = openPace(PaceAlgorithmOid.PACE_ECDH_GM_AES_CBC_CMAC_128, CAN, new PaceCardSimulator(CAN));
+		conn.close();
+		Assert.assertFalse(conn.isOpen());
+		try {
+			conn.open();
+			Assert.fail("Se ha reabierto un canal PACE con las claves de sesion borradas"); //$NON-NLS-1$
+		}
+		catch (final ApduConnectionException e) {
+			// Esperado
+		}
+		Assert.assertFalse(conn.isOpen());
+	}
+
+	/** Comprueba que con un CAN incorrecto la tarjeta rechaza la autenticaci&oacute;n mutua
+	 * en todas las correspondencias.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testWrongCan() throws Exception {
+		for (final PaceAlgorithmOid alg : new PaceAlgorithmOid[] {
+			PaceAlgorithmOid.PACE_ECDH_GM_AES_CBC_CMAC_128,
+			PaceAlgorithmOid.PACE_ECDH_IM_AES_CBC_CMAC_128,
+			PaceAlgorithmOid.PACE_ECDH_CAM_AES_CBC_CMAC_128
+		}) {
+			try {
+				openPace(alg, "654321", new PaceCardSimulator(CAN)); //$NON-NLS-1$
+				Assert.fail("Se ha abierto el canal " + alg + " con un CAN incorrecto"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			catch (final InvalidCanOrMrzException e) {
+				// Esperado
+			}
+		}
+	}
+
+	private static PaceConnection openPace(final PaceAlgorithmOid alg,
+			                               final String can,
+			                               final CardSimulator card) throws Exception {
+		final PaceInfo paceInfo = new PaceInfo(alg, 2, PaceAlgorithmParam.BRAINPOOL_256_R1);
+		final PaceConnection conn = new BcCryptoHelper().getPaceChannelHelper().openPaceConnection(
+			(byte) 0x00,
+			paceInfo,
+			new WirelessInitializerCan(can),
+			new LoopbackConnection(card)
+		);
+		Assert.assertSame(paceInfo, conn.getPaceInfo());
+		return conn;
+	}
+}
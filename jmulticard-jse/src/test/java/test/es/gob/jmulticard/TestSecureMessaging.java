@@ -0,0 +1,41 @@
+package test.es.gob.jmulticard;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import es.gob.jmulticard.BcCryptoHelper;
+import es.gob.jmulticard.apdu.ResponseApdu;
+import es.gob.jmulticard.de.tsenger.androsmex.iso7816.SecureMessaging;
+import es.gob.jmulticard.de.tsenger.androsmex.iso7816.SecureMessagingException;
+
+/** Pruebas de la mensajer&iacute;a segura de los canales PACE.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestSecureMessaging {
+
+	private static final byte[] KEY = {
+		0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08,
+		0x09, 0x0a, 0x0b, 0x0c, 0x0d, 0x0e, 0x0f, 0x10
+	};
+
+	/** Comprueba que una respuesta con un DO87 vac&iacute;o se rechaza como mensaje seguro
+	 * incorrecto, y no con un error de &iacute;ndice fuera de l&iacute;mites.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testEmptyDo87() throws Exception {
+		final SecureMessaging sm = new SecureMessaging(KEY, KEY, new byte[16], new BcCryptoHelper());
+		final ResponseApdu response = new ResponseApdu(new byte[] {
+			(byte) 0x87, 0x00,
+			(byte) 0x99, 0x02, (byte) 0x90, 0x00,
+			(byte) 0x8E, 0x08, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+			(byte) 0x90, 0x00
+		});
+		try {
+			sm.unwrap(response);
+			Assert.fail("Deberia haberse rechazado la respuesta"); //$NON-NLS-1$
+		}
+		catch (final SecureMessagingException e) {
+			// Correcto, el MAC no coincide
+		}
+	}
+}
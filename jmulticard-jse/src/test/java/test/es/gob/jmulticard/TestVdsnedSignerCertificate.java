@@ -0,0 +1,230 @@
+package test.es.gob.jmulticard;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.spongycastle.asn1.x500.X500Name;
+import org.spongycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.spongycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.spongycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import es.gob.jmulticard.card.icao.vdsned.VdsnedBatchVerifier;
+import es.gob.jmulticard.card.icao.vdsned.VdsnedVerificationResult;
+import test.es.gob.jmulticard.icao.VdsnedSamples;
+
+/** Pruebas de la comprobaci&oacute;n de los certificados de los firmantes de
+ * <i>Visible Digital Seals for Non-Electronic Documents</i> de ICAO.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestVdsnedSignerCertificate {
+
+	private static final String CA_CR = VdsnedSamples.SAMPLE_CA_CR;
+
+	private static final BigInteger SERIAL = BigInteger.valueOf(0xFFAFF);
+
+	/** Comprueba que un sello cuyo certificado de firmante era v&aacute;lido en la fecha de
+	 * creaci&oacute;n de la firma se da por v&aacute;lido, aunque el certificado ya haya
+	 * caducado.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testCertificateValidAtSignatureDate() throws Exception {
+		final KeyPair kp = generateKeyPair();
+		try (VdsnedBatchVerifier verifier = new VdsnedBatchVerifier(1, null)) {
+			verifier.registerSignerCertificate(CA_CR, generateCertificate(kp, "DE", SERIAL, 2006, 2008)); //$NON-NLS-1$
+			final VdsnedVerificationResult result = verifier.verify(Collections.singletonList(sign(kp))).get(0);
+			Assert.assertEquals(result.toString(), VdsnedVerificationResult.Status.VALID, result.getStatus());
+		}
+	}
+
+	/** Comprueba que un sello firmado el mismo d&iacute;a en el que empieza o termina la
+	 * validez del certificado de su firmante se da por v&aacute;lido, ya que la fecha de
+	 * creaci&oacute;n de la firma no tiene hora.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testCertificateValidOnSignatureDay() throws Exception {
+		final KeyPair kp = generateKeyPair();
+		final List<byte[]> seals = Collections.singletonList(sign(kp));
+		try (VdsnedBatchVerifier verifier = new VdsnedBatchVerifier(1, null)) {
+
+			// Emitido el dia de la firma, a mediodia
+			verifier.registerSignerCertificate(
+				CA_CR,
+				generateCertificate(kp, "DE", SERIAL, utc(2007, 3, 26, 12), utc(2008, 3, 26, 12)) //$NON-NLS-1$
+			);
+			VdsnedVerificationResult result = verifier.verify(seals).get(0);
+			Assert.assertEquals(result.toString(), VdsnedVerificationResult.Status.VALID, result.getStatus());
+
+			// Caducado el dia de la firma, de madrugada
+			verifier.registerSignerCertificate(
+				CA_CR,
+				generateCertificate(kp, "DE", SERIAL, utc(2006, 3, 26, 12), utc(2007, 3, 26, 1)) //$NON-NLS-1$
+			);
+			result = verifier.verify(seals).get(0);
+			Assert.assertEquals(result.toString(), VdsnedVerificationResult.Status.VALID, result.getStatus());
+
+			// Emitido el dia siguiente al de la firma
+			verifier.registerSignerCertificate(
+				CA_CR,
+				generateCertificate(kp, "DE", SERIAL, utc(2007, 3, 27, 0), utc(2008, 3, 27, 0)) //$NON-NLS-1$
+			);
+			result = verifier.verify(seals).get(0);
+			Assert.assertEquals(
+				result.toString(),
+				VdsnedVerificationResult.Status.SIGNER_CERTIFICATE_NOT_VALID,
+				result.getStatus()
+			);
+		}
+	}
+
+	/** Comprueba que un sello firmado fuera del periodo de validez del certificado de su
+	 * firmante se rechaza con su propio estado, aunque la firma sea correcta.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testCertificateNotValidAtSignatureDate() throws Exception {
+		final KeyPair kp = generateKeyPair();
+		final List<byte[]> seals = Collections.singletonList(sign(kp));
+		try (VdsnedBatchVerifier verifier = new VdsnedBatchVerifier(1, null)) {
+
+			// Caducado antes de la firma
+			verifier.registerSignerCertificate(CA_CR, generateCertificate(kp, "DE", SERIAL, 2000, 2005)); //$NON-NLS-1$
+			VdsnedVerificationResult result = verifier.verify(seals).get(0);
+			Assert.assertEquals(
+				result.toString(),
+				VdsnedVerificationResult.Status.SIGNER_CERTIFICATE_NOT_VALID,
+				result.getStatus()
+			);
+
+			// Aun no valido en la fecha de la firma
+			verifier.registerSignerCertificate(CA_CR, generateCertificate(kp, "DE", SERIAL, 2010, 2020)); //$NON-NLS-1$
+			result = verifier.verify(seals).get(0);
+			Assert.assertEquals(
+				result.toString(),
+				VdsnedVerificationResult.Status.SIGNER_CERTIFICATE_NOT_VALID,
+				result.getStatus()
+			);
+			Assert.assertEquals(2, verifier.getMetrics().getSignerCertificateNotValidCount());
+			Assert.assertEquals(2, verifier.getMetrics().getSealCount());
+		}
+	}
+
+	/** Comprueba que no se puede registrar un certificado de otro pa&iacute;s o con otro
+	 * n&uacute;mero de serie que los de la referencia CA-CR.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testRegisteredCertificateMustMatchCaCr() throws Exception {
+		final KeyPair kp = generateKeyPair();
+		try (VdsnedBatchVerifier verifier = new VdsnedBatchVerifier(1, null)) {
+			try {
+				verifier.registerSignerCertificate(CA_CR, generateCertificate(kp, "FR", SERIAL, 2006, 2008)); //$NON-NLS-1$
+				Assert.fail("Se ha registrado un certificado de otro pais"); //$NON-NLS-1$
+			}
+			catch (final IllegalArgumentException e) {
+				// Correcto
+			}
+			try {
+				verifier.registerSignerCertificate(
+					CA_CR,
+					generateCertificate(kp, "DE", SERIAL.add(BigInteger.ONE), 2006, 2008) //$NON-NLS-1$
+				);
+				Assert.fail("Se ha registrado un certificado con otro numero de serie"); //$NON-NLS-1$
+			}
+			catch (final IllegalArgumentException e) {
+				// Correcto
+			}
+			final VdsnedVerificationResult result = verifier.verify(Collections.singletonList(sign(kp))).get(0);
+			Assert.assertEquals(VdsnedVerificationResult.Status.UNKNOWN_SIGNER, result.getStatus());
+		}
+	}
+
+	/** Comprueba que un certificado del origen de certificados que no corresponde a la
+	 * referencia CA-CR del sello no se usa ni se guarda en el verificador.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testSourceCertificateMustMatchCaCr() throws Exception {
+		final KeyPair kp = generateKeyPair();
+		final X509Certificate wrongCert = generateCertificate(kp, "DE", BigInteger.TEN, 2006, 2008); //$NON-NLS-1$
+		final int[] lookups = new int[1];
+		try (VdsnedBatchVerifier verifier = new VdsnedBatchVerifier(
+			1,
+			new VdsnedBatchVerifier.SignerCertificateSource() {
+				@Override
+				public X509Certificate getSignerCertificate(final String caCr) {
+					lookups[0]++;
+					return wrongCert;
+				}
+			}
+		)) {
+			final List<byte[]> seals = Collections.singletonList(sign(kp));
+			for (int i = 0; i < 2; i++) {
+				final VdsnedVerificationResult result = verifier.verify(seals).get(0);
+				Assert.assertEquals(VdsnedVerificationResult.Status.UNKNOWN_SIGNER, result.getStatus());
+				Assert.assertTrue(result.getError() instanceof IOException);
+			}
+			Assert.assertEquals(2, lookups[0]);
+		}
+	}
+
+	private static KeyPair generateKeyPair() throws Exception {
+		final KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC"); //$NON-NLS-1$
+		kpg.initialize(new ECGenParameterSpec("secp256r1")); //$NON-NLS-1$
+		return kpg.generateKeyPair();
+	}
+
+	private static X509Certificate generateCertificate(final KeyPair keys,
+			                                           final String country,
+			                                           final BigInteger serial,
+			                                           final int fromYear,
+			                                           final int toYear) throws Exception {
+		return generateCertificate(keys, country, serial, yearStart(fromYear), yearStart(toYear));
+	}
+
+	private static X509Certificate generateCertificate(final KeyPair keys,
+			                                           final String country,
+			                                           final BigInteger serial,
+			                                           final Date notBefore,
+			                                           final Date notAfter) throws Exception {
+		final X500Name name = new X500Name("CN=Firmante de sellos de prueba,C=" + country); //$NON-NLS-1$
+		return new JcaX509CertificateConverter().getCertificate(
+			new JcaX509v3CertificateBuilder(
+				name,
+				serial,
+				notBefore,
+				notAfter,
+				name,
+				keys.getPublic()
+			).build(new JcaContentSignerBuilder("SHA256withECDSA").build(keys.getPrivate())) //$NON-NLS-1$
+		);
+	}
+
+	private static Date yearStart(final int year) {
+		return new GregorianCalendar(year, 0, 1).getTime();
+	}
+
+	private static Date utc(final int year, final int month, final int day, final int hour) {
+		return Date.from(ZonedDateTime.of(year, month, day, hour, 0, 0, 0, ZoneOffset.UTC).toInstant());
+	}
+
+	/** Firma los datos del sello de ejemplo de ICAO (creado el 26 de marzo de 2007).
+	 * @param kp Par de claves del firmante.
+	 * @return Sello firmado.
+	 * @throws Exception En cualquier error. */
+	private static byte[] sign(final KeyPair kp) throws Exception {
+		return VdsnedSamples.sign(VdsnedSamples.getSampleTbs(), kp);
+	}
+}
@@ -309,6 +309,152 @@ public final class TestCryptoHelper {
 		Assert.assertTrue(HexUtils.arrayEquals(indata, c4));
 	}
 
+	/** Prueba que los cifradores con clave ya preparada se reinicializan correctamente
+	 * al alternar claves y que dan el mismo resultado que una instancia nueva.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testKeyedCiphersKeySwitch() throws Exception {
+		final byte[] key1 = {
+			0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08,
+			0x09, 0x0a, 0x0b, 0x0c, 0x0d, 0x0e, 0x0f, 0x10
+		};
+		final byte[] key2 = {
+			0x11, 0x12, 0x13, 0x14, 0x15, 0x16, 0x17, 0x18,
+			0x19, 0x1a, 0x1b, 0x1c, 0x1d, 0x1e, 0x1f, 0x20
+		};
+		final byte[] ssc = { 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01 };
+		final byte[] data = new byte[40];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+
+		final CryptoHelper ch = new BcCryptoHelper().newSecureChannelHelper();
+		for (int i = 0; i < 3; i++) {
+			final byte[] key = i % 2 == 0 ? key1 : key2;
+			final CryptoHelper fresh = new BcCryptoHelper();
+			Assert.assertArrayEquals(fresh.desRetailMac(ssc, data, key), ch.desRetailMac(ssc, data, key));
+			Assert.assertArrayEquals(fresh.desedeEncrypt(data, key), ch.desedeEncrypt(data, key));
+			Assert.assertArrayEquals(data, ch.desedeDecrypt(ch.desedeEncrypt(data, key), key));
+			Assert.assertArrayEquals(fresh.doAesCmac(data, key), ch.doAesCmac(data, key));
+			Assert.assertArrayEquals(
+				ch.doAesCmac(HexUtils.concatenateByteArrays(ssc, data), key),
+				ch.doAesCmac(ssc, data, key)
+			);
+		}
+	}
+
+	/** Prueba que cada canal obtiene su propio manejador con las claves de sesi&oacute;n y que,
+	 * tras borrarlas, el manejador vuelve a preparar la clave y sigue dando el mismo resultado.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testSecureChannelHelperWipe() throws Exception {
+		final byte[] key = {
+			0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08,
+			0x09, 0x0a, 0x0b, 0x0c, 0x0d, 0x0e, 0x0f, 0x10
+		};
+		final byte[] ssc = { 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01 };
+		final byte[] data = new byte[32];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+
+		final CryptoHelper shared = new BcCryptoHelper();
+		final CryptoHelper channel1 = shared.newSecureChannelHelper();
+		final CryptoHelper channel2 = shared.newSecureChannelHelper();
+		Assert.assertNotSame(shared, channel1);
+		Assert.assertNotSame(channel1, channel2);
+
+		final byte[] mac = shared.desRetailMac(ssc, data, key);
+		final byte[] cmac = shared.doAesCmac(ssc, data, key);
+		final byte[] enc = shared.aesEncrypt(data, null, key, BlockMode.CBC, Padding.NOPADDING);
+		Assert.assertArrayEquals(mac, channel1.desRetailMac(ssc, data, key));
+		Assert.assertArrayEquals(cmac, channel1.doAesCmac(ssc, data, key));
+		Assert.assertArrayEquals(enc, channel1.aesEncrypt(data, null, key, BlockMode.CBC, Padding.NOPADDING));
+
+		channel1.wipeSessionKeys();
+		channel2.wipeSessionKeys();
+		shared.wipeSessionKeys();
+
+		Assert.assertArrayEquals(mac, channel1.desRetailMac(ssc, data, key));
+		Assert.assertArrayEquals(cmac, channel1.doAesCmac(ssc, data, key));
+		Assert.assertArrayEquals(enc, channel1.aesEncrypt(data, null, key, BlockMode.CBC, Padding.NOPADDING));
+		Assert.assertArrayEquals(mac, shared.desRetailMac(ssc, data, key));
+	}
+
+	/** Prueba el MAC <i>Retail</i> contra su c&aacute;lculo mediante JCA
+	 * (CBC-MAC DES seguido de un cifrado 3DES del &uacute;ltimo bloque).
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testDesRetailMacJca() throws Exception {
+		final byte[] kMac = {
+			(byte)0x5d, (byte)0xe2, (byte)0x93, (byte)0x9a, (byte)0x1e, (byte)0xa0, (byte)0x3a, (byte)0x93,
+			(byte)0x0b, (byte)0x88, (byte)0x20, (byte)0x6d, (byte)0x8f, (byte)0x73, (byte)0xe8, (byte)0xa7
+		};
+		final byte[] ssc = {
+			(byte)0xd3, (byte)0x1a, (byte)0xc8, (byte)0xec, (byte)0x7b, (byte)0xa0, (byte)0xfe, (byte)0x75
+		};
+		final byte[] data = new byte[24];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (0xa0 + i);
+		}
+
+		final Cipher des = Cipher.getInstance("DES/CBC/NoPadding"); //$NON-NLS-1$
+		des.init(
+			Cipher.ENCRYPT_MODE,
+			new SecretKeySpec(kMac, 0, 8, "DES"), //$NON-NLS-1$
+			new IvParameterSpec(new byte[8])
+		);
+		final byte[] cbc = des.doFinal(HexUtils.concatenateByteArrays(ssc, HexUtils.subArray(data, 0, 16)));
+		final byte[] chain = HexUtils.xor(
+			HexUtils.subArray(cbc, cbc.length - 8, 8),
+			HexUtils.subArray(data, 16, 8)
+		);
+		final Cipher desede = Cipher.getInstance("DESede/ECB/NoPadding"); //$NON-NLS-1$
+		desede.init(
+			Cipher.ENCRYPT_MODE,
+			new SecretKeySpec(prepareDesedeKey(kMac), "DESede") //$NON-NLS-1$
+		);
+		Assert.assertArrayEquals(desede.doFinal(chain), CH.desRetailMac(ssc, data, kMac));
+	}
+
+	/** Prueba el cifrado AES CBC con relleno ISO 7816-4 contra JCA, y su descifrado.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testAesCbcPaddingJca() throws Exception {
+		final byte[] key = {
+			0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08,
+			0x09, 0x0a, 0x0b, 0x0c, 0x0d, 0x0e, 0x0f, 0x00
+		};
+		final byte[] iv = {
+			0x04, 0x00, 0x06, 0x00, 0x00, (byte) 0xee, 0x00, 0x30,
+			0x00, 0x01, 0x00, 0x08, (byte) 0xff, 0x00, 0x20, 0x00
+		};
+		final CryptoHelper ch = new BcCryptoHelper();
+		for (final int len : new int[] { 0, 5, 16, 33 }) {
+			final byte[] data = new byte[len];
+			for (int i = 0; i < len; i++) {
+				data[i] = (byte) (i * 7);
+			}
+			final byte[] padded = new byte[(len / 16 + 1) * 16];
+			System.arraycopy(data, 0, padded, 0, len);
+			padded[len] = (byte) 0x80;
+
+			final Cipher aes = Cipher.getInstance("AES/CBC/NoPadding"); //$NON-NLS-1$
+			aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv)); //$NON-NLS-1$
+
+			final byte[] encrypted = ch.aesEncrypt(data, iv, key, BlockMode.CBC, Padding.ISO7816_4PADDING);
+			Assert.assertArrayEquals(aes.doFinal(padded), encrypted);
+			Assert.assertArrayEquals(
+				data,
+				ch.aesDecrypt(encrypted, iv, key, BlockMode.CBC, Padding.ISO7816_4PADDING)
+			);
+		}
+	}
+
 	/** Main para pruebas.
 	 * @param args No se usa.
 	 * @throws Exception En cualquier error. */
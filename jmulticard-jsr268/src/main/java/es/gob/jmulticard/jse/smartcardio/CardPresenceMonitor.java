@@ -0,0 +1,174 @@
+package es.gob.jmulticard.jse.smartcardio;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
+import javax.smartcardio.TerminalFactory;
+
+/** Monitor de inserci&oacute;n y extracci&oacute;n de tarjetas en unos lectores.
+ * Hay un monitor por cada conjunto de lectores (el del sistema o los que se proporcionen a
+ * las conexiones), y un &uacute;nico hilo en segundo plano por monitor, compartido por todas
+ * sus conexiones, espera los cambios con <code>CardTerminals.waitForChange()</code> (sin
+ * consultar peri&oacute;dicamente cada lector) y los notifica a las conexiones registradas.
+ * El hilo se arranca con el primer registro y termina poco despu&eacute;s de que se elimine
+ * el &uacute;ltimo.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+final class CardPresenceMonitor implements Runnable {
+
+	private static final Logger LOGGER = Logger.getLogger("es.gob.jmulticard"); //$NON-NLS-1$
+
+	/** Tiempo m&aacute;ximo de cada espera de cambios, tras el que se comprueba si
+	 * sigue habiendo conexiones registradas. */
+	private static final long WAIT_TIMEOUT_MILLIS = 5000;
+
+	/** Tiempo de espera antes de reintentar si no se puede acceder a los lectores. */
+	private static final long RETRY_DELAY_MILLIS = 2000;
+
+	/** Monitor de los lectores del sistema. */
+	private static final CardPresenceMonitor SYSTEM_MONITOR = new CardPresenceMonitor(null);
+
+	/** Monitores de los lectores proporcionados a las conexiones. */
+	private static final Map<CardTerminals, CardPresenceMonitor> MONITORS = new ConcurrentHashMap<>();
+
+	/** Lectores vigilados, o <code>null</code> para los del sistema. */
+	private final CardTerminals source;
+
+	private final Set<SmartcardIoConnection> connections = new CopyOnWriteArraySet<>();
+
+	/** Bloqueo para el arranque y la parada del hilo del monitor. */
+	private final ReentrantLock threadLock = new ReentrantLock();
+
+	private Thread thread = null;
+
+	private CardPresenceMonitor(final CardTerminals terminals) {
+		source = terminals;
+	}
+
+	/** Obtiene el monitor compartido por todas las conexiones que usan unos lectores.
+	 * @param terminals Lectores de la conexi&oacute;n, o <code>null</code> para los del sistema.
+	 * @return Monitor de inserci&oacute;n y extracci&oacute;n de tarjetas de esos lectores. */
+	static CardPresenceMonitor getInstance(final CardTerminals terminals) {
+		if (terminals == null) {
+			return SYSTEM_MONITOR;
+		}
+		return MONITORS.computeIfAbsent(
+			terminals,
+			new Function<CardTerminals, CardPresenceMonitor>() {
+				@Override
+				public CardPresenceMonitor apply(final CardTerminals t) {
+					return new CardPresenceMonitor(t);
+				}
+			}
+		);
+	}
+
+	/** Registra una conexi&oacute;n para que reciba los cambios de los lectores,
+	 * arrancando el monitor si no lo estaba.
+	 * @param conn Conexi&oacute;n a registrar. */
+	void register(final SmartcardIoConnection conn) {
+		threadLock.lock();
+		try {
+			connections.add(conn);
+			if (thread == null) {
+				thread = new Thread(this, "jmulticard-card-presence"); //$NON-NLS-1$
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+		finally {
+			threadLock.unlock();
+		}
+	}
+
+	/** Deja de notificar los cambios de los lectores a una conexi&oacute;n.
+	 * @param conn Conexi&oacute;n a eliminar. */
+	void unregister(final SmartcardIoConnection conn) {
+		connections.remove(conn);
+	}
+
+	/** Indica si el hilo del monitor debe continuar, marc&aacute;ndolo como terminado
+	 * si ya no hay conexiones registradas.
+	 * @return <code>true</code> si hay conexiones registradas. */
+	private boolean keepRunning() {
+		threadLock.lock();
+		try {
+			if (connections.isEmpty()) {
+				thread = null;
+				return false;
+			}
+			return true;
+		}
+		finally {
+			threadLock.unlock();
+		}
+	}
+
+	@Override
+	public void run() {
+		CardTerminals terminals = null;
+		while (keepRunning()) {
+			try {
+				if (terminals == null) {
+					terminals = source != null ? source : TerminalFactory.getDefault().terminals();
+				}
+				if (!terminals.waitForChange(WAIT_TIMEOUT_MILLIS)) {
+					continue;
+				}
+				// Primero las extracciones, para que un cambio rapido de tarjeta
+				// se notifique como extraccion seguida de insercion
+				notifyChanges(terminals.list(CardTerminals.State.CARD_REMOVAL), false);
+				notifyChanges(terminals.list(CardTerminals.State.CARD_INSERTION), true);
+			}
+			catch (final CardException | IllegalStateException e) {
+				// Puede ocurrir si se desconecta el lector o se reinicia el servicio PC/SC
+				LOGGER.fine("Error esperando cambios en los lectores, se reintentara: " + e); //$NON-NLS-1$
+				terminals = null;
+				try {
+					TimeUnit.MILLISECONDS.sleep(RETRY_DELAY_MILLIS);
+				}
+				catch (final InterruptedException ie) {
+					LOGGER.warning("Se ha interrumpido el monitor de insercion de tarjetas"); //$NON-NLS-1$
+					threadLock.lock();
+					try {
+						thread = null;
+					}
+					finally {
+						threadLock.unlock();
+					}
+					return;
+				}
+			}
+		}
+	}
+
+	private void notifyChanges(final List<CardTerminal> changed, final boolean inserted) {
+		for (final CardTerminal terminal : changed) {
+			final String name = terminal.getName();
+			for (final SmartcardIoConnection conn : connections) {
+				try {
+					if (inserted) {
+						conn.onCardInserted(name);
+					}
+					else {
+						conn.onCardRemoved(name);
+					}
+				}
+				catch (final RuntimeException e) {
+					LOGGER.warning(
+						"Error notificando el cambio de tarjeta del lector '" + name + "': " + e //$NON-NLS-1$ //$NON-NLS-2$
+					);
+				}
+			}
+		}
+	}
+}
@@ -42,12 +42,20 @@ package es.gob.jmulticard.jse.smartcardio;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 import java.util.logging.Logger;
 
 import javax.smartcardio.Card;
 import javax.smartcardio.CardChannel;
 import javax.smartcardio.CardException;
 import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
 import javax.smartcardio.CommandAPDU;
 import javax.smartcardio.TerminalFactory;
 
@@ -59,15 +67,24 @@ import es.gob.jmulticard.connection.ApduConnection;
 import es.gob.jmulticard.connection.ApduConnectionException;
 import es.gob.jmulticard.connection.ApduConnectionOpenedInExclusiveModeException;
 import es.gob.jmulticard.connection.ApduConnectionProtocol;
+import es.gob.jmulticard.connection.CardConnectionEvent;
 import es.gob.jmulticard.connection.CardConnectionListener;
 import es.gob.jmulticard.connection.CardNotPresentException;
 import es.gob.jmulticard.connection.LostChannelException;
 import es.gob.jmulticard.connection.NoReadersFoundException;
+import es.gob.jmulticard.connection.TerminalAtrReader;
 
 /** Conexi&oacute;n con lector de tarjetas inteligentes implementado sobre
  * JSR-268 SmartCard I/O.
+ * Si se registran <code>CardConnectionListener</code>, un monitor en segundo plano
+ * (com&uacute;n a todas las conexiones) les notifica las inserciones y extracciones de
+ * tarjeta en el lector de la conexi&oacute;n (o en cualquier lector si a&uacute;n no se ha
+ * elegido ninguno). Al extraerse la tarjeta se descarta la conexi&oacute;n con ella y, si
+ * estaba abierta, se vuelve a abrir autom&aacute;ticamente al insertarse otra, antes de
+ * notificar la inserci&oacute;n. Los <code>CardConnectionListener</code> deben eliminarse
+ * cuando dejen de usarse, para que el monitor pueda terminar.
  * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
-public final class SmartcardIoConnection extends AbstractApduConnectionIso7816 {
+public final class SmartcardIoConnection extends AbstractApduConnectionIso7816 implements TerminalAtrReader {
 
 	private static final boolean DEBUG = false;
 
@@ -80,18 +97,60 @@ public final class SmartcardIoConnection extends AbstractApduConnectionIso7816 {
      * reinicio del canal con la tarjeta. */
     private static final String SCARD_W_RESET_CARD = "SCARD_W_RESET_CARD"; //$NON-NLS-1$
 
+    /** C&oacute;digo de control PC/SC para obtener las caracter&iacute;sticas del lector (PC/SC v2 parte 10). */
+    private static final int CM_IOCTL_GET_FEATURE_REQUEST = 3400;
+
+    /** Etiqueta de la caracter&iacute;stica <code>FEATURE_GET_TLV_PROPERTIES</code> (PC/SC v2 parte 10). */
+    private static final byte FEATURE_GET_TLV_PROPERTIES = 0x12;
+
+    /** Etiqueta de la propiedad <code>dwMaxAPDUDataSize</code> (PC/SC v2 parte 10). */
+    private static final byte PROPERTY_MAX_APDU_DATA_SIZE = 0x10;
+
     private static final Logger LOGGER = Logger.getLogger("es.gob.jmulticard"); //$NON-NLS-1$
 
-    private int terminalNumber = -1;
+    /** Conexiones de esta JVM con una tarjeta abierta.
+     * SmartCard I/O comparte un &uacute;nico objeto de tarjeta por lector dentro de la JVM, as&iacute;
+     * que el ATR de la tarjeta de un lector que ya tiene una conexi&oacute;n abierta se toma de
+     * ella, en lugar de conectar y desconectar (lo que cerrar&iacute;a la sesi&oacute;n de esa
+     * conexi&oacute;n). */
+    private static final Set<SmartcardIoConnection> OPEN_CONNECTIONS = new CopyOnWriteArraySet<>();
+
+    /** Bloqueos de cada lector, indexados por su nombre, para que ninguna conexi&oacute;n abra
+     * la tarjeta de un lector mientras otra lee su ATR conectando y desconectando la tarjeta.
+     * Los ATR de lectores distintos se leen en paralelo. */
+    private static final ConcurrentMap<String, Object> TERMINAL_LOCKS = new ConcurrentHashMap<>();
+
+    /** Lectores con los que trabaja la conexi&oacute;n, o <code>null</code> para usar los
+     * del sistema. */
+    private final CardTerminals cardTerminals;
+
+    /** Bloqueo de la apertura, el cierre y las transmisiones de la conexi&oacute;n, que
+     * tambi&eacute;n toma el monitor de inserci&oacute;n de tarjetas al reabrirla. */
+    private final ReentrantLock connectionLock = new ReentrantLock();
+
+    private volatile int terminalNumber = -1;
 
-	private CardChannel cardChannel = null;
+    /** Nombre del lector de la &uacute;ltima apertura de la conexi&oacute;n. */
+    private volatile String terminalName = null;
 
-    private Card card = null;
+	private volatile CardChannel cardChannel = null;
+
+    private volatile Card card = null;
+
+    /** Indica si se debe reabrir la conexi&oacute;n al insertar una tarjeta, por haberse
+     * extra&iacute;do la anterior con la conexi&oacute;n abierta. */
+    private volatile boolean reopenOnInsertion = false;
+
+    private final List<CardConnectionListener> listeners = new CopyOnWriteArrayList<>();
 
     private boolean exclusive = false;
 
     private ApduConnectionProtocol protocol = ApduConnectionProtocol.ANY;
 
+    /** N&uacute;mero m&aacute;ximo de octetos de datos de respuesta que admite el lector,
+     * o <code>-1</code> si a&uacute;n no se ha consultado. */
+    private int maxResponseDataSize = -1;
+
     static {
 
 		// Aplicamos un parche para el error de PCSCLite de Debian:
@@ -119,6 +178,21 @@ public final class SmartcardIoConnection extends AbstractApduConnectionIso7816 {
 		}
     }
 
+    /** Crea una conexi&oacute;n con los lectores del sistema. */
+    public SmartcardIoConnection() {
+    	this(null);
+    }
+
+    /** Crea una conexi&oacute;n con unos lectores concretos.
+     * @param terminals Lectores, o <code>null</code> para usar los del sistema. */
+    SmartcardIoConnection(final CardTerminals terminals) {
+    	cardTerminals = terminals;
+    }
+
+    private CardTerminals getCardTerminals() {
+    	return cardTerminals != null ? cardTerminals : TerminalFactory.getDefault().terminals();
+    }
+
     @Override
 	  public String toString() {
     	return "Conexion de bajo nivel JSR-268 " + //$NON-NLS-1$
@@ -127,14 +201,109 @@ public final class SmartcardIoConnection extends AbstractApduConnectionIso7816 {
 					: "cerrada"); //$NON-NLS-1$
     }
 
-    /** JSR-268 no soporta eventos de inserci&oacute;n o extracci&oacute;n. */
+    /** {@inheritDoc}
+     * Con el primer <code>CardConnectionListener</code> se empiezan a vigilar los lectores. */
     @Override
     public void addCardConnectionListener(final CardConnectionListener ccl) {
-        throw new UnsupportedOperationException("JSR-268 no soporta eventos de insercion o extraccion"); //$NON-NLS-1$
+    	if (ccl == null) {
+    		throw new IllegalArgumentException("El CardConnectionListener no puede ser nulo"); //$NON-NLS-1$
+    	}
+    	listeners.add(ccl);
+    	CardPresenceMonitor.getInstance(cardTerminals).register(this);
+    }
+
+    /** Notifica la extracci&oacute;n de una tarjeta, si es del lector de esta conexi&oacute;n.
+     * La conexi&oacute;n con la tarjeta extra&iacute;da se descarta sin intentar cerrarla.
+     * @param name Nombre del lector del que se ha extra&iacute;do la tarjeta. */
+    void onCardRemoved(final String name) {
+    	if (!isMonitoredTerminal(name)) {
+    		return;
+    	}
+    	connectionLock.lock();
+    	try {
+	    	final Card c = card;
+	    	if (c != null) {
+	    		reopenOnInsertion = true;
+	    		card = null;
+	    		OPEN_CONNECTIONS.remove(this);
+	    		cardChannel = null;
+	    		maxResponseDataSize = -1;
+	    		try {
+	    			c.disconnect(false);
+	    		}
+	    		catch (final Exception e) {
+	    			// La tarjeta ya no esta, es normal que falle
+	    		}
+	    	}
+    	}
+    	finally {
+    		connectionLock.unlock();
+    	}
+    	// Los CardConnectionListener se notifican sin el bloqueo, ya que pueden usar la tarjeta
+    	final CardConnectionEvent event = new CardConnectionEvent(this);
+    	for (final CardConnectionListener ccl : listeners) {
+    		ccl.cardRemoved(event);
+    	}
+    }
+
+    /** Notifica la inserci&oacute;n de una tarjeta, si es en el lector de esta conexi&oacute;n,
+     * reabriendo antes la conexi&oacute;n si estaba abierta cuando se extrajo la anterior.
+     * @param name Nombre del lector en el que se ha insertado la tarjeta. */
+    void onCardInserted(final String name) {
+    	if (!isMonitoredTerminal(name)) {
+    		return;
+    	}
+    	// Se reabre con el mismo bloqueo que usan los hilos que trabajan con la conexion
+    	connectionLock.lock();
+    	try {
+	    	if (reopenOnInsertion && !isOpen()) {
+	    		reopenOnInsertion = false;
+	    		try {
+	    			openCard();
+	    		}
+	    		catch (final Exception e) {
+	    			LOGGER.warning("No se ha podido reabrir la conexion con la tarjeta insertada: " + e); //$NON-NLS-1$
+	    		}
+	    	}
+    	}
+    	finally {
+    		connectionLock.unlock();
+    	}
+    	final CardConnectionEvent event = new CardConnectionEvent(this);
+    	for (final CardConnectionListener ccl : listeners) {
+    		ccl.cardInserted(event);
+    	}
+    }
+
+    /** Indica si un lector es el de esta conexi&oacute;n.
+     * @param name Nombre del lector.
+     * @return <code>true</code> si el lector es el de esta conexi&oacute;n o si a&uacute;n
+     *         no se ha elegido ninguno. */
+    private boolean isMonitoredTerminal(final String name) {
+    	String own = terminalName;
+    	if (own == null && terminalNumber != -1) {
+    		try {
+    			own = getTerminalInfo(terminalNumber);
+    		}
+    		catch (final ApduConnectionException e) {
+    			return false;
+    		}
+    	}
+    	return own == null || own.equals(name);
     }
 
     @Override
     public void close() throws ApduConnectionException {
+    	connectionLock.lock();
+    	try {
+    		closeCard();
+    	}
+    	finally {
+    		connectionLock.unlock();
+    	}
+    }
+
+    private void closeCard() throws ApduConnectionException {
     	if (card != null) {
 	        try {
 	            card.disconnect(false);
@@ -145,15 +314,18 @@ public final class SmartcardIoConnection extends AbstractApduConnectionIso7816 {
 	            );
 	        }
 	        card = null;
+	        OPEN_CONNECTIONS.remove(this);
     	}
         cardChannel = null;
+        maxResponseDataSize = -1;
+        reopenOnInsertion = false;
     }
 
     /** {@inheritDoc} */
     @Override
     public String getTerminalInfo(final int terminal) throws ApduConnectionException {
         try {
-            final List<CardTerminal> terminales = TerminalFactory.getDefault().terminals().list();
+            final List<CardTerminal> terminales = getCardTerminals().list();
             if (terminal < terminales.size()) {
                 final CardTerminal cardTerminal = terminales.get(terminal);
                 if (cardTerminal != null) {
@@ -174,7 +346,7 @@ public final class SmartcardIoConnection extends AbstractApduConnectionIso7816 {
     public long[] getTerminals(final boolean onlyWithCardPresent) throws ApduConnectionException {
     	final List<CardTerminal> terminales;
     	try {
-    		terminales = TerminalFactory.getDefault().terminals().list();
+    		terminales = getCardTerminals().list();
     	}
     	catch(final CardException e) {
     		LOGGER.warning("No se ha podido recuperar la lista de lectores del sistema: " + e); //$NON-NLS-1$
@@ -208,6 +380,86 @@ public final class SmartcardIoConnection extends AbstractApduConnectionIso7816 {
         }
     }
 
+    /** {@inheritDoc}
+     * Si otra conexi&oacute;n de esta JVM tiene abierta la tarjeta del lector, el ATR se toma
+     * de ella. Si no, la tarjeta se conecta en modo compartido para leer su ATR y se desconecta
+     * despu&eacute;s sin reiniciarla, por lo que no se interfiere con otros procesos que la
+     * est&eacute;n usando. */
+    @Override
+    public byte[] getAtr(final int terminal) throws ApduConnectionException {
+    	final Card c = card;
+    	if (c != null && terminal == terminalNumber) {
+    		return c.getATR().getBytes();
+    	}
+    	final List<CardTerminal> terminales;
+    	try {
+    		terminales = getCardTerminals().list();
+    	}
+    	catch (final CardException e) {
+    		throw new ApduConnectionException(
+				"Error recuperando la lista de lectores de tarjetas del sistema", e //$NON-NLS-1$
+			);
+    	}
+    	if (terminal < 0 || terminal >= terminales.size()) {
+    		throw new ApduConnectionException("No se detecto el lector de tarjetas numero " + terminal); //$NON-NLS-1$
+    	}
+    	try {
+    		final CardTerminal cardTerminal = terminales.get(terminal);
+    		if (!cardTerminal.isCardPresent()) {
+    			return null;
+    		}
+    		synchronized (getTerminalLock(cardTerminal.getName())) {
+    			final byte[] openAtr = getOpenCardAtr(cardTerminal.getName());
+    			if (openAtr != null) {
+    				return openAtr;
+    			}
+	    		final Card shared = cardTerminal.connect("*"); //$NON-NLS-1$
+	    		try {
+	    			return shared.getATR().getBytes();
+	    		}
+	    		finally {
+	    			shared.disconnect(false);
+	    		}
+    		}
+    	}
+    	catch (final javax.smartcardio.CardNotPresentException e) {
+    		return null;
+    	}
+    	catch (final CardException e) {
+    		throw new ApduConnectionException(
+				"No se ha podido leer el ATR de la tarjeta del lector numero " + terminal, e //$NON-NLS-1$
+			);
+    	}
+    }
+
+    /** Obtiene el bloqueo de un lector.
+     * @param name Nombre del lector.
+     * @return Bloqueo del lector, el mismo para todas las conexiones de esta JVM. */
+    private static Object getTerminalLock(final String name) {
+    	return TERMINAL_LOCKS.computeIfAbsent(
+			name,
+			new Function<String, Object>() {
+				@Override
+				public Object apply(final String n) {
+					return new Object();
+				}
+			}
+		);
+    }
+
+    /** Obtiene el ATR de la tarjeta de un lector que tenga abierta alguna conexi&oacute;n de esta JVM.
+     * @param name Nombre del lector.
+     * @return ATR de la tarjeta o <code>null</code> si ninguna conexi&oacute;n la tiene abierta. */
+    private static byte[] getOpenCardAtr(final String name) {
+    	for (final SmartcardIoConnection conn : OPEN_CONNECTIONS) {
+    		final Card c = conn.card;
+    		if (c != null && name.equals(conn.terminalName)) {
+    			return c.getATR().getBytes();
+    		}
+    	}
+    	return null;
+    }
+
     @Override
     public boolean isOpen() {
         return card != null;
@@ -215,6 +467,16 @@ public final class SmartcardIoConnection extends AbstractApduConnectionIso7816 {
 
     @Override
     public void open() throws ApduConnectionException {
+    	connectionLock.lock();
+    	try {
+    		openCard();
+    	}
+    	finally {
+    		connectionLock.unlock();
+    	}
+    }
+
+    private void openCard() throws ApduConnectionException {
 
         // Desactivamos las respuestas automaticas para evitar los problemas con el canal seguro
         System.setProperty("sun.security.smartcardio.t0GetResponse", "false"); //$NON-NLS-1$ //$NON-NLS-2$
@@ -226,7 +488,7 @@ public final class SmartcardIoConnection extends AbstractApduConnectionIso7816 {
 
         final List<CardTerminal> terminales;
         try {
-            terminales = TerminalFactory.getDefault().terminals().list();
+            terminales = getCardTerminals().list();
         }
         catch(final Exception e) {
         	throw new NoReadersFoundException(
@@ -251,7 +513,12 @@ public final class SmartcardIoConnection extends AbstractApduConnectionIso7816 {
             		"No se detecto el lector de tarjetas numero " + terminalNumber //$NON-NLS-1$
         		);
             }
-            card = terminales.get(terminalNumber).connect(protocol.toString());
+            final CardTerminal terminal = terminales.get(terminalNumber);
+            synchronized (getTerminalLock(terminal.getName())) {
+	            card = terminal.connect(protocol.toString());
+	            terminalName = terminal.getName();
+	            OPEN_CONNECTIONS.add(this);
+            }
         }
         catch(final javax.smartcardio.CardNotPresentException e) {
             throw new CardNotPresentException(e);
@@ -274,16 +541,31 @@ public final class SmartcardIoConnection extends AbstractApduConnectionIso7816 {
         }
         cardChannel = card.getBasicChannel();
         protocol = ApduConnectionProtocol.getApduConnectionProtocol(card.getProtocol());
+        maxResponseDataSize = -1;
     }
 
-    /** JSR-268 no soporta eventos de inserci&oacute;n o extracci&oacute;n. */
+    /** {@inheritDoc}
+     * Al eliminar el &uacute;ltimo <code>CardConnectionListener</code> se dejan de vigilar los lectores. */
     @Override
     public void removeCardConnectionListener(final CardConnectionListener ccl) {
-        throw new UnsupportedOperationException("JSR-268 no soporta eventos de insercion o extraccion"); //$NON-NLS-1$
+    	listeners.remove(ccl);
+    	if (listeners.isEmpty()) {
+    		CardPresenceMonitor.getInstance(cardTerminals).unregister(this);
+    	}
     }
 
     @Override
     public byte[] reset() throws ApduConnectionException {
+    	connectionLock.lock();
+    	try {
+    		return resetCard();
+    	}
+    	finally {
+    		connectionLock.unlock();
+    	}
+    }
+
+    private byte[] resetCard() throws ApduConnectionException {
     	if (card != null) {
 	    	try {
 				card.disconnect(true);
@@ -293,6 +575,7 @@ public final class SmartcardIoConnection extends AbstractApduConnectionIso7816 {
 			}
     	}
     	card = null;
+    	OPEN_CONNECTIONS.remove(this);
         open();
         if (card != null) {
             return card.getATR().getBytes();
@@ -334,6 +617,16 @@ public final class SmartcardIoConnection extends AbstractApduConnectionIso7816 {
 
     @Override
     public void setTerminal(final int terminalN) {
+    	connectionLock.lock();
+    	try {
+    		setCardTerminal(terminalN);
+    	}
+    	finally {
+    		connectionLock.unlock();
+    	}
+    }
+
+    private void setCardTerminal(final int terminalN) {
         if (terminalNumber == terminalN) {
             return;
         }
@@ -351,6 +644,7 @@ public final class SmartcardIoConnection extends AbstractApduConnectionIso7816 {
             }
         }
         terminalNumber = terminalN;
+        terminalName = null;
         if (wasOpened) {
             try {
             	open();
@@ -363,6 +657,16 @@ public final class SmartcardIoConnection extends AbstractApduConnectionIso7816 {
 
     @Override
     public ResponseApdu internalTransmit(final byte[] command) throws ApduConnectionException {
+    	connectionLock.lock();
+    	try {
+    		return transmitToCard(command);
+    	}
+    	finally {
+    		connectionLock.unlock();
+    	}
+    }
+
+    private ResponseApdu transmitToCard(final byte[] command) throws ApduConnectionException {
 
         if (cardChannel == null) {
             throw new ApduConnectionException(
@@ -444,4 +748,79 @@ public final class SmartcardIoConnection extends AbstractApduConnectionIso7816 {
 	public int getMaxApduSize() {
 		return MAX_APDU_SIZE;
 	}
+
+	/** {@inheritDoc}
+	 * Se obtiene del propio lector mediante la propiedad <code>dwMaxAPDUDataSize</code>
+	 * de PC/SC v2 (parte 10). Si el lector no la proporciona, se asume que solo admite
+	 * APDU de longitud corta. */
+	@Override
+	public int getMaxResponseDataSize() {
+		if (maxResponseDataSize < 0) {
+			if (card == null) {
+				return super.getMaxResponseDataSize();
+			}
+			maxResponseDataSize = queryMaxApduDataSize(card);
+		}
+		return maxResponseDataSize;
+	}
+
+	/** Consulta al lector el tama&ntilde;o m&aacute;ximo de datos de APDU que admite.
+	 * @param c Tarjeta conectada al lector.
+	 * @return Tama&ntilde;o m&aacute;ximo de datos de APDU que admite el lector. */
+	private int queryMaxApduDataSize(final Card c) {
+		try {
+			final byte[] features = c.transmitControlCommand(
+				getControlCode(CM_IOCTL_GET_FEATURE_REQUEST),
+				new byte[0]
+			);
+			// Cada caracteristica es un TLV con el codigo de control en cuatro octetos big endian
+			int propertiesControlCode = -1;
+			for (int i = 0; i + 6 <= features.length; i += 2 + (features[i + 1] & 0xff)) {
+				if (features[i] == FEATURE_GET_TLV_PROPERTIES && features[i + 1] == 4) {
+					propertiesControlCode = (features[i + 2] & 0xff) << 24 |
+											(features[i + 3] & 0xff) << 16 |
+											(features[i + 4] & 0xff) << 8  |
+											 features[i + 5] & 0xff;
+				}
+			}
+			if (propertiesControlCode == -1) {
+				return super.getMaxResponseDataSize();
+			}
+			final byte[] properties = c.transmitControlCommand(propertiesControlCode, new byte[0]);
+			// Cada propiedad es un TLV con el valor en little endian
+			for (int i = 0; i + 2 <= properties.length; i += 2 + (properties[i + 1] & 0xff)) {
+				final int len = properties[i + 1] & 0xff;
+				if (properties[i] == PROPERTY_MAX_APDU_DATA_SIZE && i + 2 + len <= properties.length) {
+					int value = 0;
+					for (int j = len - 1; j >= 0; j--) {
+						value = value << 8 | properties[i + 2 + j] & 0xff;
+					}
+					// Un valor de cero indica que solo se admiten APDU cortas
+					if (value > MAX_SHORT_RESPONSE_DATA_SIZE) {
+						LOGGER.info(
+							"El lector admite APDU de longitud extendida de hasta " + value + " octetos de datos" //$NON-NLS-1$ //$NON-NLS-2$
+						);
+						return value;
+					}
+				}
+			}
+		}
+		catch (final Exception e) {
+			LOGGER.fine(
+				"No se ha podido obtener el tamano maximo de APDU del lector, se usaran APDU cortas: " + e //$NON-NLS-1$
+			);
+		}
+		return super.getMaxResponseDataSize();
+	}
+
+	/** Obtiene el c&oacute;digo de control PC/SC propio del sistema operativo.
+	 * @param code C&oacute;digo de control gen&eacute;rico.
+	 * @return C&oacute;digo de control para el sistema operativo actual. */
+	private static int getControlCode(final int code) {
+		final String osName = System.getProperty("os.name"); //$NON-NLS-1$
+		if (osName != null && osName.startsWith("Windows")) { //$NON-NLS-1$
+			return 0x31 << 16 | code << 2;
+		}
+		return 0x42000000 + code;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,343 @@
+package es.gob.jmulticard.jse.smartcardio;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.smartcardio.ATR;
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import es.gob.jmulticard.card.CardDiscovery;
+import es.gob.jmulticard.connection.CardConnectionEvent;
+import es.gob.jmulticard.connection.CardConnectionListener;
+
+/** Pruebas de la conexi&oacute;n JSR-268 con lectores simulados.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestSmartcardIoConnection {
+
+	private static final byte[] ATR_BYTES = {
+		0x3B, (byte) 0x7F, (byte) 0x96, 0x00, 0x00, 0x00, 0x6A, 0x44, 0x4E, 0x49, 0x65
+	};
+
+	private static final byte[] SELECT_MF = { 0x00, (byte) 0xA4, 0x00, 0x00, 0x02, 0x3F, 0x00 };
+
+	/** Comprueba que leer el ATR desde otra conexi&oacute;n (como hace el descubrimiento de
+	 * tarjetas) no cierra la sesi&oacute;n de la conexi&oacute;n que tiene abierta la tarjeta
+	 * del mismo lector.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testAtrDoesNotDisconnectOpenCard() throws Exception {
+		final SimulatedTerminal terminal = new SimulatedTerminal("Lector simulado"); //$NON-NLS-1$
+		final CardTerminals terminals = new SimulatedTerminals(terminal);
+
+		final SmartcardIoConnection owner = new SmartcardIoConnection(terminals);
+		owner.setTerminal(0);
+		owner.open();
+		try {
+			Assert.assertTrue(owner.internalTransmit(SELECT_MF).isOk());
+
+			final SmartcardIoConnection discovery = new SmartcardIoConnection(terminals);
+			Assert.assertArrayEquals(ATR_BYTES, discovery.getAtr(0));
+			Assert.assertArrayEquals(ATR_BYTES, CardDiscovery.readAtrs(discovery).get(Long.valueOf(0)));
+			Assert.assertFalse(discovery.isOpen());
+
+			// La sesion de la primera conexion sigue viva
+			Assert.assertTrue(terminal.card.connected);
+			Assert.assertTrue(owner.internalTransmit(SELECT_MF).isOk());
+		}
+		finally {
+			owner.close();
+		}
+		Assert.assertFalse(terminal.card.connected);
+	}
+
+	/** Comprueba que el ATR de un lector sin conexiones abiertas se lee conectando y
+	 * desconectando la tarjeta.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testAtrOfIdleTerminal() throws Exception {
+		final SimulatedTerminal terminal = new SimulatedTerminal("Lector simulado sin uso"); //$NON-NLS-1$
+		final SmartcardIoConnection conn = new SmartcardIoConnection(new SimulatedTerminals(terminal));
+		Assert.assertArrayEquals(ATR_BYTES, conn.getAtr(0));
+		Assert.assertEquals(1, terminal.connections);
+		Assert.assertFalse(terminal.card.connected);
+	}
+
+	/** Comprueba que los ATR de lectores distintos se leen en paralelo: cada lector simulado
+	 * espera dentro de <code>connect()</code> a que el otro tambi&eacute;n haya conectado su
+	 * tarjeta, lo que solo ocurre si las dos lecturas se solapan.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test(timeout = 30000)
+	public void testAtrReadsOverlapAcrossTerminals() throws Exception {
+		final CountDownLatch connecting = new CountDownLatch(2);
+		final SimulatedTerminal first = new SimulatedTerminal("Lector simulado 1", connecting); //$NON-NLS-1$
+		final SimulatedTerminal second = new SimulatedTerminal("Lector simulado 2", connecting); //$NON-NLS-1$
+		final CardTerminals terminals = new SimulatedTerminals(first, second);
+
+		final Map<Long, byte[]> atrs = CardDiscovery.readAtrs(new SmartcardIoConnection(terminals));
+		Assert.assertEquals(2, atrs.size());
+		Assert.assertArrayEquals(ATR_BYTES, atrs.get(Long.valueOf(0)));
+		Assert.assertArrayEquals(ATR_BYTES, atrs.get(Long.valueOf(1)));
+		Assert.assertTrue(first.overlapped);
+		Assert.assertTrue(second.overlapped);
+	}
+
+	/** Comprueba que las inserciones y extracciones de tarjeta se vigilan en los lectores de
+	 * la conexi&oacute;n, y no en los del sistema, y que al insertarse la tarjeta se reabre
+	 * la conexi&oacute;n que estaba abierta al extraerse.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test(timeout = 30000)
+	public void testPresenceMonitorUsesConnectionTerminals() throws Exception {
+		final SimulatedTerminal terminal = new SimulatedTerminal("Lector simulado vigilado"); //$NON-NLS-1$
+		final MonitoredTerminals terminals = new MonitoredTerminals(terminal);
+		final SmartcardIoConnection conn = new SmartcardIoConnection(terminals);
+		conn.setTerminal(0);
+		conn.open();
+
+		final CountDownLatch removed = new CountDownLatch(1);
+		final CountDownLatch inserted = new CountDownLatch(1);
+		final CardConnectionListener listener = new CardConnectionListener() {
+			@Override
+			public void cardInserted(final CardConnectionEvent cce) {
+				inserted.countDown();
+			}
+			@Override
+			public void cardRemoved(final CardConnectionEvent cce) {
+				removed.countDown();
+			}
+		};
+		conn.addCardConnectionListener(listener);
+		try {
+			terminals.changes.add(CardTerminals.State.CARD_REMOVAL);
+			removed.await();
+			Assert.assertFalse(conn.isOpen());
+
+			terminals.changes.add(CardTerminals.State.CARD_INSERTION);
+			inserted.await();
+			Assert.assertTrue(conn.isOpen());
+			Assert.assertTrue(conn.internalTransmit(SELECT_MF).isOk());
+		}
+		finally {
+			conn.removeCardConnectionListener(listener);
+			conn.close();
+		}
+	}
+
+	/** Lectores simulados en los que se pueden provocar cambios de tarjeta. */
+	private static final class MonitoredTerminals extends CardTerminals {
+
+		private final List<CardTerminal> terminals;
+
+		/** Cambios pendientes de notificar. */
+		final BlockingQueue<State> changes = new LinkedBlockingQueue<>();
+
+		/** &Uacute;ltimo cambio notificado. */
+		private volatile State lastChange = null;
+
+		MonitoredTerminals(final CardTerminal... t) {
+			terminals = Arrays.asList(t);
+		}
+
+		@Override
+		public List<CardTerminal> list(final State state) {
+			if (state == State.CARD_INSERTION || state == State.CARD_REMOVAL) {
+				return state == lastChange ? terminals : Collections.<CardTerminal>emptyList();
+			}
+			return terminals;
+		}
+
+		@Override
+		public boolean waitForChange(final long timeout) throws CardException {
+			try {
+				lastChange = changes.poll(timeout, TimeUnit.MILLISECONDS);
+			}
+			catch (final InterruptedException e) {
+				throw new CardException(e);
+			}
+			return lastChange != null;
+		}
+	}
+
+	/** Lectores simulados. */
+	private static final class SimulatedTerminals extends CardTerminals {
+
+		private final List<CardTerminal> terminals;
+
+		SimulatedTerminals(final CardTerminal... t) {
+			terminals = Arrays.asList(t);
+		}
+
+		@Override
+		public List<CardTerminal> list(final State state) {
+			return terminals;
+		}
+
+		@Override
+		public boolean waitForChange(final long timeout) {
+			return false;
+		}
+	}
+
+	/** Lector simulado que, como el de SmartCard I/O, devuelve siempre el mismo objeto de
+	 * tarjeta a todas las conexiones, y al desconectarlo lo cierra para todas ellas. */
+	private static final class SimulatedTerminal extends CardTerminal {
+
+		private final String name;
+
+		final SimulatedCard card = new SimulatedCard();
+
+		volatile int connections = 0;
+
+		/** Conexiones de todos los lectores que deben coincidir en <code>connect()</code>,
+		 * o <code>null</code> si no se comprueba. */
+		private final CountDownLatch connecting;
+
+		/** Indica si la conexi&oacute;n de la tarjeta ha coincidido con la de los dem&aacute;s lectores. */
+		volatile boolean overlapped = false;
+
+		SimulatedTerminal(final String terminalName) {
+			this(terminalName, null);
+		}
+
+		SimulatedTerminal(final String terminalName, final CountDownLatch concurrentConnections) {
+			name = terminalName;
+			connecting = concurrentConnections;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public Card connect(final String protocol) throws CardException {
+			connections++;
+			if (connecting != null) {
+				connecting.countDown();
+				try {
+					overlapped = connecting.await(5, TimeUnit.SECONDS);
+				}
+				catch (final InterruptedException e) {
+					throw new CardException(e);
+				}
+			}
+			card.connected = true;
+			return card;
+		}
+
+		@Override
+		public boolean isCardPresent() {
+			return true;
+		}
+
+		@Override
+		public boolean waitForCardPresent(final long timeout) {
+			return true;
+		}
+
+		@Override
+		public boolean waitForCardAbsent(final long timeout) {
+			return false;
+		}
+	}
+
+	/** Tarjeta simulada que responde <code>90 00</code> a todo. */
+	private static final class SimulatedCard extends Card {
+
+		volatile boolean connected = false;
+
+		private final CardChannel channel = new CardChannel() {
+
+			@Override
+			public Card getCard() {
+				return SimulatedCard.this;
+			}
+
+			@Override
+			public int getChannelNumber() {
+				return 0;
+			}
+
+			@Override
+			public ResponseAPDU transmit(final CommandAPDU command) throws CardException {
+				if (!connected) {
+					throw new CardException("La tarjeta esta desconectada"); //$NON-NLS-1$
+				}
+				return new ResponseAPDU(new byte[] { (byte) 0x90, 0x00 });
+			}
+
+			@Override
+			public int transmit(final ByteBuffer command, final ByteBuffer response) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public void close() {
+				// Canal basico
+			}
+		};
+
+		SimulatedCard() {
+			// Solo para las pruebas
+		}
+
+		@Override
+		public ATR getATR() {
+			return new ATR(ATR_BYTES);
+		}
+
+		@Override
+		public String getProtocol() {
+			return "T=1"; //$NON-NLS-1$
+		}
+
+		@Override
+		public CardChannel getBasicChannel() {
+			return channel;
+		}
+
+		@Override
+		public CardChannel openLogicalChannel() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void beginExclusive() {
+			// No se simula el modo exclusivo
+		}
+
+		@Override
+		public void endExclusive() {
+			// No se simula el modo exclusivo
+		}
+
+		@Override
+		public byte[] transmitControlCommand(final int controlCode, final byte[] command) throws CardException {
+			throw new CardException("No se simulan los comandos de control"); //$NON-NLS-1$
+		}
+
+		@Override
+		public void disconnect(final boolean reset) {
+			connected = false;
+		}
+	}
+}
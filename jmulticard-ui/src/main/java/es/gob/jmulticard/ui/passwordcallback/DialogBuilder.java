@@ -40,6 +40,7 @@
 package es.gob.jmulticard.ui.passwordcallback;
 
 import java.io.Console;
+import java.text.MessageFormat;
 import java.util.Locale;
 import java.util.logging.Logger;
 
@@ -76,7 +77,7 @@ public final class DialogBuilder {
             	final int i = ConfirmSmartcardDialog.showConfirmDialog(
             		 PasswordCallbackManager.getDialogOwner(),
                      true,
-                     Messages.getString("CustomDialog.confirmDialog.prompt"), //$NON-NLS-1$
+                     getConfirmPrompt(callBack),
 	                 Messages.getString("CustomDialog.confirmDialog.title"), //$NON-NLS-1$
 	                 JOptionPane.YES_NO_OPTION,
 	                 "/images/dnie.png" //$NON-NLS-1$
@@ -94,8 +95,22 @@ public final class DialogBuilder {
         }
     }
 
+    /** Obtiene el texto de confirmaci&oacute;n de firma, indicando el n&uacute;mero de firmas
+     * si se autoriza un lote.
+     * @param callBack <i>Callback</i> que obtiene la confirmaci&oacute;n del usuario.
+     * @return Texto de confirmaci&oacute;n de firma. */
+    private static String getConfirmPrompt(final CustomAuthorizeCallback callBack) {
+    	if (callBack.getSignatureCount() > 1) {
+    		return MessageFormat.format(
+				Messages.getString("CustomDialog.confirmDialog.batchPrompt"), //$NON-NLS-1$
+				Integer.valueOf(callBack.getSignatureCount())
+			);
+    	}
+    	return Messages.getString("CustomDialog.confirmDialog.prompt"); //$NON-NLS-1$
+    }
+
     private static int getConsoleConfirm(final Console console, final CustomAuthorizeCallback callBack) {
-        console.printf(Messages.getString("CustomDialog.confirmDialog.prompt")); //$NON-NLS-1$
+        console.printf(getConfirmPrompt(callBack));
         final String confirm = console.readLine().replace("\n", "").replace("\r", "").trim().toLowerCase(Locale.getDefault()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
         if ("si".equals(confirm) //$NON-NLS-1$
                 || "s".equals(confirm) //$NON-NLS-1$
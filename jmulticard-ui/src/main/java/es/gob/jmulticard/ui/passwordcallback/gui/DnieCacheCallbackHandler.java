@@ -3,6 +3,7 @@ package es.gob.jmulticard.ui.passwordcallback.gui;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Timer;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 import java.util.prefs.Preferences;
 
@@ -29,6 +30,11 @@ public final class DnieCacheCallbackHandler implements CallbackHandler, CacheEle
 
 	private static final String PREFERENCE_KEY_USE_CACHE = "useCacheDni"; //$NON-NLS-1$
 
+	/** Cerrojo de la cach&eacute; de este manejador. Se usa un <code>ReentrantLock</code> propio
+	 * (y no un objeto compartido por todos los manejadores) para que la petici&oacute;n de PIN
+	 * de una tarjeta no bloquee a las dem&aacute;s ni a los hilos portadores de hilos virtuales. */
+	private final ReentrantLock cacheLock = new ReentrantLock();
+
 	private transient char[] cachedPassword = null;
 
 	private transient boolean confirmed = false;
@@ -67,15 +73,23 @@ public final class DnieCacheCallbackHandler implements CallbackHandler, CacheEle
 						}
 					}
 					else if (cb instanceof CustomAuthorizeCallback) {
-						if (!this.confirmed) {
+						// Los lotes de firmas se confirman siempre de forma expresa, indicando
+						// el numero de firmas, y su confirmacion no se recuerda
+						if (((CustomAuthorizeCallback) cb).getSignatureCount() > 1) {
 							DialogBuilder.showSignatureConfirmDialog((CustomAuthorizeCallback) cb);
-							this.confirmed = ((CustomAuthorizeCallback) cb).isAuthorized();
 						}
-						((CustomAuthorizeCallback) cb).setAuthorized(this.confirmed);
+						else {
+							if (!this.confirmed) {
+								DialogBuilder.showSignatureConfirmDialog((CustomAuthorizeCallback) cb);
+								this.confirmed = ((CustomAuthorizeCallback) cb).isAuthorized();
+							}
+							((CustomAuthorizeCallback) cb).setAuthorized(this.confirmed);
+						}
 					}
 					else if (cb instanceof PasswordCallback) {
 
-						synchronized (LOGGER) {
+						cacheLock.lock();
+						try {
 							final char[] pin;
 							if (this.cachedPassword == null) {
 
@@ -109,6 +123,9 @@ public final class DnieCacheCallbackHandler implements CallbackHandler, CacheEle
 							}
 							((PasswordCallback)cb).setPassword(pin);
 						}
+						finally {
+							cacheLock.unlock();
+						}
 
 						// Si no se ha hecho ya, programamos una tarea para el borrado de la
 						// contrasena cacheada para que se ejecute en un tiempo determinado
@@ -133,10 +150,14 @@ public final class DnieCacheCallbackHandler implements CallbackHandler, CacheEle
 
 		LOGGER.info("Eliminamos de cache la contrasena de la tarjeta"); //$NON-NLS-1$
 
-		synchronized (LOGGER) {
+		cacheLock.lock();
+		try {
 			this.cachedPassword = null;
 			this.confirmed = false;
 		}
+		finally {
+			cacheLock.unlock();
+		}
 
 		if (this.timer != null) {
 			this.timer.cancel();
@@ -1,6 +1,7 @@
 package es.gob.jmulticard.ui.passwordcallback.gui;
 
 import java.util.Timer;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 import java.util.prefs.Preferences;
 
@@ -25,6 +26,9 @@ public final class SmartcardCacheCallbackHandler implements CallbackHandler, Cac
 
 	private static final String PREFERENCE_KEY_USE_CACHE = "useCacheCeres"; //$NON-NLS-1$
 
+	/** Cerrojo de la cach&eacute; de este manejador (ver <code>DnieCacheCallbackHandler</code>). */
+	private final ReentrantLock cacheLock = new ReentrantLock();
+
 	private transient char[] cachedPassword = null;
 
 	private transient Timer timer = null;
@@ -38,7 +42,8 @@ public final class SmartcardCacheCallbackHandler implements CallbackHandler, Cac
 					if (!(cb instanceof PasswordCallback)) {
 						throw new UnsupportedCallbackException(cb);
 					}
-					synchronized (LOGGER) {
+					cacheLock.lock();
+					try {
 						char[] pin;
 						if (this.cachedPassword == null) {
 
@@ -72,6 +77,9 @@ public final class SmartcardCacheCallbackHandler implements CallbackHandler, Cac
 						}
 						((PasswordCallback)cb).setPassword(pin);
 					}
+					finally {
+						cacheLock.unlock();
+					}
 
 					 // Si no se ha hecho ya, programamos una tarea para el borrado de la contrasena cacheada para
 					// que se ejecute en un tiempo determinado
@@ -92,9 +100,13 @@ public final class SmartcardCacheCallbackHandler implements CallbackHandler, Cac
 
 		LOGGER.info("Eliminamos de cache la contrasena de la tarjeta"); //$NON-NLS-1$
 
-		synchronized (LOGGER) {
+		cacheLock.lock();
+		try {
 			this.cachedPassword = null;
 		}
+		finally {
+			cacheLock.unlock();
+		}
 
 		if (this.timer != null) {
 			this.timer.cancel();
@@ -55,12 +55,18 @@ import java.security.interfaces.RSAPublicKey;
 import java.security.spec.AlgorithmParameterSpec;
 import java.util.logging.Logger;
 
+import es.gob.jmulticard.apdu.iso7816four.pace.MseSetPaceAlgorithmApduCommand.PaceAlgorithmOid;
+import es.gob.jmulticard.apdu.iso7816four.pace.MseSetPaceAlgorithmApduCommand.PaceAlgorithmParam;
 import es.gob.jmulticard.asn1.Tlv;
 import es.gob.jmulticard.asn1.TlvException;
+import es.gob.jmulticard.asn1.icao.PaceInfo;
 import es.gob.jmulticard.card.icao.IcaoException;
 import es.gob.jmulticard.card.icao.WirelessInitializer;
 import es.gob.jmulticard.connection.ApduConnection;
 import es.gob.jmulticard.connection.ApduConnectionException;
+import es.gob.jmulticard.connection.pace.ChipAuthenticationMappingData;
+import es.gob.jmulticard.connection.pace.PaceConnection;
+import es.gob.jmulticard.connection.pace.PaceException;
 import es.gob.jmulticard.de.tsenger.androsmex.iso7816.SecureMessaging;
 
 /** Funcionalidades criptogr&aacute;ficas de utilidad que pueden variar entre
@@ -221,6 +227,50 @@ public abstract class CryptoHelper {
      *                     digital. */
     public abstract byte[] digest(DigestAlgorithm algorithm, byte[] data) throws IOException;
 
+    /** Huella digital que se calcula por partes, a medida que se dispone de los datos. */
+    public interface IncrementalDigest {
+
+    	/** A&ntilde;ade datos a la huella.
+    	 * @param data Datos de entrada.
+    	 * @param off Posici&oacute;n de los datos a a&ntilde;adir.
+    	 * @param len N&uacute;mero de octetos a a&ntilde;adir. */
+    	void update(byte[] data, int off, int len);
+
+    	/** Termina el c&aacute;lculo de la huella.
+    	 * @return Huella digital de todos los datos a&ntilde;adidos.
+    	 * @throws IOException Si ocurre alg&uacute;n problema generando la huella
+    	 *                     digital. */
+    	byte[] digest() throws IOException;
+    }
+
+    /** Obtiene una huella digital que se calcula por partes.
+     * La implementaci&oacute;n por defecto acumula los datos y calcula la huella al final
+     * con <code>digest(DigestAlgorithm, byte[])</code>, por lo que las implementaciones
+     * que puedan calcularla realmente por partes deben sobrescribir este m&eacute;todo.
+     * @param algorithm Algoritmo de huella digital que debe utilizarse.
+     * @return Huella digital vac&iacute;a, a la que a&ntilde;adir los datos. */
+    public IncrementalDigest getIncrementalDigest(final DigestAlgorithm algorithm) {
+        if (algorithm == null) {
+            throw new IllegalArgumentException(
+        		"El algoritmo de huella digital no puede ser nulo" //$NON-NLS-1$
+    		);
+        }
+    	return new IncrementalDigest() {
+
+    		private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+			@Override
+			public void update(final byte[] in, final int off, final int len) {
+				data.write(in, off, len);
+			}
+
+			@Override
+			public byte[] digest() throws IOException {
+				return CryptoHelper.this.digest(algorithm, data.toByteArray());
+			}
+		};
+    }
+
     /** Encripta datos mediante Triple DES (modo CBC sin relleno) y con una
      * semilla (IV) de 8 bytes establecidos a cero.
      * Si se le indica una clave de 24 bytes, la utilizar&aacute;a tal cual.
@@ -336,6 +386,92 @@ public abstract class CryptoHelper {
 	public abstract byte[] doAesCmac(byte[] data, byte[] key) throws NoSuchAlgorithmException,
 	                                                                 InvalidKeyException;
 
+	/** Realiza un CMAC con AES sobre la concatenaci&oacute;n de un prefijo (normalmente el
+	 * contador de secuencia del canal seguro) y unos datos.
+	 * Las implementaciones pueden sobrescribir este m&eacute;todo para evitar la copia
+	 * intermedia de la concatenaci&oacute;n.
+	 * @param prefix Datos que preceden a los datos principales.
+	 * @param data Datos (la concatenaci&oacute;n debe estar ya con el relleno adecuado).
+	 * @param key Clave AES.
+	 * @return CMAC.
+	 * @throws NoSuchAlgorithmException Si no se encuentra un proveedor que permita realizar
+	 *                                  CMAC con AES.
+	 * @throws InvalidKeyException Si la clave proporcionada no es una clave AES v&aacute;lida. */
+	public byte[] doAesCmac(final byte[] prefix,
+			                final byte[] data,
+			                final byte[] key) throws NoSuchAlgorithmException,
+	                                                 InvalidKeyException {
+		return doAesCmac(HexUtils.concatenateByteArrays(prefix, data), key);
+	}
+
+	/** Calcula un MAC ISO 9797-1 seg&uacute;n el algoritmo 3 (<i>Retail MAC</i>) con DES,
+	 * tal y como se usa en los canales seguros CWA-14890: el contador de secuencia se procesa
+	 * como primer bloque, los bloques intermedios se encadenan con DES simple usando la primera
+	 * mitad de la clave y el &uacute;ltimo bloque se cifra con Triple DES.
+	 * Las implementaciones pueden sobrescribir este m&eacute;todo para reutilizar la clave ya
+	 * preparada durante toda la sesi&oacute;n y evitar la creaci&oacute;n de objetos por bloque.
+	 * @param ssc Contador de secuencia (8 octetos).
+	 * @param dataPadded Datos con relleno (longitud m&uacute;ltiplo de 8).
+	 * @param kMac Clave Triple DES de 16 octetos (o m&aacute;s, de los que solo se usan los 16 primeros).
+	 * @return MAC de 8 octetos.
+	 * @throws IOException Si ocurre alg&uacute;n problema durante el c&aacute;lculo. */
+	public byte[] desRetailMac(final byte[] ssc,
+			                   final byte[] dataPadded,
+			                   final byte[] kMac) throws IOException {
+		if (dataPadded == null || dataPadded.length == 0 || dataPadded.length % 8 != 0) {
+			throw new IllegalArgumentException(
+				"Los datos del MAC deben tener una longitud multiplo de 8" //$NON-NLS-1$
+			);
+		}
+		if (kMac == null || kMac.length < 16) {
+			throw new IllegalArgumentException(
+				"La clave del MAC debe tener al menos 16 octetos" //$NON-NLS-1$
+			);
+		}
+		final byte[] keyDesBytes = new byte[8];
+		System.arraycopy(kMac, 0, keyDesBytes, 0, 8);
+
+		byte[] tmpData = desEncrypt(ssc, keyDesBytes);
+
+		int i = 0;
+		while (i < dataPadded.length - 8) {
+			tmpData = desEncrypt(
+				HexUtils.xor(tmpData, HexUtils.subArray(dataPadded, i, 8)),
+				keyDesBytes
+			);
+			i += 8;
+		}
+
+		final byte[] keyTdesBytes = new byte[24];
+		System.arraycopy(kMac, 0, keyTdesBytes, 0, 16);
+		System.arraycopy(kMac, 0, keyTdesBytes, 16, 8);
+
+		return desedeEncrypt(
+			HexUtils.xor(
+				tmpData,
+				HexUtils.subArray(dataPadded, i, 8)
+			),
+			keyTdesBytes
+		);
+	}
+
+	/** Obtiene un manejador de operaciones criptogr&aacute;ficas para el uso exclusivo de un
+	 * canal seguro, que puede conservar preparadas entre operaciones las claves de sesi&oacute;n
+	 * del canal. El canal es el propietario del manejador y debe llamar a
+	 * {@link #wipeSessionKeys()} al cerrarse, de forma que las claves no permanezcan en memoria
+	 * ni se compartan con los canales de otras tarjetas que usen este mismo manejador.
+	 * Por defecto se devuelve este mismo manejador, que no conserva claves entre operaciones.
+	 * @return Manejador para el canal seguro. */
+	public CryptoHelper newSecureChannelHelper() {
+		return this;
+	}
+
+	/** Borra de memoria las claves de sesi&oacute;n que conserve este manejador.
+	 * Por defecto no hace nada, ya que el manejador no conserva claves entre operaciones. */
+	public void wipeSessionKeys() {
+		// Vacio por defecto
+	}
+
 	/** Obtiene un punto en una curva el&iacute;ptica.
 	 * @param nonceS Aleatorio de un solo uso.
 	 * @param sharedSecretH Secreto compartido.
@@ -437,6 +573,10 @@ public abstract class CryptoHelper {
 		 * dentro de un comando <i>General Autenticate</i>. */
 		protected static final byte TAG_GEN_AUTH_4 = (byte) 0x85;
 
+		/** Etiqueta de los datos cifrados de autenticaci&oacute;n de chip (PACE-CAM) en la
+		 * respuesta al cuarto comando <i>General Autenticate</i>. */
+		protected static final byte TAG_ENCRYPTED_CHIP_AUTHENTICATION_DATA = (byte) 0x8A;
+
 		/** Utilidad para operaciones criptogr&aacute;ficas. */
 		protected transient final CryptoHelper cryptoHelper;
 
@@ -459,6 +599,52 @@ public abstract class CryptoHelper {
 				                                        ApduConnection conn) throws ApduConnectionException,
 				                                                                    IcaoException;
 
+		/** Indica si se soporta un algoritmo PACE con unos par&aacute;metros de dominio.
+		 * Por defecto solo se soporta la correspondencia gen&eacute;rica ECDH sobre
+		 * <i>brainpoolP256r1</i>, que es la que usa <code>openPaceChannel(byte, WirelessInitializer, ApduConnection)</code>.
+		 * @param paceInfo Algoritmo PACE y par&aacute;metros de dominio.
+		 * @return <code>true</code> si se puede abrir un canal PACE con ese algoritmo. */
+		public boolean isSupported(final PaceInfo paceInfo) {
+			return paceInfo != null &&
+				paceInfo.getAlgorithm() == PaceAlgorithmOid.PACE_ECDH_GM_AES_CBC_CMAC_128 &&
+					paceInfo.getParameter() == PaceAlgorithmParam.BRAINPOOL_256_R1;
+		}
+
+		/** Abre un canal PACE con un algoritmo concreto, normalmente el mejor de los que la tarjeta
+		 * anuncia en su EF&#46;CardAccess.
+		 * Con PACE-CAM la conexi&oacute;n devuelta incluye los datos de autenticaci&oacute;n de chip,
+		 * que se comprueban con <code>verifyChipAuthenticationMapping()</code>.
+		 * @param cla Clase de APDU para los comandos de establecimiento de canal.
+		 * @param paceInfo Algoritmo PACE y par&aacute;metros de dominio.
+		 * @param pi Valor de inicializaci&oacute;n del canal (CAN o MRZ).
+		 * @param conn Conexi&oacute;n hacia la tarjeta inteligente.
+		 * @return Conexi&oacute;n PACE abierta sobre <code>conn</code>.
+		 * @throws ApduConnectionException Si hay problemas de conexi&oacute;n con la tarjeta.
+		 * @throws IcaoException Si hay problemas en la apertura del canal o el algoritmo no se soporta. */
+		public PaceConnection openPaceConnection(final byte cla,
+				                                 final PaceInfo paceInfo,
+				                                 final WirelessInitializer pi,
+				                                 final ApduConnection conn) throws ApduConnectionException,
+				                                                                   IcaoException {
+			if (!isSupported(paceInfo)) {
+				throw new PaceException("Algoritmo PACE no soportado: " + paceInfo); //$NON-NLS-1$
+			}
+			return new PaceConnection(conn, cryptoHelper, openPaceChannel(cla, pi, conn), paceInfo, null);
+		}
+
+		/** Comprueba la autenticaci&oacute;n de chip de un canal PACE-CAM, es decir, que la clave
+		 * p&uacute;blica de la correspondencia es <code>CA<sub>IC</sub>&middot;PK<sub>IC</sub></code>.
+		 * @param camData Datos de autenticaci&oacute;n de chip obtenidos al abrir el canal.
+		 * @param chipAuthenticationPublicKey Punto de la clave p&uacute;blica de autenticaci&oacute;n
+		 *                                    de chip (<code>PK<sub>IC</sub></code>), del DG14 o del
+		 *                                    EF&#46;CardSecurity.
+		 * @return <code>true</code> si el chip queda autenticado. Por defecto no se soporta PACE-CAM,
+		 *         por lo que nunca se autentica el chip y se devuelve <code>false</code>. */
+		public boolean verifyChipAuthenticationMapping(final ChipAuthenticationMappingData camData,
+				                                       final byte[] chipAuthenticationPublicKey) {
+			return false;
+		}
+
 		/** Obtiene la representaci&oacute;n de un <code>BigInteger</code> como un
 		 * array de octetos.
 		 * @param bi <code>BigInteger</code> a convertir.
@@ -45,6 +45,9 @@ import java.io.ByteArrayOutputStream;
  * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
 public class CommandApdu extends Apdu {
 
+	/** Mayor Ne que puede codificarse en un Le de longitud corta (un Le de <code>00</code> indica 256). */
+	private static final int MAX_SHORT_LE = 0x100;
+
 	private final byte cla;
 	private final byte ins;
 	private final byte p1;
@@ -114,6 +117,9 @@ public class CommandApdu extends Apdu {
 			           final Integer ne) {
 		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
 
+		// Un Ne de mas de 256 octetos obliga a usar la codificacion de longitud extendida
+		final boolean extendedLe = ne != null && ne.intValue() > MAX_SHORT_LE;
+
 		cla = apduCla;
 		baos.write(apduCla);
 
@@ -134,7 +140,7 @@ public class CommandApdu extends Apdu {
 			System.arraycopy(data, 0, body, 0, data.length);
 
 			// Caso 4s: |CLA|INS|P1 |P2 |LC |...BODY...|LE |              len = 7..261
-			if (data.length <= 255) {
+			if (data.length <= 255 && !extendedLe) {
 				baos.write(Integer.valueOf(String.valueOf(body.length)).byteValue());
 			}
 			// Caso 3e: |CLA|INS|P1 |P2 |00 |LC1|LC2|...BODY...|          len = 8..65542
@@ -158,10 +164,16 @@ public class CommandApdu extends Apdu {
 
 		le = ne;
 		if (ne != null) {
-			if (ne.intValue() <= 0xff) {
+			if (!extendedLe) {
 				baos.write(ne.byteValue());
 			}
 			else {
+				// Caso 2e: |CLA|INS|P1 |P2 |00 |LE1|LE2|                     len = 7
+				// Caso 4e: |CLA|INS|P1 |P2 |00 |LC1|LC2|...BODY...|LE1|LE2|  len = 10..65544
+				// Un Ne de 65536 se codifica como 00 00
+				if (data == null) {
+					baos.write((byte) 0x00);
+				}
 				baos.write((byte) (ne.intValue() >> 8));
 				baos.write((byte) (ne.intValue() & 0xff));
 			}
@@ -30,6 +30,26 @@ public class MseSetPaceAlgorithmApduCommand extends MseSetAuthenticationTemplate
 		public byte[] getBytes() {
 			return paramBytes.clone();
 		}
+
+		/** Obtiene el identificador de los par&aacute;metros de dominio estandarizados
+		 * (<i>parameterId</i> de un <code>PACEInfo</code>).
+		 * @return Identificador de los par&aacute;metros de dominio. */
+		public int getParameterId() {
+			return paramBytes[2] & 0xff;
+		}
+
+		/** Obtiene el par&aacute;metro correspondiente a un identificador de par&aacute;metros
+		 * de dominio estandarizados.
+		 * @param parameterId Identificador de los par&aacute;metros de dominio.
+		 * @return Par&aacute;metro o <code>null</code> si no hay ninguno con ese identificador. */
+		public static PaceAlgorithmParam getPaceAlgorithmParam(final int parameterId) {
+			for (final PaceAlgorithmParam param : values()) {
+				if (param.getParameterId() == parameterId) {
+					return param;
+				}
+			}
+			return null;
+		}
 	}
 
 	/** Tipo de contrase&ntilde;a que se va a usar para establecer el canal PACE. */
@@ -78,6 +98,7 @@ public class MseSetPaceAlgorithmApduCommand extends MseSetAuthenticationTemplate
 	 *           <li>2 (id_PACE_ECDH_GM)</li>
 	 *           <li>3 (id_PACE_DH_IM)</li>
 	 *           <lI>4 (id_PACE_ECDH_IM)</li>
+	 *           <li>6 (id_PACE_ECDH_CAM)</li>
 	 *         </ul>
 	 *       </li>
 	 *     </ul>
@@ -103,6 +124,28 @@ public class MseSetPaceAlgorithmApduCommand extends MseSetAuthenticationTemplate
 				/* V */ (byte) 0x04, (byte) 0x00, (byte) 0x7f, (byte) 0x00, (byte) 0x07,
 				        (byte) 0x02, (byte) 0x02, (byte) 0x04, (byte) 0x01, (byte) 0x02
 			}
+		),
+
+		/** id_PACE_ECDH_IM_AES_CBC_CMAC_128 (OID 0.4.0.127.0.7.2.2.4.4.2).
+		 * PACE con correspondencia integrada (<i>Integrated Mapping</i>). */
+		PACE_ECDH_IM_AES_CBC_CMAC_128(
+			new byte[] {
+				/* T */
+				/* L */ (byte) 0x0A,
+				/* V */ (byte) 0x04, (byte) 0x00, (byte) 0x7f, (byte) 0x00, (byte) 0x07,
+				        (byte) 0x02, (byte) 0x02, (byte) 0x04, (byte) 0x04, (byte) 0x02
+			}
+		),
+
+		/** id_PACE_ECDH_CAM_AES_CBC_CMAC_128 (OID 0.4.0.127.0.7.2.2.4.6.2).
+		 * PACE con correspondencia de autenticaci&oacute;n de chip (<i>Chip Authentication Mapping</i>). */
+		PACE_ECDH_CAM_AES_CBC_CMAC_128(
+			new byte[] {
+				/* T */
+				/* L */ (byte) 0x0A,
+				/* V */ (byte) 0x04, (byte) 0x00, (byte) 0x7f, (byte) 0x00, (byte) 0x07,
+				        (byte) 0x02, (byte) 0x02, (byte) 0x04, (byte) 0x06, (byte) 0x02
+			}
 		);
 
 		private final byte[] oidBytes;
@@ -116,6 +159,22 @@ public class MseSetPaceAlgorithmApduCommand extends MseSetAuthenticationTemplate
 		public byte[] getBytes() {
 			return oidBytes.clone();
 		}
+
+		/** Obtiene el algoritmo correspondiente a un OID.
+		 * @param oid Valor del OID codificado en DER (sin etiqueta ni longitud).
+		 * @return Algoritmo o <code>null</code> si no hay ninguno con ese OID. */
+		public static PaceAlgorithmOid getPaceAlgorithmOid(final byte[] oid) {
+			if (oid == null) {
+				return null;
+			}
+			for (final PaceAlgorithmOid algorithm : values()) {
+				if (oid.length == algorithm.oidBytes.length - 1 &&
+					HexUtils.arrayEquals(oid, 0, oid.length, algorithm.oidBytes, 1, oid.length)) {
+						return algorithm;
+				}
+			}
+			return null;
+		}
 	}
 
 	/** Crea una APDU de establecmiento de algoritmo para PACE.
@@ -39,6 +39,8 @@
  */
 package es.gob.jmulticard.asn1;
 
+import java.util.Arrays;
+
 import es.gob.jmulticard.HexUtils;
 
 /** Objeto ASN&#46;1 gen&eacute;rico.
@@ -46,14 +48,47 @@ import es.gob.jmulticard.HexUtils;
  * @author Alberto Mart&iacute;nez. */
 public abstract class DecoderObject {
 
+	/** Memoria que contiene el valor directo ASN&#46;1 DER. Puede estar compartida con el
+	 * objeto que contiene a este (y con el resto de sus elementos), por lo que nunca se modifica. */
     private transient byte[] rawDerValue = null;
 
+    /** Posici&oacute;n de inicio del valor directo ASN&#46;1 DER en <code>rawDerValue</code>. */
+    private transient int rawDerOffset = 0;
+
+    /** Longitud del valor directo ASN&#46;1 DER. */
+    private transient int rawDerLength = 0;
+
 	/** Obtiene el valor directo ASN&#46;1 DER.
 	 * @return Valor directo ASN&#46;1 DER. */
 	protected byte[] getRawDerValue() {
-		final byte[] out = new byte[this.rawDerValue.length];
-		System.arraycopy(this.rawDerValue, 0, out, 0, this.rawDerValue.length);
-		return out;
+		return Arrays.copyOfRange(this.rawDerValue, this.rawDerOffset, this.rawDerOffset + this.rawDerLength);
+	}
+
+	/** Obtiene la longitud del valor directo ASN&#46;1 DER, sin copiarlo.
+	 * @return Longitud del valor directo ASN&#46;1 DER. */
+	protected int getRawDerLength() {
+		return this.rawDerLength;
+	}
+
+	/** Obtiene el TLV que comienza en la posici&oacute;n indicada del valor directo ASN&#46;1 DER,
+	 * sin copiar los datos.
+	 * @param offset Posici&oacute;n del TLV dentro del valor directo ASN&#46;1 DER.
+	 * @return TLV que comparte la memoria del valor de este objeto.
+	 * @throws TlvException Si no hay un TLV v&aacute;lido en la posici&oacute;n indicada. */
+	protected Tlv getRawDerTlv(final int offset) throws TlvException {
+		if (offset < 0 || offset >= this.rawDerLength) {
+			throw new TlvException(
+				"No hay ningun TLV en la posicion " + offset + " de un valor de " + this.rawDerLength + " octetos" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			);
+		}
+		return Tlv.createView(this.rawDerValue, this.rawDerOffset + offset, this.rawDerOffset + this.rawDerLength);
+	}
+
+	/** Obtiene el TLV del valor directo ASN&#46;1 DER, sin copiar los datos.
+	 * @return TLV que comparte la memoria del valor de este objeto.
+	 * @throws TlvException Si el valor no es un TLV v&aacute;lido. */
+	protected Tlv getRawDerTlv() throws TlvException {
+		return getRawDerTlv(0);
 	}
 
     /** Establece el valor (en codificaci&oacute;n DER) del objeto ASN&#46;1.
@@ -64,17 +99,31 @@ public abstract class DecoderObject {
         if (value == null) {
             throw new IllegalArgumentException("El valor del objeto ASN.1 no puede ser nulo"); //$NON-NLS-1$
         }
-        this.rawDerValue = new byte[value.length];
-        System.arraycopy(value, 0, this.rawDerValue, 0, value.length);
+        this.rawDerValue = value.clone();
+        this.rawDerOffset = 0;
+        this.rawDerLength = value.length;
+        decodeValue();
+    }
+
+    /** Establece el valor del objeto ASN&#46;1 a partir de un TLV ya analizado (normalmente un
+     * elemento de un objeto compuesto), sin copiar los datos: el objeto comparte la memoria del TLV.
+     * @param tlv TLV con el valor (en codificaci&oacute;n DER) del objeto ASN&#46;1.
+     * @throws Asn1Exception Si no se puede decodificar adecuadamente el valor establecido.
+     * @throws TlvException Si hay errores relativos a los TLV DER al decodificar los datos de entrada. */
+    public void setDerTlv(final Tlv tlv) throws Asn1Exception, TlvException {
+        if (tlv == null) {
+            throw new IllegalArgumentException("El TLV del objeto ASN.1 no puede ser nulo"); //$NON-NLS-1$
+        }
+        this.rawDerValue = tlv.getBuffer();
+        this.rawDerOffset = tlv.getStart();
+        this.rawDerLength = tlv.getTotalLength();
         decodeValue();
     }
 
     /** Obtiene el valor binario del objeto ASN&#46;1.
      * @return Valor binario del objeto ASN&#46;1. */
     public byte[] getBytes() {
-        final byte[] out = new byte[this.rawDerValue.length];
-        System.arraycopy(this.rawDerValue, 0, out, 0, this.rawDerValue.length);
-        return out;
+        return getRawDerValue();
     }
 
     /** Decodifica el valor DER establecido comprobando que corresponde al esperado y formando las
@@ -87,11 +136,20 @@ public abstract class DecoderObject {
      * @return Etiqueta de tipo ASN&#46;1 del objeto. */
     protected abstract byte getDefaultTag();
 
+    /** Indica si el tipo proporcionado es compatible con el del objeto ASN&#46;1, sin lanzar
+     * excepciones. Permite descartar elementos opcionales de un objeto compuesto sin instanciarlos.
+     * @param tag Etiqueta de tipo a comprobar.
+     * @return <code>true</code> si las etiquetas de tipo son compatibles,
+     *         <code>false</code> en caso contrario. */
+    public boolean isCompatibleTag(final byte tag) {
+        return getDefaultTag() == tag;
+    }
+
     /** Comprueba que el tipo proporcionado sea compatible con el del objeto ASN&#46;1.
      * @param tag Etiqueta de tipo a comprobar.
      * @throws Asn1Exception Si las etiquetas de tipo no son compatibles. */
     public void checkTag(final byte tag) throws Asn1Exception {
-        if (getDefaultTag() != tag) {
+        if (!isCompatibleTag(tag)) {
             throw new Asn1Exception(
         		"Se esperaba un tipo " + HexUtils.hexify(new byte[] { getDefaultTag() }, false) + //$NON-NLS-1$
                     " (" + this.getClass().getName() + ") " + //$NON-NLS-1$ //$NON-NLS-2$
@@ -0,0 +1,92 @@
+package es.gob.jmulticard.asn1;
+
+import java.util.function.Supplier;
+
+/** Factor&iacute;a de objetos ASN&#46;1 de un tipo concreto.
+ * Los objetos se crean mediante el proveedor que declara el esquema del objeto compuesto
+ * (normalmente una referencia a su constructor, como <code>DerInteger::new</code>), sin
+ * reflexi&oacute;n. Cada factor&iacute;a mantiene una instancia prototipo, creada la primera
+ * vez que se necesita, para poder comprobar las etiquetas de tipo sin crear (ni descartar)
+ * objetos por cada elemento decodificado, por lo que conviene que quien declara el esquema
+ * (como <code>OptionalDecoderObjectElement</code>) conserve la factor&iacute;a.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class DecoderObjectFactory {
+
+	private final Supplier<? extends DecoderObject> supplier;
+
+	/** Instancia del tipo usada &uacute;nicamente para comprobar etiquetas. */
+	private volatile DecoderObject prototype = null;
+
+	private DecoderObjectFactory(final Supplier<? extends DecoderObject> s) {
+		this.supplier = s;
+	}
+
+	/** Crea una factor&iacute;a de objetos ASN&#46;1 a partir de un proveedor.
+	 * No se comparten factor&iacute;as entre proveedores, ya que dos proveedores de la misma
+	 * clase (como las lambdas creadas en un mismo punto del c&oacute;digo) pueden crear
+	 * objetos distintos.
+	 * @param supplier Proveedor de nuevos objetos ASN&#46;1 (sin valor) de un tipo concreto.
+	 * @return Factor&iacute;a de objetos ASN&#46;1 del proveedor indicado. */
+	public static DecoderObjectFactory getInstance(final Supplier<? extends DecoderObject> supplier) {
+		if (supplier == null) {
+			throw new IllegalArgumentException("El proveedor de objetos ASN.1 no puede ser nulo"); //$NON-NLS-1$
+		}
+		return new DecoderObjectFactory(supplier);
+	}
+
+	/** Obtiene la instancia prototipo del tipo, cre&aacute;ndola si a&uacute;n no existe.
+	 * @return Instancia prototipo del tipo. */
+	private DecoderObject getPrototype() {
+		DecoderObject p = this.prototype;
+		if (p == null) {
+			// Si dos hilos lo crean a la vez ambos prototipos son equivalentes
+			p = this.supplier.get();
+			if (p == null) {
+				throw new IllegalArgumentException(
+					"El proveedor de objetos ASN.1 ha devuelto un objeto nulo" //$NON-NLS-1$
+				);
+			}
+			this.prototype = p;
+		}
+		return p;
+	}
+
+	/** Obtiene el tipo de los objetos ASN&#46;1 que crea esta factor&iacute;a.
+	 * @return Tipo de los objetos ASN&#46;1 que crea esta factor&iacute;a. */
+	public Class<? extends DecoderObject> getType() {
+		return getPrototype().getClass();
+	}
+
+	/** Crea un nuevo objeto ASN&#46;1 (sin valor) del tipo de esta factor&iacute;a.
+	 * @return Nuevo objeto ASN&#46;1.
+	 * @throws Asn1Exception Si no se puede crear el objeto. */
+	public DecoderObject newInstance() throws Asn1Exception {
+		final DecoderObject ret;
+		try {
+			ret = this.supplier.get();
+		}
+		catch (final RuntimeException e) {
+			throw new Asn1Exception(
+				"No se ha podido instanciar un objeto ASN.1 del proveedor " + this.supplier, e //$NON-NLS-1$
+			);
+		}
+		if (ret == null) {
+			throw new Asn1Exception("El proveedor de objetos ASN.1 ha devuelto un objeto nulo"); //$NON-NLS-1$
+		}
+		return ret;
+	}
+
+	/** Indica si la etiqueta de tipo proporcionada es compatible con los objetos de esta factor&iacute;a.
+	 * @param tag Etiqueta de tipo a comprobar.
+	 * @return <code>true</code> si las etiquetas de tipo son compatibles,
+	 *         <code>false</code> en caso contrario. */
+	public boolean isCompatibleTag(final byte tag) {
+		try {
+			return getPrototype().isCompatibleTag(tag);
+		}
+		catch (final UnsupportedOperationException e) {
+			// Tipos sin etiqueta propia (como los registros): se comprobara al decodificar
+			return true;
+		}
+	}
+}
@@ -1,30 +1,39 @@
 package es.gob.jmulticard.asn1;
 
+import java.util.function.Supplier;
+
 /** Tipo de objeto ASN&#46;1 gen&eacute;rico opcional dentro de un objeto compuesto.
  * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
 public final class OptionalDecoderObjectElement {
 
-	private final Class<? extends DecoderObject> elementType;
+	private final Supplier<? extends DecoderObject> elementSupplier;
 	private final boolean optional;
 
+	/** Factor&iacute;a del tipo del elemento, que se obtiene la primera vez que se necesita. */
+	private volatile DecoderObjectFactory factory = null;
+
 	/** Construye un tipo de objeto ASN&#46;1 gen&eacute;rico opcional dentro de un objeto compuesto.
-	 * @param type Tipo de objeto ASN&#46;1.
+	 * @param type Proveedor de objetos ASN&#46;1 del tipo del elemento (normalmente una referencia
+	 *             a su constructor, como <code>DerInteger::new</code>), o <code>null</code> para un
+	 *             elemento opcional que no se decodifica.
 	 * @param opt <code>true</code> si este elemento es opcional dentro de un objeto compuesto,
 	 *            <code>false</code> en caso contrario. */
-	public OptionalDecoderObjectElement(final Class<? extends DecoderObject> type, final boolean opt) {
+	public OptionalDecoderObjectElement(final Supplier<? extends DecoderObject> type, final boolean opt) {
 		if (type == null && !opt) {
 			throw new IllegalArgumentException(
 				"El tipo de elemento ASN.1 no puede ser nulo cuando el elemento no es opcional" //$NON-NLS-1$
 			);
 		}
-		this.elementType = type;
+		this.elementSupplier = type;
 		this.optional = opt;
 	}
 
 	/** Optiene el tipo del elemento ASN&#46;1.
-	 * @return Tipo del elemento ASN&#46;1. */
+	 * @return Tipo del elemento ASN&#46;1, o <code>null</code> si el elemento es opcional y no
+	 *         tiene tipo. */
 	public Class<? extends DecoderObject> getElementType() {
-		return this.elementType;
+		final DecoderObjectFactory f = getFactory();
+		return f != null ? f.getType() : null;
 	}
 
 	/** Indica si el elemento es opcional dentro de un objeto compuesto.
@@ -34,4 +43,19 @@ public final class OptionalDecoderObjectElement {
 		return this.optional;
 	}
 
+	/** Obtiene la factor&iacute;a de objetos del tipo del elemento ASN&#46;1.
+	 * @return Factor&iacute;a de objetos del tipo del elemento ASN&#46;1, o <code>null</code>
+	 *         si el elemento es opcional y no tiene tipo. */
+	public DecoderObjectFactory getFactory() {
+		if (this.factory == null && this.elementSupplier != null) {
+			this.factory = DecoderObjectFactory.getInstance(this.elementSupplier);
+		}
+		return this.factory;
+	}
+
+	@Override
+	public String toString() {
+		final DecoderObjectFactory f = this.factory;
+		return f != null ? f.getType().getName() : "tipo no resuelto"; //$NON-NLS-1$
+	}
 }
@@ -41,6 +41,7 @@ package es.gob.jmulticard.asn1;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.logging.Logger;
 
 import es.gob.jmulticard.HexUtils;
@@ -55,9 +56,14 @@ public final class Tlv {
     /** Longitud del valor. */
     private final int length;
 
-    /** Estructura binaria completa del TLV. */
+    /** Memoria que contiene la estructura binaria completa del TLV (puede contener
+     * otros datos antes y despu&eacute;s del TLV si este es una vista de un TLV mayor). */
     private final byte[] bytes;
 
+    /** Posici&oacute;n de inicio del TLV dentro de <code>bytes</code>. */
+    private transient final int start;
+
+    /** Posici&oacute;n de inicio del valor del TLV dentro de <code>bytes</code>. */
     private transient final int valueOffset;
 
     /** Construye un TLV simple con etiqueta y longitud de un solo octeto cada uno.
@@ -67,7 +73,7 @@ public final class Tlv {
     	if (value == null) {
             throw new IllegalArgumentException("El valor del TLV no puede ser nulo"); //$NON-NLS-1$
         }
-        this.valueOffset = 2;
+        this.start = 0;
         this.tag = t;
         this.length = value.length;
 
@@ -82,6 +88,7 @@ public final class Tlv {
         else {
         	iExtLen = 2;
         }
+        this.valueOffset = iExtLen;
 
         this.bytes = new byte[value.length + iExtLen];
         this.bytes[0] = t;
@@ -103,35 +110,43 @@ public final class Tlv {
     }
 
     /** Construye un TLV simple a partir de su representaci&oacute;n binaria directa.
+     * Si tras el TLV hay m&aacute;s datos, estos se ignoran.
      * @param buffer Representaci&oacute;n binaria del TLV.
      * @throws TlvException En caso de error analizando el TLV. */
     public Tlv(final byte[] buffer) throws TlvException {
-        if (buffer == null) {
-            throw new IllegalArgumentException("El TLV no puede ser nulo"); //$NON-NLS-1$
-        }
-        if (buffer.length == 0) {
+    	this(checkBuffer(buffer), 0, buffer.length, true);
+    }
+
+    /** Construye un TLV simple a partir de su representaci&oacute;n binaria, situada en una
+     * posici&oacute;n concreta de una memoria.
+     * @param buffer Memoria que contiene la representaci&oacute;n binaria del TLV.
+     * @param offset Posici&oacute;n de inicio del TLV en la memoria.
+     * @param limit Posici&oacute;n (exclusiva) hasta la que puede extenderse el TLV.
+     * @param copy Si es <code>true</code> se copian los octetos del TLV, y si es <code>false</code>
+     *             el TLV comparte la memoria indicada, que no debe modificarse despu&eacute;s.
+     * @throws TlvException En caso de error analizando el TLV. */
+    private Tlv(final byte[] buffer,
+    		    final int offset,
+    		    final int limit,
+    		    final boolean copy) throws TlvException {
+        if (copy && limit == offset) {
         	Logger.getLogger("es.gob.jmulticard").warning( //$NON-NLS-1$
     			"Se ha pedido crear un TLV vacio" //$NON-NLS-1$
 			);
         	this.length = 0;
         	this.bytes = new byte[0];
         	this.tag = (byte) 0xff;
+        	this.start = 0;
         	this.valueOffset = 0;
         	return;
         }
-        if (buffer.length < 2) {
-            throw new IllegalArgumentException(
-        		"El TLV no puede medir menos de dos octetos: " + HexUtils.hexify(buffer, false)//$NON-NLS-1$
-    		);
+        if (offset < 0 || limit - offset < 2) {
+        	throw new TlvException("El TLV no puede medir menos de dos octetos"); //$NON-NLS-1$
         }
 
-        int offset = 0;
+        int pos = offset;
 
-        // Copiamos el TLV completo
-        final byte[] tempBytes = new byte[buffer.length];
-        System.arraycopy(buffer, 0, tempBytes, 0, buffer.length);
-
-        this.tag = tempBytes[offset++];
+        this.tag = buffer[pos++];
 
         // Comprobamos que el Tipo sea valido (tipos multi-octeto)
 //        if ((this.tag & 0x1f) == 0x1f) {
@@ -139,7 +154,7 @@ public final class Tlv {
 //        }
 
         // Copiamos la longitud
-        int size = tempBytes[offset++] & 0xff;
+        int size = buffer[pos++] & 0xff;
         final boolean indefinite = size == 128;
         if (indefinite) {
             if ((this.tag & 0x20) == 0) {
@@ -152,27 +167,99 @@ public final class Tlv {
             if (sizeLen > 3) {
                 throw new TlvException("TLV demasiado largo"); //$NON-NLS-1$
             }
+            if (pos + sizeLen > limit) {
+            	throw new TlvException("El TLV esta truncado en su longitud"); //$NON-NLS-1$
+            }
             size = 0;
             while (sizeLen > 0) {
-                size = (size << 8) + (tempBytes[offset++] & 0xff);
+                size = (size << 8) + (buffer[pos++] & 0xff);
                 sizeLen--;
             }
         }
 
+        if (pos + size > limit) {
+        	throw new TlvException(
+    			"El TLV esta truncado: se esperaban " + size + " octetos de valor pero solo hay " + (limit - pos) //$NON-NLS-1$ //$NON-NLS-2$
+			);
+        }
+
         this.length = size;
-        this.valueOffset = offset;
 
-        this.bytes = new byte[this.valueOffset + this.length];
-        System.arraycopy(tempBytes, 0, this.bytes, 0, this.valueOffset + this.length);
+        if (copy) {
+        	// Copiamos unicamente los octetos del TLV
+        	this.bytes = Arrays.copyOfRange(buffer, offset, pos + size);
+        	this.start = 0;
+        	this.valueOffset = pos - offset;
+        }
+        else {
+        	this.bytes = buffer;
+        	this.start = offset;
+        	this.valueOffset = pos;
+        }
+    }
+
+    private static byte[] checkBuffer(final byte[] buffer) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("El TLV no puede ser nulo"); //$NON-NLS-1$
+        }
+        if (buffer.length == 1) {
+            throw new IllegalArgumentException(
+        		"El TLV no puede medir menos de dos octetos: " + HexUtils.hexify(buffer, false)//$NON-NLS-1$
+    		);
+        }
+        return buffer;
+    }
+
+    /** Crea un TLV que comparte la memoria indicada, sin copiar los datos.
+     * La memoria no debe modificarse mientras se use el TLV.
+     * @param buffer Memoria que contiene la representaci&oacute;n binaria del TLV.
+     * @param offset Posici&oacute;n de inicio del TLV en la memoria.
+     * @param limit Posici&oacute;n (exclusiva) hasta la que puede extenderse el TLV.
+     * @return TLV que comparte la memoria indicada.
+     * @throws TlvException En caso de error analizando el TLV. */
+    static Tlv createView(final byte[] buffer, final int offset, final int limit) throws TlvException {
+    	return new Tlv(buffer, offset, limit, false);
+    }
+
+    /** Obtiene el TLV que comienza en la posici&oacute;n indicada del valor de este TLV
+     * (por ejemplo, un elemento de una secuencia), sin copiar los datos: el TLV
+     * obtenido comparte la memoria de este.
+     * @param offset Posici&oacute;n, relativa al inicio del valor de este TLV, en la que
+     *               comienza el TLV que se desea obtener.
+     * @return TLV contenido en el valor de este.
+     * @throws TlvException Si no hay un TLV v&aacute;lido en la posici&oacute;n indicada. */
+    public Tlv getValueTlvAt(final int offset) throws TlvException {
+    	if (offset < 0 || offset >= this.length) {
+    		throw new TlvException(
+				"No hay ningun TLV en la posicion " + offset + " de un valor de " + this.length + " octetos" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			);
+    	}
+    	return new Tlv(this.bytes, this.valueOffset + offset, this.valueOffset + this.length, false);
+    }
+
+    /** Devuelve la longitud total del TLV (etiqueta, longitud y valor), esto es, la
+     * longitud de lo que devolver&iacute;a {@link #getBytes()} pero sin copiar los datos.
+     * @return Longitud total del TLV. */
+    public int getTotalLength() {
+    	return this.valueOffset + this.length - this.start;
+    }
+
+    /** Devuelve la memoria en la que se encuentra el TLV, sin copiarla.
+     * @return Memoria en la que se encuentra el TLV. */
+    byte[] getBuffer() {
+    	return this.bytes;
+    }
 
+    /** Devuelve la posici&oacute;n de inicio del TLV en su memoria.
+     * @return Posici&oacute;n de inicio del TLV en su memoria. */
+    int getStart() {
+    	return this.start;
     }
 
     /** Devuelve el TLV directamente en binario.
      * @return Valor binario completo del TLV. */
     public byte[] getBytes() {
-        final byte[] out = new byte[this.bytes.length];
-        System.arraycopy(this.bytes, 0, out, 0, this.bytes.length);
-        return out;
+        return Arrays.copyOfRange(this.bytes, this.start, this.valueOffset + this.length);
     }
 
     /** Devuelve la longitud del valor del TLV.
@@ -190,9 +277,7 @@ public final class Tlv {
     /** Devuelve el valor del TLV.
      * @return Valor del del TLV. */
     public byte[] getValue() {
-        final byte[] out = new byte[this.length];
-        System.arraycopy(this.bytes, this.valueOffset, out, 0, this.length);
-        return out;
+        return Arrays.copyOfRange(this.bytes, this.valueOffset, this.valueOffset + this.length);
     }
 
     /** Obtiene un TLV de un flujo de entrada, leyendo del mismo &uacute;nicamente los octetos
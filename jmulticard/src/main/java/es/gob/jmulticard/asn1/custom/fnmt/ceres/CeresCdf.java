@@ -60,16 +60,16 @@ public final class CeresCdf extends Record implements Pkcs15Cdf {
 				// Maximo 10 certificados por tarjeta
 
     			// Estructura antigua, que incumple PKCS#15
-				new OptionalDecoderObjectElement(CeresCertificateObject.class, true),
-				new OptionalDecoderObjectElement(CeresCertificateObject.class, true),
-				new OptionalDecoderObjectElement(CeresCertificateObject.class, true),
-				new OptionalDecoderObjectElement(CeresCertificateObject.class, true),
-				new OptionalDecoderObjectElement(CeresCertificateObject.class, true),
-				new OptionalDecoderObjectElement(CeresCertificateObject.class, true),
-				new OptionalDecoderObjectElement(CeresCertificateObject.class, true),
-				new OptionalDecoderObjectElement(CeresCertificateObject.class, true),
-				new OptionalDecoderObjectElement(CeresCertificateObject.class, true),
-				new OptionalDecoderObjectElement(CeresCertificateObject.class, true)
+				new OptionalDecoderObjectElement(CeresCertificateObject::new,  true),
+				new OptionalDecoderObjectElement(CeresCertificateObject::new,  true),
+				new OptionalDecoderObjectElement(CeresCertificateObject::new,  true),
+				new OptionalDecoderObjectElement(CeresCertificateObject::new,  true),
+				new OptionalDecoderObjectElement(CeresCertificateObject::new,  true),
+				new OptionalDecoderObjectElement(CeresCertificateObject::new,  true),
+				new OptionalDecoderObjectElement(CeresCertificateObject::new,  true),
+				new OptionalDecoderObjectElement(CeresCertificateObject::new,  true),
+				new OptionalDecoderObjectElement(CeresCertificateObject::new,  true),
+				new OptionalDecoderObjectElement(CeresCertificateObject::new,  true)
     		}
 		);
     }
@@ -60,9 +60,9 @@ public final class CeresCertificateObject extends CertificateObject {
 	public CeresCertificateObject() {
 		super(
 		//  CommonObjectAttributes (se hereda)
-			CommonCertificateAttributes.class,
+			CommonCertificateAttributes::new,
 			null,
-			CeresX509CertificateAttributesContextSpecific.class
+			CeresX509CertificateAttributesContextSpecific::new
 		);
 	}
 
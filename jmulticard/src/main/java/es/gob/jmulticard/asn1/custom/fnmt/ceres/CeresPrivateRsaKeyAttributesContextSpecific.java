@@ -52,12 +52,17 @@ public final class CeresPrivateRsaKeyAttributesContextSpecific extends ContextSp
 
 	/** Construye un objeto ASN&#46;1 de contexto espec&iacute;fico del <i>X509CertificateAttributes</i>. */
 	public CeresPrivateRsaKeyAttributesContextSpecific() {
-		super(Path.class);
+		super(Path::new);
+	}
+
+	@Override
+    public boolean isCompatibleTag(final byte tag) {
+		return TAG == tag;
 	}
 
 	@Override
     public void checkTag(final byte tag) throws Asn1Exception {
-		if (TAG != tag) {
+		if (!isCompatibleTag(tag)) {
 			throw new Asn1Exception(
 				"CeresPrivateRsaKeyAttributesContextSpecific espera una etiqueta especifica de contexto " + HexUtils.hexify(new byte[] { TAG }, false) + //$NON-NLS-1$
 				" pero ha encontrado " + HexUtils.hexify(new byte[] { tag }, false) //$NON-NLS-1$
@@ -62,12 +62,17 @@ public final class CeresScCommonPrivateKeyAttributesContextSpecific extends Cont
 
 	/** Construye un objeto ASN&#46;1 de contexto espec&iacute;fico del <i>CommonPrivateKeyAttributesEmpty</i>. */
 	public CeresScCommonPrivateKeyAttributesContextSpecific() {
-		super(EmptyCommonPrivateKeyAttributes.class);
+		super(EmptyCommonPrivateKeyAttributes::new);
+	}
+
+	@Override
+    public boolean isCompatibleTag(final byte tag) {
+		return TAG == tag;
 	}
 
 	@Override
     public void checkTag(final byte tag) throws Asn1Exception {
-		if (TAG != tag) {
+		if (!isCompatibleTag(tag)) {
 			throw new Asn1Exception(
 				"CommonPrivateKeyAttributesContextSpecific esperaba una etiqueta especifica de contexto " + HexUtils.hexify(new byte[] { TAG }, false) + //$NON-NLS-1$
 					" pero ha encontrado " + HexUtils.hexify(new byte[] { tag }, false) //$NON-NLS-1$
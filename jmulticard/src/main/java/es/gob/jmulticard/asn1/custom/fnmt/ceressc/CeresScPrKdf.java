@@ -55,16 +55,16 @@ public final class CeresScPrKdf extends PrKdf {
 		super(
 			new OptionalDecoderObjectElement[] {
 				// Maximo 10 certificados
-				new OptionalDecoderObjectElement(CeresScPrivateKeyObject.class, false),
-				new OptionalDecoderObjectElement(CeresScPrivateKeyObject.class, true),
-				new OptionalDecoderObjectElement(CeresScPrivateKeyObject.class, true),
-				new OptionalDecoderObjectElement(CeresScPrivateKeyObject.class, true),
-				new OptionalDecoderObjectElement(CeresScPrivateKeyObject.class, true),
-				new OptionalDecoderObjectElement(CeresScPrivateKeyObject.class, true),
-				new OptionalDecoderObjectElement(CeresScPrivateKeyObject.class, true),
-				new OptionalDecoderObjectElement(CeresScPrivateKeyObject.class, true),
-				new OptionalDecoderObjectElement(CeresScPrivateKeyObject.class, true),
-				new OptionalDecoderObjectElement(CeresScPrivateKeyObject.class, true)
+				new OptionalDecoderObjectElement(CeresScPrivateKeyObject::new,  false),
+				new OptionalDecoderObjectElement(CeresScPrivateKeyObject::new,  true),
+				new OptionalDecoderObjectElement(CeresScPrivateKeyObject::new,  true),
+				new OptionalDecoderObjectElement(CeresScPrivateKeyObject::new,  true),
+				new OptionalDecoderObjectElement(CeresScPrivateKeyObject::new,  true),
+				new OptionalDecoderObjectElement(CeresScPrivateKeyObject::new,  true),
+				new OptionalDecoderObjectElement(CeresScPrivateKeyObject::new,  true),
+				new OptionalDecoderObjectElement(CeresScPrivateKeyObject::new,  true),
+				new OptionalDecoderObjectElement(CeresScPrivateKeyObject::new,  true),
+				new OptionalDecoderObjectElement(CeresScPrivateKeyObject::new,  true)
 			}
 		);
 	}
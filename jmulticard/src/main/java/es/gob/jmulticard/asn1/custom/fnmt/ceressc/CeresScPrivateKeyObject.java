@@ -41,6 +41,8 @@ package es.gob.jmulticard.asn1.custom.fnmt.ceressc;
 
 import javax.security.auth.x500.X500Principal;
 
+import java.util.function.Supplier;
+
 import es.gob.jmulticard.asn1.DecoderObject;
 import es.gob.jmulticard.asn1.der.ContextSpecific;
 import es.gob.jmulticard.asn1.der.pkcs15.CommonKeyAttributes;
@@ -71,12 +73,12 @@ import es.gob.jmulticard.asn1.der.pkcs15.Pkcs15Object;
 public final class CeresScPrivateKeyObject extends Pkcs15Object {
 
     /** Construye un tipo PrivateKeyObject ASN&#46;1.
-     * @param classAttributes Tipo de los Atributos espec&iacute;ficos de la clase general del objeto
-     * @param subclassAttributes Tipo de los Atributos espec&iacute;ficos de la subclase general del objeto
-     * @param typeAttributes Tipo de los Atributos espec&iacute;ficos del tipo concreto del objeto */
-	public CeresScPrivateKeyObject(final Class<? extends DecoderObject> classAttributes,
-			                     final Class<? extends ContextSpecific> subclassAttributes,
-			                     final Class<? extends ContextSpecific> typeAttributes) {
+     * @param classAttributes Proveedor de los Atributos espec&iacute;ficos de la clase general del objeto
+     * @param subclassAttributes Proveedor de los Atributos espec&iacute;ficos de la subclase general del objeto
+     * @param typeAttributes Proveedor de los Atributos espec&iacute;ficos del tipo concreto del objeto */
+	public CeresScPrivateKeyObject(final Supplier<? extends DecoderObject> classAttributes,
+			                     final Supplier<? extends ContextSpecific> subclassAttributes,
+			                     final Supplier<? extends ContextSpecific> typeAttributes) {
         super(classAttributes, subclassAttributes, typeAttributes);
 	}
 
@@ -85,9 +87,9 @@ public final class CeresScPrivateKeyObject extends Pkcs15Object {
 	public CeresScPrivateKeyObject() {
 		super(
 		 // CommonObjectAttributes (heredado de Pkcs15Object)
-			CommonKeyAttributes.class,                            // classAttributes
-			CeresScCommonPrivateKeyAttributesContextSpecific.class, // subclassAttributes
-			CeresScPrivateRsaKeyAttributesContextSpecific.class     // typeAttributes
+			CommonKeyAttributes::new,                             // classAttributes
+			CeresScCommonPrivateKeyAttributesContextSpecific::new,  // subclassAttributes
+			CeresScPrivateRsaKeyAttributesContextSpecific::new      // typeAttributes
 		);
 	}
 
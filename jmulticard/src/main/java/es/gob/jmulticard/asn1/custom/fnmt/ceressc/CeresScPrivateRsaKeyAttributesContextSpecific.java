@@ -60,12 +60,17 @@ public final class CeresScPrivateRsaKeyAttributesContextSpecific extends Context
 
 	/** Construye un objeto ASN&#46;1 de contexto espec&iacute;fico del <i>PrivateRsaKeyAttributes</i>. */
 	public CeresScPrivateRsaKeyAttributesContextSpecific() {
-		super(PrivateRsaKeyAttributes.class);
+		super(PrivateRsaKeyAttributes::new);
+	}
+
+	@Override
+    public boolean isCompatibleTag(final byte tag) {
+		return TAG == tag;
 	}
 
 	@Override
     public void checkTag(final byte tag) throws Asn1Exception {
-		if (TAG != tag) {
+		if (!isCompatibleTag(tag)) {
 			throw new Asn1Exception(
 				"PrivateRsaKeyAttributesCeresContextSpecific esperaba una etiqueta especifica de contexto " + //$NON-NLS-1$
 					HexUtils.hexify(new byte[] { TAG }, false) +
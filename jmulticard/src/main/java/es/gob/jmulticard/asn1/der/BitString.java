@@ -56,7 +56,7 @@ public abstract class BitString extends DecoderObject {
 
     @Override
     protected void decodeValue() throws Asn1Exception, TlvException {
-        tlv = new Tlv(getRawDerValue());
+        tlv = getRawDerTlv();
         if (TAG_BITSTRING != tlv.getTag()) {
             throw new Asn1Exception(
         		"Se esperaba un TLV de tipo BitString pero se ha encontrado uno de tipo " + //$NON-NLS-1$
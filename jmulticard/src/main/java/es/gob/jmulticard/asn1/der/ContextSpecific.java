@@ -39,11 +39,12 @@
  */
 package es.gob.jmulticard.asn1.der;
 
-import java.lang.reflect.InvocationTargetException;
+import java.util.function.Supplier;
 
 import es.gob.jmulticard.HexUtils;
 import es.gob.jmulticard.asn1.Asn1Exception;
 import es.gob.jmulticard.asn1.DecoderObject;
+import es.gob.jmulticard.asn1.DecoderObjectFactory;
 import es.gob.jmulticard.asn1.Tlv;
 import es.gob.jmulticard.asn1.TlvException;
 
@@ -65,36 +66,24 @@ public abstract class ContextSpecific extends DecoderObject {
     @Override
     protected void decodeValue() throws Asn1Exception, TlvException {
 
-        final DecoderObject tmpDo;
-        try {
-            tmpDo = elementType.getConstructor().newInstance();
-        }
-        catch (final IllegalAccessException    |
-        		     InstantiationException    |
-        		     IllegalArgumentException  |
-        		     InvocationTargetException |
-        		     NoSuchMethodException     |
-        		     SecurityException e) {
-            throw new Asn1Exception(
-        		"No se ha podido instanciar un " + elementType.getName() + " en el contexto especifico", e //$NON-NLS-1$ //$NON-NLS-2$
-            );
-        }
-        final Tlv tlv = new Tlv(getRawDerValue());
+        final DecoderObject tmpDo = DecoderObjectFactory.getInstance(elementSupplier).newInstance();
+        final Tlv tlv = getRawDerTlv();
         tmpDo.setDerValue(tlv.getValue());
         object = tmpDo;
     }
 
-    private transient final Class<? extends DecoderObject> elementType;
+    private transient final Supplier<? extends DecoderObject> elementSupplier;
 
     /** Construye un tipo ASN&#46;1 espec&iacute;fico del contexto.
-     * @param type Tipo de elemento contenido dentro de este objeto. */
-    public ContextSpecific(final Class<? extends DecoderObject> type) {
+     * @param type Proveedor de objetos del tipo de elemento contenido dentro de este objeto
+     *             (normalmente una referencia a su constructor). */
+    public ContextSpecific(final Supplier<? extends DecoderObject> type) {
         if (type == null) {
             throw new IllegalArgumentException(
         		"El tipo contenido dentro de ContextSpecific no puede ser nulo" //$NON-NLS-1$
     		);
         }
-        elementType = type;
+        elementSupplier = type;
     }
 
     @Override
@@ -102,9 +91,14 @@ public abstract class ContextSpecific extends DecoderObject {
         throw new UnsupportedOperationException("No hay tipo por defecto"); //$NON-NLS-1$
     }
 
+    @Override
+    public boolean isCompatibleTag(final byte tag) {
+        return (tag & 0x0c0) == 0x080;
+    }
+
     @Override
     public void checkTag(final byte tag) throws Asn1Exception {
-        if ((tag & 0x0c0) != 0x080) {
+        if (!isCompatibleTag(tag)) {
             throw new Asn1Exception(
         		"La etiqueta " + HexUtils.hexify(new byte[] { tag }, false) + //$NON-NLS-1$
                     " no es valida para un objeto especifico del contexto" //$NON-NLS-1$
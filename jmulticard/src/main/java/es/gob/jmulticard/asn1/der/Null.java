@@ -1,6 +1,7 @@
 package es.gob.jmulticard.asn1.der;
 
 import es.gob.jmulticard.asn1.DecoderObject;
+import es.gob.jmulticard.asn1.Tlv;
 
 /** Tipo nulo.
  * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
@@ -21,6 +22,11 @@ public final class Null extends DecoderObject {
     	// Vacio
     }
 
+    @Override
+	public void setDerTlv(final Tlv tlv) {
+    	// Vacio
+    }
+
     @Override
 	protected byte[] getRawDerValue() {
         return new byte[0];
@@ -32,8 +38,9 @@ public final class Null extends DecoderObject {
     }
 
     @Override
-	public void checkTag(final byte tag) {
-    	// No hacemos nada
+	public boolean isCompatibleTag(final byte tag) {
+    	// Cualquier etiqueta es valida
+    	return true;
     }
 
 
@@ -42,7 +42,6 @@ package es.gob.jmulticard.asn1.der;
 import es.gob.jmulticard.HexUtils;
 import es.gob.jmulticard.asn1.Asn1Exception;
 import es.gob.jmulticard.asn1.DecoderObject;
-import es.gob.jmulticard.asn1.Tlv;
 import es.gob.jmulticard.asn1.TlvException;
 
 /** Tipo ASN&#46;1 OID.
@@ -54,9 +53,14 @@ public final class ObjectIdentifier extends DecoderObject {
 
 	private transient byte[] rawValue = null;
 
+    @Override
+    public boolean isCompatibleTag(final byte tag) {
+    	return TAG_OBJECTID == tag || RELATIVE_OID == tag;
+    }
+
     @Override
     public void checkTag(final byte tag) throws Asn1Exception {
-    	if (TAG_OBJECTID != tag && RELATIVE_OID != tag) {
+    	if (!isCompatibleTag(tag)) {
 			throw new Asn1Exception(
 				"Se esperaba un tipo " + HexUtils.hexify(new byte[] { TAG_OBJECTID }, false) +  //$NON-NLS-1$
 					" o " + HexUtils.hexify(new byte[] { RELATIVE_OID }, false) +  //$NON-NLS-1$
@@ -68,7 +72,7 @@ public final class ObjectIdentifier extends DecoderObject {
 
 	@Override
     protected void decodeValue() throws TlvException {
-		rawValue = new Tlv(getRawDerValue()).getValue();
+		rawValue = getRawDerTlv().getValue();
 	}
 
 	@Override
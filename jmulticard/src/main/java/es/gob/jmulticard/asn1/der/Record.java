@@ -44,6 +44,7 @@ import java.util.List;
 
 import es.gob.jmulticard.asn1.Asn1Exception;
 import es.gob.jmulticard.asn1.DecoderObject;
+import es.gob.jmulticard.asn1.DecoderObjectFactory;
 import es.gob.jmulticard.asn1.OptionalDecoderObjectElement;
 import es.gob.jmulticard.asn1.Tlv;
 import es.gob.jmulticard.asn1.TlvException;
@@ -89,24 +90,32 @@ public abstract class Record extends DecoderObject {
 
     @Override
     protected void decodeValue() throws Asn1Exception, TlvException {
-        if (getRawDerValue().length == 0) {
+        if (getRawDerLength() == 0) {
             throw new Asn1Exception("El valor del objeto ASN.1 esta vacio"); //$NON-NLS-1$
         }
         int offset = 0;
         Tlv tlv;
-        byte[] remainingBytes;
         DecoderObject tmpDo;
+        DecoderObjectFactory factory;
         for (int i = 0; i < elementsTypes.length; i++) {
+        	if (offset >= getRawDerLength() && elementsTypes[i].isOptional()) {
+        		// Elemento opcional al final del registro y ausente
+        		continue;
+        	}
         	try {
-	            remainingBytes = new byte[getRawDerValue().length - offset];
-	            System.arraycopy(getRawDerValue(), offset, remainingBytes, 0, remainingBytes.length);
-	            tlv = new Tlv(remainingBytes);
+        		// Los elementos comparten la memoria del registro, sin copias intermedias
+	            tlv = getRawDerTlv(offset);
+	            factory = elementsTypes[i].getFactory();
+	            if (elementsTypes[i].isOptional() && (factory == null || !factory.isCompatibleTag(tlv.getTag()))) {
+	            	// Elemento opcional ausente: se descarta por su etiqueta, sin instanciarlo
+	            	continue;
+	            }
 	            try {
-	                tmpDo = elementsTypes[i].getElementType().getConstructor().newInstance();
+	                tmpDo = factory.newInstance();
 	            }
 	            catch (final Exception e) {
 	                throw new Asn1Exception(
-	            		"No se ha podido instanciar un " + elementsTypes[i].getElementType().getName() + //$NON-NLS-1$
+	            		"No se ha podido instanciar un " + elementsTypes[i] + //$NON-NLS-1$
 	                        " en la posicion " + Integer.toString(i) + " del registro", e //$NON-NLS-1$ //$NON-NLS-2$
 	                );
 	            }
@@ -119,8 +128,8 @@ public abstract class Record extends DecoderObject {
             	}
             	throw new Asn1Exception("Error en el elemento " + i + " del registro ASN.1", e); //$NON-NLS-1$ //$NON-NLS-2$
         	}
-            offset = offset + tlv.getBytes().length;
-        	tmpDo.setDerValue(tlv.getBytes());
+            offset = offset + tlv.getTotalLength();
+        	tmpDo.setDerTlv(tlv);
             elements.add(tmpDo);
         }
     }
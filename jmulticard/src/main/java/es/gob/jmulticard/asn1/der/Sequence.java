@@ -44,6 +44,7 @@ import java.util.List;
 
 import es.gob.jmulticard.asn1.Asn1Exception;
 import es.gob.jmulticard.asn1.DecoderObject;
+import es.gob.jmulticard.asn1.DecoderObjectFactory;
 import es.gob.jmulticard.asn1.OptionalDecoderObjectElement;
 import es.gob.jmulticard.asn1.Tlv;
 import es.gob.jmulticard.asn1.TlvException;
@@ -78,23 +79,28 @@ public abstract class Sequence extends DecoderObject {
 
     @Override
     protected void decodeValue() throws Asn1Exception, TlvException {
-        final Tlv mainTlv = new Tlv(getRawDerValue());
+        final Tlv mainTlv = getRawDerTlv();
         checkTag(mainTlv.getTag());
         int offset = 0;
         Tlv tlv;
-        byte[] remainingBytes;
         DecoderObject tmpDo;
-        final byte[] rawValue = mainTlv.getValue();
+        DecoderObjectFactory factory;
         for (int i = 0; i < elementsTypes.length; i++) {
-            remainingBytes = new byte[rawValue.length - offset];
-            System.arraycopy(rawValue, offset, remainingBytes, 0, remainingBytes.length);
+        	if (offset >= mainTlv.getLength() && elementsTypes[i].isOptional()) {
+        		// Elemento opcional al final de la secuencia y ausente
+        		continue;
+        	}
             try {
-            	tlv = new Tlv(remainingBytes);
-            	tmpDo = elementsTypes[i].getElementType().getConstructor().newInstance();
+            	// Los elementos comparten la memoria de la secuencia, sin copias intermedias
+            	tlv = mainTlv.getValueTlvAt(offset);
+            	factory = elementsTypes[i].getFactory();
+            	if (elementsTypes[i].isOptional() && (factory == null || !factory.isCompatibleTag(tlv.getTag()))) {
+            		// Elemento opcional ausente: se descarta por su etiqueta, sin instanciarlo
+            		continue;
+            	}
+            	tmpDo = factory.newInstance();
             	tmpDo.checkTag(tlv.getTag());
-                tmpDo.setDerValue(
-            		tlv.getBytes()
-        		);
+                tmpDo.setDerTlv(tlv);
             }
             catch(final Exception e) {
             	if (elementsTypes[i].isOptional()) {
@@ -102,11 +108,11 @@ public abstract class Sequence extends DecoderObject {
             		continue;
             	}
             	throw new Asn1Exception(
-        			"Error en el elemento " + i + " (" + elementsTypes[i].getElementType().getName() + ") de la secuencia ASN.1", e //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        			"Error en el elemento " + i + " (" + elementsTypes[i] + ") de la secuencia ASN.1", e //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
     			);
             }
             // El offset se avanza antes del continue de la opcionalidad
-            offset = offset + tlv.getBytes().length;
+            offset = offset + tlv.getTotalLength();
             elements.add(tmpDo);
         }
     }
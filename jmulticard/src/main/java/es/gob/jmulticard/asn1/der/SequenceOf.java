@@ -40,9 +40,11 @@
 package es.gob.jmulticard.asn1.der;
 
 import java.util.Vector;
+import java.util.function.Supplier;
 
 import es.gob.jmulticard.asn1.Asn1Exception;
 import es.gob.jmulticard.asn1.DecoderObject;
+import es.gob.jmulticard.asn1.DecoderObjectFactory;
 import es.gob.jmulticard.asn1.Tlv;
 import es.gob.jmulticard.asn1.TlvException;
 
@@ -53,46 +55,39 @@ public abstract class SequenceOf extends DecoderObject {
 	/** Tipo ASN&#46;1 <i>SequenceOf</i>. */
     private static final byte TAG_SEQUENCE = (byte) 0x30;
 
-    private transient final Class<? extends DecoderObject> elementsType;
+    private transient final Supplier<? extends DecoderObject> elementsSupplier;
 
     private transient Vector<DecoderObject> sequenceObjects = null;
 
 	@Override
     protected void decodeValue() throws Asn1Exception, TlvException {
-		Tlv tlv = new Tlv(getRawDerValue());
-		checkTag(tlv.getTag());
+		final Tlv mainTlv = getRawDerTlv();
+		checkTag(mainTlv.getTag());
 		int offset = 0;
-		byte[] remainingBytes;
+		Tlv tlv;
         DecoderObject tmpDo;
-        final byte[] valueBytes = tlv.getValue();
         sequenceObjects = new Vector<>();
-        while (offset < valueBytes.length) {
-        	remainingBytes = new byte[valueBytes.length - offset];
-        	System.arraycopy(valueBytes, offset, remainingBytes, 0, remainingBytes.length);
-    		tlv = new Tlv(remainingBytes);
-        	try {
-        		tmpDo = elementsType.getConstructor().newInstance();
-        	}
-        	catch (final Exception e) {
-        		throw new Asn1Exception(
-    				"No se ha podido instanciar un " + elementsType.getName() + " en la secuencia", e  //$NON-NLS-1$ //$NON-NLS-2$
-        		);
-        	}
-        	offset = offset + tlv.getBytes().length;
+        final DecoderObjectFactory factory = DecoderObjectFactory.getInstance(elementsSupplier);
+        while (offset < mainTlv.getLength()) {
+        	// Los elementos comparten la memoria de la secuencia, sin copias intermedias
+    		tlv = mainTlv.getValueTlvAt(offset);
+    		tmpDo = factory.newInstance();
+        	offset = offset + tlv.getTotalLength();
         	tmpDo.checkTag(tlv.getTag());
-        	tmpDo.setDerValue(tlv.getBytes());
+        	tmpDo.setDerTlv(tlv);
         	sequenceObjects.add(tmpDo);
         }
 	}
 
 	/** Construye un tipo ASN&#46;1 <i>SequenceOf</i>.
      * Un <i>SequenceOf</i> contiene una secuencia de tipos ASN&#46;1 (que deben ser iguales).
-     * @param type Tipos (etiquetas) de objetos ASN&#46;1 (1 a n elementos) que va a contener la secuencia. El orden es irrelevante. */
-	protected SequenceOf(final Class<? extends DecoderObject> type) {
+     * @param type Proveedor de objetos del tipo ASN&#46;1 de los elementos que va a contener la secuencia
+     *             (normalmente una referencia a su constructor). */
+	protected SequenceOf(final Supplier<? extends DecoderObject> type) {
 	    if (type == null) {
 			throw new IllegalArgumentException();
 		}
-		elementsType = type;
+		elementsSupplier = type;
 	}
 
     @Override
@@ -66,9 +66,14 @@ public final class Utf8String extends DecoderObject {
         return TAG_UTF8STRING;
     }
 
+    @Override
+    public boolean isCompatibleTag(final byte tag) {
+    	return TAG_UTF8STRING == tag || TAG_PRINTABLESTRING == tag || TAG_T61STRING == tag;
+    }
+
     @Override
     public void checkTag(final byte tag) throws Asn1Exception {
-    	if (TAG_UTF8STRING != tag && TAG_PRINTABLESTRING != tag && TAG_T61STRING != tag) {
+    	if (!isCompatibleTag(tag)) {
 			throw new Asn1Exception(
 				"Se esperaba un tipo " + HexUtils.hexify(new byte[] { TAG_PRINTABLESTRING }, false) +  //$NON-NLS-1$
 				", " + HexUtils.hexify(new byte[] { TAG_T61STRING }, false) +  //$NON-NLS-1$
@@ -83,7 +88,7 @@ public final class Utf8String extends DecoderObject {
 
     @Override
     protected void decodeValue() throws Asn1Exception, TlvException {
-    	final Tlv tlv = new Tlv(getRawDerValue());
+    	final Tlv tlv = getRawDerTlv();
     	checkTag(tlv.getTag());
     	stringValue = new String(tlv.getValue(), StandardCharsets.UTF_8);
     }
@@ -57,7 +57,7 @@ public final class AlgorithmIdentifer extends Sequence {
 		super(
 			new OptionalDecoderObjectElement[] {
 				new OptionalDecoderObjectElement(
-					ObjectIdentifier.class,
+					ObjectIdentifier::new,
 					false
 				)
 			}
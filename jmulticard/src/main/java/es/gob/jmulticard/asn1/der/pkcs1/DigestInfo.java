@@ -40,6 +40,7 @@
 package es.gob.jmulticard.asn1.der.pkcs1;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import es.gob.jmulticard.CryptoHelper;
 import es.gob.jmulticard.CryptoHelper.DigestAlgorithm;
@@ -58,6 +59,14 @@ import es.gob.jmulticard.asn1.der.Sequence;
  * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
 public final class DigestInfo extends Sequence {
 
+    /** Algoritmo de firma con el que se indica que los datos a firmar ya son una
+     * estructura <code>DigestInfo</code> y no hay que calcular su huella. */
+    public static final String RAW_DIGESTINFO_ALGORITHM = "NONEwithRSA"; //$NON-NLS-1$
+
+    /** Longitud m&aacute;xima (en octetos) de una estructura <code>DigestInfo</code> soportada
+     * (la de una huella SHA-512). */
+    public static final int MAX_ENCODED_LENGTH = 83;
+
     private static final String SHA1WITHRSA_NORMALIZED_ALGO_NAME   = "SHA1withRSA"; //$NON-NLS-1$
     private static final String SHA256WITHRSA_NORMALIZED_ALGO_NAME = "SHA256withRSA"; //$NON-NLS-1$
     private static final String SHA384WITHRSA_NORMALIZED_ALGO_NAME = "SHA384withRSA"; //$NON-NLS-1$
@@ -119,11 +128,11 @@ public final class DigestInfo extends Sequence {
         super(
     		new OptionalDecoderObjectElement[] {
 				new OptionalDecoderObjectElement(
-					AlgorithmIdentifer.class,
+					AlgorithmIdentifer::new,
 					false
 				),
 				new OptionalDecoderObjectElement(
-					OctectString.class,
+					OctectString::new,
 					false
 				)
     		}
@@ -147,11 +156,63 @@ public final class DigestInfo extends Sequence {
     		                    final byte[] data,
     		                    final CryptoHelper cryptoHelper) throws IOException {
 
-        final String normalizedSignningAlgorithm = getNormalizedSigningAlgorithm(signingAlgorithm);
-        final DigestAlgorithm digestAlgorithm = getDigestAlgorithm(normalizedSignningAlgorithm);
-        final byte[] header = selectHeaderTemplate(digestAlgorithm);
-        final byte[] md = cryptoHelper.digest(digestAlgorithm, data);
+    	if (RAW_DIGESTINFO_ALGORITHM.equalsIgnoreCase(signingAlgorithm)) {
+    		if (!isDigestInfo(data)) {
+    			throw new IOException(
+					"Los datos no son un DigestInfo de una huella SHA-1, SHA-256, SHA-384 o SHA-512" //$NON-NLS-1$
+				);
+    		}
+    		return data.clone();
+    	}
+        final DigestAlgorithm digestAlgorithm = getDigestAlgorithmForSigning(signingAlgorithm);
+        return encodeDigest(digestAlgorithm, cryptoHelper.digest(digestAlgorithm, data));
+    }
+
+    /** Codifica una estructura <code>DigestInfo</code> a partir de una huella ya calculada.
+     * @param signingAlgorithm Algoritmo de huella digital o de firma electr&oacute;nica.
+     * @param digest Huella de los datos, calculada con el algoritmo de huella correspondiente.
+     * @return Estructura <code>DigestInfo</code>.
+     * @throws IOException Si la longitud de la huella no es la del algoritmo. */
+    public static byte[] encodeDigest(final String signingAlgorithm,
+    		                          final byte[] digest) throws IOException {
+    	return encodeDigest(getDigestAlgorithmForSigning(signingAlgorithm), digest);
+    }
 
+    /** Indica si unos datos son una estructura <code>DigestInfo</code> de una huella de
+     * alguno de los algoritmos soportados.
+     * @param data Datos a comprobar.
+     * @return <code>true</code> si los datos son una estructura <code>DigestInfo</code> soportada. */
+    public static boolean isDigestInfo(final byte[] data) {
+    	if (data == null) {
+    		return false;
+    	}
+    	for (final DigestAlgorithm digestAlgorithm : DigestAlgorithm.values()) {
+    		final byte[] header = selectHeaderTemplate(digestAlgorithm);
+    		if (data.length == header.length + digestAlgorithm.getDigestLength() &&
+				Arrays.equals(header, Arrays.copyOf(data, header.length))) {
+    			return true;
+    		}
+    	}
+    	return false;
+    }
+
+    /** Obtiene el algoritmo de huella digital que corresponde a un algoritmo de firma.
+     * @param signingAlgorithm Algoritmo de huella digital o de firma electr&oacute;nica.
+     * @return Algoritmo de huella digital.
+     * @throws IllegalStateException Si el algoritmo no est&aacute; soportado. */
+    public static DigestAlgorithm getDigestAlgorithmForSigning(final String signingAlgorithm) {
+    	return getDigestAlgorithm(getNormalizedSigningAlgorithm(signingAlgorithm));
+    }
+
+    private static byte[] encodeDigest(final DigestAlgorithm digestAlgorithm,
+    		                           final byte[] md) throws IOException {
+    	if (md == null || md.length != digestAlgorithm.getDigestLength()) {
+    		throw new IOException(
+				"La huella no tiene la longitud de una huella " + digestAlgorithm + ": " + //$NON-NLS-1$ //$NON-NLS-2$
+					(md == null ? "nula" : Integer.toString(md.length)) //$NON-NLS-1$
+			);
+    	}
+        final byte[] header = selectHeaderTemplate(digestAlgorithm);
         final byte[] digestInfo = new byte[header.length + md.length];
         System.arraycopy(header, 0, digestInfo, 0, header.length);
         System.arraycopy(md, 0, digestInfo, header.length, md.length);
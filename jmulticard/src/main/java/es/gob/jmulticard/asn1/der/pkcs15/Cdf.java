@@ -56,16 +56,16 @@ public final class Cdf extends Record implements Pkcs15Cdf {
         super(
     		new OptionalDecoderObjectElement[] {
 				// Maximo 10 certificados
-				new OptionalDecoderObjectElement(CertificateObject.class, false),
-				new OptionalDecoderObjectElement(CertificateObject.class, true),
-				new OptionalDecoderObjectElement(CertificateObject.class, true),
-				new OptionalDecoderObjectElement(CertificateObject.class, true),
-				new OptionalDecoderObjectElement(CertificateObject.class, true),
-				new OptionalDecoderObjectElement(CertificateObject.class, true),
-				new OptionalDecoderObjectElement(CertificateObject.class, true),
-				new OptionalDecoderObjectElement(CertificateObject.class, true),
-				new OptionalDecoderObjectElement(CertificateObject.class, true),
-				new OptionalDecoderObjectElement(CertificateObject.class, true)
+				new OptionalDecoderObjectElement(CertificateObject::new,  false),
+				new OptionalDecoderObjectElement(CertificateObject::new,  true),
+				new OptionalDecoderObjectElement(CertificateObject::new,  true),
+				new OptionalDecoderObjectElement(CertificateObject::new,  true),
+				new OptionalDecoderObjectElement(CertificateObject::new,  true),
+				new OptionalDecoderObjectElement(CertificateObject::new,  true),
+				new OptionalDecoderObjectElement(CertificateObject::new,  true),
+				new OptionalDecoderObjectElement(CertificateObject::new,  true),
+				new OptionalDecoderObjectElement(CertificateObject::new,  true),
+				new OptionalDecoderObjectElement(CertificateObject::new,  true)
     		}
 		);
     }
@@ -48,7 +48,7 @@ public final class CertificateIssuerContextSpecific extends ContextSpecific {
 
 	/** Construye un objeto emisor de certificado espec&iacute;fico de contexto. */
 	public CertificateIssuerContextSpecific() {
-		super(RdnSequence.class);
+		super(RdnSequence::new);
 	}
 
 	@Override
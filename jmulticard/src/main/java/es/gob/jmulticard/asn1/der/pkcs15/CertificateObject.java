@@ -41,6 +41,8 @@ package es.gob.jmulticard.asn1.der.pkcs15;
 
 import java.math.BigInteger;
 
+import java.util.function.Supplier;
+
 import es.gob.jmulticard.asn1.DecoderObject;
 import es.gob.jmulticard.asn1.der.ContextSpecific;
 
@@ -93,19 +95,19 @@ public class CertificateObject extends Pkcs15Object {
 	public CertificateObject() {
 		super(
 		//  CommonObjectAttributes (se hereda)
-			CommonCertificateAttributes.class,
+			CommonCertificateAttributes::new,
 			null,
-			X509CertificateAttributesContextSpecific.class
+			X509CertificateAttributesContextSpecific::new
 		);
 	}
 
     /** Construye un tipo CertificateObject ASN&#46;1.
-     * @param classAttributes Tipo de los Atributos espec&iacute;ficos de la clase general del objeto
-     * @param subclassAttributes Tipo de los Atributos espec&iacute;ficos de la subclase general del objeto
-     * @param typeAttributes Tipo de los Atributos espec&iacute;ficos del tipo concreto del objeto */
-	protected CertificateObject(final Class<? extends DecoderObject> classAttributes,
-			                    final Class<? extends ContextSpecific> subclassAttributes,
-			                    final Class<? extends ContextSpecific> typeAttributes) {
+     * @param classAttributes Proveedor de los Atributos espec&iacute;ficos de la clase general del objeto
+     * @param subclassAttributes Proveedor de los Atributos espec&iacute;ficos de la subclase general del objeto
+     * @param typeAttributes Proveedor de los Atributos espec&iacute;ficos del tipo concreto del objeto */
+	protected CertificateObject(final Supplier<? extends DecoderObject> classAttributes,
+			                    final Supplier<? extends ContextSpecific> subclassAttributes,
+			                    final Supplier<? extends ContextSpecific> typeAttributes) {
         super(classAttributes, subclassAttributes, typeAttributes);
     }
 
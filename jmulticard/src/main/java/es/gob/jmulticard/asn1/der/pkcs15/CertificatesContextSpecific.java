@@ -18,7 +18,7 @@ public final class CertificatesContextSpecific extends ContextSpecific {
 	/** Construye una numeraci&oacute;n de certificados espec&iacute;fica de contexto.
 	 * Esta implememtaci&oacute;n solo soporta <code>Path</code> como tipo de los registros. */
 	public CertificatesContextSpecific() {
-		super(Path.class);
+		super(Path::new);
 	}
 
 	/** Obtiene la ruta (Path ASN&#46;1 PKCS#15) hacia el CDF.
@@ -32,9 +32,14 @@ public final class CertificatesContextSpecific extends ContextSpecific {
 		);
 	}
 
+	@Override
+    public boolean isCompatibleTag(final byte tag) {
+		return TAG == tag;
+	}
+
 	@Override
     public void checkTag(final byte tag) throws Asn1Exception {
-		if (TAG != tag) {
+		if (!isCompatibleTag(tag)) {
 			throw new Asn1Exception(
 				"CertificatesContextSpecific esperaba una etiqueta especifica de contexto " + HexUtils.hexify(new byte[] { TAG }, false) + //$NON-NLS-1$
 					" pero ha encontrado " + HexUtils.hexify(new byte[] { tag }, false) //$NON-NLS-1$
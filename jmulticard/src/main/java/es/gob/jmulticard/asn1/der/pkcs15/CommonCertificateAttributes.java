@@ -60,7 +60,7 @@ public final class CommonCertificateAttributes extends Sequence {
         super(
     		new OptionalDecoderObjectElement[] {
 				new OptionalDecoderObjectElement(
-					Identifier.class,
+					Identifier::new,
 					false
 				)
 			}
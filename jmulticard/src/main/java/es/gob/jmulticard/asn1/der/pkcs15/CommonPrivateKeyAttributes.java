@@ -25,7 +25,7 @@ public final class CommonPrivateKeyAttributes extends Sequence {
 			// implementado casi siempre como "RdnSequence".
 			new OptionalDecoderObjectElement[] {
 				new OptionalDecoderObjectElement(
-					RdnSequence.class,
+					RdnSequence::new,
 					true // Opcional
 				)
 			}
@@ -42,11 +42,11 @@ public final class Odf extends Record {
 	public Odf() {
 		super(
 			new OptionalDecoderObjectElement[] {
-				new OptionalDecoderObjectElement(PrivateKeysContextSpecific.class, true),       // PrKDF
-				new OptionalDecoderObjectElement(PublicKeysContextSpecific.class, true),
-				new OptionalDecoderObjectElement(TrustedPublicKeysContextSpecific.class, true),
-				new OptionalDecoderObjectElement(SecretKeysContextSpecific.class, true),
-				new OptionalDecoderObjectElement(CertificatesContextSpecific.class, true)       // CDF
+				new OptionalDecoderObjectElement(PrivateKeysContextSpecific::new,  true),       // PrKDF
+				new OptionalDecoderObjectElement(PublicKeysContextSpecific::new,  true),
+				new OptionalDecoderObjectElement(TrustedPublicKeysContextSpecific::new,  true),
+				new OptionalDecoderObjectElement(SecretKeysContextSpecific::new,  true),
+				new OptionalDecoderObjectElement(CertificatesContextSpecific::new,  true)       // CDF
 			}
 		);
 	}
@@ -60,15 +60,15 @@ public final class Path extends Sequence {
 		super(
 			new OptionalDecoderObjectElement[] {
 				new OptionalDecoderObjectElement(
-					OctectString.class,
+					OctectString::new,
 					false
 				),
 				new OptionalDecoderObjectElement(
-					DerInteger.class,
+					DerInteger::new,
 					true
 				),
 				new OptionalDecoderObjectElement(
-					PathLength.class,
+					PathLength::new,
 					true
 				)
 			}
@@ -41,10 +41,9 @@ package es.gob.jmulticard.asn1.der.pkcs15;
 
 import es.gob.jmulticard.HexUtils;
 import es.gob.jmulticard.asn1.Asn1Exception;
-import es.gob.jmulticard.asn1.Tlv;
 import es.gob.jmulticard.asn1.TlvException;
 import es.gob.jmulticard.asn1.der.ContextSpecific;
-import es.gob.jmulticard.asn1.der.Record;
+import es.gob.jmulticard.asn1.der.DerInteger;
 
 /** Tipo ASN&#46;1 entero de contexto espec&iacute;fico.
  * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
@@ -60,17 +59,22 @@ public final class PathLength extends ContextSpecific {
 
 	/** Construye un objeto ASN&#46;1 entero de contexto espec&iacute;fico. */
 	public PathLength() {
-		super(Record.class);
+		super(DerInteger::new);
 	}
 
 	@Override
     protected void decodeValue() throws TlvException {
-		value = Integer.valueOf(String.valueOf(HexUtils.getUnsignedInt(new Tlv(getRawDerValue()).getValue(), 0)));
+		value = Integer.valueOf(String.valueOf(HexUtils.getUnsignedInt(getRawDerTlv().getValue(), 0)));
+	}
+
+	@Override
+    public boolean isCompatibleTag(final byte tag) {
+		return TAG == tag;
 	}
 
 	@Override
     public void checkTag(final byte tag) throws Asn1Exception {
-		if (TAG != tag) {
+		if (!isCompatibleTag(tag)) {
 			throw new Asn1Exception(
 				"PathLength esperaba una etiqueta especifica de contexto " + HexUtils.hexify(new byte[] { TAG }, false) + //$NON-NLS-1$
 					" pero ha encontrado " + HexUtils.hexify(new byte[] { tag }, false) //$NON-NLS-1$
@@ -39,6 +39,8 @@
  */
 package es.gob.jmulticard.asn1.der.pkcs15;
 
+import java.util.function.Supplier;
+
 import es.gob.jmulticard.asn1.DecoderObject;
 import es.gob.jmulticard.asn1.OptionalDecoderObjectElement;
 import es.gob.jmulticard.asn1.der.ContextSpecific;
@@ -58,16 +60,16 @@ import es.gob.jmulticard.asn1.der.Sequence;
 public abstract class Pkcs15Object extends Sequence {
 
     /** Construye un tipo PKCS#15 ASN&#46;1 <i>PKCS15Object</i> (<i>CIO</i> de ISO 7816-15).
-     * @param classAttributes Tipo de los Atributos espec&iacute;ficos de la clase general del objeto
-     * @param subclassAttributes Tipo de los Atributos espec&iacute;ficos de la subclase general del objeto
-     * @param typeAttributes Tipo de los Atributos espec&iacute;ficos del tipo concreto del objeto */
-	protected Pkcs15Object(final Class<? extends DecoderObject> classAttributes,
-			               final Class<? extends ContextSpecific> subclassAttributes,
-			               final Class<? extends ContextSpecific> typeAttributes) {
+     * @param classAttributes Proveedor de los Atributos espec&iacute;ficos de la clase general del objeto
+     * @param subclassAttributes Proveedor de los Atributos espec&iacute;ficos de la subclase general del objeto
+     * @param typeAttributes Proveedor de los Atributos espec&iacute;ficos del tipo concreto del objeto */
+	protected Pkcs15Object(final Supplier<? extends DecoderObject> classAttributes,
+			               final Supplier<? extends ContextSpecific> subclassAttributes,
+			               final Supplier<? extends ContextSpecific> typeAttributes) {
         super(
     		new OptionalDecoderObjectElement[] {
 				new OptionalDecoderObjectElement(
-					CommonObjectAttributes.class,
+					CommonObjectAttributes::new,
 					false
 				),
 				new OptionalDecoderObjectElement(
@@ -53,16 +53,16 @@ public class PrKdf extends Record implements Pkcs15PrKdf {
 		super(
 			new OptionalDecoderObjectElement[] {
 				// Maximo 10 certificados
-				new OptionalDecoderObjectElement(PrivateKeyObject.class, false),
-				new OptionalDecoderObjectElement(PrivateKeyObject.class, true),
-				new OptionalDecoderObjectElement(PrivateKeyObject.class, true),
-				new OptionalDecoderObjectElement(PrivateKeyObject.class, true),
-				new OptionalDecoderObjectElement(PrivateKeyObject.class, true),
-				new OptionalDecoderObjectElement(PrivateKeyObject.class, true),
-				new OptionalDecoderObjectElement(PrivateKeyObject.class, true),
-				new OptionalDecoderObjectElement(PrivateKeyObject.class, true),
-				new OptionalDecoderObjectElement(PrivateKeyObject.class, true),
-				new OptionalDecoderObjectElement(PrivateKeyObject.class, true)
+				new OptionalDecoderObjectElement(PrivateKeyObject::new,  false),
+				new OptionalDecoderObjectElement(PrivateKeyObject::new,  true),
+				new OptionalDecoderObjectElement(PrivateKeyObject::new,  true),
+				new OptionalDecoderObjectElement(PrivateKeyObject::new,  true),
+				new OptionalDecoderObjectElement(PrivateKeyObject::new,  true),
+				new OptionalDecoderObjectElement(PrivateKeyObject::new,  true),
+				new OptionalDecoderObjectElement(PrivateKeyObject::new,  true),
+				new OptionalDecoderObjectElement(PrivateKeyObject::new,  true),
+				new OptionalDecoderObjectElement(PrivateKeyObject::new,  true),
+				new OptionalDecoderObjectElement(PrivateKeyObject::new,  true)
 			}
 		);
 	}
@@ -41,6 +41,8 @@ package es.gob.jmulticard.asn1.der.pkcs15;
 
 import javax.security.auth.x500.X500Principal;
 
+import java.util.function.Supplier;
+
 import es.gob.jmulticard.asn1.DecoderObject;
 import es.gob.jmulticard.asn1.der.ContextSpecific;
 
@@ -67,12 +69,12 @@ import es.gob.jmulticard.asn1.der.ContextSpecific;
 public class PrivateKeyObject extends Pkcs15Object {
 
     /** Construye un tipo PrivateKeyObject ASN&#46;1.
-     * @param classAttributes Tipo de los Atributos espec&iacute;ficos de la clase general del objeto
-     * @param subclassAttributes Tipo de los Atributos espec&iacute;ficos de la subclase general del objeto
-     * @param typeAttributes Tipo de los Atributos espec&iacute;ficos del tipo concreto del objeto */
-	protected PrivateKeyObject(final Class<? extends DecoderObject> classAttributes,
-			                   final Class<? extends ContextSpecific> subclassAttributes,
-			                   final Class<? extends ContextSpecific> typeAttributes) {
+     * @param classAttributes Proveedor de los Atributos espec&iacute;ficos de la clase general del objeto
+     * @param subclassAttributes Proveedor de los Atributos espec&iacute;ficos de la subclase general del objeto
+     * @param typeAttributes Proveedor de los Atributos espec&iacute;ficos del tipo concreto del objeto */
+	protected PrivateKeyObject(final Supplier<? extends DecoderObject> classAttributes,
+			                   final Supplier<? extends ContextSpecific> subclassAttributes,
+			                   final Supplier<? extends ContextSpecific> typeAttributes) {
         super(classAttributes, subclassAttributes, typeAttributes);
 	}
 
@@ -81,9 +83,9 @@ public class PrivateKeyObject extends Pkcs15Object {
 	public PrivateKeyObject() {
 		super(
 		 // CommonObjectAttributes (heredado de Pkcs15Object)
-			CommonKeyAttributes.class,                       // classAttributes
-			CommonPrivateKeyAttributesContextSpecific.class, // subclassAttributes
-			PrivateRsaKeyAttributesContextSpecific.class     // typeAttributes
+			CommonKeyAttributes::new,                        // classAttributes
+			CommonPrivateKeyAttributesContextSpecific::new,  // subclassAttributes
+			PrivateRsaKeyAttributesContextSpecific::new      // typeAttributes
 		);
 	}
 
@@ -60,11 +60,11 @@ public final class PrivateRsaKeyAttributes extends Sequence {
 		super(
 			new OptionalDecoderObjectElement[] {
 				new OptionalDecoderObjectElement(
-					Path.class,
+					Path::new,
 					false
 				),
 				new OptionalDecoderObjectElement(
-					DerInteger.class,
+					DerInteger::new,
 					false
 				)
 				// Faltaria el KeyInfo, pero es un campo
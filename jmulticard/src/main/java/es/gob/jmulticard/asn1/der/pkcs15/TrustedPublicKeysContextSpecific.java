@@ -18,12 +18,17 @@ public final class TrustedPublicKeysContextSpecific extends ContextSpecific {
 	/** Construye una numeraci&oacute;n de claves p&uacute;blicas de confianza espec&iacute;fica de contexto.
 	 * Esta implememtaci&oacute;n solo soporta <code>Path</code> como tipo de los registros. */
 	public TrustedPublicKeysContextSpecific() {
-		super(Path.class);
+		super(Path::new);
+	}
+
+	@Override
+    public boolean isCompatibleTag(final byte tag) {
+		return TAG == tag;
 	}
 
 	@Override
     public void checkTag(final byte tag) throws Asn1Exception {
-		if (TAG != tag) {
+		if (!isCompatibleTag(tag)) {
 			throw new Asn1Exception(
 				"TrustedPublicKeysContextSpecific esperaba una etiqueta especifica de contexto " + HexUtils.hexify(new byte[] { TAG }, false) + //$NON-NLS-1$
 				" pero ha encontrado " + HexUtils.hexify(new byte[] { tag }, false) //$NON-NLS-1$
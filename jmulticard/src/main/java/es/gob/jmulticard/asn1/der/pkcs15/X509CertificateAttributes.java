@@ -68,19 +68,19 @@ public final class X509CertificateAttributes extends Sequence {
 		super(
 			new OptionalDecoderObjectElement[] {
 				new OptionalDecoderObjectElement(
-					Path.class,
+					Path::new,
 					false
 				),
 				new OptionalDecoderObjectElement(
-					RdnSequence.class,
+					RdnSequence::new,
 					true
 				),
 				new OptionalDecoderObjectElement(
-					CertificateIssuerContextSpecific.class,
+					CertificateIssuerContextSpecific::new,
 					true
 				),
 				new OptionalDecoderObjectElement(
-					DerInteger.class,
+					DerInteger::new,
 					true
 				)
 			}
@@ -19,11 +19,11 @@ public final class AlgorithmIdentifier extends Sequence {
 		super(
 			new OptionalDecoderObjectElement[] {
 				new OptionalDecoderObjectElement(
-					ObjectIdentifier.class,
+					ObjectIdentifier::new,
 					false
 				),
 				new OptionalDecoderObjectElement(
-					ObjectIdentifier.class,
+					ObjectIdentifier::new,
 					true
 				)
 			}
@@ -59,11 +59,11 @@ public final class AttributeTypeAndDistinguishedValue extends Sequence {
 		super(
 			new OptionalDecoderObjectElement[] {
 				new OptionalDecoderObjectElement(
-					ObjectIdentifier.class,
+					ObjectIdentifier::new,
 					false
 				),
 				new OptionalDecoderObjectElement(
-					Utf8String.class,
+					Utf8String::new,
 					false
 				)
 			}
@@ -49,7 +49,7 @@ public final class RdnSequence extends SequenceOf {
 
 	/** Construye un objeto ASN&#46;1 X&#46;509 <i>RdnSequence</i> (secuencia de <i>RelativeDistinguishedName</i>). */
 	public RdnSequence() {
-		super(RelativeDistinguishedName.class);
+		super(RelativeDistinguishedName::new);
 	}
 
 	@Override
@@ -54,7 +54,7 @@ public final class RelativeDistinguishedName extends Set {
 		super(
 			new OptionalDecoderObjectElement[] {
 				new OptionalDecoderObjectElement(
-					AttributeTypeAndDistinguishedValue.class,
+					AttributeTypeAndDistinguishedValue::new,
 					false
 				)
 			}
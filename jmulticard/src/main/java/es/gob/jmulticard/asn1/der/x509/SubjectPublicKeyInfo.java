@@ -23,11 +23,11 @@ public final class SubjectPublicKeyInfo extends Sequence {
 		super(
 			new OptionalDecoderObjectElement[] {
 				new OptionalDecoderObjectElement(
-					AlgorithmIdentifier.class,
+					AlgorithmIdentifier::new,
 					false
 				),
 				new OptionalDecoderObjectElement(
-					SubjectPublicKey.class,
+					SubjectPublicKey::new,
 					false
 				)
 			}
@@ -137,4 +137,11 @@ public final class Com extends DecoderObject {
 		return (String[]) presentDgs.toArray();
 	}
 
+	/** Indica si un grupo de datos est&aacute; presente en la aplicaci&oacute;n.
+	 * @param dgNumber N&uacute;mero del grupo de datos (de 1 a 16).
+	 * @return <code>true</code> si el grupo de datos est&aacute; en la lista de r&oacute;tulos. */
+	public boolean isDgPresent(final int dgNumber) {
+		return presentDgs.contains("DG" + dgNumber); //$NON-NLS-1$
+	}
+
 }
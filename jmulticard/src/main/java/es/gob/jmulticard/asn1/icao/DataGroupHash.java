@@ -40,11 +40,11 @@ public final class DataGroupHash extends Sequence {
 		super(
 			new OptionalDecoderObjectElement[] {
 				new OptionalDecoderObjectElement(
-					DerInteger.class,
+					DerInteger::new,
 					false
 				),
 				new OptionalDecoderObjectElement(
-					OctectString.class,
+					OctectString::new,
 					false
 				)
 			}
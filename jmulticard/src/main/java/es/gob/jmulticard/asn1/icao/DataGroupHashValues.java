@@ -11,7 +11,7 @@ public final class DataGroupHashValues extends SequenceOf {
 
 	/** Constructor. */
 	public DataGroupHashValues() {
-		super(DataGroupHash.class);
+		super(DataGroupHash::new);
 	}
 
 	/** Obtiene los <code>DataGroupHash</code>.
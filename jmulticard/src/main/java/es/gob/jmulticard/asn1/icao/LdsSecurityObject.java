@@ -37,19 +37,19 @@ public final class LdsSecurityObject extends Sequence {
 		super(
 			new OptionalDecoderObjectElement[] {
 				new OptionalDecoderObjectElement(
-					DerInteger.class,          // LDSSecurityObjectVersion
+					DerInteger::new,           // LDSSecurityObjectVersion
 					false
 				),
 				new OptionalDecoderObjectElement(
-					AlgorithmIdentifier.class, // DigestAlgorithmIdentifier
+					AlgorithmIdentifier::new,  // DigestAlgorithmIdentifier
 					false
 				),
 				new OptionalDecoderObjectElement(
-					DataGroupHashValues.class, // SEQUENCE SIZE OF DataHashGroup
+					DataGroupHashValues::new,  // SEQUENCE SIZE OF DataHashGroup
 					false
 				),
 				new OptionalDecoderObjectElement(
-					Sequence.class,            // LDSVersionInfo
+					null,                      // LDSVersionInfo (no se decodifica)
 					true // Opcional
 				),
 			}
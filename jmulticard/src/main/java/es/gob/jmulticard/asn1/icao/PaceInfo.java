@@ -0,0 +1,67 @@
+package es.gob.jmulticard.asn1.icao;
+
+import es.gob.jmulticard.apdu.iso7816four.pace.MseSetPaceAlgorithmApduCommand.PaceAlgorithmOid;
+import es.gob.jmulticard.apdu.iso7816four.pace.MseSetPaceAlgorithmApduCommand.PaceAlgorithmParam;
+
+/** Informaci&oacute;n de un algoritmo PACE soportado por un MRTD (<code>PACEInfo</code>
+ * de ICAO 9303 parte 11).
+ * <pre>
+ *  PACEInfo ::= SEQUENCE {
+ *     protocol     OBJECT IDENTIFIER,
+ *     version      INTEGER,
+ *     parameterId  INTEGER OPTIONAL
+ *  }
+ * </pre>
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class PaceInfo {
+
+	/** PACE con correspondencia gen&eacute;rica (<i>Generic Mapping</i>) ECDH sobre
+	 * <i>brainpoolP256r1</i>, que es el que se usa cuando el MRTD no indica otro. */
+	public static final PaceInfo DEFAULT = new PaceInfo(
+		PaceAlgorithmOid.PACE_ECDH_GM_AES_CBC_CMAC_128,
+		2,
+		PaceAlgorithmParam.BRAINPOOL_256_R1
+	);
+
+	private final PaceAlgorithmOid algorithm;
+	private final int version;
+	private final PaceAlgorithmParam parameter;
+
+	/** Construye la informaci&oacute;n de un algoritmo PACE.
+	 * @param alg Algoritmo PACE.
+	 * @param ver Versi&oacute;n del protocolo.
+	 * @param param Par&aacute;metros de dominio. */
+	public PaceInfo(final PaceAlgorithmOid alg, final int ver, final PaceAlgorithmParam param) {
+		if (alg == null || param == null) {
+			throw new IllegalArgumentException(
+				"Ni el algoritmo ni los parametros de dominio pueden ser nulos" //$NON-NLS-1$
+			);
+		}
+		algorithm = alg;
+		version = ver;
+		parameter = param;
+	}
+
+	/** Obtiene el algoritmo PACE.
+	 * @return Algoritmo PACE. */
+	public PaceAlgorithmOid getAlgorithm() {
+		return algorithm;
+	}
+
+	/** Obtiene la versi&oacute;n del protocolo.
+	 * @return Versi&oacute;n del protocolo. */
+	public int getVersion() {
+		return version;
+	}
+
+	/** Obtiene los par&aacute;metros de dominio.
+	 * @return Par&aacute;metros de dominio. */
+	public PaceAlgorithmParam getParameter() {
+		return parameter;
+	}
+
+	@Override
+	public String toString() {
+		return "PACEInfo: " + algorithm + " (version " + version + ") con " + parameter; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+}
@@ -0,0 +1,159 @@
+package es.gob.jmulticard.asn1.icao;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import es.gob.jmulticard.HexUtils;
+import es.gob.jmulticard.apdu.iso7816four.pace.MseSetPaceAlgorithmApduCommand.PaceAlgorithmOid;
+import es.gob.jmulticard.apdu.iso7816four.pace.MseSetPaceAlgorithmApduCommand.PaceAlgorithmParam;
+import es.gob.jmulticard.asn1.Asn1Exception;
+import es.gob.jmulticard.asn1.DecoderObject;
+import es.gob.jmulticard.asn1.TlvException;
+import es.gob.jmulticard.asn1.bertlv.BerTlv;
+
+/** Conjunto de informaciones de seguridad (<code>SecurityInfos</code>) de ICAO 9303 parte 11,
+ * que es el contenido de EF&#46;CardAccess, de EF&#46;CardSecurity y del DG14.
+ * De los <code>SecurityInfo</code> solo se interpretan los <code>PACEInfo</code> de los
+ * algoritmos PACE conocidos y la clave p&uacute;blica ECDH de autenticaci&oacute;n de chip
+ * (<code>ChipAuthenticationPublicKeyInfo</code>); el resto se ignoran.
+ * <pre>
+ *  SecurityInfos ::= SET OF SecurityInfo
+ *
+ *  SecurityInfo ::= SEQUENCE {
+ *     protocol      OBJECT IDENTIFIER,
+ *     requiredData  ANY DEFINED BY protocol,
+ *     optionalData  ANY DEFINED BY protocol OPTIONAL
+ *  }
+ *
+ *  ChipAuthenticationPublicKeyInfo ::= SEQUENCE {
+ *     protocol                     OBJECT IDENTIFIER (id-PK-ECDH),
+ *     chipAuthenticationPublicKey  SubjectPublicKeyInfo,
+ *     keyId                        INTEGER OPTIONAL
+ *  }
+ * </pre>
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class SecurityInfos extends DecoderObject {
+
+	private static final byte TAG_SET = (byte) 0x31;
+	private static final byte TAG_SEQUENCE = (byte) 0x30;
+	private static final byte TAG_OID = (byte) 0x06;
+	private static final byte TAG_INTEGER = (byte) 0x02;
+	private static final byte TAG_BIT_STRING = (byte) 0x03;
+
+	/** id-PK-ECDH (OID 0.4.0.127.0.7.2.2.1.2). */
+	private static final byte[] ID_PK_ECDH = {
+		(byte) 0x04, (byte) 0x00, (byte) 0x7f, (byte) 0x00, (byte) 0x07,
+		(byte) 0x02, (byte) 0x02, (byte) 0x01, (byte) 0x02
+	};
+
+	private final List<PaceInfo> paceInfos = new ArrayList<>();
+	private transient byte[] chipAuthenticationPublicKey = null;
+
+	@Override
+	protected void decodeValue() throws Asn1Exception, TlvException {
+		final BerTlv tlv = BerTlv.createInstance(getRawDerValue());
+		checkTag(tlv.getTag());
+
+		paceInfos.clear();
+		chipAuthenticationPublicKey = null;
+
+		final ByteArrayInputStream securityInfos = new ByteArrayInputStream(tlv.getValue());
+		while (securityInfos.available() > 0) {
+			final BerTlv securityInfo = BerTlv.createInstance(securityInfos);
+			if (securityInfo.getTag() != TAG_SEQUENCE) {
+				throw new Asn1Exception(
+					"Se esperaba un SecurityInfo de tipo SEQUENCE, pero se ha encontrado el tipo " + //$NON-NLS-1$
+						HexUtils.hexify(new byte[] { securityInfo.getTag() }, false)
+				);
+			}
+			final ByteArrayInputStream fields = new ByteArrayInputStream(securityInfo.getValue());
+			final BerTlv protocol = BerTlv.createInstance(fields);
+			if (protocol.getTag() != TAG_OID) {
+				throw new Asn1Exception(
+					"El primer elemento de un SecurityInfo debe ser un OID, pero se ha encontrado el tipo " + //$NON-NLS-1$
+						HexUtils.hexify(new byte[] { protocol.getTag() }, false)
+				);
+			}
+			final PaceAlgorithmOid paceAlgorithm = PaceAlgorithmOid.getPaceAlgorithmOid(protocol.getValue());
+			if (paceAlgorithm != null) {
+				decodePaceInfo(paceAlgorithm, fields);
+			}
+			else if (HexUtils.arrayEquals(protocol.getValue(), ID_PK_ECDH) && chipAuthenticationPublicKey == null) {
+				chipAuthenticationPublicKey = decodeSubjectPublicKey(BerTlv.createInstance(fields));
+			}
+		}
+	}
+
+	private void decodePaceInfo(final PaceAlgorithmOid paceAlgorithm,
+			                    final ByteArrayInputStream fields) throws Asn1Exception {
+		final BerTlv version = BerTlv.createInstance(fields);
+		if (version.getTag() != TAG_INTEGER) {
+			throw new Asn1Exception("La version de un PACEInfo debe ser un INTEGER"); //$NON-NLS-1$
+		}
+		// Sin parameterId los parametros de dominio no son estandarizados, y no se soportan
+		if (fields.available() == 0) {
+			return;
+		}
+		final BerTlv parameterId = BerTlv.createInstance(fields);
+		if (parameterId.getTag() != TAG_INTEGER) {
+			throw new Asn1Exception("El parameterId de un PACEInfo debe ser un INTEGER"); //$NON-NLS-1$
+		}
+		final PaceAlgorithmParam param = PaceAlgorithmParam.getPaceAlgorithmParam(toInt(parameterId.getValue()));
+		if (param != null) {
+			paceInfos.add(new PaceInfo(paceAlgorithm, toInt(version.getValue()), param));
+		}
+	}
+
+	/** Obtiene el punto (sin comprimir) de una clave p&uacute;blica EC en formato
+	 * <code>SubjectPublicKeyInfo</code>.
+	 * @param spki <code>SubjectPublicKeyInfo</code>.
+	 * @return Codificaci&oacute;n del punto de la clave p&uacute;blica.
+	 * @throws Asn1Exception Si la estructura no es la esperada. */
+	private static byte[] decodeSubjectPublicKey(final BerTlv spki) throws Asn1Exception {
+		if (spki.getTag() != TAG_SEQUENCE) {
+			throw new Asn1Exception("La clave de autenticacion de chip debe ser un SubjectPublicKeyInfo"); //$NON-NLS-1$
+		}
+		final ByteArrayInputStream spkiFields = new ByteArrayInputStream(spki.getValue());
+		BerTlv.createInstance(spkiFields); // AlgorithmIdentifier
+		final BerTlv publicKey = BerTlv.createInstance(spkiFields);
+		if (publicKey.getTag() != TAG_BIT_STRING || publicKey.getLength() < 2) {
+			throw new Asn1Exception("La clave de autenticacion de chip debe ser un BIT STRING"); //$NON-NLS-1$
+		}
+		// Se omite el octeto de bits no usados
+		return HexUtils.subArray(publicKey.getValue(), 1, publicKey.getLength() - 1);
+	}
+
+	private static int toInt(final byte[] value) {
+		int ret = 0;
+		for (final byte b : value) {
+			ret = ret << 8 | b & 0xff;
+		}
+		return ret;
+	}
+
+	@Override
+	protected byte getDefaultTag() {
+		return TAG_SET;
+	}
+
+	/** Obtiene los algoritmos PACE soportados por el MRTD, en el orden en el que los declara.
+	 * Solo se incluyen los algoritmos y par&aacute;metros de dominio conocidos.
+	 * @return Algoritmos PACE soportados por el MRTD. */
+	public List<PaceInfo> getPaceInfos() {
+		return Collections.unmodifiableList(paceInfos);
+	}
+
+	/** Obtiene la clave p&uacute;blica ECDH de autenticaci&oacute;n de chip.
+	 * @return Punto de la clave p&uacute;blica o <code>null</code> si no hay ninguna. */
+	public byte[] getChipAuthenticationPublicKey() {
+		return chipAuthenticationPublicKey == null ? null : chipAuthenticationPublicKey.clone();
+	}
+
+	@Override
+	public String toString() {
+		return "SecurityInfos: " + paceInfos + //$NON-NLS-1$
+			(chipAuthenticationPublicKey != null ? " y clave de autenticacion de chip ECDH" : ""); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
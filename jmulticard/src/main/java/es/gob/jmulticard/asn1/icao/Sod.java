@@ -34,7 +34,7 @@ public final class Sod extends DecoderObject {
 
 	@Override
 	protected void decodeValue() throws Asn1Exception, TlvException {
-		final Tlv tlv = new Tlv(getRawDerValue());
+		final Tlv tlv = getRawDerTlv();
 		checkTag(tlv.getTag());
 	}
 
@@ -50,7 +50,7 @@ public final class Sod extends DecoderObject {
 	                                       IOException,
 	                                       Asn1Exception {
 
-		final Tlv tlv = new Tlv(getRawDerValue());
+		final Tlv tlv = getRawDerTlv();
 
 		this.certificateChain = this.cryptoHelper.validateCmsSignature(tlv.getValue());
 
@@ -59,6 +59,21 @@ public final class Sod extends DecoderObject {
 		this.ldsSecurityObject.setDerValue(this.ldsSecurityObjectBytes);
 	}
 
+	/** Obtiene el <code>LDSSecurityObject</code> sin validar la firma electr&oacute;nica del SOD,
+	 * para poder ir comprobando las huellas de los DG mientras esta se valida.
+	 * Su contenido no es fiable hasta que <code>validateSignature()</code> termine sin errores.
+	 * @return LDSSecurityObject cuya firma a&uacute;n no se ha validado.
+	 * @throws TlvException Si el SOD del documento no es un TLV v&aacute;lido.
+	 * @throws IOException Si el SOD no contiene una firma CMS/PKCS#7 bien formada.
+	 * @throws Asn1Exception Si el SOD no contiene un <code>LDSSecurityObject</code> v&aacute;lido. */
+	public LdsSecurityObject getUnverifiedLdsSecurityObject() throws TlvException,
+	                                                                 IOException,
+	                                                                 Asn1Exception {
+		final LdsSecurityObject lso = new LdsSecurityObject();
+		lso.setDerValue(this.cryptoHelper.getCmsSignatureSignedContent(getRawDerTlv().getValue()));
+		return lso;
+	}
+
 	@Override
 	protected byte getDefaultTag() {
 		return TAG;
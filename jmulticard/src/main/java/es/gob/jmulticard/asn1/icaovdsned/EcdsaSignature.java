@@ -1,5 +1,7 @@
 package es.gob.jmulticard.asn1.icaovdsned;
 
+import java.math.BigInteger;
+
 import es.gob.jmulticard.asn1.OptionalDecoderObjectElement;
 import es.gob.jmulticard.asn1.der.DerInteger;
 import es.gob.jmulticard.asn1.der.Sequence;
@@ -19,15 +21,27 @@ public final class EcdsaSignature extends Sequence {
 		super(
 			new OptionalDecoderObjectElement[] {
 				new OptionalDecoderObjectElement(
-					DerInteger.class,
+					DerInteger::new,
 					false
 				),
 				new OptionalDecoderObjectElement(
-					DerInteger.class,
+					DerInteger::new,
 					false
 				)
 			}
 		);
 	}
 
+	/** Obtiene el valor R de la firma.
+	 * @return Valor R de la firma. */
+	public BigInteger getR() {
+		return ((DerInteger) getElementAt(0)).getIntegerValue();
+	}
+
+	/** Obtiene el valor S de la firma.
+	 * @return Valor S de la firma. */
+	public BigInteger getS() {
+		return ((DerInteger) getElementAt(1)).getIntegerValue();
+	}
+
 }
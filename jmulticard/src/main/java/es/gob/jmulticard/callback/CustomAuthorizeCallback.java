@@ -41,13 +41,40 @@ import javax.security.auth.callback.Callback;
 
 /** This callback is used by <code>SaslServer</code> to determine whether one entity
  * (identified by an authenticated authentication ID) can act on behalf of
- * another entity (identified by an authorization ID). */
+ * another entity (identified by an authorization ID).
+ * When a single authorization covers a batch of signatures, the callback carries
+ * the number of signatures being authorized so the user can be told about it. */
 public final class CustomAuthorizeCallback implements Callback {
 
+    /** Number of signatures covered by this authorization. */
+    private final int signatureCount;
+
     /** @serial A flag indicating whether the authentication id is allowed to act
      * on behalf of the authorization id. */
     private boolean authorized = false;
 
+    /** Creates an authorization callback for a single signature. */
+    public CustomAuthorizeCallback() {
+        this(1);
+    }
+
+    /** Creates an authorization callback for a batch of signatures.
+     * @param count Number of signatures covered by the authorization. */
+    public CustomAuthorizeCallback(final int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException(
+                "The authorization must cover at least one signature: " + count //$NON-NLS-1$
+            );
+        }
+        signatureCount = count;
+    }
+
+    /** Gets the number of signatures covered by this authorization.
+     * @return Number of signatures (one unless a batch is being authorized). */
+    public int getSignatureCount() {
+        return signatureCount;
+    }
+
     /** Determines if the identity represented by authentication ID is allowed to
      * act on behalf of the authorization ID.     *
      * @return <code>true</code> if authorization is allowed; <code>false</code>
@@ -39,12 +39,19 @@
  */
 package es.gob.jmulticard.card;
 
+import java.util.concurrent.locks.ReentrantLock;
+
 import es.gob.jmulticard.apdu.CommandApdu;
 import es.gob.jmulticard.apdu.ResponseApdu;
 import es.gob.jmulticard.connection.ApduConnection;
 import es.gob.jmulticard.connection.ApduConnectionException;
 
 /** Tarjeta inteligente gen&eacute;rica.
+ * Las secuencias de APDU que deben llegar a la tarjeta sin que se intercalen otras (selecci&oacute;n
+ * y lectura de un fichero, establecimiento del entorno de seguridad y firma, etc.) se ejecutan
+ * con el cerrojo de la tarjeta (<code>getCardLock()</code>). Se usa un <code>ReentrantLock</code>
+ * en lugar de <code>synchronized</code> para que los hilos virtuales que esperan a la tarjeta no
+ * bloqueen a sus hilos portadores.
  * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
 public abstract class AbstractSmartCard implements Card {
 
@@ -57,6 +64,17 @@ public abstract class AbstractSmartCard implements Card {
     /** Conexi&oacute;n con el lector de tarjetas. */
     private ApduConnection connection;
 
+    /** Cerrojo de las operaciones con la tarjeta. */
+    private final ReentrantLock cardLock = new ReentrantLock();
+
+    /** Obtiene el cerrojo que garantiza el acceso exclusivo a la tarjeta.
+     * Es reentrante, por lo que puede usarse para agrupar varias operaciones de la tarjeta
+     * en una &uacute;nica secci&oacute;n cr&iacute;tica.
+     * @return Cerrojo de la tarjeta. */
+    public ReentrantLock getCardLock() {
+    	return cardLock;
+    }
+
     /** Obtiene la conexi&oacute;n de la tarjeta.
      * @return Conexi&oacute;n de la tarjeta. */
     protected ApduConnection getConnection() {
@@ -68,7 +86,13 @@ public abstract class AbstractSmartCard implements Card {
      * @return APDU de respuesta.
      * @throws ApduConnectionException En cualquier error. */
     protected ResponseApdu sendArbitraryApdu(final CommandApdu apdu) throws ApduConnectionException {
-    	return connection.transmit(apdu);
+    	cardLock.lock();
+    	try {
+    		return connection.transmit(apdu);
+    	}
+    	finally {
+    		cardLock.unlock();
+    	}
     }
 
     /** Establece una nueva conexi&oacute;n con la tarjeta.
@@ -94,16 +94,21 @@ public class Atr implements Serializable {
     	if (!(o instanceof Atr)) {
     		return false;
     	}
+    	return matches(((Atr) o).atrBytes);
+    }
 
-    	final byte[] tmpAtrBytes;
-    	tmpAtrBytes = ((Atr) o).getBytes();
-
-        if (atrBytes.length < tmpAtrBytes.length) {
+    /** Indica si el ATR de una tarjeta coincide con este, comparando solo las posiciones
+     * de valor constante seg&uacute;n la m&aacute;scara de este ATR.
+     * Equivale a <code>equals(new Atr(cardAtr, mask))</code>, pero sin crear objetos.
+     * @param cardAtr Octetos del ATR de la tarjeta.
+     * @return <code>true</code> si el ATR de la tarjeta coincide con este. */
+    public boolean matches(final byte[] cardAtr) {
+        if (cardAtr == null || atrBytes.length < cardAtr.length) {
         	return false;
         }
-        final int offset = atrBytes.length - tmpAtrBytes.length;
-        for (int i=tmpAtrBytes.length-1; i>=0; i--) {
-            if ((atrBytes[i+offset] & mask[i+offset]) != (tmpAtrBytes[i] & mask[i+offset])) {
+        final int offset = atrBytes.length - cardAtr.length;
+        for (int i=cardAtr.length-1; i>=0; i--) {
+            if ((atrBytes[i+offset] & mask[i+offset]) != (cardAtr[i] & mask[i+offset])) {
                 return false;
             }
         }
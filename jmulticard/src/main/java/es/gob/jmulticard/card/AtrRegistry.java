@@ -0,0 +1,211 @@
+package es.gob.jmulticard.card;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.logging.Logger;
+
+import es.gob.jmulticard.card.cardos.CardOS;
+import es.gob.jmulticard.card.dnie.DnieFactory;
+import es.gob.jmulticard.card.dnie.ceressc.CeresSc;
+import es.gob.jmulticard.card.fnmt.ceres.Ceres;
+import es.gob.jmulticard.card.gemalto.tuir5.TuiR5;
+import es.gob.jmulticard.card.gide.smartcafe.SmartCafePkcs15Applet;
+
+/** Registro de los ATR de las tarjetas soportadas, para identificar el tipo de una tarjeta
+ * a partir de su ATR.
+ * Los ATR registrados se compilan en una tabla de decisi&oacute;n indexada por la longitud
+ * del ATR y por su octeto T0 (formato), de forma que la clasificaci&oacute;n de un ATR solo
+ * compara los patrones candidatos y no crea ning&uacute;n objeto. Si un ATR coincide con
+ * varios patrones, prevalece el registrado antes.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class AtrRegistry {
+
+	private static final Logger LOGGER = Logger.getLogger("es.gob.jmulticard"); //$NON-NLS-1$
+
+	/** Posici&oacute;n del octeto T0 en el ATR. */
+	private static final int T0 = 1;
+
+	private static final int[] NO_CANDIDATES = new int[0];
+
+	/** Condici&oacute;n adicional sobre el ATR completo, para distinguir tarjetas que no se
+	 * pueden diferenciar solo con una m&aacute;scara (por ejemplo, por rango de versiones). */
+	public interface AtrCondition {
+
+		/** Indica si un ATR que ya coincide con el patr&oacute;n cumple la condici&oacute;n.
+		 * @param atr Octetos del ATR de la tarjeta.
+		 * @return <code>true</code> si el ATR cumple la condici&oacute;n. */
+		boolean accept(byte[] atr);
+	}
+
+	/** Constructor de registros de ATR. */
+	public static final class Builder {
+
+		private final List<Atr> patterns = new ArrayList<>();
+		private final List<AtrCondition> conditions = new ArrayList<>();
+		private final List<Class<? extends Card>> types = new ArrayList<>();
+
+		/** Registra un ATR de un tipo de tarjeta.
+		 * @param cardType Clase de la tarjeta.
+		 * @param atr ATR (con su m&aacute;scara) de la tarjeta.
+		 * @return Este constructor. */
+		public Builder register(final Class<? extends Card> cardType, final Atr atr) {
+			return register(cardType, atr, null);
+		}
+
+		/** Registra un ATR de un tipo de tarjeta con una condici&oacute;n adicional.
+		 * @param cardType Clase de la tarjeta.
+		 * @param atr ATR (con su m&aacute;scara) de la tarjeta.
+		 * @param condition Condici&oacute;n adicional que debe cumplir el ATR, o
+		 *                  <code>null</code> si basta con que coincida con el patr&oacute;n.
+		 * @return Este constructor. */
+		public Builder register(final Class<? extends Card> cardType,
+				                final Atr atr,
+				                final AtrCondition condition) {
+			if (cardType == null || atr == null) {
+				throw new IllegalArgumentException("El tipo de tarjeta y su ATR no pueden ser nulos"); //$NON-NLS-1$
+			}
+			patterns.add(atr);
+			conditions.add(condition);
+			types.add(cardType);
+			return this;
+		}
+
+		/** Crea el registro con los ATR registrados.
+		 * @return Registro de ATR. */
+		public AtrRegistry build() {
+			return new AtrRegistry(this);
+		}
+	}
+
+	/** Registro por defecto, creado al primer uso. */
+	private static final class DefaultRegistryHolder {
+		static final AtrRegistry INSTANCE = createDefaultRegistry();
+	}
+
+	private final Atr[] patterns;
+	private final AtrCondition[] conditions;
+	private final List<Class<? extends Card>> types;
+
+	/** Patrones candidatos por longitud del ATR y valor de su octeto T0. */
+	private final int[][][] table;
+
+	private AtrRegistry(final Builder builder) {
+		patterns = builder.patterns.toArray(new Atr[0]);
+		conditions = builder.conditions.toArray(new AtrCondition[0]);
+		types = new ArrayList<>(builder.types);
+
+		int maxLength = 0;
+		for (final Atr pattern : patterns) {
+			maxLength = Math.max(maxLength, pattern.getBytes().length);
+		}
+		table = new int[maxLength + 1][][];
+		for (int length = 1; length <= maxLength; length++) {
+			table[length] = compile(length);
+		}
+	}
+
+	/** Calcula los patrones candidatos para los ATR de una longitud dada.
+	 * Los ATR m&aacute;s cortos que un patr&oacute;n se comparan con su final, como en
+	 * {@link Atr#matches(byte[])}. */
+	private int[][] compile(final int length) {
+		final List<List<Integer>> buckets = new ArrayList<>(256);
+		for (int t0 = 0; t0 < 256; t0++) {
+			buckets.add(new ArrayList<Integer>());
+		}
+		for (int i = 0; i < patterns.length; i++) {
+			final byte[] bytes = patterns[i].getBytes();
+			final byte[] mask = patterns[i].getMask();
+			if (bytes.length < length) {
+				continue;
+			}
+			final int pos = T0 + bytes.length - length;
+			if (length > T0 && mask[pos] == (byte) 0xff) {
+				buckets.get(bytes[pos] & 0xff).add(Integer.valueOf(i));
+			}
+			else {
+				// El octeto T0 no es constante en el patron: es candidato para cualquier valor
+				for (final List<Integer> bucket : buckets) {
+					bucket.add(Integer.valueOf(i));
+				}
+			}
+		}
+		final int[][] row = new int[256][];
+		for (int t0 = 0; t0 < 256; t0++) {
+			row[t0] = toArray(buckets.get(t0));
+		}
+		return row;
+	}
+
+	private static int[] toArray(final List<Integer> indexes) {
+		if (indexes.isEmpty()) {
+			return NO_CANDIDATES;
+		}
+		final int[] ret = new int[indexes.size()];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = indexes.get(i).intValue();
+		}
+		return ret;
+	}
+
+	/** Obtiene el registro de ATR por defecto, con las tarjetas soportadas por JMultiCard
+	 * y las de los proveedores {@link CardAtrProvider} declarados como servicio.
+	 * @return Registro de ATR por defecto. */
+	public static AtrRegistry getInstance() {
+		return DefaultRegistryHolder.INSTANCE;
+	}
+
+	private static AtrRegistry createDefaultRegistry() {
+		final Builder builder = new Builder();
+		DnieFactory.registerAtrs(builder);
+		CeresSc.registerAtrs(builder);
+		Ceres.registerAtrs(builder);
+		SmartCafePkcs15Applet.registerAtrs(builder);
+		TuiR5.registerAtrs(builder);
+		CardOS.registerAtrs(builder);
+		try {
+			final Iterator<CardAtrProvider> providers = ServiceLoader.load(CardAtrProvider.class).iterator();
+			while (providers.hasNext()) {
+				final CardAtrProvider provider = providers.next();
+				provider.registerAtrs(builder);
+				LOGGER.info("Registrados los ATR de " + provider.getClass().getName()); //$NON-NLS-1$
+			}
+		}
+		catch (final ServiceConfigurationError e) {
+			LOGGER.warning("No se han podido cargar los proveedores de ATR adicionales: " + e); //$NON-NLS-1$
+		}
+		return builder.build();
+	}
+
+	/** Identifica el tipo de una tarjeta a partir de su ATR.
+	 * @param atr Octetos del ATR de la tarjeta.
+	 * @return Clase de la tarjeta o <code>null</code> si el ATR no coincide con ning&uacute;n
+	 *         ATR registrado. */
+	public Class<? extends Card> classify(final byte[] atr) {
+		if (atr == null || atr.length == 0 || atr.length >= table.length) {
+			return null;
+		}
+		final int[] candidates = table[atr.length][atr.length > T0 ? atr[T0] & 0xff : 0];
+		for (final int i : candidates) {
+			if (patterns[i].matches(atr) && (conditions[i] == null || conditions[i].accept(atr))) {
+				return types.get(i);
+			}
+		}
+		return null;
+	}
+
+	/** Indica si un ATR corresponde a un tipo de tarjeta concreto.
+	 * @param atr Octetos del ATR de la tarjeta.
+	 * @param cardType Clase de la tarjeta.
+	 * @return <code>true</code> si el ATR se identifica como de ese tipo de tarjeta. */
+	public boolean isCardType(final byte[] atr, final Class<? extends Card> cardType) {
+		return cardType != null && cardType.equals(classify(atr));
+	}
+
+	@Override
+	public String toString() {
+		return "Registro de " + patterns.length + " ATR de tarjetas"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
@@ -0,0 +1,13 @@
+package es.gob.jmulticard.card;
+
+/** Proveedor de los ATR de tarjetas adicionales para el registro de ATR.
+ * Los controladores de tarjetas de terceros se registran declarando su implementaci&oacute;n
+ * en <code>META-INF/services/es.gob.jmulticard.card.CardAtrProvider</code>, y sus ATR se
+ * consideran despu&eacute;s de los de las tarjetas soportadas por JMultiCard.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public interface CardAtrProvider {
+
+	/** Registra los ATR de las tarjetas del proveedor.
+	 * @param registry Constructor del registro de ATR en el que se registran. */
+	void registerAtrs(AtrRegistry.Builder registry);
+}
@@ -0,0 +1,193 @@
+package es.gob.jmulticard.card;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+import es.gob.jmulticard.connection.ApduConnection;
+import es.gob.jmulticard.connection.ApduConnectionException;
+import es.gob.jmulticard.connection.CardNotPresentException;
+import es.gob.jmulticard.connection.NoReadersFoundException;
+import es.gob.jmulticard.connection.TerminalAtrReader;
+
+/** Descubrimiento de las tarjetas insertadas en los lectores de una conexi&oacute;n.
+ * Si la conexi&oacute;n es capaz de leer los ATR sin reiniciar las tarjetas
+ * ({@link TerminalAtrReader}), se leen todos en paralelo (un hilo por lector) y sin
+ * interferir con las tarjetas que est&eacute;n usando otros procesos. Si no, se recorren
+ * los lectores uno a uno reiniciando sus tarjetas.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class CardDiscovery {
+
+	private static final Logger LOGGER = Logger.getLogger("es.gob.jmulticard"); //$NON-NLS-1$
+
+	/** Clasificador de tarjetas seg&uacute;n su ATR.
+	 * @param <T> Tipo de la clasificaci&oacute;n. */
+	public interface AtrClassifier<T> {
+
+		/** Clasifica una tarjeta seg&uacute;n su ATR.
+		 * @param atr ATR de la tarjeta.
+		 * @return Tipo de la tarjeta o <code>null</code> si no est&aacute; soportada. */
+		T classify(byte[] atr);
+	}
+
+	private static final ThreadFactory DAEMON_THREADS = new ThreadFactory() {
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread t = new Thread(r, "jmulticard-descubrimiento"); //$NON-NLS-1$
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	private CardDiscovery() {
+		// No instanciable
+	}
+
+	/** Obtiene los ATR de las tarjetas insertadas en los lectores de una conexi&oacute;n.
+	 * Si la conexi&oacute;n no implementa {@link TerminalAtrReader}, queda establecida en el
+	 * &uacute;ltimo lector con tarjeta.
+	 * @param conn Conexi&oacute;n con los lectores.
+	 * @return ATR de las tarjetas insertadas, por n&uacute;mero de lector (en el orden de los
+	 *         lectores). Los lectores sin tarjeta o que no se han podido consultar no se incluyen.
+	 * @throws ApduConnectionException Si no se puede obtener la lista de lectores o no hay
+	 *                                 ning&uacute;n lector. */
+	public static Map<Long, byte[]> readAtrs(final ApduConnection conn) throws ApduConnectionException {
+		if (conn == null) {
+			throw new IllegalArgumentException("La conexion no puede ser nula"); //$NON-NLS-1$
+		}
+		final long[] terminals = conn.getTerminals(false);
+		if (terminals.length < 1) {
+			throw new NoReadersFoundException();
+		}
+		if (conn instanceof TerminalAtrReader) {
+			return readAtrs((TerminalAtrReader) conn, terminals);
+		}
+		final Map<Long, byte[]> atrs = new LinkedHashMap<>(terminals.length);
+		for (final long terminal : terminals) {
+			try {
+				final byte[] atr = readAtr(conn, terminal);
+				if (atr != null) {
+					atrs.put(Long.valueOf(terminal), atr);
+				}
+			}
+			catch (final ApduConnectionException e) {
+				LOGGER.warning("Error reiniciando la tarjeta del lector " + terminal + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+		return atrs;
+	}
+
+	/** Obtiene el ATR de la tarjeta insertada en un lector de una conexi&oacute;n, sin
+	 * reiniciarla si la conexi&oacute;n implementa {@link TerminalAtrReader}. Si no lo
+	 * implementa, la conexi&oacute;n queda establecida en el lector indicado.
+	 * @param conn Conexi&oacute;n con los lectores.
+	 * @param terminal N&uacute;mero de lector.
+	 * @return ATR de la tarjeta insertada o <code>null</code> si no hay ninguna insertada.
+	 * @throws ApduConnectionException Si el lector no existe o no se puede consultar. */
+	public static byte[] readAtr(final ApduConnection conn, final long terminal) throws ApduConnectionException {
+		if (conn instanceof TerminalAtrReader) {
+			return ((TerminalAtrReader) conn).getAtr((int) terminal);
+		}
+		conn.setTerminal((int) terminal);
+		try {
+			return conn.reset();
+		}
+		catch (final CardNotPresentException e) {
+			LOGGER.fine("No hay tarjeta insertada en el lector " + terminal + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			return null;
+		}
+	}
+
+	private static Map<Long, byte[]> readAtrs(final TerminalAtrReader reader,
+			                                  final long[] terminals) {
+		final Map<Long, byte[]> atrs = new LinkedHashMap<>(terminals.length);
+		if (terminals.length == 1) {
+			final byte[] atr = readAtrQuietly(reader, terminals[0]);
+			if (atr != null) {
+				atrs.put(Long.valueOf(terminals[0]), atr);
+			}
+			return atrs;
+		}
+		final ExecutorService executor = Executors.newFixedThreadPool(terminals.length, DAEMON_THREADS);
+		try {
+			final Map<Long, Future<byte[]>> pending = new LinkedHashMap<>(terminals.length);
+			for (final long terminal : terminals) {
+				pending.put(
+					Long.valueOf(terminal),
+					executor.submit(
+						new Callable<byte[]>() {
+							@Override
+							public byte[] call() {
+								return readAtrQuietly(reader, terminal);
+							}
+						}
+					)
+				);
+			}
+			for (final Map.Entry<Long, Future<byte[]>> entry : pending.entrySet()) {
+				final byte[] atr;
+				try {
+					atr = entry.getValue().get();
+				}
+				catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					LOGGER.warning("Se ha interrumpido la lectura de los ATR de los lectores"); //$NON-NLS-1$
+					break;
+				}
+				catch (final ExecutionException e) {
+					LOGGER.warning("Error leyendo el ATR del lector " + entry.getKey() + ": " + e.getCause()); //$NON-NLS-1$ //$NON-NLS-2$
+					continue;
+				}
+				if (atr != null) {
+					atrs.put(entry.getKey(), atr);
+				}
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		return atrs;
+	}
+
+	private static byte[] readAtrQuietly(final TerminalAtrReader reader, final long terminal) {
+		try {
+			return reader.getAtr((int) terminal);
+		}
+		catch (final ApduConnectionException e) {
+			LOGGER.warning("No se ha podido leer el ATR del lector " + terminal + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			return null;
+		}
+	}
+
+	/** Descubre y clasifica las tarjetas insertadas en los lectores de una conexi&oacute;n.
+	 * Los ATR se obtienen con {@link #readAtrs(ApduConnection)} y se clasifican despu&eacute;s
+	 * todos de una vez.
+	 * @param <T> Tipo de la clasificaci&oacute;n.
+	 * @param conn Conexi&oacute;n con los lectores.
+	 * @param classifier Clasificador de las tarjetas seg&uacute;n su ATR.
+	 * @return Tipo de las tarjetas soportadas, por n&uacute;mero de lector (en el orden de los
+	 *         lectores). Los lectores sin tarjeta o con tarjetas no soportadas no se incluyen.
+	 * @throws ApduConnectionException Si no se puede obtener la lista de lectores o no hay
+	 *                                 ning&uacute;n lector. */
+	public static <T> Map<Long, T> discover(final ApduConnection conn,
+			                                final AtrClassifier<T> classifier) throws ApduConnectionException {
+		if (classifier == null) {
+			throw new IllegalArgumentException("El clasificador de tarjetas no puede ser nulo"); //$NON-NLS-1$
+		}
+		final Map<Long, byte[]> atrs = readAtrs(conn);
+		final Map<Long, T> types = new LinkedHashMap<>(atrs.size());
+		for (final Map.Entry<Long, byte[]> entry : atrs.entrySet()) {
+			final T type = classifier.classify(entry.getValue());
+			if (type != null) {
+				types.put(entry.getKey(), type);
+			}
+		}
+		return types;
+	}
+}
@@ -0,0 +1,64 @@
+package es.gob.jmulticard.card;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import es.gob.jmulticard.CryptoHelper;
+import es.gob.jmulticard.HexUtils;
+
+/** Almac&eacute;n de certificados (y datos asociados) ya le&iacute;dos de tarjetas, indexado
+ * por tarjeta. Permite evitar la lectura y decodificaci&oacute;n de los certificados de una
+ * tarjeta que ya se ha tratado anteriormente.
+ * La implementaci&oacute;n en memoria ({@link MemoryCertificateCache}) est&aacute; acotada en
+ * n&uacute;mero de tarjetas y descarta las entradas que superan su tiempo de vida o, si
+ * est&aacute; lleno, la usada hace m&aacute;s tiempo.
+ * Las implementaciones deben poder usarse desde varios hilos simult&aacute;neamente.
+ * @param <E> Tipo de las entradas del almac&eacute;n.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public interface CertificateCache<E> {
+
+	/** Obtiene la entrada almacenada para una tarjeta.
+	 * @param cardId Identificador de la tarjeta.
+	 * @return Entrada almacenada o <code>null</code> si no hay ninguna vigente para esa tarjeta. */
+	E get(String cardId);
+
+	/** Almacena (o sustituye) la entrada de una tarjeta.
+	 * @param cardId Identificador de la tarjeta.
+	 * @param entry Entrada con los certificados de la tarjeta. */
+	void put(String cardId, E entry);
+
+	/** Elimina la entrada de una tarjeta, si existe.
+	 * @param cardId Identificador de la tarjeta. */
+	void remove(String cardId);
+
+	/** Elimina todas las entradas del almac&eacute;n. */
+	void clear();
+
+	/** Calcula el identificador con el que se guarda una tarjeta PKCS#15 en el almac&eacute;n.
+	 * El CDF de una tarjeta PKCS#15 incluye el emisor y el n&uacute;mero de serie de cada
+	 * certificado, por lo que su huella identifica a la tarjeta y cambia si se reexpide.
+	 * @param cardName Nombre del tipo de tarjeta.
+	 * @param cdf Contenido binario del CDF de la tarjeta.
+	 * @param cryptoHelper Manejador de funciones criptogr&aacute;ficas.
+	 * @return Identificador de la tarjeta en el almac&eacute;n o <code>null</code> si no
+	 *         se ha podido calcular (en cuyo caso no se debe usar el almac&eacute;n). */
+	static String getCardId(final String cardName,
+			                final byte[] cdf,
+			                final CryptoHelper cryptoHelper) {
+		if (cdf == null || cryptoHelper == null) {
+			return null;
+		}
+		try {
+			return cardName + ':' + HexUtils.hexify(
+				cryptoHelper.digest(CryptoHelper.DigestAlgorithm.SHA256, cdf),
+				false
+			);
+		}
+		catch (final IOException e) {
+			Logger.getLogger("es.gob.jmulticard").warning( //$NON-NLS-1$
+				"No se ha podido identificar la tarjeta para el almacen de certificados, se leeran de la tarjeta: " + e //$NON-NLS-1$
+			);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package es.gob.jmulticard.card;
+
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/** Entrada del almac&eacute;n de certificados de tarjetas PKCS#15: certificados ya
+ * decodificados de una tarjeta y, si la tarjeta las usa, las referencias a las claves
+ * privadas de cada alias. Es inmutable.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class CertificateCacheEntry {
+
+	/** Certificados indexados por alias, en el orden de la tarjeta. */
+	private final Map<String, X509Certificate> certificates;
+
+	/** Referencias (ordinales) de las claves privadas indexadas por alias. */
+	private final Map<String, Integer> keyReferences;
+
+	/** Construye una entrada del almac&eacute;n de certificados.
+	 * @param certs Certificados indexados por alias.
+	 * @param keyRefs Referencias de las claves privadas indexadas por alias
+	 *                (puede ser <code>null</code> si la tarjeta no las usa). */
+	public CertificateCacheEntry(final Map<String, X509Certificate> certs, final Map<String, Integer> keyRefs) {
+		if (certs == null) {
+			throw new IllegalArgumentException("Los certificados no pueden ser nulos"); //$NON-NLS-1$
+		}
+		certificates = Collections.unmodifiableMap(new LinkedHashMap<>(certs));
+		keyReferences = keyRefs != null ?
+			Collections.unmodifiableMap(new LinkedHashMap<>(keyRefs)) :
+				Collections.<String, Integer>emptyMap();
+	}
+
+	/** Obtiene los alias de los certificados, en el orden de la tarjeta.
+	 * @return Alias de los certificados. */
+	public Set<String> getAliases() {
+		return certificates.keySet();
+	}
+
+	/** Obtiene los certificados indexados por alias, en el orden de la tarjeta.
+	 * @return Certificados indexados por alias. */
+	public Map<String, X509Certificate> getCertificates() {
+		return certificates;
+	}
+
+	/** Obtiene las referencias de las claves privadas indexadas por alias.
+	 * @return Referencias de las claves privadas indexadas por alias. */
+	public Map<String, Integer> getKeyReferences() {
+		return keyReferences;
+	}
+
+	@Override
+	public String toString() {
+		return "Entrada de cache de certificados con alias " + certificates.keySet(); //$NON-NLS-1$
+	}
+}
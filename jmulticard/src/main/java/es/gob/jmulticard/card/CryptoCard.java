@@ -40,6 +40,8 @@
 package es.gob.jmulticard.card;
 
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
 
 /** Operaciones comunes a todas las tarjetas criptogr&aacute;ficas.
  * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
@@ -77,4 +79,56 @@ public interface CryptoCard {
      * @throws PinException Si el PIN proporcionado es incorrecto o no es posible obtenerlo. */
     byte[] sign(byte[] data, String algorithm, PrivateKeyReference keyRef) throws CryptoCardException, PinException;
 
+    /** Realiza una firma electr&oacute;nica a partir de la huella ya calculada de los datos,
+     * de forma que no es necesario tener los datos completos en memoria.
+     * Solo la implementan las tarjetas que pueden firmar un <i>DigestInfo</i> ya construido;
+     * por defecto no se admite.
+     * @param digest Huella de los datos a firmar, calculada con el algoritmo de huella del de firma.
+     * @param algorithm Algoritmo de firma (por ejemplo, <code>SHA256withRSA</code>).
+     * @param keyRef Referencia a la clave privada de firma.
+     * @return Datos firmados (PKCS#1 v1.5).
+     * @throws AuthenticationModeLockedException Cuando la tarjeta est&aacute; bloqueada.
+     * @throws CryptoCardException Si ocurre alg&uacute;n problema durante la firma.
+     * @throws PinException Si el PIN proporcionado es incorrecto o no es posible obtenerlo.
+     * @throws UnsupportedOperationException Si la tarjeta no admite la firma de huellas ya calculadas. */
+    default byte[] signDigest(final byte[] digest,
+    		                  final String algorithm,
+    		                  final PrivateKeyReference keyRef) throws CryptoCardException,
+                                                                       PinException {
+    	throw new UnsupportedOperationException(
+			"La tarjeta no admite la firma de huellas ya calculadas" //$NON-NLS-1$
+		);
+    }
+
+    /** Realiza las firmas electr&oacute;nicas de un lote de datos con la misma clave.
+     * Un error en la firma de uno de los elementos no detiene el lote, sino que queda
+     * reflejado en su resultado. Las tarjetas que lo permiten reducen el coste de cada firma
+     * (establecen una sola vez el entorno de seguridad, piden una sola vez la autorizaci&oacute;n
+     * del usuario, etc.); por defecto se firma cada elemento con {@link #sign(byte[], String, PrivateKeyReference)}.
+     * @param data Datos a firmar, uno por elemento del lote.
+     * @param algorithm Algoritmo de firma.
+     * @param keyRef Referencia a la clave privada de firma.
+     * @return Resultados de las firmas, en el mismo orden que los datos.
+     * @throws AuthenticationModeLockedException Cuando la tarjeta est&aacute; bloqueada.
+     * @throws CryptoCardException Si ocurre alg&uacute;n problema que impide firmar el lote completo.
+     * @throws PinException Si el PIN proporcionado es incorrecto o no es posible obtenerlo. */
+    default List<SignatureResult> signBatch(final List<byte[]> data,
+    		                                final String algorithm,
+    		                                final PrivateKeyReference keyRef) throws CryptoCardException,
+                                                                                     PinException {
+    	if (data == null) {
+    		throw new IllegalArgumentException("Los datos a firmar no pueden ser nulos"); //$NON-NLS-1$
+    	}
+    	final List<SignatureResult> results = new ArrayList<>(data.size());
+    	for (final byte[] item : data) {
+    		try {
+    			results.add(SignatureResult.success(sign(item, algorithm, keyRef)));
+    		}
+    		catch (final CryptoCardException e) {
+    			results.add(SignatureResult.failure(e));
+    		}
+    	}
+    	return results;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,196 @@
+package es.gob.jmulticard.card;
+
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Logger;
+
+/** Certificados de una tarjeta que se leen y decodifican la primera vez que se piden.
+ * Los alias y las rutas se conocen de antemano (a partir del CDF), pero el contenido de
+ * cada certificado no se lee de la tarjeta hasta que se necesita, o hasta que lo hace
+ * un hilo de precarga en segundo plano.
+ * Las lecturas se hacen con el cerrojo indicado (normalmente el de la propia tarjeta),
+ * para que no se mezclen con otras APDU.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class LazyCertificates {
+
+	/** Lector de los certificados de una tarjeta. */
+	public interface CertificateReader {
+
+		/** Lee y decodifica un certificado de la tarjeta.
+		 * @param location Ruta del certificado en la tarjeta.
+		 * @return Certificado le&iacute;do.
+		 * @throws IOException Si no se puede leer o decodificar el certificado. */
+		X509Certificate readCertificate(Location location) throws IOException;
+	}
+
+	private static final Logger LOGGER = Logger.getLogger("es.gob.jmulticard"); //$NON-NLS-1$
+
+	private final Lock lock;
+	private final CertificateReader reader;
+
+	/** Rutas de los certificados indexadas por alias, en el orden de la tarjeta. */
+	private final Map<String, Location> locations = new LinkedHashMap<>();
+
+	/** Certificados ya le&iacute;dos indexados por alias. */
+	private final Map<String, X509Certificate> certificates = new HashMap<>();
+
+	/** Crea un conjunto de certificados de lectura diferida.
+	 * @param cardLock Cerrojo con el que se hacen las lecturas.
+	 * @param certReader Lector de los certificados de la tarjeta. */
+	public LazyCertificates(final Lock cardLock, final CertificateReader certReader) {
+		if (cardLock == null || certReader == null) {
+			throw new IllegalArgumentException(
+				"Ni el cerrojo ni el lector de certificados pueden ser nulos" //$NON-NLS-1$
+			);
+		}
+		lock = cardLock;
+		reader = certReader;
+	}
+
+	/** A&ntilde;ade un certificado que se leer&aacute; cuando se pida.
+	 * @param alias Alias del certificado.
+	 * @param location Ruta del certificado en la tarjeta. */
+	public void add(final String alias, final Location location) {
+		lock.lock();
+		try {
+			locations.put(alias, location);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/** A&ntilde;ade un certificado ya le&iacute;do.
+	 * @param alias Alias del certificado.
+	 * @param location Ruta del certificado en la tarjeta.
+	 * @param cert Certificado. */
+	public void add(final String alias, final Location location, final X509Certificate cert) {
+		lock.lock();
+		try {
+			locations.put(alias, location);
+			certificates.put(alias, cert);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/** Obtiene los alias de los certificados, en el orden de la tarjeta.
+	 * @return Alias de los certificados. */
+	public String[] getAliases() {
+		lock.lock();
+		try {
+			return locations.keySet().toArray(new String[0]);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/** Indica si hay un certificado con el alias indicado (le&iacute;do o no).
+	 * @param alias Alias del certificado.
+	 * @return <code>true</code> si hay un certificado con ese alias. */
+	public boolean contains(final String alias) {
+		lock.lock();
+		try {
+			return locations.containsKey(alias);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/** Obtiene un certificado, ley&eacute;ndolo de la tarjeta si a&uacute;n no se hab&iacute;a hecho.
+	 * Los errores de lectura no se recuerdan, de forma que si el certificado no se puede
+	 * leer se vuelve a intentar en la siguiente petici&oacute;n.
+	 * @param alias Alias del certificado.
+	 * @return Certificado o <code>null</code> si no hay ninguno con ese alias o no se ha podido leer. */
+	public X509Certificate get(final String alias) {
+		lock.lock();
+		try {
+			final X509Certificate cert = certificates.get(alias);
+			if (cert != null) {
+				return cert;
+			}
+			final Location location = locations.get(alias);
+			if (location == null) {
+				return null;
+			}
+			try {
+				final X509Certificate read = reader.readCertificate(location);
+				certificates.put(alias, read);
+				return read;
+			}
+			catch (final IOException e) {
+				LOGGER.warning(
+					"No se ha podido leer el certificado con alias '" + alias + "': " + e //$NON-NLS-1$ //$NON-NLS-2$
+				);
+				return null;
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/** Indica si ya se han le&iacute;do todos los certificados.
+	 * @return <code>true</code> si no queda ning&uacute;n certificado por leer (los que no
+	 *         se han podido leer siguen pendientes). */
+	public boolean isFullyLoaded() {
+		lock.lock();
+		try {
+			return certificates.size() >= locations.size();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/** Obtiene los certificados ya le&iacute;dos, en el orden de la tarjeta.
+	 * @return Certificados ya le&iacute;dos indexados por alias. */
+	public Map<String, X509Certificate> getLoaded() {
+		lock.lock();
+		try {
+			final Map<String, X509Certificate> loaded = new LinkedHashMap<>();
+			for (final String alias : locations.keySet()) {
+				final X509Certificate cert = certificates.get(alias);
+				if (cert != null) {
+					loaded.put(alias, cert);
+				}
+			}
+			return Collections.unmodifiableMap(loaded);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/** Inicia un hilo en segundo plano que lee todos los certificados a&uacute;n no le&iacute;dos.
+	 * Cada certificado se lee en una secci&oacute;n cr&iacute;tica distinta, de forma que
+	 * las dem&aacute;s operaciones con la tarjeta pueden intercalarse con la precarga.
+	 * Cada certificado pendiente se intenta leer una sola vez por precarga, y los que fallen
+	 * se vuelven a intentar cuando se pidan.
+	 * @param cardName Nombre de la tarjeta, para el nombre del hilo.
+	 * @return Hilo de precarga, ya iniciado. */
+	public Thread prefetch(final String cardName) {
+		final Thread t = new Thread(
+			new Runnable() {
+				@Override
+				public void run() {
+					for (final String alias : getAliases()) {
+						get(alias);
+					}
+				}
+			},
+			"Precarga de certificados de " + cardName //$NON-NLS-1$
+		);
+		t.setDaemon(true);
+		t.start();
+		return t;
+	}
+}
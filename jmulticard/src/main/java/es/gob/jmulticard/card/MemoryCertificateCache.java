@@ -0,0 +1,181 @@
+package es.gob.jmulticard.card;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Almac&eacute;n acotado en memoria de certificados ya le&iacute;dos de tarjetas, indexado
+ * por tarjeta.
+ * Las entradas se descartan cuando superan su tiempo de vida o, si el almac&eacute;n est&aacute;
+ * lleno, empezando por la usada hace m&aacute;s tiempo. Puede usarse desde varios hilos
+ * (y por tanto desde varios <code>KeyStore</code>) simult&aacute;neamente.
+ * @param <E> Tipo de las entradas del almac&eacute;n.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class MemoryCertificateCache<E> implements CertificateCache<E> {
+
+	/** N&uacute;mero m&aacute;ximo de tarjetas que guarda por defecto el almac&eacute;n. */
+	public static final int DEFAULT_MAX_ENTRIES = 64;
+
+	/** Tiempo de vida por defecto (en minutos) de las entradas del almac&eacute;n. */
+	public static final long DEFAULT_TTL_MINUTES = 60;
+
+	private static final MemoryCertificateCache<CertificateCacheEntry> SHARED = new MemoryCertificateCache<>();
+
+	private final int maxEntries;
+	private final long ttlNanos;
+
+	/** Entradas por identificador de tarjeta, en orden de acceso. */
+	private final LinkedHashMap<String, TimedEntry<E>> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/** Crea un almac&eacute;n de certificados.
+	 * @param maxCards N&uacute;mero m&aacute;ximo de tarjetas que se guardan.
+	 * @param ttl Tiempo de vida de cada entrada.
+	 * @param unit Unidad del tiempo de vida. */
+	public MemoryCertificateCache(final int maxCards, final long ttl, final TimeUnit unit) {
+		if (maxCards < 1) {
+			throw new IllegalArgumentException(
+				"El almacen debe poder guardar al menos una tarjeta: " + maxCards //$NON-NLS-1$
+			);
+		}
+		if (ttl <= 0 || unit == null) {
+			throw new IllegalArgumentException("El tiempo de vida debe ser positivo"); //$NON-NLS-1$
+		}
+		maxEntries = maxCards;
+		ttlNanos = unit.toNanos(ttl);
+		entries = new LinkedHashMap<>(16, 0.75f, true);
+	}
+
+	/** Crea un almac&eacute;n de certificados con el n&uacute;mero m&aacute;ximo de tarjetas
+	 * y el tiempo de vida por defecto. */
+	public MemoryCertificateCache() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MINUTES, TimeUnit.MINUTES);
+	}
+
+	/** Obtiene el almac&eacute;n compartido por todas las tarjetas PKCS#15 de la m&aacute;quina virtual.
+	 * @return Almac&eacute;n compartido. */
+	public static MemoryCertificateCache<CertificateCacheEntry> getShared() {
+		return SHARED;
+	}
+
+	/** Obtiene la entrada almacenada para una tarjeta.
+	 * @param cardId Identificador de la tarjeta.
+	 * @return Entrada almacenada o <code>null</code> si no hay ninguna vigente para esa tarjeta. */
+	@Override
+	public E get(final String cardId) {
+		if (cardId == null) {
+			return null;
+		}
+		final long now = System.nanoTime();
+		synchronized (entries) {
+			final TimedEntry<E> timed = entries.get(cardId);
+			if (timed == null) {
+				misses.incrementAndGet();
+				return null;
+			}
+			if (timed.isExpired(now)) {
+				entries.remove(cardId);
+				evictions.incrementAndGet();
+				misses.incrementAndGet();
+				return null;
+			}
+			hits.incrementAndGet();
+			return timed.entry;
+		}
+	}
+
+	/** Almacena (o sustituye) la entrada de una tarjeta.
+	 * @param cardId Identificador de la tarjeta.
+	 * @param entry Entrada con los certificados y referencias a claves de la tarjeta. */
+	@Override
+	public void put(final String cardId, final E entry) {
+		if (cardId == null || entry == null) {
+			return;
+		}
+		final long now = System.nanoTime();
+		synchronized (entries) {
+			entries.put(cardId, new TimedEntry<>(entry, now + ttlNanos));
+			final Iterator<TimedEntry<E>> it = entries.values().iterator();
+			while (it.hasNext()) {
+				final TimedEntry<E> timed = it.next();
+				if (entries.size() > maxEntries || timed.isExpired(now)) {
+					it.remove();
+					evictions.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	/** Elimina la entrada de una tarjeta, si existe.
+	 * @param cardId Identificador de la tarjeta. */
+	@Override
+	public void remove(final String cardId) {
+		if (cardId == null) {
+			return;
+		}
+		synchronized (entries) {
+			entries.remove(cardId);
+		}
+	}
+
+	@Override
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	/** Obtiene el n&uacute;mero de tarjetas guardadas (incluyendo las caducadas que
+	 * a&uacute;n no se han descartado).
+	 * @return N&uacute;mero de tarjetas guardadas. */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/** Obtiene el n&uacute;mero de consultas que han encontrado una entrada vigente.
+	 * @return N&uacute;mero de aciertos. */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/** Obtiene el n&uacute;mero de consultas que no han encontrado una entrada vigente.
+	 * @return N&uacute;mero de fallos. */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/** Obtiene el n&uacute;mero de entradas descartadas por caducidad o por falta de espacio.
+	 * @return N&uacute;mero de entradas descartadas. */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	@Override
+	public String toString() {
+		return "Almacen de certificados con " + size() + " tarjetas (" + //$NON-NLS-1$ //$NON-NLS-2$
+			getHitCount() + " aciertos, " + //$NON-NLS-1$
+			getMissCount() + " fallos, " + //$NON-NLS-1$
+			getEvictionCount() + " descartes)"; //$NON-NLS-1$
+	}
+
+	private static final class TimedEntry<E> {
+
+		final E entry;
+		final long expiresAt;
+
+		TimedEntry(final E e, final long expiration) {
+			entry = e;
+			expiresAt = expiration;
+		}
+
+		boolean isExpired(final long now) {
+			return now - expiresAt >= 0;
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package es.gob.jmulticard.card;
+
+/** Resultado de la firma de uno de los elementos de un lote: la firma obtenida o
+ * el error que ha impedido obtenerla.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class SignatureResult {
+
+	private final byte[] signature;
+	private final CryptoCardException error;
+
+	private SignatureResult(final byte[] sign, final CryptoCardException e) {
+		signature = sign;
+		error = e;
+	}
+
+	/** Crea el resultado de una firma realizada correctamente.
+	 * @param signature Firma obtenida.
+	 * @return Resultado de la firma. */
+	public static SignatureResult success(final byte[] signature) {
+		if (signature == null) {
+			throw new IllegalArgumentException("La firma no puede ser nula"); //$NON-NLS-1$
+		}
+		return new SignatureResult(signature.clone(), null);
+	}
+
+	/** Crea el resultado de una firma que no se ha podido realizar.
+	 * @param error Error que ha impedido la firma.
+	 * @return Resultado de la firma. */
+	public static SignatureResult failure(final CryptoCardException error) {
+		if (error == null) {
+			throw new IllegalArgumentException("El error no puede ser nulo"); //$NON-NLS-1$
+		}
+		return new SignatureResult(null, error);
+	}
+
+	/** Indica si la firma se ha realizado correctamente.
+	 * @return <code>true</code> si se ha obtenido la firma, <code>false</code> en caso contrario. */
+	public boolean isOk() {
+		return signature != null;
+	}
+
+	/** Obtiene la firma (PKCS#1 v1.5).
+	 * @return Firma o <code>null</code> si no se ha podido realizar. */
+	public byte[] getSignature() {
+		return signature != null ? signature.clone() : null;
+	}
+
+	/** Obtiene el error que ha impedido la firma.
+	 * @return Error o <code>null</code> si la firma se ha realizado correctamente. */
+	public CryptoCardException getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		return isOk() ?
+			"Firma correcta de " + signature.length + " octetos" : //$NON-NLS-1$ //$NON-NLS-2$
+				"Firma fallida: " + error; //$NON-NLS-1$
+	}
+}
@@ -1,11 +1,12 @@
 package es.gob.jmulticard.card.cardos;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import javax.security.auth.callback.PasswordCallback;
@@ -19,8 +20,12 @@ import es.gob.jmulticard.asn1.der.pkcs15.CertificateObject;
 import es.gob.jmulticard.asn1.der.pkcs15.Odf;
 import es.gob.jmulticard.asn1.der.pkcs15.Path;
 import es.gob.jmulticard.card.Atr;
+import es.gob.jmulticard.card.AtrRegistry;
+import es.gob.jmulticard.card.CertificateCache;
+import es.gob.jmulticard.card.CertificateCacheEntry;
 import es.gob.jmulticard.card.CryptoCard;
 import es.gob.jmulticard.card.InvalidCardException;
+import es.gob.jmulticard.card.MemoryCertificateCache;
 import es.gob.jmulticard.card.PrivateKeyReference;
 import es.gob.jmulticard.card.iso7816four.AbstractIso7816FourCard;
 import es.gob.jmulticard.card.iso7816four.FileNotFoundException;
@@ -54,7 +59,8 @@ public final class CardOS extends AbstractIso7816FourCard implements CryptoCard
 
     private static final Logger LOGGER = Logger.getLogger("es.gob.jmulticard"); //$NON-NLS-1$
 
-    private static final Map<String, X509Certificate> CERTIFICATES_BY_ALIAS = new ConcurrentHashMap<>();
+    /** Certificados de la tarjeta indexados por alias. */
+    private final Map<String, X509Certificate> certificatesByAlias = new LinkedHashMap<>();
 
     /** Manejador de funciones criptogr&aacute;ficas. */
     private final CryptoHelper cryptoHelper;
@@ -87,6 +93,12 @@ public final class CardOS extends AbstractIso7816FourCard implements CryptoCard
 
 	}
 
+    /** Registra el ATR de las tarjetas Atos / Siemens CardOS.
+     * @param registry Constructor del registro de ATR. */
+    public static void registerAtrs(final AtrRegistry.Builder registry) {
+    	registry.register(CardOS.class, ATR);
+    }
+
     /** Conecta con el lector del sistema que tenga una CardOS insertada.
      * @param conn Conexi&oacute;n hacia la tarjeta.
      * @throws IOException Cuando hay errores de entrada / salida. */
@@ -104,7 +116,6 @@ public final class CardOS extends AbstractIso7816FourCard implements CryptoCard
     	}
 
     	byte[] responseAtr;
-    	Atr actualAtr;
     	InvalidCardException invalidCardException = null;
     	CardNotPresentException cardNotPresentException = null;
     	ApduConnectionException apduConnectionException = null;
@@ -121,8 +132,7 @@ public final class CardOS extends AbstractIso7816FourCard implements CryptoCard
     			apduConnectionException = e;
     			continue;
     		}
-    		actualAtr = new Atr(responseAtr, ATR_MASK);
-    		if (!ATR.equals(actualAtr)) { // La tarjeta encontrada no es una CardOS
+    		if (!ATR.matches(responseAtr)) { // La tarjeta encontrada no es una CardOS
     			invalidCardException = new InvalidCardException(getCardName(), ATR, responseAtr);
     			continue;
     		}
@@ -178,6 +188,23 @@ public final class CardOS extends AbstractIso7816FourCard implements CryptoCard
 			// Leemos el CDF mediante registros
 			final List<byte[]> cdfRecords = readAllRecords();
 
+			// Si la tarjeta ya se habia leido antes, tomamos sus certificados del almacen
+			final ByteArrayOutputStream cdfBytes = new ByteArrayOutputStream();
+			for (final byte[] b : cdfRecords) {
+				cdfBytes.write(b);
+			}
+			final String certCacheId = CertificateCache.getCardId(
+				getCardName(),
+				cdfBytes.toByteArray(),
+				cryptoHelper
+			);
+			final CertificateCacheEntry entry = MemoryCertificateCache.getShared().get(certCacheId);
+			if (entry != null) {
+				certificatesByAlias.putAll(entry.getCertificates());
+				LOGGER.info("Certificados de la tarjeta obtenidos del almacen de certificados"); //$NON-NLS-1$
+				return;
+			}
+
 			CertificateObject co;
 			for (final byte[] b : cdfRecords) {
 				try {
@@ -223,10 +250,11 @@ public final class CardOS extends AbstractIso7816FourCard implements CryptoCard
 					continue;
 				}
 
-				CERTIFICATES_BY_ALIAS.put(co.getAlias(), cert);
+				certificatesByAlias.put(co.getAlias(), cert);
 
 			}
 
+			MemoryCertificateCache.getShared().put(certCacheId, new CertificateCacheEntry(certificatesByAlias, null));
     }
 
 	@Override
@@ -236,12 +264,12 @@ public final class CardOS extends AbstractIso7816FourCard implements CryptoCard
 
 	@Override
 	public String[] getAliases() {
-		return CERTIFICATES_BY_ALIAS.keySet().toArray(new String[0]);
+		return certificatesByAlias.keySet().toArray(new String[0]);
 	}
 
 	@Override
 	public X509Certificate getCertificate(final String alias) {
-		return CERTIFICATES_BY_ALIAS.get(alias);
+		return certificatesByAlias.get(alias);
 	}
 
 	@Override
@@ -254,7 +282,7 @@ public final class CardOS extends AbstractIso7816FourCard implements CryptoCard
 	@Override
 	public String toString() {
 		final StringBuilder sb = new StringBuilder(getCardName())
-		 .append("\n Tarjeta con ").append(CERTIFICATES_BY_ALIAS.size()).append(" certificado(s):\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		 .append("\n Tarjeta con ").append(certificatesByAlias.size()).append(" certificado(s):\n"); //$NON-NLS-1$ //$NON-NLS-2$
 		final String[] aliases = getAliases();
 		for (int i=0;i<aliases.length;i++) {
 			sb.append("  "); //$NON-NLS-1$
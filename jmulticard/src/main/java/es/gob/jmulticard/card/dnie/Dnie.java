@@ -40,12 +40,22 @@
 package es.gob.jmulticard.card.dnie;
 
 import java.io.IOException;
+import java.math.BigInteger;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 
 import javax.security.auth.callback.Callback;
@@ -58,6 +68,7 @@ import es.gob.jmulticard.CryptoHelper;
 import es.gob.jmulticard.HexUtils;
 import es.gob.jmulticard.apdu.CommandApdu;
 import es.gob.jmulticard.apdu.ResponseApdu;
+import es.gob.jmulticard.apdu.StatusWord;
 import es.gob.jmulticard.apdu.dnie.ChangePinApduCommand;
 import es.gob.jmulticard.apdu.dnie.GetChipInfoApduCommand;
 import es.gob.jmulticard.apdu.dnie.LoadDataApduCommand;
@@ -78,16 +89,20 @@ import es.gob.jmulticard.callback.CustomAuthorizeCallback;
 import es.gob.jmulticard.card.AuthenticationModeLockedException;
 import es.gob.jmulticard.card.BadPinException;
 import es.gob.jmulticard.card.CardMessages;
+import es.gob.jmulticard.card.CertificateCache;
 import es.gob.jmulticard.card.CompressionUtils;
 import es.gob.jmulticard.card.CryptoCardException;
 import es.gob.jmulticard.card.Location;
+import es.gob.jmulticard.card.MemoryCertificateCache;
 import es.gob.jmulticard.card.PasswordCallbackNotFoundException;
 import es.gob.jmulticard.card.PinException;
 import es.gob.jmulticard.card.PrivateKeyReference;
+import es.gob.jmulticard.card.SignatureResult;
 import es.gob.jmulticard.card.cwa14890.Cwa14890Card;
 import es.gob.jmulticard.card.cwa14890.Cwa14890PrivateConstants;
 import es.gob.jmulticard.card.cwa14890.Cwa14890PublicConstants;
 import es.gob.jmulticard.card.iso7816eight.AbstractIso7816EightCard;
+import es.gob.jmulticard.card.iso7816four.ExtendedLengthInfo;
 import es.gob.jmulticard.card.iso7816four.FileNotFoundException;
 import es.gob.jmulticard.card.iso7816four.Iso7816FourCardException;
 import es.gob.jmulticard.connection.ApduConnection;
@@ -99,6 +114,11 @@ import es.gob.jmulticard.connection.cwa14890.SecureChannelException;
 import es.gob.jmulticard.connection.pace.PaceConnection;
 
 /** DNI Electr&oacute;nico.
+ * Una misma instancia puede usarse desde varios hilos: las operaciones p&uacute;blicas que
+ * env&iacute;an varias APDU seguidas (firma, cifrado, cambio de PIN, apertura del canal seguro,
+ * carga de certificados, etc.) se ejecutan completas con el cerrojo de la tarjeta
+ * (<code>getCardLock()</code>), que puede adquirirse tambi&eacute;n para agrupar varias de ellas.
+ * Las operaciones de distintos DNIe no se bloquean entre s&iacute;.
  * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
 public class Dnie extends AbstractIso7816EightCard implements Dni, Cwa14890Card {
 
@@ -122,6 +142,19 @@ public class Dnie extends AbstractIso7816EightCard implements Dni, Cwa14890Card
     /** Nombre del <i>Master File</i> del DNIe. */
     private static final String MASTER_FILE_NAME = "Master.File"; //$NON-NLS-1$
 
+    /** Hilos en los que se calculan las estructuras <i>DigestInfo</i> de las firmas por lotes. */
+    private static final ThreadFactory DIGESTINFO_THREADS = new ThreadFactory() {
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread t = new Thread(r, "jmulticard-digestinfo"); //$NON-NLS-1$
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+    /** Condiciones de seguridad no satisfechas (por ejemplo, PIN no verificado). */
+    private static final StatusWord SW_SECURITY_STATUS_NOT_SATISFIED = new StatusWord((byte) 0x69, (byte) 0x82);
+
 	/** Alias del certificado de autenticaci&oacute;n del DNIe (siempre el mismo en el DNIe y tarjetas derivadas). */
     public static final String CERT_ALIAS_AUTH = "CertAutenticacion"; //$NON-NLS-1$
 
@@ -200,11 +233,29 @@ public class Dnie extends AbstractIso7816EightCard implements Dni, Cwa14890Card
     /** Conexi&oacute;n inicial con la tarjeta, sin ning&uacute;n canal seguro. */
     protected transient ApduConnection rawConnection;
 
+    /** M&eacute;tricas del canal seguro de esta tarjeta. */
+    private final transient SecureChannelMetrics secureChannelMetrics = new SecureChannelMetrics();
+
+    /** Indica si el canal seguro se mantiene abierto tras cada firma. */
+    private transient volatile boolean keepSecureChannelOpen = false;
+
     /** Manejador de funciones criptogr&aacute;ficas. */
     protected final CryptoHelper cryptoHelper;
 
     private PasswordCallback passwordCallback;
 
+    /** Almac&eacute;n de certificados compartido por todas las instancias. */
+    private static volatile CertificateCache<DnieCertificateCacheEntry> certificateCache = new MemoryCertificateCache<>();
+
+    /** Identificador (n&uacute;mero de serie en hexadecimal) de la tarjeta en el almac&eacute;n de certificados. */
+    private transient String certCacheId = null;
+
+    /** Huella del CDF le&iacute;do de la tarjeta. */
+    private transient byte[] cdfHash = null;
+
+    /** Rutas de los certificados (tal y como aparecen en el CDF) indexadas por alias. */
+    private transient Map<String, String> cdfCertPaths = null;
+
 	//*************************************************************************
 	//************************ CONSTRUCTORES **********************************
 
@@ -242,12 +293,17 @@ public class Dnie extends AbstractIso7816EightCard implements Dni, Cwa14890Card
     	           final CallbackHandler ch,
     	           final boolean loadCertsAndKeys) throws ApduConnectionException {
         super((byte) 0x00, conn);
-        conn.reset();
+        final byte[] atr = conn.reset();
         connect(conn);
+        setMaxCardResponseDataSize(ExtendedLengthInfo.getMaxResponseDataSizeFromAtr(atr));
 
         rawConnection = conn;
         callbackHandler = ch;
 
+        // El DNIe solo selecciona ficheros mediante los metodos de la clase padre, por lo
+        // que podemos recordar el fichero seleccionado y evitar selecciones redundantes
+        setSelectionCacheEnabled(true);
+
         try {
 			selectMasterFile();
 		}
@@ -276,6 +332,20 @@ public class Dnie extends AbstractIso7816EightCard implements Dni, Cwa14890Card
         }
     }
 
+    /** Establece el almac&eacute;n de certificados que usar&aacute;n todas las instancias de DNIe
+     * (y tarjetas derivadas) para evitar leer de nuevo los certificados de tarjetas ya tratadas.
+     * Por defecto se usa un almac&eacute;n en memoria acotado ({@link MemoryCertificateCache}).
+     * @param cache Almac&eacute;n de certificados, o <code>null</code> para no usar ninguno. */
+    public static void setCertificateCache(final CertificateCache<DnieCertificateCacheEntry> cache) {
+    	certificateCache = cache;
+    }
+
+    /** Obtiene el almac&eacute;n de certificados que usan las instancias de DNIe.
+     * @return Almac&eacute;n de certificados, o <code>null</code> si no se usa ninguno. */
+    public static CertificateCache<DnieCertificateCacheEntry> getCertificateCache() {
+    	return certificateCache;
+    }
+
     /** Obtiene la clase con funcionalidades de base de criptograf&iacute;a.
      * @return Clase con funcionalidades de base de criptograf&iacute;a. */
     protected CryptoHelper getCryptoHelper() {
@@ -442,16 +512,30 @@ public class Dnie extends AbstractIso7816EightCard implements Dni, Cwa14890Card
      * @return CDF PKCS#15 del DNIe.
      * @throws ApduConnectionException Si no se puede conectar con el DNIe. */
     public Cdf getCdf() throws ApduConnectionException {
+        return parseCdf(readCdf());
+    }
+
+    /** Lee de la tarjeta el contenido binario del CDF PKCS#15.
+     * @return Contenido binario del CDF.
+     * @throws ApduConnectionException Si no se puede conectar con el DNIe. */
+    private byte[] readCdf() throws ApduConnectionException {
+        try {
+        	return selectFileByLocationAndRead(CDF_LOCATION);
+        }
+        catch (final IOException              |
+        		     Iso7816FourCardException e) {
+            throw new ApduConnectionException (
+        		"No se ha podido cargar el CDF de la tarjeta", e //$NON-NLS-1$
+    		);
+        }
+    }
+
+    private static Cdf parseCdf(final byte[] cdfBytes) throws ApduConnectionException {
         final Cdf cdf = new Cdf();
         try {
-        	selectMasterFile();
-        	final byte[] cdfBytes = selectFileByLocationAndRead(CDF_LOCATION);
             cdf.setDerValue(cdfBytes);
         }
-        catch (final IOException              |
-        		     Iso7816FourCardException |
-        		     Asn1Exception            |
-        		     TlvException e) {
+        catch (final Asn1Exception | TlvException e) {
             throw new ApduConnectionException (
         		"No se ha podido cargar el CDF de la tarjeta", e //$NON-NLS-1$
     		);
@@ -461,13 +545,23 @@ public class Dnie extends AbstractIso7816EightCard implements Dni, Cwa14890Card
 
     /** Carga el certificado de la CA intermedia y las localizaciones de los
      * certificados de firma y autenticaci&oacute;n.
+     * Si la tarjeta ya se trat&oacute; anteriormente y su CDF no ha cambiado, se
+     * toman del almac&eacute;n de certificados tanto las localizaciones como los
+     * propios certificados, sin leerlos de la tarjeta.
      * @throws ApduConnectionException Si hay problemas en la precarga. */
     protected void loadCertificatesPaths() throws ApduConnectionException {
 
-        final Cdf cdf = getCdf();
+    	final byte[] cdfBytes = readCdf();
+    	if (loadCertificatesFromCache(cdfBytes)) {
+    		return;
+    	}
+
+        final Cdf cdf = parseCdf(cdfBytes);
+        cdfCertPaths = new LinkedHashMap<>(cdf.getCertificateCount());
 
         for (int i = 0; i < cdf.getCertificateCount(); i++) {
         	final String currentAlias = cdf.getCertificateAlias(i);
+        	cdfCertPaths.put(currentAlias, cdf.getCertificatePath(i));
             if (CERT_ALIAS_AUTH.equals(currentAlias)) {
                 certPathAuth = new Location(cdf.getCertificatePath(i));
             }
@@ -507,6 +601,132 @@ public class Dnie extends AbstractIso7816EightCard implements Dni, Cwa14890Card
         }
     }
 
+    /** Carga las localizaciones y los certificados desde el almac&eacute;n de certificados,
+     * si la tarjeta est&aacute; en &eacute;l y su CDF no ha cambiado.
+     * @param cdfBytes Contenido binario del CDF actual de la tarjeta.
+     * @return <code>true</code> si se han cargado los certificados desde el almac&eacute;n,
+     *         <code>false</code> si hay que leerlos de la tarjeta. */
+    private boolean loadCertificatesFromCache(final byte[] cdfBytes) {
+    	final CertificateCache<DnieCertificateCacheEntry> cache = certificateCache;
+    	if (cache == null) {
+    		return false;
+    	}
+    	try {
+    		certCacheId = HexUtils.hexify(getSerialNumber(), false);
+    		cdfHash = cryptoHelper.digest(CryptoHelper.DigestAlgorithm.SHA256, cdfBytes);
+    	}
+    	catch (final Exception e) {
+    		LOGGER.warning(
+				"No se ha podido identificar la tarjeta para el almacen de certificados, se leeran de la tarjeta: " + e //$NON-NLS-1$
+			);
+    		certCacheId = null;
+    		return false;
+    	}
+
+    	final DnieCertificateCacheEntry entry = cache.get(certCacheId);
+    	if (entry == null) {
+    		return false;
+    	}
+    	if (!entry.matches(cdfHash)) {
+    		LOGGER.info("El CDF de la tarjeta ha cambiado, se descartan sus certificados almacenados"); //$NON-NLS-1$
+    		cache.remove(certCacheId);
+    		return false;
+    	}
+
+    	// Todo certificado con ruta conocida (salvo el de CA intermedia, que es opcional)
+    	// debe estar en la entrada
+    	if (entry.getPath(CERT_ALIAS_AUTH) == null) {
+    		return false;
+    	}
+    	for (final String alias : entry.getAliases()) {
+    		if (!CERT_ALIAS_INTERMEDIATE_CA.equals(alias) && entry.getCertificate(alias) == null) {
+    			return false;
+    		}
+    	}
+
+    	// Los certificados almacenados deben ser los que declara el CDF de la tarjeta
+    	if (!matchesCdfSerials(entry, cdfBytes)) {
+    		LOGGER.warning(
+				"Los certificados almacenados no coinciden con los del CDF de la tarjeta, se descartan" //$NON-NLS-1$
+			);
+    		cache.remove(certCacheId);
+    		return false;
+    	}
+
+    	cdfCertPaths = new LinkedHashMap<>();
+    	for (final String alias : entry.getAliases()) {
+    		cdfCertPaths.put(alias, entry.getPath(alias));
+    	}
+    	certPathAuth = getCachedLocation(entry, CERT_ALIAS_AUTH);
+    	certPathSign = getCachedLocation(entry, CERT_ALIAS_SIGN);
+    	certPathCyph = getCachedLocation(entry, CERT_ALIAS_CYPHER);
+    	certPathSignAlias = getCachedLocation(entry, CERT_ALIAS_SIGNALIAS);
+
+    	certAuth = entry.getCertificate(CERT_ALIAS_AUTH);
+    	certSign = entry.getCertificate(CERT_ALIAS_SIGN);
+    	certCyph = entry.getCertificate(CERT_ALIAS_CYPHER);
+    	certSignAlias = entry.getCertificate(CERT_ALIAS_SIGNALIAS);
+    	intermediateCaCert = entry.getCertificate(CERT_ALIAS_INTERMEDIATE_CA);
+
+    	LOGGER.info("Certificados de la tarjeta obtenidos del almacen de certificados"); //$NON-NLS-1$
+    	return true;
+    }
+
+    /** Comprueba que cada certificado de una entrada del almac&eacute;n tenga el n&uacute;mero
+     * de serie que indica para su alias el CDF le&iacute;do de la tarjeta.
+     * @param entry Entrada del almac&eacute;n.
+     * @param cdfBytes Contenido binario del CDF actual de la tarjeta.
+     * @return <code>true</code> si todos los certificados de la entrada coinciden con el CDF. */
+    private static boolean matchesCdfSerials(final DnieCertificateCacheEntry entry, final byte[] cdfBytes) {
+    	final Cdf cdf;
+    	try {
+    		cdf = parseCdf(cdfBytes);
+    	}
+    	catch (final ApduConnectionException e) {
+    		LOGGER.warning("No se ha podido analizar el CDF de la tarjeta: " + e); //$NON-NLS-1$
+    		return false;
+    	}
+    	final Map<String, BigInteger> cdfSerials = new HashMap<>(cdf.getCertificateCount());
+    	for (int i = 0; i < cdf.getCertificateCount(); i++) {
+    		cdfSerials.put(cdf.getCertificateAlias(i), cdf.getCertificateSerialNumber(i));
+    	}
+    	for (final String alias : entry.getAliases()) {
+    		final X509Certificate cert = entry.getCertificate(alias);
+    		if (cert != null && !cert.getSerialNumber().equals(cdfSerials.get(alias))) {
+    			return false;
+    		}
+    	}
+    	return true;
+    }
+
+    private static Location getCachedLocation(final DnieCertificateCacheEntry entry, final String alias) {
+    	final String path = entry.getPath(alias);
+    	return path != null ? new Location(path) : null;
+    }
+
+    /** Guarda en el almac&eacute;n de certificados los certificados ya cargados de la tarjeta. */
+    private void storeCertificatesInCache() {
+    	final CertificateCache<DnieCertificateCacheEntry> cache = certificateCache;
+    	if (cache == null || certCacheId == null || cdfHash == null || cdfCertPaths == null) {
+    		return;
+    	}
+    	final Map<String, X509Certificate> certs = new LinkedHashMap<>();
+    	putIfNotNull(certs, CERT_ALIAS_AUTH, certAuth);
+    	putIfNotNull(certs, CERT_ALIAS_SIGN, certSign);
+    	putIfNotNull(certs, CERT_ALIAS_CYPHER, certCyph);
+    	putIfNotNull(certs, CERT_ALIAS_SIGNALIAS, certSignAlias);
+    	putIfNotNull(certs, CERT_ALIAS_INTERMEDIATE_CA, intermediateCaCert);
+    	cache.put(certCacheId, new DnieCertificateCacheEntry(cdfHash, cdfCertPaths, certs));
+    }
+
+    private static void putIfNotNull(final Map<String, X509Certificate> certs,
+    		                         final String alias,
+    		                         final X509Certificate cert) {
+    	if (cert != null) {
+    		certs.put(alias, cert);
+    	}
+    }
+
     @Override
     public X509Certificate getCertificate(final String alias) throws CryptoCardException, PinException {
 
@@ -696,16 +916,235 @@ public class Dnie extends AbstractIso7816EightCard implements Dni, Cwa14890Card
         return null;
     }
 
+    /** {@inheritDoc}
+     * La tarjeta recibe siempre el <i>DigestInfo</i> ya construido, por lo que se firma como
+     * {@link DigestInfo#RAW_DIGESTINFO_ALGORITHM}. */
+    @Override
+    public byte[] signDigest(final byte[] digest,
+    		                  final String signAlgorithm,
+    		                  final PrivateKeyReference privateKeyReference) throws CryptoCardException,
+    		                                                          PinException {
+    	final byte[] digestInfo;
+    	try {
+    		digestInfo = DigestInfo.encodeDigest(signAlgorithm, digest);
+    	}
+    	catch (final IOException e) {
+    		throw new CryptoCardException("Error en la construccion del DigestInfo a firmar", e); //$NON-NLS-1$
+    	}
+    	return sign(digestInfo, DigestInfo.RAW_DIGESTINFO_ALGORITHM, privateKeyReference);
+    }
+
     @Override
     public byte[] sign(final byte[] data,
     		           final String signAlgorithm,
     		           final PrivateKeyReference privateKeyReference) throws CryptoCardException,
     		                                                                 PinException {
-    	final byte[] signBytes = signInternal(
-			data,
-			signAlgorithm,
-			privateKeyReference
-		);
+    	getCardLock().lock();
+    	try {
+    		byte[] signBytes;
+    		try {
+    			signBytes = signInternal(
+					data,
+					signAlgorithm,
+					privateKeyReference
+				);
+    		}
+    		catch (final DnieCardException e) {
+    			// Si se mantiene el canal abierto, la tarjeta puede exigir de nuevo el PIN para firmar:
+    			// se rehace el canal (verificando el PIN) y se reintenta una unica vez
+    			if (!keepSecureChannelOpen || !SW_SECURITY_STATUS_NOT_SATISFIED.equals(e.getStatusWord())) {
+    				throw e;
+    			}
+    			LOGGER.info("La tarjeta exige de nuevo el PIN para firmar, se rehace el canal seguro"); //$NON-NLS-1$
+    			closeSecureChannel();
+    			signBytes = signInternal(
+					data,
+					signAlgorithm,
+					privateKeyReference
+				);
+    		}
+    		if (!keepSecureChannelOpen) {
+    			closeSecureChannel();
+    		}
+    		return signBytes;
+    	}
+    	finally {
+    		getCardLock().unlock();
+    	}
+    }
+
+    /** {@inheritDoc}
+     * En el DNIe la autorizaci&oacute;n del usuario se pide una sola vez para todo el lote
+     * (indicando en el <code>CustomAuthorizeCallback</code> el n&uacute;mero de firmas),
+     * el entorno de seguridad (MSE:SET) se establece una sola vez y el canal seguro se mantiene
+     * abierto hasta terminar el lote. Las estructuras <i>DigestInfo</i> se calculan en otro hilo
+     * mientras la tarjeta firma los elementos anteriores. */
+    @Override
+    public List<SignatureResult> signBatch(final List<byte[]> data,
+    		                               final String signAlgorithm,
+    		                               final PrivateKeyReference privateKeyReference) throws CryptoCardException,
+    		                                                                                     PinException {
+    	getCardLock().lock();
+    	try {
+    		if (data == null) {
+    			throw new IllegalArgumentException("Los datos a firmar no pueden ser nulos"); //$NON-NLS-1$
+    		}
+            if (!(privateKeyReference instanceof DniePrivateKeyReference)) {
+                throw new IllegalArgumentException(
+            		"La referencia a la clave privada tiene que ser de tipo DniePrivateKeyReference" //$NON-NLS-1$
+    			);
+            }
+            final List<SignatureResult> results = new ArrayList<>(data.size());
+            if (data.isEmpty()) {
+            	return results;
+            }
+            if (needAuthorizationToSign()) {
+            	authorizeSignature(data.size());
+            }
+
+            final ExecutorService encoder = Executors.newSingleThreadExecutor(DIGESTINFO_THREADS);
+            try {
+            	final List<Future<byte[]>> digestInfos = new ArrayList<>(data.size());
+            	for (final byte[] item : data) {
+            		digestInfos.add(
+    					encoder.submit(
+							new Callable<byte[]>() {
+								@Override
+								public byte[] call() throws IOException {
+									return DigestInfo.encode(signAlgorithm, item, cryptoHelper);
+								}
+							}
+						)
+					);
+            	}
+
+            	openSecureChannelIfNotAlreadyOpened();
+            	boolean environmentSet = false;
+            	for (int i = 0; i < digestInfos.size(); i++) {
+            		final byte[] digestInfo;
+            		try {
+            			digestInfo = digestInfos.get(i).get();
+            		}
+            		catch (final ExecutionException e) {
+            			results.add(
+    						SignatureResult.failure(
+								new DnieCardException("Error en el calculo de la huella para firmar", e.getCause()) //$NON-NLS-1$
+							)
+						);
+            			continue;
+            		}
+            		catch (final InterruptedException e) {
+            			Thread.currentThread().interrupt();
+            			throw new DnieCardException("Se ha interrumpido la firma del lote", e); //$NON-NLS-1$
+            		}
+
+            		try {
+            			results.add(
+    						SignatureResult.success(
+								signBatchItem(digestInfo, (DniePrivateKeyReference) privateKeyReference, !environmentSet)
+							)
+						);
+            			environmentSet = true;
+            		}
+            		catch (final CryptoCardException e) {
+            			// Tras un error no se sabe si se conserva el entorno de seguridad
+            			environmentSet = false;
+            			results.add(SignatureResult.failure(e));
+            		}
+            		catch (final ApduConnectionException e) {
+            			// Sin comunicacion con la tarjeta no se puede firmar el resto del lote
+            			final DnieCardException ex = new DnieCardException(
+    						"Error en la transmision de comandos a la tarjeta", e //$NON-NLS-1$
+						);
+            			for (int j = i; j < digestInfos.size(); j++) {
+            				results.add(SignatureResult.failure(ex));
+            			}
+            			break;
+            		}
+            	}
+            }
+            finally {
+            	encoder.shutdownNow();
+            	if (!keepSecureChannelOpen) {
+            		closeSecureChannel();
+            	}
+            }
+            return results;
+    	}
+    	finally {
+    		getCardLock().unlock();
+    	}
+    }
+
+    /** Firma un elemento de un lote, estableciendo antes el entorno de seguridad si se indica.
+     * Si se pierde el canal seguro, o si la tarjeta exige de nuevo el PIN, se rehace el canal
+     * y se reintenta una &uacute;nica vez.
+     * @param digestInfo Estructura <i>DigestInfo</i> a firmar.
+     * @param keyRef Referencia a la clave privada de firma.
+     * @param setEnvironment <code>true</code> si hay que establecer el entorno de seguridad.
+     * @return Firma.
+     * @throws CryptoCardException Si la tarjeta no realiza la firma.
+     * @throws PinException Si el PIN no es v&aacute;lido al rehacer el canal seguro.
+     * @throws ApduConnectionException Si falla la comunicaci&oacute;n con la tarjeta. */
+    private byte[] signBatchItem(final byte[] digestInfo,
+    		                     final DniePrivateKeyReference keyRef,
+    		                     final boolean setEnvironment) throws CryptoCardException,
+    		                                                          PinException,
+    		                                                          ApduConnectionException {
+    	try {
+    		return transmitSignature(digestInfo, keyRef, setEnvironment);
+    	}
+    	catch (final LostChannelException e) {
+    		recoverLostChannel(e);
+    	}
+    	catch (final DnieCardException e) {
+    		if (!SW_SECURITY_STATUS_NOT_SATISFIED.equals(e.getStatusWord())) {
+    			throw e;
+    		}
+    		LOGGER.info("La tarjeta exige de nuevo el PIN para firmar, se rehace el canal seguro"); //$NON-NLS-1$
+    		closeSecureChannel();
+    	}
+    	openSecureChannelIfNotAlreadyOpened();
+    	return transmitSignature(digestInfo, keyRef, true);
+    }
+
+    /** Env&iacute;a a la tarjeta la orden de firma de una estructura <i>DigestInfo</i>.
+     * @param digestInfo Estructura <i>DigestInfo</i> a firmar.
+     * @param keyRef Referencia a la clave privada de firma.
+     * @param setEnvironment <code>true</code> si antes hay que establecer el entorno de seguridad.
+     * @return Firma.
+     * @throws DnieCardException Si la tarjeta responde con error.
+     * @throws ApduConnectionException Si falla la comunicaci&oacute;n con la tarjeta. */
+    private byte[] transmitSignature(final byte[] digestInfo,
+    		                         final DniePrivateKeyReference keyRef,
+    		                         final boolean setEnvironment) throws DnieCardException,
+    		                                                              ApduConnectionException {
+    	ResponseApdu res;
+    	if (setEnvironment) {
+    		res = getConnection().transmit(
+				new MseSetComputationApduCommand((byte) 0x00, keyRef.getKeyPath().getLastFilePath(), null)
+			);
+            if (!res.isOk()) {
+                throw new DnieCardException(
+            		"Error en el establecimiento de las clave de firma con respuesta: " + //$NON-NLS-1$
+        				res.getStatusWord(),
+    				res.getStatusWord()
+        		);
+            }
+    	}
+    	res = getConnection().transmit(new PsoSignHashApduCommand((byte) 0x00, digestInfo));
+        if (!res.isOk()) {
+            throw new DnieCardException(
+            	"Error durante la operacion de firma con respuesta: " + res.getStatusWord(), //$NON-NLS-1$
+            	res.getStatusWord()
+            );
+        }
+        return res.getData();
+    }
+
+    /** Cierra el canal seguro (y la conexi&oacute;n subyacente), de forma que la siguiente
+     * operaci&oacute;n que lo necesite lo establezca de nuevo. */
+    private void closeSecureChannel() {
     	try {
 			getConnection().close();
 		}
@@ -714,7 +1153,104 @@ public class Dnie extends AbstractIso7816EightCard implements Dni, Cwa14890Card
 				"No se ha podido cerrar el canal despues de una firma, es posible que fallen operaciones: " + e //$NON-NLS-1$
 			);
 		}
-    	return signBytes;
+    }
+
+    /** Olvida todo lo que se sab&iacute;a de la tarjeta f&iacute;sica: cierra el canal seguro
+     * y descarta el fichero seleccionado, los certificados y las referencias a claves
+     * cargados, que se volver&aacute;n a obtener de la tarjeta cuando se necesiten.
+     * Debe llamarse cuando se extrae la tarjeta del lector, ya que la siguiente que se
+     * inserte puede ser otra (o la misma, pero con el canal seguro y la verificaci&oacute;n
+     * de PIN perdidos). */
+    public void invalidateCardState() {
+    	getCardLock().lock();
+    	try {
+    		invalidateSelectionCache();
+    		// Aunque parezca cerrado por haberse cerrado la conexion inferior, el canal
+    		// se cierra igualmente para que no se reutilice al reabrirse esta
+    		if (getConnection() instanceof Cwa14890Connection) {
+    			closeSecureChannel();
+    		}
+    		certAuth = null;
+    		certSign = null;
+    		certCyph = null;
+    		certSignAlias = null;
+    		intermediateCaCert = null;
+    		certPathAuth = null;
+    		certPathSign = null;
+    		certPathCyph = null;
+    		certPathSignAlias = null;
+    		authKeyRef = null;
+    		signKeyRef = null;
+    		cyphKeyRef = null;
+    		signAliasKeyRef = null;
+    		aliases = null;
+    		certCacheId = null;
+    		cdfHash = null;
+    		cdfCertPaths = null;
+    	}
+    	finally {
+    		getCardLock().unlock();
+    	}
+    }
+
+    /** Indica si el canal seguro se mantiene abierto tras cada firma, para que las firmas
+     * siguientes no tengan que establecerlo de nuevo (ni volver a verificar el PIN).
+     * Por defecto se cierra tras cada firma.
+     * @param keepOpen <code>true</code> para mantener el canal seguro abierto tras cada firma,
+     *                 <code>false</code> para cerrarlo. Si la tarjeta exigiese de nuevo el PIN
+     *                 para firmar, el canal se rehace autom&aacute;ticamente. */
+    public void setKeepSecureChannelOpen(final boolean keepOpen) {
+    	keepSecureChannelOpen = keepOpen;
+    }
+
+    /** Indica si el canal seguro se mantiene abierto tras cada firma.
+     * @return <code>true</code> si el canal seguro se mantiene abierto tras cada firma,
+     *         <code>false</code> si se cierra. */
+    public boolean isKeepSecureChannelOpen() {
+    	return keepSecureChannelOpen;
+    }
+
+    /** Obtiene las m&eacute;tricas del canal seguro de esta tarjeta.
+     * @return M&eacute;tricas del canal seguro de esta tarjeta. */
+    public SecureChannelMetrics getSecureChannelMetrics() {
+    	return secureChannelMetrics;
+    }
+
+    /** Obtiene el tipo del canal seguro actualmente abierto con la tarjeta.
+     * @return Tipo del canal seguro abierto, o <code>SecureChannelType.NONE</code> si no hay ninguno. */
+    public SecureChannelType getSecureChannelType() {
+    	return SecureChannelType.of(getConnection());
+    }
+
+    /** Registra en las m&eacute;tricas que una operaci&oacute;n ha encontrado el canal seguro
+     * ya abierto y lo reutiliza. */
+    protected void recordSecureChannelReuse() {
+    	secureChannelMetrics.recordReuse();
+    }
+
+    /** Registra en las m&eacute;tricas que se ha perdido el canal seguro y se va a rehacer. */
+    protected void recordSecureChannelLost() {
+    	secureChannelMetrics.recordLostChannel();
+    }
+
+    /** {@inheritDoc}
+     * Si la conexi&oacute;n es un canal seguro sin abrir, se registra en las m&eacute;tricas
+     * su establecimiento (o su fallo) y el tiempo dedicado a &eacute;l. */
+    @Override
+    protected void setConnection(final ApduConnection conn) throws ApduConnectionException {
+    	if (!(conn instanceof Cwa14890Connection) || conn.isOpen()) {
+    		super.setConnection(conn);
+    		return;
+    	}
+    	final long start = System.nanoTime();
+    	try {
+    		super.setConnection(conn);
+    	}
+    	catch (final ApduConnectionException | RuntimeException e) {
+    		secureChannelMetrics.recordFailure();
+    		throw e;
+    	}
+    	secureChannelMetrics.recordEstablished(System.nanoTime() - start);
     }
 
     /** Ejecuta la operaci&oacute;n interna de firma del DNIe.
@@ -737,42 +1273,50 @@ public class Dnie extends AbstractIso7816EightCard implements Dni, Cwa14890Card
 
         // Si la tarjeta requiere autenticacion, la solicitamos
         if (needAuthorizationToSign()) {
-        	if (callbackHandler != null) {
-        		// Callback para autorizar la firma
-        		final Callback cc = new CustomAuthorizeCallback();
-        		try {
-        			callbackHandler.handle(
-    					new Callback[] {
-							cc
-    					}
-					);
-        		}
-        		catch (final UnsupportedCallbackException e) {
-        			// Si no se especifica un callback de autorizacion, se omite
-        			LOGGER.severe(
-    					"No se ha proporcionado un CallbackHandler valido para mostrar el dialogo de confirmacion de firma, se omitira: " + e //$NON-NLS-1$
-					);
-        		}
-        		catch (final Exception e) {
-        			throw new SecurityException(
-    					"No ha sido posible pedir la confirmacion de firma al usuario", e //$NON-NLS-1$
-					);
-        		}
+        	authorizeSignature(1);
+        }
 
-        		if (!((CustomAuthorizeCallback)cc).isAuthorized()) {
-        			throw new CancelledOperationException(
-    					"El usuario ha denegado la operacion de firma" //$NON-NLS-1$
-					);
-        		}
+        return signOperation(data, signAlgorithm, privateKeyReference);
+    }
+
+    /** Pide al usuario (mediante el <code>CallbackHandler</code>) que autorice una operaci&oacute;n de firma.
+     * @param signatureCount N&uacute;mero de firmas que cubre la autorizaci&oacute;n (m&aacute;s de
+     *                       una en la firma por lotes).
+     * @throws CancelledOperationException Si el usuario deniega la operaci&oacute;n. */
+    private void authorizeSignature(final int signatureCount) {
+        if (callbackHandler != null) {
+        	// Callback para autorizar la firma, con el numero de firmas que se autorizan
+        	final Callback cc = new CustomAuthorizeCallback(signatureCount);
+        	try {
+        		callbackHandler.handle(
+    				new Callback[] {
+						cc
+    				}
+				);
         	}
-        	else {
-        		LOGGER.warning(
-    				"No se ha proporcionado un CallbackHandler para mostrar el dialogo de confirmacion de firma. Se omitira." //$NON-NLS-1$
+        	catch (final UnsupportedCallbackException e) {
+        		// Si no se especifica un callback de autorizacion, se omite
+        		LOGGER.severe(
+    				"No se ha proporcionado un CallbackHandler valido para mostrar el dialogo de confirmacion de firma, se omitira: " + e //$NON-NLS-1$
+				);
+        	}
+        	catch (final Exception e) {
+        		throw new SecurityException(
+    				"No ha sido posible pedir la confirmacion de firma al usuario", e //$NON-NLS-1$
 				);
         	}
-        }
 
-        return signOperation(data, signAlgorithm, privateKeyReference);
+        	if (!((CustomAuthorizeCallback)cc).isAuthorized()) {
+        		throw new CancelledOperationException(
+    				"El usuario ha denegado la operacion de firma" //$NON-NLS-1$
+				);
+        	}
+        }
+        else {
+        	LOGGER.warning(
+    			"No se ha proporcionado un CallbackHandler para mostrar el dialogo de confirmacion de firma. Se omitira." //$NON-NLS-1$
+			);
+        }
     }
 
     /** Indica si la tarjeta requiere autorizaci&oacute;n del usuario para ejecutar una
@@ -796,50 +1340,56 @@ public class Dnie extends AbstractIso7816EightCard implements Dni, Cwa14890Card
                              final PrivateKeyReference privateKeyReference) throws CryptoCardException,
                                                                                    PinException,
                                                                                    LostChannelException {
-        openSecureChannelIfNotAlreadyOpened();
-
-        ResponseApdu res;
-        try {
-
-        	CommandApdu apdu = new LoadDataApduCommand(data);
-
-			res = getConnection().transmit(apdu);
-			if(!res.isOk()) {
-				LOGGER.severe(
-            		"Recibida APDU inesperada de respuesta a la carga de datos:\n" + HexUtils.hexify(res.getBytes(), true) //$NON-NLS-1$
-        		);
-                throw new DnieCardException(
-                	"Error durante la operacion de carga de datos previa a un cifrado RSA: " + //$NON-NLS-1$
-            			res.getStatusWord(),
-        			res.getStatusWord()
-                );
-			}
-
-			apdu = new SignDataApduCommand(
-        		((DniePrivateKeyReference) privateKeyReference).getKeyReference(), // Referencia
-        		((DniePrivateKeyReference) privateKeyReference).getKeyBitSize()    // Tamano en bits de la clave
-    		);
-
-            res = getConnection().transmit(apdu);
-            if (!res.isOk()) {
-            	LOGGER.severe(
-            		"Recibida APDU inesperada de respuesta al SignData:\n" + HexUtils.hexify(res.getBytes(), true) //$NON-NLS-1$
-        		);
-                throw new DnieCardException(
-                	"Error durante la operacion de cifrado RSA con respuesta: " + //$NON-NLS-1$
-            			res.getStatusWord(),
-                	res.getStatusWord()
-                );
-            }
-        }
-        catch(final LostChannelException e) {
-        	throw e;
-        }
-        catch (final ApduConnectionException e) {
-            throw new DnieCardException("Error en la transmision de comandos a la tarjeta", e); //$NON-NLS-1$
-        }
+		getCardLock().lock();
+		try {
+	        openSecureChannelIfNotAlreadyOpened();
+
+	        ResponseApdu res;
+	        try {
+
+	        	CommandApdu apdu = new LoadDataApduCommand(data);
+
+				res = getConnection().transmit(apdu);
+				if(!res.isOk()) {
+					LOGGER.severe(
+	            		"Recibida APDU inesperada de respuesta a la carga de datos:\n" + HexUtils.hexify(res.getBytes(), true) //$NON-NLS-1$
+	        		);
+	                throw new DnieCardException(
+	                	"Error durante la operacion de carga de datos previa a un cifrado RSA: " + //$NON-NLS-1$
+	            			res.getStatusWord(),
+	        			res.getStatusWord()
+	                );
+				}
 
-        return res.getData();
+				apdu = new SignDataApduCommand(
+	        		((DniePrivateKeyReference) privateKeyReference).getKeyReference(), // Referencia
+	        		((DniePrivateKeyReference) privateKeyReference).getKeyBitSize()    // Tamano en bits de la clave
+	    		);
+
+	            res = getConnection().transmit(apdu);
+	            if (!res.isOk()) {
+	            	LOGGER.severe(
+	            		"Recibida APDU inesperada de respuesta al SignData:\n" + HexUtils.hexify(res.getBytes(), true) //$NON-NLS-1$
+	        		);
+	                throw new DnieCardException(
+	                	"Error durante la operacion de cifrado RSA con respuesta: " + //$NON-NLS-1$
+	            			res.getStatusWord(),
+	                	res.getStatusWord()
+	                );
+	            }
+	        }
+	        catch(final LostChannelException e) {
+	        	throw e;
+	        }
+	        catch (final ApduConnectionException e) {
+	            throw new DnieCardException("Error en la transmision de comandos a la tarjeta", e); //$NON-NLS-1$
+	        }
+
+	        return res.getData();
+		}
+		finally {
+			getCardLock().unlock();
+		}
 	}
 
     /** Realiza la operaci&oacute;n de firma.
@@ -894,17 +1444,7 @@ public class Dnie extends AbstractIso7816EightCard implements Dni, Cwa14890Card
             }
         }
         catch(final LostChannelException e) {
-            try {
-                getConnection().close();
-                if (getConnection() instanceof Cwa14890Connection) {
-                    setConnection(((Cwa14890Connection) getConnection()).getSubConnection());
-                }
-            }
-            catch (final Exception ex) {
-                throw new DnieCardException(
-            		"No se pudo recuperar el canal seguro para firmar (" + e + ")", ex //$NON-NLS-1$ //$NON-NLS-2$
-        		);
-            }
+        	recoverLostChannel(e);
             return signOperation(data, signAlgorithm, privateKeyReference);
         }
         catch (final ApduConnectionException e) {
@@ -914,6 +1454,26 @@ public class Dnie extends AbstractIso7816EightCard implements Dni, Cwa14890Card
         return res.getData();
     }
 
+    /** Vuelve a la conexi&oacute;n sin cifrar tras perderse el canal seguro, de forma que la
+     * siguiente operaci&oacute;n lo establezca de nuevo.
+     * @param e Error por el que se ha perdido el canal.
+     * @throws DnieCardException Si no se puede recuperar la conexi&oacute;n. */
+    private void recoverLostChannel(final LostChannelException e) throws DnieCardException {
+    	recordSecureChannelLost();
+    	invalidateSelectionCache();
+        try {
+            getConnection().close();
+            if (getConnection() instanceof Cwa14890Connection) {
+                setConnection(((Cwa14890Connection) getConnection()).getSubConnection());
+            }
+        }
+        catch (final Exception ex) {
+            throw new DnieCardException(
+        		"No se pudo recuperar el canal seguro para firmar (" + e + ")", ex //$NON-NLS-1$ //$NON-NLS-2$
+    		);
+        }
+    }
+
     /** Establece y abre el canal seguro CWA-14890 si no lo estaba ya.
      * @throws CryptoCardException Si hay problemas en el proceso.
      * @throws PinException Si el PIN usado para la apertura de canal no es v&aacute;lido o
@@ -929,53 +1489,80 @@ public class Dnie extends AbstractIso7816EightCard implements Dni, Cwa14890Card
      * @throws PinException Si el PIN usado para la apertura de canal no es v&aacute;lido o no se ha
      *                      proporcionado un PIN para validar (en el caso de que se opte por verificar el PIN). */
     public void openSecureChannelIfNotAlreadyOpened(final boolean doChv) throws CryptoCardException, PinException {
-        // Abrimos el canal seguro si no lo esta ya
-        if (!isSecurityChannelOpen()) {
-        	// Aunque el canal seguro estuviese cerrado, podria si estar enganchado
-            if (!(getConnection() instanceof Cwa14890Connection)) {
-            	final ApduConnection secureConnection;
-        		secureConnection = new Cwa14890OneV1Connection(
-            		this,
-            		getConnection(),
-            		cryptoHelper,
-            		getCwa14890PublicConstants(),
-            		getCwa14890PrivateConstants()
-        		);
-                try {
-                    setConnection(secureConnection);
+    	getCardLock().lock();
+    	try {
+            // Abrimos el canal seguro si no lo esta ya
+            if (!isSecurityChannelOpen()) {
+                // Si la conexion esta cerrada (por ejemplo, tras una firma), la reestablecemos
+                if (!getConnection().isOpen()) {
+                	invalidateSelectionCache();
+    		        try {
+    					setConnection(rawConnection);
+    				}
+    		        catch (final ApduConnectionException e) {
+    		        	throw new CryptoCardException(
+    		        		"Error en el establecimiento del canal inicial", e //$NON-NLS-1$
+    		    		);
+    				}
+                }
+            	// Aunque el canal seguro estuviese cerrado, podria si estar enganchado
+                if (!(getConnection() instanceof Cwa14890Connection)) {
+                	final ApduConnection secureConnection;
+            		secureConnection = new Cwa14890OneV1Connection(
+                		this,
+                		getConnection(),
+                		cryptoHelper,
+                		getCwa14890PublicConstants(),
+                		getCwa14890PrivateConstants()
+            		);
+                    try {
+                        setConnection(secureConnection);
+                    }
+                    catch (final ApduConnectionException e) {
+                        throw new CryptoCardException("Error en el establecimiento del canal seguro", e); //$NON-NLS-1$
+                    }
                 }
-                catch (final ApduConnectionException e) {
-                    throw new CryptoCardException("Error en el establecimiento del canal seguro", e); //$NON-NLS-1$
+                if (doChv) {
+		            try {
+		                verifyPin(getInternalPasswordCallback());
+		            }
+		            catch (final ApduConnectionException e) {
+		                throw new CryptoCardException("Error en la apertura del canal seguro", e); //$NON-NLS-1$
+		            }
                 }
             }
-            if (doChv) {
-	            try {
-	                verifyPin(getInternalPasswordCallback());
-	            }
-	            catch (final ApduConnectionException e) {
-	                throw new CryptoCardException("Error en la apertura del canal seguro", e); //$NON-NLS-1$
-	            }
+            else {
+            	recordSecureChannelReuse();
             }
-        }
+    	}
+    	finally {
+    		getCardLock().unlock();
+    	}
     }
 
     /** Devuelve los intentos restantes de comprobaci&oacute;n de PIN del DNIe.
      * @return Intentos restantes de comprobaci&oacute;n de PIN del DNIe.
      * @throws PinException Si hay cualquier problema durante el proceso. */
     public int getPinRetriesLeft() throws PinException {
-    	final CommandApdu verifyCommandApdu = new RetriesLeftApduCommand();
-    	final ResponseApdu verifyResponse;
-		try {
-			verifyResponse = getConnection().transmit(
-				verifyCommandApdu
-			);
-		}
-		catch (final ApduConnectionException e) {
-			throw new PinException(
-				"Error obteniendo el PIN del CallbackHandler", e  //$NON-NLS-1$
-			);
-		}
-    	return verifyResponse.getStatusWord().getLsb() - (byte) 0xC0;
+    	getCardLock().lock();
+    	try {
+    		final CommandApdu verifyCommandApdu = new RetriesLeftApduCommand();
+    		final ResponseApdu verifyResponse;
+			try {
+				verifyResponse = getConnection().transmit(
+					verifyCommandApdu
+				);
+			}
+			catch (final ApduConnectionException e) {
+				throw new PinException(
+					"Error obteniendo el PIN del CallbackHandler", e  //$NON-NLS-1$
+				);
+			}
+    		return verifyResponse.getStatusWord().getLsb() - (byte) 0xC0;
+    	}
+    	finally {
+    		getCardLock().unlock();
+    	}
     }
 
     /** Obtiene la <code>PasswordCallback</code> predefinida.
@@ -1055,7 +1642,6 @@ public class Dnie extends AbstractIso7816EightCard implements Dni, Cwa14890Card
     private X509Certificate loadCertificate(final Location location) throws IOException,
                                                                             Iso7816FourCardException,
                                                                             CertificateException {
-    	selectMasterFile();
         final byte[] certEncoded = selectFileByLocationAndRead(location);
         return CompressionUtils.getCertificateFromCompressedOrNotData(
     		certEncoded,
@@ -1070,7 +1656,7 @@ public class Dnie extends AbstractIso7816EightCard implements Dni, Cwa14890Card
 
         // Cargamos certificados si es necesario
     	if (certAuth == null ||
-    		certSign == null ||
+    		certSign == null && certPathSign != null ||
     		certCyph == null && certPathCyph != null ||
     		certSignAlias == null && certPathSignAlias != null) {
 		        try {
@@ -1089,6 +1675,7 @@ public class Dnie extends AbstractIso7816EightCard implements Dni, Cwa14890Card
 		            if (certPathSignAlias != null) {
 		            	certSignAlias = loadCertificate(certPathSignAlias);
 		            }
+		            storeCertificatesInCache();
 		        }
 		        catch (final CertificateException e) {
 		            throw new CryptoCardException(
@@ -1177,44 +1764,52 @@ public class Dnie extends AbstractIso7816EightCard implements Dni, Cwa14890Card
 	 * @throws AuthenticationModeLockedException Cuando el DNIe est&aacute; bloqueado. */
 	public byte[] changePIN(final String oldPin, final String newPin) throws CryptoCardException,
 	                                                                         PinException {
-		openSecureChannelIfNotAlreadyOpened();
+		getCardLock().lock();
 		try {
-			//Seleccion de directorio maestro
-			selectMasterFile();
-			//Seleccion de fichero de PIN por Id
-			final byte[] pinFile = {(byte)0x00, (byte) 0x00};
-			selectFileById(pinFile);
-			//Envio de APDU de cambio de PIN
-			final CommandApdu apdu = new ChangePinApduCommand(oldPin.getBytes(), newPin.getBytes());
-			final ResponseApdu res = getConnection().transmit(apdu);
-			if (!res.isOk()) {
-				throw new DnieCardException(
-					"Error en el establecimiento de las variables de entorno para el cambio de PIN", res.getStatusWord() //$NON-NLS-1$
-				);
-			}
-			return res.getData();
-		}
-		catch(final LostChannelException e) {
-			LOGGER.warning("Se ha perdido el canal seguro para cambiar el PIN, se procede a recuperarlo: " + e); //$NON-NLS-1$
+			openSecureChannelIfNotAlreadyOpened();
 			try {
-				getConnection().close();
-				if (getConnection() instanceof Cwa14890Connection) {
-					setConnection(((Cwa14890Connection) getConnection()).getSubConnection());
+				//Seleccion de directorio maestro
+				selectMasterFile();
+				//Seleccion de fichero de PIN por Id
+				final byte[] pinFile = {(byte)0x00, (byte) 0x00};
+				selectFileById(pinFile);
+				//Envio de APDU de cambio de PIN
+				final CommandApdu apdu = new ChangePinApduCommand(oldPin.getBytes(), newPin.getBytes());
+				final ResponseApdu res = getConnection().transmit(apdu);
+				if (!res.isOk()) {
+					throw new DnieCardException(
+						"Error en el establecimiento de las variables de entorno para el cambio de PIN", res.getStatusWord() //$NON-NLS-1$
+					);
 				}
-				// Se vuelve a llamar ya con el canal recuperado.
-				// Como no hay control de la recursividad, si hay continuas perdidas de canal
-				// se terminara provocando un desbordamiento de pila.
-				return changePIN(oldPin, newPin);
+				return res.getData();
 			}
-			catch (final Exception ex) {
-				throw new DnieCardException("No se pudo recuperar el canal seguro para firmar", ex); //$NON-NLS-1$
+			catch(final LostChannelException e) {
+				LOGGER.warning("Se ha perdido el canal seguro para cambiar el PIN, se procede a recuperarlo: " + e); //$NON-NLS-1$
+				recordSecureChannelLost();
+				invalidateSelectionCache();
+				try {
+					getConnection().close();
+					if (getConnection() instanceof Cwa14890Connection) {
+						setConnection(((Cwa14890Connection) getConnection()).getSubConnection());
+					}
+					// Se vuelve a llamar ya con el canal recuperado.
+					// Como no hay control de la recursividad, si hay continuas perdidas de canal
+					// se terminara provocando un desbordamiento de pila.
+					return changePIN(oldPin, newPin);
+				}
+				catch (final Exception ex) {
+					throw new DnieCardException("No se pudo recuperar el canal seguro para firmar", ex); //$NON-NLS-1$
+				}
+			}
+			catch (final ApduConnectionException e) {
+				throw new DnieCardException("Error en la transmision de comandos a la tarjeta", e); //$NON-NLS-1$
+			}
+			catch (final Iso7816FourCardException e) {
+				throw new DnieCardException("No se pudo seleccionar el fichero de PIN de la tarjeta", e); //$NON-NLS-1$
 			}
 		}
-		catch (final ApduConnectionException e) {
-			throw new DnieCardException("Error en la transmision de comandos a la tarjeta", e); //$NON-NLS-1$
-		}
-		catch (final Iso7816FourCardException e) {
-			throw new DnieCardException("No se pudo seleccionar el fichero de PIN de la tarjeta", e); //$NON-NLS-1$
+		finally {
+			getCardLock().unlock();
 		}
 	}
 
@@ -1252,20 +1847,26 @@ public class Dnie extends AbstractIso7816EightCard implements Dni, Cwa14890Card
 	/** Carga los certificados del DNIe si no lo estaban ya.
 	 * @throws PinException Si se necesita el PIN para cargar certificados y no se ha podido comprobar el PIN. */
 	private void loadCertificatesIfNotAlreadyLoaded() throws ApduConnectionException, CryptoCardException, PinException {
-    	// Si los certificados no estan precargados, lo hacemos ahora
-        if (certAuth == null) { // Este certificado esta presente en todas las variantes del DNIe
+		getCardLock().lock();
+		try {
+	    	// Si los certificados no estan precargados, lo hacemos ahora
+	        if (certAuth == null) { // Este certificado esta presente en todas las variantes del DNIe
 
-        	if (certPathAuth == null) {
-				loadCertificatesPaths();
-        	}
+	        	if (certPathAuth == null) {
+					loadCertificatesPaths();
+	        	}
 
-        	// Abrimos el canal si es necesario (esto solo seria necesario en DNIe 1.0)
-        	if (needsPinForLoadingCerts()) {
-        		openSecureChannelIfNotAlreadyOpened();
-        	}
+	        	// Abrimos el canal si es necesario (esto solo seria necesario en DNIe 1.0)
+	        	if (needsPinForLoadingCerts()) {
+	        		openSecureChannelIfNotAlreadyOpened();
+	        	}
 
-            // Cargamos certificados si es necesario
-			loadCertificates();
-        }
+	            // Cargamos certificados si es necesario
+				loadCertificates();
+	        }
+		}
+		finally {
+			getCardLock().unlock();
+		}
 	}
 }
\ No newline at end of file
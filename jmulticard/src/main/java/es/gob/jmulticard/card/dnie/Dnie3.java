@@ -39,12 +39,16 @@
  */
 package es.gob.jmulticard.card.dnie;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.security.SignatureException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.callback.PasswordCallback;
@@ -63,12 +67,15 @@ import es.gob.jmulticard.asn1.icao.SubjectSignaturePhoto;
 import es.gob.jmulticard.card.CardSecurityException;
 import es.gob.jmulticard.card.CryptoCardException;
 import es.gob.jmulticard.card.CryptoCardSecurityException;
+import es.gob.jmulticard.card.Location;
 import es.gob.jmulticard.card.PasswordCallbackNotFoundException;
 import es.gob.jmulticard.card.PinException;
 import es.gob.jmulticard.card.PrivateKeyReference;
 import es.gob.jmulticard.card.icao.InvalidSecurityObjectException;
+import es.gob.jmulticard.card.icao.LdsSession;
 import es.gob.jmulticard.card.icao.MrtdLds1;
 import es.gob.jmulticard.card.icao.Mrz;
+import es.gob.jmulticard.card.iso7816four.ExtendedLengthInfo;
 import es.gob.jmulticard.card.iso7816four.Iso7816FourCardException;
 import es.gob.jmulticard.card.iso7816four.RequiredSecurityStateNotSatisfiedException;
 import es.gob.jmulticard.connection.ApduConnection;
@@ -79,8 +86,14 @@ import es.gob.jmulticard.connection.cwa14890.Cwa14890OneV2Connection;
  * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
 public class Dnie3 extends Dnie implements MrtdLds1 {
 
+	/** N&uacute;mero m&aacute;ximo de octetos de datos de una APDU de respuesta de longitud corta. */
+	private static final int MAX_SHORT_RESPONSE_DATA_SIZE = 0x100;
+
     private transient String idesp = null;
 
+    /** Sesi&oacute;n de lectura de la LDS1, con el EF&#46;COM y los DG ya le&iacute;dos. */
+    private transient LdsSession ldsSession = null;
+
 	//*************************************************************************
 	//************************ CONSTRUCTORES **********************************
 
@@ -105,6 +118,21 @@ public class Dnie3 extends Dnie implements MrtdLds1 {
 
         super(conn, pwc, cryptoHlpr, ch, loadCertsAndKeys);
         rawConnection = conn;
+
+        // Si el lector admite APDU de longitud extendida, comprobamos en el
+        // EF.ATR/INFO si la tarjeta tambien las admite para leer en bloques mayores
+        if (conn.getMaxResponseDataSize() > MAX_SHORT_RESPONSE_DATA_SIZE) {
+        	try {
+        		final int maxResponseDataSize = ExtendedLengthInfo.getMaxResponseDataSizeFromAtrInfo(getAtrInfo());
+        		if (maxResponseDataSize != ExtendedLengthInfo.SHORT_LENGTH_ONLY) {
+        			setMaxCardResponseDataSize(maxResponseDataSize);
+        		}
+        	}
+        	catch (final Exception e) {
+        		LOGGER.info("No se ha podido leer el EF.ATR/INFO, se usaran APDU cortas: " + e); //$NON-NLS-1$
+        	}
+        }
+
         if (loadCertsAndKeys) {
         	try {
 				loadCertificates();
@@ -163,102 +191,108 @@ public class Dnie3 extends Dnie implements MrtdLds1 {
 	@Override
 	public void openSecureChannelIfNotAlreadyOpened(final boolean doChv) throws CryptoCardException,
 	                                                                            PinException {
+    	getCardLock().lock();
+    	try {
+            // Si el canal seguro esta ya abierto salimos sin hacer nada
+            if (isSecurityChannelOpen()) {
+            	recordSecureChannelReuse();
+            	return;
+            }
+
+            if (DEBUG) {
+            	LOGGER.info("Conexion actual: " + getConnection()); //$NON-NLS-1$
+            	LOGGER.info("Conexion subyacente: " + rawConnection); //$NON-NLS-1$
+            }
+
+            // Si la conexion esta cerrada, la reestablecemos
+            if (!getConnection().isOpen()) {
+		        try {
+					setConnection(rawConnection);
+				}
+		        catch (final ApduConnectionException e) {
+		        	throw new CryptoCardException(
+		        		"Error en el establecimiento del canal inicial previo al seguro de PIN", e //$NON-NLS-1$
+		    		);
+				}
+            }
+
+            if (doChv) {
+		        // Establecemos el canal PIN y lo verificamos
+		        final ApduConnection pinSecureConnection = new Cwa14890OneV2Connection(
+		    		this,
+		    		getConnection(),
+		    		getCryptoHelper(),
+		    		DnieFactory.getDnie3PinCwa14890Constants(idesp),
+		    		DnieFactory.getDnie3PinCwa14890Constants(idesp)
+				);
 
-        // Si el canal seguro esta ya abierto salimos sin hacer nada
-        if (isSecurityChannelOpen()) {
-        	return;
-        }
-
-        if (DEBUG) {
-        	LOGGER.info("Conexion actual: " + getConnection()); //$NON-NLS-1$
-        	LOGGER.info("Conexion subyacente: " + rawConnection); //$NON-NLS-1$
-        }
+		        try {
+		        	selectMasterFile();
+		        }
+		        catch (final Exception e) {
+		        	LOGGER.warning(
+		    			"Error seleccionando el MF tras el establecimiento del canal seguro de PIN: " + e //$NON-NLS-1$
+					);
+		        }
+
+		        try {
+		        	setConnection(pinSecureConnection);
+		        }
+		        catch (final ApduConnectionException e) {
+		        	throw new CryptoCardException(
+		    			"Error en el establecimiento del canal seguro de PIN", e //$NON-NLS-1$
+					);
+		        }
+
+		        LOGGER.info("Canal seguro de PIN para DNIe establecido"); //$NON-NLS-1$
+
+		        try {
+		        	verifyPin(getInternalPasswordCallback());
+		        }
+		        catch (final PasswordCallbackNotFoundException e) {
+		        	// Si no se indico un medio para obtener el PIN, ignoramos el establecimiento del canal
+		        	// de PIN, pero continuamos para establecer el canal de usuario
+		        	LOGGER.info("No se proporcionaron medios para verificar el canal de PIN: " + e); //$NON-NLS-1$
+				}
+		        catch (final ApduConnectionException e) {
+		        	throw new CryptoCardException(
+		    			"Error en la verificacion de PIN", e //$NON-NLS-1$
+					);
+		        }
+            }
 
-        // Si la conexion esta cerrada, la reestablecemos
-        if (!getConnection().isOpen()) {
-	        try {
-				setConnection(rawConnection);
+			try {
+				selectMasterFile();
 			}
-	        catch (final ApduConnectionException e) {
-	        	throw new CryptoCardException(
-	        		"Error en el establecimiento del canal inicial previo al seguro de PIN", e //$NON-NLS-1$
-	    		);
+			catch (final Exception e) {
+				throw new CryptoCardException(
+            		"Error seleccionado el MF antes del establecimiento del canal seguro de usuario", e //$NON-NLS-1$
+    			);
 			}
-        }
 
-        if (doChv) {
-	        // Establecemos el canal PIN y lo verificamos
-	        final ApduConnection pinSecureConnection = new Cwa14890OneV2Connection(
-	    		this,
-	    		getConnection(),
-	    		getCryptoHelper(),
-	    		DnieFactory.getDnie3PinCwa14890Constants(idesp),
-	    		DnieFactory.getDnie3PinCwa14890Constants(idesp)
+            // Establecemos ahora el canal de usuario
+            final ApduConnection usrSecureConnection = new Cwa14890OneV2Connection(
+    			this,
+    			getConnection(),
+    			getCryptoHelper(),
+    			DnieFactory.getDnie3UsrCwa14890Constants(idesp),
+    			DnieFactory.getDnie3UsrCwa14890Constants(idesp)
 			);
 
-	        try {
-	        	selectMasterFile();
-	        }
-	        catch (final Exception e) {
-	        	LOGGER.warning(
-	    			"Error seleccionando el MF tras el establecimiento del canal seguro de PIN: " + e //$NON-NLS-1$
-				);
-	        }
-
-	        try {
-	        	setConnection(pinSecureConnection);
-	        }
-	        catch (final ApduConnectionException e) {
-	        	throw new CryptoCardException(
-	    			"Error en el establecimiento del canal seguro de PIN", e //$NON-NLS-1$
-				);
-	        }
-
-	        LOGGER.info("Canal seguro de PIN para DNIe establecido"); //$NON-NLS-1$
-
-	        try {
-	        	verifyPin(getInternalPasswordCallback());
-	        }
-	        catch (final PasswordCallbackNotFoundException e) {
-	        	// Si no se indico un medio para obtener el PIN, ignoramos el establecimiento del canal
-	        	// de PIN, pero continuamos para establecer el canal de usuario
-	        	LOGGER.info("No se proporcionaron medios para verificar el canal de PIN: " + e); //$NON-NLS-1$
-			}
-	        catch (final ApduConnectionException e) {
-	        	throw new CryptoCardException(
-	    			"Error en la verificacion de PIN", e //$NON-NLS-1$
-				);
-	        }
-        }
-
-		try {
-			selectMasterFile();
-		}
-		catch (final Exception e) {
-			throw new CryptoCardException(
-        		"Error seleccionado el MF antes del establecimiento del canal seguro de usuario", e //$NON-NLS-1$
-    		);
-		}
-
-        // Establecemos ahora el canal de usuario
-        final ApduConnection usrSecureConnection = new Cwa14890OneV2Connection(
-    		this,
-    		getConnection(),
-    		getCryptoHelper(),
-    		DnieFactory.getDnie3UsrCwa14890Constants(idesp),
-    		DnieFactory.getDnie3UsrCwa14890Constants(idesp)
-		);
-
-        try {
-            setConnection(usrSecureConnection);
-        }
-        catch (final ApduConnectionException e) {
-            throw new CryptoCardException(
-        		"Error en el establecimiento del canal seguro de usuario", e //$NON-NLS-1$
-    		);
-        }
+            try {
+                setConnection(usrSecureConnection);
+            }
+            catch (final ApduConnectionException e) {
+                throw new CryptoCardException(
+            		"Error en el establecimiento del canal seguro de usuario", e //$NON-NLS-1$
+    			);
+            }
 
-        LOGGER.info("Canal seguro de Usuario para DNIe establecido"); //$NON-NLS-1$
+            LOGGER.info("Canal seguro de Usuario para DNIe establecido"); //$NON-NLS-1$
+    	}
+    	finally {
+    		getCardLock().unlock();
+    	}
     }
 
 	@Override
@@ -274,6 +308,13 @@ public class Dnie3 extends Dnie implements MrtdLds1 {
         return signOperation(data, signAlgorithm, privateKeyReference);
 	}
 
+	/** {@inheritDoc}
+	 * El DNIe 3.0 no pide autorizaci&oacute;n al usuario para firmar. */
+	@Override
+	protected boolean needAuthorizationToSign() {
+		return false;
+	}
+
 	//*************************************************************************
 	//******************* METODOS DE EXCLUSIVOS DE ESTA CLASE *****************
 
@@ -329,94 +370,324 @@ public class Dnie3 extends Dnie implements MrtdLds1 {
 	                                                       CertificateException {
 		openSecureChannelIfNotAlreadyOpened(false);
 		final Sod sod = getSod();
-		sod.validateSignature();
-		final LdsSecurityObject ldsSecurityObject = sod.getLdsSecurityObject();
+
+		// La firma del SOD se valida (sin usar la tarjeta) mientras se leen los DG
+		final CompletableFuture<Void> signatureValidation = CompletableFuture.runAsync(
+			new Runnable() {
+				@Override
+				public void run() {
+					try {
+						sod.validateSignature();
+					}
+					catch (final TlvException      |
+							     SignatureException   |
+							     CertificateException |
+							     IOException          |
+							     Asn1Exception e) {
+						throw new CompletionException(e);
+					}
+				}
+			}
+		);
+		final LdsSecurityObject ldsSecurityObject = sod.getUnverifiedLdsSecurityObject();
+		final CryptoHelper.DigestAlgorithm digestAlgorithm = CryptoHelper.DigestAlgorithm.getDigestAlgorithm(
+			ldsSecurityObject.getDigestAlgorithm()
+		);
 
 		openSecureChannelIfNotAlreadyOpened(false);
 
-		for (final DataGroupHash dgh : ldsSecurityObject.getDataGroupHashes()) {
+		try {
+			for (final DataGroupHash dgh : ldsSecurityObject.getDataGroupHashes()) {
 
-			final byte[] dgBytes;
-			switch(dgh.getDataGroupNumber()) {
-				case 1:
-					dgBytes = getDg1().getBytes();
+				// Si la firma ya ha fallado no se siguen leyendo DG
+				if (signatureValidation.isCompletedExceptionally()) {
 					break;
-				case 2:
-					dgBytes = getDg2().getBytes();
-					break;
-				case 3:
+				}
+
+				final byte[] actualHash;
+				try {
+					actualHash = digestDataGroup(dgh.getDataGroupNumber(), digestAlgorithm);
+				}
+				catch(final CardSecurityException e) {
 					// El DG3 necesita canal administrativo, le damos un tratamiento especial
 					// para permitir verificar solo con canal de usuario
-					try {
-						dgBytes = getDg3();
-					}
-					catch(final CardSecurityException e) {
-						LOGGER.warning(
-							"Se omite la comprobacion del DG3 con el SOD por no poder leerse: " + e //$NON-NLS-1$
-						);
-						continue;
+					if (dgh.getDataGroupNumber() != 3) {
+						throw e;
 					}
-					break;
-				case 4:
-					dgBytes = getDg4();
-					break;
-				case 5:
-					dgBytes = getDg5();
-					break;
-				case 6:
-					dgBytes = getDg6();
-					break;
-				case 7:
-					dgBytes = getDg7().getBytes();
-					break;
-				case 8:
-					dgBytes = getDg8();
-					break;
-				case 9:
-					dgBytes = getDg9();
-					break;
-				case 10:
-					dgBytes = getDg10();
-					break;
-				case 11:
-					dgBytes = getDg11();
-					break;
-				case 12:
-					dgBytes = getDg12();
-					break;
-				case 13:
-					dgBytes = getDg13().getBytes();
-					break;
-				case 14:
-					dgBytes = getDg14();
-					break;
-				case 15:
-					dgBytes = getDg15();
-					break;
-				case 16:
-					dgBytes = getDg16();
-					break;
-				default:
+					LOGGER.warning(
+						"Se omite la comprobacion del DG3 con el SOD por no poder leerse: " + e //$NON-NLS-1$
+					);
+					continue;
+				}
+
+				if (!Arrays.equals(actualHash, dgh.getDataGroupHashValue())) {
 					throw new InvalidSecurityObjectException(
-						"El SOD define huella para un DG inexistente: " + dgh.getDataGroupNumber() //$NON-NLS-1$
+						"El DG" + dgh.getDataGroupNumber() + " no concuerda con la huella del SOD, " + //$NON-NLS-1$ //$NON-NLS-2$
+							"se esperaba " + HexUtils.hexify(actualHash, false) + //$NON-NLS-1$
+								" y se ha encontrado " + HexUtils.hexify(dgh.getDataGroupHashValue(), false) //$NON-NLS-1$
 					);
+				}
 			}
-			final byte[] actualHash = cryptoHelper.digest(
-				CryptoHelper.DigestAlgorithm.getDigestAlgorithm(ldsSecurityObject.getDigestAlgorithm()),
-				dgBytes
-			);
+			signatureValidation.join();
+		}
+		catch (final CompletionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof SignatureException) {
+				throw (SignatureException) cause;
+			}
+			if (cause instanceof CertificateException) {
+				throw (CertificateException) cause;
+			}
+			if (cause instanceof TlvException) {
+				throw (TlvException) cause;
+			}
+			if (cause instanceof Asn1Exception) {
+				throw (Asn1Exception) cause;
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw e;
+		}
+		finally {
+			// Si se sale antes de tiempo la validacion de la firma ya no es necesaria
+			signatureValidation.cancel(false);
+		}
 
-			if (!Arrays.equals(actualHash, dgh.getDataGroupHashValue())) {
-				throw new InvalidSecurityObjectException(
-					"El DG" + dgh.getDataGroupNumber() + " no concuerda con la huella del SOD, " + //$NON-NLS-1$ //$NON-NLS-2$
-						"se esperaba " + HexUtils.hexify(actualHash, false) + //$NON-NLS-1$
-							" y se ha encontrado " + HexUtils.hexify(dgh.getDataGroupHashValue(), false) //$NON-NLS-1$
+		// Llegados aqui, la firma es valida y todas las huellas coinciden
+		return sod.getCertificateChain();
+	}
+
+	/** Calcula la huella digital de un DG.
+	 * Si el DG ya se ha le&iacute;do en la sesi&oacute;n LDS se usa su contenido guardado y,
+	 * si no, se lee calculando su huella seg&uacute;n se reciben sus bloques. Su contenido solo
+	 * se guarda en la sesi&oacute;n si se pidi&oacute; precargarlo, para no mantener en memoria
+	 * DG grandes (como las im&aacute;genes) que no se van a usar.
+	 * @param dgNumber N&uacute;mero de DG.
+	 * @param algorithm Algoritmo de huella digital.
+	 * @return Huella digital del contenido del DG.
+	 * @throws CardSecurityException Si no se tienen permisos para leer el DG.
+	 * @throws IOException Si no se puede leer el DG. */
+	private byte[] digestDataGroup(final int dgNumber,
+			                       final CryptoHelper.DigestAlgorithm algorithm) throws IOException {
+		final CryptoHelper.IncrementalDigest digest = cryptoHelper.getIncrementalDigest(algorithm);
+		final LdsSession session = getLdsSession();
+		final byte[] cached = session.getDataGroup(dgNumber);
+		if (cached != null) {
+			digest.update(cached, 0, cached.length);
+			return digest.digest();
+		}
+		final ByteArrayOutputStream content = session.isPrefetchRequested(dgNumber) ?
+			new ByteArrayOutputStream() :
+				null;
+		try {
+			if (!session.isDataGroupPresent(dgNumber)) {
+				throw new es.gob.jmulticard.card.iso7816four.FileNotFoundException(
+					"DG" + dgNumber + " (no consta en el EF.COM)" //$NON-NLS-1$ //$NON-NLS-2$
 				);
 			}
+			selectFileByLocationAndRead(
+				getDataGroupLocation(dgNumber),
+				new OutputStream() {
+					@Override
+					public void write(final int b) {
+						digest.update(new byte[] { (byte) b }, 0, 1);
+						if (content != null) {
+							content.write(b);
+						}
+					}
+
+					@Override
+					public void write(final byte[] b, final int off, final int len) {
+						digest.update(b, off, len);
+						if (content != null) {
+							content.write(b, off, len);
+						}
+					}
+				}
+			);
+		}
+    	catch(final es.gob.jmulticard.card.iso7816four.FileNotFoundException e) {
+    		throw (IOException) new FileNotFoundException("DG" + dgNumber + " no encontrado").initCause(e); //$NON-NLS-1$ //$NON-NLS-2$
+    	}
+		catch(final RequiredSecurityStateNotSatisfiedException e) {
+			throw new CardSecurityException(
+				"No se tienen permisos para leer el DG" + dgNumber, e //$NON-NLS-1$
+			);
 		}
+		catch (final Iso7816FourCardException e) {
+			throw new CryptoCardException("Error leyendo el DG" + dgNumber, e); //$NON-NLS-1$
+		}
+		if (content != null) {
+			session.putDataGroup(dgNumber, content.toByteArray());
+		}
+		return digest.digest();
+	}
 
-		// Llegados aqui, todas las huellas coinciden
-		return sod.getCertificateChain();
+	/** Obtiene la sesi&oacute;n de lectura de la LDS1, leyendo el EF&#46;COM si a&uacute;n
+	 * no se ha le&iacute;do.
+	 * Si el EF&#46;COM no existe, la sesi&oacute;n no lo tiene y se intentan leer todos los DG
+	 * que se pidan. Si no se puede leer o analizar por otra causa (por ejemplo, por no estar
+	 * a&uacute;n abierto el canal seguro), se devuelve una sesi&oacute;n temporal sin EF&#46;COM
+	 * que no se guarda, de forma que en la siguiente llamada se vuelve a intentar leer.
+	 * @return Sesi&oacute;n de lectura de la LDS1. */
+	public LdsSession getLdsSession() {
+		try {
+			return loadLdsSession();
+		}
+		catch (final IOException e) {
+			LOGGER.warning(
+				"No se ha podido leer el EF.COM, no se sabra de antemano que DG tiene: " + e //$NON-NLS-1$
+			);
+			return new LdsSession(null);
+		}
+	}
+
+	/** Obtiene la sesi&oacute;n de lectura de la LDS1, leyendo el EF&#46;COM si a&uacute;n
+	 * no se ha le&iacute;do. La sesi&oacute;n solo se guarda si se ha le&iacute;do el EF&#46;COM
+	 * o si este no existe.
+	 * @return Sesi&oacute;n de lectura de la LDS1.
+	 * @throws IOException Si el EF&#46;COM existe pero no se puede leer o analizar. */
+	private LdsSession loadLdsSession() throws IOException {
+		getCardLock().lock();
+		try {
+			if (ldsSession == null) {
+				Com com;
+				try {
+					com = readCom();
+				}
+				catch (final FileNotFoundException e) {
+					LOGGER.info(
+						"El MRTD no tiene EF.COM, no se sabra de antemano que DG tiene: " + e //$NON-NLS-1$
+					);
+					com = null;
+				}
+				ldsSession = new LdsSession(com);
+			}
+			return ldsSession;
+		}
+		finally {
+			getCardLock().unlock();
+		}
+	}
+
+	@Override
+	public void prefetchDataGroups(final int... dgNumbers) throws IOException {
+		if (dgNumbers == null) {
+			return;
+		}
+		// En orden, para que todas las lecturas compartan la seleccion del DF de la LDS
+		final int[] ordered = dgNumbers.clone();
+		Arrays.sort(ordered);
+		getCardLock().lock();
+		try {
+			final LdsSession session = getLdsSession();
+			for (final int dg : ordered) {
+				session.requestPrefetch(dg);
+				if (!session.isDataGroupPresent(dg) || session.isDataGroupCached(dg)) {
+					continue;
+				}
+				try {
+					readDataGroup(dg);
+				}
+				catch (final RequiredSecurityStateNotSatisfiedException |
+						     CardSecurityException                      |
+						     CryptoCardSecurityException e) {
+					LOGGER.warning(
+						"No se precarga el DG" + dg + " por no tenerse permisos para leerlo: " + e //$NON-NLS-1$ //$NON-NLS-2$
+					);
+				}
+				catch (final Iso7816FourCardException e) {
+					throw new CryptoCardException("Error leyendo el DG" + dg, e); //$NON-NLS-1$
+				}
+			}
+		}
+		finally {
+			getCardLock().unlock();
+		}
+	}
+
+	/** Lee un DG, o lo obtiene de la sesi&oacute;n LDS si ya se hab&iacute;a le&iacute;do.
+	 * Si el EF&#46;COM indica que el MRTD no tiene el DG no se intenta seleccionar.
+	 * @param dgNumber N&uacute;mero de DG.
+	 * @return Contenido binario del DG.
+	 * @throws IOException Si hay problemas leyendo el DG.
+	 * @throws Iso7816FourCardException Si el DG no existe o no se puede seleccionar. */
+	protected byte[] readDataGroup(final int dgNumber) throws IOException,
+	                                                          Iso7816FourCardException {
+		getCardLock().lock();
+		try {
+			final LdsSession session = getLdsSession();
+			byte[] content = session.getDataGroup(dgNumber);
+			if (content == null) {
+				if (!session.isDataGroupPresent(dgNumber)) {
+					throw new es.gob.jmulticard.card.iso7816four.FileNotFoundException(
+						"DG" + dgNumber + " (no consta en el EF.COM)" //$NON-NLS-1$ //$NON-NLS-2$
+					);
+				}
+				content = selectFileByLocationAndRead(getDataGroupLocation(dgNumber));
+				session.putDataGroup(dgNumber, content);
+			}
+			return content;
+		}
+		finally {
+			getCardLock().unlock();
+		}
+	}
+
+	@Override
+	public void invalidateCardState() {
+		getCardLock().lock();
+		try {
+			super.invalidateCardState();
+			ldsSession = null;
+		}
+		finally {
+			getCardLock().unlock();
+		}
+	}
+
+	/** Obtiene la ubicaci&oacute;n de un DG para comprobar su huella con el SOD.
+	 * @param dgNumber N&uacute;mero de DG.
+	 * @return Ubicaci&oacute;n del DG.
+	 * @throws IOException Si este MRTD no permite leer el DG o el DG no existe. */
+	protected Location getDataGroupLocation(final int dgNumber) throws IOException {
+		switch(dgNumber) {
+			case 1:
+				return FILE_DG01_LOCATION;
+			case 2:
+				return FILE_DG02_LOCATION;
+			case 3:
+				return FILE_DG03_LOCATION;
+			case 4:
+		    	throw new CryptoCardSecurityException(
+					"Hace falta canal de administrador para leer el DG4" //$NON-NLS-1$
+				);
+			case 7:
+				return FILE_DG07_LOCATION;
+			case 11:
+				return FILE_DG11_LOCATION;
+			case 12:
+				return FILE_DG12_LOCATION;
+			case 13:
+				return FILE_DG13_LOCATION;
+			case 14:
+				return FILE_DG14_LOCATION;
+			case 5:
+			case 6:
+			case 8:
+			case 9:
+			case 10:
+			case 15:
+			case 16:
+		    	throw new UnsupportedOperationException(
+					"Este MRTD no tiene DG" + dgNumber //$NON-NLS-1$
+				);
+			default:
+				throw new InvalidSecurityObjectException(
+					"El SOD define huella para un DG inexistente: " + dgNumber //$NON-NLS-1$
+				);
+		}
 	}
 
     @Override
@@ -449,7 +720,7 @@ public class Dnie3 extends Dnie implements MrtdLds1 {
 	public Mrz getDg1() throws IOException {
 		try {
 			return new Dnie3Dg01Mrz(
-				selectFileByLocationAndRead(FILE_DG01_LOCATION)
+				readDataGroup(1)
 			);
 		}
     	catch(final es.gob.jmulticard.card.iso7816four.FileNotFoundException e) {
@@ -464,7 +735,7 @@ public class Dnie3 extends Dnie implements MrtdLds1 {
 	public SubjectFacePhoto getDg2() throws IOException {
     	final SubjectFacePhoto ret = new SubjectFacePhoto();
 		try {
-			ret.setDerValue(selectFileByLocationAndRead(FILE_DG02_LOCATION));
+			ret.setDerValue(readDataGroup(2));
 		}
     	catch(final es.gob.jmulticard.card.iso7816four.FileNotFoundException e) {
     		throw new FileNotFoundException("DG2 no encontrado: " + e); //$NON-NLS-1$
@@ -478,7 +749,7 @@ public class Dnie3 extends Dnie implements MrtdLds1 {
     @Override
 	public byte[] getDg3() throws IOException {
 		try {
-			return selectFileByLocationAndRead(FILE_DG03_LOCATION);
+			return readDataGroup(3);
 		}
     	catch(final es.gob.jmulticard.card.iso7816four.FileNotFoundException e) {
     		throw (IOException) new FileNotFoundException("DG3 no encontrado").initCause(e); //$NON-NLS-1$
@@ -498,7 +769,7 @@ public class Dnie3 extends Dnie implements MrtdLds1 {
 	public SubjectSignaturePhoto getDg7() throws IOException {
     	final SubjectSignaturePhoto ret = new SubjectSignaturePhoto();
 		try {
-			ret.setDerValue(selectFileByLocationAndRead(FILE_DG07_LOCATION));
+			ret.setDerValue(readDataGroup(7));
 		}
     	catch(final es.gob.jmulticard.card.iso7816four.FileNotFoundException e) {
     		throw (IOException) new FileNotFoundException("DG7 no encontrado").initCause(e); //$NON-NLS-1$
@@ -512,7 +783,7 @@ public class Dnie3 extends Dnie implements MrtdLds1 {
     @Override
 	public byte[] getDg11() throws IOException {
 		try {
-			return selectFileByLocationAndRead(FILE_DG11_LOCATION);
+			return readDataGroup(11);
 		}
     	catch(final es.gob.jmulticard.card.iso7816four.FileNotFoundException e) {
     		throw (IOException) new FileNotFoundException("DG11 no encontrado").initCause(e); //$NON-NLS-1$
@@ -525,7 +796,7 @@ public class Dnie3 extends Dnie implements MrtdLds1 {
     @Override
 	public byte[] getDg12() throws IOException {
 		try {
-			return selectFileByLocationAndRead(FILE_DG12_LOCATION);
+			return readDataGroup(12);
 		}
     	catch(final es.gob.jmulticard.card.iso7816four.FileNotFoundException e) {
     		throw (IOException) new FileNotFoundException("DG12 no encontrado").initCause(e); //$NON-NLS-1$
@@ -540,7 +811,7 @@ public class Dnie3 extends Dnie implements MrtdLds1 {
 		try {
 			final OptionalDetails ret = new OptionalDetailsDnie3();
 			ret.setDerValue(
-				selectFileByLocationAndRead(FILE_DG13_LOCATION)
+				readDataGroup(13)
 			);
 			return ret;
 		}
@@ -555,7 +826,7 @@ public class Dnie3 extends Dnie implements MrtdLds1 {
     @Override
 	public byte[] getDg14() throws IOException {
 		try {
-			return selectFileByLocationAndRead(FILE_DG14_LOCATION);
+			return readDataGroup(14);
 		}
     	catch(final es.gob.jmulticard.card.iso7816four.FileNotFoundException e) {
     		throw (IOException) new FileNotFoundException("DG14 no encontrado").initCause(e); //$NON-NLS-1$
@@ -583,6 +854,17 @@ public class Dnie3 extends Dnie implements MrtdLds1 {
 
     @Override
 	public Com getCom() throws IOException {
+    	final Com com = loadLdsSession().getCom();
+    	if (com == null) {
+    		throw new FileNotFoundException("COM no encontrado"); //$NON-NLS-1$
+    	}
+    	return com;
+    }
+
+    /** Lee el EF&#46;COM de la tarjeta.
+     * @return EF&#46;COM.
+     * @throws IOException Si no se puede leer el fichero. */
+	private Com readCom() throws IOException {
 		try {
 			final Com com = new Com();
 			com.setDerValue(
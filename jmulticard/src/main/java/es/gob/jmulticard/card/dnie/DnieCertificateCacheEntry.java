@@ -0,0 +1,81 @@
+package es.gob.jmulticard.card.dnie;
+
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import es.gob.jmulticard.HexUtils;
+
+/** Entrada del almac&eacute;n de certificados de DNIe: certificados ya decodificados
+ * y rutas PKCS#15 de una tarjeta concreta, junto con la huella del CDF del que se obtuvieron.
+ * Es inmutable.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class DnieCertificateCacheEntry {
+
+	private final byte[] cdfHash;
+
+	/** Rutas (en hexadecimal, tal y como aparecen en el CDF) indexadas por alias. */
+	private final Map<String, String> paths;
+
+	/** Certificados indexados por alias. */
+	private final Map<String, X509Certificate> certificates;
+
+	/** Construye una entrada del almac&eacute;n de certificados.
+	 * @param cdfDigest Huella SHA-256 del CDF de la tarjeta.
+	 * @param certPaths Rutas de los certificados (en hexadecimal) indexadas por alias.
+	 * @param certs Certificados indexados por alias. */
+	public DnieCertificateCacheEntry(final byte[] cdfDigest,
+			                         final Map<String, String> certPaths,
+			                         final Map<String, X509Certificate> certs) {
+		if (cdfDigest == null || certPaths == null || certs == null) {
+			throw new IllegalArgumentException(
+				"Ni la huella del CDF ni las rutas ni los certificados pueden ser nulos" //$NON-NLS-1$
+			);
+		}
+		cdfHash = cdfDigest.clone();
+		paths = Collections.unmodifiableMap(new LinkedHashMap<>(certPaths));
+		certificates = Collections.unmodifiableMap(new LinkedHashMap<>(certs));
+	}
+
+	/** Indica si esta entrada corresponde al CDF cuya huella se proporciona.
+	 * @param cdfDigest Huella SHA-256 del CDF actual de la tarjeta.
+	 * @return <code>true</code> si la entrada es v&aacute;lida para ese CDF,
+	 *         <code>false</code> si la tarjeta ha cambiado y la entrada debe descartarse. */
+	public boolean matches(final byte[] cdfDigest) {
+		return HexUtils.arrayEquals(cdfHash, cdfDigest);
+	}
+
+	/** Obtiene la huella SHA-256 del CDF del que se obtuvo esta entrada.
+	 * @return Huella SHA-256 del CDF. */
+	public byte[] getCdfHash() {
+		return cdfHash.clone();
+	}
+
+	/** Obtiene los alias de los que se conoce su ruta.
+	 * @return Alias de los que se conoce su ruta. */
+	public Set<String> getAliases() {
+		return paths.keySet();
+	}
+
+	/** Obtiene la ruta (en hexadecimal) del certificado con el alias indicado.
+	 * @param alias Alias del certificado.
+	 * @return Ruta del certificado o <code>null</code> si no se conoce. */
+	public String getPath(final String alias) {
+		return paths.get(alias);
+	}
+
+	/** Obtiene el certificado con el alias indicado.
+	 * @param alias Alias del certificado.
+	 * @return Certificado o <code>null</code> si no se conoce. */
+	public X509Certificate getCertificate(final String alias) {
+		return certificates.get(alias);
+	}
+
+	@Override
+	public String toString() {
+		return "Entrada de cache de certificados con alias " + paths.keySet() + //$NON-NLS-1$
+			" (CDF " + HexUtils.hexify(cdfHash, false) + ")"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
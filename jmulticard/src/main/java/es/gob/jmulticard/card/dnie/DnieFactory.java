@@ -1,5 +1,7 @@
 package es.gob.jmulticard.card.dnie;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import javax.security.auth.callback.CallbackHandler;
@@ -7,6 +9,9 @@ import javax.security.auth.callback.PasswordCallback;
 
 import es.gob.jmulticard.CryptoHelper;
 import es.gob.jmulticard.card.Atr;
+import es.gob.jmulticard.card.AtrRegistry;
+import es.gob.jmulticard.card.Card;
+import es.gob.jmulticard.card.CardDiscovery;
 import es.gob.jmulticard.card.InvalidCardException;
 import es.gob.jmulticard.card.dnie.ceressc.CeresSc;
 import es.gob.jmulticard.card.dnie.tif.Tif;
@@ -14,7 +19,6 @@ import es.gob.jmulticard.card.icao.IcaoException;
 import es.gob.jmulticard.connection.ApduConnection;
 import es.gob.jmulticard.connection.ApduConnectionException;
 import es.gob.jmulticard.connection.CardNotPresentException;
-import es.gob.jmulticard.connection.NoReadersFoundException;
 
 /** Factor&iacute;a para la obtenci&oacute;n de DNIe.
  * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
@@ -57,12 +61,32 @@ public final class DnieFactory {
 		(byte) 0x31, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x90, (byte) 0x00
 	}, ATR_MASK);
 
+	/** ATR del DNIe 3&#46;0 y 4&#46;0 (como el del DNIe 2&#46;0, pero con la versi&oacute;n 4 en el
+	 * octeto 15). */
+	private static final Atr ATR_DNIE3 = new Atr(new byte[] {
+		(byte) 0x3B, (byte) 0x7F, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x6A, (byte) 0x44, (byte) 0x4E, (byte) 0x49,
+		(byte) 0x65, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x04, (byte) 0x00, (byte) 0x00, (byte) 0x90, (byte) 0x00
+	}, new byte[] {
+		(byte) 0xFF, (byte) 0xFF, (byte) 0x00, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+		(byte) 0xFF, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0xFF, (byte) 0x00, (byte) 0x00, (byte) 0xFF, (byte) 0xFF
+	});
+
 	private static final String DNIE3_R2_IDESP = "BMP100001"; //$NON-NLS-1$
 
 	private DnieFactory() {
 		// No instanciable
 	}
 
+	/** Registra los ATR de los DNIe (por contacto y por NFC) y de las tarjetas TIF.
+	 * @param registry Constructor del registro de ATR. */
+	public static void registerAtrs(final AtrRegistry.Builder registry) {
+		registry.register(DnieNfc.class, ATR_NFC)
+			.register(DnieNfc.class, ATR_NFC2)
+			.register(Dnie3.class, ATR_DNIE3)
+			.register(Dnie.class, ATR)
+			.register(Tif.class, ATR_TIF);
+	}
+
 	/** Obtiene la clase de DNIe apropiada (seg&uacute;n su ATR).
 	 * @param conn Conexi&oacute;n con el lector de tarjetas.
 	 * @param pwc <i>PasswordCallback</i> para la obtenci&oacute;n del PIN.
@@ -110,29 +134,75 @@ public final class DnieFactory {
 			);
 		}
 
-		byte[] responseAtr;
-		Atr actualAtr;
-		InvalidCardException invalidCardException = null;
-		CardNotPresentException cardNotPresentException = null;
-		final long[] terminals = conn.getTerminals(false);
-		if (terminals.length < 1) {
-			throw new NoReadersFoundException();
+		// Se leen los ATR de todos los lectores de una vez (en paralelo y sin reiniciar las
+		// tarjetas si la conexion lo permite) y despues se clasifican por orden de lector
+		return getDnie(conn, CardDiscovery.readAtrs(conn), pwc, cryptoHelper, ch, loadCertsAndKeys);
+	}
+
+	/** Obtiene la clase de DNIe apropiada (seg&uacute;n su ATR) para la tarjeta insertada en
+	 * un lector concreto, sin considerar los dem&aacute;s lectores de la conexi&oacute;n.
+	 * @param conn Conexi&oacute;n con el lector de tarjetas.
+	 * @param terminal N&uacute;mero de lector.
+	 * @param pwc <i>PasswordCallback</i> para la obtenci&oacute;n del PIN.
+	 * @param cryptoHelper Clase de apoyo para operaciones criptogr&aacute;ficas.
+	 * @param ch Gestor de <i>callbacks</i> para la obtenci&oacute;n de datos adicionales por parte
+	 *           del titular del DNIe (como el PIN y el CAN).
+	 * @param loadCertsAndKeys Si se indica <code>true</code>, se cargan las referencias a
+     *                         las claves privadas y a los certificados.
+	 * @return Clase de DNIe apropiada (seg&uacute;n su ATR).
+	 * @throws InvalidCardException Si la tarjeta del lector no es un DNIe.
+	 * @throws BurnedDnieCardException Si se ha detectado un DNIe con su memoria vol&aacute;til borrada.
+	 * @throws ApduConnectionException Si no se puede conectar con el lector o no tiene tarjeta. */
+	public static Dnie getDnie(final ApduConnection conn,
+			                   final long terminal,
+			                   final PasswordCallback pwc,
+			                   final CryptoHelper cryptoHelper,
+			                   final CallbackHandler ch,
+			              	   final boolean loadCertsAndKeys) throws InvalidCardException,
+											                          BurnedDnieCardException,
+											                          ApduConnectionException {
+		if (conn == null) {
+			throw new IllegalArgumentException(
+				"La conexion no puede ser nula" //$NON-NLS-1$
+			);
 		}
-		for (final long terminal : terminals) {
-			conn.setTerminal((int) terminal);
-			try {
-				responseAtr = conn.reset();
-			}
-			catch(final CardNotPresentException e) {
-				cardNotPresentException = e;
-				continue;
+		final byte[] atr = CardDiscovery.readAtr(conn, terminal);
+		return getDnie(
+			conn,
+			atr != null ?
+				Collections.singletonMap(Long.valueOf(terminal), atr) :
+					Collections.<Long, byte[]>emptyMap(),
+			pwc,
+			cryptoHelper,
+			ch,
+			loadCertsAndKeys
+		);
+	}
+
+	private static Dnie getDnie(final ApduConnection conn,
+			                    final Map<Long, byte[]> atrs,
+			                    final PasswordCallback pwc,
+			                    final CryptoHelper cryptoHelper,
+			                    final CallbackHandler ch,
+			                    final boolean loadCertsAndKeys) throws InvalidCardException,
+										                               BurnedDnieCardException,
+										                               ApduConnectionException {
+		final AtrRegistry registry = AtrRegistry.getInstance();
+		InvalidCardException invalidCardException = null;
+		for (final Map.Entry<Long, byte[]> entry : atrs.entrySet()) {
+			final byte[] responseAtr = entry.getValue();
+			final Class<? extends Card> cardType = registry.classify(responseAtr);
+			if (cardType == DnieNfc.class || cardType == Dnie3.class || cardType == Dnie.class ||
+				cardType == Tif.class     || cardType == CeresSc.class) {
+				conn.setTerminal(entry.getKey().intValue());
+				if (!conn.isOpen()) {
+					conn.open();
+				}
 			}
-			actualAtr = new Atr(responseAtr, ATR_MASK);
-			final byte[] actualAtrBytes = actualAtr.getBytes();
-			if(ATR_NFC.equals(actualAtr) || ATR_NFC2.equals(actualAtr)) {
+			if (cardType == DnieNfc.class) {
 				try {
 					LOGGER.info("Detectado DNIe 3.0 o 4.0 por NFC"); //$NON-NLS-1$
-					LOGGER.info(new DnieAtr(actualAtr).toString());
+					LOGGER.info(new DnieAtr(new Atr(responseAtr, ATR_MASK)).toString());
 					return new DnieNfc(conn, pwc, cryptoHelper, ch, loadCertsAndKeys);
 				}
 				catch (final IcaoException e) {
@@ -141,17 +211,17 @@ public final class DnieFactory {
 					);
 				}
 			}
-			if (ATR.equals(actualAtr)) {
-				if (actualAtrBytes[15] == 0x04) {
-					LOGGER.info("Detectado DNIe 3.0 o 4.0"); //$NON-NLS-1$
-					LOGGER.info(new DnieAtr(actualAtr).toString());
-					return new Dnie3(conn, pwc, cryptoHelper, ch, loadCertsAndKeys);
-				}
+			if (cardType == Dnie3.class) {
+				LOGGER.info("Detectado DNIe 3.0 o 4.0"); //$NON-NLS-1$
+				LOGGER.info(new DnieAtr(new Atr(responseAtr, ATR_MASK)).toString());
+				return new Dnie3(conn, pwc, cryptoHelper, ch, loadCertsAndKeys);
+			}
+			if (cardType == Dnie.class) {
 				LOGGER.info("Detectado DNIe 2.0"); //$NON-NLS-1$
-				LOGGER.info(new DnieAtr(actualAtr).toString());
+				LOGGER.info(new DnieAtr(new Atr(responseAtr, ATR_MASK)).toString());
 				return new Dnie(conn, pwc, cryptoHelper, ch, loadCertsAndKeys);
 			}
-			if (ATR_TIF.equals(actualAtr)) {
+			if (cardType == Tif.class) {
 				LOGGER.info("Detectada tarjeta TIF"); //$NON-NLS-1$
 				// Las tarjetas TIF siempre se instancian con precarga de claves y certificados
 				// (no se aplica el parametro 'loadCertsAndKeys')
@@ -159,7 +229,7 @@ public final class DnieFactory {
 			}
 
 			// La factoria tambien soporta las tarjetas FNMT CERES 4.30 y superior
-			if (CeresSc.ATR_TC.equals(actualAtr)) {
+			if (cardType == CeresSc.class) {
 				LOGGER.info("Detectada tarjeta FNMT CERES 4.30 o superior"); //$NON-NLS-1$
 				return new CeresSc(conn, pwc, cryptoHelper, ch, loadCertsAndKeys);
 			}
@@ -168,20 +238,20 @@ public final class DnieFactory {
 			// Vemos si es un DNIe quemado, en el que el ATR termina en 65-81 en vez de
 			// en 90-00
 			if (
-				actualAtrBytes[actualAtrBytes.length -1] == (byte) 0x81 &&
-				actualAtrBytes[actualAtrBytes.length -2] == (byte) 0x65
+				responseAtr.length > 1 &&
+				responseAtr[responseAtr.length -1] == (byte) 0x81 &&
+				responseAtr[responseAtr.length -2] == (byte) 0x65
 			) {
-				throw new BurnedDnieCardException(actualAtr);
+				throw new BurnedDnieCardException(new Atr(responseAtr, ATR_MASK));
 			}
 
 			invalidCardException = new InvalidCardException("DNIe", ATR, responseAtr); //$NON-NLS-1$
-			continue;
 		}
 		if (invalidCardException != null) {
 			throw invalidCardException;
 		}
-		if (cardNotPresentException != null) {
-			throw cardNotPresentException;
+		if (atrs.isEmpty()) {
+			throw new CardNotPresentException();
 		}
 		throw new ApduConnectionException("No se ha podido conectar con ningun lector de tarjetas"); //$NON-NLS-1$
 	}
@@ -1,7 +1,12 @@
 package es.gob.jmulticard.card.dnie;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.security.SignatureException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.List;
 
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
@@ -9,23 +14,33 @@ import javax.security.auth.callback.PasswordCallback;
 
 import es.gob.jmulticard.CryptoHelper;
 import es.gob.jmulticard.CryptoHelper.PaceChannelHelper;
+import es.gob.jmulticard.apdu.ResponseApdu;
+import es.gob.jmulticard.apdu.StatusWord;
+import es.gob.jmulticard.apdu.iso7816four.ReadBinaryApduCommand;
 import es.gob.jmulticard.apdu.iso7816four.pace.MseSetPaceAlgorithmApduCommand.PacePasswordType;
+import es.gob.jmulticard.asn1.Asn1Exception;
+import es.gob.jmulticard.asn1.Tlv;
+import es.gob.jmulticard.asn1.TlvException;
+import es.gob.jmulticard.asn1.icao.PaceInfo;
+import es.gob.jmulticard.asn1.icao.SecurityInfos;
 import es.gob.jmulticard.callback.CustomTextInputCallback;
 import es.gob.jmulticard.card.CardMessages;
 import es.gob.jmulticard.card.CryptoCardException;
 import es.gob.jmulticard.card.PinException;
 import es.gob.jmulticard.card.PrivateKeyReference;
+import es.gob.jmulticard.card.SignatureResult;
 import es.gob.jmulticard.card.icao.IcaoException;
 import es.gob.jmulticard.card.icao.InvalidCanOrMrzException;
+import es.gob.jmulticard.card.icao.InvalidSecurityObjectException;
 import es.gob.jmulticard.card.icao.WirelessInitializer;
 import es.gob.jmulticard.card.icao.WirelessInitializerCan;
 import es.gob.jmulticard.card.icao.WirelessInitializerMrz;
 import es.gob.jmulticard.connection.ApduConnection;
 import es.gob.jmulticard.connection.ApduConnectionException;
 import es.gob.jmulticard.connection.cwa14890.Cwa14890Connection;
+import es.gob.jmulticard.connection.pace.ChipAuthenticationMappingData;
 import es.gob.jmulticard.connection.pace.PaceConnection;
 import es.gob.jmulticard.connection.pace.PaceException;
-import es.gob.jmulticard.de.tsenger.androsmex.iso7816.SecureMessaging;
 
 /** DNIe 3 accedido mediante PACE por NFC.
  * @author Sergio Mart&iacute;nez Rico
@@ -35,11 +50,25 @@ public class DnieNfc extends Dnie3 {
 
 	private static final int MAX_PACE_RETRIES = 2;
 
+	/** Identificador corto (SFI) del EF&#46;CardAccess. */
+	private static final byte SFI_CARD_ACCESS = (byte) 0x1C;
+
+	/** Palabra de estado de fin de fichero alcanzado antes de leer los octetos pedidos. */
+	private static final StatusWord SW_EOF_REACHED = new StatusWord((byte) 0x62, (byte) 0x82);
+
 	// Se guarda el codigo CAN o MRZ para establecer un canal PACE cada vez que se quiere
 	// realizar una operacion de firma
 	private static PacePasswordType paceInitType;
 	private static String paceInitValue;
 
+	/** Algoritmo PACE elegido al crear la tarjeta, para no volver a leer el CardAccess al
+	 * restablecer el canal. No se inicializa en la declaraci&oacute;n porque puede necesitarse
+	 * ya durante la construcci&oacute;n de la superclase (ver <code>getPaceInfo()</code>). */
+	private PaceInfo paceInfo;
+
+	/** Si se ha comprobado la autenticaci&oacute;n de chip de PACE-CAM. */
+	private volatile boolean chipAuthenticated;
+
 	/** Crea un DNIe 3 o 4 accedido mediante PACE por NFC.
 	 * @param conn Conexi&oacute;n (debe ser NFC).
 	 * @param pwc <i>PasswordCallback</i>.
@@ -116,6 +145,7 @@ public class DnieNfc extends Dnie3 {
 		int counter = 0;
 		paceInitValue = null;
 		paceInitType = null;
+		PaceInfo selectedPaceInfo = selectPaceAlgorithm(con, cryptoHelper.getPaceChannelHelper());
 
 		while(true) {
 			// Pide el codigo CAN o MRZ en caso de que no haya sido introducido con anterioridad
@@ -176,18 +206,23 @@ public class DnieNfc extends Dnie3 {
 						);
 				}
 
-				final SecureMessaging sm = cryptoHelper.getPaceChannelHelper().openPaceChannel(
+				return cryptoHelper.getPaceChannelHelper().openPaceConnection(
 					(byte)0x00,
+					selectedPaceInfo,
 					paceInitializer,
 					con
 				);
 
-				return new PaceConnection(
-		    		con,
-		    		cryptoHelper,
-		    		sm
+			}
+			catch(final PaceException e) {
+				// Si falla un algoritmo distinto del habitual se reintenta con PACE-GM
+				if (PaceInfo.DEFAULT == selectedPaceInfo) {
+					throw e;
+				}
+				LOGGER.warning(
+					"Error estableciendo el canal PACE con " + selectedPaceInfo.getAlgorithm() + ", se reintentara con PACE-GM: " + e //$NON-NLS-1$ //$NON-NLS-2$
 				);
-
+				selectedPaceInfo = PaceInfo.DEFAULT;
 			}
 			catch(final InvalidCanOrMrzException e) {
 
@@ -226,19 +261,170 @@ public class DnieNfc extends Dnie3 {
 				);
 		}
 
-		final SecureMessaging sm = pch.openPaceChannel(
+        // Establecemos el canal PACE
+		return pch.openPaceConnection(
 			(byte) 0x00,
+			getPaceInfo(),
 			paceInitializer, // CAN/MRZ
 			con
 		);
 
-        // Establecemos el canal PACE
-    	return new PaceConnection(
-    		con,
-    		cryptoHelper,
-    		sm
+	}
+
+	/** Obtiene la conexi&oacute;n PACE sobre la que se comunica la tarjeta.
+	 * @return Conexi&oacute;n PACE o <code>null</code> si no hay ninguna abierta. */
+	private PaceConnection getOpenPaceConnection() {
+		ApduConnection conn = getConnection();
+		while (conn != null && !(conn instanceof PaceConnection)) {
+			conn = conn.getSubConnection();
+		}
+		return (PaceConnection) conn;
+	}
+
+	/** Obtiene el algoritmo PACE con el que se abri&oacute; el primer canal con la tarjeta, que
+	 * se usa tambi&eacute;n para los siguientes.
+	 * @return Algoritmo PACE. */
+	private PaceInfo getPaceInfo() {
+		if (paceInfo == null) {
+			final PaceConnection paceConnection = getOpenPaceConnection();
+			paceInfo = paceConnection != null ? paceConnection.getPaceInfo() : PaceInfo.DEFAULT;
+		}
+		return paceInfo;
+	}
+
+	/** Elige el algoritmo PACE a usar de entre los que la tarjeta anuncia en su EF&#46;CardAccess.
+	 * Se prefiere PACE-CAM, que autentica tambi&eacute;n el chip sin APDU adicionales, luego PACE-IM
+	 * y por &uacute;ltimo PACE-GM. El EF&#46;CardAccess se lee con su identificador corto, con una
+	 * &uacute;nica APDU, y si no se puede leer o no anuncia ning&uacute;n algoritmo soportado se usa
+	 * PACE-GM sobre <i>brainpoolP256r1</i>.
+	 * @param con Conexi&oacute;n (sin canal seguro) con la tarjeta.
+	 * @param pch Utilidades para el establecimiento de canal PACE.
+	 * @return Algoritmo PACE a usar. */
+	private static PaceInfo selectPaceAlgorithm(final ApduConnection con, final PaceChannelHelper pch) {
+		final List<PaceInfo> cardPaceInfos;
+		try {
+			if (!con.isOpen()) {
+				con.open();
+			}
+			final ResponseApdu res = con.transmit(
+				new ReadBinaryApduCommand((byte) 0x00, (byte) (0x80 | SFI_CARD_ACCESS), (byte) 0x00, 0)
+			);
+			if (!res.isOk() && !SW_EOF_REACHED.equals(res.getStatusWord())) {
+				LOGGER.info(
+					"No se ha podido leer el CardAccess (" + res.getStatusWord() + "), se usara PACE-GM" //$NON-NLS-1$ //$NON-NLS-2$
+				);
+				return PaceInfo.DEFAULT;
+			}
+			final SecurityInfos cardAccess = new SecurityInfos();
+			cardAccess.setDerValue(res.getData());
+			cardPaceInfos = cardAccess.getPaceInfos();
+		}
+		catch (final Exception e) {
+			LOGGER.info("No se ha podido leer el CardAccess, se usara PACE-GM: " + e); //$NON-NLS-1$
+			return PaceInfo.DEFAULT;
+		}
+		PaceInfo selected = PaceInfo.DEFAULT;
+		for (final PaceInfo pi : cardPaceInfos) {
+			if (pch.isSupported(pi) && getPacePreference(pi) > getPacePreference(selected)) {
+				selected = pi;
+			}
+		}
+		LOGGER.info("Se usara " + selected); //$NON-NLS-1$
+		return selected;
+	}
+
+	private static int getPacePreference(final PaceInfo pi) {
+		switch (pi.getAlgorithm()) {
+			case PACE_ECDH_CAM_AES_CBC_CMAC_128:
+				return 2;
+			case PACE_ECDH_IM_AES_CBC_CMAC_128:
+				return 1;
+			default:
+				return 0;
+		}
+	}
+
+	/** Indica si el canal PACE se abri&oacute; con PACE-CAM.
+	 * Mientras no se compruebe la autenticaci&oacute;n de chip (ver <code>isChipAuthenticated()</code>)
+	 * el canal est&aacute; cifrado, pero no se ha comprobado que la tarjeta sea aut&eacute;ntica.
+	 * @return <code>true</code> si el canal se abri&oacute; con PACE-CAM. */
+	public boolean isChipAuthenticationMappingUsed() {
+		final PaceConnection paceConnection = getOpenPaceConnection();
+		return paceConnection != null && paceConnection.getChipAuthenticationMappingData() != null;
+	}
+
+	/** Indica si se ha comprobado la autenticaci&oacute;n de chip de PACE-CAM en el canal PACE
+	 * actual, lo que solo se hace al comprobar los objetos de seguridad
+	 * (<code>checkSecurityObjects()</code>), una vez comprobado el DG14 con el SOD.
+	 * @return <code>true</code> si el chip est&aacute; autenticado, <code>false</code> si no se
+	 *         ha comprobado todav&iacute;a en el canal actual o este no se abri&oacute; con
+	 *         PACE-CAM. */
+	public boolean isChipAuthenticated() {
+		return chipAuthenticated;
+	}
+
+	/** {@inheritDoc}
+	 * Si el canal PACE se abri&oacute; con PACE-CAM, se comprueba adem&aacute;s la autenticaci&oacute;n
+	 * de chip con la clave del DG14, una vez comprobado este con el SOD. */
+	@Override
+	public X509Certificate[] checkSecurityObjects() throws IOException,
+	                                                       InvalidSecurityObjectException,
+	                                                       TlvException,
+	                                                       Asn1Exception,
+	                                                       SignatureException,
+	                                                       CertificateException {
+		final X509Certificate[] chain = super.checkSecurityObjects();
+		if (isChipAuthenticationMappingUsed() && !verifyChipAuthenticationMapping()) {
+			throw new InvalidSecurityObjectException(
+				"La autenticacion de chip de PACE-CAM no concuerda con la clave del DG14" //$NON-NLS-1$
+			);
+		}
+		return chain;
+	}
+
+	/** Comprueba la autenticaci&oacute;n de chip obtenida al abrir el canal PACE con
+	 * PACE-CAM, usando la clave p&uacute;blica de autenticaci&oacute;n de chip del DG14.
+	 * Solo debe llamarse desde <code>checkSecurityObjects()</code>, una vez comprobado el
+	 * DG14 con el SOD.
+	 * @return <code>true</code> si el chip queda autenticado, <code>false</code> si no, o si el
+	 *         canal no se abri&oacute; con PACE-CAM.
+	 * @throws IOException Si no se puede leer o analizar el DG14. */
+	private boolean verifyChipAuthenticationMapping() throws IOException {
+		final PaceConnection paceConnection = getOpenPaceConnection();
+		final ChipAuthenticationMappingData camData =
+			paceConnection != null ? paceConnection.getChipAuthenticationMappingData() : null;
+		if (camData == null) {
+			return false;
+		}
+		final SecurityInfos dg14 = new SecurityInfos();
+		try {
+			dg14.setDerValue(new Tlv(getDg14()).getValue());
+		}
+		catch (final Asn1Exception | TlvException e) {
+			throw new IOException("El DG14 no contiene un SecurityInfos valido", e); //$NON-NLS-1$
+		}
+		final byte[] chipAuthenticationPublicKey = dg14.getChipAuthenticationPublicKey();
+		if (chipAuthenticationPublicKey == null) {
+			LOGGER.warning("El DG14 no contiene clave publica ECDH de autenticacion de chip"); //$NON-NLS-1$
+			return false;
+		}
+		chipAuthenticated = cryptoHelper.getPaceChannelHelper().verifyChipAuthenticationMapping(
+			camData,
+			chipAuthenticationPublicKey
 		);
+		return chipAuthenticated;
+	}
 
+	@Override
+	public void invalidateCardState() {
+		getCardLock().lock();
+		try {
+			super.invalidateCardState();
+			chipAuthenticated = false;
+		}
+		finally {
+			getCardLock().unlock();
+		}
 	}
 
 	@Override
@@ -263,6 +449,8 @@ public class DnieNfc extends Dnie3 {
 				);
 			}
 
+			// La autenticacion de chip del canal anterior no vale para el nuevo
+			chipAuthenticated = false;
 			try {
 				setConnection(rawConnection);
 			}
@@ -281,11 +469,42 @@ public class DnieNfc extends Dnie3 {
     		           final String signAlgorithm,
     		           final PrivateKeyReference privateKeyReference) throws CryptoCardException,
     		                                                                 PinException {
-    	final byte[] ret = signInternal(
-			data,
-			signAlgorithm,
-			privateKeyReference
-		);
+    	getCardLock().lock();
+    	try {
+    		final byte[] ret = signInternal(
+				data,
+				signAlgorithm,
+				privateKeyReference
+			);
+    		resetSecureChannel();
+    		return ret;
+    	}
+    	finally {
+    		getCardLock().unlock();
+    	}
+    }
+
+    /** {@inheritDoc}
+     * Por NFC el canal seguro se reinicia al terminar el lote, no tras cada firma. */
+    @Override
+    public List<SignatureResult> signBatch(final List<byte[]> data,
+    		                               final String signAlgorithm,
+    		                               final PrivateKeyReference privateKeyReference) throws CryptoCardException,
+    		                                                                                     PinException {
+    	getCardLock().lock();
+    	try {
+    		final List<SignatureResult> ret = super.signBatch(data, signAlgorithm, privateKeyReference);
+    		if (!data.isEmpty()) {
+    			resetSecureChannel();
+    		}
+    		return ret;
+    	}
+    	finally {
+    		getCardLock().unlock();
+    	}
+    }
+
+    private void resetSecureChannel() {
     	try {
     		//Define el canal sin cifrar para resetearlo tras cada firma
     		setConnection(((Cwa14890Connection)getConnection()).getSubConnection());
@@ -297,7 +516,6 @@ public class DnieNfc extends Dnie3 {
 				"Fallo en el reinicio del canal seguro: " + e //$NON-NLS-1$
 			);
 		}
-    	return ret;
     }
 
 	private void resetCard() {
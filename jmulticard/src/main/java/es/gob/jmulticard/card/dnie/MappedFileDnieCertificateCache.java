@@ -0,0 +1,325 @@
+package es.gob.jmulticard.card.dnie;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import es.gob.jmulticard.CryptoHelper;
+import es.gob.jmulticard.HexUtils;
+import es.gob.jmulticard.card.CertificateCache;
+import es.gob.jmulticard.card.MemoryCertificateCache;
+
+/** Almac&eacute;n de certificados de DNIe persistente en disco.
+ * Cada tarjeta se guarda en un fichero propio dentro de un directorio, que se lee
+ * proyect&aacute;ndolo en memoria (<i>memory-mapped</i>). Las entradas ya le&iacute;das
+ * se mantienen adem&aacute;s en un almac&eacute;n en memoria acotado para no decodificar de
+ * nuevo los certificados.
+ * <p>Este almac&eacute;n no se usa nunca por defecto: hay que establecerlo
+ * expl&iacute;citamente con {@link Dnie#setCertificateCache(CertificateCache)}, y el
+ * directorio debe considerarse almacenamiento de confianza, accesible solo por el
+ * usuario de la aplicaci&oacute;n, ya que los certificados le&iacute;dos de &eacute;l se
+ * muestran como los de las claves de la tarjeta.</p>
+ * <p>Cada fichero se autentica con un HMAC-SHA256 calculado con una clave que
+ * proporciona la aplicaci&oacute;n (y que no debe guardarse en el mismo directorio) sobre
+ * su contenido y el identificador de la tarjeta, de forma que un fichero modificado o
+ * copiado de otra tarjeta se descarta. Adem&aacute;s, el DNIe comprueba que los
+ * n&uacute;meros de serie de los certificados de la entrada coincidan con los del CDF
+ * le&iacute;do de la tarjeta.</p>
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class MappedFileDnieCertificateCache implements CertificateCache<DnieCertificateCacheEntry> {
+
+	private static final Logger LOGGER = Logger.getLogger("es.gob.jmulticard"); //$NON-NLS-1$
+
+	/** Cabecera de los ficheros del almac&eacute;n ("DNIC"). */
+	private static final int MAGIC = 0x444E4943;
+
+	/** Versi&oacute;n del formato de los ficheros del almac&eacute;n. */
+	private static final short FORMAT_VERSION = 2;
+
+	private static final String MAC_ALGORITHM = "HmacSHA256"; //$NON-NLS-1$
+
+	/** Longitud del HMAC-SHA256 que cierra cada fichero. */
+	private static final int MAC_LENGTH = 32;
+
+	/** Longitud m&iacute;nima de la clave de autenticaci&oacute;n de los ficheros. */
+	private static final int MIN_MAC_KEY_LENGTH = 16;
+
+	private static final String FILE_EXTENSION = ".dniecache"; //$NON-NLS-1$
+
+	private final File directory;
+
+	private final CryptoHelper cryptoHelper;
+
+	private final SecretKeySpec macKey;
+
+	/** Entradas ya le&iacute;das, acotadas en n&uacute;mero y en tiempo de vida (los ficheros
+	 * se conservan aunque caduquen en memoria). */
+	private final MemoryCertificateCache<DnieCertificateCacheEntry> memoryCache = new MemoryCertificateCache<>();
+
+	/** Construye un almac&eacute;n de certificados de DNIe persistente en disco.
+	 * @param dir Directorio en el que se guardan los ficheros del almac&eacute;n. Si no
+	 *            existe, se crea.
+	 * @param fileMacKey Clave (de al menos 16 octetos) con la que se autentican los ficheros
+	 *                   del almac&eacute;n. Debe ser secreta y estable entre ejecuciones.
+	 * @param cryptoHlpr Utilidad para la decodificaci&oacute;n de los certificados.
+	 * @throws IOException Si el directorio no existe y no puede crearse. */
+	public MappedFileDnieCertificateCache(final File dir,
+			                              final byte[] fileMacKey,
+			                              final CryptoHelper cryptoHlpr) throws IOException {
+		if (dir == null) {
+			throw new IllegalArgumentException("El directorio del almacen no puede ser nulo"); //$NON-NLS-1$
+		}
+		if (fileMacKey == null || fileMacKey.length < MIN_MAC_KEY_LENGTH) {
+			throw new IllegalArgumentException(
+				"La clave de autenticacion del almacen debe tener al menos " + MIN_MAC_KEY_LENGTH + " octetos" //$NON-NLS-1$ //$NON-NLS-2$
+			);
+		}
+		if (cryptoHlpr == null) {
+			throw new IllegalArgumentException("El CryptoHelper no puede ser nulo"); //$NON-NLS-1$
+		}
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException(
+				"No se ha podido crear el directorio del almacen de certificados: " + dir.getAbsolutePath() //$NON-NLS-1$
+			);
+		}
+		directory = dir;
+		cryptoHelper = cryptoHlpr;
+		macKey = new SecretKeySpec(fileMacKey, MAC_ALGORITHM);
+	}
+
+	@Override
+	public DnieCertificateCacheEntry get(final String cardId) {
+		if (!isValidCardId(cardId)) {
+			return null;
+		}
+		final DnieCertificateCacheEntry entry = memoryCache.get(cardId);
+		if (entry != null) {
+			return entry;
+		}
+		final File f = getFile(cardId);
+		if (!f.isFile()) {
+			return null;
+		}
+		try {
+			final DnieCertificateCacheEntry loaded = readEntry(cardId, f.toPath());
+			memoryCache.put(cardId, loaded);
+			return loaded;
+		}
+		catch (final Exception e) {
+			LOGGER.warning(
+				"Se descarta el fichero del almacen de certificados por estar corrupto o alterado (" + f.getName() + "): " + e //$NON-NLS-1$ //$NON-NLS-2$
+			);
+			remove(cardId);
+			return null;
+		}
+	}
+
+	@Override
+	public void put(final String cardId, final DnieCertificateCacheEntry entry) {
+		if (!isValidCardId(cardId) || entry == null) {
+			return;
+		}
+		memoryCache.put(cardId, entry);
+		try {
+			writeEntry(cardId, getFile(cardId).toPath(), entry);
+		}
+		catch (final Exception e) {
+			LOGGER.warning(
+				"No se ha podido guardar en disco la entrada del almacen de certificados: " + e //$NON-NLS-1$
+			);
+		}
+	}
+
+	@Override
+	public void remove(final String cardId) {
+		if (!isValidCardId(cardId)) {
+			return;
+		}
+		memoryCache.remove(cardId);
+		try {
+			Files.deleteIfExists(getFile(cardId).toPath());
+		}
+		catch (final IOException e) {
+			LOGGER.warning(
+				"No se ha podido borrar el fichero del almacen de certificados: " + e //$NON-NLS-1$
+			);
+		}
+	}
+
+	/** {@inheritDoc}
+	 * Se borran tambi&eacute;n todos los ficheros del almac&eacute;n. */
+	@Override
+	public void clear() {
+		memoryCache.clear();
+		final File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (final File f : files) {
+			if (f.getName().endsWith(FILE_EXTENSION) && !f.delete()) {
+				LOGGER.warning(
+					"No se ha podido borrar el fichero del almacen de certificados: " + f.getName() //$NON-NLS-1$
+				);
+			}
+		}
+	}
+
+	private File getFile(final String cardId) {
+		return new File(directory, cardId + FILE_EXTENSION);
+	}
+
+	/** Comprueba que el identificador de tarjeta sea hexadecimal, para que no
+	 * pueda usarse para componer rutas fuera del directorio del almac&eacute;n.
+	 * @param cardId Identificador de tarjeta.
+	 * @return <code>true</code> si el identificador es v&aacute;lido. */
+	private static boolean isValidCardId(final String cardId) {
+		if (cardId == null || cardId.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < cardId.length(); i++) {
+			if (Character.digit(cardId.charAt(i), 16) == -1) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Crea el calculador del HMAC de un fichero, ya alimentado con el identificador
+	 * de la tarjeta a la que corresponde.
+	 * @param cardId Identificador de la tarjeta.
+	 * @return Calculador del HMAC.
+	 * @throws IOException Si no se puede inicializar el HMAC. */
+	private Mac newMac(final String cardId) throws IOException {
+		try {
+			final Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(macKey);
+			mac.update(cardId.toUpperCase().getBytes(StandardCharsets.US_ASCII));
+			return mac;
+		}
+		catch (final GeneralSecurityException e) {
+			throw new IOException("No se ha podido inicializar el HMAC del almacen", e); //$NON-NLS-1$
+		}
+	}
+
+	private DnieCertificateCacheEntry readEntry(final String cardId,
+			                                    final Path file) throws IOException,
+	                                                                    CertificateException {
+		final MappedByteBuffer buf;
+		try (final FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (fc.size() < MAC_LENGTH) {
+				throw new IOException("Fichero truncado"); //$NON-NLS-1$
+			}
+			buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+		}
+
+		// Se comprueba el HMAC antes de interpretar nada del contenido
+		final int payloadLength = buf.capacity() - MAC_LENGTH;
+		final Mac mac = newMac(cardId);
+		buf.limit(payloadLength);
+		mac.update(buf);
+		buf.limit(buf.capacity());
+		final byte[] storedMac = new byte[MAC_LENGTH];
+		buf.get(storedMac);
+		if (!MessageDigest.isEqual(mac.doFinal(), storedMac)) {
+			throw new IOException("El HMAC del fichero no es valido"); //$NON-NLS-1$
+		}
+		buf.rewind();
+		buf.limit(payloadLength);
+
+		try {
+			if (buf.getInt() != MAGIC || buf.getShort() != FORMAT_VERSION) {
+				throw new IOException("Formato de fichero no reconocido"); //$NON-NLS-1$
+			}
+			final byte[] cdfHash = new byte[buf.getShort()];
+			buf.get(cdfHash);
+
+			final int count = buf.getShort();
+			final Map<String, String> paths = new LinkedHashMap<>(count);
+			final Map<String, X509Certificate> certs = new LinkedHashMap<>(count);
+			for (int i = 0; i < count; i++) {
+				final byte[] alias = new byte[buf.getShort()];
+				buf.get(alias);
+				final byte[] path = new byte[buf.getShort()];
+				buf.get(path);
+				final String aliasStr = new String(alias, StandardCharsets.UTF_8);
+				paths.put(aliasStr, new String(path, StandardCharsets.US_ASCII));
+				final int certLen = buf.getInt();
+				if (certLen > 0) {
+					final byte[] encoded = new byte[certLen];
+					buf.get(encoded);
+					certs.put(aliasStr, cryptoHelper.generateCertificate(encoded));
+				}
+			}
+			return new DnieCertificateCacheEntry(cdfHash, paths, certs);
+		}
+		catch (final BufferUnderflowException | NegativeArraySizeException e) {
+			throw new IOException("Fichero truncado", e); //$NON-NLS-1$
+		}
+	}
+
+	private void writeEntry(final String cardId,
+			                final Path file,
+			                final DnieCertificateCacheEntry entry) throws IOException,
+	                                                                             CertificateEncodingException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (final DataOutputStream dos = new DataOutputStream(baos)) {
+			dos.writeInt(MAGIC);
+			dos.writeShort(FORMAT_VERSION);
+			final byte[] cdfHash = entry.getCdfHash();
+			dos.writeShort(cdfHash.length);
+			dos.write(cdfHash);
+			dos.writeShort(entry.getAliases().size());
+			for (final String alias : entry.getAliases()) {
+				final byte[] aliasBytes = alias.getBytes(StandardCharsets.UTF_8);
+				dos.writeShort(aliasBytes.length);
+				dos.write(aliasBytes);
+				final byte[] pathBytes = entry.getPath(alias).getBytes(StandardCharsets.US_ASCII);
+				dos.writeShort(pathBytes.length);
+				dos.write(pathBytes);
+				final X509Certificate cert = entry.getCertificate(alias);
+				if (cert != null) {
+					final byte[] encoded = cert.getEncoded();
+					dos.writeInt(encoded.length);
+					dos.write(encoded);
+				}
+				else {
+					dos.writeInt(0);
+				}
+			}
+		}
+
+		final byte[] payload = baos.toByteArray();
+		final Mac mac = newMac(cardId);
+		mac.update(payload);
+
+		// Escribimos en un temporal y lo movemos para no dejar nunca un fichero a medias
+		final Path tmp = Files.createTempFile(file.getParent(), "dnie", ".tmp"); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+			Files.write(tmp, HexUtils.concatenateByteArrays(payload, mac.doFinal()));
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package es.gob.jmulticard.card.dnie;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** M&eacute;tricas del canal seguro de un DNIe (o tarjeta compatible): cu&aacute;ntas veces se
+ * ha establecido, cu&aacute;ntas se ha reutilizado uno ya abierto, cu&aacute;ntas se ha tenido
+ * que rehacer por haberse perdido y cu&aacute;nto tiempo se ha dedicado a establecerlo.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class SecureChannelMetrics {
+
+	private final AtomicLong established = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong reused = new AtomicLong();
+	private final AtomicLong lost = new AtomicLong();
+	private final AtomicLong totalEstablishmentNanos = new AtomicLong();
+	private volatile long lastEstablishmentNanos = 0;
+
+	SecureChannelMetrics() {
+		// Solo se crean desde las tarjetas
+	}
+
+	void recordEstablished(final long nanos) {
+		established.incrementAndGet();
+		totalEstablishmentNanos.addAndGet(nanos);
+		lastEstablishmentNanos = nanos;
+	}
+
+	void recordFailure() {
+		failed.incrementAndGet();
+	}
+
+	void recordReuse() {
+		reused.incrementAndGet();
+	}
+
+	void recordLostChannel() {
+		lost.incrementAndGet();
+	}
+
+	/** Obtiene el n&uacute;mero de veces que se ha establecido el canal seguro
+	 * (cada canal de PIN y de usuario cuenta por separado).
+	 * @return N&uacute;mero de establecimientos del canal seguro. */
+	public long getEstablishedCount() {
+		return established.get();
+	}
+
+	/** Obtiene el n&uacute;mero de intentos fallidos de establecimiento del canal seguro.
+	 * @return N&uacute;mero de intentos fallidos. */
+	public long getFailedCount() {
+		return failed.get();
+	}
+
+	/** Obtiene el n&uacute;mero de operaciones que han encontrado el canal seguro ya abierto
+	 * y lo han reutilizado.
+	 * @return N&uacute;mero de reutilizaciones del canal seguro. */
+	public long getReusedCount() {
+		return reused.get();
+	}
+
+	/** Obtiene el n&uacute;mero de veces que se ha perdido el canal seguro durante una
+	 * operaci&oacute;n y se ha tenido que rehacer.
+	 * @return N&uacute;mero de p&eacute;rdidas del canal seguro. */
+	public long getLostChannelCount() {
+		return lost.get();
+	}
+
+	/** Obtiene el tiempo total dedicado a establecer el canal seguro.
+	 * @param unit Unidad en la que se desea el tiempo.
+	 * @return Tiempo total de establecimiento. */
+	public long getTotalEstablishmentTime(final TimeUnit unit) {
+		return unit.convert(totalEstablishmentNanos.get(), TimeUnit.NANOSECONDS);
+	}
+
+	/** Obtiene el tiempo dedicado al &uacute;ltimo establecimiento del canal seguro.
+	 * @param unit Unidad en la que se desea el tiempo.
+	 * @return Tiempo del &uacute;ltimo establecimiento, o cero si no se ha establecido nunca. */
+	public long getLastEstablishmentTime(final TimeUnit unit) {
+		return unit.convert(lastEstablishmentNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public String toString() {
+		return "Canal seguro: " + getEstablishedCount() + " establecimientos (" + //$NON-NLS-1$ //$NON-NLS-2$
+			getTotalEstablishmentTime(TimeUnit.MILLISECONDS) + " ms), " + //$NON-NLS-1$
+			getFailedCount() + " fallidos, " + //$NON-NLS-1$
+			getReusedCount() + " reutilizaciones, " + //$NON-NLS-1$
+			getLostChannelCount() + " perdidas"; //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,43 @@
+package es.gob.jmulticard.card.dnie;
+
+import es.gob.jmulticard.connection.ApduConnection;
+import es.gob.jmulticard.connection.cwa14890.Cwa14890OneV1Connection;
+import es.gob.jmulticard.connection.cwa14890.Cwa14890OneV2Connection;
+import es.gob.jmulticard.connection.pace.PaceConnection;
+
+/** Tipo de canal seguro de una conexi&oacute;n con un DNIe (o tarjeta compatible).
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public enum SecureChannelType {
+
+	/** Sin canal seguro (o con el canal seguro cerrado). */
+	NONE,
+
+	/** Canal CWA-14890 versi&oacute;n 1 (3DES con MAC de 4 octetos), como el del DNIe 2&#46;0. */
+	CWA14890_V1,
+
+	/** Canal CWA-14890 versi&oacute;n 2 (3DES con MAC de 8 octetos), como los de PIN y de usuario del DNIe 3&#46;0. */
+	CWA14890_V2,
+
+	/** Mensajer&iacute;a segura PACE (AES), como la del DNIe por NFC. */
+	PACE;
+
+	/** Obtiene el tipo de canal seguro de una conexi&oacute;n.
+	 * @param conn Conexi&oacute;n.
+	 * @return Tipo de canal seguro de la conexi&oacute;n. */
+	static SecureChannelType of(final ApduConnection conn) {
+		if (conn == null || !conn.isOpen()) {
+			return NONE;
+		}
+		// PaceConnection extiende Cwa14890OneV2Connection, y esta Cwa14890OneV1Connection
+		if (conn instanceof PaceConnection) {
+			return PACE;
+		}
+		if (conn instanceof Cwa14890OneV2Connection) {
+			return CWA14890_V2;
+		}
+		if (conn instanceof Cwa14890OneV1Connection) {
+			return CWA14890_V1;
+		}
+		return NONE;
+	}
+}
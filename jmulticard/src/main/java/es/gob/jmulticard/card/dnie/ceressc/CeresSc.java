@@ -24,6 +24,7 @@ import es.gob.jmulticard.asn1.der.pkcs15.Cdf;
 import es.gob.jmulticard.asn1.der.pkcs15.Pkcs15Cdf;
 import es.gob.jmulticard.asn1.der.pkcs15.PrKdf;
 import es.gob.jmulticard.card.Atr;
+import es.gob.jmulticard.card.AtrRegistry;
 import es.gob.jmulticard.card.CardMessages;
 import es.gob.jmulticard.card.CompressionUtils;
 import es.gob.jmulticard.card.CryptoCardException;
@@ -58,6 +59,14 @@ public final class CeresSc extends Dnie {
         (byte) 0x54, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x03, (byte) 0x90, (byte) 0x00
     }, ATR_MASK_TC);
 
+	/** Condici&oacute;n de versi&oacute;n 4&#46;30 o superior en el ATR. */
+	private static final AtrRegistry.AtrCondition VERSION_430_OR_LATER = new AtrRegistry.AtrCondition() {
+		@Override
+		public boolean accept(final byte[] atr) {
+			return isVersion430OrLater(atr);
+		}
+	};
+
 	private static String cardVersion = null;
 
     /** Certificados de la tarjeta indexados por su alias. */
@@ -159,6 +168,8 @@ public final class CeresSc extends Dnie {
             }
         }
         catch(final LostChannelException e) {
+        	recordSecureChannelLost();
+        	invalidateSelectionCache();
             try {
                 getConnection().close();
                 if (getConnection() instanceof Cwa14890Connection) {
@@ -306,6 +317,7 @@ public final class CeresSc extends Dnie {
     public void openSecureChannelIfNotAlreadyOpened() throws CryptoCardException, PinException {
 
     	if (isSecurityChannelOpen()) {
+    		recordSecureChannelReuse();
     		return;
     	}
 
@@ -371,9 +383,18 @@ public final class CeresSc extends Dnie {
     	return CardMessages.getString("Gen.0", Integer.toString(retriesLeft)); //$NON-NLS-1$
     }
 
+    /** Registra los ATR de las tarjetas FNMT CERES 4&#46;30 y superior.
+     * @param registry Constructor del registro de ATR. */
+    public static void registerAtrs(final AtrRegistry.Builder registry) {
+    	registry.register(CeresSc.class, ATR_TC, VERSION_430_OR_LATER);
+    }
+
+    static boolean isVersion430OrLater(final byte[] atrBytes) {
+    	return atrBytes.length > 16 && atrBytes[15] >= (byte) 0x04 && atrBytes[16] >= (byte) 0x30;
+    }
+
     private static void checkAtr(final byte[] atrBytes) throws InvalidCardException {
-    	final Atr tmpAtr = new Atr(atrBytes, ATR_MASK_TC);
-    	if (ATR_TC.equals(tmpAtr) && atrBytes[15] >= (byte) 0x04 && atrBytes[16] >= (byte) 0x30) {
+    	if (ATR_TC.matches(atrBytes) && isVersion430OrLater(atrBytes)) {
     		cardVersion = HexUtils.hexify(new byte[] { atrBytes[15] }, false) + "." + HexUtils.hexify(new byte[] { atrBytes[16] }, false); //$NON-NLS-1$
 			LOGGER.info(
 				"Encontrada TC CERES en version " + cardVersion //$NON-NLS-1$
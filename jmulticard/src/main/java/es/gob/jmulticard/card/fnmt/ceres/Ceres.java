@@ -41,6 +41,7 @@
 package es.gob.jmulticard.card.fnmt.ceres;
 
 import java.io.IOException;
+import java.math.BigInteger;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.security.interfaces.RSAPublicKey;
@@ -73,6 +74,7 @@ import es.gob.jmulticard.asn1.der.pkcs15.Pkcs15Cdf;
 import es.gob.jmulticard.asn1.der.pkcs15.Pkcs15PrKdf;
 import es.gob.jmulticard.asn1.der.pkcs15.PrKdf;
 import es.gob.jmulticard.card.Atr;
+import es.gob.jmulticard.card.AtrRegistry;
 import es.gob.jmulticard.card.AuthenticationModeLockedException;
 import es.gob.jmulticard.card.BadPinException;
 import es.gob.jmulticard.card.CardMessages;
@@ -80,6 +82,7 @@ import es.gob.jmulticard.card.CompressionUtils;
 import es.gob.jmulticard.card.CryptoCard;
 import es.gob.jmulticard.card.CryptoCardException;
 import es.gob.jmulticard.card.InvalidCardException;
+import es.gob.jmulticard.card.LazyCertificates;
 import es.gob.jmulticard.card.Location;
 import es.gob.jmulticard.card.PinException;
 import es.gob.jmulticard.card.PrivateKeyReference;
@@ -151,17 +154,18 @@ public final class Ceres extends AbstractIso7816EightCard implements CryptoCard
      * PIN por PIN incorrecto. */
     private final static byte ERROR_PIN_SW2 = (byte) 0x63;
 
-    /** Certificados de la tarjeta indexados por su alias. */
-    private transient Map<String, X509Certificate> certs;
-
-    /** Alias de los certificados de la tarjeta indexados por el identificador
-     * interno del certificado (pasado de <code>byte[]</code> a <code>String</code>). */
-    private transient Map<String, String> aliasByCertAndKeyId;
+    /** Certificados de la tarjeta indexados por su alias, que se leen la primera
+     * vez que se piden. */
+    private transient LazyCertificates certs;
 
     /** Claves privadas de la tarjeta indexadas por el alias de su certificado
      * asociado. */
     private transient Map<String, Byte> keys;
 
+    /** Tama&ntilde;os en bits de las claves privadas indexados por el alias de su certificado
+     * asociado, si el PrKDF los indica. */
+    private transient Map<String, Integer> keyBitSizes;
+
     private transient PasswordCallback passwordCallback = null;
 
     private transient boolean authenticated = false;
@@ -173,9 +177,19 @@ public final class Ceres extends AbstractIso7816EightCard implements CryptoCard
     	passwordCallback = pwc;
     }
 
+    /** Registra los ATR de las tarjetas FNMT CERES anteriores a la versi&oacute;n 4&#46;30.
+     * Las versiones 4&#46;30 y superiores comparten el ATR de las TC, por lo que deben
+     * registrarse antes (ver <code>CeresSc</code>).
+     * @param registry Constructor del registro de ATR. */
+    public static void registerAtrs(final AtrRegistry.Builder registry) {
+    	registry.register(Ceres.class, ATR_TC)
+    		.register(Ceres.class, ATR_ST)
+    		.register(Ceres.class, ATR_SLE_FN19)
+    		.register(Ceres.class, ATR_SLE_FN20);
+    }
+
     private static void checkAtr(final byte[] atrBytes) throws InvalidCardException {
-    	Atr tmpAtr = new Atr(atrBytes, ATR_MASK_TC);
-    	if (ATR_TC.equals(tmpAtr)) {
+    	if (ATR_TC.matches(atrBytes)) {
     		if (atrBytes[15] >= (byte) 0x04 && atrBytes[16] >= (byte) 0x30) {
     			throw new InvalidCardException(
 					"Encontrada CERES en version " + //$NON-NLS-1$
@@ -185,16 +199,7 @@ public final class Ceres extends AbstractIso7816EightCard implements CryptoCard
     		}
     		return;
     	}
-    	tmpAtr = new Atr(atrBytes, ATR_MASK_ST);
-    	if (ATR_ST.equals(tmpAtr)) {
-    		return;
-    	}
-    	tmpAtr = new Atr(atrBytes, ATR_MASK_SLE_FN19);
-    	if (ATR_SLE_FN19.equals(tmpAtr)) {
-    		return;
-    	}
-    	tmpAtr = new Atr(atrBytes, ATR_MASK_SLE_FN20);
-    	if (ATR_SLE_FN20.equals(tmpAtr)) {
+    	if (ATR_ST.matches(atrBytes) || ATR_SLE_FN19.matches(atrBytes) || ATR_SLE_FN20.matches(atrBytes)) {
     		return;
     	}
     	throw new InvalidCardException("CERES", ATR_TC, atrBytes); //$NON-NLS-1$
@@ -221,6 +226,8 @@ public final class Ceres extends AbstractIso7816EightCard implements CryptoCard
 			throw new IllegalArgumentException("El CryptoHelper no puede ser nulo"); //$NON-NLS-1$
 		}
 
+		cryptoHelper = ch;
+
 		connect(getConnection());
 
 		try {
@@ -231,9 +238,18 @@ public final class Ceres extends AbstractIso7816EightCard implements CryptoCard
 				"Error cargando las estructuras iniciales de la tarjeta", e //$NON-NLS-1$
 			);
 		}
-		cryptoHelper = ch;
 	}
 
+	/** Carga el CDF y el PrKDF de la tarjeta, que son peque&ntilde;os, y prepara la lectura
+	 * diferida de los certificados con clave privada asociada.
+	 * Solo se leen aqu&iacute; los certificados cuyo n&uacute;mero de serie (necesario para
+	 * su alias) no indica el CDF.
+	 * @throws ApduConnectionException Si hay problemas con la conexi&oacute;n.
+	 * @throws Iso7816FourCardException Si hay errores en la selecci&oacute;n de ficheros.
+	 * @throws IOException Si hay errores de entrada / salida.
+	 * @throws CertificateException Si alguno de los certificados que hay que leer ya no es correcto.
+	 * @throws Asn1Exception Si el CDF o el PrKDF no son correctos.
+	 * @throws TlvException Si el CDF o el PrKDF no son TLV correctos. */
 	private void preload() throws ApduConnectionException,
 	                              Iso7816FourCardException,
 	                              IOException,
@@ -260,35 +276,6 @@ public final class Ceres extends AbstractIso7816EightCard implements CryptoCard
         	cdf.setDerValue(cdfBytes);
         }
 
-        // Leemos los certificados segun las rutas del CDF
-
-        certs = new LinkedHashMap<>(cdf.getCertificateCount());
-        aliasByCertAndKeyId = new LinkedHashMap<>(cdf.getCertificateCount());
-
-        for (int i=0; i<cdf.getCertificateCount(); i++) {
-        	final Location l = new Location(
-    			cdf.getCertificatePath(i).replace("\\", "").trim() //$NON-NLS-1$ //$NON-NLS-2$
-			);
-        	X509Certificate cert;
-        	try {
-        		cert = CompressionUtils.getCertificateFromCompressedOrNotData(
-    				selectFileByLocationAndRead(l),
-    				cryptoHelper
-				);
-        	}
-        	catch (final IOException e) {
-        		LOGGER.warning("No se ha encontrado un certificado referenciado, se pasa al siguiente: " + e); //$NON-NLS-1$
-           		continue;
-        	}
-
-        	final String alias = i + " " + cert.getSerialNumber(); //$NON-NLS-1$
-        	aliasByCertAndKeyId.put(
-    			HexUtils.hexify(cdf.getCertificateId(i), false),
-    			alias
-			);
-        	certs.put(alias, cert);
-        }
-
         // Leemos el PrKDF
         final byte[] prkdfValue =  selectFileByLocationAndRead(PRKDF_LOCATION);
 
@@ -305,44 +292,92 @@ public final class Ceres extends AbstractIso7816EightCard implements CryptoCard
         	prkdf.setDerValue(prkdfValue);
         }
 
-        keys = new LinkedHashMap<>();
+        // Indices de las claves privadas por el identificador interno de su certificado
+        // (pasado de byte[] a String)
+        final Map<String, Integer> keyIndexByCertId = new LinkedHashMap<>();
         for (int i=0; i<prkdf.getKeyCount(); i++) {
-        	final String alias = aliasByCertAndKeyId.get(
-    			HexUtils.hexify(prkdf.getKeyId(i), false)
+        	keyIndexByCertId.put(HexUtils.hexify(prkdf.getKeyId(i), false), Integer.valueOf(i));
+        }
+
+        // Preparamos la lectura de los certificados con clave privada segun las rutas del CDF
+        certs = new LazyCertificates(
+    		getCardLock(),
+    		new LazyCertificates.CertificateReader() {
+				@Override
+				public X509Certificate readCertificate(final Location location) throws IOException {
+					try {
+						return CompressionUtils.getCertificateFromCompressedOrNotData(
+							selectFileByLocationAndRead(location),
+							cryptoHelper
+						);
+					}
+					catch (final Iso7816FourCardException | CertificateException e) {
+						throw new IOException("Error leyendo el certificado " + location, e); //$NON-NLS-1$
+					}
+				}
+			}
+		);
+        keys = new LinkedHashMap<>();
+        keyBitSizes = new LinkedHashMap<>();
+
+        for (int i=0; i<cdf.getCertificateCount(); i++) {
+        	final Integer keyIndex = keyIndexByCertId.get(
+    			HexUtils.hexify(cdf.getCertificateId(i), false)
 			);
-        	if (alias != null) {
-	        	keys.put(
-	    			alias,
-					Byte.valueOf(prkdf.getKeyReference(i))
-				);
+        	if (keyIndex == null) {
+        		// Los certificados sin clave privada asociada no se muestran
+        		continue;
+        	}
+        	final Location l = new Location(
+    			cdf.getCertificatePath(i).replace("\\", "").trim() //$NON-NLS-1$ //$NON-NLS-2$
+			);
+
+        	// El alias incluye el numero de serie del certificado: si el CDF no lo indica
+        	// hay que leer ya el certificado
+        	final BigInteger serialNumber = cdf instanceof Cdf ?
+    			((Cdf) cdf).getCertificateSerialNumber(i) :
+    				null;
+        	final String alias;
+        	if (serialNumber != null) {
+        		alias = i + " " + serialNumber; //$NON-NLS-1$
+        		certs.add(alias, l);
+        	}
+        	else {
+	        	final X509Certificate cert;
+	        	try {
+	        		cert = CompressionUtils.getCertificateFromCompressedOrNotData(
+	    				selectFileByLocationAndRead(l),
+	    				cryptoHelper
+					);
+	        	}
+	        	catch (final IOException e) {
+	        		LOGGER.warning("No se ha encontrado un certificado referenciado, se pasa al siguiente: " + e); //$NON-NLS-1$
+	           		continue;
+	        	}
+	        	alias = i + " " + cert.getSerialNumber(); //$NON-NLS-1$
+	        	certs.add(alias, l, cert);
         	}
-        }
 
-        // Sincronizamos claves y certificados
-        hideCertsWithoutKey();
+        	final int k = keyIndex.intValue();
+        	keys.put(alias, Byte.valueOf(prkdf.getKeyReference(k)));
+        	if (prkdf instanceof PrKdf && ((PrKdf) prkdf).getKeyLength(k) > 0) {
+        		keyBitSizes.put(alias, Integer.valueOf(((PrKdf) prkdf).getKeyLength(k)));
+        	}
+        }
 	}
 
-	/** Oculta los certificados que no tienen una clave privada asociada. */
-	private void hideCertsWithoutKey() {
-		final String[] aliases;
-		try {
-			aliases = getAliases();
-		}
-		catch (final Exception e) {
-			throw new IllegalStateException(
-				"No se han podido leer los alias de los certificados de la tarjeta CERES", e //$NON-NLS-1$
-			);
-		}
-		for (final String alias : aliases) {
-			if (keys.get(alias) == null) {
-				certs.remove(alias);
-			}
-		}
+	/** Inicia la lectura en segundo plano de los certificados de la tarjeta que a&uacute;n
+	 * no se han le&iacute;do.
+	 * Las dem&aacute;s operaciones con la tarjeta esperan a que termine la lectura del
+	 * certificado en curso.
+	 * @return Hilo de precarga, ya iniciado. */
+	public Thread prefetchCertificates() {
+		return certs.prefetch(getCardName());
 	}
 
 	@Override
 	public String[] getAliases() {
-		return certs.keySet().toArray(new String[0]);
+		return certs.getAliases();
 	}
 
 	@Override
@@ -352,71 +387,98 @@ public final class Ceres extends AbstractIso7816EightCard implements CryptoCard
 
 	@Override
 	public PrivateKeyReference getPrivateKey(final String alias) {
+		final Integer keyBitSize = keyBitSizes.get(alias);
 		return new CeresPrivateKeyReference(
 			keys.get(alias).byteValue(),
-			((RSAPublicKey)certs.get(alias).getPublicKey()).getModulus().bitLength()
+			keyBitSize != null ?
+				keyBitSize.intValue() :
+					((RSAPublicKey)certs.get(alias).getPublicKey()).getModulus().bitLength()
 		);
 	}
 
+	/** {@inheritDoc}
+	 * La tarjeta recibe siempre el <i>DigestInfo</i> ya construido, por lo que se firma como
+	 * {@link DigestInfo#RAW_DIGESTINFO_ALGORITHM}. */
+	@Override
+	public byte[] signDigest(final byte[] digest,
+			                  final String algorithm,
+			                  final PrivateKeyReference keyRef) throws CryptoCardException,
+			                                                          PinException {
+		final byte[] digestInfo;
+		try {
+			digestInfo = DigestInfo.encodeDigest(algorithm, digest);
+		}
+		catch (final IOException e) {
+			throw new CryptoCardException("Error en la construccion del DigestInfo a firmar", e); //$NON-NLS-1$
+		}
+		return sign(digestInfo, DigestInfo.RAW_DIGESTINFO_ALGORITHM, keyRef);
+	}
+
 	@Override
 	public byte[] sign(final byte[] data,
 			           final String algorithm,
 			           final PrivateKeyReference keyRef) throws CryptoCardException,
 	                                                            PinException {
-		if (data == null) {
-			throw new CryptoCardException("Los datos a firmar no pueden ser nulos"); //$NON-NLS-1$
-		}
-		if (keyRef == null) {
-			throw new IllegalArgumentException("La clave privada no puede ser nula"); //$NON-NLS-1$
-		}
-		if (!(keyRef instanceof CeresPrivateKeyReference)) {
-			throw new IllegalArgumentException(
-				"La clave proporcionada debe ser de tipo CeresPrivateKeyReference, pero se ha recibido de tipo " + keyRef.getClass().getName() //$NON-NLS-1$
-			);
-		}
-		final CeresPrivateKeyReference ceresPrivateKey = (CeresPrivateKeyReference) keyRef;
+		getCardLock().lock();
+		try {
+			if (data == null) {
+				throw new CryptoCardException("Los datos a firmar no pueden ser nulos"); //$NON-NLS-1$
+			}
+			if (keyRef == null) {
+				throw new IllegalArgumentException("La clave privada no puede ser nula"); //$NON-NLS-1$
+			}
+			if (!(keyRef instanceof CeresPrivateKeyReference)) {
+				throw new IllegalArgumentException(
+					"La clave proporcionada debe ser de tipo CeresPrivateKeyReference, pero se ha recibido de tipo " + keyRef.getClass().getName() //$NON-NLS-1$
+				);
+			}
+			final CeresPrivateKeyReference ceresPrivateKey = (CeresPrivateKeyReference) keyRef;
+
+			// Pedimos el PIN si no se ha pedido antes
+			if (!authenticated) {
+				try {
+					verifyPin(getInternalPasswordCallback());
+					authenticated = true;
+				}
+				catch (final ApduConnectionException e1) {
+					throw new CryptoCardException("Error en la verificacion de PIN", e1); //$NON-NLS-1$
+				}
+			}
 
-		// Pedimos el PIN si no se ha pedido antes
-		if (!authenticated) {
+			final byte[] digestInfo;
 			try {
-				verifyPin(getInternalPasswordCallback());
-				authenticated = true;
+				digestInfo = DigestInfo.encode(algorithm, data, cryptoHelper);
 			}
-			catch (final ApduConnectionException e1) {
-				throw new CryptoCardException("Error en la verificacion de PIN", e1); //$NON-NLS-1$
+			catch(final Exception e) {
+				throw new CryptoCardException(
+					"Error creando el DigestInfo para la firma con el algoritmo " + algorithm, e //$NON-NLS-1$
+				);
 			}
-		}
-
-		final byte[] digestInfo;
-		try {
-			digestInfo = DigestInfo.encode(algorithm, data, cryptoHelper);
-		}
-		catch(final Exception e) {
-			throw new CryptoCardException(
-				"Error creando el DigestInfo para la firma con el algoritmo " + algorithm, e //$NON-NLS-1$
-			);
-		}
 
-		loadData(ceresPrivateKey.getKeyBitSize(), digestInfo);
+			loadData(ceresPrivateKey.getKeyBitSize(), digestInfo);
 
-		final ResponseApdu res;
+			final ResponseApdu res;
 
-		final CommandApdu cmd = new CeresSignDataApduCommand(
-			ceresPrivateKey.getKeyReference(), // Referencia
-			ceresPrivateKey.getKeyBitSize()    // Tamano en bits de la clave
-		);
-		try {
-			res = sendArbitraryApdu(cmd);
-		}
-		catch (final ApduConnectionException e) {
-			throw new CryptoCardException("Error firmando los datos", e); //$NON-NLS-1$
-		}
-		if (!res.isOk()) {
-			throw new CryptoCardException(
-				"No se han podido firmar los datos. Respuesta: " + HexUtils.hexify(res.getBytes(), true) //$NON-NLS-1$
+			final CommandApdu cmd = new CeresSignDataApduCommand(
+				ceresPrivateKey.getKeyReference(), // Referencia
+				ceresPrivateKey.getKeyBitSize()    // Tamano en bits de la clave
 			);
+			try {
+				res = sendArbitraryApdu(cmd);
+			}
+			catch (final ApduConnectionException e) {
+				throw new CryptoCardException("Error firmando los datos", e); //$NON-NLS-1$
+			}
+			if (!res.isOk()) {
+				throw new CryptoCardException(
+					"No se han podido firmar los datos. Respuesta: " + HexUtils.hexify(res.getBytes(), true) //$NON-NLS-1$
+				);
+			}
+			return res.getData();
+		}
+		finally {
+			getCardLock().unlock();
 		}
-		return res.getData();
 	}
 
 	private void loadData(final int keyBitSize, final byte[] digestInfo) throws CryptoCardException {
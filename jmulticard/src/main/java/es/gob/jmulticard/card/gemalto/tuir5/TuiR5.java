@@ -3,8 +3,8 @@ package es.gob.jmulticard.card.gemalto.tuir5;
 import java.io.IOException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import javax.security.auth.callback.PasswordCallback;
@@ -19,11 +19,15 @@ import es.gob.jmulticard.asn1.Asn1Exception;
 import es.gob.jmulticard.asn1.TlvException;
 import es.gob.jmulticard.asn1.der.pkcs15.Cdf;
 import es.gob.jmulticard.card.Atr;
+import es.gob.jmulticard.card.AtrRegistry;
 import es.gob.jmulticard.card.BadPinException;
+import es.gob.jmulticard.card.CertificateCache;
+import es.gob.jmulticard.card.CertificateCacheEntry;
 import es.gob.jmulticard.card.CryptoCard;
 import es.gob.jmulticard.card.CryptoCardException;
 import es.gob.jmulticard.card.InvalidCardException;
 import es.gob.jmulticard.card.Location;
+import es.gob.jmulticard.card.MemoryCertificateCache;
 import es.gob.jmulticard.card.PrivateKeyReference;
 import es.gob.jmulticard.card.iso7816four.AbstractIso7816FourCard;
 import es.gob.jmulticard.card.iso7816four.FileNotFoundException;
@@ -61,7 +65,9 @@ public final class TuiR5 extends AbstractIso7816FourCard implements CryptoCard {
 
     private transient final PasswordCallback passwordCallback;
 
-    private static final Map<String, X509Certificate> CERTIFICATES_BY_ALIAS = new ConcurrentHashMap<>();
+    /** Certificados de la tarjeta indexados por alias, en el orden del CDF (que es el de
+     * sus claves privadas). */
+    private final Map<String, X509Certificate> certificatesByAlias = new LinkedHashMap<>();
 
     /** Manejador de funciones criptogr&aacute;ficas. */
     private final CryptoHelper cryptoHelper;
@@ -102,6 +108,12 @@ public final class TuiR5 extends AbstractIso7816FourCard implements CryptoCard {
 
 	}
 
+    /** Registra el ATR de las tarjetas Gemalto TUI R5 MPCOS.
+     * @param registry Constructor del registro de ATR. */
+    public static void registerAtrs(final AtrRegistry.Builder registry) {
+    	registry.register(TuiR5.class, ATR);
+    }
+
     /** Conecta con el lector del sistema que tenga una TUI insertada.
      * @param conn Conexi&oacute;n hacia la TUI
      * @throws IOException Cuando hay errores de entrada / salida. */
@@ -116,7 +128,6 @@ public final class TuiR5 extends AbstractIso7816FourCard implements CryptoCard {
     	}
 
     	byte[] responseAtr;
-    	Atr actualAtr;
     	InvalidCardException invalidCardException = null;
     	CardNotPresentException cardNotPresentException = null;
     	for (final long terminal : terminals) {
@@ -128,8 +139,7 @@ public final class TuiR5 extends AbstractIso7816FourCard implements CryptoCard {
     			cardNotPresentException = e;
     			continue;
     		}
-    		actualAtr = new Atr(responseAtr, ATR_MASK);
-    		if (!ATR.equals(actualAtr)) { // La tarjeta encontrada no es una TUI
+    		if (!ATR.matches(responseAtr)) { // La tarjeta encontrada no es una TUI
     			invalidCardException = new InvalidCardException(getCardName(), ATR, responseAtr);
     			continue;
     		}
@@ -149,17 +159,26 @@ public final class TuiR5 extends AbstractIso7816FourCard implements CryptoCard {
 
     	selectMasterFile();
 
+    	final byte[] cdfBytes = selectFileByLocationAndRead(CDF_LOCATION);
         final Cdf cdf = new Cdf();
         try {
-			cdf.setDerValue(selectFileByLocationAndRead(CDF_LOCATION));
+			cdf.setDerValue(cdfBytes);
 		}
         catch (final Asn1Exception | TlvException e) {
         	throw new IOException("Error en la lectura del CDF", e); //$NON-NLS-1$
 		}
 
+        final String certCacheId = CertificateCache.getCardId(getCardName(), cdfBytes, cryptoHelper);
+        final CertificateCacheEntry entry = MemoryCertificateCache.getShared().get(certCacheId);
+        if (entry != null) {
+        	certificatesByAlias.putAll(entry.getCertificates());
+        	LOGGER.info("Certificados de la tarjeta obtenidos del almacen de certificados"); //$NON-NLS-1$
+        	return;
+        }
+
         for (int i=0; i<cdf.getCertificateCount(); i++) {
         	try {
-				CERTIFICATES_BY_ALIAS.put(
+				certificatesByAlias.put(
 					cdf.getCertificateAlias(i),
 					cryptoHelper.generateCertificate(
 						selectFileByLocationAndRead(new Location(cdf.getCertificatePath(i)))
@@ -170,6 +189,7 @@ public final class TuiR5 extends AbstractIso7816FourCard implements CryptoCard {
 				throw new IOException("Error en la lectura del certificado " + i + " del dispositivo", e); //$NON-NLS-1$ //$NON-NLS-2$
 			}
         }
+        MemoryCertificateCache.getShared().put(certCacheId, new CertificateCacheEntry(certificatesByAlias, null));
     }
 
     private void selectPkcs15Applet() throws ApduConnectionException, InvalidCardException, Iso7816FourCardException {
@@ -191,12 +211,12 @@ public final class TuiR5 extends AbstractIso7816FourCard implements CryptoCard {
 
     @Override
 	public String[] getAliases() {
-		return CERTIFICATES_BY_ALIAS.keySet().toArray(new String[0]);
+		return certificatesByAlias.keySet().toArray(new String[0]);
 	}
 
 	@Override
 	public X509Certificate getCertificate(final String alias) {
-		return CERTIFICATES_BY_ALIAS.get(alias);
+		return certificatesByAlias.get(alias);
 	}
 
 	@Override
@@ -204,7 +224,7 @@ public final class TuiR5 extends AbstractIso7816FourCard implements CryptoCard {
 		if (alias == null) {
 			throw new IllegalArgumentException("El alias no puede ser nulo"); //$NON-NLS-1$
 		}
-		if (!CERTIFICATES_BY_ALIAS.containsKey(alias)) {
+		if (!certificatesByAlias.containsKey(alias)) {
 			LOGGER.warning("La tarjeta no contiene el alias '" + alias + "', se devolvera null"); //$NON-NLS-1$ //$NON-NLS-2$
 			return null;
 		}
@@ -290,7 +310,7 @@ public final class TuiR5 extends AbstractIso7816FourCard implements CryptoCard {
 	@Override
 	public String toString() {
 		final StringBuilder sb = new StringBuilder(getCardName())
-		 .append("\n Tarjeta con ").append(CERTIFICATES_BY_ALIAS.size()).append(" certificado(s):\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		 .append("\n Tarjeta con ").append(certificatesByAlias.size()).append(" certificado(s):\n"); //$NON-NLS-1$ //$NON-NLS-2$
 		final String[] aliases = getAliases();
 		for (int i=0;i<aliases.length;i++) {
 			sb.append("  "); //$NON-NLS-1$
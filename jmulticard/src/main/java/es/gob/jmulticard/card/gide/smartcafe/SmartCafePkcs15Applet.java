@@ -4,11 +4,14 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.security.PublicKey;
+import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.security.interfaces.RSAPublicKey;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import javax.security.auth.callback.Callback;
@@ -33,14 +36,20 @@ import es.gob.jmulticard.asn1.der.pkcs1.DigestInfo;
 import es.gob.jmulticard.asn1.der.pkcs15.Cdf;
 import es.gob.jmulticard.asn1.der.pkcs15.Odf;
 import es.gob.jmulticard.asn1.der.pkcs15.Path;
+import es.gob.jmulticard.asn1.der.pkcs15.PrKdf;
 import es.gob.jmulticard.card.Atr;
+import es.gob.jmulticard.card.AtrRegistry;
 import es.gob.jmulticard.card.AuthenticationModeLockedException;
 import es.gob.jmulticard.card.BadPinException;
 import es.gob.jmulticard.card.CardMessages;
+import es.gob.jmulticard.card.CertificateCache;
+import es.gob.jmulticard.card.CertificateCacheEntry;
 import es.gob.jmulticard.card.CryptoCard;
 import es.gob.jmulticard.card.CryptoCardException;
 import es.gob.jmulticard.card.InvalidCardException;
+import es.gob.jmulticard.card.LazyCertificates;
 import es.gob.jmulticard.card.Location;
+import es.gob.jmulticard.card.MemoryCertificateCache;
 import es.gob.jmulticard.card.PinException;
 import es.gob.jmulticard.card.PrivateKeyReference;
 import es.gob.jmulticard.card.iso7816four.AbstractIso7816FourCard;
@@ -101,9 +110,6 @@ public final class SmartCafePkcs15Applet extends AbstractIso7816FourCard impleme
 
     private static final Logger LOGGER = Logger.getLogger("es.gob.jmulticard"); //$NON-NLS-1$
 
-    private static final Map<String, X509Certificate> CERTS_BY_ALIAS = new ConcurrentHashMap<>();
-    private static final Map<String, Integer> KEYNO_BY_ALIAS = new ConcurrentHashMap<>();
-
     /** Octeto que identifica una verificaci&oacute;n fallida del PIN. */
     private final static byte ERROR_PIN_SW1 = (byte) 0x63;
 
@@ -112,6 +118,30 @@ public final class SmartCafePkcs15Applet extends AbstractIso7816FourCard impleme
 
     private transient boolean authenticated = false;
 
+    /** Certificados de la tarjeta indexados por alias, que se leen la primera vez que
+     * se piden. */
+    private final LazyCertificates certs = new LazyCertificates(
+		getCardLock(),
+		new LazyCertificates.CertificateReader() {
+			@Override
+			public X509Certificate readCertificate(final Location location) throws IOException {
+				return SmartCafePkcs15Applet.this.readCertificate(location);
+			}
+		}
+	);
+
+    /** Ordinales de las claves privadas de la tarjeta indexados por alias. */
+    private final Map<String, Integer> keyNoByAlias = new LinkedHashMap<>();
+
+    /** M&oacute;dulos de las claves p&uacute;blicas de las claves privadas, indexados por ordinal. */
+    private BigInteger[] keyModuli = null;
+
+    /** Identificador de la tarjeta en el almac&eacute;n de certificados. */
+    private String certCacheId = null;
+
+    /** Indica si los certificados de la tarjeta ya se han guardado en el almac&eacute;n. */
+    private boolean storedInCache = false;
+
     /** Manejador de funciones criptogr&aacute;ficas. */
     private transient final CryptoHelper cryptoHelper;
 
@@ -160,9 +190,11 @@ public final class SmartCafePkcs15Applet extends AbstractIso7816FourCard impleme
             );
         }
 
-        // Cargamos los certificados
+        // Leemos el CDF y preparamos la lectura de los certificados (del almacen si la
+        // tarjeta ya se habia leido antes)
+        final boolean cached;
         try {
-			preloadCertificates();
+			cached = preloadCertificates();
 		}
         catch (final Iso7816FourCardException | Asn1Exception | TlvException e) {
             throw new IOException(
@@ -170,6 +202,44 @@ public final class SmartCafePkcs15Applet extends AbstractIso7816FourCard impleme
     		);
         }
 
+        if (certs.getAliases().length == 0) {
+        	throw new IOException(
+    			"La tarjeta no contiene claves" //$NON-NLS-1$
+			);
+        }
+
+        if (!cached) {
+        	storeInCacheIfComplete();
+        }
+    }
+
+    /** Guarda en el almac&eacute;n de certificados los certificados y ordinales de clave de
+     * la tarjeta si ya se han le&iacute;do todos. */
+    private void storeInCacheIfComplete() {
+    	if (storedInCache || !certs.isFullyLoaded()) {
+    		return;
+    	}
+    	final Map<String, X509Certificate> loaded = certs.getLoaded();
+    	if (!keyNoByAlias.keySet().containsAll(loaded.keySet())) {
+    		return;
+    	}
+    	MemoryCertificateCache.getShared().put(
+			certCacheId,
+			new CertificateCacheEntry(loaded, keyNoByAlias)
+		);
+    	storedInCache = true;
+    }
+
+    /** Obtiene los m&oacute;dulos de las claves p&uacute;blicas de las claves privadas de la
+     * tarjeta, ley&eacute;ndolos la primera vez que se piden.
+     * @return M&oacute;dulos de las claves indexados por su ordinal (con <code>null</code> en
+     *         los que no se han podido leer).
+     * @throws IOException Si hay errores de entrada / salida. */
+    private BigInteger[] getKeyModuli() throws IOException {
+    	if (keyModuli != null) {
+    		return keyModuli;
+    	}
+
         // Miramos cuantas claves hay en la tarjeta
         final int keyCount = getKeyCount(
     		sendArbitraryApdu(
@@ -183,12 +253,10 @@ public final class SmartCafePkcs15Applet extends AbstractIso7816FourCard impleme
 
         LOGGER.info(
     		"Se ha" + (keyCount > 1 ? "n" : "") + " encontrado " + //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
-				keyCount + " clave" + (keyCount > 1 ? "s" : "") + " y " + //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
-    				CERTS_BY_ALIAS.size() + " certificado" + (CERTS_BY_ALIAS.size() > 1 ? "s" : "") + //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-    					" en la tarjeta"); //$NON-NLS-1$
+				keyCount + " clave" + (keyCount > 1 ? "s" : "") + " en la tarjeta"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
 
-        // Buscamos las claves publicas de las claves y guardamos su ordinal comparado
-        // con el alias del certificado que tenga la misma clave publica
+        // Leemos las claves publicas de las claves
+        final BigInteger[] moduli = new BigInteger[keyCount];
         for (int i=0;i<keyCount;i++) {
         	final ResponseApdu res = sendArbitraryApdu(
     			new CommandApdu(
@@ -213,39 +281,49 @@ public final class SmartCafePkcs15Applet extends AbstractIso7816FourCard impleme
         	final ByteArrayOutputStream baos = new ByteArrayOutputStream();
         	baos.write((byte)0x00);
         	baos.write(res.getData());
-        	final BigInteger modulus = new BigInteger(baos.toByteArray());
+        	moduli[i] = new BigInteger(baos.toByteArray());
+        }
+        keyModuli = moduli;
+        return keyModuli;
+    }
 
-        	// Almacenamos el numero de clave asociado con el alias del certificado
-        	// correspondiente
-        	storeKeyOrdinal(i, modulus);
+    /** Asocia cada clave privada de la tarjeta con el certificado de su misma clave
+     * p&uacute;blica y descarta los certificados que no tienen clave privada.
+     * @param certsByAlias Certificados de la tarjeta indexados por alias.
+     * @throws IOException Si hay errores de entrada / salida. */
+    private void loadKeyOrdinals(final Map<String, X509Certificate> certsByAlias) throws IOException {
+
+        // Guardamos el ordinal de cada clave asociado al alias del certificado
+        // que tenga la misma clave publica
+    	final BigInteger[] moduli = getKeyModuli();
+        for (int i=0;i<moduli.length;i++) {
+        	if (moduli[i] != null) {
+        		storeKeyOrdinal(certsByAlias, i, moduli[i]);
+        	}
         }
 
     	// Limpiamos los certificados sin claves
-        final Set<String> aliases = CERTS_BY_ALIAS.keySet();
-        for (final String alias : aliases) {
-        	if (!KEYNO_BY_ALIAS.containsKey(alias)) {
+        final Iterator<String> aliases = certsByAlias.keySet().iterator();
+        while (aliases.hasNext()) {
+        	final String alias = aliases.next();
+        	if (!keyNoByAlias.containsKey(alias)) {
         		LOGGER.info(
     				"El certificado '" + alias + "' se descarta por carecer de clave privada" //$NON-NLS-1$ //$NON-NLS-2$
 				);
-        		CERTS_BY_ALIAS.remove(alias);
+        		aliases.remove();
         	}
         }
-
-        if (aliases.isEmpty()) {
-        	throw new IOException(
-    			"La tarjeta no contiene claves" //$NON-NLS-1$
-			);
-        }
     }
 
-    private static void storeKeyOrdinal(final int ordinal, final BigInteger publicKeyModulus) {
-    	final Set<String> aliases = CERTS_BY_ALIAS.keySet();
-    	for (final String alias : aliases) {
-    		final PublicKey publicKey = CERTS_BY_ALIAS.get(alias).getPublicKey();
+    private void storeKeyOrdinal(final Map<String, X509Certificate> certsByAlias,
+    		                     final int ordinal,
+    		                     final BigInteger publicKeyModulus) {
+    	for (final Map.Entry<String, X509Certificate> cert : certsByAlias.entrySet()) {
+    		final PublicKey publicKey = cert.getValue().getPublicKey();
     		if (publicKey instanceof RSAPublicKey) {
     			final BigInteger certPublicKeyModulus = ((RSAPublicKey)publicKey).getModulus();
     			if (certPublicKeyModulus.equals(publicKeyModulus)) {
-    				KEYNO_BY_ALIAS.put(alias, Integer.valueOf(ordinal));
+    				keyNoByAlias.put(cert.getKey(), Integer.valueOf(ordinal));
     			}
     		}
     	}
@@ -298,7 +376,20 @@ public final class SmartCafePkcs15Applet extends AbstractIso7816FourCard impleme
         checkAtr(conn.reset());
     }
 
-    private void preloadCertificates() throws FileNotFoundException,
+    /** Lee el CDF de la tarjeta y prepara la lectura de sus certificados.
+     * Si la tarjeta ya se hab&iacute;a le&iacute;do antes, los certificados y los ordinales de sus
+     * claves se toman del almac&eacute;n de certificados. Si no, y la tarjeta tiene PrKDF, se
+     * usa este para saber qu&eacute; certificados tienen clave privada, y los certificados
+     * no se leen hasta que se piden. En otro caso se leen ya todos los certificados y se
+     * asocian con sus claves privadas.
+     * @return <code>true</code> si los certificados (y los ordinales de sus claves) se han
+     *         obtenido del almac&eacute;n, <code>false</code> en otro caso.
+     * @throws FileNotFoundException Si no se encuentra alg&uacute;n fichero.
+     * @throws Iso7816FourCardException Si hay errores en las selecciones de ficheros.
+     * @throws IOException Si hay errores de entrada / salida.
+     * @throws Asn1Exception Si el ODF no es correcto.
+     * @throws TlvException Si el ODF no es un TLV correcto. */
+    private boolean preloadCertificates() throws FileNotFoundException,
                                               Iso7816FourCardException,
                                               IOException,
                                               Asn1Exception,
@@ -322,6 +413,7 @@ public final class SmartCafePkcs15Applet extends AbstractIso7816FourCard impleme
             selectMasterFile();
             final byte[] cdfBytes = selectFileByIdAndRead(cdfPath.getPathBytes());
             cdf.setDerValue(cdfBytes);
+            certCacheId = CertificateCache.getCardId(getCardName(), cdfBytes, cryptoHelper);
         }
         catch (final Exception e) {
             throw new ApduConnectionException(
@@ -329,40 +421,50 @@ public final class SmartCafePkcs15Applet extends AbstractIso7816FourCard impleme
             );
         }
 
+        final CertificateCacheEntry entry = MemoryCertificateCache.getShared().get(certCacheId);
+        if (entry != null) {
+        	for (final Map.Entry<String, X509Certificate> cert : entry.getCertificates().entrySet()) {
+        		certs.add(cert.getKey(), null, cert.getValue());
+        	}
+        	keyNoByAlias.putAll(entry.getKeyReferences());
+        	LOGGER.info("Certificados de la tarjeta obtenidos del almacen de certificados"); //$NON-NLS-1$
+        	return true;
+        }
+
         if (cdf.getCertificateCount() < 1) {
         	LOGGER.warning("La tarjeta no contiene ningun certificado"); //$NON-NLS-1$
         }
+
+        // Si hay PrKDF, los certificados con clave privada son los que comparten
+        // identificador con alguna clave, y no hace falta leerlos todavia
+        final PrKdf prkdf = readPrKdf(odf);
+        if (prkdf != null) {
+        	final Set<String> keyIds = new HashSet<>();
+        	for (int i = 0; i < prkdf.getKeyCount(); i++) {
+        		keyIds.add(HexUtils.hexify(prkdf.getKeyId(i), false));
+        	}
+        	for (int i = 0; i < cdf.getCertificateCount(); i++) {
+        		if (keyIds.contains(HexUtils.hexify(cdf.getCertificateIdentifier(i), false))) {
+        			certs.add(cdf.getCertificateAlias(i), new Location(cdf.getCertificatePath(i)));
+        		}
+        	}
+        	if (certs.getAliases().length > 0) {
+        		return false;
+        	}
+        	LOGGER.info(
+    			"Ningun certificado del CDF tiene clave en el PrKDF, se asociaran por su clave publica" //$NON-NLS-1$
+			);
+        }
+
+        // Sin PrKDF leemos todos los certificados y los asociamos con las claves privadas
+        // comparando sus claves publicas
+        final Map<String, X509Certificate> certsByAlias = new LinkedHashMap<>();
+        final Map<String, Location> locationsByAlias = new LinkedHashMap<>();
         for (int i = 0; i < cdf.getCertificateCount(); i++) {
+        	final Location certLocation = new Location(cdf.getCertificatePath(i));
             try {
-            	int fileLength = -1;
-            	Location certLocation = new Location(cdf.getCertificatePath(i));
-                while (certLocation != null) {
-                    final byte[] id = certLocation.getFile();
-                    try {
-                    	fileLength = selectFileById(id);
-                    }
-                    catch(final FileNotFoundException e) {
-                    	LOGGER.warning(
-                			"El CDF indicaba un certificado en la ruta '" + certLocation + "', pero un elemento de esta no existe, se ignorara: " + e //$NON-NLS-1$//$NON-NLS-2$
-            			);
-                    }
-                    certLocation = certLocation.getChild();
-                }
-
-                final byte[] certBytes;
-                if (fileLength <= 0) {
-                	// A veces hay punteros que apuntan a localizaciones vacias
-                	LOGGER.warning(
-            			"El certificado " + i + " del dispositivo esta vacio" //$NON-NLS-1$ //$NON-NLS-2$
-        			);
-                	continue;
-                }
-				certBytes = readBinaryComplete(fileLength);
-
-                CERTS_BY_ALIAS.put(
-                    cdf.getCertificateAlias(i),
-                    cryptoHelper.generateCertificate(certBytes)
-                );
+                certsByAlias.put(cdf.getCertificateAlias(i), readCertificate(certLocation));
+                locationsByAlias.put(cdf.getCertificateAlias(i), certLocation);
             }
             catch (final Exception e) {
             	// Puede darse el caso de que el puntero apunte a algo que no es un certificado
@@ -372,7 +474,73 @@ public final class SmartCafePkcs15Applet extends AbstractIso7816FourCard impleme
                 continue;
             }
         }
+        loadKeyOrdinals(certsByAlias);
+        for (final Map.Entry<String, X509Certificate> cert : certsByAlias.entrySet()) {
+        	certs.add(cert.getKey(), locationsByAlias.get(cert.getKey()), cert.getValue());
+        }
+        return false;
+    }
 
+    /** Lee el PrKDF de la tarjeta.
+     * @param odf ODF de la tarjeta.
+     * @return PrKDF de la tarjeta o <code>null</code> si no tiene o no se puede leer. */
+    private PrKdf readPrKdf(final Odf odf) {
+    	final Path prkdfPath = odf.getPrKdfPath();
+    	if (prkdfPath == null) {
+    		return null;
+    	}
+    	try {
+    		selectMasterFile();
+    		final PrKdf prkdf = new PrKdf();
+    		prkdf.setDerValue(selectFileByIdAndRead(prkdfPath.getPathBytes()));
+    		return prkdf;
+    	}
+    	catch (final Exception e) {
+    		LOGGER.info("No se ha podido leer el PrKDF de la tarjeta: " + e); //$NON-NLS-1$
+    		return null;
+    	}
+    }
+
+    /** Lee un certificado de la tarjeta.
+     * @param location Ruta del certificado.
+     * @return Certificado le&iacute;do.
+     * @throws IOException Si no se puede leer o decodificar el certificado. */
+    private X509Certificate readCertificate(final Location location) throws IOException {
+    	try {
+    		selectMasterFile();
+	    	int fileLength = -1;
+	    	Location certLocation = location;
+	        while (certLocation != null) {
+	            final byte[] id = certLocation.getFile();
+	            try {
+	            	fileLength = selectFileById(id);
+	            }
+	            catch(final FileNotFoundException e) {
+	            	LOGGER.warning(
+	        			"El CDF indicaba un certificado en la ruta '" + certLocation + "', pero un elemento de esta no existe, se ignorara: " + e //$NON-NLS-1$//$NON-NLS-2$
+	    			);
+	            }
+	            certLocation = certLocation.getChild();
+	        }
+
+	        if (fileLength <= 0) {
+	        	// A veces hay punteros que apuntan a localizaciones vacias
+	        	throw new IOException("El certificado de la ruta '" + location + "' esta vacio"); //$NON-NLS-1$ //$NON-NLS-2$
+	        }
+	        return cryptoHelper.generateCertificate(readBinaryComplete(fileLength));
+    	}
+    	catch (final Iso7816FourCardException | CertificateException e) {
+    		throw new IOException("Error leyendo el certificado de la ruta '" + location + "'", e); //$NON-NLS-1$ //$NON-NLS-2$
+    	}
+    }
+
+    /** Inicia la lectura en segundo plano de los certificados de la tarjeta que a&uacute;n
+     * no se han le&iacute;do.
+     * Las dem&aacute;s operaciones con la tarjeta esperan a que termine la lectura del
+     * certificado en curso.
+     * @return Hilo de precarga, ya iniciado. */
+    public Thread prefetchCertificates() {
+    	return certs.prefetch(getCardName());
     }
 
     @Override
@@ -382,12 +550,20 @@ public final class SmartCafePkcs15Applet extends AbstractIso7816FourCard impleme
 
     @Override
     public String[] getAliases() {
-        return CERTS_BY_ALIAS.keySet().toArray(new String[0]);
+        return certs.getAliases();
     }
 
     @Override
     public X509Certificate getCertificate(final String alias) {
-        return CERTS_BY_ALIAS.get(alias);
+        final X509Certificate cert = certs.get(alias);
+        getCardLock().lock();
+        try {
+        	storeInCacheIfComplete();
+        }
+        finally {
+        	getCardLock().unlock();
+        }
+        return cert;
     }
 
     @Override
@@ -399,7 +575,7 @@ public final class SmartCafePkcs15Applet extends AbstractIso7816FourCard impleme
     public String toString() {
         final StringBuilder sb = new StringBuilder(getCardName())
             .append("\n Tarjeta con ") //$NON-NLS-1$
-            	.append(CERTS_BY_ALIAS.size())
+            	.append(certs.getAliases().length)
             		.append(" certificado(s):\n"); //$NON-NLS-1$
         final String[] aliases = getAliases();
         for (int i = 0; i < aliases.length; i++) {
@@ -472,11 +648,64 @@ public final class SmartCafePkcs15Applet extends AbstractIso7816FourCard impleme
     }
 
     @Override
-    public PrivateKeyReference getPrivateKey(final String alias) {
-    	if (!KEYNO_BY_ALIAS.containsKey(alias)) {
-    		return null;
+    public PrivateKeyReference getPrivateKey(final String alias) throws CryptoCardException {
+    	getCardLock().lock();
+    	try {
+    		Integer keyNo = keyNoByAlias.get(alias);
+    		if (keyNo == null) {
+    			// El ordinal de la clave se busca la primera vez que se pide, comparando
+    			// la clave publica del certificado con las de las claves de la tarjeta
+    			final X509Certificate cert = certs.get(alias);
+    			if (cert == null) {
+    				return null;
+    			}
+    			final Map<String, X509Certificate> certByAlias = new LinkedHashMap<>(1);
+    			certByAlias.put(alias, cert);
+    			try {
+    				final BigInteger[] moduli = getKeyModuli();
+    				for (int i = 0; i < moduli.length; i++) {
+    					if (moduli[i] != null) {
+    						storeKeyOrdinal(certByAlias, i, moduli[i]);
+    					}
+    				}
+    			}
+    			catch (final IOException e) {
+    				throw new CryptoCardException(
+						"Error buscando la clave privada del certificado '" + alias + "'", e //$NON-NLS-1$ //$NON-NLS-2$
+					);
+    			}
+    			keyNo = keyNoByAlias.get(alias);
+    			if (keyNo == null) {
+    				LOGGER.warning(
+						"No se ha encontrado la clave privada del certificado '" + alias + "'" //$NON-NLS-1$ //$NON-NLS-2$
+					);
+    				return null;
+    			}
+    			storeInCacheIfComplete();
+    		}
+    		return new SmartCafePrivateKeyReference(keyNo);
+    	}
+    	finally {
+    		getCardLock().unlock();
     	}
-    	return new SmartCafePrivateKeyReference(KEYNO_BY_ALIAS.get(alias));
+    }
+
+    /** {@inheritDoc}
+     * La tarjeta recibe siempre el <i>DigestInfo</i> ya construido, por lo que se firma como
+     * {@link DigestInfo#RAW_DIGESTINFO_ALGORITHM}. */
+    @Override
+    public byte[] signDigest(final byte[] digest,
+    		                  final String algorithm,
+    		                  final PrivateKeyReference keyRef) throws CryptoCardException,
+    		                                                          PinException {
+    	final byte[] digestInfo;
+    	try {
+    		digestInfo = DigestInfo.encodeDigest(algorithm, digest);
+    	}
+    	catch (final IOException e) {
+    		throw new CryptoCardException("Error en la construccion del DigestInfo a firmar", e); //$NON-NLS-1$
+    	}
+    	return sign(digestInfo, DigestInfo.RAW_DIGESTINFO_ALGORITHM, keyRef);
     }
 
     @Override
@@ -484,81 +713,87 @@ public final class SmartCafePkcs15Applet extends AbstractIso7816FourCard impleme
     		           final String algorithm,
     		           final PrivateKeyReference keyRef) throws CryptoCardException,
                                                                 PinException {
-		if (data == null) {
-			throw new CryptoCardException("Los datos a firmar no pueden ser nulos"); //$NON-NLS-1$
-		}
-		if (keyRef == null) {
-			throw new IllegalArgumentException("La clave privada no puede ser nula"); //$NON-NLS-1$
-		}
-		if (!(keyRef instanceof SmartCafePrivateKeyReference)) {
-			throw new IllegalArgumentException(
-				"La clave proporcionada debe ser de tipo " + //$NON-NLS-1$
-					SmartCafePrivateKeyReference.class.getName() +
-						", pero se ha recibido de tipo " + //$NON-NLS-1$
-							keyRef.getClass().getName()
-			);
-		}
+    	getCardLock().lock();
+    	try {
+			if (data == null) {
+				throw new CryptoCardException("Los datos a firmar no pueden ser nulos"); //$NON-NLS-1$
+			}
+			if (keyRef == null) {
+				throw new IllegalArgumentException("La clave privada no puede ser nula"); //$NON-NLS-1$
+			}
+			if (!(keyRef instanceof SmartCafePrivateKeyReference)) {
+				throw new IllegalArgumentException(
+					"La clave proporcionada debe ser de tipo " + //$NON-NLS-1$
+						SmartCafePrivateKeyReference.class.getName() +
+							", pero se ha recibido de tipo " + //$NON-NLS-1$
+								keyRef.getClass().getName()
+				);
+			}
 
-		final SmartCafePrivateKeyReference scPrivateKey = (SmartCafePrivateKeyReference) keyRef;
+			final SmartCafePrivateKeyReference scPrivateKey = (SmartCafePrivateKeyReference) keyRef;
+
+			// Pedimos el PIN si no se ha pedido antes
+			if (!authenticated) {
+				try {
+					verifyPin(getInternalPasswordCallback());
+					authenticated = true;
+				}
+				catch (final ApduConnectionException e1) {
+					throw new CryptoCardException("Error en la verificacion de PIN", e1); //$NON-NLS-1$
+				}
+			}
 
-		// Pedimos el PIN si no se ha pedido antes
-		if (!authenticated) {
+			// Enviamos el MSE SET for Computation
+			ResponseApdu res = null;
 			try {
-				verifyPin(getInternalPasswordCallback());
-				authenticated = true;
+				res = sendArbitraryApdu(
+					new MseSetComputationApduCommand(
+						(byte) 0x01, // CLA
+						new byte[] { (byte) scPrivateKey.getKeyOrdinal() },
+						new byte[] { (byte) 0x02 } // RSA
+					)
+				);
 			}
-			catch (final ApduConnectionException e1) {
-				throw new CryptoCardException("Error en la verificacion de PIN", e1); //$NON-NLS-1$
+			catch (final ApduConnectionException e) {
+				throw new CryptoCardException(
+					"Error estableciendo la clave y el algoritmo de firma (repuesta=" + res + ")", e //$NON-NLS-1$ //$NON-NLS-2$
+				);
+			}
+			if (res == null || !res.isOk()) {
+				throw new CryptoCardException(
+					"No se ha podido establecer la clave y el algoritmo de firma" + (res != null ? " (repuesta=" + res + ")" : "") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+				);
 			}
-		}
-
-		// Enviamos el MSE SET for Computation
-		ResponseApdu res = null;
-		try {
-			res = sendArbitraryApdu(
-				new MseSetComputationApduCommand(
-					(byte) 0x01, // CLA
-					new byte[] { (byte) scPrivateKey.getKeyOrdinal() },
-					new byte[] { (byte) 0x02 } // RSA
-				)
-			);
-		}
-		catch (final ApduConnectionException e) {
-			throw new CryptoCardException(
-				"Error estableciendo la clave y el algoritmo de firma (repuesta=" + res + ")", e //$NON-NLS-1$ //$NON-NLS-2$
-			);
-		}
-		if (res == null || !res.isOk()) {
-			throw new CryptoCardException(
-				"No se ha podido establecer la clave y el algoritmo de firma" + (res != null ? " (repuesta=" + res + ")" : "") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
-			);
-		}
 
-		// Creamos el DigestInfo
-        final byte[] digestInfo;
-        try {
-            digestInfo = DigestInfo.encode(algorithm, data, cryptoHelper);
-        }
-        catch (final IOException e) {
-            throw new CryptoCardException("Error en el calculo de la huella para firmar", e); //$NON-NLS-1$
-        }
+			// Creamos el DigestInfo
+            final byte[] digestInfo;
+            try {
+                digestInfo = DigestInfo.encode(algorithm, data, cryptoHelper);
+            }
+            catch (final IOException e) {
+                throw new CryptoCardException("Error en el calculo de la huella para firmar", e); //$NON-NLS-1$
+            }
 
-        // Y lo enviamos a firmar
-        try {
-			res = sendArbitraryApdu(new PsoSignHashApduCommand((byte) 0x01, digestInfo));
-		}
-        catch (final ApduConnectionException e) {
-        	throw new CryptoCardException(
-				"Error firmando (repuesta=" + res + ")", e //$NON-NLS-1$ //$NON-NLS-2$
-			);
-		}
-        if (res == null || !res.isOk()) {
-			throw new CryptoCardException(
-				"No se ha podido firmar el DigestInfo" + (res != null ? " (repuesta=" + res + ")" : "") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
-			);
-		}
+            // Y lo enviamos a firmar
+            try {
+				res = sendArbitraryApdu(new PsoSignHashApduCommand((byte) 0x01, digestInfo));
+			}
+            catch (final ApduConnectionException e) {
+            	throw new CryptoCardException(
+					"Error firmando (repuesta=" + res + ")", e //$NON-NLS-1$ //$NON-NLS-2$
+				);
+			}
+            if (res == null || !res.isOk()) {
+				throw new CryptoCardException(
+					"No se ha podido firmar el DigestInfo" + (res != null ? " (repuesta=" + res + ")" : "") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+				);
+			}
 
-        return res.getData();
+            return res.getData();
+    	}
+    	finally {
+    		getCardLock().unlock();
+    	}
     }
 
     private int getPinRetriesLeft() throws PinException {
@@ -622,15 +857,22 @@ public final class SmartCafePkcs15Applet extends AbstractIso7816FourCard impleme
     	throw new PinException("No hay ningun metodo para obtener el PIN"); //$NON-NLS-1$
     }
 
+    /** Registra los ATR de las tarjetas G&amp;D SmartCafe.
+     * @param registry Constructor del registro de ATR. */
+    public static void registerAtrs(final AtrRegistry.Builder registry) {
+    	registry.register(SmartCafePkcs15Applet.class, ATR)
+    		.register(SmartCafePkcs15Applet.class, ATR_MSC)
+    		.register(SmartCafePkcs15Applet.class, ATR_TCL);
+    }
+
     private static void checkAtr(final byte[] atrBytes) throws InvalidCardException {
-    	final Atr tmpAtr = new Atr(atrBytes, ATR_MASK);
-    	if (ATR.equals(tmpAtr)) {
+    	if (ATR.matches(atrBytes)) {
     		LOGGER.info("Detectada G&D SmartCafe 3.2"); //$NON-NLS-1$
     	}
-    	else if (ATR_MSC.equals(tmpAtr)) {
+    	else if (ATR_MSC.matches(atrBytes)) {
     		LOGGER.info("Detectada G&D Mobile Security Card"); //$NON-NLS-1$
     	}
-    	else if (ATR_TCL.equals(tmpAtr)) {
+    	else if (ATR_TCL.matches(atrBytes)) {
     		LOGGER.info("Detectada G&D SmartCafe 3.2 via T=CL (conexion inalambrica)"); //$NON-NLS-1$
     	}
     	else {
@@ -0,0 +1,90 @@
+package es.gob.jmulticard.card.icao;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import es.gob.jmulticard.asn1.icao.Com;
+
+/** Sesi&oacute;n de lectura de la LDS1 de un MRTD.
+ * Conoce por el EF&#46;COM qu&eacute; grupos de datos tiene el documento y guarda el
+ * contenido de los que se han pedido directamente o se han pedido precargar, de forma que
+ * durante la sesi&oacute;n esos DG se leen de la tarjeta una sola vez (tambi&eacute;n si
+ * luego se comprueban con el SOD) y nunca se intenta seleccionar un DG que el documento
+ * no tiene. Los DG que solo se leen para comprobarlos con el SOD no se guardan.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class LdsSession {
+
+	private final Com com;
+
+	private final Map<Integer, byte[]> dataGroups = new ConcurrentHashMap<>();
+
+	private final Set<Integer> prefetchRequested = ConcurrentHashMap.newKeySet();
+
+	/** Crea una sesi&oacute;n de lectura de la LDS1.
+	 * @param efCom EF&#46;COM del MRTD, o <code>null</code> si no lo tiene (en cuyo caso
+	 *              no se sabe de antemano qu&eacute; grupos de datos existen). */
+	public LdsSession(final Com efCom) {
+		com = efCom;
+	}
+
+	/** Obtiene el EF&#46;COM del MRTD.
+	 * @return EF&#46;COM o <code>null</code> si el MRTD no lo tiene. */
+	public Com getCom() {
+		return com;
+	}
+
+	/** Indica si el MRTD tiene un grupo de datos seg&uacute;n su EF&#46;COM.
+	 * @param dgNumber N&uacute;mero de DG.
+	 * @return <code>true</code> si el EF&#46;COM incluye el DG o si no hay EF&#46;COM,
+	 *         <code>false</code> si el EF&#46;COM indica que el DG no existe. */
+	public boolean isDataGroupPresent(final int dgNumber) {
+		return com == null || com.isDgPresent(dgNumber);
+	}
+
+	/** Indica si ya se ha le&iacute;do un grupo de datos en esta sesi&oacute;n.
+	 * @param dgNumber N&uacute;mero de DG.
+	 * @return <code>true</code> si el contenido del DG est&aacute; guardado. */
+	public boolean isDataGroupCached(final int dgNumber) {
+		return dataGroups.containsKey(Integer.valueOf(dgNumber));
+	}
+
+	/** Anota que se ha pedido precargar un grupo de datos, de forma que su contenido se
+	 * guarde en la sesi&oacute;n aunque se lea solo para comprobar su huella con el SOD.
+	 * @param dgNumber N&uacute;mero de DG. */
+	public void requestPrefetch(final int dgNumber) {
+		prefetchRequested.add(Integer.valueOf(dgNumber));
+	}
+
+	/** Indica si se ha pedido precargar un grupo de datos.
+	 * @param dgNumber N&uacute;mero de DG.
+	 * @return <code>true</code> si se ha pedido precargar el DG en esta sesi&oacute;n. */
+	public boolean isPrefetchRequested(final int dgNumber) {
+		return prefetchRequested.contains(Integer.valueOf(dgNumber));
+	}
+
+	/** Obtiene el contenido guardado de un grupo de datos.
+	 * @param dgNumber N&uacute;mero de DG.
+	 * @return Contenido binario del DG o <code>null</code> si no se ha le&iacute;do en
+	 *         esta sesi&oacute;n. */
+	public byte[] getDataGroup(final int dgNumber) {
+		final byte[] content = dataGroups.get(Integer.valueOf(dgNumber));
+		return content != null ? content.clone() : null;
+	}
+
+	/** Guarda el contenido de un grupo de datos le&iacute;do de la tarjeta.
+	 * @param dgNumber N&uacute;mero de DG.
+	 * @param content Contenido binario del DG. */
+	public void putDataGroup(final int dgNumber, final byte[] content) {
+		if (content == null) {
+			throw new IllegalArgumentException("El contenido del DG no puede ser nulo"); //$NON-NLS-1$
+		}
+		dataGroups.put(Integer.valueOf(dgNumber), content.clone());
+	}
+
+	@Override
+	public String toString() {
+		return "Sesion LDS1 con los DG leidos " + dataGroups.keySet() + //$NON-NLS-1$
+			(com != null ? " y " + com : " sin EF.COM"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
@@ -244,4 +244,13 @@ public interface MrtdLds1 {
                                                     Asn1Exception,
                                                     SignatureException,
                                                     CertificateException;
+
+    /** Lee de una vez los DG indicados que el MRTD tenga seg&uacute;n su EF&#46;COM, y
+     * los guarda para que durante la sesi&oacute;n ni los m&eacute;todos de obtenci&oacute;n
+     * de DG ni <code>checkSecurityObjects()</code> tengan que volver a leerlos.
+     * Los DG que el MRTD no tiene o que no se pueden leer por falta de permisos se omiten.
+     * Puede necesitar que el canal de usuario est&eacute; previamente establecido.
+     * @param dgNumbers N&uacute;meros de los DG a leer.
+     * @throws IOException Si hay problemas leyendo los ficheros. */
+    void prefetchDataGroups(int... dgNumbers) throws IOException;
 }
@@ -38,6 +38,14 @@ public final class IcaoMrtdWithBac extends Dnie3 {
 		);
 	}
 
+	/** No hace nada: un MRTD accedido mediante BAC no tiene canal CWA-14890, y la
+	 * mensajer&iacute;a segura BAC la proporciona ya la conexi&oacute;n. Se usa, por ejemplo,
+	 * al comprobar los objetos de seguridad. */
+	@Override
+	public void openSecureChannelIfNotAlreadyOpened(final boolean doChv) {
+		// La conexion ya es la segura de BAC
+	}
+
 	@Override
 	public String toString() {
 		return getCardName();
@@ -15,13 +15,22 @@
  */
 package es.gob.jmulticard.card.icao.vdsned;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 
-/** Decodificador de texto en formato C40. */
+/** Decodificador de texto en formato C40.
+ * La decodificaci&oacute;n se hace por tablas: cada valor C40 se traduce con una
+ * consulta a la tabla del juego de caracteres activo, sin flujos intermedios ni
+ * memoria adicional por cada grupo de tres caracteres. */
 final class C40Decoder {
 
-	/** Juego b&aacute;sico de caracteres C40 (con el espacio cambiado a '&lt;'). */
+	/** Marca de valor C40 no v&aacute;lido en el juego de caracteres activo. */
+	private static final char INVALID = '\uffff';
+
+	/** Marca del valor de cambio a may&uacute;sculas extendidas (<i>Upper Shift</i>). */
+	private static final char UPPER_SHIFT = '\ufffe';
+
+	/** Juego b&aacute;sico de caracteres C40 (con el espacio cambiado a '&lt;').
+	 * Los tres primeros valores son cambios de juego y no se consultan en la tabla. */
 	private static final char[] C40_BASIC_SET_CHARS = {
 	      '*', '*', '*', '<', '0', '1', '2', '3', '4', '5',
 	      '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F',
@@ -29,13 +38,36 @@ final class C40Decoder {
 	      'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z'
 	};
 
-	/** Juego extendido de caracteres C40. */
+	/** Juego de caracteres C40 <i>Shift 1</i> (caracteres de control ASCII). */
+	private static final char[] C40_SHIFT1_SET_CHARS = new char[40];
+
+	/** Juego de caracteres C40 <i>Shift 2</i> (signos de puntuaci&oacute;n). */
 	private static final char[] C40_SHIFT2_SET_CHARS = {
 		  '!', '"', '#', '$', '%', '&', '\'', '(', ')', '*',
 		  '+', ',', '-', '.', '/', ':', ';', '<', '=', '>',
-		  '?', '@', '[', '\\', ']', '^', '_'
+		  '?', '@', '[', '\\', ']', '^', '_', INVALID, INVALID, INVALID,
+		  UPPER_SHIFT, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID, INVALID
 	};
 
+	/** Juego de caracteres C40 <i>Shift 3</i> (min&uacute;sculas y s&iacute;mbolos). */
+	private static final char[] C40_SHIFT3_SET_CHARS = new char[40];
+
+	/** Tablas de los juegos de caracteres, por n&uacute;mero de cambio (0 es el b&aacute;sico). */
+	private static final char[][] C40_SETS;
+
+	static {
+		for (int i = 0; i < 40; i++) {
+			C40_SHIFT1_SET_CHARS[i] = (char) i;
+			C40_SHIFT3_SET_CHARS[i] = (char) (i + 96);
+		}
+		C40_SETS = new char[][] {
+			C40_BASIC_SET_CHARS,
+			C40_SHIFT1_SET_CHARS,
+			C40_SHIFT2_SET_CHARS,
+			C40_SHIFT3_SET_CHARS
+		};
+	}
+
 	private C40Decoder() {
 		// No instanciable
 	}
@@ -47,100 +79,69 @@ final class C40Decoder {
 	 * @throws IOException Si no se puede decodificar el texto o este no estaba en
 	 *                     formato C40. */
 	static String decode(final byte[] c40encoded) throws IOException {
+		return decode(c40encoded, 0, c40encoded.length);
+	}
+
+	/** Decodifica un texto en formato C40 seg&uacute;n la ISO 16022:2006 situado en una
+	 * porci&oacute;n de una memoria, sin copiarla.
+	 * @param buffer Memoria que contiene el texto codificado como C40.
+	 * @param offset Posici&oacute;n de inicio del texto en la memoria.
+	 * @param len Longitud en octetos del texto codificado.
+	 * @return Texto decodificado.
+	 * @throws IOException Si no se puede decodificar el texto o este no estaba en
+	 *                     formato C40. */
+	static String decode(final byte[] buffer, final int offset, final int len) throws IOException {
 
 		// Tres caracteres C40 se codifican en un valor de 16 bits como:
 		// (1600 * C1) + (40 * C2) + C3 + 1
 
-		final StringBuilder result = new StringBuilder();
-		final ByteArrayInputStream bits = new ByteArrayInputStream(c40encoded);
+		final StringBuilder result = new StringBuilder(len / 2 * 3);
+		final int end = offset + len;
 
 		boolean upperShift = false;
 
-		do {
-			// Si solo queda un byte, entonces se codifica en ASCII
-			if (bits.available() == 1) {
-				break;
-			}
-			final int firstByte = bits.read();
+		int pos = offset;
+		// Si solo queda un octeto, entonces se codifica en ASCII
+		while (end - pos > 1) {
+			final int firstByte = buffer[pos++] & 0xff;
 			if (firstByte == 254) { // Unlatch codeword
 				break;
 			}
 
-			final int[] cValues = parseTwoBytes(firstByte, bits.read());
+			int fullBitValue = (firstByte << 8) + (buffer[pos++] & 0xff) - 1;
+			final int c1 = fullBitValue / 1600;
+			fullBitValue -= c1 * 1600;
+			final int c2 = fullBitValue / 40;
 
 			int shift = 0;
 			for (int i = 0; i < 3; i++) {
-				final int cValue = cValues[i];
-				switch (shift) {
-					case 0:
-						if (cValue < 3) {
-							shift = cValue + 1;
-						}
-						else if (upperShift) {
-							result.append((char) (C40_BASIC_SET_CHARS[cValue] + 128));
-							upperShift = false;
-						}
-						else {
-							result.append(C40_BASIC_SET_CHARS[cValue]);
-						}
-						break;
-					case 1:
-						if (upperShift) {
-							result.append((char) (cValue + 128));
-							upperShift = false;
-						}
-						else {
-							result.append(cValue);
-						}
-						shift = 0;
-						break;
-					case 2:
-						if (cValue < 27) {
-							if (upperShift) {
-								result.append((char) (C40_SHIFT2_SET_CHARS[cValue] + 128));
-								upperShift = false;
-							}
-							else {
-								result.append(C40_SHIFT2_SET_CHARS[cValue]);
-							}
-						}
-						else if (cValue == 27 || cValue != 30) { // FNC1
-							throw new IOException();
-						}
-						else { // Upper Shift
-							upperShift = true;
-						}
-						shift = 0;
-						break;
-					case 3:
-						if (upperShift) {
-							result.append((char) (cValue + 224));
-							upperShift = false;
-						}
-						else {
-							result.append((char) (cValue + 96));
-						}
-						shift = 0;
-						break;
-					default:
-						throw new IOException();
-					}
+				final int cValue = i == 0 ? c1 : i == 1 ? c2 : fullBitValue - c2 * 40;
+				if (cValue >= 40) {
+					throw new IOException("Valor C40 fuera de rango: " + cValue); //$NON-NLS-1$
+				}
+				if (shift == 0 && cValue < 3) {
+					shift = cValue + 1;
+					continue;
+				}
+				final char c = C40_SETS[shift][cValue];
+				shift = 0;
+				if (c == UPPER_SHIFT) {
+					upperShift = true;
+				}
+				else if (c == INVALID) { // FNC1 o valores no usados
+					throw new IOException("Valor C40 no valido: " + cValue); //$NON-NLS-1$
+				}
+				else if (upperShift) {
+					result.append((char) (c + 128));
+					upperShift = false;
+				}
+				else {
+					result.append(c);
+				}
 			}
-		} while (bits.available() > 0);
+		}
 
 		return result.toString();
 	}
 
-	private static int[] parseTwoBytes(final int firstByte, final int secondByte) {
-		int fullBitValue = (firstByte << 8) + secondByte - 1;
-		final int[] result = new int[3];
-		int temp = fullBitValue / 1600;
-		result[0] = temp;
-		fullBitValue -= temp * 1600;
-		temp = fullBitValue / 40;
-		result[1] = temp;
-		result[2] = fullBitValue - temp * 40;
-		return result;
-	}
-
 }
@@ -1,14 +1,17 @@
 package es.gob.jmulticard.card.icao.vdsned;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.math.BigInteger;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.ResolverStyle;
 import java.util.Date;
 import java.util.logging.Logger;
 
@@ -25,6 +28,19 @@ public final class Vdsned {
 
 	private static final byte MAGIC = (byte) 0xdc;
 
+	/** Formato de las fechas de la cabecera (MMDDYYYY), inmutable y compartido. */
+	private static final DateTimeFormatter HEADER_DATE_FORMAT = DateTimeFormatter.ofPattern(
+		"MMdduuuu" //$NON-NLS-1$
+	).withResolverStyle(ResolverStyle.STRICT);
+
+	/** Formato de las fechas en la descripci&oacute;n textual del sello. */
+	private static final DateTimeFormatter DISPLAY_DATE_FORMAT = DateTimeFormatter.ofPattern(
+		"dd/MM/yyyy" //$NON-NLS-1$
+	);
+
+	/** Longitud de la cabecera de un VDSNED v3 o v4. */
+	private static final int HEADER_LENGTH = 18;
+
 	private transient final byte[] encoded;
 
 	private final int version;
@@ -33,8 +49,8 @@ public final class Vdsned {
 	private final String issuingCountry;
 
 	private final String caCr;
-	private final Date documentIssueDate;
-	private final Date signatureCreationDate;
+	private final LocalDate documentIssueDate;
+	private final LocalDate signatureCreationDate;
 	private final int documentFeatureDefinitionReference;
 	private final int documentTypeCategory;
 
@@ -45,7 +61,8 @@ public final class Vdsned {
 	private transient byte[] signature = null;
 	private transient byte[] dataTbs = null;
 
-	private static final String DEFAULT_SIGNATURE_ALGORITHM = "SHA256withECDSA"; //$NON-NLS-1$
+	/** Algoritmo de firma de los sellos. */
+	static final String DEFAULT_SIGNATURE_ALGORITHM = "SHA256withECDSA"; //$NON-NLS-1$
 
 	/** Construye un <i>Visible Digital Seal for Non-Electronic Documents</i> de ICAO.
 	 * @param enc Codificaci&oacute;n binaria del <i>Visible Digital Seals for Non-Electronic Documents</i>.
@@ -60,6 +77,11 @@ public final class Vdsned {
 			);
 		}
 		encoded = enc.clone();
+		if (encoded.length < HEADER_LENGTH) {
+			throw new IllegalArgumentException(
+				"La codificacion binaria proporcionada es demasiado corta para ser un VDSNED: " + encoded.length //$NON-NLS-1$
+			);
+		}
 		int offset = 0;
 
 		// Magic
@@ -78,47 +100,20 @@ public final class Vdsned {
 		}
 
 		// Pais emisor
-		issuingCountry = C40Decoder.decode(new byte[] { encoded[offset++], encoded[offset++] });
+		issuingCountry = C40Decoder.decode(encoded, offset, 2);
+		offset += 2;
 
 		// CA-CR (texto en C40)
-		caCr = C40Decoder.decode(
-			new byte[] {
-				encoded[offset++], encoded[offset++], encoded[offset++],
-				encoded[offset++], encoded[offset++], encoded[offset++]
-			}
-		);
+		caCr = C40Decoder.decode(encoded, offset, 6);
+		offset += 6;
 
 		// Fecha de emision del documento
-		byte[] tmpDateBytes = {
-			0x00, encoded[offset++], encoded[offset++], encoded[offset++]
-		};
-		String tmpDate = Integer.toString(ByteBuffer.wrap(tmpDateBytes).getInt());
-		try {
-			documentIssueDate = new SimpleDateFormat(
-				tmpDate.length() == 7 ? "Mddyyyy" : "MMddyyyy" //$NON-NLS-1$ //$NON-NLS-2$
-			).parse(tmpDate);
-		}
-		catch (final ParseException e) {
-			throw new IllegalArgumentException(
-				"La fecha de emision del documento es invalida (" + HexUtils.hexify(tmpDateBytes, false) + ", " + tmpDate + ")", e //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-			);
-		}
+		documentIssueDate = parseHeaderDate(encoded, offset, "emision del documento"); //$NON-NLS-1$
+		offset += 3;
 
 		// Fecha de creacion de la firma
-		tmpDateBytes = new byte[] {
-			0x00, encoded[offset++], encoded[offset++], encoded[offset++]
-		};
-		tmpDate = Integer.toString(ByteBuffer.wrap(tmpDateBytes).getInt());
-		try {
-			signatureCreationDate = new SimpleDateFormat(
-				tmpDate.length() == 7 ? "Mddyyyy" : "MMddyyyy" //$NON-NLS-1$ //$NON-NLS-2$
-			).parse(tmpDate);
-		}
-		catch (final ParseException e) {
-			throw new IllegalArgumentException(
-				"La fecha de creacion de la firma es invalida (" + HexUtils.hexify(tmpDateBytes, false) + ", " + tmpDate + ")", e //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-			);
-		}
+		signatureCreationDate = parseHeaderDate(encoded, offset, "creacion de la firma"); //$NON-NLS-1$
+		offset += 3;
 
 		// Referencia
 		documentFeatureDefinitionReference = encoded[offset++];
@@ -131,41 +126,60 @@ public final class Vdsned {
 			);
 		}
 
+		// Los campos del mensaje se analizan directamente sobre la codificacion, sin copiarla
 		while(offset < encoded.length) {
 
-			final byte[] data = new byte[encoded.length - offset];
-			System.arraycopy(encoded, offset, data, 0, data.length);
-
-			final Tlv tlv = new Tlv(data);
+			if (encoded.length - offset < 2) {
+				throw new TlvException("El ultimo campo del VDSNED esta truncado"); //$NON-NLS-1$
+			}
+			final byte tag = encoded[offset];
+			int valueOffset = offset + 1;
+			int length = encoded[valueOffset++] & 0xff;
+			if (length == 0x81 || length == 0x82) {
+				final int lengthBytes = length & 0x7f;
+				if (valueOffset + lengthBytes > encoded.length) {
+					throw new TlvException("La longitud del campo " + (tag & 0xff) + " esta truncada"); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+				length = 0;
+				for (int i = 0; i < lengthBytes; i++) {
+					length = (length << 8) + (encoded[valueOffset++] & 0xff);
+				}
+			}
+			else if (length >= 0x80) {
+				throw new TlvException("Longitud invalida en el campo " + (tag & 0xff) + ": " + length); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			if (valueOffset + length > encoded.length) {
+				throw new TlvException(
+					"El campo " + (tag & 0xff) + " esta truncado: se esperaban " + length + //$NON-NLS-1$ //$NON-NLS-2$
+						" octetos de valor pero solo hay " + (encoded.length - valueOffset) //$NON-NLS-1$
+				);
+			}
 
-			switch(tlv.getTag()) {
+			switch(tag) {
 				case 0x02:
-					mrzB = C40Decoder.decode(tlv.getValue());
+					mrzB = C40Decoder.decode(encoded, valueOffset, length);
 					break;
 				case 0x03:
-					nEntries = HexUtils.getUnsignedInt(tlv.getValue(), 0);
+					nEntries = getUnsignedValue(encoded, valueOffset, length);
 					break;
 				case 0x04:
-					final byte[] durBytes = tlv.getValue();
 					// Dos o una posiciones
-					if (durBytes.length < 3) {
-						durationOfStay = HexUtils.getUnsignedInt(durBytes, 0);
+					if (length < 3) {
+						durationOfStay = getUnsignedValue(encoded, valueOffset, length);
 					}
 					// Tres posiciones
-					else if (durBytes.length == 3) {
-						durationOfStay = ByteBuffer.wrap(
-							new byte[] {
-								0x00, durBytes[2], durBytes[1], durBytes[0]
-							}
-						).getInt();
+					else if (length == 3) {
+						durationOfStay = (encoded[valueOffset + 2] & 0xff) << 16 |
+							(encoded[valueOffset + 1] & 0xff) << 8 |
+							 encoded[valueOffset] & 0xff;
 					}
 					// Cuatro o mas posiciones
 					else {
-						durationOfStay = ByteBuffer.wrap(tmpDateBytes).getInt();
+						LOGGER.warning("Duracion de la estancia con un numero de octetos no soportado: " + length); //$NON-NLS-1$
 					}
 					break;
 				case 0x05:
-					passportNumber = C40Decoder.decode(tlv.getValue());
+					passportNumber = C40Decoder.decode(encoded, valueOffset, length);
 					break;
 				case (byte) 0xff:
 
@@ -174,18 +188,62 @@ public final class Vdsned {
 					dataTbs = new byte[offset];
 					System.arraycopy(encoded, 0, dataTbs, 0, offset);
 
-					final byte[] sig = tlv.getValue();
-					final byte[] r = new byte[tlv.getLength()/2];
-					System.arraycopy(sig, 0, r, 0, tlv.getLength()/2);
-					final byte[] s = new byte[tlv.getLength()/2];
-					System.arraycopy(sig, tlv.getLength()/2, s, 0, tlv.getLength()/2);
+					// La firma se codifica como la concatenacion de R y S
+					final byte[] r = new byte[length/2];
+					System.arraycopy(encoded, valueOffset, r, 0, length/2);
+					final byte[] s = new byte[length/2];
+					System.arraycopy(encoded, valueOffset + length/2, s, 0, length/2);
 					signature = encodeEcdsaSignature(r, s);
 					break;
 				default:
-					LOGGER.warning("Encontrado campo de datos desconocido: " + tlv); //$NON-NLS-1$
+					LOGGER.warning(
+						"Encontrado campo de datos desconocido: " + HexUtils.hexify(new byte[] { tag }, false) + //$NON-NLS-1$
+							" (" + length + " octetos)" //$NON-NLS-1$ //$NON-NLS-2$
+					);
 			}
 
-			offset = offset + tlv.getBytes().length;
+			offset = valueOffset + length;
+		}
+	}
+
+	/** Obtiene el valor sin signo de un campo de uno o dos octetos (si tiene m&aacute;s,
+	 * solo se tienen en cuenta los dos primeros).
+	 * @param buffer Codificaci&oacute;n del sello.
+	 * @param offset Posici&oacute;n del valor del campo en la codificaci&oacute;n.
+	 * @param length Longitud del valor del campo.
+	 * @return Valor sin signo del campo. */
+	private static int getUnsignedValue(final byte[] buffer, final int offset, final int length) {
+		if (length < 1) {
+			return 0;
+		}
+		if (length == 1) {
+			return buffer[offset] & 0xff;
+		}
+		return (buffer[offset] & 0xff) << 8 | buffer[offset + 1] & 0xff;
+	}
+
+	/** Analiza una fecha de la cabecera, codificada como el entero de tres octetos
+	 * cuya representaci&oacute;n decimal es MMDDYYYY.
+	 * @param buffer Codificaci&oacute;n del sello.
+	 * @param offset Posici&oacute;n de la fecha en la codificaci&oacute;n.
+	 * @param description Descripci&oacute;n de la fecha para los mensajes de error.
+	 * @return Fecha analizada. */
+	private static LocalDate parseHeaderDate(final byte[] buffer,
+			                                 final int offset,
+			                                 final String description) {
+		final int value = (buffer[offset] & 0xff) << 16 |
+			(buffer[offset + 1] & 0xff) << 8 |
+			 buffer[offset + 2] & 0xff;
+		final String date = value < 10000000 ? "0" + value : Integer.toString(value); //$NON-NLS-1$
+		try {
+			return LocalDate.parse(date, HEADER_DATE_FORMAT);
+		}
+		catch (final DateTimeException e) {
+			throw new IllegalArgumentException(
+				"La fecha de " + description + " es invalida (" + //$NON-NLS-1$ //$NON-NLS-2$
+					HexUtils.hexify(new byte[] { buffer[offset], buffer[offset + 1], buffer[offset + 2] }, false) +
+						", " + value + ")", e //$NON-NLS-1$ //$NON-NLS-2$
+			);
 		}
 	}
 
@@ -194,8 +252,9 @@ public final class Vdsned {
 		final byte integerTag = (byte) 0x02;
 		final byte sequenceTag = (byte) 0x30;
 
-		final Tlv rTlv = new Tlv(integerTag, r);
-		final Tlv sTlv = new Tlv(integerTag, s);
+		// Los enteros DER son con signo: se codifican R y S como positivos y minimos
+		final Tlv rTlv = new Tlv(integerTag, new BigInteger(1, r).toByteArray());
+		final Tlv sTlv = new Tlv(integerTag, new BigInteger(1, s).toByteArray());
 		final Tlv sequenceTlv = new Tlv(
 			sequenceTag,
 			HexUtils.concatenateByteArrays(
@@ -215,9 +274,22 @@ public final class Vdsned {
 	public void verifyEcDsaSignature(final PublicKey publicKey) throws NoSuchAlgorithmException,
 	                                                                   InvalidKeyException,
 	                                                                   SignatureException {
-		final Signature sig = Signature.getInstance(
-			DEFAULT_SIGNATURE_ALGORITHM
-		);
+		verifyEcDsaSignature(Signature.getInstance(DEFAULT_SIGNATURE_ALGORITHM), publicKey);
+	}
+
+	/** Comprueba la firma electr&oacute;nica de este sello con un objeto de
+	 * verificaci&oacute;n ya instanciado, que puede reutilizarse para varios sellos.
+	 * @param sig Objeto de verificaci&oacute;n <code>SHA256withECDSA</code>.
+	 * @param publicKey Clave p&uacute;lica de firma.
+	 * @throws InvalidKeyException Si la clave proporcionada no es v&aacute;lida para esta firma.
+	 * @throws SignatureException Si la firma es inv&aacute;lida o no se puede verificar. */
+	void verifyEcDsaSignature(final Signature sig, final PublicKey publicKey) throws InvalidKeyException,
+	                                                                                 SignatureException {
+		if (signature == null) {
+			throw new SignatureException(
+				"El sello no esta firmado" //$NON-NLS-1$
+			);
+		}
 		sig.initVerify(publicKey);
 		sig.update(dataTbs);
 		if (!sig.verify(signature)) {
@@ -227,15 +299,20 @@ public final class Vdsned {
 		}
 	}
 
+	/** Indica si el sello incluye firma electr&oacute;nica.
+	 * @return <code>true</code> si el sello est&aacute; firmado. */
+	public boolean isSigned() {
+		return signature != null;
+	}
+
 	@Override
 	public String toString() {
-		final SimpleDateFormat sdf = new SimpleDateFormat("dd/MM/yyyy"); //$NON-NLS-1$
 		return "Visible Digital Seal for Non-Electronic Documents\n" + //$NON-NLS-1$
 			" Version: " + version + '\n' + //$NON-NLS-1$
 			" Pais emisor: " + CountryCodes.getCountryName(issuingCountry) + '\n' + //$NON-NLS-1$
 			" Autoridad de certificacion y referencia: " + caCr + '\n' + //$NON-NLS-1$
-			" Fecha de emision del documento: " + sdf.format(documentIssueDate) + '\n' + //$NON-NLS-1$
-			" Fecha de creacion de la firma: " + sdf.format(signatureCreationDate) + '\n' + //$NON-NLS-1$
+			" Fecha de emision del documento: " + DISPLAY_DATE_FORMAT.format(documentIssueDate) + '\n' + //$NON-NLS-1$
+			" Fecha de creacion de la firma: " + DISPLAY_DATE_FORMAT.format(signatureCreationDate) + '\n' + //$NON-NLS-1$
 			" Referencia: " + documentFeatureDefinitionReference + '\n' + //$NON-NLS-1$
 			" Categoria: " + documentTypeCategory + '\n' + //$NON-NLS-1$
 			" MRZ-B: " + mrzB + '\n' + //$NON-NLS-1$
@@ -260,13 +337,17 @@ public final class Vdsned {
 	/** Obtiene la fecha de emisi&oacute;n del documento.
 	 * @return Fecha de emisi&oacute;n del documento. */
 	public Date getDocumentIssueDate() {
-		return documentIssueDate;
+		return toDate(documentIssueDate);
 	}
 
 	/** Obtiene la fecha de firma del documento.
 	 * @return Fecha de firma del documento. */
 	public Date getSignatureCreationDate() {
-		return signatureCreationDate;
+		return toDate(signatureCreationDate);
+	}
+
+	private static Date toDate(final LocalDate date) {
+		return Date.from(date.atStartOfDay(ZoneId.systemDefault()).toInstant());
 	}
 
 	/** Obtiene la referencia de definici&oacute;n de caracter&iacute;sticas del documento.
@@ -0,0 +1,146 @@
+package es.gob.jmulticard.card.icao.vdsned;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** M&eacute;tricas de un verificador de lotes de <i>Visible Digital Seals for Non-Electronic
+ * Documents</i>: cu&aacute;ntos sellos se han procesado y con qu&eacute; resultado, c&oacute;mo
+ * se ha comportado el almac&eacute;n de claves de firmantes y cu&aacute;ntos sellos por segundo
+ * se han verificado.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class VdsnedBatchMetrics {
+
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong valid = new AtomicLong();
+	private final AtomicLong invalid = new AtomicLong();
+	private final AtomicLong unknownSigner = new AtomicLong();
+	private final AtomicLong signerCertificateNotValid = new AtomicLong();
+	private final AtomicLong malformed = new AtomicLong();
+	private final AtomicLong signerHits = new AtomicLong();
+	private final AtomicLong signerMisses = new AtomicLong();
+	private final AtomicLong totalBatchNanos = new AtomicLong();
+
+	VdsnedBatchMetrics() {
+		// Solo se crean desde el verificador
+	}
+
+	void recordBatch(final long nanos) {
+		batches.incrementAndGet();
+		totalBatchNanos.addAndGet(nanos);
+	}
+
+	void recordResult(final VdsnedVerificationResult.Status status) {
+		switch (status) {
+			case VALID:
+				valid.incrementAndGet();
+				break;
+			case INVALID_SIGNATURE:
+				invalid.incrementAndGet();
+				break;
+			case UNKNOWN_SIGNER:
+				unknownSigner.incrementAndGet();
+				break;
+			case SIGNER_CERTIFICATE_NOT_VALID:
+				signerCertificateNotValid.incrementAndGet();
+				break;
+			default:
+				malformed.incrementAndGet();
+		}
+	}
+
+	void recordSignerHit() {
+		signerHits.incrementAndGet();
+	}
+
+	void recordSignerMiss() {
+		signerMisses.incrementAndGet();
+	}
+
+	/** Obtiene el n&uacute;mero de lotes verificados.
+	 * @return N&uacute;mero de lotes verificados. */
+	public long getBatchCount() {
+		return batches.get();
+	}
+
+	/** Obtiene el n&uacute;mero total de sellos procesados.
+	 * @return N&uacute;mero de sellos procesados. */
+	public long getSealCount() {
+		return valid.get() + invalid.get() + unknownSigner.get() + signerCertificateNotValid.get() + malformed.get();
+	}
+
+	/** Obtiene el n&uacute;mero de sellos con firma v&aacute;lida.
+	 * @return N&uacute;mero de sellos v&aacute;lidos. */
+	public long getValidCount() {
+		return valid.get();
+	}
+
+	/** Obtiene el n&uacute;mero de sellos con firma inv&aacute;lida o sin firma.
+	 * @return N&uacute;mero de sellos con firma inv&aacute;lida. */
+	public long getInvalidSignatureCount() {
+		return invalid.get();
+	}
+
+	/** Obtiene el n&uacute;mero de sellos cuyo firmante no se conoce.
+	 * @return N&uacute;mero de sellos de firmante desconocido. */
+	public long getUnknownSignerCount() {
+		return unknownSigner.get();
+	}
+
+	/** Obtiene el n&uacute;mero de sellos cuyo firmante ten&iacute;a un certificado no
+	 * v&aacute;lido en la fecha de creaci&oacute;n de la firma.
+	 * @return N&uacute;mero de sellos con certificado de firmante no v&aacute;lido. */
+	public long getSignerCertificateNotValidCount() {
+		return signerCertificateNotValid.get();
+	}
+
+	/** Obtiene el n&uacute;mero de sellos con codificaci&oacute;n incorrecta.
+	 * @return N&uacute;mero de sellos mal formados. */
+	public long getMalformedCount() {
+		return malformed.get();
+	}
+
+	/** Obtiene el n&uacute;mero de veces que la clave del firmante se ha encontrado en el
+	 * almac&eacute;n del verificador.
+	 * @return N&uacute;mero de aciertos del almac&eacute;n de firmantes. */
+	public long getSignerCacheHitCount() {
+		return signerHits.get();
+	}
+
+	/** Obtiene el n&uacute;mero de veces que la clave del firmante no estaba en el
+	 * almac&eacute;n del verificador y se ha tenido que buscar en el origen de certificados.
+	 * @return N&uacute;mero de fallos del almac&eacute;n de firmantes. */
+	public long getSignerCacheMissCount() {
+		return signerMisses.get();
+	}
+
+	/** Obtiene el tiempo total dedicado a verificar lotes.
+	 * @param unit Unidad en la que se desea el tiempo.
+	 * @return Tiempo total de verificaci&oacute;n. */
+	public long getTotalBatchTime(final TimeUnit unit) {
+		return unit.convert(totalBatchNanos.get(), TimeUnit.NANOSECONDS);
+	}
+
+	/** Obtiene el rendimiento medio de la verificaci&oacute;n.
+	 * @return Sellos procesados por segundo, o cero si no se ha verificado ning&uacute;n lote. */
+	public double getSealsPerSecond() {
+		final long nanos = totalBatchNanos.get();
+		if (nanos <= 0) {
+			return 0;
+		}
+		return getSealCount() * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+	}
+
+	@Override
+	public String toString() {
+		return "Verificacion de VDSNED: " + getBatchCount() + " lotes, " + //$NON-NLS-1$ //$NON-NLS-2$
+			getSealCount() + " sellos (" + //$NON-NLS-1$
+			getValidCount() + " validos, " + //$NON-NLS-1$
+			getInvalidSignatureCount() + " con firma invalida, " + //$NON-NLS-1$
+			getUnknownSignerCount() + " de firmante desconocido, " + //$NON-NLS-1$
+			getSignerCertificateNotValidCount() + " con certificado de firmante no valido, " + //$NON-NLS-1$
+			getMalformedCount() + " mal formados), " + //$NON-NLS-1$
+			Math.round(getSealsPerSecond()) + " sellos/s, almacen de firmantes: " + //$NON-NLS-1$
+			getSignerCacheHitCount() + " aciertos y " + //$NON-NLS-1$
+			getSignerCacheMissCount() + " fallos"; //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,435 @@
+package es.gob.jmulticard.card.icao.vdsned;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.CertificateExpiredException;
+import java.security.cert.CertificateNotYetValidException;
+import java.security.cert.X509Certificate;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.security.auth.x500.X500Principal;
+
+/** Verificador de lotes de <i>Visible Digital Seals for Non-Electronic Documents</i> de ICAO.
+ * Analiza y comprueba las firmas <code>SHA256withECDSA</code> de muchos sellos en paralelo,
+ * repartiendo cada lote en tantos tramos contiguos como hilos tenga el verificador (cada
+ * tramo reutiliza un &uacute;nico objeto de verificaci&oacute;n). Las claves de los firmantes
+ * se guardan por su referencia CA-CR, de forma que cada certificado se obtiene una sola vez.
+ * De los firmantes de los que se tiene el certificado se comprueba que este corresponde a la
+ * referencia CA-CR (pa&iacute;s del titular y n&uacute;mero de serie) y que era v&aacute;lido
+ * en la fecha de creaci&oacute;n de la firma de cada sello.
+ * Funciona sin conexi&oacute;n: los certificados se registran de antemano o se obtienen de un
+ * origen local proporcionado por la aplicaci&oacute;n.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class VdsnedBatchVerifier implements Closeable {
+
+	private static final Logger LOGGER = Logger.getLogger("es.gob.jmulticard"); //$NON-NLS-1$
+
+	/** Origen de los certificados de los firmantes de los sellos que no se han registrado
+	 * en el verificador (por ejemplo, un directorio o un almac&eacute;n de claves local). */
+	public interface SignerCertificateSource {
+
+		/** Obtiene el certificado de un firmante de sellos.
+		 * Los errores (incluidas las excepciones no comprobadas) se tratan como firmante
+		 * desconocido, y no se vuelve a consultar el mismo firmante en el resto del lote.
+		 * @param caCr Referencia CA-CR del firmante, tal y como aparece en el sello.
+		 * @return Certificado del firmante o <code>null</code> si no se conoce.
+		 * @throws IOException Si no se puede consultar el origen de certificados. */
+		X509Certificate getSignerCertificate(String caCr) throws IOException;
+	}
+
+	/** Firmante conocido: su clave p&uacute;blica y, si se dispone de &eacute;l, su certificado. */
+	private static final class Signer {
+
+		final PublicKey key;
+		final X509Certificate certificate;
+
+		Signer(final PublicKey k, final X509Certificate cert) {
+			key = k;
+			certificate = cert;
+		}
+	}
+
+	/** Longitud del identificador del firmante (pa&iacute;s y autoridad) al principio de la
+	 * referencia CA-CR. El resto es la referencia del certificado. */
+	private static final int SIGNER_IDENTIFIER_LENGTH = 4;
+
+	private static final Pattern SUBJECT_COUNTRY = Pattern.compile("(?:^|,)C=([A-Za-z]{2})(?:,|$)"); //$NON-NLS-1$
+
+	/** N&uacute;mero m&iacute;nimo de sellos por hilo por debajo del cual no compensa
+	 * repartir el lote. */
+	private static final int MIN_SEALS_PER_THREAD = 16;
+
+	private static final ThreadFactory DAEMON_THREADS = new ThreadFactory() {
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread t = new Thread(r, "jmulticard-vdsned"); //$NON-NLS-1$
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	private final int threads;
+
+	private final ExecutorService executor;
+
+	private final SignerCertificateSource certificateSource;
+
+	/** Firmantes por referencia CA-CR. */
+	private final Map<String, Signer> signers = new ConcurrentHashMap<>();
+
+	private final VdsnedBatchMetrics metrics = new VdsnedBatchMetrics();
+
+	/** Crea un verificador de lotes de sellos.
+	 * @param threadCount N&uacute;mero de hilos de verificaci&oacute;n.
+	 * @param source Origen de los certificados de firmantes no registrados, o
+	 *               <code>null</code> si solo se usan los registrados. */
+	public VdsnedBatchVerifier(final int threadCount, final SignerCertificateSource source) {
+		if (threadCount < 1) {
+			throw new IllegalArgumentException(
+				"El verificador debe tener al menos un hilo: " + threadCount //$NON-NLS-1$
+			);
+		}
+		threads = threadCount;
+		executor = threadCount > 1 ? Executors.newFixedThreadPool(threadCount, DAEMON_THREADS) : null;
+		certificateSource = source;
+	}
+
+	/** Crea un verificador de lotes de sellos con un hilo por procesador y que solo usa
+	 * los certificados registrados. */
+	public VdsnedBatchVerifier() {
+		this(Runtime.getRuntime().availableProcessors(), null);
+	}
+
+	/** Registra el certificado de un firmante de sellos.
+	 * Los sellos de este firmante solo se dan por v&aacute;lidos si el certificado lo era en
+	 * la fecha de creaci&oacute;n de su firma.
+	 * @param caCr Referencia CA-CR del firmante, tal y como aparece en los sellos.
+	 * @param cert Certificado del firmante.
+	 * @throws IllegalArgumentException Si el certificado no corresponde a la referencia CA-CR. */
+	public void registerSignerCertificate(final String caCr, final X509Certificate cert) {
+		checkCaCr(caCr);
+		if (cert == null) {
+			throw new IllegalArgumentException("El certificado del firmante no puede ser nulo"); //$NON-NLS-1$
+		}
+		if (!matchesCaCr(caCr, cert)) {
+			throw new IllegalArgumentException(
+				"El certificado del firmante no corresponde a la referencia CA-CR " + caCr //$NON-NLS-1$
+			);
+		}
+		signers.put(caCr, new Signer(cert.getPublicKey(), cert));
+	}
+
+	/** Registra la clave p&uacute;blica de un firmante de sellos.
+	 * Al no disponerse del certificado, no se comprueba su validez en la fecha de firma
+	 * de los sellos.
+	 * @param caCr Referencia CA-CR del firmante, tal y como aparece en los sellos.
+	 * @param key Clave p&uacute;blica del firmante. */
+	public void registerSignerKey(final String caCr, final PublicKey key) {
+		checkCaCr(caCr);
+		if (key == null) {
+			throw new IllegalArgumentException("La clave del firmante no puede ser nula"); //$NON-NLS-1$
+		}
+		signers.put(caCr, new Signer(key, null));
+	}
+
+	private static void checkCaCr(final String caCr) {
+		if (caCr == null || caCr.isEmpty()) {
+			throw new IllegalArgumentException("La referencia CA-CR no puede ser nula ni vacia"); //$NON-NLS-1$
+		}
+	}
+
+	/** Comprueba si un certificado corresponde a una referencia CA-CR: el pa&iacute;s del
+	 * titular debe ser el del identificador del firmante (sus dos primeros caracteres) y el
+	 * n&uacute;mero de serie el de la referencia del certificado (en hexadecimal, tras el
+	 * identificador del firmante).
+	 * @param caCr Referencia CA-CR.
+	 * @param cert Certificado.
+	 * @return <code>true</code> si el certificado corresponde a la referencia CA-CR. */
+	private static boolean matchesCaCr(final String caCr, final X509Certificate cert) {
+		if (caCr.length() <= SIGNER_IDENTIFIER_LENGTH) {
+			return false;
+		}
+		final Matcher country = SUBJECT_COUNTRY.matcher(
+			cert.getSubjectX500Principal().getName(X500Principal.RFC2253)
+		);
+		if (!country.find() || !country.group(1).equalsIgnoreCase(caCr.substring(0, 2))) {
+			return false;
+		}
+		final BigInteger certReference;
+		try {
+			certReference = new BigInteger(caCr.substring(SIGNER_IDENTIFIER_LENGTH), 16);
+		}
+		catch (final NumberFormatException e) {
+			return false;
+		}
+		return certReference.equals(cert.getSerialNumber());
+	}
+
+	/** Obtiene las m&eacute;tricas del verificador.
+	 * @return M&eacute;tricas acumuladas de todos los lotes verificados. */
+	public VdsnedBatchMetrics getMetrics() {
+		return metrics;
+	}
+
+	/** Analiza y verifica un lote de sellos.
+	 * Los errores de un sello no interrumpen la verificaci&oacute;n del resto: se indican
+	 * en su resultado.
+	 * Los firmantes que no se encuentran se recuerdan durante todo el lote, de forma que el
+	 * origen de certificados se consulta como mucho una vez por referencia CA-CR y lote.
+	 * @param seals Codificaciones binarias de los sellos.
+	 * @return Resultados de la verificaci&oacute;n, en el mismo orden que los sellos.
+	 * @throws NoSuchAlgorithmException Si no se soporta el algoritmo de firma de los sellos.
+	 * @throws InterruptedException Si se interrumpe la espera de la verificaci&oacute;n. */
+	public List<VdsnedVerificationResult> verify(final List<byte[]> seals) throws NoSuchAlgorithmException,
+	                                                                              InterruptedException {
+		if (seals == null) {
+			throw new IllegalArgumentException("La lista de sellos no puede ser nula"); //$NON-NLS-1$
+		}
+		final long start = System.nanoTime();
+		final VdsnedVerificationResult[] results = new VdsnedVerificationResult[seals.size()];
+		final Map<String, IOException> unknownSigners = new ConcurrentHashMap<>();
+		final int chunks = Math.min(threads, Math.max(1, seals.size() / MIN_SEALS_PER_THREAD));
+		if (chunks == 1 || executor == null) {
+			verifyRange(
+				seals,
+				results,
+				0,
+				seals.size(),
+				Signature.getInstance(Vdsned.DEFAULT_SIGNATURE_ALGORITHM),
+				unknownSigners
+			);
+		}
+		else {
+			// Se comprueba el algoritmo antes de repartir el lote
+			Signature.getInstance(Vdsned.DEFAULT_SIGNATURE_ALGORITHM);
+			final List<Future<Void>> pending = new ArrayList<>(chunks);
+			final int chunkSize = (seals.size() + chunks - 1) / chunks;
+			try {
+				for (int from = 0; from < seals.size(); from += chunkSize) {
+					final int first = from;
+					final int last = Math.min(seals.size(), from + chunkSize);
+					pending.add(
+						executor.submit(
+							new Callable<Void>() {
+								@Override
+								public Void call() throws NoSuchAlgorithmException {
+									verifyRange(
+										seals,
+										results,
+										first,
+										last,
+										Signature.getInstance(Vdsned.DEFAULT_SIGNATURE_ALGORITHM),
+										unknownSigners
+									);
+									return null;
+								}
+							}
+						)
+					);
+				}
+				for (final Future<Void> f : pending) {
+					f.get();
+				}
+			}
+			catch (final ExecutionException e) {
+				final Throwable cause = e.getCause();
+				if (cause instanceof NoSuchAlgorithmException) {
+					throw (NoSuchAlgorithmException) cause;
+				}
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				throw new IllegalStateException("Error en la verificacion del lote de sellos", cause); //$NON-NLS-1$
+			}
+			finally {
+				for (final Future<Void> f : pending) {
+					f.cancel(true);
+				}
+			}
+		}
+		metrics.recordBatch(System.nanoTime() - start);
+		return Arrays.asList(results);
+	}
+
+	private void verifyRange(final List<byte[]> seals,
+			                 final VdsnedVerificationResult[] results,
+			                 final int from,
+			                 final int to,
+			                 final Signature sig,
+			                 final Map<String, IOException> unknownSigners) {
+		for (int i = from; i < to; i++) {
+			results[i] = verifySeal(i, seals.get(i), sig, unknownSigners);
+			metrics.recordResult(results[i].getStatus());
+		}
+	}
+
+	private VdsnedVerificationResult verifySeal(final int index,
+			                                    final byte[] encoded,
+			                                    final Signature sig,
+			                                    final Map<String, IOException> unknownSigners) {
+		final Vdsned vdsned;
+		try {
+			vdsned = new Vdsned(encoded);
+		}
+		catch (final Exception e) {
+			return new VdsnedVerificationResult(index, null, VdsnedVerificationResult.Status.MALFORMED, e);
+		}
+		final Signer signer;
+		try {
+			signer = getSigner(vdsned.getCaCr(), unknownSigners);
+		}
+		catch (final IOException e) {
+			return new VdsnedVerificationResult(index, vdsned, VdsnedVerificationResult.Status.UNKNOWN_SIGNER, e);
+		}
+		if (signer.certificate != null) {
+			try {
+				checkValidity(signer.certificate, vdsned.getSignatureCreationDate());
+			}
+			catch (final CertificateExpiredException | CertificateNotYetValidException e) {
+				return new VdsnedVerificationResult(
+					index,
+					vdsned,
+					VdsnedVerificationResult.Status.SIGNER_CERTIFICATE_NOT_VALID,
+					e
+				);
+			}
+		}
+		try {
+			vdsned.verifyEcDsaSignature(sig, signer.key);
+		}
+		catch (final GeneralSecurityException e) {
+			return new VdsnedVerificationResult(index, vdsned, VdsnedVerificationResult.Status.INVALID_SIGNATURE, e);
+		}
+		return new VdsnedVerificationResult(index, vdsned, VdsnedVerificationResult.Status.VALID, null);
+	}
+
+	/** Comprueba que un certificado de firmante fuese v&aacute;lido en la fecha de creaci&oacute;n
+	 * de la firma de un sello. Como esta fecha no tiene hora, se compara por d&iacute;as con el
+	 * periodo de validez del certificado (en UTC), y el sello firmado el mismo d&iacute;a en el
+	 * que empieza o termina la validez del certificado se da por v&aacute;lido.
+	 * @param cert Certificado del firmante.
+	 * @param signatureCreationDate Fecha de creaci&oacute;n de la firma del sello.
+	 * @throws CertificateExpiredException Si el certificado caduc&oacute; antes de esa fecha.
+	 * @throws CertificateNotYetValidException Si el certificado a&uacute;n no era v&aacute;lido
+	 *                                         en esa fecha. */
+	private static void checkValidity(final X509Certificate cert,
+			                          final Date signatureCreationDate) throws CertificateExpiredException,
+	                                                                           CertificateNotYetValidException {
+		// Vdsned obtiene la fecha como el inicio del dia en la zona horaria del sistema
+		final LocalDate sealDate = signatureCreationDate.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+		final LocalDate notBefore = cert.getNotBefore().toInstant().atZone(ZoneOffset.UTC).toLocalDate();
+		final LocalDate notAfter = cert.getNotAfter().toInstant().atZone(ZoneOffset.UTC).toLocalDate();
+		if (sealDate.isBefore(notBefore)) {
+			throw new CertificateNotYetValidException(
+				"El certificado del firmante no es valido hasta el " + notBefore + //$NON-NLS-1$
+					" y el sello se firmo el " + sealDate //$NON-NLS-1$
+			);
+		}
+		if (sealDate.isAfter(notAfter)) {
+			throw new CertificateExpiredException(
+				"El certificado del firmante caduco el " + notAfter + //$NON-NLS-1$
+					" y el sello se firmo el " + sealDate //$NON-NLS-1$
+			);
+		}
+	}
+
+	/** Obtiene un firmante, busc&aacute;ndolo primero en el almac&eacute;n del verificador y
+	 * despu&eacute;s en el origen de certificados.
+	 * Si el firmante no se encuentra, el error se guarda en los firmantes desconocidos del
+	 * lote y se devuelve sin volver a consultar el origen en los siguientes sellos.
+	 * @param caCr Referencia CA-CR del firmante.
+	 * @param unknownSigners Errores de los firmantes desconocidos del lote, por referencia CA-CR.
+	 * @return Firmante.
+	 * @throws IOException Si no se conoce el firmante, si no se puede consultar el origen de
+	 *                     certificados o si el certificado que proporciona no corresponde a
+	 *                     la referencia CA-CR. */
+	private Signer getSigner(final String caCr,
+			                 final Map<String, IOException> unknownSigners) throws IOException {
+		final Signer known = signers.get(caCr);
+		if (known != null) {
+			metrics.recordSignerHit();
+			return known;
+		}
+		metrics.recordSignerMiss();
+		final IOException unknown = unknownSigners.get(caCr);
+		if (unknown != null) {
+			throw unknown;
+		}
+		final Signer signer;
+		try {
+			signer = lookUpSigner(caCr);
+		}
+		catch (final IOException e) {
+			unknownSigners.putIfAbsent(caCr, e);
+			throw e;
+		}
+		final Signer previous = signers.putIfAbsent(caCr, signer);
+		return previous != null ? previous : signer;
+	}
+
+	/** Obtiene un firmante del origen de certificados.
+	 * @param caCr Referencia CA-CR del firmante.
+	 * @return Firmante.
+	 * @throws IOException Si no se conoce el firmante, si el origen de certificados falla
+	 *                     (con cualquier excepci&oacute;n) o si el certificado que proporciona
+	 *                     no corresponde a la referencia CA-CR. */
+	private Signer lookUpSigner(final String caCr) throws IOException {
+		if (certificateSource == null) {
+			throw new IOException("No se conoce el firmante " + caCr); //$NON-NLS-1$
+		}
+		final X509Certificate cert;
+		try {
+			cert = certificateSource.getSignerCertificate(caCr);
+		}
+		catch (final RuntimeException e) {
+			throw new IOException(
+				"Error obteniendo el certificado del firmante " + caCr + " del origen de certificados", e //$NON-NLS-1$ //$NON-NLS-2$
+			);
+		}
+		if (cert == null) {
+			LOGGER.fine("No se ha encontrado el certificado del firmante de sellos " + caCr); //$NON-NLS-1$
+			throw new IOException("No se conoce el firmante " + caCr); //$NON-NLS-1$
+		}
+		if (!matchesCaCr(caCr, cert)) {
+			throw new IOException(
+				"El certificado obtenido para el firmante no corresponde a la referencia CA-CR " + caCr //$NON-NLS-1$
+			);
+		}
+		return new Signer(cert.getPublicKey(), cert);
+	}
+
+	@Override
+	public void close() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Verificador de lotes de VDSNED con " + threads + " hilos y " + //$NON-NLS-1$ //$NON-NLS-2$
+			signers.size() + " firmantes conocidos"; //$NON-NLS-1$
+	}
+}
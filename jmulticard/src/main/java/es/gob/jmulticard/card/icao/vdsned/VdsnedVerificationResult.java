@@ -0,0 +1,77 @@
+package es.gob.jmulticard.card.icao.vdsned;
+
+/** Resultado de la verificaci&oacute;n de un <i>Visible Digital Seal for Non-Electronic
+ * Documents</i> dentro de un lote.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class VdsnedVerificationResult {
+
+	/** Estado de la verificaci&oacute;n de un sello. */
+	public enum Status {
+
+		/** El sello es correcto y su firma es v&aacute;lida. */
+		VALID,
+
+		/** La firma del sello no es v&aacute;lida o el sello no est&aacute; firmado. */
+		INVALID_SIGNATURE,
+
+		/** No se dispone del certificado del firmante indicado en el sello. */
+		UNKNOWN_SIGNER,
+
+		/** El certificado del firmante no era v&aacute;lido (estaba caducado o a&uacute;n no
+		 * era v&aacute;lido) en la fecha de creaci&oacute;n de la firma del sello. */
+		SIGNER_CERTIFICATE_NOT_VALID,
+
+		/** La codificaci&oacute;n del sello es incorrecta. */
+		MALFORMED
+	}
+
+	private final int index;
+	private final Vdsned vdsned;
+	private final Status status;
+	private final Exception error;
+
+	VdsnedVerificationResult(final int idx,
+			                 final Vdsned seal,
+			                 final Status st,
+			                 final Exception e) {
+		index = idx;
+		vdsned = seal;
+		status = st;
+		error = e;
+	}
+
+	/** Obtiene la posici&oacute;n del sello dentro del lote.
+	 * @return Posici&oacute;n del sello dentro del lote. */
+	public int getIndex() {
+		return index;
+	}
+
+	/** Obtiene el sello analizado.
+	 * @return Sello analizado, o <code>null</code> si su codificaci&oacute;n es incorrecta. */
+	public Vdsned getVdsned() {
+		return vdsned;
+	}
+
+	/** Obtiene el estado de la verificaci&oacute;n.
+	 * @return Estado de la verificaci&oacute;n. */
+	public Status getStatus() {
+		return status;
+	}
+
+	/** Indica si el sello es correcto y su firma es v&aacute;lida.
+	 * @return <code>true</code> si el sello es v&aacute;lido. */
+	public boolean isValid() {
+		return status == Status.VALID;
+	}
+
+	/** Obtiene el error que ha hecho que el sello no sea v&aacute;lido.
+	 * @return Error de la verificaci&oacute;n, o <code>null</code> si el sello es v&aacute;lido. */
+	public Exception getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		return "Sello " + index + ": " + status + (error != null ? " (" + error + ")" : ""); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+	}
+}
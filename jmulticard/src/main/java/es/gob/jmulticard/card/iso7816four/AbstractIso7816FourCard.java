@@ -41,8 +41,13 @@ package es.gob.jmulticard.card.iso7816four;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 import java.util.logging.Logger;
 
 import javax.security.auth.callback.PasswordCallback;
@@ -62,6 +67,8 @@ import es.gob.jmulticard.card.Location;
 import es.gob.jmulticard.card.PinException;
 import es.gob.jmulticard.connection.ApduConnection;
 import es.gob.jmulticard.connection.ApduConnectionException;
+import es.gob.jmulticard.connection.AsyncApduConnection;
+import es.gob.jmulticard.connection.AsyncApduConnectionAdapter;
 import es.gob.jmulticard.connection.cwa14890.SecureChannelException;
 
 /** Tarjeta compatible ISO-7816-4.
@@ -81,9 +88,35 @@ public abstract class AbstractIso7816FourCard extends AbstractSmartCard {
     /** El <i>offset</i> sobrepasa el l&iacute;mite de tama&ntilde;o del EF. */
     private static final StatusWord SW_OFFSET_OUTSIDE_EF = new StatusWord((byte) 0x6B, (byte) 0x00);
 
-    /** Tama&ntilde;o m&aacute;ximo de datos que se puede leer en una &uacute;nica APDU. */
+    /** Tama&ntilde;o m&aacute;ximo de datos que se puede leer en una &uacute;nica APDU de longitud corta. */
     private static final int MAX_READ_CHUNK = 0xDE;
 
+    /** Tama&ntilde;o m&aacute;ximo de datos que se puede leer en una &uacute;nica APDU de longitud extendida. */
+    private static final int MAX_EXTENDED_READ_CHUNK = 0xFFFF;
+
+    /** Mayor Le que puede indicarse en una APDU de longitud corta. */
+    private static final int MAX_SHORT_LE = 0xFF;
+
+    /** N&uacute;mero m&aacute;ximo de octetos de datos que la tarjeta puede devolver en
+     * una APDU de respuesta de longitud extendida, o <code>0</code> si solo admite APDU cortas. */
+    private int maxCardResponseDataSize = ExtendedLengthInfo.SHORT_LENGTH_ONLY;
+
+    /** Instrucci&oacute;n (INS) de las APDU de selecci&oacute;n de fichero. */
+    private static final byte INS_SELECT = (byte) 0xA4;
+
+    /** Indica si se recuerda el &uacute;ltimo fichero seleccionado para minimizar las selecciones. */
+    private boolean selectionCacheEnabled = false;
+
+    /** Identificadores (desde el MF) del &uacute;ltimo fichero seleccionado por ruta, o
+     * <code>null</code> si se desconoce cu&aacute;l es el fichero actualmente seleccionado. */
+    private List<byte[]> selectedPath = null;
+
+    /** Tama&ntilde;o del &uacute;ltimo fichero seleccionado por ruta. */
+    private int selectedFileLength = 0;
+
+    /** Indica si se sabe que el &uacute;ltimo fichero seleccionado es un EF (se ha le&iacute;do su contenido). */
+    private boolean selectedFileIsEf = false;
+
     /** <code>Logger</code> por defecto. */
     private static final Logger LOGGER = Logger.getLogger("es.gob.jmulticard"); //$NON-NLS-1$
 
@@ -94,6 +127,77 @@ public abstract class AbstractIso7816FourCard extends AbstractSmartCard {
         super(c, conn);
     }
 
+    /** Establece el n&uacute;mero m&aacute;ximo de octetos de datos que la tarjeta puede
+     * devolver en una APDU de respuesta de longitud extendida, tal y como se declare en
+     * su ATR o en su EF.ATR/INFO (ver <code>ExtendedLengthInfo</code>).
+     * @param maxResponseDataSize N&uacute;mero m&aacute;ximo de octetos de datos de respuesta, o
+     *                            <code>0</code> si la tarjeta solo admite APDU cortas. */
+    protected void setMaxCardResponseDataSize(final int maxResponseDataSize) {
+    	maxCardResponseDataSize = maxResponseDataSize;
+    }
+
+    /** Habilita o deshabilita que se recuerde el fichero actualmente seleccionado, de forma que
+     * las selecciones por ruta solo env&iacute;en las APDU de selecci&oacute;n imprescindibles
+     * (ninguna si el fichero ya est&aacute; seleccionado, o solo las relativas al DF actual).
+     * Solo debe habilitarse en tarjetas que seleccionen ficheros &uacute;nicamente mediante los
+     * m&eacute;todos de esta clase o mediante <code>sendArbitraryApdu()</code>, y cuya conexi&oacute;n
+     * no compartan otros objetos.
+     * @param enable <code>true</code> para recordar el fichero seleccionado, <code>false</code>
+     *               para seleccionar siempre la ruta completa desde el MF. */
+    protected void setSelectionCacheEnabled(final boolean enable) {
+    	selectionCacheEnabled = enable;
+    	invalidateSelectionCache();
+    }
+
+    /** Olvida cu&aacute;l es el fichero actualmente seleccionado, de forma que la siguiente
+     * selecci&oacute;n por ruta se haga completa desde el MF.
+     * Debe llamarse siempre que la tarjeta pueda haber cambiado de fichero actual por
+     * medios ajenos a esta clase (reinicios, cambios de canal seguro, etc.). */
+    public void invalidateSelectionCache() {
+    	selectedPath = null;
+    	selectedFileLength = 0;
+    	selectedFileIsEf = false;
+    }
+
+    @Override
+    protected void setConnection(final ApduConnection conn) throws ApduConnectionException {
+    	// Un cambio de conexion (apertura o cierre de canal seguro) puede cambiar el fichero actual
+    	invalidateSelectionCache();
+    	super.setConnection(conn);
+    }
+
+    @Override
+    protected ResponseApdu sendArbitraryApdu(final CommandApdu apdu) throws ApduConnectionException {
+    	if (apdu.getIns() == INS_SELECT) {
+    		invalidateSelectionCache();
+    	}
+    	try {
+    		return super.sendArbitraryApdu(apdu);
+    	}
+    	catch (final ApduConnectionException e) {
+    		invalidateSelectionCache();
+    		throw e;
+    	}
+    }
+
+    /** Obtiene el tama&ntilde;o de los bloques en los que se leen los ficheros.
+     * Si tanto la tarjeta como la conexi&oacute;n admiten APDU de longitud extendida
+     * se usan bloques tan grandes como ambas permitan, y en otro caso bloques que
+     * quepan en una APDU de respuesta corta (incluso si se usa un canal seguro).
+     * @return Tama&ntilde;o de bloque de lectura. */
+    protected int getReadChunkSize() {
+    	if (maxCardResponseDataSize > MAX_SHORT_LE + 1) {
+    		final int connMax = getConnection().getMaxResponseDataSize();
+    		if (connMax > MAX_SHORT_LE + 1) {
+    			return Math.min(
+					MAX_EXTENDED_READ_CHUNK,
+					Math.min(connMax, maxCardResponseDataSize)
+				);
+    		}
+    	}
+    	return MAX_READ_CHUNK;
+    }
+
     /** Lee un contenido binario del fichero actualmente seleccionado.
      * @param msbOffset Octeto m&aacute;s significativo del desplazamiento
      *                  (<i>offset</i>) hasta el punto de inicio de la lectura desde
@@ -110,15 +214,39 @@ public abstract class AbstractIso7816FourCard extends AbstractSmartCard {
      *                                  para la lectura caen fuera de los l&iacute;mites del fichero. */
     private ResponseApdu readBinary(final byte msbOffset,
     		                        final byte lsbOffset,
-    		                        final byte readLength) throws ApduConnectionException,
+    		                        final int readLength) throws ApduConnectionException,
                                                                   RequiredSecurityStateNotSatisfiedException,
                                                                   OffsetOutsideEfException {
     	final CommandApdu apdu = new ReadBinaryApduCommand(
 			getCla(), msbOffset, lsbOffset, readLength
 		);
-    	final ResponseApdu res = getConnection().transmit(
-			apdu
-		);
+    	final ResponseApdu res;
+    	try {
+    		res = getConnection().transmit(
+				apdu
+			);
+    	}
+    	catch (final ApduConnectionException e) {
+    		invalidateSelectionCache();
+    		throw e;
+    	}
+    	return checkReadBinaryResponse(apdu, res);
+    }
+
+    /** Comprueba la respuesta a una APDU de lectura de binario.
+     * @param apdu APDU de lectura de binario enviada.
+     * @param res APDU de respuesta.
+     * @return La propia APDU de respuesta si es correcta o indica que se ha alcanzado el final
+     *         del fichero.
+     * @throws ApduConnectionException Si la respuesta indica cualquier otro error.
+     * @throws RequiredSecurityStateNotSatisfiedException Si la lectura requiere el cumplimiento
+     *                        de una condici&oacute;n de seguridad y esta no se ha satisfecho.
+     * @throws OffsetOutsideEfException Si el desplazamiento indicado o el tama&ntilde;o indicados
+     *                                  para la lectura caen fuera de los l&iacute;mites del fichero. */
+    private static ResponseApdu checkReadBinaryResponse(final CommandApdu apdu,
+    		                                            final ResponseApdu res) throws ApduConnectionException,
+                                                                                        RequiredSecurityStateNotSatisfiedException,
+                                                                                        OffsetOutsideEfException {
         if (res.isOk()) {
         	return res;
         }
@@ -158,60 +286,147 @@ public abstract class AbstractIso7816FourCard extends AbstractSmartCard {
     }
 
     /** Lee por completo el contenido binario del fichero actualmente seleccionado.
+     * La lectura se hace con el cerrojo de la tarjeta, pero para que otros hilos no cambien el
+     * fichero seleccionado entre la selecci&oacute;n y la lectura debe usarse
+     * <code>selectFileByLocationAndRead()</code>, o tener ya adquirido el cerrojo.
      * @param len Longitud del fichero a leer.
      * @return APDU de respuesta.
      * @throws ApduConnectionException Si hay problemas en el env&iacute;o de la APDU.
      * @throws IOException Si hay problemas en el <i>buffer</i> de lectura. */
     public byte[] readBinaryComplete(final int len) throws IOException {
+    	final ByteArrayOutputStream out = new ByteArrayOutputStream(len);
+    	readBinaryComplete(len, out);
+    	return out.toByteArray();
+    }
 
-        int off = 0;
-        ResponseApdu readedResponse;
-        final ByteArrayOutputStream out = new ByteArrayOutputStream();
-
-        // Leemos en iteraciones de MAX_READ_CHUNK bytes
-        while (off < len) {
-            final byte msbOffset = (byte)(off >> 8);
-            final byte lsbOffset = (byte)(off & 0xFF);
-            final int left = len - off;
-            try {
-	            if (left < MAX_READ_CHUNK) { // Si es menor que el maximo que podemos leer por iteracion
-	                readedResponse = readBinary(msbOffset, lsbOffset, (byte) left);
-	            }
-	            else {
-	                readedResponse = readBinary(msbOffset, lsbOffset, (byte) MAX_READ_CHUNK);
-	            }
-            }
-            catch(final OffsetOutsideEfException e) {
-            	LOGGER.warning(
-        			"Se ha intentado una lectura fuera de los limites del fichero, se devolvera lo leido hasta ahora: " + e //$NON-NLS-1$
-    			);
-            	return out.toByteArray();
+    /** Lee por completo el contenido binario del fichero actualmente seleccionado, escribiendo
+     * cada bloque en el flujo de salida seg&uacute;n se recibe de la tarjeta (por ejemplo, para
+     * calcular su huella digital sin esperar a tener el fichero completo).
+     * La lectura se hace con el cerrojo de la tarjeta, pero para que otros hilos no cambien el
+     * fichero seleccionado entre la selecci&oacute;n y la lectura debe usarse
+     * <code>selectFileByLocationAndRead()</code>, o tener ya adquirido el cerrojo.
+     * @param len Longitud del fichero a leer.
+     * @param out Flujo en el que se escribe el contenido del fichero.
+     * @return N&uacute;mero de octetos le&iacute;dos, que puede ser menor que <code>len</code>
+     *         si el fichero termina antes.
+     * @throws ApduConnectionException Si hay problemas en el env&iacute;o de la APDU.
+     * @throws IOException Si hay problemas en la lectura o en el flujo de salida. */
+    public int readBinaryComplete(final int len, final OutputStream out) throws IOException {
+    	getCardLock().lock();
+    	try {
+            int off = 0;
+            ResponseApdu readedResponse;
+            final int chunkSize = getReadChunkSize();
+
+            // Leemos en iteraciones de chunkSize bytes
+            while (off < len) {
+                final byte msbOffset = (byte)(off >> 8);
+                final byte lsbOffset = (byte)(off & 0xFF);
+                try {
+                    readedResponse = readBinary(msbOffset, lsbOffset, getReadLength(len - off, chunkSize));
+                }
+                catch(final OffsetOutsideEfException e) {
+                	LOGGER.warning(
+            			"Se ha intentado una lectura fuera de los limites del fichero, se devolvera lo leido hasta ahora: " + e //$NON-NLS-1$
+    				);
+                	return off;
+                }
+                catch (final RequiredSecurityStateNotSatisfiedException e) {
+					throw new IOException(
+						"Condicion de seguridad no satisfecha", e //$NON-NLS-1$
+					);
+				}
+
+                final byte[] data = getReadData(readedResponse);
+                final int readed = Math.min(data.length, len - off);
+                out.write(data, 0, readed);
+                off += readed;
+
+                // Si hemos llegado al final (o la tarjeta no devuelve mas datos) no seguimos leyendo
+                if (SW_EOF_REACHED.equals(readedResponse.getStatusWord()) || readed == 0) {
+                	break;
+                }
             }
-            catch (final RequiredSecurityStateNotSatisfiedException e) {
-				throw new IOException(
-					"Condicion de seguridad no satisfecha", e //$NON-NLS-1$
-				);
-			}
 
-            final boolean eofReached = SW_EOF_REACHED.equals(readedResponse.getStatusWord());
-
-            if (!readedResponse.isOk() && !eofReached) {
-                throw new IOException(
-            		"Error leyendo el binario (" + readedResponse.getStatusWord() + ")" //$NON-NLS-1$ //$NON-NLS-2$
-        		);
-            }
+            return off;
+    	}
+    	finally {
+    		getCardLock().unlock();
+    	}
+    }
 
-            out.write(readedResponse.getData());
+    /** Lee por completo el contenido binario del fichero actualmente seleccionado sin bloquear
+     * al hilo llamante.
+     * Si la conexi&oacute;n con la tarjeta (o la conexi&oacute;n sobre la que est&aacute; abierto
+     * su canal seguro) es un <code>AsyncApduConnectionAdapter</code>, la lectura completa se encola
+     * como una &uacute;nica operaci&oacute;n en su hilo de entrada/salida, que la hace con el cerrojo
+     * de la tarjeta, de forma que no se intercala con las operaciones de otros hilos. En otro
+     * caso, la lectura se hace de forma s&iacute;ncrona y se devuelve ya completada.
+     * Como la lectura adquiere el cerrojo de la tarjeta, no debe esperarse a su resultado
+     * teniendo ya adquirido el cerrojo.
+     * @param len Longitud del fichero a leer.
+     * @return Contenido futuro del fichero. Si la lectura falla, se completa con la
+     *         <code>IOException</code> correspondiente. */
+    public CompletableFuture<byte[]> readBinaryCompleteAsync(final int len) {
+    	final AsyncApduConnection conn = AsyncApduConnectionAdapter.getAsyncConnection(getConnection());
+    	if (conn == null) {
+    		final CompletableFuture<byte[]> ret = new CompletableFuture<>();
+    		try {
+    			ret.complete(readBinaryComplete(len));
+    		}
+    		catch (final IOException e) {
+    			ret.completeExceptionally(e);
+    		}
+    		return ret;
+    	}
+    	return conn.submitAsync(
+			new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws IOException {
+					return readBinaryComplete(len);
+				}
+			}
+		).whenComplete(
+			new BiConsumer<byte[], Throwable>() {
+				@Override
+				public void accept(final byte[] data, final Throwable t) {
+					if (t != null) {
+						invalidateSelectionCache();
+					}
+				}
+			}
+		);
+    }
 
-            off += MAX_READ_CHUNK;
+    /** Obtiene la longitud a pedir en la siguiente lectura de un bloque de fichero.
+     * @param remaining Octetos que quedan por leer.
+     * @param chunkSize Tama&ntilde;o de los bloques de lectura.
+     * @return Longitud a pedir. */
+    private static int getReadLength(final int remaining, final int chunkSize) {
+        final int toRead = Math.min(remaining, chunkSize);
+        // Un bloque que no quepa en una respuesta corta (por ejemplo con canal seguro)
+        // pero que se pida con Le corto se lee en dos
+        if (toRead > MAX_READ_CHUNK && toRead <= MAX_SHORT_LE) {
+        	return MAX_READ_CHUNK;
+        }
+        return toRead;
+    }
 
-            // Si hemos llegado al final no seguimos leyendo
-            if (eofReached) {
-            	break;
-            }
+    /** Obtiene los datos de la respuesta a una lectura de binario.
+     * @param res APDU de respuesta a la lectura.
+     * @return Datos le&iacute;dos.
+     * @throws IOException Si la respuesta indica un error. */
+    private byte[] getReadData(final ResponseApdu res) throws IOException {
+        if (!res.isOk() && !SW_EOF_REACHED.equals(res.getStatusWord())) {
+            throw new IOException(
+        		"Error leyendo el binario (" + res.getStatusWord() + ")" //$NON-NLS-1$ //$NON-NLS-2$
+    		);
         }
 
-        return out.toByteArray();
+        // Si se ha podido leer, el fichero seleccionado es un EF
+        selectedFileIsEf = true;
+
+        return res.getData();
     }
 
 	/** Selecciona un fichero por nombre.
@@ -233,6 +448,7 @@ public abstract class AbstractIso7816FourCard extends AbstractSmartCard {
     public int selectFileByName(final byte[] name) throws ApduConnectionException,
                                                           FileNotFoundException,
                                                           Iso7816FourCardException {
+    	invalidateSelectionCache();
     	final CommandApdu selectCommand = new SelectDfByNameApduCommand(getCla(), name);
     	final ResponseApdu response = sendArbitraryApdu(selectCommand);
     	if (response.isOk()) {
@@ -252,6 +468,7 @@ public abstract class AbstractIso7816FourCard extends AbstractSmartCard {
      * @throws Iso7816FourCardException Si falla la selecci&oacute;n de fichero. */
     public int selectFileById(final byte[] id) throws ApduConnectionException,
                                                       Iso7816FourCardException {
+    	invalidateSelectionCache();
     	final CommandApdu selectCommand = new SelectFileByIdApduCommand(getCla(), id);
 		final ResponseApdu res = getConnection().transmit(selectCommand);
 		if (SW_FILE_NOT_FOUND.equals(res.getStatusWord())) {
@@ -279,8 +496,14 @@ public abstract class AbstractIso7816FourCard extends AbstractSmartCard {
      * @throws IOException Si hay problemas en el <i>buffer</i> de lectura. */
     public byte[] selectFileByIdAndRead(final byte[] id) throws Iso7816FourCardException,
                                                                 IOException {
-        final int fileLength = selectFileById(id);
-        return readBinaryComplete(fileLength);
+    	getCardLock().lock();
+    	try {
+            final int fileLength = selectFileById(id);
+            return readBinaryComplete(fileLength);
+    	}
+    	finally {
+    		getCardLock().unlock();
+    	}
     }
 
     /** Selecciona un fichero (DF o EF).
@@ -290,15 +513,70 @@ public abstract class AbstractIso7816FourCard extends AbstractSmartCard {
      * @throws Iso7816FourCardException Si falla la selecci&oacute;n de fichero */
     public int selectFileByLocation(final Location location) throws ApduConnectionException,
                                                                     Iso7816FourCardException {
-        int fileLength = 0;
-        Location loc = location;
-        selectMasterFile();
-        while (loc != null) {
-            final byte[] id = loc.getFile();
-            fileLength = selectFileById(id);
-            loc = loc.getChild();
-        }
-        return fileLength;
+    	getCardLock().lock();
+    	try {
+    		final List<byte[]> path = new ArrayList<>();
+            Location loc = location;
+            while (loc != null) {
+                path.add(loc.getFile());
+                loc = loc.getChild();
+            }
+
+            int start = -1;
+            if (selectionCacheEnabled && selectedPath != null) {
+            	// El fichero ya esta seleccionado
+            	if (selectedPath.size() == path.size() && isPrefix(selectedPath, selectedPath.size(), path)) {
+            		return selectedFileLength;
+            	}
+            	// El DF actual es un antecesor del fichero, basta con seleccionar el resto de la ruta
+            	final int currentDfDepth = selectedFileIsEf ? selectedPath.size() - 1 : selectedPath.size();
+            	if (currentDfDepth < path.size() && isPrefix(selectedPath, currentDfDepth, path)) {
+            		start = currentDfDepth;
+            	}
+            }
+
+            int fileLength = 0;
+            try {
+		        if (start == -1) {
+		        	selectMasterFile();
+		        	start = 0;
+		        }
+		        for (int i = start; i < path.size(); i++) {
+		            fileLength = selectFileById(path.get(i));
+		        }
+            }
+            catch (final ApduConnectionException | Iso7816FourCardException e) {
+            	invalidateSelectionCache();
+            	throw e;
+            }
+
+            if (selectionCacheEnabled) {
+            	selectedPath = path;
+            	selectedFileLength = fileLength;
+            	selectedFileIsEf = false;
+            }
+            return fileLength;
+    	}
+    	finally {
+    		getCardLock().unlock();
+    	}
+    }
+
+    /** Indica si los primeros elementos de una ruta coinciden con los de otra.
+     * @param prefix Ruta que debe ser prefijo.
+     * @param prefixLength N&uacute;mero de elementos de <code>prefix</code> a comparar.
+     * @param path Ruta completa.
+     * @return <code>true</code> si los <code>prefixLength</code> primeros elementos coinciden. */
+    private static boolean isPrefix(final List<byte[]> prefix, final int prefixLength, final List<byte[]> path) {
+    	if (prefixLength > path.size()) {
+    		return false;
+    	}
+    	for (int i = 0; i < prefixLength; i++) {
+    		if (!Arrays.equals(prefix.get(i), path.get(i))) {
+    			return false;
+    		}
+    	}
+    	return true;
     }
 
     /** Selecciona un fichero y lo lee por completo.
@@ -309,8 +587,35 @@ public abstract class AbstractIso7816FourCard extends AbstractSmartCard {
      * @throws IOException Si hay problemas en el <i>buffer</i> de lectura. */
     public byte[] selectFileByLocationAndRead(final Location location) throws IOException,
                                                                               Iso7816FourCardException {
-        final int fileLenght = selectFileByLocation(location);
-        return readBinaryComplete(fileLenght);
+    	getCardLock().lock();
+    	try {
+            final int fileLenght = selectFileByLocation(location);
+            return readBinaryComplete(fileLenght);
+    	}
+    	finally {
+    		getCardLock().unlock();
+    	}
+    }
+
+    /** Selecciona un fichero y lo lee por completo, escribiendo cada bloque en el flujo de
+     * salida seg&uacute;n se recibe de la tarjeta.
+     * @param location Ruta absoluta del fichero a leer.
+     * @param out Flujo en el que se escribe el contenido del fichero.
+     * @return N&uacute;mero de octetos le&iacute;dos.
+     * @throws ApduConnectionException Si hay problemas en el env&iacute;o de la APDU.
+     * @throws Iso7816FourCardException Si falla la selecci&oacute;n de fichero.
+     * @throws IOException Si hay problemas en la lectura o en el flujo de salida. */
+    public int selectFileByLocationAndRead(final Location location,
+    		                               final OutputStream out) throws IOException,
+                                                                      Iso7816FourCardException {
+    	getCardLock().lock();
+    	try {
+            final int fileLenght = selectFileByLocation(location);
+            return readBinaryComplete(fileLenght, out);
+    	}
+    	finally {
+    		getCardLock().unlock();
+    	}
     }
 
     /** Selecciona el fichero maestro (directorio ra&iacute;z de la tarjeta).
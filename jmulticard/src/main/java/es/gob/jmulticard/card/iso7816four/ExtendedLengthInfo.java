@@ -0,0 +1,182 @@
+package es.gob.jmulticard.card.iso7816four;
+
+/** Utilidades para determinar si una tarjeta admite APDU de longitud extendida
+ * (ISO 7816-4, apartado 5.1), a partir de su ATR o de su fichero EF.ATR/INFO.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class ExtendedLengthInfo {
+
+	/** Valor que indica que la tarjeta solo admite APDU de longitud corta. */
+	public static final int SHORT_LENGTH_ONLY = 0;
+
+	/** N&uacute;mero m&aacute;ximo de octetos de datos de respuesta que se asume para
+	 * una tarjeta que declara admitir longitud extendida sin indicar l&iacute;mites. */
+	private static final int MAX_EXTENDED_RESPONSE_DATA_SIZE = 0x10000;
+
+	/** Indicador de categor&iacute;a de los octetos hist&oacute;ricos con objetos COMPACT-TLV
+	 * seguidos de tres octetos de estado. */
+	private static final int CATEGORY_COMPACT_TLV_WITH_STATUS = 0x00;
+
+	/** Indicador de categor&iacute;a de los octetos hist&oacute;ricos con objetos COMPACT-TLV. */
+	private static final int CATEGORY_COMPACT_TLV = 0x80;
+
+	/** Etiqueta COMPACT-TLV de las capacidades de la tarjeta. */
+	private static final int COMPACT_TAG_CARD_CAPABILITIES = 0x07;
+
+	/** Etiqueta BER-TLV de las capacidades de la tarjeta en el EF.ATR/INFO. */
+	private static final int TAG_CARD_CAPABILITIES = 0x47;
+
+	/** Etiqueta BER-TLV de la informaci&oacute;n de longitud extendida en el EF.ATR/INFO. */
+	private static final int TAG_EXTENDED_LENGTH_INFO = 0x7F66;
+
+	/** Etiqueta BER-TLV de un entero. */
+	private static final int TAG_INTEGER = 0x02;
+
+	/** Bit del tercer octeto de capacidades que indica soporte de Lc y Le extendidos. */
+	private static final int EXTENDED_LC_LE_BIT = 0x40;
+
+	private ExtendedLengthInfo() {
+		// No instanciable
+	}
+
+	/** Obtiene, a partir del ATR de una tarjeta, el n&uacute;mero m&aacute;ximo de octetos de
+	 * datos que puede devolver en una APDU de respuesta de longitud extendida.
+	 * @param atr ATR de la tarjeta.
+	 * @return N&uacute;mero m&aacute;ximo de octetos de datos de respuesta, o
+	 *         <code>SHORT_LENGTH_ONLY</code> si el ATR no declara soporte de longitud extendida. */
+	public static int getMaxResponseDataSizeFromAtr(final byte[] atr) {
+		if (atr == null || atr.length < 2) {
+			return SHORT_LENGTH_ONLY;
+		}
+
+		// Saltamos los octetos de interfaz para llegar a los historicos
+		final int historicalLength = atr[1] & 0x0f;
+		int y = atr[1] >> 4 & 0x0f;
+		int i = 2;
+		while (true) {
+			i += Integer.bitCount(y & 0x07);
+			if ((y & 0x08) == 0) {
+				break;
+			}
+			if (i >= atr.length) {
+				return SHORT_LENGTH_ONLY;
+			}
+			y = atr[i] >> 4 & 0x0f;
+			i++;
+		}
+		if (historicalLength == 0 || i + historicalLength > atr.length) {
+			return SHORT_LENGTH_ONLY;
+		}
+
+		final int category = atr[i] & 0xff;
+		final int end;
+		if (category == CATEGORY_COMPACT_TLV) {
+			end = i + historicalLength;
+		}
+		else if (category == CATEGORY_COMPACT_TLV_WITH_STATUS) {
+			end = i + historicalLength - 3;
+		}
+		else {
+			return SHORT_LENGTH_ONLY;
+		}
+
+		int pos = i + 1;
+		while (pos < end) {
+			final int tag = atr[pos] >> 4 & 0x0f;
+			final int len = atr[pos] & 0x0f;
+			if (pos + 1 + len > end) {
+				break;
+			}
+			if (tag == COMPACT_TAG_CARD_CAPABILITIES && len >= 3 &&
+					(atr[pos + 3] & EXTENDED_LC_LE_BIT) != 0) {
+				return MAX_EXTENDED_RESPONSE_DATA_SIZE;
+			}
+			pos += 1 + len;
+		}
+		return SHORT_LENGTH_ONLY;
+	}
+
+	/** Obtiene, a partir del contenido del EF.ATR/INFO de una tarjeta, el n&uacute;mero
+	 * m&aacute;ximo de octetos de datos que puede devolver en una APDU de respuesta de
+	 * longitud extendida.
+	 * @param atrInfo Contenido del EF.ATR/INFO.
+	 * @return N&uacute;mero m&aacute;ximo de octetos de datos de respuesta, o
+	 *         <code>SHORT_LENGTH_ONLY</code> si el EF.ATR/INFO no declara soporte de longitud extendida. */
+	public static int getMaxResponseDataSizeFromAtrInfo(final byte[] atrInfo) {
+		if (atrInfo == null) {
+			return SHORT_LENGTH_ONLY;
+		}
+		boolean extendedDeclared = false;
+		int pos = 0;
+		while (pos < atrInfo.length) {
+			// Etiqueta de uno o dos octetos
+			int tag = atrInfo[pos++] & 0xff;
+			if (tag == 0x00 || tag == 0xff) {
+				// Relleno
+				continue;
+			}
+			if ((tag & 0x1f) == 0x1f && pos < atrInfo.length) {
+				tag = tag << 8 | atrInfo[pos++] & 0xff;
+			}
+			if (pos >= atrInfo.length) {
+				break;
+			}
+			// Longitud
+			int len = atrInfo[pos++] & 0xff;
+			if (len > 0x80) {
+				final int lenBytes = len & 0x7f;
+				if (lenBytes > 2 || pos + lenBytes > atrInfo.length) {
+					break;
+				}
+				len = 0;
+				for (int j = 0; j < lenBytes; j++) {
+					len = len << 8 | atrInfo[pos++] & 0xff;
+				}
+			}
+			if (pos + len > atrInfo.length) {
+				break;
+			}
+			if (tag == TAG_EXTENDED_LENGTH_INFO) {
+				final int maxResponse = getExtendedLengthInfoMaxResponse(atrInfo, pos, len);
+				if (maxResponse > 0) {
+					return maxResponse;
+				}
+				extendedDeclared = true;
+			}
+			else if (tag == TAG_CARD_CAPABILITIES && len >= 3 &&
+					(atrInfo[pos + 2] & EXTENDED_LC_LE_BIT) != 0) {
+				extendedDeclared = true;
+			}
+			pos += len;
+		}
+		return extendedDeclared ? MAX_EXTENDED_RESPONSE_DATA_SIZE : SHORT_LENGTH_ONLY;
+	}
+
+	/** Obtiene el tama&ntilde;o m&aacute;ximo de respuesta de un objeto de informaci&oacute;n
+	 * de longitud extendida, que contiene dos enteros: tama&ntilde;o m&aacute;ximo de comando
+	 * y tama&ntilde;o m&aacute;ximo de respuesta.
+	 * @param buf Datos que contienen el objeto.
+	 * @param off Posici&oacute;n del valor del objeto.
+	 * @param len Longitud del valor del objeto.
+	 * @return Tama&ntilde;o m&aacute;ximo de respuesta o <code>-1</code> si no se indica. */
+	private static int getExtendedLengthInfoMaxResponse(final byte[] buf, final int off, final int len) {
+		int pos = off;
+		int integerCount = 0;
+		while (pos + 2 <= off + len) {
+			final int tag = buf[pos] & 0xff;
+			final int l = buf[pos + 1] & 0xff;
+			if (tag != TAG_INTEGER || l > 4 || pos + 2 + l > off + len) {
+				return -1;
+			}
+			integerCount++;
+			if (integerCount == 2) {
+				int value = 0;
+				for (int j = 0; j < l; j++) {
+					value = value << 8 | buf[pos + 2 + j] & 0xff;
+				}
+				return value;
+			}
+			pos += 2 + l;
+		}
+		return -1;
+	}
+}
@@ -20,12 +20,23 @@ public abstract class AbstractApduConnectionIso7816 implements ApduConnection {
      * indicada no es correcta. */
     private static final byte TAG_RESPONSE_INVALID_LENGTH = 0x6C;
 
+    /** N&uacute;mero m&aacute;ximo de octetos de datos de una APDU de respuesta de longitud corta. */
+    protected static final int MAX_SHORT_RESPONSE_DATA_SIZE = 0x100;
+
 	/** Obtiene el tama&ntilde;o m&aacute;ximo de APDU que se puede
 	 * enviar sin necesidad de hacer una envoltura.
 	 * @return Tama&ntilde;o m&aacute;ximo (en octetos) de APDU que se
 	 *         puede enviar sin necesidad de hacer una envoltura. */
+	@Override
 	public abstract int getMaxApduSize();
 
+	/** {@inheritDoc}
+	 * Por defecto solo se admiten APDU de respuesta de longitud corta. */
+	@Override
+	public int getMaxResponseDataSize() {
+		return MAX_SHORT_RESPONSE_DATA_SIZE;
+	}
+
 	/** Transmite una APDU.
 	 * @param apdu Comando APDU a transmitir.
 	 * @return APDU de respuesta.
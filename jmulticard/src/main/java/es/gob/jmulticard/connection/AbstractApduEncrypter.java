@@ -66,6 +66,9 @@ import es.gob.jmulticard.asn1.Tlv;
     /** CLA que se suma a los CLA de las APDU que se protegen. */
     private static final byte CLA_OF_PROTECTED_APDU = (byte) 0x0C; // Indicate "Secure messaging" (0x08) and "Header is protected" (0x04)
 
+    /** Mayor Le que puede indicarse en una APDU de longitud corta. */
+    private static final int MAX_SHORT_LE = 0x100;
+
     /** Primer byte a agregar en los padding ISO-7816. */
     private static final byte ISO7816_PADDING_PREFIX = (byte) 0x80;
 
@@ -123,7 +126,15 @@ import es.gob.jmulticard.asn1.Tlv;
     		cryptoHelper
 		);
 
-        return new CipheredApdu(cla, ins, p1, p2, completeDataBytes, mac);
+        return new CipheredApdu(
+    		cla,
+    		ins,
+    		p1,
+    		p2,
+    		completeDataBytes,
+    		mac,
+    		le != null && le.intValue() > MAX_SHORT_LE
+		);
     }
 
     /** Encripta los datos para una APDU cifrada.
@@ -216,9 +227,14 @@ import es.gob.jmulticard.asn1.Tlv;
         if (le != null) {
             tlvLeBytes = new Tlv(
         		TAG_LE_TLV,
-        		new byte[] {
-    				le.byteValue()
-        		}
+        		le.intValue() > MAX_SHORT_LE ?
+    				new byte[] {
+						(byte) (le.intValue() >> 8),
+						(byte) (le.intValue() & 0xff)
+					} :
+	        		new byte[] {
+	    				le.byteValue()
+	        		}
     		).getBytes();
         }
 
@@ -108,4 +108,16 @@ public interface ApduConnection {
      * conexi&oacute;n es ya la de m&aacute;s bajo nivel. */
     ApduConnection getSubConnection();
 
+    /** Obtiene el tama&ntilde;o m&aacute;ximo de APDU de comando que la conexi&oacute;n puede
+     * enviar de una sola vez (sin trocearla).
+     * @return Tama&ntilde;o m&aacute;ximo de APDU de comando, en octetos. */
+    int getMaxApduSize();
+
+    /** Obtiene el n&uacute;mero m&aacute;ximo de octetos de datos que la conexi&oacute;n puede
+     * recibir en una &uacute;nica APDU de respuesta.
+     * Un valor superior a 256 indica que la conexi&oacute;n (el lector) admite APDU de
+     * longitud extendida.
+     * @return N&uacute;mero m&aacute;ximo de octetos de datos de una APDU de respuesta. */
+    int getMaxResponseDataSize();
+
 }
@@ -48,7 +48,6 @@ import java.util.logging.Logger;
 import es.gob.jmulticard.CryptoHelper;
 import es.gob.jmulticard.CryptoHelper.BlockMode;
 import es.gob.jmulticard.CryptoHelper.Padding;
-import es.gob.jmulticard.HexUtils;
 import es.gob.jmulticard.apdu.ResponseApdu;
 
 /** Operaciones de cifrado AES.
@@ -101,7 +100,7 @@ public final class ApduEncrypterAes extends AbstractApduEncrypter {
 			                     final CryptoHelper cryptoHelper) throws IOException {
 		final byte[] mac;
 		try {
-			mac = cryptoHelper.doAesCmac(HexUtils.concatenateByteArrays(ssc, dataPadded), kMac);
+			mac = cryptoHelper.doAesCmac(ssc, dataPadded, kMac);
 		}
 		catch (final InvalidKeyException | NoSuchAlgorithmException e) {
 			throw new IOException(
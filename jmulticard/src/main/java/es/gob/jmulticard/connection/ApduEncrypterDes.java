@@ -97,36 +97,13 @@ public class ApduEncrypterDes extends AbstractApduEncrypter {
                                  final byte[] kMac,
                                  final CryptoHelper cryptoHelper) throws IOException {
 
-        final byte keyDesBytes[] = new byte[8];
-        System.arraycopy(kMac, 0, keyDesBytes, 0, 8);
-
-        byte tmpData[] = cryptoHelper.desEncrypt(ssc, keyDesBytes);
-
-        int i = 0;
-        while (i < dataPadded.length - 8) {
-            tmpData = cryptoHelper.desEncrypt(
-        		HexUtils.xor(tmpData, HexUtils.subArray(dataPadded, i, 8)),
-        		keyDesBytes
-    		);
-            i += 8;
+    	// El manejador criptografico reutiliza la clave ya preparada entre llamadas
+    	// de la misma sesion
+        final byte[] mac = cryptoHelper.desRetailMac(ssc, dataPadded, kMac);
+        if (mac.length == getMacLength()) {
+        	return mac;
         }
-
-        final byte[] keyTdesBytes = new byte[24];
-        System.arraycopy(kMac, 0, keyTdesBytes, 0, 16);
-        System.arraycopy(kMac, 0, keyTdesBytes, 16, 8);
-
-        return HexUtils.subArray(
-    		cryptoHelper.desedeEncrypt(
-				HexUtils.xor(
-					tmpData,
-					HexUtils.subArray(dataPadded, i, 8)
-				),
-				keyTdesBytes
-			),
-			0,
-			getMacLength()
-		);
-
+        return HexUtils.subArray(mac, 0, getMacLength());
     }
 
     /** Desencripta los datos de una APDU de respuesta protegida.
@@ -189,7 +166,7 @@ public class ApduEncrypterDes extends AbstractApduEncrypter {
         }
 
         // Pasamos el TLV completo de datos y el del StatusWord concatenados
-        final int tlvsLenght = (dataTlv != null ? 1 + 1 + dataTlv.getValue().length / 128 + dataTlv.getValue().length : 0) + // Tag (1 byte) + Lenght (1 byte + 1 por cada 128) + Value (Value.lenght bytes
+        final int tlvsLenght = (dataTlv != null ? 1 + getBerLengthSize(dataTlv.getValue().length) + dataTlv.getValue().length : 0) + // Tag (1 byte) + Lenght (1 a 3 bytes) + Value (Value.lenght bytes
         		1 + 1 + swTlv.getValue().length; // Tag (1 byte) + Lenght (1 byte) + Value (Value.lenght bytes)
         verifyMac(
     		HexUtils.subArray(
@@ -226,6 +203,22 @@ public class ApduEncrypterDes extends AbstractApduEncrypter {
 		);
     }
 
+    /** Obtiene el n&uacute;mero de octetos que ocupa la codificaci&oacute;n BER de una longitud.
+     * @param length Longitud a codificar.
+     * @return N&uacute;mero de octetos de la longitud codificada. */
+    private static int getBerLengthSize(final int length) {
+    	if (length < 0x80) {
+    		return 1;
+    	}
+    	if (length <= 0xff) {
+    		return 2;
+    	}
+    	if (length <= 0xffff) {
+    		return 3;
+    	}
+    	return 4;
+    }
+
     /** Comprueba que un c&oacute;digo de verificaci&oacute;n sea correcto con respecto a
      * unos datos y el c&oacute;digo de respuesta de una petici&oacute;n.
      * @param verificableData Datos.
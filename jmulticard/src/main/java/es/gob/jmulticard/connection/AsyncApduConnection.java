@@ -0,0 +1,33 @@
+package es.gob.jmulticard.connection;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+import es.gob.jmulticard.apdu.CommandApdu;
+import es.gob.jmulticard.apdu.ResponseApdu;
+
+/** Conexi&oacute;n con una tarjeta inteligente que permite enviar APDU sin bloquear al hilo llamante.
+ * Las APDU enviadas de forma as&iacute;ncrona se transmiten a la tarjeta en el mismo orden en el
+ * que se piden, y nunca se intercalan con las enviadas de forma s&iacute;ncrona mediante
+ * <code>transmit()</code>.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public interface AsyncApduConnection extends ApduConnection {
+
+    /** Env&iacute;a un comando APDU a la tarjeta inteligente sin esperar a su respuesta.
+     * Si la transmisi&oacute;n falla, el resultado se completa con una
+     * <code>CompletionException</code> cuya causa es la <code>ApduConnectionException</code>
+     * correspondiente.
+     * @param command APDU que se desea enviar a la tarjeta.
+     * @return Respuesta futura de la tarjeta al env&iacute;o. */
+    CompletableFuture<ResponseApdu> transmitAsync(CommandApdu command);
+
+    /** Encola una secuencia de operaciones con la tarjeta (por ejemplo, la lectura por bloques
+     * de un fichero) para que se ejecute sin intercalarse con las APDU enviadas de forma
+     * as&iacute;ncrona antes o despu&eacute;s de ella, y sin bloquear al hilo llamante.
+     * Si la operaci&oacute;n falla, el resultado se completa con la excepci&oacute;n que lance.
+     * @param <T> Tipo del resultado de la operaci&oacute;n.
+     * @param operation Operaci&oacute;n a ejecutar, que puede usar la conexi&oacute;n de forma
+     *                  s&iacute;ncrona.
+     * @return Resultado futuro de la operaci&oacute;n. */
+    <T> CompletableFuture<T> submitAsync(Callable<T> operation);
+}
@@ -0,0 +1,274 @@
+package es.gob.jmulticard.connection;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+import es.gob.jmulticard.apdu.CommandApdu;
+import es.gob.jmulticard.apdu.ResponseApdu;
+
+/** Adaptador que convierte cualquier conexi&oacute;n con tarjeta (por ejemplo, la de
+ * <code>javax.smartcardio</code>) en una conexi&oacute;n as&iacute;ncrona.
+ * Las transmisiones y operaciones as&iacute;ncronas se ejecutan en un <code>Executor</code>
+ * de entrada/salida, encadenadas de forma que la tarjeta las recibe en orden, y tanto estas como las
+ * s&iacute;ncronas se hacen en exclusi&oacute;n mutua mediante un <code>ReentrantLock</code>
+ * (y no con <code>synchronized</code>), de forma que el adaptador puede usarse con un
+ * <code>Executor</code> de hilos virtuales sin bloquear sus hilos portadores.
+ * Si sobre esta conexi&oacute;n se abre un canal seguro, <code>getAsyncConnection()</code>
+ * permite obtener una vista as&iacute;ncrona del canal que comparte la cola y el bloqueo
+ * de este adaptador, de forma que el cifrado de cada APDU y su transmisi&oacute;n se hacen
+ * como una &uacute;nica operaci&oacute;n.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class AsyncApduConnectionAdapter implements AsyncApduConnection {
+
+	/** Segundos que el hilo de entrada/salida propio espera nuevas APDU antes de terminar. */
+	private static final long IO_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+	/** Hilos de entrada/salida de los adaptadores que no reciben un <code>Executor</code>. */
+	private static final ThreadFactory IO_THREADS = new ThreadFactory() {
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread t = new Thread(r, "jmulticard-apdu-io"); //$NON-NLS-1$
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	private final ApduConnection connection;
+	private final Executor executor;
+
+	/** Bloqueo de la tarjeta, compartido entre las transmisiones s&iacute;ncronas y as&iacute;ncronas. */
+	private final ReentrantLock cardLock;
+
+	/** &Uacute;ltima transmisi&oacute;n as&iacute;ncrona encolada. */
+	private final AtomicReference<CompletableFuture<?>> tail;
+
+	/** Crea un adaptador as&iacute;ncrono con un hilo de entrada/salida propio, que
+	 * termina cuando deja de haber APDU que transmitir.
+	 * @param conn Conexi&oacute;n con la tarjeta. */
+	public AsyncApduConnectionAdapter(final ApduConnection conn) {
+		this(conn, newIoExecutor());
+	}
+
+	/** Crea un adaptador as&iacute;ncrono que transmite las APDU en el <code>Executor</code>
+	 * indicado (por ejemplo, uno de hilos virtuales).
+	 * @param conn Conexi&oacute;n con la tarjeta.
+	 * @param ioExecutor <code>Executor</code> en el que se transmiten las APDU. */
+	public AsyncApduConnectionAdapter(final ApduConnection conn, final Executor ioExecutor) {
+		if (conn == null || ioExecutor == null) {
+			throw new IllegalArgumentException(
+				"Ni la conexion ni el Executor pueden ser nulos" //$NON-NLS-1$
+			);
+		}
+		connection = conn;
+		executor = ioExecutor;
+		cardLock = new ReentrantLock();
+		tail = new AtomicReference<CompletableFuture<?>>(CompletableFuture.completedFuture(null));
+	}
+
+	/** Crea una vista as&iacute;ncrona de una conexi&oacute;n abierta sobre otro adaptador,
+	 * con la que comparte la cola de transmisi&oacute;n y el bloqueo.
+	 * @param conn Conexi&oacute;n (normalmente, un canal seguro).
+	 * @param base Adaptador sobre el que est&aacute; abierta la conexi&oacute;n. */
+	private AsyncApduConnectionAdapter(final ApduConnection conn, final AsyncApduConnectionAdapter base) {
+		connection = conn;
+		executor = base.executor;
+		cardLock = base.cardLock;
+		tail = base.tail;
+	}
+
+	private static Executor newIoExecutor() {
+		final ThreadPoolExecutor ex = new ThreadPoolExecutor(
+			1,
+			1,
+			IO_THREAD_KEEP_ALIVE_SECONDS,
+			TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(),
+			IO_THREADS
+		);
+		ex.allowCoreThreadTimeOut(true);
+		return ex;
+	}
+
+	/** Obtiene una conexi&oacute;n as&iacute;ncrona equivalente a la indicada.
+	 * Si la conexi&oacute;n ya es as&iacute;ncrona se devuelve tal cual, y si est&aacute;
+	 * abierta (directa o indirectamente) sobre un <code>AsyncApduConnectionAdapter</code>
+	 * se devuelve una vista as&iacute;ncrona de ella que comparte la cola y el bloqueo de
+	 * ese adaptador.
+	 * @param conn Conexi&oacute;n con la tarjeta.
+	 * @return Conexi&oacute;n as&iacute;ncrona o <code>null</code> si la conexi&oacute;n no
+	 *         tiene ning&uacute;n adaptador as&iacute;ncrono por debajo. */
+	public static AsyncApduConnection getAsyncConnection(final ApduConnection conn) {
+		if (conn instanceof AsyncApduConnection) {
+			return (AsyncApduConnection) conn;
+		}
+		ApduConnection sub = conn != null ? conn.getSubConnection() : null;
+		while (sub != null) {
+			if (sub instanceof AsyncApduConnectionAdapter) {
+				return new AsyncApduConnectionAdapter(conn, (AsyncApduConnectionAdapter) sub);
+			}
+			sub = sub.getSubConnection();
+		}
+		return null;
+	}
+
+	@Override
+	public CompletableFuture<ResponseApdu> transmitAsync(final CommandApdu command) {
+		return submitAsync(
+			new Callable<ResponseApdu>() {
+				@Override
+				public ResponseApdu call() throws ApduConnectionException {
+					return transmit(command);
+				}
+			}
+		);
+	}
+
+	@Override
+	public <T> CompletableFuture<T> submitAsync(final Callable<T> operation) {
+		final CompletableFuture<T> result = new CompletableFuture<>();
+		final Runnable execution = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					result.complete(operation.call());
+				}
+				catch (final Exception e) {
+					result.completeExceptionally(e);
+				}
+			}
+		};
+		// Cada operacion espera a que termine la anterior, haya ido bien o mal
+		tail.getAndSet(result).whenComplete(
+			new BiConsumer<Object, Throwable>() {
+				@Override
+				public void accept(final Object r, final Throwable t) {
+					try {
+						executor.execute(execution);
+					}
+					catch (final RejectedExecutionException e) {
+						result.completeExceptionally(
+							new ApduConnectionException(
+								"No se ha podido encolar la operacion con la tarjeta", e //$NON-NLS-1$
+							)
+						);
+					}
+				}
+			}
+		);
+		return result;
+	}
+
+	@Override
+	public ResponseApdu transmit(final CommandApdu command) throws ApduConnectionException {
+		cardLock.lock();
+		try {
+			return connection.transmit(command);
+		}
+		finally {
+			cardLock.unlock();
+		}
+	}
+
+	@Override
+	public void setProtocol(final ApduConnectionProtocol p) {
+		connection.setProtocol(p);
+	}
+
+	@Override
+	public void open() throws ApduConnectionException {
+		cardLock.lock();
+		try {
+			connection.open();
+		}
+		finally {
+			cardLock.unlock();
+		}
+	}
+
+	@Override
+	public void close() throws ApduConnectionException {
+		cardLock.lock();
+		try {
+			connection.close();
+		}
+		finally {
+			cardLock.unlock();
+		}
+	}
+
+	@Override
+	public byte[] reset() throws ApduConnectionException {
+		cardLock.lock();
+		try {
+			return connection.reset();
+		}
+		finally {
+			cardLock.unlock();
+		}
+	}
+
+	@Override
+	public void addCardConnectionListener(final CardConnectionListener ccl) {
+		connection.addCardConnectionListener(ccl);
+	}
+
+	@Override
+	public void removeCardConnectionListener(final CardConnectionListener ccl) {
+		connection.removeCardConnectionListener(ccl);
+	}
+
+	@Override
+	public long[] getTerminals(final boolean onlyWithCardPresent) throws ApduConnectionException {
+		return connection.getTerminals(onlyWithCardPresent);
+	}
+
+	@Override
+	public String getTerminalInfo(final int terminal) throws ApduConnectionException {
+		return connection.getTerminalInfo(terminal);
+	}
+
+	@Override
+	public void setTerminal(final int t) throws ApduConnectionException {
+		cardLock.lock();
+		try {
+			connection.setTerminal(t);
+		}
+		finally {
+			cardLock.unlock();
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return connection.isOpen();
+	}
+
+	@Override
+	public ApduConnection getSubConnection() {
+		return connection;
+	}
+
+	@Override
+	public int getMaxApduSize() {
+		return connection.getMaxApduSize();
+	}
+
+	@Override
+	public int getMaxResponseDataSize() {
+		return connection.getMaxResponseDataSize();
+	}
+
+	@Override
+	public String toString() {
+		return "Conexion asincrona sobre " + connection; //$NON-NLS-1$
+	}
+}
@@ -51,6 +51,9 @@ public final class CipheredApdu extends CommandApdu {
 
 	private static final byte TAG_CRYPTOGRAPHIC_CHECKSUM = (byte) 0x8E;
 
+	/** Le m&aacute;ximo de una APDU de longitud extendida (se codifica como <code>00 00</code>). */
+	private static final int MAX_EXTENDED_LE = 0x10000;
+
 	private final byte[] mac;
 	private transient final byte[] data;
 
@@ -74,20 +77,23 @@ public final class CipheredApdu extends CommandApdu {
      * @param p1 Primer par&aacute;metro.
      * @param p2 Segundo par&aacute;metro.
      * @param apduData Datos del TLV criptograma.
-     * @param apduMac C&oacute;digo de autenticaci&oacute;n del criptograma (MAC). */
+     * @param apduMac C&oacute;digo de autenticaci&oacute;n del criptograma (MAC).
+     * @param extendedLength Si se espera una respuesta de longitud extendida, en cuyo caso
+     *                       la APDU se codifica con longitud extendida y un Le de 65536 octetos. */
     CipheredApdu(final byte cla,
     		     final byte ins,
     		     final byte p1,
     		     final byte p2,
     		     final byte[] apduData,
-    		     final byte[] apduMac) {
+    		     final byte[] apduMac,
+    		     final boolean extendedLength) {
         super(
     		cla,					// CLA
     		ins,					// INS
     		p1,						// P1
     		p2,						// P2
     		buildData(apduData, apduMac),	// Data
-    		null					// Le
+    		extendedLength ? Integer.valueOf(MAX_EXTENDED_LE) : null	// Le
 		);
         mac = new byte[apduMac.length];
         System.arraycopy(apduMac, 0, mac, 0, apduMac.length);
@@ -0,0 +1,16 @@
+package es.gob.jmulticard.connection;
+
+/** Conexi&oacute;n capaz de leer el ATR de la tarjeta insertada en cualquiera de sus lectores
+ * sin reiniciarla ni cambiar el lector de la conexi&oacute;n.
+ * Las implementaciones deben admitir llamadas simult&aacute;neas desde varios hilos, cada una
+ * sobre un lector distinto.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public interface TerminalAtrReader {
+
+	/** Obtiene el ATR de la tarjeta insertada en un lector, tal y como lo tiene ya la capa
+	 * de acceso a los lectores (sin forzar un reinicio de la tarjeta).
+	 * @param terminal N&uacute;mero de lector.
+	 * @return ATR de la tarjeta insertada o <code>null</code> si no hay ninguna insertada.
+	 * @throws ApduConnectionException Si el lector no existe o no se puede consultar. */
+	byte[] getAtr(int terminal) throws ApduConnectionException;
+}
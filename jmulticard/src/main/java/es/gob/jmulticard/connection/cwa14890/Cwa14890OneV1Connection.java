@@ -45,6 +45,8 @@ import java.math.BigInteger;
 import java.security.cert.CertificateException;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
 
 import es.gob.jmulticard.CryptoHelper;
 import es.gob.jmulticard.HexUtils;
@@ -63,6 +65,11 @@ import es.gob.jmulticard.connection.CardConnectionListener;
 
 /** Utilidad para el establecimiento y control del canal seguro CWA-14890
  * con cifrado DES y MAC de cuatro octetos.
+ * Es segura para su uso desde varios hilos: el incremento del contador de secuencia, el
+ * cifrado de cada APDU, su env&iacute;o y el descifrado de la respuesta se hacen como una
+ * &uacute;nica operaci&oacute;n con un <code>ReentrantLock</code> (que no bloquea a los hilos
+ * portadores de los hilos virtuales). La apertura del canal la hace la tarjeta con su propio
+ * cerrojo adquirido, por lo que no debe transmitirse nada mientras tanto por otras v&iacute;as.
  * @author Carlos Gamuci
  * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
 public class Cwa14890OneV1Connection implements Cwa14890Connection {
@@ -74,6 +81,12 @@ public class Cwa14890OneV1Connection implements Cwa14890Connection {
 
 	private static final StatusWord INVALID_CRYPTO_CHECKSUM = new StatusWord((byte)0x66, (byte)0x88);
 
+	/** N&uacute;mero m&aacute;ximo de octetos de datos de una APDU de respuesta de longitud corta. */
+	private static final int MAX_SHORT_RESPONSE_DATA_SIZE = 0x100;
+
+	/** Octetos que se reservan en la respuesta para relleno, TLV de datos, estado y MAC. */
+	private static final int SECURE_MESSAGING_OVERHEAD = 0x40;
+
 	/** Octeto de valor m&aacute;s significativo que indica un <code>Le</code> incorrecto en la petici&oacute;n. */
 	private static final byte MSB_INCORRECT_LE = (byte) 0x6C;
 
@@ -93,6 +106,10 @@ public class Cwa14890OneV1Connection implements Cwa14890Connection {
     /** Utilidad para la ejecuci&oacute;n de funciones criptogr&aacute;ficas. */
     protected transient final CryptoHelper cryptoHelper;
 
+    /** Utilidad para las operaciones sim&eacute;tricas del canal, propiedad de este canal,
+     * que puede conservar sus claves de sesi&oacute;n preparadas hasta que se cierra. */
+    protected transient final CryptoHelper channelCryptoHelper;
+
     /** Tarjeta CWA-14890 con la que se desea establecer el canal seguro. */
     private transient Cwa14890Card card;
 
@@ -114,6 +131,9 @@ public class Cwa14890OneV1Connection implements Cwa14890Connection {
     /** Clase de utilidad para encriptar las APDU. */
     protected transient final AbstractApduEncrypter apduEncrypter;
 
+    /** Cerrojo de las transmisiones por el canal, que protege el contador de secuencia. */
+    protected transient final ReentrantLock channelLock = new ReentrantLock();
+
     private transient Cwa14890PublicConstants pubConsts;
     private transient Cwa14890PrivateConstants privConsts;
 
@@ -152,6 +172,7 @@ public class Cwa14890OneV1Connection implements Cwa14890Connection {
 			((Cwa14890Connection)connection).getSubConnection() :
 				connection;
         cryptoHelper = cryptoHlpr;
+        channelCryptoHelper = cryptoHlpr.newSecureChannelHelper();
     	apduEncrypter = instantiateApduEncrypter();
     }
 
@@ -194,6 +215,7 @@ public class Cwa14890OneV1Connection implements Cwa14890Connection {
 			((Cwa14890Connection)connection).getSubConnection() :
 				connection;
         cryptoHelper = cryptoHlpr;
+        channelCryptoHelper = cryptoHlpr.newSecureChannelHelper();
     	apduEncrypter = instantiateApduEncrypter();
     	pubConsts = cwaConsts;
     	privConsts = cwaPrivConsts;
@@ -724,79 +746,97 @@ public class Cwa14890OneV1Connection implements Cwa14890Connection {
 
     @Override
     public void close() throws ApduConnectionException {
-    	if (openState) {
-    		subConnection.close();
-    		openState = false;
+    	channelLock.lock();
+    	try {
+    		if (openState) {
+    			subConnection.close();
+    			openState = false;
+    		}
+    		wipeSessionKeys();
+    	}
+    	finally {
+    		channelLock.unlock();
     	}
     }
 
     @Override
     public ResponseApdu transmit(final CommandApdu command) throws ApduConnectionException {
+    	channelLock.lock();
+    	try {
+            final CommandApdu protectedApdu;
+            try {
+            	ssc = increment(ssc);
+                protectedApdu = apduEncrypter.protectAPDU(
+            		command,
+            		kenc,
+            		kmac,
+            		ssc,
+            		channelCryptoHelper
+    			);
+            }
+            catch (final IOException e) {
+                throw new SecureChannelException(
+            		"Error en la encriptacion de la APDU para su envio por el canal seguro", e //$NON-NLS-1$
+                );
+            }
 
-        final CommandApdu protectedApdu;
-        try {
-        	ssc = increment(ssc);
-            protectedApdu = apduEncrypter.protectAPDU(
-        		command,
-        		kenc,
-        		kmac,
-        		ssc,
-        		cryptoHelper
-    		);
-        }
-        catch (final IOException e) {
-            throw new SecureChannelException(
-        		"Error en la encriptacion de la APDU para su envio por el canal seguro", e //$NON-NLS-1$
-            );
-        }
-
-        final ResponseApdu responseApdu = subConnection.transmit(protectedApdu);
-        if (INVALID_CRYPTO_CHECKSUM.equals(responseApdu.getStatusWord())) {
-        	throw new InvalidCryptographicChecksumException();
-        }
-
-        // Desencriptamos la respuesta
-        try {
-        	ssc = increment(ssc);
-        	final ResponseApdu decipherApdu = apduEncrypter.decryptResponseApdu(
-    			responseApdu,
-    			kenc,
-    			ssc,
-    			kmac,
-    			cryptoHelper
-			);
-
-            // Si la APDU descifrada indicase que no se indico bien el tamano de la respuesta, volveriamos
-            // a enviar el comando indicando la longitud correcta
-            if (decipherApdu.getStatusWord().getMsb() == MSB_INCORRECT_LE) {
-            	command.setLe(decipherApdu.getStatusWord().getLsb());
-            	return transmit(command);
+            final ResponseApdu responseApdu = subConnection.transmit(protectedApdu);
+            if (INVALID_CRYPTO_CHECKSUM.equals(responseApdu.getStatusWord())) {
+            	throw new InvalidCryptographicChecksumException();
             }
-			if (decipherApdu.getStatusWord().getMsb() == MSB_INCORRECT_LE_PACE) {
-            	command.setLe(command.getLe().intValue()-1);
-            	return transmit(command);
+
+            // Desencriptamos la respuesta
+            try {
+            	ssc = increment(ssc);
+            	final ResponseApdu decipherApdu = apduEncrypter.decryptResponseApdu(
+    				responseApdu,
+    				kenc,
+    				ssc,
+    				kmac,
+    				channelCryptoHelper
+				);
+
+                // Si la APDU descifrada indicase que no se indico bien el tamano de la respuesta, volveriamos
+                // a enviar el comando indicando la longitud correcta
+                if (decipherApdu.getStatusWord().getMsb() == MSB_INCORRECT_LE) {
+                	command.setLe(decipherApdu.getStatusWord().getLsb());
+                	return transmit(command);
+                }
+				if (decipherApdu.getStatusWord().getMsb() == MSB_INCORRECT_LE_PACE) {
+                	command.setLe(command.getLe().intValue()-1);
+                	return transmit(command);
+                }
+                return decipherApdu;
             }
-            return decipherApdu;
-        }
-        catch (final Exception e) {
-            throw new ApduConnectionException(
-        		"Error en la desencriptacion de la APDU de respuesta recibida por el canal seguro", e //$NON-NLS-1$
-            );
-		}
+            catch (final Exception e) {
+                throw new ApduConnectionException(
+            		"Error en la desencriptacion de la APDU de respuesta recibida por el canal seguro", e //$NON-NLS-1$
+                );
+			}
+    	}
+    	finally {
+    		channelLock.unlock();
+    	}
     }
 
     @Override
     public byte[] reset() throws ApduConnectionException {
+    	channelLock.lock();
+    	try {
+            openState = false;
+            wipeSessionKeys();
 
-        openState = false;
+            // Reseteamos para obtener el ATR de la tarjeta
+            final byte[] atr = subConnection.reset();
 
-        // Reseteamos para obtener el ATR de la tarjeta
-        final byte[] atr = subConnection.reset();
+            // Volvemos a abrir la conexion
+            open();
 
-        // Volvemos a abrir la conexion
-        open();
-
-        return atr;
+            return atr;
+    	}
+    	finally {
+    		channelLock.unlock();
+    	}
     }
 
     @Override
@@ -829,6 +869,20 @@ public class Cwa14890OneV1Connection implements Cwa14890Connection {
         return openState && subConnection.isOpen();
     }
 
+    /** Borra de memoria las claves de sesi&oacute;n del canal, tanto las propias como las que
+     * conserve su utilidad criptogr&aacute;fica. Debe llamarse con el cerrojo del canal. */
+    private void wipeSessionKeys() {
+    	if (kenc != null) {
+    		Arrays.fill(kenc, (byte) 0);
+    		kenc = null;
+    	}
+    	if (kmac != null) {
+    		Arrays.fill(kmac, (byte) 0);
+    		kmac = null;
+    	}
+    	channelCryptoHelper.wipeSessionKeys();
+    }
+
     /** Calcula y devuelve el valor entregado m&aacute;s 1.
      * @param data Datos a incrementar.
      * @return Valor incrementado. */
@@ -867,6 +921,20 @@ public class Cwa14890OneV1Connection implements Cwa14890Connection {
     	return subConnection;
     }
 
+    @Override
+	public int getMaxApduSize() {
+    	return subConnection.getMaxApduSize();
+    }
+
+    /** {@inheritDoc}
+     * Si la conexi&oacute;n subyacente admite APDU de longitud extendida, se descuenta el
+     * espacio que ocupan en la respuesta el relleno y los objetos de la mensajer&iacute;a segura. */
+    @Override
+	public int getMaxResponseDataSize() {
+    	final int subMax = subConnection.getMaxResponseDataSize();
+    	return subMax > MAX_SHORT_RESPONSE_DATA_SIZE ? subMax - SECURE_MESSAGING_OVERHEAD : subMax;
+    }
+
 	@Override
 	public void setProtocol(final ApduConnectionProtocol p) {
 		if (subConnection != null) {
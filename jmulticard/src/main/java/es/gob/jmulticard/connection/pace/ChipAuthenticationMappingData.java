@@ -0,0 +1,41 @@
+package es.gob.jmulticard.connection.pace;
+
+import java.math.BigInteger;
+
+/** Datos de autenticaci&oacute;n de chip obtenidos al establecer un canal PACE con
+ * correspondencia de autenticaci&oacute;n de chip (PACE-CAM, ICAO 9303 parte 11).
+ * El chip queda autenticado cuando se comprueba que la clave p&uacute;blica de la
+ * correspondencia es <code>CA<sub>IC</sub>&middot;PK<sub>IC</sub></code>, siendo
+ * <code>PK<sub>IC</sub></code> su clave p&uacute;blica de autenticaci&oacute;n de chip.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class ChipAuthenticationMappingData {
+
+	private final byte[] mappingPublicKey;
+	private final BigInteger chipAuthenticationData;
+
+	/** Construye los datos de autenticaci&oacute;n de chip de PACE-CAM.
+	 * @param mappingKey Clave p&uacute;blica ef&iacute;mera del chip en la correspondencia
+	 *                   (<code>PK<sub>Map,IC</sub></code>).
+	 * @param caData Datos de autenticaci&oacute;n de chip descifrados (<code>CA<sub>IC</sub></code>). */
+	public ChipAuthenticationMappingData(final byte[] mappingKey, final BigInteger caData) {
+		if (mappingKey == null || caData == null) {
+			throw new IllegalArgumentException(
+				"Ni la clave de la correspondencia ni los datos de autenticacion de chip pueden ser nulos" //$NON-NLS-1$
+			);
+		}
+		mappingPublicKey = mappingKey.clone();
+		chipAuthenticationData = caData;
+	}
+
+	/** Obtiene la clave p&uacute;blica ef&iacute;mera del chip en la correspondencia.
+	 * @return Codificaci&oacute;n del punto <code>PK<sub>Map,IC</sub></code>. */
+	public byte[] getMappingPublicKey() {
+		return mappingPublicKey.clone();
+	}
+
+	/** Obtiene los datos de autenticaci&oacute;n de chip.
+	 * @return <code>CA<sub>IC</sub></code>. */
+	public BigInteger getChipAuthenticationData() {
+		return chipAuthenticationData;
+	}
+}
@@ -8,6 +8,7 @@ import javax.security.auth.callback.CallbackHandler;
 import es.gob.jmulticard.CryptoHelper;
 import es.gob.jmulticard.card.CryptoCardException;
 import es.gob.jmulticard.card.CryptoCardSecurityException;
+import es.gob.jmulticard.card.Location;
 import es.gob.jmulticard.card.PrivateKeyReference;
 import es.gob.jmulticard.card.dnie.DnieNfc;
 import es.gob.jmulticard.card.icao.IcaoException;
@@ -95,7 +96,7 @@ public final class IcaoMrtdWithPace extends DnieNfc {
     @Override
 	public byte[] getDg3() throws IOException {
 		try {
-			return selectFileByLocationAndRead(FILE_DG03_LOCATION);
+			return readDataGroup(3);
 		}
 		catch(final es.gob.jmulticard.card.iso7816four.FileNotFoundException e) {
     		throw (IOException) new FileNotFoundException("DG3 no encontrado").initCause(e); //$NON-NLS-1$
@@ -108,7 +109,7 @@ public final class IcaoMrtdWithPace extends DnieNfc {
     @Override
 	public byte[] getDg4() throws IOException {
 		try {
-			return selectFileByLocationAndRead(FILE_DG04_LOCATION);
+			return readDataGroup(4);
 		}
 		catch(final es.gob.jmulticard.card.iso7816four.FileNotFoundException e) {
     		throw (IOException) new FileNotFoundException("DG4 no encontrado").initCause(e); //$NON-NLS-1$
@@ -126,7 +127,7 @@ public final class IcaoMrtdWithPace extends DnieNfc {
     @Override
 	public byte[] getDg5() throws IOException {
 		try {
-			return selectFileByLocationAndRead(FILE_DG05_LOCATION);
+			return readDataGroup(5);
 		}
 		catch(final es.gob.jmulticard.card.iso7816four.FileNotFoundException e) {
     		throw (IOException) new FileNotFoundException("DG5 no encontrado").initCause(e); //$NON-NLS-1$
@@ -139,7 +140,7 @@ public final class IcaoMrtdWithPace extends DnieNfc {
     @Override
 	public byte[] getDg6() throws IOException {
 		try {
-			return selectFileByLocationAndRead(FILE_DG06_LOCATION);
+			return readDataGroup(6);
 		}
 		catch(final es.gob.jmulticard.card.iso7816four.FileNotFoundException e) {
     		throw (IOException) new FileNotFoundException("DG6 no encontrado").initCause(e); //$NON-NLS-1$
@@ -152,7 +153,7 @@ public final class IcaoMrtdWithPace extends DnieNfc {
     @Override
 	public byte[] getDg8() throws IOException {
 		try {
-			return selectFileByLocationAndRead(FILE_DG08_LOCATION);
+			return readDataGroup(8);
 		}
 		catch(final es.gob.jmulticard.card.iso7816four.FileNotFoundException e) {
     		throw (IOException) new FileNotFoundException("DG8 no encontrado").initCause(e); //$NON-NLS-1$
@@ -165,7 +166,7 @@ public final class IcaoMrtdWithPace extends DnieNfc {
     @Override
 	public byte[] getDg9() throws IOException {
 		try {
-			return selectFileByLocationAndRead(FILE_DG09_LOCATION);
+			return readDataGroup(9);
 		}
 		catch(final es.gob.jmulticard.card.iso7816four.FileNotFoundException e) {
     		throw (IOException) new FileNotFoundException("DG9 no encontrado").initCause(e); //$NON-NLS-1$
@@ -178,7 +179,7 @@ public final class IcaoMrtdWithPace extends DnieNfc {
     @Override
 	public byte[] getDg10() throws IOException {
 		try {
-			return selectFileByLocationAndRead(FILE_DG10_LOCATION);
+			return readDataGroup(10);
 		}
 		catch(final es.gob.jmulticard.card.iso7816four.FileNotFoundException e) {
     		throw (IOException) new FileNotFoundException("DG10 no encontrado").initCause(e); //$NON-NLS-1$
@@ -191,7 +192,7 @@ public final class IcaoMrtdWithPace extends DnieNfc {
     @Override
 	public byte[] getDg15() throws IOException {
 		try {
-			return selectFileByLocationAndRead(FILE_DG15_LOCATION);
+			return readDataGroup(15);
 		}
 		catch(final es.gob.jmulticard.card.iso7816four.FileNotFoundException e) {
     		throw (IOException) new FileNotFoundException("DG15 no encontrado").initCause(e); //$NON-NLS-1$
@@ -204,7 +205,7 @@ public final class IcaoMrtdWithPace extends DnieNfc {
     @Override
 	public byte[] getDg16() throws IOException {
 		try {
-			return selectFileByLocationAndRead(FILE_DG16_LOCATION);
+			return readDataGroup(16);
 		}
 		catch(final es.gob.jmulticard.card.iso7816four.FileNotFoundException e) {
     		throw (IOException) new FileNotFoundException("DG16 no encontrado").initCause(e); //$NON-NLS-1$
@@ -214,4 +215,28 @@ public final class IcaoMrtdWithPace extends DnieNfc {
 		}
     }
 
+    @Override
+	protected Location getDataGroupLocation(final int dgNumber) throws IOException {
+    	switch(dgNumber) {
+    		case 4:
+    			return FILE_DG04_LOCATION;
+    		case 5:
+    			return FILE_DG05_LOCATION;
+    		case 6:
+    			return FILE_DG06_LOCATION;
+    		case 8:
+    			return FILE_DG08_LOCATION;
+    		case 9:
+    			return FILE_DG09_LOCATION;
+    		case 10:
+    			return FILE_DG10_LOCATION;
+    		case 15:
+    			return FILE_DG15_LOCATION;
+    		case 16:
+    			return FILE_DG16_LOCATION;
+    		default:
+    			return super.getDataGroupLocation(dgNumber);
+    	}
+    }
+
 }
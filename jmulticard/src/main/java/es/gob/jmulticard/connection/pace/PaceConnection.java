@@ -8,6 +8,7 @@ import es.gob.jmulticard.apdu.CommandApdu;
 import es.gob.jmulticard.apdu.ResponseApdu;
 import es.gob.jmulticard.apdu.StatusWord;
 import es.gob.jmulticard.apdu.dnie.VerifyApduCommand;
+import es.gob.jmulticard.asn1.icao.PaceInfo;
 import es.gob.jmulticard.card.AbstractSmartCard;
 import es.gob.jmulticard.connection.ApduConnection;
 import es.gob.jmulticard.connection.ApduConnectionException;
@@ -17,6 +18,9 @@ import es.gob.jmulticard.de.tsenger.androsmex.iso7816.SecureMessaging;
 import es.gob.jmulticard.de.tsenger.androsmex.iso7816.SecureMessagingException;
 
 /** Conexi&oacute;n PACE para establecimiento de canal seguro por NFC.
+ * Como el resto de canales seguros, es segura para su uso desde varios hilos: cada APDU se
+ * cifra, se env&iacute;a y se descifra su respuesta con el cerrojo del canal, de forma que
+ * el contador de secuencia de la mensajer&iacute;a segura avanza siempre en orden.
  * @author Sergio Mart&iacute;nez Rico
  * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
 public final class PaceConnection extends Cwa14890OneV2Connection {
@@ -26,9 +30,21 @@ public final class PaceConnection extends Cwa14890OneV2Connection {
 	/** Octeto de valor m&aacute;s significativo que indica un <i>Le</i> incorrecto en la petici&oacute;n. */
 	private static final byte MSB_INCORRECT_LE = (byte) 0x6C;
 
+	/** N&uacute;mero m&aacute;ximo de octetos de datos de una APDU de respuesta de longitud corta. */
+	private static final int MAX_SHORT_RESPONSE_DATA_SIZE = 0x100;
+
 	/** Octeto de valor m&aacute;s significativo que indica un <i>Le</i> incorrecto en la petici&oacute;n. */
 	private transient final SecureMessaging sm;
 
+	/** Algoritmo PACE con el que se estableci&oacute; el canal. */
+	private final PaceInfo paceInfo;
+
+	/** Datos de autenticaci&oacute;n de chip si el canal se estableci&oacute; con PACE-CAM. */
+	private transient final ChipAuthenticationMappingData camData;
+
+	/** Si se han borrado las claves de sesi&oacute;n al cerrar el canal. */
+	private boolean sessionKeysWiped = false;
+
 	/** Conexi&oacute;n PACE para establecimiento de canal seguro por NFC.
 	 * @param connection Conexi&oacute;n base sobre la que crear el nuevo canal.
 	 * @param cryptoHlpr Clase para el cifrado de datos.
@@ -36,11 +52,49 @@ public final class PaceConnection extends Cwa14890OneV2Connection {
 	public PaceConnection(final ApduConnection connection,
 			              final CryptoHelper cryptoHlpr,
 			              final SecureMessaging secMsg) {
+		this(connection, cryptoHlpr, secMsg, PaceInfo.DEFAULT, null);
+	}
+
+	/** Conexi&oacute;n PACE para establecimiento de canal seguro por NFC.
+	 * @param connection Conexi&oacute;n base sobre la que crear el nuevo canal.
+	 * @param cryptoHlpr Clase para el cifrado de datos.
+	 * @param secMsg Clase contenedora de las variables para establecer el canal PACE (Kenc, Kmac, Ssc).
+	 * @param info Algoritmo PACE con el que se ha establecido el canal.
+	 * @param chipAuthData Datos de autenticaci&oacute;n de chip obtenidos con PACE-CAM, o
+	 *                     <code>null</code> si el canal se estableci&oacute; con otro algoritmo. */
+	public PaceConnection(final ApduConnection connection,
+			              final CryptoHelper cryptoHlpr,
+			              final SecureMessaging secMsg,
+			              final PaceInfo info,
+			              final ChipAuthenticationMappingData chipAuthData) {
 		super(connection, cryptoHlpr);
 		sm = secMsg;
+		paceInfo = info;
+		camData = chipAuthData;
 		subConnection = connection;
 	}
 
+	/** Obtiene el algoritmo PACE con el que se estableci&oacute; el canal.
+	 * @return Algoritmo PACE del canal. */
+	public PaceInfo getPaceInfo() {
+		return paceInfo;
+	}
+
+	/** Obtiene los datos de autenticaci&oacute;n de chip obtenidos al establecer el canal
+	 * con PACE-CAM.
+	 * @return Datos de autenticaci&oacute;n de chip o <code>null</code> si el canal no se
+	 *         estableci&oacute; con PACE-CAM. */
+	public ChipAuthenticationMappingData getChipAuthenticationMappingData() {
+		return camData;
+	}
+
+	/** {@inheritDoc}
+	 * La mensajer&iacute;a segura PACE solo admite APDU de longitud corta. */
+	@Override
+	public int getMaxResponseDataSize() {
+		return Math.min(MAX_SHORT_RESPONSE_DATA_SIZE, subConnection.getMaxResponseDataSize());
+	}
+
 	@Override
 	public String toString() {
     	return "Conexion de tipo PACE " + //$NON-NLS-1$
@@ -50,85 +104,120 @@ public final class PaceConnection extends Cwa14890OneV2Connection {
     }
 
 	/** Abre el canal seguro con la tarjeta.
-	 * La conexi&oacute;n se reiniciar&aacute; previamente a la apertura del canal. */
+	 * La conexi&oacute;n se reiniciar&aacute; previamente a la apertura del canal.
+	 * @throws ApduConnectionException Si el canal ya se cerr&oacute;, ya que al cerrarlo se
+	 *                                 borran sus claves de sesi&oacute;n y debe establecerse
+	 *                                 uno nuevo. */
 	@Override
-	public void open() {
-		openState = true;
-	}
-
-	@Override
-	public ResponseApdu transmit(final CommandApdu command) throws ApduConnectionException {
-		// Si es el comando para verificar el PIN se creara una instancia nueva de la clase
-		// CommandApdu ya que la clase StcmVerifyApduCommand no incluye la contrasena como parte
-		// la APDU, sino en un attributo aparte
-		final CommandApdu finalCommand = new CommandApdu(
-			command.getCla(),
-			command.getIns(),
-			command.getP1(),
-			command.getP2(),
-			command.getData(),
-			command.getLe()
-		);
-
-		final boolean isChv = finalCommand.getIns() == VerifyApduCommand.INS_VERIFY;
-
-		if (AbstractSmartCard.DEBUG) {
-			Logger.getLogger("es.gob.jmulticard").info( //$NON-NLS-1$
-				"APDU de comando en claro: " + //$NON-NLS-1$
-					(isChv ? "Verificacion de PIN" : HexUtils.hexify(finalCommand.getBytes(), true)) //$NON-NLS-1$
-			);
-		}
-
-		// Encriptacion de la APDU para su envio por el canal seguro
-		final CommandApdu protectedApdu;
+	public void open() throws ApduConnectionException {
+		channelLock.lock();
 		try {
-			protectedApdu = sm.wrap(finalCommand);
+			if (sessionKeysWiped) {
+				throw new ApduConnectionException(
+					"El canal PACE esta cerrado y sus claves de sesion borradas, debe establecerse uno nuevo" //$NON-NLS-1$
+				);
+			}
+			openState = true;
 		}
-		catch (final SecureMessagingException e) {
-			throw new ApduConnectionException(
-				"No ha sido posible cifrar un mensaje seguro con el canal PACE", e //$NON-NLS-1$
-			);
-		}
-
-		final ResponseApdu responseApdu = subConnection.transmit(protectedApdu);
-
-		// Ignoramos los errores 62-82 (lectura fuera de limites) por ser comunes y estar tratados especificamente
-		if (!responseApdu.getStatusWord().isOk() && !new StatusWord((byte) 0x62, (byte) 0x82).equals(responseApdu.getStatusWord())) {
-			throw new ApduConnectionException(
-				"Error transmitiendo la APDU cifrada:\n" +            //$NON-NLS-1$
-					"Error: " + responseApdu.getStatusWord() + '\n' + //$NON-NLS-1$
-					"Respuesta:\n" + responseApdu + '\n' +            //$NON-NLS-1$
-					"Comando cifrado:\n" + (isChv ? "Verificacion de PIN" : protectedApdu) + '\n' + //$NON-NLS-1$ //$NON-NLS-2$
-					"Comando en claro:\n" + (isChv ? "Verificacion de PIN" : finalCommand) + '\n'   //$NON-NLS-1$ //$NON-NLS-2$
-			);
+		finally {
+			channelLock.unlock();
 		}
+	}
 
-		final ResponseApdu decipherApdu;
+	/** {@inheritDoc}
+	 * Adem&aacute;s, se borran de memoria las claves de sesi&oacute;n de la mensajer&iacute;a segura. */
+	@Override
+	public void close() throws ApduConnectionException {
+		channelLock.lock();
 		try {
-			decipherApdu = sm.unwrap(responseApdu);
+			super.close();
+			sm.wipe();
+			sessionKeysWiped = true;
 		}
-		catch (final SecureMessagingException e1) {
-			throw new ApduConnectionException(
-				"No ha sido posible descifrar un mensaje seguro con el canal PACE", e1 //$NON-NLS-1$
-			);
+		finally {
+			channelLock.unlock();
 		}
+	}
 
-		if (AbstractSmartCard.DEBUG) {
-			Logger.getLogger("es.gob.jmulticard").info( //$NON-NLS-1$
-				"APDU de respuesta en claro: " + HexUtils.hexify(decipherApdu.getBytes(), true) //$NON-NLS-1$
+	@Override
+	public ResponseApdu transmit(final CommandApdu command) throws ApduConnectionException {
+		channelLock.lock();
+		try {
+			// Si es el comando para verificar el PIN se creara una instancia nueva de la clase
+			// CommandApdu ya que la clase StcmVerifyApduCommand no incluye la contrasena como parte
+			// la APDU, sino en un attributo aparte
+			final CommandApdu finalCommand = new CommandApdu(
+				command.getCla(),
+				command.getIns(),
+				command.getP1(),
+				command.getP2(),
+				command.getData(),
+				command.getLe()
 			);
-		}
 
-		if (INVALID_CRYPTO_CHECKSUM.equals(decipherApdu.getStatusWord())) {
-			throw new InvalidCryptographicChecksumException();
+			final boolean isChv = finalCommand.getIns() == VerifyApduCommand.INS_VERIFY;
+
+			if (AbstractSmartCard.DEBUG) {
+				Logger.getLogger("es.gob.jmulticard").info( //$NON-NLS-1$
+					"APDU de comando en claro: " + //$NON-NLS-1$
+						(isChv ? "Verificacion de PIN" : HexUtils.hexify(finalCommand.getBytes(), true)) //$NON-NLS-1$
+				);
+			}
+
+			// Encriptacion de la APDU para su envio por el canal seguro
+			final CommandApdu protectedApdu;
+			try {
+				protectedApdu = sm.wrap(finalCommand);
+			}
+			catch (final SecureMessagingException e) {
+				throw new ApduConnectionException(
+					"No ha sido posible cifrar un mensaje seguro con el canal PACE", e //$NON-NLS-1$
+				);
+			}
+
+			final ResponseApdu responseApdu = subConnection.transmit(protectedApdu);
+
+			// Ignoramos los errores 62-82 (lectura fuera de limites) por ser comunes y estar tratados especificamente
+			if (!responseApdu.getStatusWord().isOk() && !new StatusWord((byte) 0x62, (byte) 0x82).equals(responseApdu.getStatusWord())) {
+				throw new ApduConnectionException(
+					"Error transmitiendo la APDU cifrada:\n" +            //$NON-NLS-1$
+						"Error: " + responseApdu.getStatusWord() + '\n' + //$NON-NLS-1$
+						"Respuesta:\n" + responseApdu + '\n' +            //$NON-NLS-1$
+						"Comando cifrado:\n" + (isChv ? "Verificacion de PIN" : protectedApdu) + '\n' + //$NON-NLS-1$ //$NON-NLS-2$
+						"Comando en claro:\n" + (isChv ? "Verificacion de PIN" : finalCommand) + '\n'   //$NON-NLS-1$ //$NON-NLS-2$
+				);
+			}
+
+			final ResponseApdu decipherApdu;
+			try {
+				decipherApdu = sm.unwrap(responseApdu);
+			}
+			catch (final SecureMessagingException e1) {
+				throw new ApduConnectionException(
+					"No ha sido posible descifrar un mensaje seguro con el canal PACE", e1 //$NON-NLS-1$
+				);
+			}
+
+			if (AbstractSmartCard.DEBUG) {
+				Logger.getLogger("es.gob.jmulticard").info( //$NON-NLS-1$
+					"APDU de respuesta en claro: " + HexUtils.hexify(decipherApdu.getBytes(), true) //$NON-NLS-1$
+				);
+			}
+
+			if (INVALID_CRYPTO_CHECKSUM.equals(decipherApdu.getStatusWord())) {
+				throw new InvalidCryptographicChecksumException();
+			}
+
+			// Si la APDU descifrada indicase que no se indico bien el tamano de la respuesta, volveriamos
+			// a enviar el comando indicando la longitud correcta
+			if (decipherApdu.getStatusWord().getMsb() == MSB_INCORRECT_LE) {
+				command.setLe(decipherApdu.getStatusWord().getLsb());
+				return transmit(command);
+			}
+			return decipherApdu;
 		}
-
-		// Si la APDU descifrada indicase que no se indico bien el tamano de la respuesta, volveriamos
-		// a enviar el comando indicando la longitud correcta
-		if (decipherApdu.getStatusWord().getMsb() == MSB_INCORRECT_LE) {
-			command.setLe(decipherApdu.getStatusWord().getLsb());
-			return transmit(command);
+		finally {
+			channelLock.unlock();
 		}
-		return decipherApdu;
 	}
 }
@@ -60,7 +60,8 @@ final class DO87 {
     	catch (final Exception e) {
     		tmpTlv = null;
 		}
-    	if (tmpTlv != null && (TAG != tmpTlv.getTag() || tmpTlv.getValue()[0] != 0x01)) {
+    	// Un valor cifrado puede parecer casualmente un TLV (incluso con valor vacio)
+    	if (tmpTlv != null && (TAG != tmpTlv.getTag() || tmpTlv.getLength() == 0 || tmpTlv.getValue()[0] != 0x01)) {
 			tmpTlv = null;
 		}
     	if (tmpTlv == null) {
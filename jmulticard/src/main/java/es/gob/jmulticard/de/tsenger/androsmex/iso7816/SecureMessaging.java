@@ -61,6 +61,15 @@ public final class SecureMessaging {
 		ssc = initialSSC.clone();
 	}
 
+	/** Borra de memoria las claves de sesi&oacute;n, incluidas las que conserve la utilidad
+	 * criptogr&aacute;fica del canal. Tras llamar a este m&eacute;todo no puede volver a usarse
+	 * la mensajer&iacute;a segura. */
+	public void wipe() {
+		Arrays.fill(kenc, (byte) 0);
+		Arrays.fill(kmac, (byte) 0);
+		cryptoHelper.wipeSessionKeys();
+	}
+
 	/** Transforma un Comando APDU en claro a Comando APDU protegido.
 	 * @param capdu APDU en claro.
 	 * @return CommandApdu APDU protegida.
@@ -0,0 +1,666 @@
+package es.gob.jmulticard.card.dnie;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import es.gob.jmulticard.CryptoHelper;
+import es.gob.jmulticard.HexUtils;
+import es.gob.jmulticard.card.cwa14890.Cwa14890PrivateConstants;
+import es.gob.jmulticard.card.cwa14890.Cwa14890PublicConstants;
+import es.gob.jmulticard.connection.loopback.DerEncoder;
+import es.gob.jmulticard.connection.loopback.Iso7816FourCardSimulator;
+import es.gob.jmulticard.connection.loopback.LoopbackConnection;
+
+/** DNIe 2&#46;0 o 3&#46;0 simulado en memoria, para pruebas de carga y medidas de rendimiento
+ * sin lector ni tarjeta f&iacute;sica (se usa mediante una {@link LoopbackConnection}).
+ * Reproduce el sistema de ficheros del DNIe (certificado de componente, CDF y PrKDF
+ * PKCS#15 y certificados de autenticaci&oacute;n, firma y CA intermedia), el lado tarjeta
+ * del canal seguro CWA-14890 con las mismas constantes de terminal que usa el controlador,
+ * la verificaci&oacute;n de PIN y la firma RSA de <i>DigestInfo</i>.
+ * El DNIe 3&#46;0 usa CWA-14890 v2 (MAC de ocho octetos) con canales distintos para la
+ * verificaci&oacute;n del PIN y para la firma, como la tarjeta real. Para simular el acceso
+ * por NFC se envuelve en una tarjeta que a&ntilde;ada PACE.
+ * Las claves y los certificados se generan al crear el simulador, por lo que cada instancia
+ * es una tarjeta distinta (con su propio n&uacute;mero de serie).
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class DnieCardSimulator extends Iso7816FourCardSimulator {
+
+	/** ATR de un DNIe 2&#46;0. */
+	private static final byte[] ATR = {
+		(byte) 0x3B, (byte) 0x7F, (byte) 0x38, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x6A, (byte) 0x44, (byte) 0x4E, (byte) 0x49,
+		(byte) 0x65, (byte) 0x10, (byte) 0x02, (byte) 0x4C, (byte) 0x34, (byte) 0x01, (byte) 0x13, (byte) 0x03, (byte) 0x90, (byte) 0x00
+	};
+
+	/** ATR de un DNIe 3&#46;0 por contacto. */
+	private static final byte[] ATR_DNIE3 = {
+		(byte) 0x3B, (byte) 0x7F, (byte) 0x96, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x6A, (byte) 0x44, (byte) 0x4E, (byte) 0x49,
+		(byte) 0x65, (byte) 0x10, (byte) 0x02, (byte) 0x4C, (byte) 0x34, (byte) 0x04, (byte) 0x13, (byte) 0x03, (byte) 0x90, (byte) 0x00
+	};
+
+	/** IDESP del DNIe 3&#46;0 simulado, de los que usan las constantes CWA-14890 m&aacute;s recientes. */
+	private static final String DNIE3_IDESP = "BMP123456"; //$NON-NLS-1$
+
+	private static final byte[] MASTER_FILE_NAME = "Master.File".getBytes(StandardCharsets.US_ASCII); //$NON-NLS-1$
+
+	// Rutas de los ficheros (sin el MF), como las usa el controlador
+	private static final String ICC_CERT_PATH = "601F"; //$NON-NLS-1$
+	private static final String PRKDF_PATH = "50156001"; //$NON-NLS-1$
+	private static final String CDF_PATH = "50156004"; //$NON-NLS-1$
+	private static final String AUTH_CERT_PATH = "60817004"; //$NON-NLS-1$
+	private static final String SIGN_CERT_PATH = "60817005"; //$NON-NLS-1$
+	private static final String CA_CERT_PATH = "60817006"; //$NON-NLS-1$
+	private static final String IDESP_PATH = "0006"; //$NON-NLS-1$
+
+	// Rutas de las claves privadas, cuyo ultimo elemento es la referencia que se usa en el MSE SET
+	private static final String AUTH_KEY_PATH = "3F110101"; //$NON-NLS-1$
+	private static final String SIGN_KEY_PATH = "3F110102"; //$NON-NLS-1$
+
+	private static final int SW_INVALID_CRYPTO_CHECKSUM = 0x6688;
+	private static final int SW_SM_DATA_OBJECTS_MISSING = 0x6987;
+
+	private static final byte TAG_SM_DATA = (byte) 0x87;
+	private static final byte TAG_SM_LE = (byte) 0x97;
+	private static final byte TAG_SM_STATUS_WORD = (byte) 0x99;
+	private static final byte TAG_SM_MAC = (byte) 0x8E;
+	private static final byte TAG_PRIVATE_KEY_REFERENCE = (byte) 0x84;
+	private static final byte CLA_SECURE_MESSAGING = (byte) 0x0C;
+
+	private static final byte ISO_9796_2_PADDING_START = (byte) 0x6A;
+	private static final byte ISO_9796_2_PADDING_END = (byte) 0xBC;
+	private static final int KICC_LENGTH = 32;
+	private static final int KIFD_LENGTH = 32;
+	private static final int SHA1_LENGTH = 20;
+	private static final int MAC_LENGTH = 4;
+	private static final int MAC_LENGTH_V2 = 8;
+
+	private static final byte[] SECURE_CHANNEL_KENC_AUX = { 0x00, 0x00, 0x00, 0x01 };
+	private static final byte[] SECURE_CHANNEL_KMAC_AUX = { 0x00, 0x00, 0x00, 0x02 };
+
+	private static final int MAX_PIN_RETRIES = 3;
+	private static final int USER_KEY_SIZE = 2048;
+	private static final int ICC_KEY_SIZE = 1024;
+	private static final int CERT_VALIDITY_DAYS = 5 * 365;
+
+	private final CryptoHelper cryptoHelper;
+	private final boolean dnie3;
+	private final byte[] pin;
+	private final byte[] serialNumber;
+	private final Map<String, PrivateKey> keys = new HashMap<>();
+	private final RSAPrivateKey iccPrivateKey;
+
+	/** Certificados CV de terminal que admite la tarjeta, indexados por su CHR en hexadecimal. */
+	private final Map<String, IfdKey> ifdKeys = new HashMap<>();
+
+	// Estado volatil de la tarjeta, que se descarta en cada reinicio
+	private int pinRetries = MAX_PIN_RETRIES;
+	private boolean pinVerified;
+	private boolean pinChannel;
+	private IfdKey ifdKey;
+	private String computationKeyRef;
+	private byte[] randomIfd;
+	private byte[] randomIcc;
+	private byte[] kicc;
+	private byte[] kenc;
+	private byte[] kmac;
+	private byte[] ssc;
+
+	/** Crea un DNIe 2&#46;0 simulado, generando sus claves y certificados.
+	 * @param cardPin PIN de la tarjeta.
+	 * @param cryptoHlpr Utilidad para las operaciones criptogr&aacute;ficas del canal seguro
+	 *                   (conviene que sea una instancia distinta de la que usa el controlador,
+	 *                   como ocurre con una tarjeta real).
+	 * @throws IOException Si no se pueden generar las claves o los certificados. */
+	public DnieCardSimulator(final String cardPin, final CryptoHelper cryptoHlpr) throws IOException {
+		this(cardPin, cryptoHlpr, false);
+	}
+
+	/** Crea un DNIe simulado, generando sus claves y certificados.
+	 * @param cardPin PIN de la tarjeta.
+	 * @param cryptoHlpr Utilidad para las operaciones criptogr&aacute;ficas del canal seguro
+	 *                   (conviene que sea una instancia distinta de la que usa el controlador,
+	 *                   como ocurre con una tarjeta real).
+	 * @param isDnie3 <code>true</code> para simular un DNIe 3&#46;0 y <code>false</code>
+	 *                para simular un DNIe 2&#46;0.
+	 * @throws IOException Si no se pueden generar las claves o los certificados. */
+	public DnieCardSimulator(final String cardPin,
+			                 final CryptoHelper cryptoHlpr,
+			                 final boolean isDnie3) throws IOException {
+		if (cardPin == null || cardPin.isEmpty()) {
+			throw new IllegalArgumentException("El PIN de la tarjeta simulada no puede ser nulo ni vacio"); //$NON-NLS-1$
+		}
+		if (cryptoHlpr == null) {
+			throw new IllegalArgumentException("El CryptoHelper no puede ser nulo"); //$NON-NLS-1$
+		}
+		cryptoHelper = cryptoHlpr;
+		dnie3 = isDnie3;
+		pin = cardPin.getBytes(StandardCharsets.US_ASCII);
+		serialNumber = cryptoHelper.generateRandomBytes(7);
+
+		try {
+			if (dnie3) {
+				// Se admiten los terminales de las dos series de DNIe 3.0, aunque el IDESP
+				// simulado hace que el controlador use los de la segunda
+				addIfdKey(new Dnie3PinCwa14890Constants(), true);
+				addIfdKey(new Dnie3UsrCwa14890Constants(), false);
+				addIfdKey(new Dnie3r2PinCwa14890Constants(), true);
+				addIfdKey(new Dnie3r2UsrCwa14890Constants(), false);
+				putFile(IDESP_PATH, DNIE3_IDESP.getBytes(StandardCharsets.US_ASCII));
+			}
+			else {
+				addIfdKey(new DnieCwa14890Constants(), false);
+			}
+			final KeyPair iccKeyPair = generateRsaKeyPair(ICC_KEY_SIZE);
+			iccPrivateKey = (RSAPrivateKey) iccKeyPair.getPrivate();
+			final KeyPair caKeyPair = generateRsaKeyPair(USER_KEY_SIZE);
+			final KeyPair authKeyPair = generateRsaKeyPair(USER_KEY_SIZE);
+			final KeyPair signKeyPair = generateRsaKeyPair(USER_KEY_SIZE);
+			createFiles(iccKeyPair, caKeyPair, authKeyPair, signKeyPair);
+		}
+		catch (final GeneralSecurityException e) {
+			throw new IOException("No se han podido generar las claves del DNIe simulado", e); //$NON-NLS-1$
+		}
+		putDfName(MASTER_FILE_NAME, ""); //$NON-NLS-1$
+		reset();
+	}
+
+	private void addIfdKey(final Cwa14890PublicConstants cwaConsts, final boolean pinChannelKey) throws GeneralSecurityException {
+		final RSAPublicKey publicKey = (RSAPublicKey) KeyFactory.getInstance("RSA").generatePublic( //$NON-NLS-1$
+			// El exponente publico del certificado CV del terminal es el habitual (65537)
+			new RSAPublicKeySpec(
+				((Cwa14890PrivateConstants) cwaConsts).getIfdPrivateKey().getModulus(),
+				RSAKeyGenParameterSpec.F4
+			)
+		);
+		ifdKeys.put(
+			HexUtils.hexify(cwaConsts.getChrCCvIfd(), false),
+			new IfdKey(publicKey, cwaConsts.getIfdKeyLength(), pinChannelKey)
+		);
+	}
+
+	private void createFiles(final KeyPair iccKeyPair,
+			                 final KeyPair caKeyPair,
+			                 final KeyPair authKeyPair,
+			                 final KeyPair signKeyPair) throws GeneralSecurityException, IOException {
+		final Date notBefore = new Date();
+		final byte[] caName = DerEncoder.name(
+			DerEncoder.OID_COUNTRY, "ES", //$NON-NLS-1$
+			DerEncoder.OID_ORGANIZATION, "DIRECCION GENERAL DE LA POLICIA", //$NON-NLS-1$
+			DerEncoder.OID_ORGANIZATIONAL_UNIT, "DNIE", //$NON-NLS-1$
+			DerEncoder.OID_COMMON_NAME, "AC DNIE SIMULADA" //$NON-NLS-1$
+		);
+
+		// El certificado de componente solo se lee para obtener su clave publica
+		final byte[] iccCert = DerEncoder.certificate(
+			newSerial(),
+			caName,
+			DerEncoder.name(DerEncoder.OID_COMMON_NAME, "COMPONENTE " + HexUtils.hexify(serialNumber, false)), //$NON-NLS-1$
+			notBefore,
+			CERT_VALIDITY_DAYS,
+			iccKeyPair.getPublic(),
+			caKeyPair.getPrivate()
+		);
+		putFile(ICC_CERT_PATH, iccCert);
+
+		final BigInteger caSerial = newSerial();
+		final byte[] caCert = DerEncoder.certificate(
+			caSerial, caName, caName, notBefore, CERT_VALIDITY_DAYS, caKeyPair.getPublic(), caKeyPair.getPrivate()
+		);
+		final BigInteger authSerial = newSerial();
+		final byte[] authName = getHolderName("AUTENTICACIÓN"); //$NON-NLS-1$
+		final byte[] authCert = DerEncoder.certificate(
+			authSerial, caName, authName, notBefore, CERT_VALIDITY_DAYS, authKeyPair.getPublic(), caKeyPair.getPrivate()
+		);
+		final BigInteger signSerial = newSerial();
+		final byte[] signName = getHolderName("FIRMA"); //$NON-NLS-1$
+		final byte[] signCert = DerEncoder.certificate(
+			signSerial, caName, signName, notBefore, CERT_VALIDITY_DAYS, signKeyPair.getPublic(), caKeyPair.getPrivate()
+		);
+
+		// Los certificados de usuario del DNIe se almacenan comprimidos
+		putFile(AUTH_CERT_PATH, compress(authCert));
+		putFile(SIGN_CERT_PATH, compress(signCert));
+		putFile(CA_CERT_PATH, compress(caCert));
+
+		final byte[] authId = getKeyId(authKeyPair);
+		final byte[] signId = getKeyId(signKeyPair);
+
+		final ByteArrayOutputStream cdf = new ByteArrayOutputStream();
+		cdf.write(getCdfEntry(Dnie.CERT_ALIAS_AUTH, authId, AUTH_CERT_PATH, authName, caName, authSerial));
+		cdf.write(getCdfEntry(Dnie.CERT_ALIAS_SIGN, signId, SIGN_CERT_PATH, signName, caName, signSerial));
+		cdf.write(getCdfEntry(Dnie.CERT_ALIAS_INTERMEDIATE_CA, getKeyId(caKeyPair), CA_CERT_PATH, caName, caName, caSerial));
+		putFile(CDF_PATH, cdf.toByteArray());
+
+		final ByteArrayOutputStream prkdf = new ByteArrayOutputStream();
+		prkdf.write(getPrKdfEntry("KprivAutenticacion", authId, 1, AUTH_KEY_PATH, USER_KEY_SIZE)); //$NON-NLS-1$
+		prkdf.write(getPrKdfEntry("KprivFirmaDigital", signId, 2, SIGN_KEY_PATH, USER_KEY_SIZE)); //$NON-NLS-1$
+		putFile(PRKDF_PATH, prkdf.toByteArray());
+
+		keys.put(AUTH_KEY_PATH.substring(4), authKeyPair.getPrivate());
+		keys.put(SIGN_KEY_PATH.substring(4), signKeyPair.getPrivate());
+	}
+
+	private static byte[] getHolderName(final String usage) {
+		return DerEncoder.name(
+			DerEncoder.OID_COUNTRY, "ES", //$NON-NLS-1$
+			DerEncoder.OID_SERIAL_NUMBER, "99999999R", //$NON-NLS-1$
+			DerEncoder.OID_SURNAME, "ESPAÑOL ESPAÑOL", //$NON-NLS-1$
+			DerEncoder.OID_GIVEN_NAME, "CARMEN", //$NON-NLS-1$
+			DerEncoder.OID_COMMON_NAME, "ESPAÑOL ESPAÑOL, CARMEN (" + usage + ")" //$NON-NLS-1$ //$NON-NLS-2$
+		);
+	}
+
+	/** Comprime un certificado como en el DNIe: cabecera de ocho octetos con las longitudes
+	 * (sin comprimir y comprimida, en <i>little endian</i>) seguida de los datos ZLIB.
+	 * @param cert Certificado codificado.
+	 * @return Certificado comprimido. */
+	private static byte[] compress(final byte[] cert) {
+		final Deflater deflater = new Deflater();
+		deflater.setInput(cert);
+		deflater.finish();
+		final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		final byte[] buf = new byte[1024];
+		while (!deflater.finished()) {
+			final int n = deflater.deflate(buf);
+			compressed.write(buf, 0, n);
+		}
+		deflater.end();
+		final byte[] data = compressed.toByteArray();
+		final byte[] out = new byte[8 + data.length];
+		writeLittleEndian(out, 0, cert.length);
+		writeLittleEndian(out, 4, data.length);
+		System.arraycopy(data, 0, out, 8, data.length);
+		return out;
+	}
+
+	private static void writeLittleEndian(final byte[] buf, final int off, final int value) {
+		for (int i = 0; i < 4; i++) {
+			buf[off + i] = (byte) (value >> 8 * i);
+		}
+	}
+
+	@Override
+	public byte[] getAtr() {
+		return dnie3 ? ATR_DNIE3.clone() : ATR.clone();
+	}
+
+	@Override
+	public synchronized void reset() {
+		super.reset();
+		pinVerified = false;
+		pinChannel = false;
+		ifdKey = null;
+		computationKeyRef = null;
+		randomIfd = null;
+		randomIcc = null;
+		kicc = null;
+		closeSecureChannel();
+	}
+
+	private void closeSecureChannel() {
+		kenc = null;
+		kmac = null;
+		ssc = null;
+	}
+
+	@Override
+	protected byte[] processCommand(final byte[] command) throws IOException, GeneralSecurityException {
+		if ((command[0] & CLA_SECURE_MESSAGING) == CLA_SECURE_MESSAGING) {
+			return processSecure(command);
+		}
+		return execute(Apdu.decode(command), false);
+	}
+
+	/** Procesa una APDU protegida por el canal seguro CWA-14890: comprueba su MAC,
+	 * descifra sus datos, la ejecuta y protege la respuesta.
+	 * @param command APDU protegida.
+	 * @return Respuesta protegida.
+	 * @throws IOException Si fallan las operaciones criptogr&aacute;ficas.
+	 * @throws GeneralSecurityException Si falla la firma. */
+	private byte[] processSecure(final byte[] command) throws IOException, GeneralSecurityException {
+		if (kenc == null) {
+			return response(null, SW_CONDITIONS_NOT_SATISFIED);
+		}
+		final Apdu apdu = Apdu.decode(command);
+		ssc = increment(ssc);
+
+		byte[] cryptogram = null;
+		int le = -1;
+		byte[] mac = null;
+		int macOffset = -1;
+		int pos = 0;
+		final byte[] data = apdu.data != null ? apdu.data : new byte[0];
+		while (pos + 2 <= data.length) {
+			final byte tag = data[pos];
+			int len = data[pos + 1] & 0xFF;
+			int valueOffset = pos + 2;
+			if (len == 0x81) {
+				len = data[pos + 2] & 0xFF;
+				valueOffset++;
+			}
+			else if (len == 0x82) {
+				len = (data[pos + 2] & 0xFF) << 8 | data[pos + 3] & 0xFF;
+				valueOffset += 2;
+			}
+			final byte[] value = Arrays.copyOfRange(data, valueOffset, valueOffset + len);
+			if (tag == TAG_SM_DATA) {
+				cryptogram = Arrays.copyOfRange(value, 1, value.length);
+			}
+			else if (tag == TAG_SM_LE) {
+				le = 0;
+				for (final byte b : value) {
+					le = le << 8 | b & 0xFF;
+				}
+				if (le == 0) {
+					le = value.length == 1 ? 0x100 : 0x10000;
+				}
+			}
+			else if (tag == TAG_SM_MAC) {
+				mac = value;
+				macOffset = pos;
+			}
+			pos = valueOffset + len;
+		}
+		if (mac == null) {
+			closeSecureChannel();
+			return response(null, SW_SM_DATA_OBJECTS_MISSING);
+		}
+
+		final ByteArrayOutputStream macData = new ByteArrayOutputStream();
+		macData.write(addPadding(new byte[] { apdu.cla, apdu.ins, apdu.p1, apdu.p2 }));
+		macData.write(data, 0, macOffset);
+		if (!Arrays.equals(mac, getMac(addPadding(macData.toByteArray()), ssc, kmac))) {
+			closeSecureChannel();
+			return response(null, SW_INVALID_CRYPTO_CHECKSUM);
+		}
+
+		final byte[] plainData = cryptogram != null ?
+			removePadding(cryptoHelper.desedeDecrypt(cryptogram, kenc)) :
+				null;
+		// La respuesta se protege con las claves del canal por el que llego la APDU, aunque
+		// su ejecucion haya abierto otro canal (autenticacion externa dentro de un canal)
+		final byte[] sessionKenc = kenc;
+		final byte[] sessionKmac = kmac;
+		final byte[] sessionSsc = ssc;
+		final byte[] plainResponse = execute(
+			new Apdu((byte) (apdu.cla & ~CLA_SECURE_MESSAGING), apdu.ins, apdu.p1, apdu.p2, plainData, le),
+			true
+		);
+		// El canal se ha podido cerrar durante la ejecucion
+		if (kenc == null) {
+			return plainResponse;
+		}
+
+		final byte[] responseSsc = increment(sessionSsc);
+		if (kenc == sessionKenc) {
+			ssc = responseSsc;
+		}
+		final ByteArrayOutputStream tlvs = new ByteArrayOutputStream();
+		final int dataLength = plainResponse.length - 2;
+		if (dataLength > 0) {
+			final byte[] encrypted = cryptoHelper.desedeEncrypt(
+				addPadding(Arrays.copyOf(plainResponse, dataLength)),
+				sessionKenc
+			);
+			tlvs.write(DerEncoder.tlv(TAG_SM_DATA, new byte[] { 0x01 }, encrypted));
+		}
+		tlvs.write(DerEncoder.tlv(TAG_SM_STATUS_WORD, Arrays.copyOfRange(plainResponse, dataLength, plainResponse.length)));
+		final byte[] responseMac = getMac(addPadding(tlvs.toByteArray()), responseSsc, sessionKmac);
+		tlvs.write(DerEncoder.tlv(TAG_SM_MAC, responseMac));
+		return response(tlvs.toByteArray(), SW_OK);
+	}
+
+	private byte[] getMac(final byte[] paddedData, final byte[] macSsc, final byte[] macKey) throws IOException {
+		return Arrays.copyOf(cryptoHelper.desRetailMac(macSsc, paddedData, macKey), dnie3 ? MAC_LENGTH_V2 : MAC_LENGTH);
+	}
+
+	/** Ejecuta una APDU en claro.
+	 * @param apdu APDU en claro.
+	 * @param secure Si la APDU se ha recibido por el canal seguro.
+	 * @return Respuesta en claro.
+	 * @throws IOException Si fallan las operaciones criptogr&aacute;ficas.
+	 * @throws GeneralSecurityException Si falla la firma. */
+	private byte[] execute(final Apdu apdu, final boolean secure) throws IOException, GeneralSecurityException {
+		switch (apdu.ins) {
+			case (byte) 0xB8:
+				return response(serialNumber, SW_OK);
+			case (byte) 0x84:
+				randomIcc = cryptoHelper.generateRandomBytes(8);
+				return response(randomIcc, SW_OK);
+			case (byte) 0x22:
+				return manageSecurityEnvironment(apdu);
+			case (byte) 0x2A:
+				return performSecurityOperation(apdu, secure);
+			case (byte) 0x88:
+				return internalAuthenticate(apdu);
+			case (byte) 0x82:
+				return externalAuthenticate(apdu);
+			case (byte) 0x20:
+				return verify(apdu, secure);
+			default:
+				return execute(apdu);
+		}
+	}
+
+	private byte[] manageSecurityEnvironment(final Apdu apdu) {
+		// Solo se tiene en cuenta la clave privada para firma, el resto de entornos
+		// (verificacion de certificados de terminal y autenticacion) se aceptan sin mas
+		if (apdu.p1 != 0x41) {
+			return response(null, SW_OK);
+		}
+		final byte[] data = apdu.data != null ? apdu.data : new byte[0];
+		for (int pos = 0; pos + 2 <= data.length; pos += 2 + (data[pos + 1] & 0xFF)) {
+			if (data[pos] == TAG_PRIVATE_KEY_REFERENCE) {
+				final String ref = HexUtils.hexify(Arrays.copyOfRange(data, pos + 2, pos + 2 + (data[pos + 1] & 0xFF)), false);
+				if (!keys.containsKey(ref)) {
+					return response(null, SW_REFERENCED_DATA_NOT_FOUND);
+				}
+				computationKeyRef = ref;
+				return response(null, SW_OK);
+			}
+		}
+		return response(null, SW_REFERENCED_DATA_NOT_FOUND);
+	}
+
+	private byte[] performSecurityOperation(final Apdu apdu, final boolean secure) throws GeneralSecurityException {
+		// Verificacion de certificados CV de terminal: la tarjeta simulada los acepta siempre
+		if (apdu.p1 == 0x00 && apdu.p2 == (byte) 0xAE) {
+			return response(null, SW_OK);
+		}
+		if (apdu.p1 == (byte) 0x9E && apdu.p2 == (byte) 0x9A) {
+			// En el DNIe 3.0 no se firma por el canal de PIN, sino por el de usuario
+			if (!secure || !pinVerified || pinChannel) {
+				return response(null, SW_SECURITY_STATUS_NOT_SATISFIED);
+			}
+			if (computationKeyRef == null || apdu.data == null) {
+				return response(null, SW_CONDITIONS_NOT_SATISFIED);
+			}
+			final Signature signer = Signature.getInstance("NONEwithRSA"); //$NON-NLS-1$
+			signer.initSign(keys.get(computationKeyRef));
+			signer.update(apdu.data);
+			return response(signer.sign(), SW_OK);
+		}
+		return response(null, SW_INS_NOT_SUPPORTED);
+	}
+
+	/** Autenticaci&oacute;n interna CWA-14890: la tarjeta firma con su clave de componente
+	 * su semilla <i>Kicc</i> y la cifra con la clave p&uacute;blica del terminal.
+	 * @param apdu APDU con el aleatorio del terminal y el CHR de su certificado.
+	 * @return Respuesta con el mensaje de autenticaci&oacute;n.
+	 * @throws IOException Si fallan las operaciones criptogr&aacute;ficas. */
+	private byte[] internalAuthenticate(final Apdu apdu) throws IOException {
+		if (apdu.data == null || apdu.data.length <= 8) {
+			return response(null, SW_WRONG_LENGTH);
+		}
+		randomIfd = Arrays.copyOf(apdu.data, 8);
+		final byte[] chrCCvIfd = Arrays.copyOfRange(apdu.data, 8, apdu.data.length);
+		ifdKey = ifdKeys.get(HexUtils.hexify(chrCCvIfd, false));
+		if (ifdKey == null) {
+			return response(null, SW_REFERENCED_DATA_NOT_FOUND);
+		}
+		final int ifdKeyLength = ifdKey.length;
+
+		final byte[] prnd1 = cryptoHelper.generateRandomBytes(ifdKeyLength - KICC_LENGTH - SHA1_LENGTH - 2);
+		kicc = cryptoHelper.generateRandomBytes(KICC_LENGTH);
+		final byte[] hash = cryptoHelper.digest(
+			CryptoHelper.DigestAlgorithm.SHA1,
+			HexUtils.concatenateByteArrays(prnd1, kicc, randomIfd, chrCCvIfd)
+		);
+		final byte[] msg = HexUtils.concatenateByteArrays(
+			new byte[] { ISO_9796_2_PADDING_START }, prnd1, kicc, hash, new byte[] { ISO_9796_2_PADDING_END }
+		);
+
+		final BigInteger nIcc = iccPrivateKey.getModulus();
+		final BigInteger sig = new BigInteger(1, msg).modPow(iccPrivateKey.getPrivateExponent(), nIcc);
+		final BigInteger sigMin = sig.min(nIcc.subtract(sig));
+		return response(
+			toUnsignedBytes(sigMin.modPow(ifdKey.publicKey.getPublicExponent(), ifdKey.publicKey.getModulus()), ifdKeyLength),
+			SW_OK
+		);
+	}
+
+	/** Autenticaci&oacute;n externa CWA-14890: la tarjeta comprueba el mensaje firmado por
+	 * el terminal y, si es correcto, deriva las claves del canal seguro.
+	 * @param apdu APDU con el mensaje de autenticaci&oacute;n del terminal.
+	 * @return Respuesta de la autenticaci&oacute;n.
+	 * @throws IOException Si fallan las operaciones criptogr&aacute;ficas. */
+	private byte[] externalAuthenticate(final Apdu apdu) throws IOException {
+		if (randomIcc == null || kicc == null || ifdKey == null || apdu.data == null) {
+			return response(null, SW_CONDITIONS_NOT_SATISFIED);
+		}
+		final RSAPublicKey ifdPublicKey = ifdKey.publicKey;
+		final int ifdKeyLength = ifdKey.length;
+		final BigInteger nIfd = ifdPublicKey.getModulus();
+		final BigInteger sigMin = new BigInteger(1, apdu.data).modPow(
+			iccPrivateKey.getPrivateExponent(), iccPrivateKey.getModulus()
+		);
+		BigInteger m = sigMin.modPow(ifdPublicKey.getPublicExponent(), nIfd);
+		byte[] msg = toUnsignedBytes(m, ifdKeyLength);
+		if (msg[0] != ISO_9796_2_PADDING_START || msg[msg.length - 1] != ISO_9796_2_PADDING_END) {
+			// El terminal envio N.IFD - SIG
+			m = nIfd.subtract(m);
+			msg = toUnsignedBytes(m, ifdKeyLength);
+			if (msg[0] != ISO_9796_2_PADDING_START || msg[msg.length - 1] != ISO_9796_2_PADDING_END) {
+				return response(null, SW_SECURITY_STATUS_NOT_SATISFIED);
+			}
+		}
+		final int prnd2Length = ifdKeyLength - KIFD_LENGTH - SHA1_LENGTH - 2;
+		final byte[] prnd2 = Arrays.copyOfRange(msg, 1, 1 + prnd2Length);
+		final byte[] kifd = Arrays.copyOfRange(msg, 1 + prnd2Length, 1 + prnd2Length + KIFD_LENGTH);
+		final byte[] hash = Arrays.copyOfRange(msg, 1 + prnd2Length + KIFD_LENGTH, msg.length - 1);
+
+		final byte[] paddedSerial = new byte[8];
+		System.arraycopy(serialNumber, 0, paddedSerial, 8 - serialNumber.length, serialNumber.length);
+		final byte[] expectedHash = cryptoHelper.digest(
+			CryptoHelper.DigestAlgorithm.SHA1,
+			HexUtils.concatenateByteArrays(prnd2, kifd, randomIcc, paddedSerial)
+		);
+		if (!MessageDigest.isEqual(hash, expectedHash)) {
+			return response(null, SW_SECURITY_STATUS_NOT_SATISFIED);
+		}
+
+		final byte[] kifdicc = HexUtils.xor(kicc, kifd);
+		kenc = Arrays.copyOf(
+			cryptoHelper.digest(CryptoHelper.DigestAlgorithm.SHA1, HexUtils.concatenateByteArrays(kifdicc, SECURE_CHANNEL_KENC_AUX)),
+			16
+		);
+		kmac = Arrays.copyOf(
+			cryptoHelper.digest(CryptoHelper.DigestAlgorithm.SHA1, HexUtils.concatenateByteArrays(kifdicc, SECURE_CHANNEL_KMAC_AUX)),
+			16
+		);
+		ssc = new byte[8];
+		System.arraycopy(randomIcc, 4, ssc, 0, 4);
+		System.arraycopy(randomIfd, 4, ssc, 4, 4);
+		pinChannel = ifdKey.pinChannel;
+		// El PIN verificado en el canal de PIN del DNIe 3.0 sigue valiendo en el de usuario
+		if (!dnie3) {
+			pinVerified = false;
+		}
+		return response(null, SW_OK);
+	}
+
+	private byte[] verify(final Apdu apdu, final boolean secure) {
+		// Sin datos solo se consultan los intentos restantes
+		if (apdu.data == null || apdu.data.length == 0) {
+			return response(null, pinRetries > 0 ? SW_PIN_RETRIES | pinRetries : SW_AUTHENTICATION_BLOCKED);
+		}
+		if (!secure || dnie3 && !pinChannel) {
+			return response(null, SW_SECURITY_STATUS_NOT_SATISFIED);
+		}
+		if (pinRetries == 0) {
+			return response(null, SW_AUTHENTICATION_BLOCKED);
+		}
+		if (MessageDigest.isEqual(pin, apdu.data)) {
+			pinRetries = MAX_PIN_RETRIES;
+			pinVerified = true;
+			return response(null, SW_OK);
+		}
+		pinRetries--;
+		pinVerified = false;
+		return response(null, pinRetries > 0 ? SW_PIN_RETRIES | pinRetries : SW_AUTHENTICATION_BLOCKED);
+	}
+
+	private static byte[] increment(final byte[] counter) {
+		final byte[] out = counter.clone();
+		for (int i = out.length - 1; i >= 0; i--) {
+			out[i]++;
+			if (out[i] != 0) {
+				break;
+			}
+		}
+		return out;
+	}
+
+	private static byte[] addPadding(final byte[] data) {
+		final byte[] out = new byte[(data.length / 8 + 1) * 8];
+		System.arraycopy(data, 0, out, 0, data.length);
+		out[data.length] = (byte) 0x80;
+		return out;
+	}
+
+	private static byte[] removePadding(final byte[] data) {
+		for (int i = data.length - 1; i >= 0; i--) {
+			if (data[i] == (byte) 0x80) {
+				return Arrays.copyOf(data, i);
+			}
+			if (data[i] != 0x00) {
+				break;
+			}
+		}
+		return data;
+	}
+
+	/** Clave p&uacute;blica de un certificado CV de terminal admitido por la tarjeta. */
+	private static final class IfdKey {
+
+		final RSAPublicKey publicKey;
+
+		/** Tama&ntilde;o en octetos de la clave. */
+		final int length;
+
+		/** Si es la del canal de verificaci&oacute;n de PIN del DNIe 3&#46;0. */
+		final boolean pinChannel;
+
+		IfdKey(final RSAPublicKey key, final int keyLength, final boolean pinChannelKey) {
+			publicKey = key;
+			length = keyLength;
+			pinChannel = pinChannelKey;
+		}
+	}
+}
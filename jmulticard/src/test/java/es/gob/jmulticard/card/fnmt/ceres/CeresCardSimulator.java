@@ -0,0 +1,203 @@
+package es.gob.jmulticard.card.fnmt.ceres;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import es.gob.jmulticard.connection.loopback.DerEncoder;
+import es.gob.jmulticard.connection.loopback.Iso7816FourCardSimulator;
+import es.gob.jmulticard.connection.loopback.LoopbackConnection;
+
+/** Tarjeta FNMT-RCM CERES simulada en memoria, para pruebas de carga sin lector ni tarjeta
+ * f&iacute;sica (se usa mediante una {@link LoopbackConnection}).
+ * Reproduce el perfil PKCS#15 de las CERES recientes (CDF y PrKDF PKCS#15 bajo el DF 5015,
+ * con certificados sin comprimir), la verificaci&oacute;n de PIN en claro y la firma en dos
+ * pasos propia de la CERES: carga del bloque ya relleno con PKCS#1 (envuelta en dos APDU
+ * con claves de 2048 bits) y operaci&oacute;n RSA en bruto sobre &eacute;l.
+ * Las claves y los certificados se generan al crear el simulador, por lo que cada instancia
+ * es una tarjeta distinta.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class CeresCardSimulator extends Iso7816FourCardSimulator {
+
+	/** ATR de una CERES ST (anterior a la versi&oacute;n 4&#46;30). */
+	private static final byte[] ATR = {
+		(byte) 0x3B, (byte) 0x7F, (byte) 0x38, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x6A, (byte) 0x43, (byte) 0x45, (byte) 0x52,
+		(byte) 0x45, (byte) 0x53, (byte) 0x02, (byte) 0x2C, (byte) 0x34, (byte) 0x02, (byte) 0x10, (byte) 0x03, (byte) 0x90, (byte) 0x00
+	};
+
+	private static final byte[] MASTER_FILE_NAME = "Master.File".getBytes(StandardCharsets.US_ASCII); //$NON-NLS-1$
+
+	// Rutas de los ficheros (sin el MF), como las usa el controlador
+	private static final String PRKDF_PATH = "50156001"; //$NON-NLS-1$
+	private static final String CDF_PATH = "50156004"; //$NON-NLS-1$
+	private static final String AUTH_CERT_PATH = "50157004"; //$NON-NLS-1$
+	private static final String SIGN_CERT_PATH = "50157005"; //$NON-NLS-1$
+	private static final String AUTH_KEY_PATH = "50153001"; //$NON-NLS-1$
+	private static final String SIGN_KEY_PATH = "50153002"; //$NON-NLS-1$
+
+	private static final int AUTH_KEY_REFERENCE = 1;
+	private static final int SIGN_KEY_REFERENCE = 2;
+
+	private static final byte CLA_PROPRIETARY = (byte) 0x90;
+	private static final byte INS_LOAD_DATA = (byte) 0x58;
+	private static final byte INS_SIGN_DATA = (byte) 0x5A;
+
+	private static final int MAX_PIN_RETRIES = 3;
+	private static final int KEY_SIZE = 2048;
+	private static final int CERT_VALIDITY_DAYS = 4 * 365;
+
+	private final byte[] pin;
+
+	/** Claves privadas indexadas por su referencia. */
+	private final Map<Integer, RSAPrivateKey> keys = new HashMap<>();
+
+	// Estado volatil de la tarjeta, que se descarta en cada reinicio
+	private int pinRetries = MAX_PIN_RETRIES;
+	private boolean pinVerified;
+	private byte[] loadedData;
+
+	/** Crea una tarjeta CERES simulada, generando sus claves y certificados.
+	 * @param cardPin PIN de la tarjeta.
+	 * @throws IOException Si no se pueden generar las claves o los certificados. */
+	public CeresCardSimulator(final String cardPin) throws IOException {
+		if (cardPin == null || cardPin.isEmpty()) {
+			throw new IllegalArgumentException("El PIN de la tarjeta simulada no puede ser nulo ni vacio"); //$NON-NLS-1$
+		}
+		pin = cardPin.getBytes(StandardCharsets.US_ASCII);
+		try {
+			createFiles(
+				generateRsaKeyPair(KEY_SIZE),
+				generateRsaKeyPair(KEY_SIZE),
+				generateRsaKeyPair(KEY_SIZE)
+			);
+		}
+		catch (final GeneralSecurityException e) {
+			throw new IOException("No se han podido generar las claves de la CERES simulada", e); //$NON-NLS-1$
+		}
+		putDfName(MASTER_FILE_NAME, ""); //$NON-NLS-1$
+		reset();
+	}
+
+	private void createFiles(final KeyPair caKeyPair,
+			                 final KeyPair authKeyPair,
+			                 final KeyPair signKeyPair) throws GeneralSecurityException, IOException {
+		final Date notBefore = new Date();
+		final byte[] caName = DerEncoder.name(
+			DerEncoder.OID_COUNTRY, "ES", //$NON-NLS-1$
+			DerEncoder.OID_ORGANIZATION, "FNMT-RCM", //$NON-NLS-1$
+			DerEncoder.OID_ORGANIZATIONAL_UNIT, "CERES", //$NON-NLS-1$
+			DerEncoder.OID_COMMON_NAME, "AC FNMT USUARIOS SIMULADA" //$NON-NLS-1$
+		);
+		final byte[] holderName = DerEncoder.name(
+			DerEncoder.OID_COUNTRY, "ES", //$NON-NLS-1$
+			DerEncoder.OID_SERIAL_NUMBER, "IDCES-99999999R", //$NON-NLS-1$
+			DerEncoder.OID_SURNAME, "ESPAÑOL ESPAÑOL", //$NON-NLS-1$
+			DerEncoder.OID_GIVEN_NAME, "CARMEN", //$NON-NLS-1$
+			DerEncoder.OID_COMMON_NAME, "ESPAÑOL ESPAÑOL CARMEN - 99999999R" //$NON-NLS-1$
+		);
+
+		final BigInteger authSerial = newSerial();
+		putFile(
+			AUTH_CERT_PATH,
+			DerEncoder.certificate(
+				authSerial, caName, holderName, notBefore, CERT_VALIDITY_DAYS, authKeyPair.getPublic(), caKeyPair.getPrivate()
+			)
+		);
+		final BigInteger signSerial = newSerial();
+		putFile(
+			SIGN_CERT_PATH,
+			DerEncoder.certificate(
+				signSerial, caName, holderName, notBefore, CERT_VALIDITY_DAYS, signKeyPair.getPublic(), caKeyPair.getPrivate()
+			)
+		);
+
+		final byte[] authId = getKeyId(authKeyPair);
+		final byte[] signId = getKeyId(signKeyPair);
+
+		final ByteArrayOutputStream cdf = new ByteArrayOutputStream();
+		cdf.write(getCdfEntry("CertAutenticacion", authId, AUTH_CERT_PATH, holderName, caName, authSerial)); //$NON-NLS-1$
+		cdf.write(getCdfEntry("CertFirmaDigital", signId, SIGN_CERT_PATH, holderName, caName, signSerial)); //$NON-NLS-1$
+		putFile(CDF_PATH, cdf.toByteArray());
+
+		final ByteArrayOutputStream prkdf = new ByteArrayOutputStream();
+		prkdf.write(getPrKdfEntry("KprivAutenticacion", authId, AUTH_KEY_REFERENCE, AUTH_KEY_PATH, KEY_SIZE)); //$NON-NLS-1$
+		prkdf.write(getPrKdfEntry("KprivFirmaDigital", signId, SIGN_KEY_REFERENCE, SIGN_KEY_PATH, KEY_SIZE)); //$NON-NLS-1$
+		putFile(PRKDF_PATH, prkdf.toByteArray());
+
+		keys.put(Integer.valueOf(AUTH_KEY_REFERENCE), (RSAPrivateKey) authKeyPair.getPrivate());
+		keys.put(Integer.valueOf(SIGN_KEY_REFERENCE), (RSAPrivateKey) signKeyPair.getPrivate());
+	}
+
+	@Override
+	public byte[] getAtr() {
+		return ATR.clone();
+	}
+
+	@Override
+	public synchronized void reset() {
+		super.reset();
+		pinVerified = false;
+		loadedData = null;
+	}
+
+	@Override
+	protected byte[] execute(final Apdu apdu) throws IOException, GeneralSecurityException {
+		if (apdu.cla == CLA_PROPRIETARY && apdu.ins == INS_LOAD_DATA) {
+			loadedData = apdu.data;
+			return response(null, loadedData != null ? SW_OK : SW_WRONG_LENGTH);
+		}
+		if (apdu.cla == CLA_PROPRIETARY && apdu.ins == INS_SIGN_DATA) {
+			return signData(apdu);
+		}
+		if (apdu.ins == (byte) 0x20) {
+			return verify(apdu);
+		}
+		return super.execute(apdu);
+	}
+
+	/** Firma (operaci&oacute;n RSA en bruto) el bloque cargado con la clave indicada en P2.
+	 * @param apdu APDU de firma.
+	 * @return Respuesta con la firma. */
+	private byte[] signData(final Apdu apdu) {
+		if (!pinVerified) {
+			return response(null, SW_SECURITY_STATUS_NOT_SATISFIED);
+		}
+		final RSAPrivateKey key = keys.get(Integer.valueOf(apdu.p2));
+		if (key == null) {
+			return response(null, SW_REFERENCED_DATA_NOT_FOUND);
+		}
+		final int keyLength = key.getModulus().bitLength() / 8;
+		if (loadedData == null || loadedData.length != keyLength) {
+			return response(null, SW_CONDITIONS_NOT_SATISFIED);
+		}
+		final BigInteger signature = new BigInteger(1, loadedData).modPow(key.getPrivateExponent(), key.getModulus());
+		loadedData = null;
+		return response(toUnsignedBytes(signature, keyLength), SW_OK);
+	}
+
+	private byte[] verify(final Apdu apdu) {
+		// Sin datos solo se consultan los intentos restantes
+		if (apdu.data == null || apdu.data.length == 0) {
+			return response(null, pinRetries > 0 ? SW_PIN_RETRIES | pinRetries : SW_AUTHENTICATION_BLOCKED);
+		}
+		if (pinRetries == 0) {
+			return response(null, SW_AUTHENTICATION_BLOCKED);
+		}
+		if (MessageDigest.isEqual(pin, apdu.data)) {
+			pinRetries = MAX_PIN_RETRIES;
+			pinVerified = true;
+			return response(null, SW_OK);
+		}
+		pinRetries--;
+		pinVerified = false;
+		return response(null, pinRetries > 0 ? SW_PIN_RETRIES | pinRetries : SW_AUTHENTICATION_BLOCKED);
+	}
+}
@@ -0,0 +1,261 @@
+package es.gob.jmulticard.card.gide.smartcafe;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import es.gob.jmulticard.HexUtils;
+import es.gob.jmulticard.connection.loopback.DerEncoder;
+import es.gob.jmulticard.connection.loopback.Iso7816FourCardSimulator;
+import es.gob.jmulticard.connection.loopback.LoopbackConnection;
+
+/** Tarjeta G&amp;D SmartCafe con el Applet PKCS#15 de AET simulada en memoria, para pruebas
+ * de carga sin lector ni tarjeta f&iacute;sica (se usa mediante una {@link LoopbackConnection}).
+ * Reproduce el perfil PKCS#15 del Applet (ODF, CDF y PrKDF en el MF, con certificados sin
+ * comprimir en el DF 5000), la consulta del n&uacute;mero de claves y de sus m&oacute;dulos,
+ * la verificaci&oacute;n de PIN en claro y la firma de <i>DigestInfo</i> con MSE SET y PSO.
+ * Las claves y los certificados se generan al crear el simulador, por lo que cada instancia
+ * es una tarjeta distinta.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class SmartCafeCardSimulator extends Iso7816FourCardSimulator {
+
+	/** ATR de una G&amp;D SmartCafe 3&#46;2. */
+	private static final byte[] ATR = {
+		(byte) 0x3B, (byte) 0xF7, (byte) 0x18, (byte) 0x00, (byte) 0x00, (byte) 0x80,
+		(byte) 0x31, (byte) 0xFE, (byte) 0x45, (byte) 0x73, (byte) 0x66, (byte) 0x74,
+		(byte) 0x65, (byte) 0x2D, (byte) 0x6E, (byte) 0x66, (byte) 0xC4
+	};
+
+	/** Nombre (AID) del Applet PKCS#15. */
+	private static final byte[] PKCS15_NAME = {
+		(byte) 0xA0, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x63, (byte) 0x50,
+		(byte) 0x4B, (byte) 0x43, (byte) 0x53, (byte) 0x2D, (byte) 0x31, (byte) 0x35
+	};
+
+	// Rutas de los ficheros (sin el MF), como las usa el controlador
+	private static final String ODF_PATH = "5031"; //$NON-NLS-1$
+	private static final String PRKDF_PATH = "4401"; //$NON-NLS-1$
+	private static final String CDF_PATH = "4404"; //$NON-NLS-1$
+	private static final String AUTH_CERT_PATH = "50004301"; //$NON-NLS-1$
+	private static final String SIGN_CERT_PATH = "50004302"; //$NON-NLS-1$
+	private static final String AUTH_KEY_PATH = "50004201"; //$NON-NLS-1$
+	private static final String SIGN_KEY_PATH = "50004202"; //$NON-NLS-1$
+
+	/** Alias del certificado de autenticaci&oacute;n (su etiqueta en el CDF). */
+	public static final String CERT_ALIAS_AUTH = "CertAutenticacion"; //$NON-NLS-1$
+
+	/** Alias del certificado de firma (su etiqueta en el CDF). */
+	public static final String CERT_ALIAS_SIGN = "CertFirmaDigital"; //$NON-NLS-1$
+
+	private static final byte CLA_GIDE = (byte) 0x01;
+	private static final byte CLA_GIDE_PROPRIETARY = (byte) 0x80;
+	private static final byte INS_GET_DATA = (byte) 0xCA;
+	private static final byte INS_GET_PUBLIC_KEY = (byte) 0x3A;
+	private static final byte INS_GET_PIN_RETRIES = (byte) 0x34;
+	private static final byte TAG_PRIVATE_KEY_REFERENCE = (byte) 0x84;
+
+	/** N&uacute;mero m&aacute;ximo de claves del Applet, del que se descuentan las presentes
+	 * en la respuesta a la consulta del n&uacute;mero de claves. */
+	private static final int MAX_KEYS = 0x20;
+
+	private static final int MAX_PIN_RETRIES = 3;
+	private static final int KEY_SIZE = 2048;
+	private static final int CERT_VALIDITY_DAYS = 4 * 365;
+
+	private final byte[] pin;
+
+	/** Claves de la tarjeta indexadas por su ordinal. */
+	private final List<KeyPair> keys = new ArrayList<>();
+
+	// Estado volatil de la tarjeta, que se descarta en cada reinicio
+	private int pinRetries = MAX_PIN_RETRIES;
+	private boolean pinVerified;
+	private PrivateKey computationKey;
+
+	/** Crea una tarjeta SmartCafe simulada, generando sus claves y certificados.
+	 * @param cardPin PIN de la tarjeta.
+	 * @throws IOException Si no se pueden generar las claves o los certificados. */
+	public SmartCafeCardSimulator(final String cardPin) throws IOException {
+		if (cardPin == null || cardPin.isEmpty()) {
+			throw new IllegalArgumentException("El PIN de la tarjeta simulada no puede ser nulo ni vacio"); //$NON-NLS-1$
+		}
+		pin = cardPin.getBytes(StandardCharsets.US_ASCII);
+		try {
+			createFiles(
+				generateRsaKeyPair(KEY_SIZE),
+				generateRsaKeyPair(KEY_SIZE),
+				generateRsaKeyPair(KEY_SIZE)
+			);
+		}
+		catch (final GeneralSecurityException e) {
+			throw new IOException("No se han podido generar las claves de la SmartCafe simulada", e); //$NON-NLS-1$
+		}
+		// El Applet PKCS#15 tiene su propio MF, que es el que se usa tras seleccionarlo
+		putDfName(PKCS15_NAME, ""); //$NON-NLS-1$
+		reset();
+	}
+
+	private void createFiles(final KeyPair caKeyPair,
+			                 final KeyPair authKeyPair,
+			                 final KeyPair signKeyPair) throws GeneralSecurityException, IOException {
+		final Date notBefore = new Date();
+		final byte[] caName = DerEncoder.name(
+			DerEncoder.OID_COUNTRY, "ES", //$NON-NLS-1$
+			DerEncoder.OID_ORGANIZATION, "AET", //$NON-NLS-1$
+			DerEncoder.OID_COMMON_NAME, "AC SMARTCAFE SIMULADA" //$NON-NLS-1$
+		);
+		final byte[] holderName = DerEncoder.name(
+			DerEncoder.OID_COUNTRY, "ES", //$NON-NLS-1$
+			DerEncoder.OID_SERIAL_NUMBER, "99999999R", //$NON-NLS-1$
+			DerEncoder.OID_SURNAME, "ESPAÑOL ESPAÑOL", //$NON-NLS-1$
+			DerEncoder.OID_GIVEN_NAME, "CARMEN", //$NON-NLS-1$
+			DerEncoder.OID_COMMON_NAME, "CARMEN ESPAÑOL ESPAÑOL" //$NON-NLS-1$
+		);
+
+		final BigInteger authSerial = newSerial();
+		putFile(
+			AUTH_CERT_PATH,
+			DerEncoder.certificate(
+				authSerial, caName, holderName, notBefore, CERT_VALIDITY_DAYS, authKeyPair.getPublic(), caKeyPair.getPrivate()
+			)
+		);
+		final BigInteger signSerial = newSerial();
+		putFile(
+			SIGN_CERT_PATH,
+			DerEncoder.certificate(
+				signSerial, caName, holderName, notBefore, CERT_VALIDITY_DAYS, signKeyPair.getPublic(), caKeyPair.getPrivate()
+			)
+		);
+
+		final byte[] authId = getKeyId(authKeyPair);
+		final byte[] signId = getKeyId(signKeyPair);
+
+		final ByteArrayOutputStream cdf = new ByteArrayOutputStream();
+		cdf.write(getCdfEntry(CERT_ALIAS_AUTH, authId, AUTH_CERT_PATH, holderName, caName, authSerial));
+		cdf.write(getCdfEntry(CERT_ALIAS_SIGN, signId, SIGN_CERT_PATH, holderName, caName, signSerial));
+		putFile(CDF_PATH, cdf.toByteArray());
+
+		// Las referencias del PrKDF no se usan: el controlador busca el ordinal de cada clave
+		// comparando su modulo con el de la clave publica del certificado
+		final ByteArrayOutputStream prkdf = new ByteArrayOutputStream();
+		prkdf.write(getPrKdfEntry("KprivAutenticacion", authId, 0, AUTH_KEY_PATH, KEY_SIZE)); //$NON-NLS-1$
+		prkdf.write(getPrKdfEntry("KprivFirmaDigital", signId, 1, SIGN_KEY_PATH, KEY_SIZE)); //$NON-NLS-1$
+		putFile(PRKDF_PATH, prkdf.toByteArray());
+
+		putFile(
+			ODF_PATH,
+			HexUtils.concatenateByteArrays(
+				DerEncoder.tlv((byte) 0xA0, getPath(PRKDF_PATH, getFile(PRKDF_PATH).length)),
+				DerEncoder.tlv((byte) 0xA4, getPath(CDF_PATH, getFile(CDF_PATH).length))
+			)
+		);
+
+		keys.add(authKeyPair);
+		keys.add(signKeyPair);
+	}
+
+	@Override
+	public byte[] getAtr() {
+		return ATR.clone();
+	}
+
+	@Override
+	public synchronized void reset() {
+		super.reset();
+		pinVerified = false;
+		computationKey = null;
+	}
+
+	@Override
+	protected byte[] execute(final Apdu apdu) throws IOException, GeneralSecurityException {
+		switch (apdu.ins) {
+			case INS_GET_DATA:
+				// Numero de claves de la tarjeta
+				return response(
+					new byte[] { (byte) 0x7F, (byte) 0xFF, (byte) MAX_KEYS, (byte) (MAX_KEYS - keys.size()), (byte) 0x0C, (byte) 0x0B },
+					SW_OK
+				);
+			case INS_GET_PUBLIC_KEY:
+				return getPublicKey(apdu);
+			case INS_GET_PIN_RETRIES:
+				return response(new byte[] { (byte) MAX_PIN_RETRIES, (byte) pinRetries }, SW_OK);
+			case (byte) 0x20:
+				return verify(apdu);
+			case (byte) 0x22:
+				return manageSecurityEnvironment(apdu);
+			case (byte) 0x2A:
+				return performSecurityOperation(apdu);
+			default:
+				return super.execute(apdu);
+		}
+	}
+
+	private byte[] getPublicKey(final Apdu apdu) {
+		if (apdu.cla != CLA_GIDE_PROPRIETARY || apdu.p2 != 0x01) {
+			return response(null, SW_INS_NOT_SUPPORTED);
+		}
+		if (apdu.p1 < 0 || apdu.p1 >= keys.size()) {
+			return response(null, SW_REFERENCED_DATA_NOT_FOUND);
+		}
+		final BigInteger modulus = ((RSAPublicKey) keys.get(apdu.p1).getPublic()).getModulus();
+		return response(toUnsignedBytes(modulus, KEY_SIZE / 8), SW_OK);
+	}
+
+	private byte[] manageSecurityEnvironment(final Apdu apdu) {
+		if (apdu.cla != CLA_GIDE || apdu.data == null) {
+			return response(null, SW_CONDITIONS_NOT_SATISFIED);
+		}
+		final byte[] data = apdu.data;
+		for (int pos = 0; pos + 2 < data.length; pos += 2 + (data[pos + 1] & 0xFF)) {
+			if (data[pos] == TAG_PRIVATE_KEY_REFERENCE) {
+				final int ordinal = data[pos + 2] & 0xFF;
+				if (ordinal >= keys.size()) {
+					return response(null, SW_REFERENCED_DATA_NOT_FOUND);
+				}
+				computationKey = keys.get(ordinal).getPrivate();
+				return response(null, SW_OK);
+			}
+		}
+		return response(null, SW_REFERENCED_DATA_NOT_FOUND);
+	}
+
+	private byte[] performSecurityOperation(final Apdu apdu) throws GeneralSecurityException {
+		if (apdu.p1 != (byte) 0x9E || apdu.p2 != (byte) 0x9A) {
+			return response(null, SW_INS_NOT_SUPPORTED);
+		}
+		if (!pinVerified) {
+			return response(null, SW_SECURITY_STATUS_NOT_SATISFIED);
+		}
+		if (computationKey == null || apdu.data == null) {
+			return response(null, SW_CONDITIONS_NOT_SATISFIED);
+		}
+		final Signature signer = Signature.getInstance("NONEwithRSA"); //$NON-NLS-1$
+		signer.initSign(computationKey);
+		signer.update(apdu.data);
+		return response(signer.sign(), SW_OK);
+	}
+
+	private byte[] verify(final Apdu apdu) {
+		if (pinRetries == 0) {
+			return response(null, SW_AUTHENTICATION_BLOCKED);
+		}
+		if (apdu.data != null && MessageDigest.isEqual(pin, apdu.data)) {
+			pinRetries = MAX_PIN_RETRIES;
+			pinVerified = true;
+			return response(null, SW_OK);
+		}
+		pinRetries--;
+		pinVerified = false;
+		return response(null, pinRetries > 0 ? SW_PIN_RETRIES | pinRetries : SW_AUTHENTICATION_BLOCKED);
+	}
+}
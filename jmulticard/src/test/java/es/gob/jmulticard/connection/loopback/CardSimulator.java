@@ -0,0 +1,20 @@
+package es.gob.jmulticard.connection.loopback;
+
+/** Tarjeta inteligente simulada en memoria, que procesa APDU codificadas
+ * igual que lo har&iacute;a una tarjeta f&iacute;sica.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public interface CardSimulator {
+
+	/** Obtiene la respuesta al reset (ATR) de la tarjeta simulada.
+	 * @return ATR de la tarjeta simulada. */
+	byte[] getAtr();
+
+	/** Reinicia la tarjeta simulada, descartando el estado de seguridad (canal seguro,
+	 * PIN verificado, entorno de seguridad) y el fichero seleccionado. */
+	void reset();
+
+	/** Procesa una APDU de comando.
+	 * @param command APDU de comando codificada.
+	 * @return APDU de respuesta codificada (datos y palabra de estado). */
+	byte[] process(byte[] command);
+}
@@ -0,0 +1,184 @@
+package es.gob.jmulticard.connection.loopback;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/** Codificador DER m&iacute;nimo para componer los certificados X&#46;509 y las estructuras
+ * PKCS#15 de las tarjetas simuladas.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class DerEncoder {
+
+	public static final byte TAG_BOOLEAN = (byte) 0x01;
+	public static final byte TAG_INTEGER = (byte) 0x02;
+	public static final byte TAG_BIT_STRING = (byte) 0x03;
+	public static final byte TAG_OCTET_STRING = (byte) 0x04;
+	public static final byte TAG_NULL = (byte) 0x05;
+	public static final byte TAG_OID = (byte) 0x06;
+	public static final byte TAG_UTF8_STRING = (byte) 0x0C;
+	public static final byte TAG_PRINTABLE_STRING = (byte) 0x13;
+	public static final byte TAG_UTC_TIME = (byte) 0x17;
+	public static final byte TAG_SEQUENCE = (byte) 0x30;
+	public static final byte TAG_SET = (byte) 0x31;
+
+	/** OID 1.2.840.113549.1.1.11 (sha256WithRSAEncryption). */
+	private static final byte[] OID_SHA256_WITH_RSA = {
+		(byte) 0x2A, (byte) 0x86, (byte) 0x48, (byte) 0x86, (byte) 0xF7, (byte) 0x0D, (byte) 0x01, (byte) 0x01, (byte) 0x0B
+	};
+
+	/** OID 2.5.4.3 (commonName). */
+	public static final byte[] OID_COMMON_NAME = { (byte) 0x55, (byte) 0x04, (byte) 0x03 };
+
+	/** OID 2.5.4.4 (surname). */
+	public static final byte[] OID_SURNAME = { (byte) 0x55, (byte) 0x04, (byte) 0x04 };
+
+	/** OID 2.5.4.5 (serialNumber). */
+	public static final byte[] OID_SERIAL_NUMBER = { (byte) 0x55, (byte) 0x04, (byte) 0x05 };
+
+	/** OID 2.5.4.6 (countryName). */
+	public static final byte[] OID_COUNTRY = { (byte) 0x55, (byte) 0x04, (byte) 0x06 };
+
+	/** OID 2.5.4.10 (organizationName). */
+	public static final byte[] OID_ORGANIZATION = { (byte) 0x55, (byte) 0x04, (byte) 0x0A };
+
+	/** OID 2.5.4.11 (organizationalUnitName). */
+	public static final byte[] OID_ORGANIZATIONAL_UNIT = { (byte) 0x55, (byte) 0x04, (byte) 0x0B };
+
+	/** OID 2.5.4.42 (givenName). */
+	public static final byte[] OID_GIVEN_NAME = { (byte) 0x55, (byte) 0x04, (byte) 0x2A };
+
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	private DerEncoder() {
+		// No instanciable
+	}
+
+	/** Codifica un TLV DER.
+	 * @param tag Etiqueta.
+	 * @param values Valores, que se concatenan.
+	 * @return TLV codificado. */
+	public static byte[] tlv(final byte tag, final byte[]... values) {
+		int len = 0;
+		for (final byte[] v : values) {
+			len += v.length;
+		}
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(len + 4);
+		baos.write(tag);
+		if (len < 0x80) {
+			baos.write(len);
+		}
+		else if (len <= 0xFF) {
+			baos.write(0x81);
+			baos.write(len);
+		}
+		else {
+			baos.write(0x82);
+			baos.write(len >> 8);
+			baos.write(len & 0xFF);
+		}
+		for (final byte[] v : values) {
+			baos.write(v, 0, v.length);
+		}
+		return baos.toByteArray();
+	}
+
+	/** Codifica una secuencia DER.
+	 * @param values Elementos de la secuencia, ya codificados.
+	 * @return Secuencia codificada. */
+	public static byte[] sequence(final byte[]... values) {
+		return tlv(TAG_SEQUENCE, values);
+	}
+
+	/** Codifica un entero DER.
+	 * @param value Valor del entero.
+	 * @return Entero codificado. */
+	public static byte[] integer(final BigInteger value) {
+		return tlv(TAG_INTEGER, value.toByteArray());
+	}
+
+	/** Codifica un entero DER.
+	 * @param value Valor del entero.
+	 * @return Entero codificado. */
+	public static byte[] integer(final int value) {
+		return integer(BigInteger.valueOf(value));
+	}
+
+	/** Codifica un <i>UTF8String</i> DER.
+	 * @param value Texto.
+	 * @return Texto codificado. */
+	public static byte[] utf8String(final String value) {
+		return tlv(TAG_UTF8_STRING, value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/** Codifica un nombre X&#46;500 con un RDN por atributo.
+	 * @param attributes Pares de OID (<code>byte[]</code>) y valor (<code>String</code>).
+	 *                   El pa&iacute;s y el n&uacute;mero de serie se codifican como
+	 *                   <i>PrintableString</i> y el resto como <i>UTF8String</i>.
+	 * @return Nombre X&#46;500 codificado. */
+	public static byte[] name(final Object... attributes) {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		for (int i = 0; i + 1 < attributes.length; i += 2) {
+			final byte[] oid = (byte[]) attributes[i];
+			final String value = (String) attributes[i + 1];
+			final byte[] encodedValue = oid == OID_COUNTRY || oid == OID_SERIAL_NUMBER ?
+				tlv(TAG_PRINTABLE_STRING, value.getBytes(StandardCharsets.US_ASCII)) :
+					utf8String(value);
+			final byte[] rdn = tlv(TAG_SET, sequence(tlv(TAG_OID, oid), encodedValue));
+			baos.write(rdn, 0, rdn.length);
+		}
+		return sequence(baos.toByteArray());
+	}
+
+	/** Genera un certificado X&#46;509 v1 firmado con SHA256withRSA.
+	 * @param serial N&uacute;mero de serie.
+	 * @param issuer Nombre del emisor (codificado).
+	 * @param subject Nombre del titular (codificado).
+	 * @param notBefore Inicio del periodo de validez.
+	 * @param validityDays D&iacute;as de validez.
+	 * @param publicKey Clave p&uacute;blica del titular.
+	 * @param issuerKey Clave privada del emisor.
+	 * @return Certificado codificado.
+	 * @throws GeneralSecurityException Si no se puede firmar el certificado. */
+	public static byte[] certificate(final BigInteger serial,
+			                  final byte[] issuer,
+			                  final byte[] subject,
+			                  final Date notBefore,
+			                  final int validityDays,
+			                  final PublicKey publicKey,
+			                  final PrivateKey issuerKey) throws GeneralSecurityException {
+		final byte[] algorithm = sequence(tlv(TAG_OID, OID_SHA256_WITH_RSA), tlv(TAG_NULL));
+		final byte[] tbs = sequence(
+			integer(serial),
+			algorithm,
+			issuer,
+			sequence(
+				utcTime(notBefore),
+				utcTime(new Date(notBefore.getTime() + validityDays * MILLIS_PER_DAY))
+			),
+			subject,
+			publicKey.getEncoded()
+		);
+		final Signature signer = Signature.getInstance("SHA256withRSA"); //$NON-NLS-1$
+		signer.initSign(issuerKey);
+		signer.update(tbs);
+		return sequence(
+			tbs,
+			algorithm,
+			tlv(TAG_BIT_STRING, new byte[] { 0x00 }, signer.sign())
+		);
+	}
+
+	private static byte[] utcTime(final Date date) {
+		final SimpleDateFormat sdf = new SimpleDateFormat("yyMMddHHmmss'Z'", Locale.US); //$NON-NLS-1$
+		sdf.setTimeZone(TimeZone.getTimeZone("UTC")); //$NON-NLS-1$
+		return tlv(TAG_UTC_TIME, sdf.format(date).getBytes(StandardCharsets.US_ASCII));
+	}
+}
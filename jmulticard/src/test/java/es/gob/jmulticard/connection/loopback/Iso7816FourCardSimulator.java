@@ -0,0 +1,492 @@
+package es.gob.jmulticard.connection.loopback;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import es.gob.jmulticard.HexUtils;
+
+/** Tarjeta ISO 7816-4 simulada en memoria con un sistema de ficheros transparentes, base
+ * de las tarjetas simuladas con estructuras PKCS#15.
+ * Resuelve la selecci&oacute;n de ficheros por identificador (relativa al DF actual) y de
+ * DF por nombre, la lectura de binario (tambi&eacute;n por identificador corto) y las APDU
+ * envueltas por superar el tama&ntilde;o m&aacute;ximo. Las dem&aacute;s instrucciones son
+ * propias de cada tarjeta.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public abstract class Iso7816FourCardSimulator implements CardSimulator {
+
+	/** Palabra de estado de &eacute;xito. */
+	protected static final int SW_OK = 0x9000;
+
+	/** Palabra de estado de PIN incorrecto, a la que se a&ntilde;aden los intentos restantes. */
+	protected static final int SW_PIN_RETRIES = 0x63C0;
+
+	/** Palabra de estado de longitud incorrecta. */
+	protected static final int SW_WRONG_LENGTH = 0x6700;
+
+	/** Palabra de estado de condiciones de seguridad no satisfechas. */
+	protected static final int SW_SECURITY_STATUS_NOT_SATISFIED = 0x6982;
+
+	/** Palabra de estado de PIN bloqueado. */
+	protected static final int SW_AUTHENTICATION_BLOCKED = 0x6983;
+
+	/** Palabra de estado de condiciones de uso no satisfechas. */
+	protected static final int SW_CONDITIONS_NOT_SATISFIED = 0x6985;
+
+	/** Palabra de estado de fichero no encontrado. */
+	protected static final int SW_FILE_NOT_FOUND = 0x6A82;
+
+	/** Palabra de estado de datos referenciados no encontrados. */
+	protected static final int SW_REFERENCED_DATA_NOT_FOUND = 0x6A88;
+
+	/** Palabra de estado de instrucci&oacute;n no soportada. */
+	protected static final int SW_INS_NOT_SUPPORTED = 0x6D00;
+
+	private static final int SW_NO_CURRENT_EF = 0x6986;
+	private static final int SW_OFFSET_OUTSIDE_EF = 0x6B00;
+	private static final int SW_UNKNOWN = 0x6F00;
+
+	private static final String MASTER_FILE_ID = "3F00"; //$NON-NLS-1$
+
+	/** Tama&ntilde;o de los trozos de las APDU envueltas (el de PC/SC menos la cabecera). */
+	private static final int ENVELOPE_CHUNK_SIZE = 0xFF - 5;
+
+	/** Generador de los n&uacute;meros de serie de los certificados, que deben ser distintos
+	 * en cada certificado y en cada tarjeta simulada. */
+	private static final SecureRandom SERIAL_RANDOM = new SecureRandom();
+
+	/** Ficheros transparentes indexados por su ruta en hexadecimal y sin el MF. */
+	private final Map<String, byte[]> files = new HashMap<>();
+
+	/** Rutas de los DF (la vac&iacute;a para el MF) indexadas por su nombre en hexadecimal. */
+	private final Map<String, String> dfNames = new HashMap<>();
+
+	private final ByteArrayOutputStream envelope = new ByteArrayOutputStream();
+
+	// Fichero seleccionado, que se descarta en cada reinicio
+	private String currentDf = ""; //$NON-NLS-1$
+	private String currentEf;
+
+	/** A&ntilde;ade (o sustituye) un fichero transparente de la tarjeta simulada.
+	 * @param path Ruta del fichero en hexadecimal y sin el MF, como se usa en las
+	 *             <code>Location</code> (por ejemplo, <code>3F010101</code> para el DG1).
+	 * @param content Contenido del fichero. */
+	public synchronized void putFile(final String path, final byte[] content) {
+		if (path == null || content == null) {
+			throw new IllegalArgumentException("Ni la ruta ni el contenido del fichero pueden ser nulos"); //$NON-NLS-1$
+		}
+		files.put(path.toUpperCase(), content.clone());
+	}
+
+	/** Obtiene el contenido de un fichero transparente de la tarjeta simulada.
+	 * @param path Ruta del fichero en hexadecimal y sin el MF.
+	 * @return Contenido del fichero, o <code>null</code> si no existe. */
+	protected final synchronized byte[] getFile(final String path) {
+		return files.get(path.toUpperCase());
+	}
+
+	/** Da nombre a un DF, para que pueda seleccionarse por nombre.
+	 * @param name Nombre del DF.
+	 * @param path Ruta del DF en hexadecimal y sin el MF (vac&iacute;a para el propio MF). */
+	protected final synchronized void putDfName(final byte[] name, final String path) {
+		dfNames.put(HexUtils.hexify(name, false), path.toUpperCase());
+	}
+
+	/** Obtiene la ruta del DF seleccionado.
+	 * @return Ruta del DF seleccionado en hexadecimal y sin el MF (vac&iacute;a para el MF). */
+	protected final String getCurrentDf() {
+		return currentDf;
+	}
+
+	@Override
+	public synchronized void reset() {
+		currentDf = ""; //$NON-NLS-1$
+		currentEf = null;
+		envelope.reset();
+	}
+
+	@Override
+	public synchronized byte[] process(final byte[] command) {
+		try {
+			if (command == null || command.length < 4) {
+				return response(null, SW_WRONG_LENGTH);
+			}
+			// APDU envuelta por superar el tamano maximo: se acumula hasta tenerla completa
+			if (command[0] == (byte) 0x90 && command[1] == (byte) 0xC2) {
+				final Apdu chunk = Apdu.decode(command);
+				envelope.write(chunk.data, 0, chunk.data.length);
+				final byte[] enveloped = envelope.toByteArray();
+				if (!Apdu.isComplete(enveloped, chunk.data.length)) {
+					return response(null, SW_OK);
+				}
+				envelope.reset();
+				return process(enveloped);
+			}
+			return processCommand(command);
+		}
+		catch (final Exception e) {
+			return response(null, SW_UNKNOWN);
+		}
+	}
+
+	/** Procesa una APDU de comando ya completa (sin envoltura).
+	 * Por defecto la decodifica y la ejecuta con {@link #execute(Apdu)}.
+	 * @param command APDU de comando codificada.
+	 * @return APDU de respuesta codificada.
+	 * @throws IOException Si fallan las operaciones criptogr&aacute;ficas.
+	 * @throws GeneralSecurityException Si falla la firma. */
+	protected byte[] processCommand(final byte[] command) throws IOException, GeneralSecurityException {
+		return execute(Apdu.decode(command));
+	}
+
+	/** Ejecuta una APDU en claro.
+	 * Por defecto solo se admiten la selecci&oacute;n de fichero y la lectura de binario.
+	 * @param apdu APDU en claro.
+	 * @return Respuesta en claro.
+	 * @throws IOException Si fallan las operaciones criptogr&aacute;ficas.
+	 * @throws GeneralSecurityException Si falla la firma. */
+	protected byte[] execute(final Apdu apdu) throws IOException, GeneralSecurityException {
+		switch (apdu.ins) {
+			case (byte) 0xA4:
+				return select(apdu);
+			case (byte) 0xB0:
+				return readBinary(apdu);
+			default:
+				return response(null, SW_INS_NOT_SUPPORTED);
+		}
+	}
+
+	/** Selecciona un DF por nombre o un fichero por identificador, relativo al DF actual.
+	 * @param apdu APDU de selecci&oacute;n.
+	 * @return Respuesta con la FCI del fichero seleccionado. */
+	protected final byte[] select(final Apdu apdu) {
+		if (apdu.p1 == 0x04) {
+			final String path = apdu.data != null ? dfNames.get(HexUtils.hexify(apdu.data, false)) : null;
+			if (path == null) {
+				return response(null, SW_FILE_NOT_FOUND);
+			}
+			currentDf = path;
+			currentEf = null;
+			return getFci(path.isEmpty() ? MASTER_FILE_ID : path.substring(path.length() - 4), 0);
+		}
+		if (apdu.data == null || apdu.data.length != 2) {
+			return response(null, SW_WRONG_LENGTH);
+		}
+		final String id = HexUtils.hexify(apdu.data, false);
+		if (MASTER_FILE_ID.equals(id)) {
+			currentDf = ""; //$NON-NLS-1$
+			currentEf = null;
+			return getFci(id, 0);
+		}
+		final String path = currentDf + id;
+		final byte[] content = files.get(path);
+		if (content != null) {
+			currentEf = path;
+			return getFci(id, content.length);
+		}
+		for (final String file : files.keySet()) {
+			if (file.length() > path.length() && file.startsWith(path)) {
+				currentDf = path;
+				currentEf = null;
+				return getFci(id, 0);
+			}
+		}
+		return response(null, SW_FILE_NOT_FOUND);
+	}
+
+	/** Compone la FCI de un fichero con su tama&ntilde;o (81) y su identificador (83).
+	 * @param id Identificador del fichero.
+	 * @param length Tama&ntilde;o del fichero.
+	 * @return Respuesta con la FCI. */
+	private static byte[] getFci(final String id, final int length) {
+		return response(
+			DerEncoder.tlv(
+				(byte) 0x6F,
+				DerEncoder.tlv((byte) 0x81, new byte[] { (byte) (length >> 8), (byte) length }),
+				DerEncoder.tlv((byte) 0x83, fromHex(id))
+			),
+			SW_OK
+		);
+	}
+
+	/** Lee el binario del fichero seleccionado o del indicado por su identificador corto.
+	 * @param apdu APDU de lectura.
+	 * @return Respuesta con los datos le&iacute;dos. */
+	protected final byte[] readBinary(final Apdu apdu) {
+		final int offset;
+		if ((apdu.p1 & 0x80) != 0) {
+			// Lectura con identificador corto (SFI), que selecciona el EF 01xx del DF actual
+			final String path = currentDf + String.format("01%02X", Integer.valueOf(apdu.p1 & 0x1F)); //$NON-NLS-1$
+			if (!files.containsKey(path)) {
+				return response(null, SW_FILE_NOT_FOUND);
+			}
+			currentEf = path;
+			offset = apdu.p2 & 0xFF;
+		}
+		else {
+			offset = (apdu.p1 & 0xFF) << 8 | apdu.p2 & 0xFF;
+		}
+		if (currentEf == null) {
+			return response(null, SW_NO_CURRENT_EF);
+		}
+		final byte[] content = files.get(currentEf);
+		if (offset > content.length) {
+			return response(null, SW_OFFSET_OUTSIDE_EF);
+		}
+		final int le = apdu.le < 0 ? 0x100 : apdu.le;
+		return response(Arrays.copyOfRange(content, offset, Math.min(content.length, offset + le)), SW_OK);
+	}
+
+	/** Compone una entrada PKCS#15 de certificado X&#46;509 para un CDF.
+	 * @param alias Etiqueta del certificado.
+	 * @param id Identificador del certificado, el mismo que el de su clave privada.
+	 * @param path Ruta del certificado, que ya debe estar en la tarjeta.
+	 * @param subject Titular del certificado (codificado).
+	 * @param issuer Emisor del certificado (codificado).
+	 * @param serial N&uacute;mero de serie del certificado.
+	 * @return Entrada del CDF. */
+	protected final byte[] getCdfEntry(final String alias,
+			                           final byte[] id,
+			                           final String path,
+			                           final byte[] subject,
+			                           final byte[] issuer,
+			                           final BigInteger serial) {
+		return DerEncoder.sequence(
+			DerEncoder.sequence(
+				DerEncoder.utf8String(alias),
+				DerEncoder.tlv(DerEncoder.TAG_BIT_STRING, new byte[] { 0x06, 0x40 })
+			),
+			DerEncoder.sequence(
+				DerEncoder.tlv(DerEncoder.TAG_OCTET_STRING, id)
+			),
+			DerEncoder.tlv(
+				(byte) 0xA1,
+				DerEncoder.sequence(
+					getPath(path, getFile(path).length),
+					subject,
+					DerEncoder.tlv((byte) 0xA0, issuer),
+					DerEncoder.integer(serial)
+				)
+			)
+		);
+	}
+
+	/** Compone una entrada PKCS#15 de clave privada RSA para un PrKDF.
+	 * @param label Etiqueta de la clave.
+	 * @param id Identificador de la clave, el mismo que el de su certificado.
+	 * @param keyReference Referencia de la clave en la tarjeta.
+	 * @param path Ruta de la clave.
+	 * @param keySize Tama&ntilde;o en bits de la clave.
+	 * @return Entrada del PrKDF. */
+	protected static byte[] getPrKdfEntry(final String label,
+			                              final byte[] id,
+			                              final int keyReference,
+			                              final String path,
+			                              final int keySize) {
+		return DerEncoder.sequence(
+			DerEncoder.sequence(
+				DerEncoder.utf8String(label),
+				DerEncoder.tlv(DerEncoder.TAG_BIT_STRING, new byte[] { 0x06, (byte) 0xC0 })
+			),
+			DerEncoder.sequence(
+				DerEncoder.tlv(DerEncoder.TAG_OCTET_STRING, id),
+				DerEncoder.tlv(DerEncoder.TAG_BIT_STRING, new byte[] { 0x06, 0x30, 0x00 }),
+				DerEncoder.tlv(DerEncoder.TAG_BOOLEAN, new byte[] { (byte) 0xFF }),
+				DerEncoder.tlv(DerEncoder.TAG_BIT_STRING, new byte[] { 0x03, (byte) 0xB8 }),
+				DerEncoder.integer(keyReference)
+			),
+			DerEncoder.tlv(
+				(byte) 0xA1,
+				DerEncoder.sequence(
+					getPath(path, 0x03B0),
+					DerEncoder.integer(keySize)
+				)
+			)
+		);
+	}
+
+	/** Compone un <i>Path</i> PKCS#15.
+	 * @param path Ruta en hexadecimal.
+	 * @param length Tama&ntilde;o del fichero.
+	 * @return <i>Path</i> codificado. */
+	protected static byte[] getPath(final String path, final int length) {
+		return DerEncoder.sequence(
+			DerEncoder.tlv(DerEncoder.TAG_OCTET_STRING, fromHex(path)),
+			DerEncoder.integer(0),
+			DerEncoder.tlv((byte) 0x80, new byte[] { (byte) (length >> 8), (byte) length })
+		);
+	}
+
+	/** Obtiene el identificador PKCS#15 de una clave RSA (la huella SHA-1 de su m&oacute;dulo).
+	 * @param kp Par de claves.
+	 * @return Identificador de la clave.
+	 * @throws GeneralSecurityException Si no se puede calcular la huella. */
+	protected static byte[] getKeyId(final KeyPair kp) throws GeneralSecurityException {
+		return MessageDigest.getInstance("SHA-1").digest( //$NON-NLS-1$
+			((RSAPublicKey) kp.getPublic()).getModulus().toByteArray()
+		);
+	}
+
+	/** Genera un par de claves RSA.
+	 * @param size Tama&ntilde;o en bits de la clave.
+	 * @return Par de claves.
+	 * @throws GeneralSecurityException Si no se puede generar el par de claves. */
+	protected static KeyPair generateRsaKeyPair(final int size) throws GeneralSecurityException {
+		final KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA"); //$NON-NLS-1$
+		kpg.initialize(size);
+		return kpg.generateKeyPair();
+	}
+
+	/** Genera un n&uacute;mero de serie aleatorio para un certificado.
+	 * @return N&uacute;mero de serie positivo. */
+	protected static BigInteger newSerial() {
+		return new BigInteger(63, SERIAL_RANDOM);
+	}
+
+	/** Compone una APDU de respuesta.
+	 * @param data Datos de la respuesta (puede ser <code>null</code>).
+	 * @param sw Palabra de estado.
+	 * @return APDU de respuesta codificada. */
+	protected static byte[] response(final byte[] data, final int sw) {
+		final int len = data != null ? data.length : 0;
+		final byte[] out = new byte[len + 2];
+		if (len > 0) {
+			System.arraycopy(data, 0, out, 0, len);
+		}
+		out[len] = (byte) (sw >> 8);
+		out[len + 1] = (byte) sw;
+		return out;
+	}
+
+	/** Convierte un texto hexadecimal en octetos.
+	 * @param hex Texto hexadecimal.
+	 * @return Octetos. */
+	protected static byte[] fromHex(final String hex) {
+		final byte[] out = new byte[hex.length() / 2];
+		for (int i = 0; i < out.length; i++) {
+			out[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		}
+		return out;
+	}
+
+	/** Codifica un entero positivo en un n&uacute;mero fijo de octetos.
+	 * @param value Entero.
+	 * @param length N&uacute;mero de octetos.
+	 * @return Entero codificado. */
+	protected static byte[] toUnsignedBytes(final BigInteger value, final int length) {
+		final byte[] raw = value.toByteArray();
+		final byte[] out = new byte[length];
+		if (raw.length > length) {
+			System.arraycopy(raw, raw.length - length, out, 0, length);
+		}
+		else {
+			System.arraycopy(raw, 0, out, length - raw.length, raw.length);
+		}
+		return out;
+	}
+
+	/** APDU de comando decodificada. */
+	public static final class Apdu {
+
+		/** Clase. */
+		public final byte cla;
+
+		/** Instrucci&oacute;n. */
+		public final byte ins;
+
+		/** Primer par&aacute;metro. */
+		public final byte p1;
+
+		/** Segundo par&aacute;metro. */
+		public final byte p2;
+
+		/** Datos, o <code>null</code> si no tiene. */
+		public final byte[] data;
+
+		/** Le de la APDU, o -1 si no tiene. */
+		public final int le;
+
+		/** Crea una APDU de comando.
+		 * @param c Clase.
+		 * @param i Instrucci&oacute;n.
+		 * @param param1 Primer par&aacute;metro.
+		 * @param param2 Segundo par&aacute;metro.
+		 * @param d Datos, o <code>null</code> si no tiene.
+		 * @param l Le de la APDU, o -1 si no tiene. */
+		public Apdu(final byte c, final byte i, final byte param1, final byte param2, final byte[] d, final int l) {
+			cla = c;
+			ins = i;
+			p1 = param1;
+			p2 = param2;
+			data = d;
+			le = l;
+		}
+
+		/** Decodifica una APDU de comando corta o extendida.
+		 * @param apdu APDU de comando codificada.
+		 * @return APDU decodificada. */
+		public static Apdu decode(final byte[] apdu) {
+			byte[] data = null;
+			int le = -1;
+			if (apdu.length == 5) {
+				le = apdu[4] == 0 ? 0x100 : apdu[4] & 0xFF;
+			}
+			else if (apdu.length > 5 && apdu[4] != 0) {
+				final int lc = apdu[4] & 0xFF;
+				data = Arrays.copyOfRange(apdu, 5, 5 + lc);
+				if (apdu.length > 5 + lc) {
+					le = apdu[5 + lc] == 0 ? 0x100 : apdu[5 + lc] & 0xFF;
+				}
+			}
+			else if (apdu.length == 7) {
+				le = (apdu[5] & 0xFF) << 8 | apdu[6] & 0xFF;
+				if (le == 0) {
+					le = 0x10000;
+				}
+			}
+			else if (apdu.length > 7) {
+				final int lc = (apdu[5] & 0xFF) << 8 | apdu[6] & 0xFF;
+				data = Arrays.copyOfRange(apdu, 7, 7 + lc);
+				if (apdu.length > 7 + lc) {
+					le = (apdu[7 + lc] & 0xFF) << 8 | apdu[8 + lc] & 0xFF;
+					if (le == 0) {
+						le = 0x10000;
+					}
+				}
+			}
+			return new Apdu(apdu[0], apdu[1], apdu[2], apdu[3], data, le);
+		}
+
+		/** Indica si una APDU recibida en trozos est&aacute; ya completa. Como el Le es
+		 * opcional, una APDU que ocupa justo sus datos solo se considera completa si el
+		 * &uacute;ltimo trozo no es de tama&ntilde;o m&aacute;ximo.
+		 * @param apdu APDU acumulada.
+		 * @param lastChunkLength Tama&ntilde;o del &uacute;ltimo trozo recibido.
+		 * @return <code>true</code> si la APDU est&aacute; completa. */
+		static boolean isComplete(final byte[] apdu, final int lastChunkLength) {
+			if (apdu.length < 5) {
+				return false;
+			}
+			final int minLength;
+			if (apdu[4] != 0) {
+				minLength = 5 + (apdu[4] & 0xFF);
+			}
+			else if (apdu.length < 7) {
+				return false;
+			}
+			else {
+				minLength = 7 + ((apdu[5] & 0xFF) << 8 | apdu[6] & 0xFF);
+			}
+			return apdu.length > minLength || apdu.length == minLength && lastChunkLength < ENVELOPE_CHUNK_SIZE;
+		}
+	}
+}
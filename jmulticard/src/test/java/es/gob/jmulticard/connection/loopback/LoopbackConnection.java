@@ -0,0 +1,273 @@
+package es.gob.jmulticard.connection.loopback;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import es.gob.jmulticard.apdu.ResponseApdu;
+import es.gob.jmulticard.connection.AbstractApduConnectionIso7816;
+import es.gob.jmulticard.connection.ApduConnection;
+import es.gob.jmulticard.connection.ApduConnectionException;
+import es.gob.jmulticard.connection.ApduConnectionProtocol;
+import es.gob.jmulticard.connection.CardConnectionEvent;
+import es.gob.jmulticard.connection.CardConnectionListener;
+import es.gob.jmulticard.connection.CardNotPresentException;
+import es.gob.jmulticard.connection.TerminalAtrReader;
+
+/** Conexi&oacute;n con tarjetas simuladas en memoria.
+ * Se comporta como uno o varios lectores con una tarjeta cada uno (la extracci&oacute;n y la
+ * inserci&oacute;n se simulan en el lector establecido), y permite indicar una latencia
+ * por APDU para aproximar los tiempos de un lector real en pruebas de carga sin hardware,
+ * as&iacute; como simular la extracci&oacute;n y la inserci&oacute;n de la tarjeta.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class LoopbackConnection extends AbstractApduConnectionIso7816 implements TerminalAtrReader {
+
+	/** Tama&ntilde;o m&aacute;ximo de APDU que se env&iacute;a sin envoltura (igual que en PC/SC). */
+	private static final int MAX_APDU_SIZE = 0xFF;
+
+	private static final String TERMINAL_NAME = "Lector simulado (loopback)"; //$NON-NLS-1$
+
+	private final CardSimulator[] cards;
+
+	/** Tarjeta del lector establecido. */
+	private volatile CardSimulator card;
+
+	private volatile int currentTerminal = 0;
+
+	private final AtomicLong transmittedApdus = new AtomicLong();
+
+	private volatile long latencyNanos = 0;
+
+	private volatile boolean open = false;
+
+	private volatile boolean cardPresent = true;
+
+	/** Indica si se debe reabrir la conexi&oacute;n al insertar la tarjeta. */
+	private volatile boolean reopenOnInsertion = false;
+
+	private final List<CardConnectionListener> listeners = new CopyOnWriteArrayList<>();
+
+	private ApduConnectionProtocol protocol = ApduConnectionProtocol.T1;
+
+	/** Crea una conexi&oacute;n con una tarjeta simulada, sin latencia.
+	 * @param simulator Tarjeta simulada. */
+	public LoopbackConnection(final CardSimulator simulator) {
+		this(new CardSimulator[] { simulator });
+	}
+
+	/** Crea una conexi&oacute;n con varios lectores simulados, sin latencia. El lector
+	 * establecido inicialmente es el primero.
+	 * Las tarjetas simuladas pueden compartirse entre varias conexiones (por ejemplo,
+	 * una por lector), siempre que solo una de ellas las use a la vez.
+	 * @param simulators Tarjetas simuladas, una por lector (en el orden de los lectores). */
+	public LoopbackConnection(final CardSimulator... simulators) {
+		if (simulators == null || simulators.length == 0) {
+			throw new IllegalArgumentException("Debe indicarse al menos una tarjeta simulada"); //$NON-NLS-1$
+		}
+		for (final CardSimulator simulator : simulators) {
+			if (simulator == null) {
+				throw new IllegalArgumentException("La tarjeta simulada no puede ser nula"); //$NON-NLS-1$
+			}
+		}
+		cards = simulators.clone();
+		card = cards[0];
+	}
+
+	/** Establece la latencia que se a&ntilde;ade a cada APDU transmitida.
+	 * @param latency Latencia por APDU (cero para no a&ntilde;adir ninguna).
+	 * @param unit Unidad de la latencia. */
+	public void setApduLatency(final long latency, final TimeUnit unit) {
+		if (latency < 0) {
+			throw new IllegalArgumentException("La latencia no puede ser negativa: " + latency); //$NON-NLS-1$
+		}
+		latencyNanos = unit.toNanos(latency);
+	}
+
+	/** Obtiene el n&uacute;mero de APDU transmitidas a la tarjeta simulada desde la
+	 * creaci&oacute;n de la conexi&oacute;n (las APDU troceadas cuentan por cada trozo).
+	 * @return N&uacute;mero de APDU transmitidas. */
+	public long getTransmittedApduCount() {
+		return transmittedApdus.get();
+	}
+
+	@Override
+	public void setProtocol(final ApduConnectionProtocol p) {
+		if (p == null) {
+			throw new IllegalArgumentException("El protocolo de conexion no puede ser nulo"); //$NON-NLS-1$
+		}
+		protocol = p;
+	}
+
+	/** Obtiene el protocolo de conexi&oacute;n con la tarjeta (solo informativo).
+	 * @return Protocolo de conexi&oacute;n con la tarjeta. */
+	public ApduConnectionProtocol getProtocol() {
+		return protocol;
+	}
+
+	/** Simula la extracci&oacute;n de la tarjeta del lector, cerrando la conexi&oacute;n
+	 * y notific&aacute;ndolo a los <code>CardConnectionListener</code> registrados. */
+	public void removeCard() {
+		if (!cardPresent) {
+			return;
+		}
+		cardPresent = false;
+		reopenOnInsertion = open;
+		open = false;
+		final CardConnectionEvent event = new CardConnectionEvent(this);
+		for (final CardConnectionListener ccl : listeners) {
+			ccl.cardRemoved(event);
+		}
+	}
+
+	/** Simula la inserci&oacute;n de la tarjeta en el lector, reabriendo la conexi&oacute;n
+	 * si estaba abierta al extraerla y notific&aacute;ndolo despu&eacute;s a los
+	 * <code>CardConnectionListener</code> registrados. */
+	public void insertCard() {
+		if (cardPresent) {
+			return;
+		}
+		cardPresent = true;
+		if (reopenOnInsertion) {
+			reopenOnInsertion = false;
+			card.reset();
+			open = true;
+		}
+		final CardConnectionEvent event = new CardConnectionEvent(this);
+		for (final CardConnectionListener ccl : listeners) {
+			ccl.cardInserted(event);
+		}
+	}
+
+	@Override
+	public void open() throws CardNotPresentException {
+		if (!cardPresent) {
+			throw new CardNotPresentException();
+		}
+		if (!open) {
+			card.reset();
+			open = true;
+		}
+	}
+
+	@Override
+	public void close() {
+		open = false;
+		reopenOnInsertion = false;
+	}
+
+	@Override
+	protected synchronized ResponseApdu internalTransmit(final byte[] apdu) throws ApduConnectionException {
+		if (!open) {
+			throw new ApduConnectionException(
+				"No se puede transmitir sobre una conexion cerrada" //$NON-NLS-1$
+			);
+		}
+		final long latency = latencyNanos;
+		if (latency > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(latency);
+			}
+			catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ApduConnectionException(
+					"Se ha interrumpido la transmision de la APDU", e //$NON-NLS-1$
+				);
+			}
+		}
+		transmittedApdus.incrementAndGet();
+		return new ResponseApdu(card.process(apdu));
+	}
+
+	@Override
+	public synchronized byte[] reset() throws CardNotPresentException {
+		if (!cardPresent) {
+			throw new CardNotPresentException();
+		}
+		card.reset();
+		open = true;
+		return card.getAtr();
+	}
+
+	@Override
+	public void addCardConnectionListener(final CardConnectionListener ccl) {
+		if (ccl == null) {
+			throw new IllegalArgumentException("El CardConnectionListener no puede ser nulo"); //$NON-NLS-1$
+		}
+		listeners.add(ccl);
+	}
+
+	@Override
+	public void removeCardConnectionListener(final CardConnectionListener ccl) {
+		listeners.remove(ccl);
+	}
+
+	@Override
+	public long[] getTerminals(final boolean onlyWithCardPresent) {
+		final long[] terminals = new long[cards.length];
+		int n = 0;
+		for (int i = 0; i < cards.length; i++) {
+			if (!onlyWithCardPresent || isCardPresent(i)) {
+				terminals[n++] = i;
+			}
+		}
+		return n == terminals.length ? terminals : Arrays.copyOf(terminals, n);
+	}
+
+	private boolean isCardPresent(final int terminal) {
+		return terminal != currentTerminal || cardPresent;
+	}
+
+	private void checkTerminal(final int terminal) throws ApduConnectionException {
+		if (terminal < 0 || terminal >= cards.length) {
+			throw new ApduConnectionException("No existe el lector simulado numero " + terminal); //$NON-NLS-1$
+		}
+	}
+
+	@Override
+	public String getTerminalInfo(final int terminal) throws ApduConnectionException {
+		checkTerminal(terminal);
+		return cards.length == 1 ? TERMINAL_NAME : TERMINAL_NAME + " " + terminal; //$NON-NLS-1$
+	}
+
+	@Override
+	public byte[] getAtr(final int terminal) throws ApduConnectionException {
+		checkTerminal(terminal);
+		return isCardPresent(terminal) ? cards[terminal].getAtr() : null;
+	}
+
+	@Override
+	public synchronized void setTerminal(final int t) throws ApduConnectionException {
+		checkTerminal(t);
+		if (t == currentTerminal) {
+			return;
+		}
+		// Al cambiar de lector se cierra la conexion con la tarjeta anterior
+		open = false;
+		reopenOnInsertion = false;
+		cardPresent = true;
+		currentTerminal = t;
+		card = cards[t];
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public ApduConnection getSubConnection() {
+		return null;
+	}
+
+	@Override
+	public int getMaxApduSize() {
+		return MAX_APDU_SIZE;
+	}
+
+	@Override
+	public String toString() {
+		return cards.length == 1 ? TERMINAL_NAME : TERMINAL_NAME + " " + currentTerminal; //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,4 @@
+/** Conexi&oacute;n con tarjetas simuladas en memoria (<i>loopback</i>), para pruebas de carga
+ * y medidas de rendimiento sin lector ni tarjeta f&iacute;sica.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+package es.gob.jmulticard.connection.loopback;
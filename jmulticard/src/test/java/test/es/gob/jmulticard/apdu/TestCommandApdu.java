@@ -1,6 +1,8 @@
 package test.es.gob.jmulticard.apdu;
 
+import es.gob.jmulticard.HexUtils;
 import es.gob.jmulticard.apdu.dnie.GetChipInfoApduCommand;
+import es.gob.jmulticard.apdu.iso7816four.ReadBinaryApduCommand;
 import junit.framework.TestCase;
 
 /** Prueba del m&eacute;todo {@linkplain es.gob.jmulticard.apdu.CommandApdu#setLe(int)} de
@@ -13,4 +15,20 @@ public class TestCommandApdu extends TestCase {
         final GetChipInfoApduCommand command = new GetChipInfoApduCommand();
         command.setLe(0);
     }
+
+    /** Prueba de la codificaci&oacute;n de Le cortos y extendidos. */
+    public final static void testLeEncoding() {
+        assertEquals(
+    		"00B00102DE", //$NON-NLS-1$
+    		HexUtils.hexify(new ReadBinaryApduCommand((byte) 0x00, (byte) 0x01, (byte) 0x02, 0xDE).getBytes(), false)
+		);
+        assertEquals(
+    		"00B0010200", //$NON-NLS-1$
+    		HexUtils.hexify(new ReadBinaryApduCommand((byte) 0x00, (byte) 0x01, (byte) 0x02, 0x100).getBytes(), false)
+		);
+        assertEquals(
+    		"00B0010200101F", //$NON-NLS-1$
+    		HexUtils.hexify(new ReadBinaryApduCommand((byte) 0x00, (byte) 0x01, (byte) 0x02, 0x101F).getBytes(), false)
+		);
+    }
 }
\ No newline at end of file
@@ -1,11 +1,17 @@
 package test.es.gob.jmulticard.asn1;
 
+import java.io.IOException;
+import java.util.function.Supplier;
+
 import org.junit.Assert;
 import org.junit.Test;
 
 import es.gob.jmulticard.asn1.Asn1Exception;
+import es.gob.jmulticard.asn1.DecoderObject;
+import es.gob.jmulticard.asn1.DecoderObjectFactory;
 import es.gob.jmulticard.asn1.TlvException;
 import es.gob.jmulticard.asn1.der.BitString;
+import es.gob.jmulticard.asn1.der.Null;
 import es.gob.jmulticard.asn1.der.Utf8String;
 import es.gob.jmulticard.asn1.der.pkcs1.DigestInfo;
 import es.gob.jmulticard.asn1.der.pkcs15.AccessFlags;
@@ -31,6 +37,33 @@ public final class TestAsn1SimpleTypes {
 		System.out.println(di);
 	}
 
+	/** Prueba la construcci&oacute;n de un <code>DigestInfo</code> a partir de una huella ya calculada.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testDigestInfoFromDigest() throws Exception {
+		// La muestra es una cabecera SHA-1 de 15 octetos seguida de la huella de 20
+		final byte[] expected = new byte[35];
+		System.arraycopy(SAMPLE_DIGEST_INFO, 0, expected, 0, expected.length);
+		final byte[] digest = new byte[20];
+		System.arraycopy(SAMPLE_DIGEST_INFO, 15, digest, 0, digest.length);
+		Assert.assertArrayEquals(expected, DigestInfo.encodeDigest("SHA1withRSA", digest)); //$NON-NLS-1$
+		// Con NONEwithRSA los datos ya son el DigestInfo
+		Assert.assertArrayEquals(
+			expected,
+			DigestInfo.encode(DigestInfo.RAW_DIGESTINFO_ALGORITHM, expected, null)
+		);
+		Assert.assertFalse(DigestInfo.isDigestInfo(SAMPLE_DIGEST_INFO));
+		try {
+			DigestInfo.encodeDigest("SHA256withRSA", digest); //$NON-NLS-1$
+		}
+		catch(final IOException e) {
+			System.out.println("Fallo esperado: " + e); //$NON-NLS-1$
+			return;
+		}
+		Assert.fail("Tendria que haber saltado un IOException"); //$NON-NLS-1$
+	}
+
 	/** Prueba la creaci&oacute; de un tipo <code>UTF8String</code> con datos incorrectos.
 	 * @throws TlvException Si no se puede crear el TLV. */
 	@Test
@@ -63,4 +96,35 @@ public final class TestAsn1SimpleTypes {
 		Assert.fail("Tendria que haber saltado un Asn1Exception"); //$NON-NLS-1$
 	}
 
+	/** Prueba la comprobaci&oacute;n de etiquetas sin excepciones de las factor&iacute;as de tipos.
+	 * @throws Exception En cualquier error. */
+	@Test
+	@SuppressWarnings("static-method")
+	public void testDecoderObjectFactoryTags() throws Exception {
+		final Supplier<Utf8String> supplier = Utf8String::new;
+		final DecoderObjectFactory f = DecoderObjectFactory.getInstance(supplier);
+		Assert.assertEquals(Utf8String.class, f.getType());
+		Assert.assertTrue(f.isCompatibleTag((byte) 0x0C));
+		Assert.assertTrue(f.isCompatibleTag((byte) 0x13));
+		Assert.assertFalse(f.isCompatibleTag((byte) 0x04));
+		Assert.assertTrue(f.newInstance() instanceof Utf8String);
+		Assert.assertNotSame(f.newInstance(), f.newInstance());
+		Assert.assertTrue(DecoderObjectFactory.getInstance(Null::new).isCompatibleTag((byte) 0x30));
+		Assert.assertFalse(DecoderObjectFactory.getInstance(AccessFlags::new).isCompatibleTag((byte) 0x30));
+
+		// Proveedores de la misma clase (lambdas de un mismo punto del codigo) que crean
+		// objetos de tipos distintos no comparten factoria
+		final DecoderObjectFactory utf8 = DecoderObjectFactory.getInstance(newSupplier(true));
+		final DecoderObjectFactory flags = DecoderObjectFactory.getInstance(newSupplier(false));
+		Assert.assertEquals(Utf8String.class, utf8.getType());
+		Assert.assertEquals(AccessFlags.class, flags.getType());
+		Assert.assertTrue(utf8.isCompatibleTag((byte) 0x0C));
+		Assert.assertFalse(flags.isCompatibleTag((byte) 0x0C));
+		Assert.assertTrue(flags.newInstance() instanceof AccessFlags);
+	}
+
+	private static Supplier<DecoderObject> newSupplier(final boolean utf8) {
+		return () -> utf8 ? new Utf8String() : new AccessFlags();
+	}
+
 }
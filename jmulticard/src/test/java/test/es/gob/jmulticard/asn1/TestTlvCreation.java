@@ -8,6 +8,7 @@ import org.junit.Assert;
 
 import es.gob.jmulticard.HexUtils;
 import es.gob.jmulticard.asn1.Tlv;
+import es.gob.jmulticard.asn1.TlvException;
 import junit.framework.TestCase;
 
 /** Prueba de creaci&oacute;n de TLV.
@@ -56,6 +57,53 @@ public class TestTlvCreation extends TestCase {
         }
     }
 
+    /** Prueba la obtenci&oacute;n de los elementos de un TLV compuesto sin copias.
+     * @throws Exception en caso de cualquier tipo de error */
+    public static void testValueTlvViews() throws Exception {
+    	final byte[] value = new byte[300];
+    	for (int i = 0; i < value.length; i++) {
+    		value[i] = (byte) i;
+    	}
+    	final byte[] longElement = new Tlv((byte) 0x04, value).getBytes();
+    	final byte[] sequence = new Tlv(
+			(byte) 0x30,
+			HexUtils.concatenateByteArrays(
+				new byte[] { (byte) 0x02, (byte) 0x01, (byte) 0x05 },
+				longElement
+			)
+		).getBytes();
+
+    	final Tlv tlv = new Tlv(sequence);
+    	assertEquals(sequence.length, tlv.getTotalLength());
+
+    	final Tlv first = tlv.getValueTlvAt(0);
+    	assertEquals((byte) 0x02, first.getTag());
+    	assertEquals(3, first.getTotalLength());
+    	Assert.assertArrayEquals(new byte[] { (byte) 0x05 }, first.getValue());
+
+    	final Tlv second = tlv.getValueTlvAt(first.getTotalLength());
+    	assertEquals((byte) 0x04, second.getTag());
+    	Assert.assertArrayEquals(longElement, second.getBytes());
+    	Assert.assertArrayEquals(value, second.getValue());
+
+    	try {
+    		tlv.getValueTlvAt(first.getTotalLength() + second.getTotalLength());
+    		fail("Deberia fallar al pedir un TLV fuera del valor"); //$NON-NLS-1$
+    	}
+    	catch (final TlvException e) {
+    		// Correcto
+    	}
+
+    	// Un TLV truncado no debe poder crearse
+    	try {
+    		new Tlv(HexUtils.subArray(sequence, 0, sequence.length - 1));
+    		fail("Deberia fallar con un TLV truncado"); //$NON-NLS-1$
+    	}
+    	catch (final TlvException e) {
+    		// Correcto
+    	}
+    }
+
     /** Lee un flujo de datos de entrada y los recupera en forma de array de
      * bytes. Este m&eacute;todo consume pero no cierra el flujo de datos de
      * entrada.
@@ -0,0 +1,99 @@
+package test.es.gob.jmulticard.card;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import es.gob.jmulticard.card.Atr;
+import es.gob.jmulticard.card.AtrRegistry;
+import es.gob.jmulticard.card.Card;
+import es.gob.jmulticard.card.dnie.Dnie;
+import es.gob.jmulticard.card.dnie.Dnie3;
+import es.gob.jmulticard.card.dnie.DnieNfc;
+import es.gob.jmulticard.card.dnie.ceressc.CeresSc;
+import es.gob.jmulticard.card.fnmt.ceres.Ceres;
+import es.gob.jmulticard.card.gide.smartcafe.SmartCafePkcs15Applet;
+
+/** Pruebas del registro de ATR.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestAtrRegistry {
+
+	private static final byte[] DNIE_ATR = {
+		(byte) 0x3B, (byte) 0x7F, (byte) 0x38, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x6A, (byte) 0x44, (byte) 0x4E, (byte) 0x49,
+		(byte) 0x65, (byte) 0x10, (byte) 0x02, (byte) 0x4C, (byte) 0x34, (byte) 0x01, (byte) 0x13, (byte) 0x03, (byte) 0x90, (byte) 0x00
+	};
+
+	private static final byte[] DNIE3_ATR = {
+		(byte) 0x3B, (byte) 0x7F, (byte) 0x96, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x6A, (byte) 0x44, (byte) 0x4E, (byte) 0x49,
+		(byte) 0x65, (byte) 0x10, (byte) 0x02, (byte) 0x4C, (byte) 0x34, (byte) 0x04, (byte) 0x13, (byte) 0x03, (byte) 0x90, (byte) 0x00
+	};
+
+	private static final byte[] DNIE_NFC_ATR = {
+		(byte) 0x3B, (byte) 0x88, (byte) 0x80, (byte) 0x01, (byte) 0xE1, (byte) 0xF3, (byte) 0x5E, (byte) 0x11, (byte) 0x77, (byte) 0x81,
+		(byte) 0xA1, (byte) 0x00, (byte) 0x03
+	};
+
+	private static final byte[] CERES_430_ATR = {
+		(byte) 0x3B, (byte) 0x7F, (byte) 0x96, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x6A, (byte) 0x46, (byte) 0x4E, (byte) 0x4D,
+		(byte) 0x54, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x04, (byte) 0x30, (byte) 0x03, (byte) 0x90, (byte) 0x00
+	};
+
+	private static final byte[] CERES_TC_ATR = {
+		(byte) 0x3B, (byte) 0x7F, (byte) 0x96, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x6A, (byte) 0x46, (byte) 0x4E, (byte) 0x4D,
+		(byte) 0x54, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x03, (byte) 0x10, (byte) 0x03, (byte) 0x90, (byte) 0x00
+	};
+
+	private static final byte[] SMARTCAFE_MSC_ATR = {
+		(byte) 0x3b, (byte) 0x80, (byte) 0x80, (byte) 0x01, (byte) 0x01
+	};
+
+	/** Comprueba la identificaci&oacute;n de las tarjetas soportadas. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testClassify() {
+		final AtrRegistry registry = AtrRegistry.getInstance();
+		Assert.assertEquals(Dnie.class, registry.classify(DNIE_ATR));
+		Assert.assertEquals(Dnie3.class, registry.classify(DNIE3_ATR));
+		Assert.assertEquals(DnieNfc.class, registry.classify(DNIE_NFC_ATR));
+		Assert.assertEquals(CeresSc.class, registry.classify(CERES_430_ATR));
+		Assert.assertEquals(Ceres.class, registry.classify(CERES_TC_ATR));
+		Assert.assertEquals(SmartCafePkcs15Applet.class, registry.classify(SMARTCAFE_MSC_ATR));
+		Assert.assertNull(
+			registry.classify(
+				new byte[] {
+					(byte) 0x3B, (byte) 0x6E, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x31, (byte) 0xC0, (byte) 0x71,
+					(byte) 0xD6, (byte) 0x65, (byte) 0x11, (byte) 0x22, (byte) 0x33, (byte) 0x01, (byte) 0x90, (byte) 0x00
+				}
+			)
+		);
+		Assert.assertNull(registry.classify(new byte[0]));
+		Assert.assertNull(registry.classify(null));
+	}
+
+	/** Comprueba que un registro propio respeta el orden de registro y las condiciones. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testCustomRegistry() {
+		final Atr anyT0 = new Atr(
+			new byte[] { (byte) 0x3B, (byte) 0x00, (byte) 0x01 },
+			new byte[] { (byte) 0xFF, (byte) 0x00, (byte) 0xFF }
+		);
+		final AtrRegistry registry = new AtrRegistry.Builder()
+			.register(
+				Dnie3.class,
+				anyT0,
+				new AtrRegistry.AtrCondition() {
+					@Override
+					public boolean accept(final byte[] atr) {
+						return atr[1] == (byte) 0x80;
+					}
+				}
+			)
+			.register(Dnie.class, anyT0)
+			.build();
+		final Class<? extends Card> dnie3 = registry.classify(new byte[] { (byte) 0x3B, (byte) 0x80, (byte) 0x01 });
+		Assert.assertEquals(Dnie3.class, dnie3);
+		Assert.assertEquals(Dnie.class, registry.classify(new byte[] { (byte) 0x3B, (byte) 0x81, (byte) 0x01 }));
+		Assert.assertTrue(registry.isCardType(new byte[] { (byte) 0x3B, (byte) 0x7F, (byte) 0x01 }, Dnie.class));
+		Assert.assertNull(registry.classify(new byte[] { (byte) 0x3B, (byte) 0x80, (byte) 0x02 }));
+	}
+}
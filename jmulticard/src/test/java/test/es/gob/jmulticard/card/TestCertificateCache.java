@@ -0,0 +1,83 @@
+package test.es.gob.jmulticard.card;
+
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import es.gob.jmulticard.card.CertificateCacheEntry;
+import es.gob.jmulticard.card.MemoryCertificateCache;
+
+/** Pruebas del almac&eacute;n acotado de certificados en memoria.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestCertificateCache {
+
+	private static CertificateCacheEntry createEntry(final String... aliases) {
+		final Map<String, X509Certificate> certs = new LinkedHashMap<>();
+		final Map<String, Integer> keyRefs = new LinkedHashMap<>();
+		for (int i = 0; i < aliases.length; i++) {
+			certs.put(aliases[i], null);
+			keyRefs.put(aliases[i], Integer.valueOf(i));
+		}
+		return new CertificateCacheEntry(certs, keyRefs);
+	}
+
+	/** Comprueba los contadores de aciertos y fallos y que cada tarjeta tiene su propia entrada.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testHitsAndMisses() throws Exception {
+		final MemoryCertificateCache<CertificateCacheEntry> cache = new MemoryCertificateCache<>(4, 1, TimeUnit.HOURS);
+		Assert.assertNull(cache.get("A")); //$NON-NLS-1$
+		cache.put("A", createEntry("FIRMA", "AUTENTICACION")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		cache.put("B", createEntry("OTRO")); //$NON-NLS-1$ //$NON-NLS-2$
+
+		final CertificateCacheEntry a = cache.get("A"); //$NON-NLS-1$
+		Assert.assertNotNull(a);
+		Assert.assertArrayEquals(
+			new String[] { "FIRMA", "AUTENTICACION" }, //$NON-NLS-1$ //$NON-NLS-2$
+			a.getAliases().toArray(new String[0])
+		);
+		Assert.assertEquals(Integer.valueOf(1), a.getKeyReferences().get("AUTENTICACION")); //$NON-NLS-1$
+		Assert.assertEquals(1, cache.get("B").getAliases().size()); //$NON-NLS-1$
+
+		Assert.assertEquals(2, cache.getHitCount());
+		Assert.assertEquals(1, cache.getMissCount());
+	}
+
+	/** Comprueba que al llenarse el almac&eacute;n se descarta la tarjeta usada hace m&aacute;s tiempo.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testSizeEviction() throws Exception {
+		final MemoryCertificateCache<CertificateCacheEntry> cache = new MemoryCertificateCache<>(2, 1, TimeUnit.HOURS);
+		cache.put("A", createEntry("A1")); //$NON-NLS-1$ //$NON-NLS-2$
+		cache.put("B", createEntry("B1")); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertNotNull(cache.get("A")); //$NON-NLS-1$
+		cache.put("C", createEntry("C1")); //$NON-NLS-1$ //$NON-NLS-2$
+
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals(1, cache.getEvictionCount());
+		Assert.assertNull(cache.get("B")); //$NON-NLS-1$
+		Assert.assertNotNull(cache.get("A")); //$NON-NLS-1$
+		Assert.assertNotNull(cache.get("C")); //$NON-NLS-1$
+	}
+
+	/** Comprueba que las entradas caducan al superar su tiempo de vida.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testTtlEviction() throws Exception {
+		final MemoryCertificateCache<CertificateCacheEntry> cache = new MemoryCertificateCache<>(4, 50, TimeUnit.MILLISECONDS);
+		cache.put("A", createEntry("A1")); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertNotNull(cache.get("A")); //$NON-NLS-1$
+		Thread.sleep(100);
+		Assert.assertNull(cache.get("A")); //$NON-NLS-1$
+		Assert.assertEquals(0, cache.size());
+		Assert.assertEquals(1, cache.getEvictionCount());
+		Assert.assertEquals(1, cache.getMissCount());
+	}
+}
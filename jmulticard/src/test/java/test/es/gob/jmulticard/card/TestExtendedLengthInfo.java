@@ -0,0 +1,61 @@
+package test.es.gob.jmulticard.card;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import es.gob.jmulticard.card.iso7816four.ExtendedLengthInfo;
+
+/** Pruebas de la detecci&oacute;n de soporte de APDU de longitud extendida.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestExtendedLengthInfo {
+
+	/** Prueba la detecci&oacute;n a partir del ATR. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testAtr() {
+		// ATR de DNIe 3.0, sin capacidades declaradas
+		Assert.assertEquals(
+			ExtendedLengthInfo.SHORT_LENGTH_ONLY,
+			ExtendedLengthInfo.getMaxResponseDataSizeFromAtr(
+				new byte[] {
+					(byte) 0x3B, (byte) 0x7F, (byte) 0x96, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x6A, (byte) 0x44,
+					(byte) 0x4E, (byte) 0x49, (byte) 0x65, (byte) 0x10, (byte) 0x02, (byte) 0x4C, (byte) 0x34, (byte) 0x01,
+					(byte) 0x13, (byte) 0x03, (byte) 0x90, (byte) 0x00
+				}
+			)
+		);
+		// ATR con capacidades '73' que declaran Lc y Le extendidos
+		Assert.assertTrue(
+			ExtendedLengthInfo.getMaxResponseDataSizeFromAtr(
+				new byte[] {
+					(byte) 0x3B, (byte) 0x85, (byte) 0x80, (byte) 0x01, (byte) 0x80, (byte) 0x73, (byte) 0xC8, (byte) 0x21,
+					(byte) 0x40, (byte) 0x00
+				}
+			) > 0x100
+		);
+	}
+
+	/** Prueba la detecci&oacute;n a partir del EF.ATR/INFO. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testAtrInfo() {
+		Assert.assertEquals(
+			0x0800,
+			ExtendedLengthInfo.getMaxResponseDataSizeFromAtrInfo(
+				new byte[] {
+					(byte) 0x47, (byte) 0x03, (byte) 0xD0, (byte) 0xA0, (byte) 0x40, (byte) 0x7F, (byte) 0x66, (byte) 0x08,
+					(byte) 0x02, (byte) 0x02, (byte) 0x08, (byte) 0x00, (byte) 0x02, (byte) 0x02, (byte) 0x08, (byte) 0x00,
+					(byte) 0x4F, (byte) 0x00
+				}
+			)
+		);
+		Assert.assertEquals(
+			ExtendedLengthInfo.SHORT_LENGTH_ONLY,
+			ExtendedLengthInfo.getMaxResponseDataSizeFromAtrInfo(
+				new byte[] {
+					(byte) 0x47, (byte) 0x03, (byte) 0xD0, (byte) 0xA0, (byte) 0x00
+				}
+			)
+		);
+	}
+}
@@ -0,0 +1,120 @@
+package test.es.gob.jmulticard.card;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import es.gob.jmulticard.card.LazyCertificates;
+import es.gob.jmulticard.card.Location;
+
+/** Pruebas de los certificados de lectura diferida.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestLazyCertificates {
+
+	private static final Location GOOD = new Location("50156001"); //$NON-NLS-1$
+	private static final Location BAD = new Location("50156002"); //$NON-NLS-1$
+
+	/** Lector que cuenta las lecturas y solo sabe leer el certificado de la ruta <code>GOOD</code>. */
+	private static final class CountingReader implements LazyCertificates.CertificateReader {
+
+		final AtomicInteger reads = new AtomicInteger();
+
+		/** Lecturas de la ruta <code>GOOD</code> que a&uacute;n fallar&aacute;n (errores transitorios). */
+		final AtomicInteger transientFailures = new AtomicInteger();
+
+		private final X509Certificate cert;
+
+		CountingReader() throws IOException, CertificateException {
+			try (InputStream is = TestLazyCertificates.class.getResourceAsStream("/DNICERT.cer")) { //$NON-NLS-1$
+				cert = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(is); //$NON-NLS-1$
+			}
+		}
+
+		@Override
+		public X509Certificate readCertificate(final Location location) throws IOException {
+			reads.incrementAndGet();
+			if (location.toString().equals(GOOD.toString()) && transientFailures.getAndDecrement() <= 0) {
+				return cert;
+			}
+			throw new IOException("Ruta inexistente: " + location); //$NON-NLS-1$
+		}
+	}
+
+	/** Comprueba que los certificados solo se leen al pedirse y una &uacute;nica vez.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testReadOnDemand() throws Exception {
+		final CountingReader reader = new CountingReader();
+		final LazyCertificates certs = new LazyCertificates(new ReentrantLock(), reader);
+		certs.add("FIRMA", GOOD); //$NON-NLS-1$
+		certs.add("ROTO", BAD); //$NON-NLS-1$
+
+		Assert.assertArrayEquals(new String[] { "FIRMA", "ROTO" }, certs.getAliases()); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertEquals(0, reader.reads.get());
+		Assert.assertFalse(certs.isFullyLoaded());
+
+		Assert.assertNotNull(certs.get("FIRMA")); //$NON-NLS-1$
+		Assert.assertNotNull(certs.get("FIRMA")); //$NON-NLS-1$
+		Assert.assertEquals(1, reader.reads.get());
+
+		// Un certificado que no se puede leer se vuelve a intentar en cada peticion
+		Assert.assertNull(certs.get("ROTO")); //$NON-NLS-1$
+		Assert.assertNull(certs.get("ROTO")); //$NON-NLS-1$
+		Assert.assertEquals(3, reader.reads.get());
+
+		Assert.assertNull(certs.get("DESCONOCIDO")); //$NON-NLS-1$
+		Assert.assertFalse(certs.isFullyLoaded());
+		Assert.assertEquals(1, certs.getLoaded().size());
+	}
+
+	/** Comprueba que un error transitorio de lectura no impide leer el certificado m&aacute;s
+	 * adelante.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testTransientFailureIsRetried() throws Exception {
+		final CountingReader reader = new CountingReader();
+		reader.transientFailures.set(1);
+		final LazyCertificates certs = new LazyCertificates(new ReentrantLock(), reader);
+		certs.add("FIRMA", GOOD); //$NON-NLS-1$
+
+		final Thread prefetch = certs.prefetch("Prueba"); //$NON-NLS-1$
+		prefetch.join(5000);
+		Assert.assertEquals(1, reader.reads.get());
+		Assert.assertFalse(certs.isFullyLoaded());
+		Assert.assertTrue(certs.getLoaded().isEmpty());
+
+		Assert.assertNotNull(certs.get("FIRMA")); //$NON-NLS-1$
+		Assert.assertEquals(2, reader.reads.get());
+		Assert.assertTrue(certs.isFullyLoaded());
+	}
+
+	/** Comprueba que la precarga en segundo plano lee todos los certificados pendientes.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testPrefetch() throws Exception {
+		final CountingReader reader = new CountingReader();
+		final LazyCertificates certs = new LazyCertificates(new ReentrantLock(), reader);
+		certs.add("FIRMA", GOOD); //$NON-NLS-1$
+		certs.add("ROTO", BAD); //$NON-NLS-1$
+
+		final Thread prefetch = certs.prefetch("Prueba"); //$NON-NLS-1$
+		Assert.assertTrue(prefetch.isDaemon());
+		prefetch.join(5000);
+
+		// La precarga intenta leer cada certificado una vez, y los que fallan siguen pendientes
+		Assert.assertEquals(2, reader.reads.get());
+		Assert.assertFalse(certs.isFullyLoaded());
+		Assert.assertNotNull(certs.get("FIRMA")); //$NON-NLS-1$
+		Assert.assertEquals(2, reader.reads.get());
+	}
+}
@@ -0,0 +1,85 @@
+package test.es.gob.jmulticard.icao;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import es.gob.jmulticard.apdu.iso7816four.pace.MseSetPaceAlgorithmApduCommand.PaceAlgorithmOid;
+import es.gob.jmulticard.apdu.iso7816four.pace.MseSetPaceAlgorithmApduCommand.PaceAlgorithmParam;
+import es.gob.jmulticard.asn1.Tlv;
+import es.gob.jmulticard.asn1.icao.PaceInfo;
+import es.gob.jmulticard.asn1.icao.SecurityInfos;
+
+/** Pruebas de an&aacute;lisis de <code>SecurityInfos</code> (EF&#46;CardAccess y DG14).
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestSecurityInfos {
+
+	/** EF&#46;CardAccess con PACE-GM y PACE-CAM sobre brainpoolP256r1, PACE-IM sin par&aacute;metros
+	 * estandarizados, un protocolo desconocido y PACE-GM con par&aacute;metros no soportados. */
+	private static final byte[] CARD_ACCESS = {
+		(byte) 0x31, (byte) 0x5c, (byte) 0x30, (byte) 0x12, (byte) 0x06, (byte) 0x0a, (byte) 0x04, (byte) 0x00,
+		(byte) 0x7f, (byte) 0x00, (byte) 0x07, (byte) 0x02, (byte) 0x02, (byte) 0x04, (byte) 0x02, (byte) 0x02,
+		(byte) 0x02, (byte) 0x01, (byte) 0x02, (byte) 0x02, (byte) 0x01, (byte) 0x0d, (byte) 0x30, (byte) 0x12,
+		(byte) 0x06, (byte) 0x0a, (byte) 0x04, (byte) 0x00, (byte) 0x7f, (byte) 0x00, (byte) 0x07, (byte) 0x02,
+		(byte) 0x02, (byte) 0x04, (byte) 0x06, (byte) 0x02, (byte) 0x02, (byte) 0x01, (byte) 0x02, (byte) 0x02,
+		(byte) 0x01, (byte) 0x0d, (byte) 0x30, (byte) 0x0f, (byte) 0x06, (byte) 0x0a, (byte) 0x04, (byte) 0x00,
+		(byte) 0x7f, (byte) 0x00, (byte) 0x07, (byte) 0x02, (byte) 0x02, (byte) 0x04, (byte) 0x04, (byte) 0x02,
+		(byte) 0x02, (byte) 0x01, (byte) 0x02, (byte) 0x30, (byte) 0x0d, (byte) 0x06, (byte) 0x08, (byte) 0x04,
+		(byte) 0x00, (byte) 0x7f, (byte) 0x00, (byte) 0x07, (byte) 0x02, (byte) 0x02, (byte) 0x06, (byte) 0x02,
+		(byte) 0x01, (byte) 0x01, (byte) 0x30, (byte) 0x12, (byte) 0x06, (byte) 0x0a, (byte) 0x04, (byte) 0x00,
+		(byte) 0x7f, (byte) 0x00, (byte) 0x07, (byte) 0x02, (byte) 0x02, (byte) 0x04, (byte) 0x02, (byte) 0x02,
+		(byte) 0x02, (byte) 0x01, (byte) 0x02, (byte) 0x02, (byte) 0x01, (byte) 0x0c
+	};
+
+	/** DG14 con un protocolo desconocido y la clave ECDH de autenticaci&oacute;n de chip. */
+	private static final byte[] DG14 = {
+		(byte) 0x6e, (byte) 0x7a, (byte) 0x31, (byte) 0x78, (byte) 0x30, (byte) 0x0d, (byte) 0x06, (byte) 0x08,
+		(byte) 0x04, (byte) 0x00, (byte) 0x7f, (byte) 0x00, (byte) 0x07, (byte) 0x02, (byte) 0x02, (byte) 0x06,
+		(byte) 0x02, (byte) 0x01, (byte) 0x01, (byte) 0x30, (byte) 0x67, (byte) 0x06, (byte) 0x09, (byte) 0x04,
+		(byte) 0x00, (byte) 0x7f, (byte) 0x00, (byte) 0x07, (byte) 0x02, (byte) 0x02, (byte) 0x01, (byte) 0x02,
+		(byte) 0x30, (byte) 0x5a, (byte) 0x30, (byte) 0x14, (byte) 0x06, (byte) 0x07, (byte) 0x2a, (byte) 0x86,
+		(byte) 0x48, (byte) 0xce, (byte) 0x3d, (byte) 0x02, (byte) 0x01, (byte) 0x06, (byte) 0x09, (byte) 0x2b,
+		(byte) 0x24, (byte) 0x03, (byte) 0x03, (byte) 0x02, (byte) 0x08, (byte) 0x01, (byte) 0x01, (byte) 0x07,
+		(byte) 0x03, (byte) 0x42, (byte) 0x00, (byte) 0x04, (byte) 0x8b, (byte) 0xd2, (byte) 0xae, (byte) 0xb9,
+		(byte) 0xcb, (byte) 0x7e, (byte) 0x57, (byte) 0xcb, (byte) 0x2c, (byte) 0x4b, (byte) 0x48, (byte) 0x2f,
+		(byte) 0xfc, (byte) 0x81, (byte) 0xb7, (byte) 0xaf, (byte) 0xb9, (byte) 0xde, (byte) 0x27, (byte) 0xe1,
+		(byte) 0xe3, (byte) 0xbd, (byte) 0x23, (byte) 0xc2, (byte) 0x3a, (byte) 0x44, (byte) 0x53, (byte) 0xbd,
+		(byte) 0x9a, (byte) 0xce, (byte) 0x32, (byte) 0x62, (byte) 0x54, (byte) 0x7e, (byte) 0xf8, (byte) 0x35,
+		(byte) 0xc3, (byte) 0xda, (byte) 0xc4, (byte) 0xfd, (byte) 0x97, (byte) 0xf8, (byte) 0x46, (byte) 0x1a,
+		(byte) 0x14, (byte) 0x61, (byte) 0x1d, (byte) 0xc9, (byte) 0xc2, (byte) 0x77, (byte) 0x45, (byte) 0x13,
+		(byte) 0x2d, (byte) 0xed, (byte) 0x8e, (byte) 0x54, (byte) 0x5c, (byte) 0x1d, (byte) 0x54, (byte) 0xc7,
+		(byte) 0x2f, (byte) 0x04, (byte) 0x69, (byte) 0x97
+	};
+
+	/** Comprueba que del EF&#46;CardAccess solo se obtienen los algoritmos PACE soportados, en orden.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testCardAccess() throws Exception {
+		final SecurityInfos cardAccess = new SecurityInfos();
+		cardAccess.setDerValue(CARD_ACCESS);
+		final List<PaceInfo> paceInfos = cardAccess.getPaceInfos();
+		Assert.assertEquals(2, paceInfos.size());
+		Assert.assertEquals(PaceAlgorithmOid.PACE_ECDH_GM_AES_CBC_CMAC_128, paceInfos.get(0).getAlgorithm());
+		Assert.assertEquals(PaceAlgorithmOid.PACE_ECDH_CAM_AES_CBC_CMAC_128, paceInfos.get(1).getAlgorithm());
+		Assert.assertEquals(PaceAlgorithmParam.BRAINPOOL_256_R1, paceInfos.get(1).getParameter());
+		Assert.assertEquals(2, paceInfos.get(1).getVersion());
+		Assert.assertNull(cardAccess.getChipAuthenticationPublicKey());
+	}
+
+	/** Comprueba que se obtiene la clave de autenticaci&oacute;n de chip del DG14.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testDg14() throws Exception {
+		final SecurityInfos dg14 = new SecurityInfos();
+		dg14.setDerValue(new Tlv(DG14).getValue());
+		Assert.assertTrue(dg14.getPaceInfos().isEmpty());
+		final byte[] key = dg14.getChipAuthenticationPublicKey();
+		Assert.assertNotNull(key);
+		Assert.assertEquals(65, key.length);
+		Assert.assertEquals((byte) 0x04, key[0]);
+		Assert.assertEquals((byte) 0x97, key[64]);
+	}
+}
@@ -1,59 +1,143 @@
 package test.es.gob.jmulticard.icao;
 
+import java.io.IOException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
 import org.junit.Test;
 
 import es.gob.jmulticard.card.icao.vdsned.Vdsned;
+import es.gob.jmulticard.card.icao.vdsned.VdsnedBatchMetrics;
+import es.gob.jmulticard.card.icao.vdsned.VdsnedBatchVerifier;
+import es.gob.jmulticard.card.icao.vdsned.VdsnedVerificationResult;
 
 /** Pruebas de <i>Visible Digital Seals for Non-Electronic Documents</i> de ICAO.
  * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
 public final class TestVdsned {
 
-	private static final byte[] SAMPLE = {
-
-		// Cabecera
-		(byte) 0xdc, // Magic
-		(byte) 0x03, // Version 4
-		(byte) 0xd9, (byte) 0xc5, // Pais = UTO (Utopia)
-		(byte) 0x6d, (byte) 0x15, (byte) 0x22, (byte) 0x4c, (byte) 0x5a, (byte) 0x8c, // Certificate Authority and Certificate Reference (DE01FFAFF)
-		(byte) 0x31, (byte) 0x9f, (byte) 0x27, // Document Issue Date (25th of March, 2007)
-		(byte) 0x31, (byte) 0xc6, (byte) 0x37, // Signature Creation Date (26th of March, 2007)
-		(byte) 0x5d, // Document Feature Definition Reference (93)
-		(byte) 0x01, // Document Type Category (1)
-
-		// Mensaje
-		(byte) 0x02, (byte) 0x2c, (byte) 0xdd, (byte) 0x52, (byte) 0x13, (byte) 0x4a, (byte) 0x74, (byte) 0xda, // MRZ-B, linea 1
-		(byte) 0x13, (byte) 0x47, (byte) 0xc6, (byte) 0xfe, (byte) 0xd9, (byte) 0x5c, (byte) 0xb8, (byte) 0x9f,
-		(byte) 0x9f, (byte) 0xce, (byte) 0x13, (byte) 0x3c, (byte) 0x13, (byte) 0x3c, (byte) 0x13, (byte) 0x3c,
-
-		(byte) 0x13, (byte) 0x3c, (byte) 0x20, (byte) 0x38, (byte) 0x33, (byte) 0x73, (byte) 0x4a, (byte) 0xaf, // MRZ-B, linea 2
-		(byte) 0x47, (byte) 0xf0, (byte) 0xc3, (byte) 0x2f, (byte) 0x1a, (byte) 0x1e, (byte) 0x20, (byte) 0xeb,
-		(byte) 0x26, (byte) 0x25, (byte) 0x39, (byte) 0x3a, (byte) 0xfe, (byte) 0x31,
-
-		(byte) 0x03, (byte) 0x01, (byte) 0x02, // Numero de entradas (2)
-
-		(byte) 0x04, (byte) 0x03, (byte) 0x5a, (byte) 0x00, (byte) 0x00, // Duracion (90 dias)
-
-		(byte) 0x05, (byte) 0x06, (byte) 0x59, (byte) 0xe9, (byte) 0x32, (byte) 0xf9, (byte) 0x26, (byte) 0xc7, // Numero de pasaporte
-
-		// Firma
-		(byte) 0xff, (byte) 0x40,
-		(byte) 0x56, (byte) 0xbc, (byte) 0xbf, (byte) 0xed, (byte) 0xfd, (byte) 0x2d, (byte) 0xc8, (byte) 0x84,
-		(byte) 0x24, (byte) 0x74, (byte) 0x26, (byte) 0xa2, (byte) 0x40, (byte) 0xa7, (byte) 0x06, (byte) 0x8d,
-		(byte) 0x32, (byte) 0xb3, (byte) 0x7c, (byte) 0x6c, (byte) 0xe3, (byte) 0x70, (byte) 0xae, (byte) 0xea,
-		(byte) 0xb6, (byte) 0x2b, (byte) 0x54, (byte) 0x8b, (byte) 0x5f, (byte) 0xcc, (byte) 0x16, (byte) 0xfa,
-		(byte) 0x6a, (byte) 0x09, (byte) 0x8c, (byte) 0xa7, (byte) 0x4c, (byte) 0xb2, (byte) 0x25, (byte) 0x59,
-		(byte) 0x43, (byte) 0x5f, (byte) 0xd4, (byte) 0xdb, (byte) 0xde, (byte) 0x70, (byte) 0x9b, (byte) 0x45,
-		(byte) 0xf6, (byte) 0xfc, (byte) 0x4c, (byte) 0x85, (byte) 0x0d, (byte) 0xa4, (byte) 0x21, (byte) 0xa6,
-		(byte) 0xe7, (byte) 0x5c, (byte) 0xd0, (byte) 0x5a, (byte) 0x88, (byte) 0x70, (byte) 0x7c, (byte) 0xbb
-	};
+	private static final int BATCH_SIZE = 400;
 
 	/** Prueba simple de creaci&oacute;n de un <i>Visible Digital Seals for Non-Electronic Documents</i> de ICAO.
 	 * @throws Exception En cualquier error. */
 	@SuppressWarnings("static-method")
 	@Test
 	public void testVdsned() throws Exception {
-		final Vdsned vdsned = new Vdsned(SAMPLE);
+		final Vdsned vdsned = new Vdsned(VdsnedSamples.getSample());
 		System.out.println(vdsned);
 	}
 
+	/** Verifica en paralelo un lote de sellos firmados en la propia prueba, con sellos
+	 * v&aacute;lidos, alterados, mal formados y de firmante desconocido.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testBatchVerification() throws Exception {
+		final KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC"); //$NON-NLS-1$
+		kpg.initialize(new ECGenParameterSpec("secp256r1")); //$NON-NLS-1$
+		final KeyPair kp = kpg.generateKeyPair();
+
+		final String caCr = new Vdsned(VdsnedSamples.getSample()).getCaCr();
+
+		final List<byte[]> seals = new ArrayList<>(BATCH_SIZE);
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			final byte[] tbs = VdsnedSamples.getSampleTbs();
+			// Numero de entradas distinto en cada sello
+			tbs[tbs.length - 14] = (byte) i;
+			final byte[] seal = VdsnedSamples.sign(tbs, kp);
+			if (i % 10 == 3) {
+				// Sello alterado tras la firma
+				seal[tbs.length - 14] ^= 0x01;
+			}
+			else if (i % 10 == 7) {
+				// Sello mal formado
+				seal[0] = 0x00;
+			}
+			seals.add(seal);
+		}
+
+		try (VdsnedBatchVerifier verifier = new VdsnedBatchVerifier(4, null)) {
+
+			// Sin el firmante registrado ningun sello bien formado se puede verificar
+			List<VdsnedVerificationResult> results = verifier.verify(seals);
+			for (final VdsnedVerificationResult result : results) {
+				Assert.assertNotEquals(VdsnedVerificationResult.Status.VALID, result.getStatus());
+			}
+
+			verifier.registerSignerKey(caCr, kp.getPublic());
+			results = verifier.verify(seals);
+			Assert.assertEquals(BATCH_SIZE, results.size());
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				final VdsnedVerificationResult result = results.get(i);
+				Assert.assertEquals(i, result.getIndex());
+				final VdsnedVerificationResult.Status expected =
+					i % 10 == 3 ? VdsnedVerificationResult.Status.INVALID_SIGNATURE :
+						i % 10 == 7 ? VdsnedVerificationResult.Status.MALFORMED :
+							VdsnedVerificationResult.Status.VALID;
+				Assert.assertEquals(result.toString(), expected, result.getStatus());
+				if (result.isValid()) {
+					Assert.assertTrue(
+						result.getVdsned().toString().contains("Numero de entradas: " + (i & 0xff) + '\n') //$NON-NLS-1$
+					);
+				}
+			}
+
+			final VdsnedBatchMetrics metrics = verifier.getMetrics();
+			System.out.println(metrics);
+			Assert.assertEquals(2, metrics.getBatchCount());
+			Assert.assertEquals(2L * BATCH_SIZE, metrics.getSealCount());
+			Assert.assertEquals(BATCH_SIZE * 8 / 10, metrics.getValidCount());
+			Assert.assertEquals(BATCH_SIZE / 10, metrics.getInvalidSignatureCount());
+			Assert.assertEquals(BATCH_SIZE * 9 / 10, metrics.getUnknownSignerCount());
+			Assert.assertEquals(2L * BATCH_SIZE / 10, metrics.getMalformedCount());
+			Assert.assertEquals(BATCH_SIZE * 9 / 10, metrics.getSignerCacheHitCount());
+			Assert.assertTrue(metrics.getSealsPerSecond() > 0);
+		}
+	}
+
+	/** Comprueba que el origen de certificados se consulta una sola vez por lote para un
+	 * firmante que no conoce, y que sus excepciones no comprobadas no interrumpen el lote.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testUnknownSignerLookedUpOncePerBatch() throws Exception {
+		final List<byte[]> seals = Collections.nCopies(BATCH_SIZE, VdsnedSamples.getSample());
+		final AtomicInteger lookups = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		final VdsnedBatchVerifier.SignerCertificateSource source = new VdsnedBatchVerifier.SignerCertificateSource() {
+			@Override
+			public X509Certificate getSignerCertificate(final String caCr) {
+				lookups.incrementAndGet();
+				if (failures.get() > 0) {
+					throw new IllegalStateException("Origen de certificados no disponible"); //$NON-NLS-1$
+				}
+				return null;
+			}
+		};
+		try (VdsnedBatchVerifier verifier = new VdsnedBatchVerifier(1, source)) {
+
+			// Firmante no encontrado
+			for (final VdsnedVerificationResult result : verifier.verify(seals)) {
+				Assert.assertEquals(VdsnedVerificationResult.Status.UNKNOWN_SIGNER, result.getStatus());
+				Assert.assertTrue(result.getError() instanceof IOException);
+			}
+			Assert.assertEquals(1, lookups.get());
+
+			// El origen falla con una excepcion no comprobada: se vuelve a consultar en el nuevo lote
+			failures.set(1);
+			for (final VdsnedVerificationResult result : verifier.verify(seals)) {
+				Assert.assertEquals(VdsnedVerificationResult.Status.UNKNOWN_SIGNER, result.getStatus());
+				Assert.assertTrue(result.getError().getCause() instanceof IllegalStateException);
+			}
+			Assert.assertEquals(2, lookups.get());
+			Assert.assertEquals(2L * BATCH_SIZE, verifier.getMetrics().getUnknownSignerCount());
+		}
+	}
+
 }